@@ -38,6 +38,9 @@ class AmbariClientCommon {
     static final String AMBARI_SERVICECONFIGS_URI =
                                     AMBARI_CLUSTERS_URI + "/%s/configurations/service_config_versions?is_current=true";
 
+    static final String AMBARI_DESIRED_CONFIGS_URI =
+                                    AMBARI_CLUSTERS_URI + "/%s?fields=Clusters/desired_configs";
+
     private RESTInvoker restClient;
 
 
@@ -67,6 +70,34 @@ class AmbariClientCommon {
     }
 
 
+    /**
+     * Request the tags of the desired configurations of the cluster, which change whenever a new version of a
+     * configuration type becomes active. This is much cheaper than requesting the service configurations.
+     *
+     * @return A Map of configuration types and their corresponding tags, or null if they could not be determined.
+     */
+    Map<String, String> getDesiredConfigTags(String clusterName, ServiceDiscoveryConfig config) {
+        String desiredConfigsURL = String.format(Locale.ROOT, "%s" + AMBARI_DESIRED_CONFIGS_URI, config.getAddress(), clusterName);
+
+        JSONObject desiredConfigsJSON = restClient.invoke(desiredConfigsURL, config.getUser(), config.getPasswordAlias());
+        if (desiredConfigsJSON == null) {
+            return null;
+        }
+
+        JSONObject clusterJSON = (JSONObject) desiredConfigsJSON.get("Clusters");
+        JSONObject desiredConfigs = clusterJSON == null ? null : (JSONObject) clusterJSON.get("desired_configs");
+        if (desiredConfigs == null) {
+            return null;
+        }
+
+        Map<String, String> tags = new HashMap<>();
+        for (Entry<String, Object> desiredConfig : desiredConfigs.entrySet()) {
+            tags.put(desiredConfig.getKey(), String.valueOf(((JSONObject) desiredConfig.getValue()).get("tag")));
+        }
+        return tags;
+    }
+
+
     Map<String, Map<String, AmbariCluster.ServiceConfiguration>> getActiveServiceConfigurations(String discoveryAddress,
                                                                                                 String clusterName,
                                                                                                 String discoveryUser,
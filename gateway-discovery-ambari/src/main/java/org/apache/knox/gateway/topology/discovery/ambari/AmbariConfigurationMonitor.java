@@ -17,6 +17,7 @@
 package org.apache.knox.gateway.topology.discovery.ambari;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.apache.knox.gateway.config.GatewayConfig;
 import org.apache.knox.gateway.i18n.messages.MessagesFactory;
 import org.apache.knox.gateway.services.security.AliasService;
@@ -29,13 +30,25 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -54,12 +67,26 @@ class AmbariConfigurationMonitor implements ClusterConfigurationMonitor {
 
     static final String INTERVAL_PROPERTY_NAME = "org.apache.knox.gateway.topology.discovery.ambari.monitor.interval";
 
+    static final String THREADS_PROPERTY_NAME = "org.apache.knox.gateway.topology.discovery.ambari.monitor.threads";
+
+    private static final int DEFAULT_POLLING_INTERVAL = 60;
+
+    private static final int DEFAULT_POLLING_THREADS = 4;
+
+    // The polling interval of a cluster doubles with every consecutive failure, up to this many intervals
+    private static final int MAX_BACKOFF_MULTIPLIER = 8;
+
+    // The polls of the clusters are spread by a random delay of up to this part of the interval
+    private static final int JITTER_DIVISOR = 10;
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+
     private static final AmbariServiceDiscoveryMessages log = MessagesFactory.get(AmbariServiceDiscoveryMessages.class);
 
     // Ambari address
     //    clusterName -> ServiceDiscoveryConfig
     //
-    Map<String, Map<String, ServiceDiscoveryConfig>> clusterMonitorConfigurations = new HashMap<>();
+    Map<String, Map<String, ServiceDiscoveryConfig>> clusterMonitorConfigurations = new ConcurrentHashMap<>();
 
     // Ambari address
     //    clusterName
@@ -69,11 +96,18 @@ class AmbariConfigurationMonitor implements ClusterConfigurationMonitor {
 
     ReadWriteLock configVersionsLock = new ReentrantReadWriteLock();
 
-    private List<ConfigurationChangeListener> changeListeners = new ArrayList<>();
+    private final List<ConfigurationChangeListener> changeListeners = new CopyOnWriteArrayList<>();
 
     private AmbariClientCommon ambariClient;
 
-    PollingConfigAnalyzer internalMonitor;
+    // Ambari address and clusterName -> poller
+    private final Map<List<String>, ClusterPoller> pollers = new ConcurrentHashMap<>();
+
+    private final AtomicReference<ScheduledExecutorService> scheduler = new AtomicReference<>();
+
+    // Polling interval in milliseconds
+    private final AtomicLong interval =
+                        new AtomicLong(TimeUnit.SECONDS.toMillis(Integer.getInteger(INTERVAL_PROPERTY_NAME, DEFAULT_POLLING_INTERVAL)));
 
     GatewayConfig gatewayConfig;
 
@@ -84,7 +118,6 @@ class AmbariConfigurationMonitor implements ClusterConfigurationMonitor {
     AmbariConfigurationMonitor(GatewayConfig config, AliasService aliasService, KeystoreService keystoreService) {
         this.gatewayConfig   = config;
         this.ambariClient    = new AmbariClientCommon(config, aliasService, keystoreService);
-        this.internalMonitor = new PollingConfigAnalyzer(this);
 
         // Override the default polling interval if it has been configured
         int interval = config.getClusterMonitorPollingInterval(getType());
@@ -97,7 +130,11 @@ class AmbariConfigurationMonitor implements ClusterConfigurationMonitor {
 
     @Override
     public void setPollingInterval(int interval) {
-        internalMonitor.setInterval(interval);
+        setPollingInterval(interval, TimeUnit.SECONDS);
+    }
+
+    void setPollingInterval(long interval, TimeUnit unit) {
+        this.interval.set(unit.toMillis(interval));
     }
 
     private void init() {
@@ -213,12 +250,26 @@ class AmbariConfigurationMonitor implements ClusterConfigurationMonitor {
         }
     }
 
+    /**
+     * Write the properties to a temporary file first and rename it to the destination, so readers never see a
+     * partially written file.
+     */
     private void persist(Properties props, File dest) {
-        try (OutputStream out = Files.newOutputStream(dest.toPath())) {
-            props.store(out, PERSISTED_FILE_COMMENT);
-            out.flush();
+        Path tempFile = null;
+        try {
+            tempFile = Files.createTempFile(dest.getAbsoluteFile().getParentFile().toPath(), dest.getName(), ".tmp");
+            try (OutputStream out = Files.newOutputStream(tempFile)) {
+                props.store(out, PERSISTED_FILE_COMMENT);
+                out.flush();
+            }
+            Files.move(tempFile, dest.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            tempFile = null;
         } catch (Exception e) {
             log.failedToPersistClusterMonitorData(getType(), dest.getAbsolutePath(), e);
+        } finally {
+            if (tempFile != null) {
+                FileUtils.deleteQuietly(tempFile.toFile());
+            }
         }
     }
 
@@ -265,17 +316,90 @@ class AmbariConfigurationMonitor implements ClusterConfigurationMonitor {
         } finally {
             configVersionsLock.writeLock().unlock();
         }
+
+        ClusterPoller poller = pollers.get(Arrays.asList(address, clusterName));
+        if (poller != null) {
+            // The recorded versions changed, so the desired configurations have to be compared again
+            poller.desiredConfigTags.set(null);
+        }
+        startPolling(address, clusterName);
     }
 
     @SuppressWarnings("PMD.DoNotUseThreads")
     @Override
     public void start() {
-        (new Thread(internalMonitor, "AmbariConfigurationMonitor")).start();
+        int threads = Integer.getInteger(THREADS_PROPERTY_NAME, DEFAULT_POLLING_THREADS);
+        ScheduledThreadPoolExecutor executor =
+                new ScheduledThreadPoolExecutor(threads,
+                                                new BasicThreadFactory.Builder().namingPattern("AmbariConfigurationMonitor-%d")
+                                                                                .daemon(true)
+                                                                                .build());
+        executor.setRemoveOnCancelPolicy(true);
+        if (!scheduler.compareAndSet(null, executor)) {
+            // Already started
+            executor.shutdown();
+            return;
+        }
+
+        log.startedAmbariConfigMonitor(TimeUnit.MILLISECONDS.toSeconds(interval.get()));
+
+        for (Entry<String, List<String>> entry : getClusterNames().entrySet()) {
+            for (String clusterName : entry.getValue()) {
+                startPolling(entry.getKey(), clusterName);
+            }
+        }
     }
 
     @Override
     public void stop() {
-        internalMonitor.stop();
+        ScheduledExecutorService executor = scheduler.getAndSet(null);
+        if (executor != null) {
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            pollers.clear();
+            log.stoppedAmbariConfigMonitor();
+        }
+    }
+
+    /**
+     * Schedule the polling of the specified cluster, unless the monitor is stopped or the cluster is already polled.
+     */
+    private void startPolling(String address, String clusterName) {
+        if (scheduler.get() != null) {
+            ClusterPoller poller = new ClusterPoller(address, clusterName);
+            if (pollers.putIfAbsent(poller.key, poller) == null) {
+                schedule(poller, getJitter());
+            }
+        }
+    }
+
+    private void schedule(ClusterPoller poller, long delay) {
+        ScheduledExecutorService executor = scheduler.get();
+        if (executor != null) {
+            try {
+                executor.schedule(poller, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // The monitor has been stopped concurrently
+            }
+        }
+    }
+
+    /**
+     * @param failures The number of consecutive failures to check the cluster.
+     *
+     * @return The delay, in milliseconds, until the next check of a cluster.
+     */
+    long getPollingDelay(int failures) {
+        long multiplier = Math.min(1L << Math.min(failures, 30), MAX_BACKOFF_MULTIPLIER);
+        return interval.get() * multiplier + getJitter();
+    }
+
+    private long getJitter() {
+        return ThreadLocalRandom.current().nextLong(interval.get() / JITTER_DIVISOR + 1);
     }
 
     @Override
@@ -296,7 +420,7 @@ class AmbariConfigurationMonitor implements ClusterConfigurationMonitor {
      * @param config      The associated service discovery configuration.
      */
     void addDiscoveryConfig(String clusterName, ServiceDiscoveryConfig config) {
-        clusterMonitorConfigurations.computeIfAbsent(config.getAddress(), k -> new HashMap<>()).put(clusterName, config);
+        clusterMonitorConfigurations.computeIfAbsent(config.getAddress(), k -> new ConcurrentHashMap<>()).put(clusterName, config);
     }
 
     /**
@@ -359,7 +483,10 @@ class AmbariConfigurationMonitor implements ClusterConfigurationMonitor {
         configVersionsLock.writeLock().lock();
         try {
             if (ambariClusterConfigVersions.containsKey(address)) {
-                result.putAll(ambariClusterConfigVersions.get(address).remove(clusterName));
+                Map<String, String> removed = ambariClusterConfigVersions.get(address).remove(clusterName);
+                if (removed != null) {
+                    result.putAll(removed);
+                }
             }
         } finally {
             configVersionsLock.writeLock().unlock();
@@ -388,7 +515,10 @@ class AmbariConfigurationMonitor implements ClusterConfigurationMonitor {
         configVersionsLock.readLock().lock();
         try {
             if (ambariClusterConfigVersions.containsKey(address)) {
-                result.putAll(ambariClusterConfigVersions.get(address).get(clusterName));
+                Map<String, String> configVersions = ambariClusterConfigVersions.get(address).get(clusterName);
+                if (configVersions != null) {
+                    result.putAll(configVersions);
+                }
             }
         } finally {
             configVersionsLock.readLock().unlock();
@@ -457,78 +587,103 @@ class AmbariConfigurationMonitor implements ClusterConfigurationMonitor {
     }
 
     /**
-     * The thread that polls Ambari for configuration details for clusters associated with discovered topologies,
-     * compares them with the current recorded values, and notifies any listeners when differences are discovered.
+     * Request the tags of the desired configurations from Ambari, which change whenever a configuration changes.
+     *
+     * @param address     The Ambari instance address.
+     * @param clusterName The name of the cluster for which the details are desired.
+     *
+     * @return A Map of configuration types and their corresponding tags, or null if they could not be determined.
      */
-    @SuppressWarnings("PMD.DoNotUseThreads")
-    static final class PollingConfigAnalyzer implements Runnable {
+    Map<String, String> getDesiredConfigTags(String address, String clusterName) {
+        ServiceDiscoveryConfig sdc = getDiscoveryConfig(address, clusterName);
+        return sdc != null ? ambariClient.getDesiredConfigTags(clusterName, sdc) : null;
+    }
 
-        private static final int DEFAULT_POLLING_INTERVAL = 60;
+    /**
+     * Check the configuration of the cluster and notify the listeners if it changed. The service configuration versions
+     * are only requested when the tags of the desired configurations changed since the versions last matched.
+     *
+     * @return true, if the configuration could be checked; false otherwise.
+     */
+    private boolean checkForChanges(ClusterPoller poller) {
+        String address = poller.address;
+        String clusterName = poller.clusterName;
+
+        Map<String, String> desiredConfigTags = getDesiredConfigTags(address, clusterName);
+        if (desiredConfigTags != null && desiredConfigTags.equals(poller.desiredConfigTags.get())) {
+            log.unchangedDesiredConfigs(address, clusterName);
+            return true;
+        }
 
-        // Polling interval in seconds
-        private int interval;
+        Map<String, String> updatedVersions = getUpdatedConfigVersions(address, clusterName);
+        if (updatedVersions == null || updatedVersions.isEmpty()) {
+            return false;
+        }
 
-        private AmbariConfigurationMonitor delegate;
+        if (updatedVersions.equals(getClusterConfigVersions(address, clusterName))) {
+            poller.desiredConfigTags.set(desiredConfigTags);
+        } else {
+            // Keep checking the versions until the listeners have updated the recorded ones
+            poller.desiredConfigTags.set(null);
+            notifyChangeListeners(address, clusterName);
+        }
+        return true;
+    }
 
-        private boolean isActive;
+    /**
+     * Polls Ambari for the configuration details of a cluster associated with discovered topologies, compares them with
+     * the current recorded values, notifies any listeners when differences are discovered and schedules the next poll.
+     * Consecutive failures back off exponentially.
+     */
+    @SuppressWarnings("PMD.DoNotUseThreads")
+    private final class ClusterPoller implements Runnable {
 
-        PollingConfigAnalyzer(AmbariConfigurationMonitor delegate) {
-            this.delegate = delegate;
-            this.interval = Integer.getInteger(INTERVAL_PROPERTY_NAME, PollingConfigAnalyzer.DEFAULT_POLLING_INTERVAL);
-        }
+        final String address;
 
-        void setInterval(int interval) {
-            this.interval = interval;
-        }
+        final String clusterName;
+
+        final List<String> key;
+
+        // The tags of the desired configurations when the versions last matched the recorded ones
+        final AtomicReference<Map<String, String>> desiredConfigTags = new AtomicReference<>();
 
-        void stop() {
-            isActive = false;
+        private int failures;
+
+        ClusterPoller(String address, String clusterName) {
+            this.address = address;
+            this.clusterName = clusterName;
+            this.key = Arrays.asList(address, clusterName);
         }
 
         @Override
         public void run() {
-            isActive = true;
-
-            log.startedAmbariConfigMonitor(interval);
-
-            while (isActive) {
-                for (Map.Entry<String, List<String>> entry : delegate.getClusterNames().entrySet()) {
-                    String address = entry.getKey();
-                    for (String clusterName : entry.getValue()) {
-                        Map<String, String> configVersions = delegate.getClusterConfigVersions(address, clusterName);
-                        if (configVersions != null && !configVersions.isEmpty()) {
-                            Map<String, String> updatedVersions = delegate.getUpdatedConfigVersions(address, clusterName);
-                            if (updatedVersions != null && !updatedVersions.isEmpty()) {
-                                boolean configHasChanged = false;
-
-                                // If the config sets don't match in size, then something has changed
-                                if (updatedVersions.size() != configVersions.size()) {
-                                    configHasChanged = true;
-                                } else {
-                                    // Perform the comparison of all the config versions
-                                    for (Map.Entry<String, String> configVersion : configVersions.entrySet()) {
-                                        if (!updatedVersions.get(configVersion.getKey()).equals(configVersion.getValue())) {
-                                            configHasChanged = true;
-                                            break;
-                                        }
-                                    }
-                                }
-
-                                // If a change has occurred, notify the listeners
-                                if (configHasChanged) {
-                                    delegate.notifyChangeListeners(address, clusterName);
-                                }
-                            }
-                        }
-                    }
-                }
+            if (pollers.get(key) != this) {
+                return; // The monitor has been stopped
+            }
 
-                try {
-                    Thread.sleep(interval * 1000L);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
+            if (getClusterConfigVersions(address, clusterName).isEmpty()) {
+                // The cluster is no longer monitored
+                pollers.remove(key, this);
+                if (!getClusterConfigVersions(address, clusterName).isEmpty()) {
+                    startPolling(address, clusterName);
                 }
+                return;
+            }
+
+            boolean checked;
+            try {
+                checked = checkForChanges(this);
+            } catch (RuntimeException e) {
+                log.errorCheckingClusterConfiguration(address, clusterName, e);
+                checked = false;
+            }
+
+            failures = checked ? 0 : failures + 1;
+            long delay = getPollingDelay(failures);
+            if (!checked) {
+                log.failedToCheckClusterConfiguration(address, clusterName, delay);
             }
+            schedule(this, delay);
         }
     }
 }
@@ -150,6 +150,24 @@ public interface AmbariServiceDiscoveryMessages {
              text = "Started Ambari cluster configuration monitor (checking every {0} seconds)")
     void startedAmbariConfigMonitor(long pollingInterval);
 
+    @Message(level = MessageLevel.INFO,
+             text = "Stopped Ambari cluster configuration monitor")
+    void stoppedAmbariConfigMonitor();
+
+    @Message(level = MessageLevel.DEBUG,
+             text = "The desired configurations of cluster {1} at {0} have not changed")
+    void unchangedDesiredConfigs(String address, String clusterName);
+
+    @Message(level = MessageLevel.WARN,
+             text = "Failed to check the configuration of cluster {1} at {0}, checking again in {2} ms")
+    void failedToCheckClusterConfiguration(String address, String clusterName, long delay);
+
+    @Message(level = MessageLevel.ERROR,
+             text = "Error checking the configuration of cluster {1} at {0}: {2}")
+    void errorCheckingClusterConfiguration(String address,
+                                           String clusterName,
+                                           @StackTrace(level = MessageLevel.DEBUG) Exception e);
+
     @Message(level = MessageLevel.WARN,
              text = "The declared nameservice {0} is not defined in the HDFS configuration.")
     void undefinedHDFSNameService(String nameservice);
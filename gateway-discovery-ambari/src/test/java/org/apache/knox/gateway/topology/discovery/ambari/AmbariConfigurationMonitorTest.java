@@ -17,20 +17,28 @@
 package org.apache.knox.gateway.topology.discovery.ambari;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.http.HttpStatus;
 import org.apache.knox.gateway.config.GatewayConfig;
+import org.apache.knox.gateway.services.security.AliasService;
 import org.apache.knox.gateway.topology.discovery.ServiceDiscoveryConfig;
+import org.apache.knox.test.mock.MockServer;
 import org.easymock.EasyMock;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -213,6 +221,144 @@ public class AmbariConfigurationMonitorTest {
     }
 
 
+    @Test
+    public void testChangeDetectionWithDesiredConfigs() throws Exception {
+        final String clusterName = "Cluster_One";
+        final MockServer ambari = new MockServer("AMBARI", true);
+        try {
+            final String address = "http://localhost:" + ambari.getPort();
+
+            // First check: the desired configs are not known yet, so the versions are compared
+            expectDesiredConfigs(ambari, clusterName, "version1", "version1");
+            expectServiceConfigVersions(ambari, clusterName, 1, 1);
+            // Second check: the desired configs did not change, the versions are not requested
+            expectDesiredConfigs(ambari, clusterName, "version1", "version1");
+            // Third check: the desired configs changed and so did the versions
+            expectDesiredConfigs(ambari, clusterName, "version1", "version2");
+            expectServiceConfigVersions(ambari, clusterName, 1, 2);
+
+            AmbariConfigurationMonitor monitor = createMonitor(address, clusterName);
+            monitor.setPollingInterval(100, TimeUnit.MILLISECONDS);
+
+            final List<String> changes = new CopyOnWriteArrayList<>();
+            final CountDownLatch changed = new CountDownLatch(1);
+            monitor.addListener((src, cname) -> {
+                changes.add(src + "/" + cname);
+                changed.countDown();
+            });
+
+            monitor.start();
+            try {
+                assertTrue("Expected the change to have been reported.", changed.await(10, TimeUnit.SECONDS));
+            } finally {
+                monitor.stop();
+            }
+
+            assertEquals(Collections.singletonList(address + "/" + clusterName), changes);
+            assertTrue("Expected all the requests to have been made.", ambari.isEmpty());
+
+            // The monitor data is persisted without leaving temporary files behind
+            File clustersDir = new File(dataDir, "clusters");
+            assertEquals(2, clustersDir.list().length);
+            assertEquals(1, FileUtils.listFiles(clustersDir, new String[]{"ver"}, false).size());
+            assertEquals(1, FileUtils.listFiles(clustersDir, new String[]{"conf"}, false).size());
+        } finally {
+            ambari.stop();
+        }
+    }
+
+    @SuppressWarnings("PMD.DoNotUseThreads")
+    @Test
+    public void testBackoffAndShutdown() throws Exception {
+        final String clusterName = "Cluster_One";
+        final MockServer ambari = new MockServer("AMBARI", true);
+        try {
+            final int requests = 40;
+            for (int i = 0; i < requests; i++) {
+                ambari.expect().method("GET").respond().status(HttpStatus.SC_SERVICE_UNAVAILABLE);
+            }
+
+            AmbariConfigurationMonitor monitor = createMonitor("http://localhost:" + ambari.getPort(), clusterName);
+            monitor.setPollingInterval(100, TimeUnit.MILLISECONDS);
+            assertTrue(monitor.getPollingDelay(0) >= 100 && monitor.getPollingDelay(0) <= 110);
+            assertTrue(monitor.getPollingDelay(1) >= 200 && monitor.getPollingDelay(1) <= 210);
+            assertTrue(monitor.getPollingDelay(2) >= 400 && monitor.getPollingDelay(2) <= 410);
+            assertTrue(monitor.getPollingDelay(100) >= 800 && monitor.getPollingDelay(100) <= 810);
+
+            monitor.start();
+            try {
+                Thread.sleep(1500);
+            } finally {
+                monitor.stop();
+            }
+
+            // Without backing off, each of the ~15 checks would have made two failing requests
+            int made = requests - ambari.getCount();
+            assertTrue("Unexpected number of requests: " + made, made >= 2 && made <= 10);
+
+            // No monitor thread survives stopping the monitor, and no more requests are made
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                assertFalse(thread.getName(), thread.getName().startsWith("AmbariConfigurationMonitor-") && thread.isAlive());
+            }
+            Thread.sleep(300);
+            assertEquals(requests - made, ambari.getCount());
+        } finally {
+            ambari.stop();
+        }
+    }
+
+    private AmbariConfigurationMonitor createMonitor(String address, String clusterName) throws Exception {
+        GatewayConfig config = EasyMock.createNiceMock(GatewayConfig.class);
+        EasyMock.expect(config.getGatewayDataDir()).andReturn(dataDir.getAbsolutePath()).anyTimes();
+        EasyMock.expect(config.getHttpClientConnectionTimeout()).andReturn(5000).anyTimes();
+        EasyMock.expect(config.getHttpClientSocketTimeout()).andReturn(5000).anyTimes();
+        EasyMock.replay(config);
+
+        AliasService aliasService = EasyMock.createNiceMock(AliasService.class);
+        EasyMock.expect(aliasService.getPasswordFromAliasForGateway("ambari.pwd")).andReturn("secret".toCharArray()).anyTimes();
+        EasyMock.replay(aliasService);
+
+        AmbariConfigurationMonitor monitor = new AmbariConfigurationMonitor(config, aliasService, null);
+
+        Map<String, Map<String, AmbariCluster.ServiceConfiguration>> serviceConfigs = new HashMap<>();
+        serviceConfigs.put("ZOOKEEPER", Collections.singletonMap("zoo.cfg", createTestServiceConfig("zoo.cfg", "1")));
+        serviceConfigs.put("HIVE", Collections.singletonMap("hive-site", createTestServiceConfig("hive-site", "1")));
+        monitor.addClusterConfigVersions(createTestCluster(clusterName, serviceConfigs),
+                                         createTestDiscoveryConfig(address, "admin", "ambari.pwd"));
+        return monitor;
+    }
+
+    private static void expectDesiredConfigs(MockServer ambari, String clusterName, String zooTag, String hiveTag) {
+        String json = "{\"Clusters\": {\"cluster_name\": \"" + clusterName + "\", \"desired_configs\": {" +
+                      "\"zoo.cfg\": {\"tag\": \"" + zooTag + "\", \"version\": 1}, " +
+                      "\"hive-site\": {\"tag\": \"" + hiveTag + "\", \"version\": 1}}}}";
+        ambari.expect()
+              .method("GET")
+              .pathInfo("/api/v1/clusters/" + clusterName)
+              .queryParam("fields", "Clusters/desired_configs")
+              .header("Authorization", "Basic " + Base64.getEncoder().encodeToString("admin:secret".getBytes(StandardCharsets.UTF_8)))
+              .respond()
+              .status(HttpStatus.SC_OK)
+              .contentType("application/json")
+              .content(json, StandardCharsets.UTF_8);
+    }
+
+    private static void expectServiceConfigVersions(MockServer ambari, String clusterName, int zooVersion, int hiveVersion) {
+        String json = "{\"items\": [" +
+                      "{\"service_name\": \"ZOOKEEPER\", \"configurations\": " +
+                      "[{\"type\": \"zoo.cfg\", \"version\": " + zooVersion + ", \"properties\": {}}]}, " +
+                      "{\"service_name\": \"HIVE\", \"configurations\": " +
+                      "[{\"type\": \"hive-site\", \"version\": " + hiveVersion + ", \"properties\": {}}]}]}";
+        ambari.expect()
+              .method("GET")
+              .pathInfo("/api/v1/clusters/" + clusterName + "/configurations/service_config_versions")
+              .queryParam("is_current", "true")
+              .respond()
+              .status(HttpStatus.SC_OK)
+              .contentType("application/json")
+              .content(json, StandardCharsets.UTF_8);
+    }
+
     private static boolean areChangeUpdatesExhausted(Map<String, Map<String, List<List<AmbariCluster.ServiceConfiguration>>>> updates,
                                               Map<String, Map<String, Integer>> configChangeIndeces) {
         boolean isExhausted = true;
@@ -317,6 +463,11 @@ public class AmbariConfigurationMonitorTest {
             }
         }
 
+        @Override
+        Map<String, String> getDesiredConfigTags(String address, String clusterName) {
+            return null; // Always compare the config versions
+        }
+
         @Override
         Map<String, String> getUpdatedConfigVersions(String address, String clusterName) {
             Map<String, Map<String, String>> clusterConfigVersions = configVersionData.get(address);
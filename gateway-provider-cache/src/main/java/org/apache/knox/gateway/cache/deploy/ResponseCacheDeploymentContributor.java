@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.cache.deploy;
+
+import org.apache.knox.gateway.cache.filter.ResponseCacheFilter;
+import org.apache.knox.gateway.deploy.DeploymentContext;
+import org.apache.knox.gateway.deploy.ProviderDeploymentContributorBase;
+import org.apache.knox.gateway.descriptor.FilterParamDescriptor;
+import org.apache.knox.gateway.descriptor.ResourceDescriptor;
+import org.apache.knox.gateway.topology.Provider;
+import org.apache.knox.gateway.topology.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map.Entry;
+
+/**
+ * Contributes the {@link ResponseCacheFilter} to the resources of the services of a
+ * topology with a provider of the <code>cache</code> role, right before their dispatch.
+ */
+public class ResponseCacheDeploymentContributor extends ProviderDeploymentContributorBase {
+  public static final String ROLE = "cache";
+  private static final String NAME = "Default";
+
+  @Override
+  public String getRole() {
+    return ROLE;
+  }
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public void contributeFilter(DeploymentContext context, Provider provider, Service service,
+                               ResourceDescriptor resource, List<FilterParamDescriptor> params) {
+    if (params == null) {
+      params = new ArrayList<>();
+    }
+    // the service role selects the per service TTL override at runtime
+    params.add(resource.createFilterParam().name(ResponseCacheFilter.RESOURCE_ROLE_PARAM).value(resource.role()));
+    for (Entry<String, String> entry : provider.getParams().entrySet()) {
+      params.add(resource.createFilterParam().name(entry.getKey().toLowerCase(Locale.ROOT)).value(entry.getValue()));
+    }
+    resource.addFilter().name(getName()).role(getRole()).impl(ResponseCacheFilter.class).params(params);
+  }
+}
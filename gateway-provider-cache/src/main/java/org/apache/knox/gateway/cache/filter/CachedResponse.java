@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.cache.filter;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A response stored in the cache: the status and headers as the dispatch set
+ * them and the body as it was sent to the client, that is after the outbound
+ * rewrite rules were applied to it.
+ */
+class CachedResponse {
+  private final String key;
+  private final int status;
+  private final List<String[]> headers;
+  private final byte[] body;
+  private final long storedAt;
+  private final long expiresAt;
+
+  CachedResponse(String key, int status, List<String[]> headers, byte[] body, long storedAt, long expiresAt) {
+    this.key = key;
+    this.status = status;
+    this.headers = Collections.unmodifiableList(headers);
+    this.body = body;
+    this.storedAt = storedAt;
+    this.expiresAt = expiresAt;
+  }
+
+  String getKey() {
+    return key;
+  }
+
+  int getStatus() {
+    return status;
+  }
+
+  List<String[]> getHeaders() {
+    return headers;
+  }
+
+  byte[] getBody() {
+    return body;
+  }
+
+  long getStoredAt() {
+    return storedAt;
+  }
+
+  boolean isFresh(long now) {
+    return now < expiresAt;
+  }
+
+  String getHeader(String name) {
+    for (String[] header : headers) {
+      if (header[0].equalsIgnoreCase(name)) {
+        return header[1];
+      }
+    }
+    return null;
+  }
+
+  String getETag() {
+    return getHeader("ETag");
+  }
+
+  String getLastModified() {
+    return getHeader("Last-Modified");
+  }
+
+  boolean hasValidators() {
+    return getETag() != null || getLastModified() != null;
+  }
+
+  /**
+   * @return this response with the headers of a 304 response to its revalidation
+   *         and a new expiry
+   */
+  CachedResponse revalidated(List<String[]> notModifiedHeaders, long now, long expiresAt) {
+    final List<String[]> merged = new ArrayList<>(headers.size());
+    for (String[] header : headers) {
+      if (!contains(notModifiedHeaders, header[0])) {
+        merged.add(header);
+      }
+    }
+    merged.addAll(notModifiedHeaders);
+    return new CachedResponse(key, status, merged, body, now, expiresAt);
+  }
+
+  /* The approximate number of bytes the response occupies on the heap */
+  int weight() {
+    int weight = 128 + key.length() * 2 + body.length;
+    for (String[] header : headers) {
+      weight += 32 + (header[0].length() + header[1].length()) * 2;
+    }
+    return weight;
+  }
+
+  void write(DataOutput out) throws IOException {
+    out.writeUTF(key);
+    out.writeInt(status);
+    out.writeLong(storedAt);
+    out.writeLong(expiresAt);
+    out.writeInt(headers.size());
+    for (String[] header : headers) {
+      out.writeUTF(header[0]);
+      out.writeUTF(header[1]);
+    }
+    out.writeInt(body.length);
+    out.write(body);
+  }
+
+  static CachedResponse read(DataInput in) throws IOException {
+    final String key = in.readUTF();
+    final int status = in.readInt();
+    final long storedAt = in.readLong();
+    final long expiresAt = in.readLong();
+    final int count = in.readInt();
+    final List<String[]> headers = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      headers.add(new String[] { in.readUTF(), in.readUTF() });
+    }
+    final byte[] body = new byte[in.readInt()];
+    in.readFully(body);
+    return new CachedResponse(key, status, headers, body, storedAt, expiresAt);
+  }
+
+  private static boolean contains(List<String[]> headers, String name) {
+    for (String[] header : headers) {
+      if (header[0].equalsIgnoreCase(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
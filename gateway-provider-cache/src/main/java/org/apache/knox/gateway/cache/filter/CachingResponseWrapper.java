@@ -0,0 +1,407 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.cache.filter;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.apache.commons.io.output.TeeOutputStream;
+import org.apache.knox.gateway.filter.GatewayResponse;
+import org.apache.knox.gateway.filter.GatewayResponseWrapper;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Holds back the response of the dispatch so that the cache can decide what to
+ * do with it once it is complete: store it, replace it by a cached response
+ * the backend confirmed with a 304, or just pass it on.
+ *
+ * Nothing reaches the wrapped response before {@link #replay()} unless the
+ * body grows beyond the maximum size of a cached response or an error is sent,
+ * in which case the response passes through from then on.
+ *
+ * The wrapped response is usually the one of the rewrite filter. The replay
+ * streams the body through it, so that the outbound rewrite rules apply as
+ * without the cache, and keeps the rewritten body the client received.
+ */
+class CachingResponseWrapper extends GatewayResponseWrapper {
+  private final HttpServletResponse response;
+  private final int maxSize;
+  private final List<String[]> headers = new ArrayList<>();
+  private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+  private int status = SC_OK;
+  private ServletOutputStream output;
+  private PrintWriter writer;
+  private boolean passThrough;
+
+  CachingResponseWrapper(HttpServletResponse response, int maxSize) {
+    super(response);
+    this.response = response;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * @return true if the response went to the client and can not be cached
+   */
+  boolean isPassThrough() {
+    return passThrough;
+  }
+
+  List<String[]> getRecordedHeaders() {
+    return headers;
+  }
+
+  /**
+   * Sends the response held back to the client.
+   *
+   * @return the body as the client received it
+   */
+  byte[] replay() throws IOException {
+    if (writer != null) {
+      writer.flush();
+    }
+    sendHead();
+    final byte[] raw = body.toByteArray();
+    if (response instanceof GatewayResponse) {
+      final ByteArrayOutputStream sent = new ByteArrayOutputStream(raw.length);
+      final GatewayResponse gatewayResponse = (GatewayResponse) response;
+      gatewayResponse.streamResponse(new ByteArrayInputStream(raw),
+          new TeeOutputStream(gatewayResponse.getRawOutputStream(), sent));
+      return sent.toByteArray();
+    }
+    response.getOutputStream().write(raw);
+    return raw;
+  }
+
+  @Override
+  public OutputStream getRawOutputStream() throws IOException {
+    return getOutputStream();
+  }
+
+  @Override
+  public void streamResponse(InputStream input) throws IOException {
+    if (passThrough) {
+      streamThrough(input);
+      return;
+    }
+    final long copied = IOUtils.copyLarge(input, body, 0, maxSize + 1L);
+    if (copied > maxSize) {
+      passThrough();
+      final InputStream held = body.toInputStream();
+      body.reset();
+      streamThrough(new SequenceInputStream(held, input));
+    }
+  }
+
+  @Override
+  public void streamResponse(InputStream input, OutputStream output) throws IOException {
+    streamResponse(input);
+  }
+
+  private void streamThrough(InputStream input) throws IOException {
+    if (response instanceof GatewayResponse) {
+      ((GatewayResponse) response).streamResponse(input);
+    } else {
+      try (OutputStream out = response.getOutputStream()) {
+        IOUtils.copy(input, out);
+      }
+    }
+  }
+
+  @Override
+  public ServletOutputStream getOutputStream() throws IOException {
+    if (output == null) {
+      output = new HeldBackOutputStream();
+    }
+    return output;
+  }
+
+  @Override
+  public PrintWriter getWriter() throws IOException {
+    if (writer == null) {
+      writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), Charset.forName(getCharacterEncoding())));
+    }
+    return writer;
+  }
+
+  @Override
+  public void setStatus(int status) {
+    this.status = status;
+    if (passThrough) {
+      response.setStatus(status);
+    }
+  }
+
+  @Override
+  @SuppressWarnings("deprecation")
+  public void setStatus(int status, String message) {
+    setStatus(status);
+  }
+
+  @Override
+  public int getStatus() {
+    return status;
+  }
+
+  @Override
+  public void sendError(int status, String message) throws IOException {
+    passThrough();
+    response.sendError(status, message);
+  }
+
+  @Override
+  public void sendError(int status) throws IOException {
+    passThrough();
+    response.sendError(status);
+  }
+
+  @Override
+  public void sendRedirect(String location) throws IOException {
+    passThrough();
+    response.sendRedirect(location);
+  }
+
+  @Override
+  public void setHeader(String name, String value) {
+    removeHeader(name);
+    addHeader(name, value);
+  }
+
+  @Override
+  public void addHeader(String name, String value) {
+    if (value == null) {
+      return;
+    }
+    if (passThrough) {
+      response.addHeader(name, value);
+    } else {
+      headers.add(new String[] { name, value });
+    }
+  }
+
+  @Override
+  public void setDateHeader(String name, long date) {
+    setHeader(name, formatDate(date));
+  }
+
+  @Override
+  public void addDateHeader(String name, long date) {
+    addHeader(name, formatDate(date));
+  }
+
+  @Override
+  public void setIntHeader(String name, int value) {
+    setHeader(name, Integer.toString(value));
+  }
+
+  @Override
+  public void addIntHeader(String name, int value) {
+    addHeader(name, Integer.toString(value));
+  }
+
+  @Override
+  public void setContentType(String type) {
+    if (type != null) {
+      setHeader("Content-Type", type);
+    }
+  }
+
+  @Override
+  public String getContentType() {
+    return passThrough ? response.getContentType() : getHeader("Content-Type");
+  }
+
+  @Override
+  public void setContentLength(int length) {
+    setHeader("Content-Length", Integer.toString(length));
+  }
+
+  @Override
+  public void setContentLengthLong(long length) {
+    setHeader("Content-Length", Long.toString(length));
+  }
+
+  @Override
+  public boolean containsHeader(String name) {
+    return getHeader(name) != null;
+  }
+
+  @Override
+  public String getHeader(String name) {
+    if (passThrough) {
+      return response.getHeader(name);
+    }
+    for (String[] header : headers) {
+      if (header[0].equalsIgnoreCase(name)) {
+        return header[1];
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public Collection<String> getHeaders(String name) {
+    if (passThrough) {
+      return response.getHeaders(name);
+    }
+    final List<String> values = new ArrayList<>();
+    for (String[] header : headers) {
+      if (header[0].equalsIgnoreCase(name)) {
+        values.add(header[1]);
+      }
+    }
+    return values;
+  }
+
+  @Override
+  public Collection<String> getHeaderNames() {
+    if (passThrough) {
+      return response.getHeaderNames();
+    }
+    final List<String> names = new ArrayList<>();
+    for (String[] header : headers) {
+      names.add(header[0]);
+    }
+    return names;
+  }
+
+  @Override
+  public void flushBuffer() throws IOException {
+    if (passThrough) {
+      response.flushBuffer();
+    }
+  }
+
+  @Override
+  public boolean isCommitted() {
+    return passThrough && response.isCommitted();
+  }
+
+  @Override
+  public void resetBuffer() {
+    if (passThrough) {
+      response.resetBuffer();
+    } else {
+      body.reset();
+    }
+  }
+
+  @Override
+  public void reset() {
+    if (passThrough) {
+      response.reset();
+    } else {
+      body.reset();
+      headers.clear();
+      status = SC_OK;
+    }
+  }
+
+  private void removeHeader(String name) {
+    if (!passThrough) {
+      headers.removeIf(header -> header[0].equalsIgnoreCase(name));
+    }
+  }
+
+  /* Sends what was held back and everything that follows to the client */
+  private void passThrough() throws IOException {
+    if (!passThrough) {
+      sendHead();
+      passThrough = true;
+    }
+  }
+
+  private void sendHead() {
+    response.setStatus(status);
+    for (String[] header : headers) {
+      response.addHeader(header[0], header[1]);
+    }
+  }
+
+  private static String formatDate(long date) {
+    final SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+    format.setTimeZone(TimeZone.getTimeZone("GMT"));
+    return format.format(new Date(date));
+  }
+
+  private class HeldBackOutputStream extends ServletOutputStream {
+    private OutputStream through;
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      if (!passThrough && body.size() + length > maxSize) {
+        passThrough();
+        through = response.getOutputStream();
+        body.writeTo(through);
+        body.reset();
+      } else if (passThrough && through == null) {
+        through = response.getOutputStream();
+      }
+      if (through != null) {
+        through.write(bytes, offset, length);
+      } else {
+        body.write(bytes, offset, length);
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (through != null) {
+        through.flush();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (through != null) {
+        through.close();
+      }
+    }
+
+    @Override
+    public boolean isReady() {
+      return true;
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
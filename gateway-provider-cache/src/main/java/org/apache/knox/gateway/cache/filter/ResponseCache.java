@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.cache.filter;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import org.apache.knox.gateway.i18n.messages.MessagesFactory;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The responses cached for the services of a topology.
+ *
+ * Responses are kept in a Caffeine cache bounded by their size in bytes. When
+ * a disk store is configured, the responses evicted for space are moved there
+ * and moved back on their next use.
+ *
+ * A response is stored under the key of its request extended by the values
+ * of the request headers listed in its Vary header. The names of these headers
+ * are remembered by the request key, so that the key of the next request for
+ * the same resource can be extended the same way before the lookup.
+ *
+ * Requests for the same key that miss the cache at the same time are
+ * coalesced: the first one goes to the backend while the others wait for its
+ * response, see {@link #lead(String)}.
+ */
+class ResponseCache {
+  private static final ResponseCacheMessages LOG = MessagesFactory.get(ResponseCacheMessages.class);
+  private static final int MAX_VARY_KEYS = 100_000;
+
+  private final Cache<String, CachedResponse> memory;
+  private final Cache<String, List<String>> varies;
+  private final ResponseCacheDiskStore disk;
+  private final ConcurrentMap<String, CompletableFuture<CachedResponse>> inflight = new ConcurrentHashMap<>();
+
+  ResponseCache(long maxSize, ResponseCacheDiskStore disk) {
+    this.disk = disk;
+    this.memory = Caffeine.newBuilder()
+        .maximumWeight(maxSize)
+        .weigher((String key, CachedResponse response) -> response.weight())
+        // evictions are spilled to disk by the thread that caused them
+        .executor(Runnable::run)
+        .removalListener((String key, CachedResponse response, RemovalCause cause) -> spill(response, cause))
+        .build();
+    this.varies = Caffeine.newBuilder().maximumSize(MAX_VARY_KEYS).build();
+  }
+
+  /**
+   * @return the key of the request extended by the values of the headers its
+   *         cached response varies on, if any
+   */
+  String variantKey(String requestKey, HttpServletRequest request) {
+    final List<String> names = varies.getIfPresent(requestKey);
+    if (names == null || names.isEmpty()) {
+      return requestKey;
+    }
+    final StringBuilder key = new StringBuilder(requestKey);
+    for (String name : names) {
+      key.append('\n').append(name).append(':');
+      final Enumeration<String> values = request.getHeaders(name);
+      while (values != null && values.hasMoreElements()) {
+        key.append(values.nextElement()).append(',');
+      }
+    }
+    return key.toString();
+  }
+
+  /**
+   * @param varyHeaders the lower case names of the request headers the response varies on
+   */
+  void varies(String requestKey, List<String> varyHeaders) {
+    if (varyHeaders.isEmpty()) {
+      varies.invalidate(requestKey);
+    } else {
+      Collections.sort(varyHeaders);
+      varies.put(requestKey, varyHeaders);
+    }
+  }
+
+  CachedResponse get(String key) {
+    CachedResponse response = memory.getIfPresent(key);
+    if (response == null && disk != null) {
+      try {
+        response = disk.take(key);
+      } catch (IOException e) {
+        LOG.failedToReadCachedResponse(e);
+      }
+      if (response != null) {
+        memory.put(key, response);
+      }
+    }
+    return response;
+  }
+
+  void put(CachedResponse response) {
+    memory.put(response.getKey(), response);
+  }
+
+  void remove(String key) {
+    memory.invalidate(key);
+    if (disk != null) {
+      try {
+        disk.remove(key);
+      } catch (IOException e) {
+        LOG.failedToRemoveCachedResponse(e);
+      }
+    }
+  }
+
+  /**
+   * Registers the caller as the one fetching the response of the key from the
+   * backend, unless another request already is.
+   *
+   * @return the fetch of the response, which the caller leads and must
+   *         {@link #complete(String, CompletableFuture, CachedResponse)} or otherwise waits for
+   */
+  Fetch lead(String key) {
+    final CompletableFuture<CachedResponse> fetch = new CompletableFuture<>();
+    final CompletableFuture<CachedResponse> leading = inflight.putIfAbsent(key, fetch);
+    return leading == null ? new Fetch(fetch, true) : new Fetch(leading, false);
+  }
+
+  /**
+   * Hands the response the leading request fetched, null if it can not be
+   * cached, to the requests waiting for it.
+   */
+  void complete(String key, CompletableFuture<CachedResponse> fetch, CachedResponse response) {
+    inflight.remove(key, fetch);
+    fetch.complete(response);
+  }
+
+  long size() {
+    return memory.estimatedSize();
+  }
+
+  private void spill(CachedResponse response, RemovalCause cause) {
+    if (disk != null && cause == RemovalCause.SIZE) {
+      try {
+        disk.put(response);
+      } catch (IOException e) {
+        LOG.failedToSpillCachedResponse(e);
+      }
+    }
+  }
+
+  static class Fetch {
+    final CompletableFuture<CachedResponse> future;
+    final boolean leader;
+
+    Fetch(CompletableFuture<CachedResponse> future, boolean leader) {
+      this.future = future;
+      this.leader = leader;
+    }
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.cache.filter;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The second tier of the response cache, holding the responses evicted from
+ * the memory tier in files of a local directory up to a total size, the least
+ * recently used ones are removed beyond it. The operating system keeps the
+ * recently read files in its page cache, outside of the heap of the gateway.
+ *
+ * Entries only live as long as the gateway: files found in the directory on
+ * start are removed since they may hold responses of users whose access has
+ * been revoked since.
+ */
+class ResponseCacheDiskStore {
+  private static final String SUFFIX = ".entry";
+
+  private final Path directory;
+  private final long maxSize;
+  /* the size of each file by the key of its response, in access order */
+  private final Map<String, Long> sizes = new LinkedHashMap<>(16, 0.75f, true);
+  private long size;
+
+  ResponseCacheDiskStore(Path directory, long maxSize) throws IOException {
+    this.directory = directory;
+    this.maxSize = maxSize;
+    Files.createDirectories(directory);
+    try (DirectoryStream<Path> stale = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+      for (Path file : stale) {
+        Files.deleteIfExists(file);
+      }
+    }
+  }
+
+  synchronized void put(CachedResponse response) throws IOException {
+    remove(response.getKey());
+    final Path file = file(response.getKey());
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+      response.write(out);
+    }
+    final long length = Files.size(file);
+    sizes.put(response.getKey(), length);
+    size += length;
+    final Iterator<Map.Entry<String, Long>> eldest = sizes.entrySet().iterator();
+    while (size > maxSize && eldest.hasNext()) {
+      final Map.Entry<String, Long> entry = eldest.next();
+      Files.deleteIfExists(file(entry.getKey()));
+      size -= entry.getValue();
+      eldest.remove();
+    }
+  }
+
+  /**
+   * Removes the response of the key from the store.
+   *
+   * @return the response, or null if there is none
+   */
+  synchronized CachedResponse take(String key) throws IOException {
+    if (!sizes.containsKey(key)) {
+      return null;
+    }
+    final CachedResponse response;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file(key))))) {
+      response = CachedResponse.read(in);
+    } finally {
+      remove(key);
+    }
+    return key.equals(response.getKey()) ? response : null;
+  }
+
+  synchronized void remove(String key) throws IOException {
+    final Long length = sizes.remove(key);
+    if (length != null) {
+      size -= length;
+      Files.deleteIfExists(file(key));
+    }
+  }
+
+  synchronized long size() {
+    return size;
+  }
+
+  private Path file(String key) {
+    return directory.resolve(DigestUtils.sha256Hex(key) + SUFFIX);
+  }
+}
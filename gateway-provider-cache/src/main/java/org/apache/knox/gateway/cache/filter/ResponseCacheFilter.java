@@ -0,0 +1,569 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.cache.filter;
+
+import org.apache.knox.gateway.filter.GatewayResponse;
+import org.apache.knox.gateway.i18n.messages.MessagesFactory;
+import org.apache.knox.gateway.security.SubjectUtils;
+import org.apache.knox.gateway.services.GatewayServices;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Paths;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Caches the responses of the GET requests of a service in the gateway.
+ *
+ * The filter runs right before the dispatch, after the authentication, the
+ * identity assertion and the authorization of the request, so a response is
+ * only served to a request that passed the same checks as the one that fetched
+ * it. Responses are cached per effective user in addition, since backends
+ * answer depending on who asks.
+ *
+ * The freshness of a response follows its Cache-Control, Expires and Date
+ * headers unless the service has a TTL configured with
+ * <code>cache.ttl.&lt;service role&gt;</code>, and falls back to
+ * <code>cache.ttl</code>. Stale responses with an ETag or Last-Modified header
+ * are revalidated with a conditional request to the backend.
+ *
+ * A response whose Content-Encoding the rewrite filter changed while it was
+ * replayed is not cached, as the encoding depends on what the client accepts.
+ */
+public class ResponseCacheFilter implements Filter {
+  private static final ResponseCacheMessages LOG = MessagesFactory.get(ResponseCacheMessages.class);
+
+  public static final String RESOURCE_ROLE_PARAM = "resource.role";
+  public static final String MAX_SIZE_PARAM = "cache.max.size";
+  public static final String MAX_ENTRY_SIZE_PARAM = "cache.max.entry.size";
+  public static final String TTL_PARAM = "cache.ttl";
+  public static final String DISK_DIR_PARAM = "cache.disk.dir";
+  public static final String DISK_MAX_SIZE_PARAM = "cache.disk.max.size";
+  public static final String COALESCE_TIMEOUT_PARAM = "cache.coalesce.timeout";
+
+  static final long DEFAULT_MAX_SIZE = 64L * 1024 * 1024;
+  static final int DEFAULT_MAX_ENTRY_SIZE = 1024 * 1024;
+  static final long DEFAULT_DISK_MAX_SIZE = 1024L * 1024 * 1024;
+  static final long DEFAULT_COALESCE_TIMEOUT = 30000L;
+
+  /* the servlet context attribute holding the cache shared by the services of the topology */
+  static final String CACHE_ATTRIBUTE = ResponseCache.class.getName();
+
+  private static final Set<String> CACHEABLE_STATUS = new HashSet<>(Arrays.asList(
+      "200", "203", "300", "301", "404", "410"));
+  /* headers describing the transfer of a response rather than the response */
+  private static final Set<String> UNCACHED_HEADERS = new HashSet<>(Arrays.asList(
+      "age", "connection", "content-length", "keep-alive", "proxy-connection", "te", "trailer",
+      "transfer-encoding", "upgrade"));
+
+  private ResponseCache cache;
+  private int maxEntrySize;
+  /* the TTL of the responses without freshness headers, in seconds */
+  private long defaultTtl;
+  /* the TTL of all the responses of the service, -1 if the headers decide */
+  private long serviceTtl;
+  private long coalesceTimeout;
+
+  @Override
+  public void init(FilterConfig filterConfig) throws ServletException {
+    final String resourceRole = filterConfig.getInitParameter(RESOURCE_ROLE_PARAM);
+    maxEntrySize = (int) getLong(filterConfig, MAX_ENTRY_SIZE_PARAM, DEFAULT_MAX_ENTRY_SIZE);
+    coalesceTimeout = getLong(filterConfig, COALESCE_TIMEOUT_PARAM, DEFAULT_COALESCE_TIMEOUT);
+    defaultTtl = getLong(filterConfig, TTL_PARAM, 0);
+    serviceTtl = resourceRole == null ? -1
+        : getLong(filterConfig, TTL_PARAM + "." + resourceRole.toLowerCase(Locale.ROOT), -1);
+    LOG.initializingForResourceRole(resourceRole, serviceTtl < 0 ? defaultTtl : serviceTtl);
+    cache = getCache(filterConfig);
+  }
+
+  @Override
+  public void destroy() {
+  }
+
+  @Override
+  public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain)
+      throws IOException, ServletException {
+    if (!(servletRequest instanceof HttpServletRequest) || !(servletResponse instanceof HttpServletResponse)) {
+      chain.doFilter(servletRequest, servletResponse);
+      return;
+    }
+    final HttpServletRequest request = (HttpServletRequest) servletRequest;
+    final HttpServletResponse response = (HttpServletResponse) servletResponse;
+    final String method = request.getMethod();
+    final boolean head = "HEAD".equals(method);
+    if (!("GET".equals(method) || head)
+        || request.getHeader("Range") != null
+        || hasDirective(request.getHeaders("Cache-Control"), "no-store")) {
+      chain.doFilter(request, response);
+      return;
+    }
+
+    final String requestKey = requestKey(request);
+    final String key = cache.variantKey(requestKey, request);
+    final long now = System.currentTimeMillis();
+    final CachedResponse cached = cache.get(key);
+    if (cached != null && cached.isFresh(now) && !isNoCache(request)) {
+      serve(cached, request, response, now, "hit");
+      return;
+    }
+    if (head) {
+      chain.doFilter(request, response);
+      return;
+    }
+
+    final ResponseCache.Fetch fetch = cache.lead(key);
+    if (!fetch.leader) {
+      final CachedResponse coalesced = await(fetch, request);
+      if (coalesced != null && coalesced.getKey().equals(cache.variantKey(requestKey, request))) {
+        serve(coalesced, request, response, System.currentTimeMillis(), "coalesced");
+      } else {
+        chain.doFilter(request, response);
+      }
+      return;
+    }
+    CachedResponse stored = null;
+    try {
+      stored = fetch(request, response, chain, requestKey, cached, now);
+    } finally {
+      cache.complete(key, fetch.future, stored);
+    }
+  }
+
+  /*
+   * Sends the request to the backend, conditionally if there is a stale
+   * response to revalidate, and caches the response if it may be.
+   *
+   * Returns the response cached, or null.
+   */
+  private CachedResponse fetch(HttpServletRequest request, HttpServletResponse response, FilterChain chain,
+                               String requestKey, CachedResponse cached, long now)
+      throws IOException, ServletException {
+    final boolean revalidate = cached != null && cached.hasValidators();
+    final CachingResponseWrapper capture = new CachingResponseWrapper(response, maxEntrySize);
+    chain.doFilter(revalidate ? new RevalidationRequest(request, cached) : request, capture);
+    if (capture.isPassThrough()) {
+      LOG.cacheResult("bypass", request.getRequestURI());
+      return null;
+    }
+
+    final List<String[]> headers = cachedHeaders(capture.getRecordedHeaders());
+    if (revalidate && capture.getStatus() == HttpServletResponse.SC_NOT_MODIFIED) {
+      final CachedResponse revalidated = cached.revalidated(headers, now, now + freshness(headers) * 1000);
+      cache.put(revalidated);
+      serve(revalidated, request, response, now, "revalidated");
+      return revalidated;
+    }
+
+    final long freshness = freshness(headers);
+    if (!isCacheable(capture.getStatus(), headers, freshness)) {
+      if (cached != null) {
+        cache.remove(cached.getKey());
+      }
+      capture.replay();
+      LOG.cacheResult("miss", request.getRequestURI());
+      return null;
+    }
+    final byte[] body = capture.replay();
+    if (!Objects.equals(value(headers, "Content-Encoding"), response.getHeader("Content-Encoding"))) {
+      // the rewrite re-encoded the body for what this client accepts, e.g. a br body as gzip
+      if (cached != null) {
+        cache.remove(cached.getKey());
+      }
+      LOG.cacheResult("miss", request.getRequestURI());
+      return null;
+    }
+    cache.varies(requestKey, varyHeaders(headers));
+    final CachedResponse fetched = new CachedResponse(cache.variantKey(requestKey, request), capture.getStatus(),
+        headers, body, now, now + freshness * 1000);
+    cache.put(fetched);
+    LOG.cacheResult("store", request.getRequestURI());
+    return fetched;
+  }
+
+  private CachedResponse await(ResponseCache.Fetch fetch, HttpServletRequest request) {
+    try {
+      return fetch.future.get(coalesceTimeout, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      LOG.coalescedRequestTimedOut(request.getRequestURI());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      // the leading request failed, fetch again
+    }
+    return null;
+  }
+
+  private void serve(CachedResponse cached, HttpServletRequest request, HttpServletResponse response,
+                     long now, String result) throws IOException {
+    LOG.cacheResult(result, request.getRequestURI());
+    if (isNotModified(request, cached)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      copyHeader(cached, response, "ETag");
+      copyHeader(cached, response, "Last-Modified");
+      copyHeader(cached, response, "Cache-Control");
+      return;
+    }
+    response.setStatus(cached.getStatus());
+    for (String[] header : cached.getHeaders()) {
+      response.addHeader(header[0], header[1]);
+    }
+    response.setHeader("Age", Long.toString(Math.max(0, now - cached.getStoredAt()) / 1000));
+    final byte[] body = cached.getBody();
+    response.setContentLength(body.length);
+    if (!"HEAD".equals(request.getMethod())) {
+      // the body was rewritten before it was cached, bypass the rewrite filter
+      final OutputStream out = response instanceof GatewayResponse
+          ? ((GatewayResponse) response).getRawOutputStream() : response.getOutputStream();
+      out.write(body);
+      out.flush();
+    }
+  }
+
+  /*
+   * The seconds the response is fresh for, zero if it must be revalidated
+   * before each use.
+   */
+  private long freshness(List<String[]> headers) {
+    if (serviceTtl >= 0) {
+      return serviceTtl;
+    }
+    final List<String> cacheControl = values(headers, "Cache-Control");
+    if (hasDirective(cacheControl, "no-cache") || hasDirective(cacheControl, "private")) {
+      return 0;
+    }
+    Long maxAge = directiveValue(cacheControl, "s-maxage");
+    if (maxAge == null) {
+      maxAge = directiveValue(cacheControl, "max-age");
+    }
+    if (maxAge != null) {
+      return Math.max(0, maxAge);
+    }
+    final String expires = value(headers, "Expires");
+    if (expires != null) {
+      final long expiresAt = parseDate(expires);
+      final String date = value(headers, "Date");
+      final long dateAt = date == null ? System.currentTimeMillis() : parseDate(date);
+      return expiresAt < 0 || dateAt < 0 ? 0 : Math.max(0, (expiresAt - dateAt) / 1000);
+    }
+    return defaultTtl;
+  }
+
+  private static boolean isCacheable(int status, List<String[]> headers, long freshness) {
+    if (!CACHEABLE_STATUS.contains(Integer.toString(status))
+        || hasDirective(values(headers, "Cache-Control"), "no-store")
+        || value(headers, "Set-Cookie") != null
+        || varyHeaders(headers).contains("*")) {
+      return false;
+    }
+    return freshness > 0 || value(headers, "ETag") != null || value(headers, "Last-Modified") != null;
+  }
+
+  private static boolean isNoCache(HttpServletRequest request) {
+    return hasDirective(request.getHeaders("Cache-Control"), "no-cache")
+        || hasDirective(request.getHeaders("Pragma"), "no-cache");
+  }
+
+  private static boolean isNotModified(HttpServletRequest request, CachedResponse cached) {
+    if (cached.getStatus() != HttpServletResponse.SC_OK) {
+      return false;
+    }
+    final String ifNoneMatch = request.getHeader("If-None-Match");
+    if (ifNoneMatch != null) {
+      final String etag = cached.getETag();
+      if (etag == null) {
+        return false;
+      }
+      for (String candidate : ifNoneMatch.split(",")) {
+        final String tag = candidate.trim();
+        if ("*".equals(tag) || weak(tag).equals(weak(etag))) {
+          return true;
+        }
+      }
+      return false;
+    }
+    final String ifModifiedSince = request.getHeader("If-Modified-Since");
+    final String lastModified = cached.getLastModified();
+    if (ifModifiedSince != null && lastModified != null) {
+      final long since = parseDate(ifModifiedSince);
+      final long modified = parseDate(lastModified);
+      return since >= 0 && modified >= 0 && modified <= since;
+    }
+    return false;
+  }
+
+  /*
+   * The key of the request: the effective user and the URL of the request as
+   * the client sees it, with its query parameters sorted.
+   */
+  static String requestKey(HttpServletRequest request) {
+    final StringBuilder key = new StringBuilder();
+    final String user = SubjectUtils.getCurrentEffectivePrincipalName();
+    key.append(user == null ? "" : user).append('\n');
+
+    String scheme = request.getHeader("X-Forwarded-Proto");
+    if (scheme == null) {
+      scheme = request.getScheme();
+    }
+    scheme = scheme.toLowerCase(Locale.ROOT);
+    String host = request.getHeader("X-Forwarded-Host");
+    String port = request.getHeader("X-Forwarded-Port");
+    if (host == null) {
+      host = request.getServerName();
+      port = Integer.toString(request.getServerPort());
+    } else {
+      host = host.split(",")[0].trim();
+      final int colon = host.lastIndexOf(':');
+      if (colon > host.lastIndexOf(']')) {
+        if (port == null) {
+          port = host.substring(colon + 1);
+        }
+        host = host.substring(0, colon);
+      }
+    }
+    key.append(scheme).append("://").append(host.toLowerCase(Locale.ROOT));
+    if (port != null && !("http".equals(scheme) && "80".equals(port))
+        && !("https".equals(scheme) && "443".equals(port))) {
+      key.append(':').append(port);
+    }
+    key.append(request.getRequestURI());
+
+    final String query = request.getQueryString();
+    if (query != null && !query.isEmpty()) {
+      final List<String> params = new ArrayList<>(Arrays.asList(query.split("&")));
+      Collections.sort(params);
+      key.append('?').append(String.join("&", params));
+    }
+    return key.toString();
+  }
+
+  private static List<String[]> cachedHeaders(List<String[]> recorded) {
+    final List<String[]> headers = new ArrayList<>(recorded.size());
+    for (String[] header : recorded) {
+      if (!UNCACHED_HEADERS.contains(header[0].toLowerCase(Locale.ROOT))) {
+        headers.add(header);
+      }
+    }
+    return headers;
+  }
+
+  private static List<String> varyHeaders(List<String[]> headers) {
+    final List<String> names = new ArrayList<>();
+    for (String vary : values(headers, "Vary")) {
+      for (String name : vary.split(",")) {
+        final String trimmed = name.trim().toLowerCase(Locale.ROOT);
+        if (!trimmed.isEmpty() && !names.contains(trimmed)) {
+          names.add(trimmed);
+        }
+      }
+    }
+    return names;
+  }
+
+  private static void copyHeader(CachedResponse cached, HttpServletResponse response, String name) {
+    final String value = cached.getHeader(name);
+    if (value != null) {
+      response.setHeader(name, value);
+    }
+  }
+
+  private static String value(List<String[]> headers, String name) {
+    for (String[] header : headers) {
+      if (header[0].equalsIgnoreCase(name)) {
+        return header[1];
+      }
+    }
+    return null;
+  }
+
+  private static List<String> values(List<String[]> headers, String name) {
+    final List<String> values = new ArrayList<>();
+    for (String[] header : headers) {
+      if (header[0].equalsIgnoreCase(name)) {
+        values.add(header[1]);
+      }
+    }
+    return values;
+  }
+
+  private static boolean hasDirective(Enumeration<String> values, String directive) {
+    return values != null && hasDirective(Collections.list(values), directive);
+  }
+
+  private static boolean hasDirective(List<String> values, String directive) {
+    for (String value : values) {
+      for (String part : value.split(",")) {
+        final String name = part.split("=", 2)[0].trim();
+        if (name.equalsIgnoreCase(directive)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static Long directiveValue(List<String> values, String directive) {
+    for (String value : values) {
+      for (String part : value.split(",")) {
+        final String[] nameValue = part.split("=", 2);
+        if (nameValue.length == 2 && nameValue[0].trim().equalsIgnoreCase(directive)) {
+          try {
+            return Long.parseLong(nameValue[1].trim().replace("\"", ""));
+          } catch (NumberFormatException e) {
+            return 0L;
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  private static String weak(String etag) {
+    return etag.startsWith("W/") ? etag.substring(2) : etag;
+  }
+
+  /* Returns the time of an HTTP date in milliseconds, or -1 if it is invalid */
+  private static long parseDate(String date) {
+    try {
+      return ZonedDateTime.parse(date.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+    } catch (DateTimeParseException e) {
+      return -1;
+    }
+  }
+
+  private static long getLong(FilterConfig filterConfig, String name, long defaultValue) throws ServletException {
+    final String value = filterConfig.getInitParameter(name);
+    if (value == null || value.trim().isEmpty()) {
+      return defaultValue;
+    }
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      throw new ServletException("Invalid value for " + name + ": " + value, e);
+    }
+  }
+
+  /* The services of a topology share one cache, created by the first filter initialized */
+  private static ResponseCache getCache(FilterConfig filterConfig) throws ServletException {
+    final ServletContext context = filterConfig.getServletContext();
+    synchronized (context) {
+      ResponseCache shared = (ResponseCache) context.getAttribute(CACHE_ATTRIBUTE);
+      if (shared == null) {
+        final long maxSize = getLong(filterConfig, MAX_SIZE_PARAM, DEFAULT_MAX_SIZE);
+        final String diskDir = filterConfig.getInitParameter(DISK_DIR_PARAM);
+        ResponseCacheDiskStore disk = null;
+        if (diskDir != null && !diskDir.trim().isEmpty()) {
+          final String topology = (String) context.getAttribute(GatewayServices.GATEWAY_CLUSTER_ATTRIBUTE);
+          try {
+            disk = new ResponseCacheDiskStore(Paths.get(diskDir.trim(), topology == null ? "default" : topology),
+                getLong(filterConfig, DISK_MAX_SIZE_PARAM, DEFAULT_DISK_MAX_SIZE));
+          } catch (IOException e) {
+            LOG.failedToCreateDiskStore(diskDir, e);
+          }
+        }
+        shared = new ResponseCache(maxSize, disk);
+        context.setAttribute(CACHE_ATTRIBUTE, shared);
+        LOG.createdResponseCache(maxSize, disk == null ? "none" : diskDir);
+      }
+      return shared;
+    }
+  }
+
+  /*
+   * The request revalidating a cached response: the conditional headers of
+   * the client are replaced by the validators of the cached response.
+   */
+  private static class RevalidationRequest extends HttpServletRequestWrapper {
+    private final String ifNoneMatch;
+    private final String ifModifiedSince;
+
+    RevalidationRequest(HttpServletRequest request, CachedResponse cached) {
+      super(request);
+      this.ifNoneMatch = cached.getETag();
+      this.ifModifiedSince = ifNoneMatch == null ? cached.getLastModified() : null;
+    }
+
+    @Override
+    public String getHeader(String name) {
+      if ("If-None-Match".equalsIgnoreCase(name)) {
+        return ifNoneMatch;
+      }
+      if ("If-Modified-Since".equalsIgnoreCase(name)) {
+        return ifModifiedSince;
+      }
+      return super.getHeader(name);
+    }
+
+    @Override
+    public Enumeration<String> getHeaders(String name) {
+      final String value = getHeader(name);
+      if ("If-None-Match".equalsIgnoreCase(name) || "If-Modified-Since".equalsIgnoreCase(name)) {
+        return Collections.enumeration(value == null ? Collections.emptyList() : Collections.singletonList(value));
+      }
+      return super.getHeaders(name);
+    }
+
+    @Override
+    public long getDateHeader(String name) {
+      if ("If-Modified-Since".equalsIgnoreCase(name)) {
+        return ifModifiedSince == null ? -1 : parseDate(ifModifiedSince);
+      }
+      return super.getDateHeader(name);
+    }
+
+    @Override
+    public Enumeration<String> getHeaderNames() {
+      final List<String> names = new ArrayList<>();
+      for (String name : Collections.list(super.getHeaderNames())) {
+        if (!"If-None-Match".equalsIgnoreCase(name) && !"If-Modified-Since".equalsIgnoreCase(name)) {
+          names.add(name);
+        }
+      }
+      if (ifNoneMatch != null) {
+        names.add("If-None-Match");
+      }
+      if (ifModifiedSince != null) {
+        names.add("If-Modified-Since");
+      }
+      return Collections.enumeration(names);
+    }
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.cache.filter;
+
+import org.apache.knox.gateway.i18n.messages.Message;
+import org.apache.knox.gateway.i18n.messages.MessageLevel;
+import org.apache.knox.gateway.i18n.messages.Messages;
+import org.apache.knox.gateway.i18n.messages.StackTrace;
+
+@Messages(logger="org.apache.knox.gateway.cache")
+public interface ResponseCacheMessages {
+
+  @Message( level = MessageLevel.INFO, text = "Initializing response cache for: {0}, default TTL {1}s" )
+  void initializingForResourceRole(String resourceRole, long defaultTtl);
+
+  @Message( level = MessageLevel.INFO, text = "Created response cache of {0} bytes, disk store: {1}" )
+  void createdResponseCache(long maxSize, String diskStore);
+
+  @Message( level = MessageLevel.DEBUG, text = "Response cache {0}: {1}" )
+  void cacheResult(String result, String url);
+
+  @Message( level = MessageLevel.DEBUG, text = "Timed out waiting for a coalesced request to: {0}" )
+  void coalescedRequestTimedOut(String url);
+
+  @Message( level = MessageLevel.WARN, text = "Failed to move a cached response to disk: {0}" )
+  void failedToSpillCachedResponse(@StackTrace( level = MessageLevel.DEBUG ) Exception e);
+
+  @Message( level = MessageLevel.WARN, text = "Failed to read a cached response from disk: {0}" )
+  void failedToReadCachedResponse(@StackTrace( level = MessageLevel.DEBUG ) Exception e);
+
+  @Message( level = MessageLevel.WARN, text = "Failed to remove a cached response from disk: {0}" )
+  void failedToRemoveCachedResponse(@StackTrace( level = MessageLevel.DEBUG ) Exception e);
+
+  @Message( level = MessageLevel.ERROR, text = "Failed to create the response cache disk store in {0}: {1}" )
+  void failedToCreateDiskStore(String directory, @StackTrace( level = MessageLevel.DEBUG ) Exception e);
+}
@@ -0,0 +1,500 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.cache.filter;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.apache.knox.gateway.filter.GatewayResponse;
+import org.apache.knox.gateway.filter.GatewayResponseWrapper;
+import org.apache.knox.gateway.filter.rewrite.api.UrlRewriteEnvironment;
+import org.apache.knox.gateway.filter.rewrite.api.UrlRewriteProcessor;
+import org.apache.knox.gateway.filter.rewrite.api.UrlRewriteRulesDescriptorFactory;
+import org.apache.knox.gateway.filter.rewrite.api.UrlRewriteServletContextListener;
+import org.apache.knox.gateway.filter.rewrite.api.UrlRewriteServletFilter;
+import org.apache.knox.gateway.security.PrimaryPrincipal;
+import org.easymock.EasyMock;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.security.auth.Subject;
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ResponseCacheFilterTest {
+  private static final String REWRITE_RULES = "<rules>"
+      + "<rule name=\"test-rule\" url=\"{scheme=*}://{host=*}:{port=*}/{path=**}\">"
+      + "<rewrite template=\"{scheme}://{host}:{port}/gateway/data\"/>"
+      + "</rule>"
+      + "<filter name=\"test-filter\"><content type=\"application/json\">"
+      + "<apply path=\"$.url\" rule=\"test-rule\"/>"
+      + "</content></filter>"
+      + "</rules>";
+  private static final String JSON = "{\"url\":\"http://backend:1/data\"}";
+  private static final String REWRITTEN_JSON = "{\"url\":\"http://backend:1/gateway/data\"}";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Server server;
+  private BackendServlet backend;
+
+  @After
+  public void tearDown() throws Exception {
+    if (server != null) {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testResponsesAreCachedPerUser() throws Exception {
+    start(new HashMap<>());
+    backend.cacheControl = "max-age=60";
+
+    assertEquals("[rw]alice:/data", get("/data", "alice").body);
+    assertEquals("[rw]alice:/data", get("/data", "alice").body);
+    assertEquals(1, backend.calls.get());
+
+    assertEquals("[rw]bob:/data", get("/data", "bob").body);
+    assertEquals(2, backend.calls.get());
+  }
+
+  @Test
+  public void testQueryParametersAreNormalized() throws Exception {
+    start(new HashMap<>());
+    backend.cacheControl = "max-age=60";
+
+    get("/data?b=2&a=1", "alice");
+    get("/data?a=1&b=2", "alice");
+    assertEquals(1, backend.calls.get());
+  }
+
+  @Test
+  public void testStaleResponsesAreRevalidated() throws Exception {
+    start(new HashMap<>());
+    backend.cacheControl = "no-cache";
+    backend.etag = "\"v1\"";
+
+    assertEquals("[rw]alice:/data", get("/data", "alice").body);
+    final Result revalidated = get("/data", "alice");
+    assertEquals(200, revalidated.status);
+    assertEquals("[rw]alice:/data", revalidated.body);
+    assertEquals(2, backend.calls.get());
+    assertEquals(1, backend.notModified.get());
+
+    backend.etag = "\"v2\"";
+    backend.prefix = "new-";
+    assertEquals("[rw]new-alice:/data", get("/data", "alice").body);
+    assertEquals(1, backend.notModified.get());
+  }
+
+  @Test
+  public void testConditionalRequestsAreAnsweredFromTheCache() throws Exception {
+    start(new HashMap<>());
+    backend.cacheControl = "max-age=60";
+    backend.etag = "\"v1\"";
+
+    get("/data", "alice");
+    final Map<String, String> headers = new HashMap<>();
+    headers.put("If-None-Match", "\"v1\"");
+    assertEquals(304, get("/data", "alice", headers).status);
+    assertEquals(1, backend.calls.get());
+  }
+
+  @Test
+  public void testConcurrentMissesAreCoalesced() throws Exception {
+    start(new HashMap<>());
+    backend.cacheControl = "max-age=60";
+    backend.release = new CountDownLatch(1);
+
+    final int requests = 8;
+    final ExecutorService executor = Executors.newFixedThreadPool(requests);
+    try {
+      final List<Future<Result>> results = new ArrayList<>();
+      for (int i = 0; i < requests; i++) {
+        results.add(executor.submit(() -> get("/slow", "alice")));
+      }
+      assertTrue(backend.entered.await(10, TimeUnit.SECONDS));
+      // give the other requests the time to join the one at the backend
+      Thread.sleep(500);
+      backend.release.countDown();
+      for (Future<Result> result : results) {
+        assertEquals("[rw]alice:/slow", result.get(10, TimeUnit.SECONDS).body);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(1, backend.calls.get());
+  }
+
+  @Test
+  public void testServiceTtlOverridesResponseHeaders() throws Exception {
+    final Map<String, String> params = new HashMap<>();
+    params.put(ResponseCacheFilter.TTL_PARAM + ".test", "60");
+    start(params);
+    backend.cacheControl = "no-cache";
+
+    get("/data", "alice");
+    get("/data", "alice");
+    assertEquals(1, backend.calls.get());
+  }
+
+  @Test
+  public void testDefaultTtlAppliesWithoutFreshnessHeaders() throws Exception {
+    final Map<String, String> params = new HashMap<>();
+    params.put(ResponseCacheFilter.TTL_PARAM, "60");
+    start(params);
+
+    get("/data", "alice");
+    get("/data", "alice");
+    assertEquals(1, backend.calls.get());
+  }
+
+  @Test
+  public void testUncacheableResponsesAreNotCached() throws Exception {
+    start(new HashMap<>());
+    backend.cacheControl = "no-store";
+
+    get("/data", "alice");
+    get("/data", "alice");
+    assertEquals(2, backend.calls.get());
+
+    backend.cacheControl = "max-age=60";
+    backend.status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+    get("/error", "alice");
+    get("/error", "alice");
+    assertEquals(4, backend.calls.get());
+  }
+
+  @Test
+  public void testLargeResponsesPassThrough() throws Exception {
+    final Map<String, String> params = new HashMap<>();
+    params.put(ResponseCacheFilter.MAX_ENTRY_SIZE_PARAM, "4");
+    start(params);
+    backend.cacheControl = "max-age=60";
+
+    assertEquals("[rw]alice:/data", get("/data", "alice").body);
+    assertEquals("[rw]alice:/data", get("/data", "alice").body);
+    assertEquals(2, backend.calls.get());
+  }
+
+  @Test
+  public void testEvictedResponsesAreServedFromDisk() throws Exception {
+    final Map<String, String> params = new HashMap<>();
+    params.put(ResponseCacheFilter.MAX_SIZE_PARAM, "4096");
+    params.put(ResponseCacheFilter.DISK_DIR_PARAM, folder.getRoot().getAbsolutePath());
+    start(params);
+    backend.cacheControl = "max-age=60";
+    backend.padding = 1024;
+
+    final int resources = 10;
+    for (int i = 0; i < resources; i++) {
+      get("/data/" + i, "alice");
+    }
+    for (int i = 0; i < resources; i++) {
+      assertTrue(get("/data/" + i, "alice").body.startsWith("[rw]alice:/data/" + i));
+    }
+    assertEquals(resources, backend.calls.get());
+  }
+
+  @Test
+  public void testReencodedResponsesAreNotCached() throws Exception {
+    start(new HashMap<>(), urlRewriteFilter());
+    backend.cacheControl = "max-age=60";
+    backend.contentType = "application/json";
+    backend.contentEncoding = "br";
+    backend.content = brotli(JSON);
+
+    // there is no Brotli encoder, the rewritten body is gzip encoded for a client that accepts it
+    final Map<String, String> headers = new HashMap<>();
+    headers.put("Accept-Encoding", "gzip, br");
+    for (int i = 1; i <= 2; i++) {
+      final Result result = get("/data", "alice", headers);
+      assertEquals("gzip", result.contentEncoding);
+      assertEquals(REWRITTEN_JSON, gunzip(result.content));
+      assertEquals(i, backend.calls.get());
+    }
+
+    headers.put("Accept-Encoding", "br");
+    final Result result = get("/data", "alice", headers);
+    assertNull(result.contentEncoding);
+    assertEquals(REWRITTEN_JSON, result.body);
+    assertEquals(3, backend.calls.get());
+  }
+
+  @Test
+  public void testEncodedResponsesAreCachedWithTheirEncoding() throws Exception {
+    start(new HashMap<>(), urlRewriteFilter());
+    backend.cacheControl = "max-age=60";
+    backend.contentType = "application/json";
+    backend.contentEncoding = "gzip";
+    backend.content = gzip(JSON);
+
+    final Map<String, String> headers = new HashMap<>();
+    headers.put("Accept-Encoding", "gzip");
+    for (int i = 0; i < 2; i++) {
+      final Result result = get("/data", "alice", headers);
+      assertEquals("gzip", result.contentEncoding);
+      assertEquals(REWRITTEN_JSON, gunzip(result.content));
+    }
+    assertEquals(1, backend.calls.get());
+  }
+
+  private void start(Map<String, String> params) throws Exception {
+    start(params, new FilterHolder(new RewriteFilter()));
+  }
+
+  private void start(Map<String, String> params, FilterHolder rewrite) throws Exception {
+    backend = new BackendServlet();
+    final ServletContextHandler context = new ServletContextHandler();
+    context.setContextPath("/");
+    final UrlRewriteEnvironment environment = EasyMock.createNiceMock(UrlRewriteEnvironment.class);
+    EasyMock.replay(environment);
+    final UrlRewriteProcessor processor = new UrlRewriteProcessor();
+    processor.initialize(environment, UrlRewriteRulesDescriptorFactory.load("xml", new StringReader(REWRITE_RULES)));
+    context.setAttribute(UrlRewriteServletContextListener.PROCESSOR_ATTRIBUTE_NAME, processor);
+    context.addFilter(new FilterHolder(new SubjectFilter()), "/*", EnumSet.of(DispatcherType.REQUEST));
+    context.addFilter(rewrite, "/*", EnumSet.of(DispatcherType.REQUEST));
+    final FilterHolder cache = new FilterHolder(new ResponseCacheFilter());
+    cache.setInitParameters(params);
+    cache.setInitParameter(ResponseCacheFilter.RESOURCE_ROLE_PARAM, "TEST");
+    context.addFilter(cache, "/*", EnumSet.of(DispatcherType.REQUEST));
+    context.addServlet(new ServletHolder(backend), "/*");
+    server = new Server(0);
+    server.setHandler(context);
+    server.start();
+  }
+
+  /* The rewrite filter of the gateway, applying test-filter to the response bodies */
+  private static FilterHolder urlRewriteFilter() {
+    final FilterHolder holder = new FilterHolder(new UrlRewriteServletFilter());
+    holder.setInitParameter(UrlRewriteServletFilter.RESPONSE_BODY_FILTER_PARAM, "test-filter");
+    return holder;
+  }
+
+  private Result get(String path, String user) throws IOException {
+    return get(path, user, new HashMap<>());
+  }
+
+  private Result get(String path, String user, Map<String, String> headers) throws IOException {
+    final HttpURLConnection connection = (HttpURLConnection) new URL(server.getURI().resolve(path).toURL().toString())
+        .openConnection();
+    connection.setRequestProperty("X-User", user);
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      connection.setRequestProperty(header.getKey(), header.getValue());
+    }
+    final Result result = new Result();
+    result.status = connection.getResponseCode();
+    result.contentEncoding = connection.getHeaderField("Content-Encoding");
+    try (InputStream in = result.status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+      result.content = in == null ? new byte[0] : IOUtils.toByteArray(in);
+    }
+    result.body = new String(result.content, StandardCharsets.UTF_8);
+    return result;
+  }
+
+  private static byte[] gzip(String content) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (OutputStream out = new GZIPOutputStream(bytes)) {
+      out.write(content.getBytes(StandardCharsets.UTF_8));
+    }
+    return bytes.toByteArray();
+  }
+
+  private static String gunzip(byte[] content) throws IOException {
+    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(content))) {
+      return IOUtils.toString(in, StandardCharsets.UTF_8);
+    }
+  }
+
+  /*
+   * Builds a Brotli stream holding the content in a single uncompressed meta-block:
+   * WBITS 16, a 4 nibble MLEN and ISUNCOMPRESSED, followed by an empty last meta-block.
+   */
+  private static byte[] brotli(String content) {
+    final byte[] data = content.getBytes(StandardCharsets.UTF_8);
+    final int header = ((data.length - 1) << 4) | (1 << 20);
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    bytes.write(header & 0xff);
+    bytes.write((header >> 8) & 0xff);
+    bytes.write((header >> 16) & 0xff);
+    bytes.write(data, 0, data.length);
+    bytes.write(0x03);
+    return bytes.toByteArray();
+  }
+
+  private static class Result {
+    int status;
+    String contentEncoding;
+    byte[] content;
+    String body;
+  }
+
+  /* Stands in for the authentication providers */
+  private static class SubjectFilter implements Filter {
+    @Override
+    public void init(FilterConfig filterConfig) {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+        throws IOException, ServletException {
+      final Subject subject = new Subject();
+      subject.getPrincipals().add(new PrimaryPrincipal(((HttpServletRequest) request).getHeader("X-User")));
+      try {
+        Subject.doAs(subject, (PrivilegedExceptionAction<Void>) () -> {
+          chain.doFilter(request, response);
+          return null;
+        });
+      } catch (PrivilegedActionException e) {
+        throw new ServletException(e.getException());
+      }
+    }
+
+    @Override
+    public void destroy() {
+    }
+  }
+
+  /* Stands in for the rewrite filter, marking each body it rewrites */
+  private static class RewriteFilter implements Filter {
+    @Override
+    public void init(FilterConfig filterConfig) {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+        throws IOException, ServletException {
+      final HttpServletResponse outer = (HttpServletResponse) response;
+      chain.doFilter(request, new GatewayResponseWrapper(outer) {
+        @Override
+        public OutputStream getRawOutputStream() throws IOException {
+          return outer.getOutputStream();
+        }
+
+        @Override
+        public void streamResponse(InputStream input, OutputStream output) throws IOException {
+          output.write("[rw]".getBytes(StandardCharsets.UTF_8));
+          IOUtils.copy(input, output);
+          output.close();
+        }
+      });
+    }
+
+    @Override
+    public void destroy() {
+    }
+  }
+
+  /* Stands in for the dispatch to the backend */
+  private static class BackendServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    final AtomicInteger calls = new AtomicInteger();
+    final AtomicInteger notModified = new AtomicInteger();
+    final CountDownLatch entered = new CountDownLatch(1);
+    transient CountDownLatch release;
+    String cacheControl;
+    String etag;
+    String prefix = "";
+    int status = HttpServletResponse.SC_OK;
+    int padding;
+    String contentType = "text/plain";
+    String contentEncoding;
+    transient byte[] content;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+      calls.incrementAndGet();
+      entered.countDown();
+      if (release != null) {
+        try {
+          release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      if (etag != null && etag.equals(request.getHeader("If-None-Match"))) {
+        notModified.incrementAndGet();
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        response.setHeader("ETag", etag);
+        return;
+      }
+      response.setStatus(status);
+      response.setContentType(contentType);
+      if (cacheControl != null) {
+        response.setHeader("Cache-Control", cacheControl);
+      }
+      if (etag != null) {
+        response.setHeader("ETag", etag);
+      }
+      if (content != null) {
+        response.setHeader("Content-Encoding", contentEncoding);
+        ((GatewayResponse) response).streamResponse(new ByteArrayInputStream(content));
+        return;
+      }
+      final StringBuilder body = new StringBuilder(prefix).append(request.getHeader("X-User")).append(':')
+          .append(request.getRequestURI());
+      for (int i = 0; i < padding; i++) {
+        body.append('.');
+      }
+      final byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+      ((GatewayResponse) response).streamResponse(new ByteArrayInputStream(bytes));
+    }
+  }
+}
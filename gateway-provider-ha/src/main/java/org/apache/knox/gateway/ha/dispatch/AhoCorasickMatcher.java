@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.ha.dispatch;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Tells whether a text contains any of a set of strings, in a single pass
+ * over the text whatever the number of strings.
+ *
+ * The strings are compiled into an Aho-Corasick automaton whose failure links
+ * are resolved ahead of time, so that matching is one table lookup per
+ * character. Instances are immutable and can be shared between threads.
+ */
+final class AhoCorasickMatcher {
+  /* the transitions of each state, by column of the character read */
+  private final int[][] transitions;
+  /* whether one of the strings ends in each state */
+  private final boolean[] accepting;
+  /* the columns of the characters of the strings, 0 for the other characters */
+  private final Map<Character, Integer> columns;
+  private final int[] asciiColumns = new int[128];
+  private final boolean matchesAll;
+
+  private AhoCorasickMatcher(Collection<String> patterns) {
+    final List<Map<Character, Integer>> children = new ArrayList<>();
+    final List<Boolean> ends = new ArrayList<>();
+    children.add(new HashMap<>());
+    ends.add(Boolean.FALSE);
+    final Map<Character, Integer> alphabet = new HashMap<>();
+    boolean empty = false;
+    for (String pattern : patterns) {
+      if (pattern.isEmpty()) {
+        empty = true;
+        continue;
+      }
+      int state = 0;
+      for (int i = 0; i < pattern.length(); i++) {
+        final char c = pattern.charAt(i);
+        alphabet.putIfAbsent(c, alphabet.size() + 1);
+        Integer next = children.get(state).get(c);
+        if (next == null) {
+          next = children.size();
+          children.add(new HashMap<>());
+          ends.add(Boolean.FALSE);
+          children.get(state).put(c, next);
+        }
+        state = next;
+      }
+      ends.set(state, Boolean.TRUE);
+    }
+    this.matchesAll = empty;
+    this.columns = Collections.unmodifiableMap(alphabet);
+    for (Map.Entry<Character, Integer> column : alphabet.entrySet()) {
+      if (column.getKey() < asciiColumns.length) {
+        asciiColumns[column.getKey()] = column.getValue();
+      }
+    }
+
+    final int states = children.size();
+    transitions = new int[states][alphabet.size() + 1];
+    accepting = new boolean[states];
+    final int[] failure = new int[states];
+    final Queue<Integer> queue = new ArrayDeque<>();
+    queue.add(0);
+    while (!queue.isEmpty()) {
+      final int state = queue.remove();
+      accepting[state] = ends.get(state) || accepting[failure[state]];
+      for (Map.Entry<Character, Integer> column : alphabet.entrySet()) {
+        final Integer child = children.get(state).get(column.getKey());
+        if (child == null) {
+          // the failure state is closer to the root, so its transitions are resolved already
+          transitions[state][column.getValue()] = state == 0 ? 0 : transitions[failure[state]][column.getValue()];
+        } else {
+          failure[child] = state == 0 ? 0 : transitions[failure[state]][column.getValue()];
+          transitions[state][column.getValue()] = child;
+          queue.add(child);
+        }
+      }
+    }
+  }
+
+  static AhoCorasickMatcher compile(Collection<String> patterns) {
+    return new AhoCorasickMatcher(patterns);
+  }
+
+  /**
+   * @return true if the text contains at least one of the strings
+   */
+  boolean matches(CharSequence text) {
+    if (matchesAll) {
+      return true;
+    }
+    if (text == null) {
+      return false;
+    }
+    int state = 0;
+    for (int i = 0; i < text.length(); i++) {
+      state = transitions[state][column(text.charAt(i))];
+      if (accepting[state]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private int column(char c) {
+    if (c < asciiColumns.length) {
+      return asciiColumns[c];
+    }
+    final Integer column = columns.get(c);
+    return column == null ? 0 : column;
+  }
+}
@@ -30,6 +30,8 @@ import org.apache.knox.gateway.filter.AbstractGatewayFilter;
 import org.apache.knox.gateway.ha.dispatch.i18n.HaDispatchMessages;
 import org.apache.knox.gateway.ha.provider.HaProvider;
 import org.apache.knox.gateway.ha.provider.HaServiceConfig;
+import org.apache.knox.gateway.ha.provider.LoadBalancingPolicy;
+import org.apache.knox.gateway.ha.provider.LoadBalancingPolicyLoader;
 import org.apache.knox.gateway.ha.provider.impl.HaServiceConfigConstants;
 import org.apache.knox.gateway.i18n.messages.MessagesFactory;
 
@@ -45,6 +47,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -67,14 +70,20 @@ public class ConfigurableHADispatch extends ConfigurableDispatch {
 
   private HaProvider haProvider;
 
-  private static final Map<String, String> urlToHashLookup = new HashMap<>();
-  private static final Map<String, String> hashToUrlLookup = new HashMap<>();
+  /**
+   * The backend URLs of the service and their sticky session cookie values.
+   * The snapshot is replaced as a whole when the URLs change, so requests
+   * read it without locking and always see a consistent set of lookups.
+   */
+  private final AtomicReference<Backends> backends = new AtomicReference<>(Backends.EMPTY);
 
   private boolean loadBalancingEnabled = HaServiceConfigConstants.DEFAULT_LOAD_BALANCING_ENABLED;
   private boolean stickySessionsEnabled = HaServiceConfigConstants.DEFAULT_STICKY_SESSIONS_ENABLED;
   private boolean noFallbackEnabled = HaServiceConfigConstants.DEFAULT_NO_FALLBACK_ENABLED;
   private String stickySessionCookieName = HaServiceConfigConstants.DEFAULT_STICKY_SESSION_COOKIE_NAME;
   private List<String> disableLoadBalancingForUserAgents = Arrays.asList(HaServiceConfigConstants.DEFAULT_DISABLE_LB_USER_AGENTS);
+  private AhoCorasickMatcher disableLoadBalancingForUserAgentsMatcher = AhoCorasickMatcher.compile(disableLoadBalancingForUserAgents);
+  private LoadBalancingPolicy loadBalancingPolicy;
 
   /**
    *  This activeURL is used to track urls when LB is turned off for some clients
@@ -109,8 +118,10 @@ public class ConfigurableHADispatch extends ConfigurableDispatch {
         disableLoadBalancingForUserAgents = Arrays.asList(serviceConfig.getStickySessionDisabledUserAgents()
             .trim()
             .split("\\s*,\\s*"));
+        disableLoadBalancingForUserAgentsMatcher = AhoCorasickMatcher.compile(disableLoadBalancingForUserAgents);
       }
-      setupUrlHashLookup();
+      loadBalancingPolicy = LoadBalancingPolicyLoader.loadPolicy(haProvider, serviceConfig);
+      refreshBackends();
     }
 
     /* setup the active URL for non-LB case */
@@ -121,12 +132,38 @@ public class ConfigurableHADispatch extends ConfigurableDispatch {
     stickySessionCookieName = stickySessionCookieName + '-' + getServiceRole();
   }
 
-  private void setupUrlHashLookup() {
-    for (String url : haProvider.getURLs(getServiceRole())) {
-        String urlHash = hash(url);
-        urlToHashLookup.put(url, urlHash);
-        hashToUrlLookup.put(urlHash, url);
+  /*
+   * Replaces the snapshot of the backends if the URLs of the service changed.
+   */
+  private Backends refreshBackends() {
+    final List<String> urls = haProvider.getURLs(getServiceRole());
+    final Backends current = backends.get();
+    if (current.urls.equals(urls)) {
+      return current;
     }
+    final Backends refreshed = new Backends(urls);
+    backends.set(refreshed);
+    return refreshed;
+  }
+
+  LoadBalancingPolicy getLoadBalancingPolicy() {
+    return loadBalancingPolicy;
+  }
+
+  /**
+   * @return the backend URL of a sticky session cookie value, null if it is
+   *         not the value of one of the URLs of the service
+   */
+  String getStickySessionBackend(String cookieValue) {
+    return cookieValue == null ? null : backends.get().urlsByHash.get(cookieValue);
+  }
+
+  /**
+   * @return the sticky session cookie value of the backend URL of a host, null
+   *         if none of the URLs of the service is on the host
+   */
+  String getStickySessionCookieValue(String host) {
+    return host == null ? null : backends.get().hashFor(host);
   }
 
   public HaProvider getHaProvider() {
@@ -145,12 +182,9 @@ public class ConfigurableHADispatch extends ConfigurableDispatch {
 
       final String userAgentFromBrowser = StringUtils.isBlank(inboundRequest.getHeader("User-Agent")) ? "" : inboundRequest.getHeader("User-Agent");
 
-      /* disable loadblancing override */
-      boolean userAgentDisabled = false;
-
       /* disable loadbalancing in case a configured user agent is detected to disable LB */
-      if(disableLoadBalancingForUserAgents.stream().anyMatch(c -> userAgentFromBrowser.contains(c))  ) {
-        userAgentDisabled = true;
+      final boolean userAgentDisabled = disableLoadBalancingForUserAgentsMatcher.matches(userAgentFromBrowser);
+      if (userAgentDisabled) {
         LOG.disableHALoadbalancinguserAgent(userAgentFromBrowser, disableLoadBalancingForUserAgents.toString());
       }
 
@@ -176,7 +210,6 @@ public class ConfigurableHADispatch extends ConfigurableDispatch {
         }
       }
 
-      executeRequest(outboundRequest, inboundRequest, outboundResponse);
       /**
        * 1. Load balance when loadbalancing is enabled and there are no overrides (disableLB)
        * 2. Loadbalance only when sticky session is enabled but cookie not detected
@@ -184,18 +217,25 @@ public class ConfigurableHADispatch extends ConfigurableDispatch {
        *    needs to be loadbalanced. If a request has BACKEND coookie and Loadbalance=on then
        *    there should be no loadbalancing.
        */
-      if (loadBalancingEnabled && !userAgentDisabled) {
-        /* check sticky session enabled */
-        if(stickySessionsEnabled) {
-          /* loadbalance only when sticky session enabled and no backend url cookie */
-          if(!backendURI.isPresent()) {
-            haProvider.makeNextActiveURLAvailable(getServiceRole());
-          } else{
-            /* sticky session enabled and backend url cookie is valid no need to loadbalance */
-            /* do nothing */
+      final boolean loadBalance = loadBalancingEnabled && !userAgentDisabled && loadBalancingPolicy != null
+          && !(stickySessionsEnabled && backendURI.isPresent());
+      String chosenURL = null;
+      if (loadBalance) {
+        chosenURL = loadBalancingPolicy.choose(backends.get().urls);
+        if (chosenURL != null) {
+          try {
+            ((HttpRequestBase) outboundRequest).setURI(updateHostURL(outboundRequest.getURI(), chosenURL));
+          } catch (final URISyntaxException e) {
+            LOG.errorSettingActiveUrl();
           }
-        } else {
-          haProvider.makeNextActiveURLAvailable(getServiceRole());
+        }
+      }
+
+      try {
+        executeRequest(outboundRequest, inboundRequest, outboundResponse);
+      } finally {
+        if (loadBalance) {
+          loadBalancingPolicy.completed(chosenURL);
         }
       }
   }
@@ -222,10 +262,9 @@ public class ConfigurableHADispatch extends ConfigurableDispatch {
       if (loadBalancingEnabled && stickySessionsEnabled && inboundRequest.getCookies() != null) {
           for (Cookie cookie : inboundRequest.getCookies()) {
               if (stickySessionCookieName.equals(cookie.getName())) {
-                  String backendURLHash = cookie.getValue();
-                  String backendURL = hashToUrlLookup.get(backendURLHash);
-                  // Make sure that the url provided is actually a valid backend url
-                  if (haProvider.getURLs(getServiceRole()).contains(backendURL)) {
+                  // Only the values of the current backend urls resolve to a url
+                  String backendURL = getStickySessionBackend(cookie.getValue());
+                  if (backendURL != null) {
                       try {
                         return Optional.of(updateHostURL(outboundRequest.getURI(), backendURL));
                       } catch (URISyntaxException ignore) {
@@ -249,8 +288,8 @@ public class ConfigurableHADispatch extends ConfigurableDispatch {
                       .collect(Collectors.toList());
           }
           /* if the inbound request has a valid hash then no need to set a different hash */
-          if (serviceHaCookies != null && !serviceHaCookies.isEmpty()
-                  && hashToUrlLookup.containsKey(serviceHaCookies.get(0).getValue())) {
+          if (!serviceHaCookies.isEmpty()
+                  && getStickySessionBackend(serviceHaCookies.get(0).getValue()) != null) {
               return;
           } else {
 
@@ -261,12 +300,10 @@ public class ConfigurableHADispatch extends ConfigurableDispatch {
               * we set cookie for the endpoint that was served and not rely on haProvider.getActiveURL().
               * let LBing logic take care of rotating urls.
               **/
-              final List<String> urls = haProvider.getURLs(getServiceRole())
-                      .stream()
-                      .filter(u -> u.contains(outboundRequest.getURI().getHost()))
-                      .collect(Collectors.toList());
-
-              final String cookieValue = urlToHashLookup.get(urls.get(0));
+              final String cookieValue = getStickySessionCookieValue(outboundRequest.getURI().getHost());
+              if (cookieValue == null) {
+                  return;
+              }
 
               Cookie stickySessionCookie = new Cookie(stickySessionCookieName, cookieValue);
               stickySessionCookie.setPath(inboundRequest.getContextPath());
@@ -306,7 +343,7 @@ public class ConfigurableHADispatch extends ConfigurableDispatch {
     }
     inboundRequest.setAttribute(FAILOVER_COUNTER_ATTRIBUTE, counter);
     if ( counter.incrementAndGet() <= maxFailoverAttempts ) {
-      setupUrlHashLookup(); // refresh the url hash after failing a url
+      refreshBackends(); // the urls may have changed along with the failed url
       //null out target url so that rewriters run again
       inboundRequest.setAttribute(AbstractGatewayFilter.TARGET_REQUEST_URL_ATTRIBUTE_NAME, null);
       // Make sure to remove the cookie ha cookie from the request
@@ -337,8 +374,60 @@ public class ConfigurableHADispatch extends ConfigurableDispatch {
     }
   }
 
-  private String hash(String url) {
-    return DigestUtils.sha256Hex(url);
+  /**
+   * An immutable snapshot of the backend URLs of the service, along with the
+   * sticky session cookie value of each URL, computed once.
+   */
+  private static final class Backends {
+    static final Backends EMPTY = new Backends(Collections.emptyList());
+
+    final List<String> urls;
+    final Map<String, String> hashesByURL;
+    final Map<String, String> urlsByHash;
+    /* the cookie value of the first url of each host */
+    final Map<String, String> hashesByHost;
+
+    Backends(List<String> urls) {
+      final Map<String, String> byURL = new HashMap<>();
+      final Map<String, String> byHash = new HashMap<>();
+      final Map<String, String> byHost = new HashMap<>();
+      for (String url : urls) {
+        final String hash = DigestUtils.sha256Hex(url);
+        byURL.put(url, hash);
+        byHash.put(hash, url);
+        final String host = host(url);
+        if (host != null) {
+          byHost.putIfAbsent(host, hash);
+        }
+      }
+      this.urls = Collections.unmodifiableList(new ArrayList<>(urls));
+      this.hashesByURL = Collections.unmodifiableMap(byURL);
+      this.urlsByHash = Collections.unmodifiableMap(byHash);
+      this.hashesByHost = Collections.unmodifiableMap(byHost);
+    }
+
+    String hashFor(String host) {
+      final String hash = hashesByHost.get(host.toLowerCase(Locale.ROOT));
+      if (hash != null) {
+        return hash;
+      }
+      /* fall back to the historical match on any part of the url */
+      for (String url : urls) {
+        if (url.contains(host)) {
+          return hashesByURL.get(url);
+        }
+      }
+      return null;
+    }
+
+    private static String host(String url) {
+      try {
+        final String host = new URI(url).getHost();
+        return host == null ? null : host.toLowerCase(Locale.ROOT);
+      } catch (URISyntaxException e) {
+        return null;
+      }
+    }
   }
 
   /**
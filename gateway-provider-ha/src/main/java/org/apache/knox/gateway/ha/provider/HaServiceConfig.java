@@ -62,4 +62,12 @@ public interface HaServiceConfig {
   void setDisableStickySessionForUserAgents(String disableStickySessionForUserAgents);
 
   String getStickySessionDisabledUserAgents();
+
+  String getLoadBalancingPolicy();
+
+  void setLoadBalancingPolicy(String loadBalancingPolicy);
+
+  String getLoadBalancingWeights();
+
+  void setLoadBalancingWeights(String loadBalancingWeights);
 }
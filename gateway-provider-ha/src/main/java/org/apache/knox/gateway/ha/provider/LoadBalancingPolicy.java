@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.ha.provider;
+
+import java.util.List;
+
+/**
+ * Picks the backend each request of a load balanced HA service is sent to.
+ *
+ * A policy is used by a single dispatch, from any number of request threads
+ * at once, so implementations must be thread safe. They should not block,
+ * since they are consulted on every request.
+ */
+public interface LoadBalancingPolicy {
+
+  /**
+   * Picks the backend of the next request.
+   *
+   * @param urls the URLs of the service, in the order of the HA provider
+   * @return the URL to send the request to, or null to send it to the
+   *         active URL of the HA provider
+   */
+  String choose(List<String> urls);
+
+  /**
+   * Called once the request sent to a URL returned by {@link #choose(List)},
+   * or to the active URL if it returned null, completed, successfully or not.
+   *
+   * @param url the URL returned by {@link #choose(List)}, null if it returned null
+   */
+  void completed(String url);
+}
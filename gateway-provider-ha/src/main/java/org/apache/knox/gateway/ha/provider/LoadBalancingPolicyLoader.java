@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.ha.provider;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.knox.gateway.ha.provider.impl.HaServiceConfigConstants;
+import org.apache.knox.gateway.ha.provider.impl.LeastOutstandingRequestsLoadBalancingPolicy;
+import org.apache.knox.gateway.ha.provider.impl.RoundRobinLoadBalancingPolicy;
+import org.apache.knox.gateway.ha.provider.impl.WeightedRoundRobinLoadBalancingPolicy;
+import org.apache.knox.gateway.ha.provider.impl.i18n.HaMessages;
+import org.apache.knox.gateway.i18n.messages.MessagesFactory;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+public class LoadBalancingPolicyLoader {
+  private static final HaMessages LOG = MessagesFactory.get(HaMessages.class);
+
+  public static final String ROUND_ROBIN = "roundrobin";
+  public static final String WEIGHTED_ROUND_ROBIN = "weightedroundrobin";
+  public static final String LEAST_OUTSTANDING_REQUESTS = "leastoutstandingrequests";
+
+  /**
+   * @return a new instance of the load balancing policy of the service,
+   *         round robin if none or an unknown one is configured
+   */
+  public static LoadBalancingPolicy loadPolicy(HaProvider haProvider, HaServiceConfig config) {
+    final String serviceName = config.getServiceName();
+    final String policy = StringUtils.isBlank(config.getLoadBalancingPolicy())
+        ? ROUND_ROBIN : config.getLoadBalancingPolicy().trim().toLowerCase(Locale.ROOT);
+    switch (policy) {
+      case WEIGHTED_ROUND_ROBIN:
+        return new WeightedRoundRobinLoadBalancingPolicy(parseWeights(serviceName, config.getLoadBalancingWeights()));
+      case LEAST_OUTSTANDING_REQUESTS:
+        return new LeastOutstandingRequestsLoadBalancingPolicy();
+      case ROUND_ROBIN:
+        return new RoundRobinLoadBalancingPolicy(haProvider, serviceName);
+      default:
+        LOG.unknownLoadBalancingPolicy(config.getLoadBalancingPolicy(), serviceName);
+        return new RoundRobinLoadBalancingPolicy(haProvider, serviceName);
+    }
+  }
+
+  /*
+   * Parses weights of the form url|weight,url|weight
+   */
+  static Map<String, Integer> parseWeights(String serviceName, String weights) {
+    final Map<String, Integer> parsed = new HashMap<>();
+    if (StringUtils.isBlank(weights)) {
+      return parsed;
+    }
+    for (String weight : weights.trim().split("\\s*,\\s*")) {
+      final int separator = weight.lastIndexOf(HaServiceConfigConstants.LOAD_BALANCING_WEIGHT_DELIMITER);
+      try {
+        if (separator <= 0) {
+          throw new NumberFormatException(weight);
+        }
+        final int value = Integer.parseInt(weight.substring(separator + 1).trim());
+        if (value < 0) {
+          throw new NumberFormatException(weight);
+        }
+        parsed.put(weight.substring(0, separator).trim(), value);
+      } catch (NumberFormatException e) {
+        LOG.invalidLoadBalancingWeight(weight, serviceName);
+      }
+    }
+    return parsed;
+  }
+}
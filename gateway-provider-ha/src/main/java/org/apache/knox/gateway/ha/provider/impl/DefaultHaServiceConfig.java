@@ -43,6 +43,10 @@ public class DefaultHaServiceConfig implements HaServiceConfig, HaServiceConfigC
 
   private String disableStickySessionForUserAgents;
 
+  private String loadBalancingPolicy = DEFAULT_LOAD_BALANCING_POLICY;
+
+  private String loadBalancingWeights;
+
   public DefaultHaServiceConfig(String name) {
     this.name = name;
   }
@@ -156,4 +160,24 @@ public class DefaultHaServiceConfig implements HaServiceConfig, HaServiceConfigC
   public String getStickySessionDisabledUserAgents() {
     return disableStickySessionForUserAgents;
   }
+
+  @Override
+  public String getLoadBalancingPolicy() {
+    return loadBalancingPolicy;
+  }
+
+  @Override
+  public void setLoadBalancingPolicy(String loadBalancingPolicy) {
+    this.loadBalancingPolicy = loadBalancingPolicy;
+  }
+
+  @Override
+  public String getLoadBalancingWeights() {
+    return loadBalancingWeights;
+  }
+
+  @Override
+  public void setLoadBalancingWeights(String loadBalancingWeights) {
+    this.loadBalancingWeights = loadBalancingWeights;
+  }
 }
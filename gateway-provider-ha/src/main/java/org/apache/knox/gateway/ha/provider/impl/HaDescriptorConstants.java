@@ -53,4 +53,8 @@ public interface HaDescriptorConstants {
    String STICKY_SESSION_COOKIE_NAME = "stickySessionCookieName";
 
    String DISABLE_LB_USER_AGENTS = "disableLoadBalancingForUserAgents";
+
+   String LOAD_BALANCING_POLICY = "loadBalancingPolicy";
+
+   String LOAD_BALANCING_WEIGHTS = "loadBalancingWeights";
 }
@@ -44,8 +44,11 @@ public abstract class HaDescriptorFactory implements HaServiceConfigConstants {
     final String stickySessionCookieName = configMap.getOrDefault(STICKY_SESSION_COOKIE_NAME, DEFAULT_STICKY_SESSION_COOKIE_NAME);
 
     final String disableLoadBalancingForUserAgentsConfig = configMap.getOrDefault(DISABLE_LB_USER_AGENTS, DEFAULT_DISABLE_LB_USER_AGENTS);
-    return createServiceConfig(serviceName, enabled, maxFailoverAttempts, failoverSleep, zookeeperEnsemble, zookeeperNamespace, stickySessionsEnabled, loadBalancingEnabled,
-            stickySessionCookieName, noFallbackEnabled, disableLoadBalancingForUserAgentsConfig);
+    final HaServiceConfig serviceConfig = createServiceConfig(serviceName, enabled, maxFailoverAttempts, failoverSleep, zookeeperEnsemble, zookeeperNamespace,
+            stickySessionsEnabled, loadBalancingEnabled, stickySessionCookieName, noFallbackEnabled, disableLoadBalancingForUserAgentsConfig);
+    serviceConfig.setLoadBalancingPolicy(configMap.getOrDefault(CONFIG_LOAD_BALANCING_POLICY, DEFAULT_LOAD_BALANCING_POLICY));
+    serviceConfig.setLoadBalancingWeights(configMap.get(CONFIG_LOAD_BALANCING_WEIGHTS));
+    return serviceConfig;
   }
 
   /**
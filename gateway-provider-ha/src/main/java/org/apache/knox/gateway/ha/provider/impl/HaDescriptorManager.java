@@ -69,6 +69,12 @@ public class HaDescriptorManager implements HaDescriptorConstants {
                if(config.getStickySessionDisabledUserAgents() != null && !config.getStickySessionDisabledUserAgents().isEmpty()) {
                   serviceElement.setAttribute(DISABLE_LB_USER_AGENTS, config.getStickySessionDisabledUserAgents());
                }
+               if (config.getLoadBalancingPolicy() != null) {
+                  serviceElement.setAttribute(LOAD_BALANCING_POLICY, config.getLoadBalancingPolicy());
+               }
+               if (config.getLoadBalancingWeights() != null) {
+                  serviceElement.setAttribute(LOAD_BALANCING_WEIGHTS, config.getLoadBalancingWeights());
+               }
                root.appendChild(serviceElement);
             }
          }
@@ -100,6 +106,12 @@ public class HaDescriptorManager implements HaDescriptorConstants {
                      element.getAttribute(STICKY_SESSION_COOKIE_NAME),
                      element.getAttribute(ENABLE_NO_FALLBACK),
                      element.getAttribute(DISABLE_LB_USER_AGENTS));
+               if (element.hasAttribute(LOAD_BALANCING_POLICY)) {
+                  config.setLoadBalancingPolicy(element.getAttribute(LOAD_BALANCING_POLICY));
+               }
+               if (element.hasAttribute(LOAD_BALANCING_WEIGHTS)) {
+                  config.setLoadBalancingWeights(element.getAttribute(LOAD_BALANCING_WEIGHTS));
+               }
                descriptor.addServiceConfig(config);
             }
          }
@@ -46,6 +46,20 @@ public interface HaServiceConfigConstants {
     */
    String DISABLE_LB_USER_AGENTS = "disableLoadBalancingForUserAgents";
 
+   /**
+    * The policy picking the backend of each request when load balancing is
+    * enabled: roundRobin, weightedRoundRobin or leastOutstandingRequests.
+    */
+   String CONFIG_LOAD_BALANCING_POLICY = "loadBalancingPolicy";
+
+   /**
+    * The weights of the backends for the weightedRoundRobin policy, as a comma
+    * separated list of url|weight pairs. Backends not listed have a weight of 1.
+    */
+   String CONFIG_LOAD_BALANCING_WEIGHTS = "loadBalancingWeights";
+
+   String LOAD_BALANCING_WEIGHT_DELIMITER = "|";
+
    int DEFAULT_MAX_FAILOVER_ATTEMPTS = 3;
 
    int DEFAULT_FAILOVER_SLEEP = 1000;
@@ -61,4 +75,6 @@ public interface HaServiceConfigConstants {
    String DEFAULT_STICKY_SESSION_COOKIE_NAME = "KNOX_BACKEND";
 
    String DEFAULT_DISABLE_LB_USER_AGENTS = "ClouderaODBCDriverforApacheHive";
+
+   String DEFAULT_LOAD_BALANCING_POLICY = "roundRobin";
 }
@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.ha.provider.impl;
+
+import org.apache.knox.gateway.ha.provider.LoadBalancingPolicy;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends each request to the URL with the fewest requests in progress, which
+ * favors the backends answering fastest. Ties are broken in turn, so that
+ * idle backends share the requests evenly.
+ */
+public class LeastOutstandingRequestsLoadBalancingPolicy implements LoadBalancingPolicy {
+  private final ConcurrentMap<String, AtomicInteger> outstanding = new ConcurrentHashMap<>();
+  private final AtomicInteger start = new AtomicInteger();
+
+  @Override
+  public String choose(List<String> urls) {
+    if (urls.isEmpty()) {
+      return null;
+    }
+    final int size = urls.size();
+    final int offset = Math.floorMod(start.getAndIncrement(), size);
+    String least = null;
+    AtomicInteger leastCount = null;
+    for (int i = 0; i < size; i++) {
+      final String url = urls.get((offset + i) % size);
+      final AtomicInteger count = outstanding.computeIfAbsent(url, u -> new AtomicInteger());
+      if (leastCount == null || count.get() < leastCount.get()) {
+        least = url;
+        leastCount = count;
+      }
+    }
+    leastCount.incrementAndGet();
+    return least;
+  }
+
+  @Override
+  public void completed(String url) {
+    if (url != null) {
+      final AtomicInteger count = outstanding.get(url);
+      if (count != null) {
+        count.decrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * @return the number of requests in progress to the URL
+   */
+  public int getOutstandingRequests(String url) {
+    final AtomicInteger count = outstanding.get(url);
+    return count == null ? 0 : count.get();
+  }
+}
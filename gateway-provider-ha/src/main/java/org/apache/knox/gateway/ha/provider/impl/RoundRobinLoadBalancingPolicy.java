@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.ha.provider.impl;
+
+import org.apache.knox.gateway.ha.provider.HaProvider;
+import org.apache.knox.gateway.ha.provider.LoadBalancingPolicy;
+
+import java.util.List;
+
+/**
+ * The historical policy: requests go to the active URL of the HA provider,
+ * which moves to the next URL after each request.
+ */
+public class RoundRobinLoadBalancingPolicy implements LoadBalancingPolicy {
+  private final HaProvider haProvider;
+  private final String serviceName;
+
+  public RoundRobinLoadBalancingPolicy(HaProvider haProvider, String serviceName) {
+    this.haProvider = haProvider;
+    this.serviceName = serviceName;
+  }
+
+  @Override
+  public String choose(List<String> urls) {
+    return null;
+  }
+
+  @Override
+  public void completed(String url) {
+    haProvider.makeNextActiveURLAvailable(serviceName);
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.ha.provider.impl;
+
+import org.apache.knox.gateway.ha.provider.LoadBalancingPolicy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Sends each URL a share of the requests proportional to its weight, URLs
+ * without a weight having a weight of 1.
+ *
+ * The order of the URLs is computed once for a list of URLs with the smooth
+ * weighted round robin algorithm, which spreads the requests to a URL instead
+ * of sending them in bursts, so that picking a URL is a single atomic
+ * increment.
+ */
+public class WeightedRoundRobinLoadBalancingPolicy implements LoadBalancingPolicy {
+  private final Map<String, Integer> weights;
+  private final AtomicReference<Schedule> schedule = new AtomicReference<>(new Schedule(Collections.emptyList(), Collections.emptyList()));
+  private final AtomicLong next = new AtomicLong();
+
+  /**
+   * @param weights the weights of the URLs
+   */
+  public WeightedRoundRobinLoadBalancingPolicy(Map<String, Integer> weights) {
+    this.weights = weights;
+  }
+
+  @Override
+  public String choose(List<String> urls) {
+    Schedule current = schedule.get();
+    if (!current.urls.equals(urls)) {
+      current = new Schedule(urls, order(urls));
+      schedule.set(current);
+    }
+    if (current.order.isEmpty()) {
+      return null;
+    }
+    return current.order.get((int) Math.floorMod(next.getAndIncrement(), (long) current.order.size()));
+  }
+
+  @Override
+  public void completed(String url) {
+    // no state to update
+  }
+
+  private List<String> order(List<String> urls) {
+    final List<Peer> peers = new ArrayList<>(urls.size());
+    int total = 0;
+    for (String url : urls) {
+      final Peer peer = new Peer(url, Math.max(0, weights.getOrDefault(url, 1)));
+      peers.add(peer);
+      total += peer.weight;
+    }
+    final List<String> order = new ArrayList<>(total);
+    for (int n = 0; n < total; n++) {
+      Peer best = null;
+      for (Peer peer : peers) {
+        peer.current += peer.weight;
+        if (best == null || peer.current > best.current) {
+          best = peer;
+        }
+      }
+      best.current -= total;
+      order.add(best.url);
+    }
+    return Collections.unmodifiableList(order);
+  }
+
+  private static class Peer {
+    final String url;
+    final int weight;
+    int current;
+
+    Peer(String url, int weight) {
+      this.url = url;
+      this.weight = weight;
+    }
+  }
+
+  private static class Schedule {
+    final List<String> urls;
+    final List<String> order;
+
+    Schedule(List<String> urls, List<String> order) {
+      this.urls = urls;
+      this.order = order;
+    }
+  }
+}
@@ -42,4 +42,10 @@ public interface HaMessages {
   @Message(level = MessageLevel.ERROR, text = "Failed to get Zookeeper URLs : {0}")
   void failedToGetZookeeperUrls(Exception e);
 
+  @Message(level = MessageLevel.WARN, text = "Unknown load balancing policy {0} for service {1}, using round robin")
+  void unknownLoadBalancingPolicy(String policy, String serviceName);
+
+  @Message(level = MessageLevel.WARN, text = "Ignoring invalid load balancing weight {0} for service {1}")
+  void invalidLoadBalancingWeight(String weight, String serviceName);
+
 }
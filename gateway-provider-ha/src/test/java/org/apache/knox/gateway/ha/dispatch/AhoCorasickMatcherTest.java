@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.ha.dispatch;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AhoCorasickMatcherTest {
+
+  @Test
+  public void testMatchesAnySubstring() {
+    final AhoCorasickMatcher matcher = AhoCorasickMatcher.compile(Arrays.asList("ClouderaODBCDriverforApacheHive", "Beeline", "he"));
+    assertTrue(matcher.matches("ClouderaODBCDriverforApacheHive/2.6.4 (Windows)"));
+    assertTrue(matcher.matches("Mozilla Beeline"));
+    assertTrue(matcher.matches("the"));
+    assertFalse(matcher.matches("Mozilla/5.0 (X11; Linux x86_64)"));
+    assertFalse(matcher.matches("Beelin"));
+    assertFalse(matcher.matches(""));
+    assertFalse(matcher.matches(null));
+  }
+
+  @Test
+  public void testMatchesThroughFailureLinks() {
+    // "bcd" is only found by falling back from the partial match of "abce"
+    final AhoCorasickMatcher matcher = AhoCorasickMatcher.compile(Arrays.asList("abce", "bcd", "ü€"));
+    assertTrue(matcher.matches("xxabcdxx"));
+    assertTrue(matcher.matches("aabce"));
+    assertTrue(matcher.matches("grüß ü€"));
+    assertFalse(matcher.matches("abcabc"));
+  }
+
+  @Test
+  public void testEmptyPatterns() {
+    assertFalse(AhoCorasickMatcher.compile(Collections.emptyList()).matches("anything"));
+    assertTrue(AhoCorasickMatcher.compile(Collections.singletonList("")).matches("anything"));
+  }
+
+  @Test
+  public void testAgreesWithContains() {
+    final Random random = new Random(42);
+    for (int round = 0; round < 200; round++) {
+      final List<String> patterns = Arrays.asList(randomString(random, 3), randomString(random, 4), randomString(random, 2));
+      final AhoCorasickMatcher matcher = AhoCorasickMatcher.compile(patterns);
+      for (int i = 0; i < 50; i++) {
+        final String text = randomString(random, 12);
+        assertEquals(text + " " + patterns, patterns.stream().anyMatch(text::contains), matcher.matches(text));
+      }
+    }
+  }
+
+  private static String randomString(Random random, int maxLength) {
+    final StringBuilder string = new StringBuilder();
+    final int length = 1 + random.nextInt(maxLength);
+    for (int i = 0; i < length; i++) {
+      string.append((char) ('a' + random.nextInt(3)));
+    }
+    return string.toString();
+  }
+}
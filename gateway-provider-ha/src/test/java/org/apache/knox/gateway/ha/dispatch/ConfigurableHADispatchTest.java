@@ -24,6 +24,12 @@ import java.io.IOException;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.FilterConfig;
@@ -49,6 +55,7 @@ import org.apache.knox.gateway.ha.provider.HaProvider;
 import org.apache.knox.gateway.ha.provider.HaServletContextListener;
 import org.apache.knox.gateway.ha.provider.impl.DefaultHaProvider;
 import org.apache.knox.gateway.ha.provider.impl.HaDescriptorFactory;
+import org.apache.knox.gateway.ha.provider.impl.LeastOutstandingRequestsLoadBalancingPolicy;
 import org.apache.knox.gateway.servlet.SynchronousServletOutputStreamAdapter;
 import org.easymock.Capture;
 import org.easymock.EasyMock;
@@ -198,4 +205,78 @@ public class ConfigurableHADispatchTest {
     Assert.assertEquals(DigestUtils.sha256Hex(activeURL), captureCookieValue.getValue().getValue());
   }
 
+
+  /**
+   * Many topologies deploy dispatches for the same service role with
+   * different backends while requests are served: the sticky session lookups
+   * of a dispatch must only ever resolve to the backends of its own topology.
+   */
+  @Test
+  public void testStickySessionLookupsAreIsolatedPerTopology() throws Exception {
+    final String serviceName = "HIVE";
+    final int topologies = 32;
+    final List<ConfigurableHADispatch> dispatches = new ArrayList<>();
+    final List<List<String>> urls = new ArrayList<>();
+    final ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      final List<Future<ConfigurableHADispatch>> deployed = new ArrayList<>();
+      for (int t = 0; t < topologies; t++) {
+        final List<String> topologyUrls = Arrays.asList("http://host1.topology" + t + ":10000", "http://host2.topology" + t + ":10000");
+        urls.add(topologyUrls);
+        deployed.add(executor.submit(() -> {
+          HaDescriptor descriptor = HaDescriptorFactory.createDescriptor();
+          descriptor.addServiceConfig(HaDescriptorFactory.createServiceConfig(serviceName,
+              "enabled=true;enableLoadBalancing=true;enableStickySession=true"));
+          HaProvider provider = new DefaultHaProvider(descriptor);
+          provider.addHaService(serviceName, new ArrayList<>(topologyUrls));
+          ConfigurableHADispatch dispatch = new ConfigurableHADispatch();
+          dispatch.setHaProvider(provider);
+          dispatch.setServiceRole(serviceName);
+          dispatch.init();
+          return dispatch;
+        }));
+      }
+      for (Future<ConfigurableHADispatch> dispatch : deployed) {
+        dispatches.add(dispatch.get(30, TimeUnit.SECONDS));
+      }
+
+      final List<Future<?>> lookups = new ArrayList<>();
+      for (int t = 0; t < topologies; t++) {
+        final int topology = t;
+        lookups.add(executor.submit(() -> {
+          final ConfigurableHADispatch dispatch = dispatches.get(topology);
+          for (int i = 0; i < 1000; i++) {
+            final String own = urls.get(topology).get(i % 2);
+            final String other = urls.get((topology + 1) % topologies).get(i % 2);
+            Assert.assertEquals(own, dispatch.getStickySessionBackend(DigestUtils.sha256Hex(own)));
+            Assert.assertNull(dispatch.getStickySessionBackend(DigestUtils.sha256Hex(other)));
+            Assert.assertEquals(DigestUtils.sha256Hex(own),
+                dispatch.getStickySessionCookieValue(URI.create(own).getHost()));
+          }
+        }));
+      }
+      for (Future<?> lookup : lookups) {
+        lookup.get(30, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testLoadBalancingPolicyFromServiceConfig() throws Exception {
+    String serviceName = "HIVE";
+    HaDescriptor descriptor = HaDescriptorFactory.createDescriptor();
+    descriptor.addServiceConfig(HaDescriptorFactory.createServiceConfig(serviceName,
+        "enabled=true;enableLoadBalancing=true;loadBalancingPolicy=leastOutstandingRequests"));
+    HaProvider provider = new DefaultHaProvider(descriptor);
+    provider.addHaService(serviceName, new ArrayList<>(Arrays.asList("http://host1.valid", "http://host2.valid")));
+
+    ConfigurableHADispatch dispatch = new ConfigurableHADispatch();
+    dispatch.setHaProvider(provider);
+    dispatch.setServiceRole(serviceName);
+    dispatch.init();
+
+    Assert.assertTrue(dispatch.getLoadBalancingPolicy() instanceof LeastOutstandingRequestsLoadBalancingPolicy);
+  }
 }
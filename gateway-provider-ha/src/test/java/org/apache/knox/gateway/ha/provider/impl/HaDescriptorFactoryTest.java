@@ -107,4 +107,15 @@ public class HaDescriptorFactoryTest {
     assertTrue(serviceConfig.isNoFallbackEnabled());
     assertEquals("abc", serviceConfig.getStickySessionCookieName());
   }
+
+  @Test
+  public void testCreateServiceConfigLoadBalancingPolicy() {
+    HaServiceConfig serviceConfig = HaDescriptorFactory.createServiceConfig("foo", "enabled=true;enableLoadBalancing=true");
+    assertEquals(HaServiceConfigConstants.DEFAULT_LOAD_BALANCING_POLICY, serviceConfig.getLoadBalancingPolicy());
+
+    serviceConfig = HaDescriptorFactory.createServiceConfig("foo",
+        "enabled=true;enableLoadBalancing=true;loadBalancingPolicy=weightedRoundRobin;loadBalancingWeights=http://host1:10000|3,http://host2:10000|1");
+    assertEquals("weightedRoundRobin", serviceConfig.getLoadBalancingPolicy());
+    assertEquals("http://host1:10000|3,http://host2:10000|1", serviceConfig.getLoadBalancingWeights());
+  }
 }
@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.ha.provider.impl;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LeastOutstandingRequestsLoadBalancingPolicyTest {
+  private static final List<String> URLS = Arrays.asList("http://host1", "http://host2", "http://host3");
+
+  @Test
+  public void testPicksLeastBusyBackend() {
+    final LeastOutstandingRequestsLoadBalancingPolicy policy = new LeastOutstandingRequestsLoadBalancingPolicy();
+    final String first = policy.choose(URLS);
+    final String second = policy.choose(URLS);
+    final String third = policy.choose(URLS);
+    assertEquals(3, Arrays.asList(first, second, third).stream().distinct().count());
+
+    // the first backend finishes, it is the only one idle
+    policy.completed(first);
+    assertEquals(first, policy.choose(URLS));
+    assertEquals(1, policy.getOutstandingRequests(first));
+  }
+
+  @Test
+  public void testOutstandingRequestsUnderConcurrency() throws Exception {
+    final LeastOutstandingRequestsLoadBalancingPolicy policy = new LeastOutstandingRequestsLoadBalancingPolicy();
+    final ExecutorService executor = Executors.newFixedThreadPool(16);
+    try {
+      final List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < 16; t++) {
+        futures.add(executor.submit(() -> {
+          for (int i = 0; i < 10000; i++) {
+            final String url = policy.choose(URLS);
+            assertTrue(URLS.contains(url));
+            policy.completed(url);
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get(30, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    for (String url : URLS) {
+      assertEquals(0, policy.getOutstandingRequests(url));
+    }
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.ha.provider.impl;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+public class WeightedRoundRobinLoadBalancingPolicyTest {
+
+  @Test
+  public void testRequestsFollowWeights() {
+    final Map<String, Integer> weights = new HashMap<>();
+    weights.put("http://host1", 5);
+    weights.put("http://host4", 0);
+    final WeightedRoundRobinLoadBalancingPolicy policy = new WeightedRoundRobinLoadBalancingPolicy(weights);
+    final List<String> urls = Arrays.asList("http://host1", "http://host2", "http://host3", "http://host4");
+
+    final Map<String, Integer> counts = new HashMap<>();
+    final List<String> cycle = new ArrayList<>();
+    for (int i = 0; i < 700; i++) {
+      final String url = policy.choose(urls);
+      counts.merge(url, 1, Integer::sum);
+      if (i < 7) {
+        cycle.add(url);
+      }
+      policy.completed(url);
+    }
+    assertEquals(500, (int) counts.get("http://host1"));
+    assertEquals(100, (int) counts.get("http://host2"));
+    assertEquals(100, (int) counts.get("http://host3"));
+    assertNull(counts.get("http://host4"));
+    // the requests to host1 are spread over the cycle rather than sent in a burst
+    assertEquals(Arrays.asList("http://host1", "http://host1", "http://host2", "http://host1",
+        "http://host3", "http://host1", "http://host1"), cycle);
+  }
+
+  @Test
+  public void testScheduleFollowsUrlChanges() {
+    final WeightedRoundRobinLoadBalancingPolicy policy = new WeightedRoundRobinLoadBalancingPolicy(new HashMap<>());
+    assertEquals("http://host1", policy.choose(Arrays.asList("http://host1")));
+    final List<String> urls = Arrays.asList("http://host2", "http://host3");
+    final String first = policy.choose(urls);
+    assertNotEquals("http://host1", first);
+    assertNotEquals(first, policy.choose(urls));
+    assertNull(policy.choose(Arrays.asList()));
+  }
+}
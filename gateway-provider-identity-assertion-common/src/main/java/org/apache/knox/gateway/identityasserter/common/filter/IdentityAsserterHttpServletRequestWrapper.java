@@ -17,24 +17,20 @@
  */
 package org.apache.knox.gateway.identityasserter.common.filter;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.knox.gateway.SpiGatewayMessages;
 import org.apache.knox.gateway.config.GatewayConfig;
 import org.apache.knox.gateway.i18n.messages.MessagesFactory;
 import org.apache.knox.gateway.security.PrimaryPrincipal;
 import org.apache.knox.gateway.servlet.SynchronousServletInputStreamAdapter;
-import org.apache.knox.gateway.util.HttpUtils;
 
 import javax.servlet.ServletInputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletRequestWrapper;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
 import java.security.Principal;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
@@ -53,6 +49,7 @@ public class IdentityAsserterHttpServletRequestWrapper extends HttpServletReques
   private List<String> impersonationParamsList;
 
   private String username;
+  private RequestParameters queryParameters;
 
   public IdentityAsserterHttpServletRequestWrapper( HttpServletRequest request, String principal ) {
     this(request, principal, Collections.EMPTY_LIST);
@@ -79,79 +76,47 @@ public class IdentityAsserterHttpServletRequestWrapper extends HttpServletReques
 
   @Override
   public Map<String, String[]> getParameterMap() {
-    return convertValuesToStringArrays();
-  }
-
-  private Map<String, String[]> convertValuesToStringArrays() {
-    Map<String, String[]> arrayMap = new LinkedHashMap<>();
-    String name;
-    Enumeration<String> names = getParameterNames();
-    while (names.hasMoreElements()) {
-      name = names.nextElement();
-      arrayMap.put(name, getParameterValues(name));
-    }
-    return arrayMap;
+    return getQueryParameters().toArrayMap();
   }
 
   @Override
   public Enumeration<String> getParameterNames() {
-    Enumeration<String> e = null;
-    Map<String, List<String>> params;
-    try {
-      params = getParams();
-      if (params == null) {
-        params = new LinkedHashMap<>();
-      }
-      e = Collections.enumeration(params.keySet());
-    } catch (UnsupportedEncodingException e1) {
-      log.unableToGetParamsFromQueryString(e1);
-    }
-
-    return e;
+    return Collections.enumeration(getQueryParameters().getNames());
   }
 
   @Override
   public String[] getParameterValues(String name) {
-    String[] p = {};
-    Map<String, List<String>> params;
-    try {
-      params = getParams();
-      if (params == null) {
-        params = new LinkedHashMap<>();
-      }
-      p = params.get(name).toArray(p);
-    } catch (UnsupportedEncodingException e) {
-      log.unableToGetParamsFromQueryString(e);
-    }
-
-    return p;
+    String[] values = getQueryParameters().toArrayMap().get(name);
+    return values == null ? null : values.clone();
   }
 
-  private Map<String, List<String>> getParams( String qString )
-      throws UnsupportedEncodingException {
-    Map<String, List<String>> params;
-    if (getMethod().equals("GET")) {
-      if (qString != null && !qString.isEmpty()) {
-        params = HttpUtils.splitQuery( qString );
-      }
-      else {
-        params = new LinkedHashMap<>();
-      }
-    }
-    else {
-      if (qString == null || qString.isEmpty()) {
-        return null;
-      }
-      else {
-        params = HttpUtils.splitQuery( qString );
+  /**
+   * Parses the query string of the wrapped request on first use.
+   * @return the parameters of the wrapped query string
+   */
+  protected RequestParameters getQueryParameters() {
+    if (queryParameters == null) {
+      try {
+        queryParameters = RequestParameters.parse(super.getQueryString());
+      } catch (UnsupportedEncodingException e) {
+        log.unableToGetParamsFromQueryString(e);
+        queryParameters = RequestParameters.empty();
       }
     }
-    return params;
+    return queryParameters;
   }
 
+  /**
+   * @return a modifiable copy of the query parameters, null for a request other than GET without any
+   * @throws UnsupportedEncodingException if the query string cannot be decoded
+   */
   protected Map<String, List<String>> getParams()
       throws UnsupportedEncodingException {
-    return getParams( super.getQueryString() );
+    RequestParameters params = getQueryParameters();
+    if (params.isEmpty() && !"GET".equals(getMethod())) {
+      return null;
+    }
+    return params.toMap();
   }
 
   @Override
@@ -234,18 +199,9 @@ public class IdentityAsserterHttpServletRequestWrapper extends HttpServletReques
   public ServletInputStream getInputStream() throws java.io.IOException {
     String contentType = getContentType();
     if( contentType != null && contentType.startsWith( "application/x-www-form-urlencoded" ) ) {
-      String encoding = getCharacterEncoding();
-      if( encoding == null ) {
-        encoding = Charset.defaultCharset().name();
-      }
-      String body = IOUtils.toString( super.getInputStream(), encoding );
-      Map<String, List<String>> params = getParams( body );
-      if (params == null) {
-        params = new LinkedHashMap<>();
-      }
-      body = urlEncode( params, encoding );
-      // ASCII is OK here because the urlEncode about should have already escaped
-      return new ServletInputStreamWrapper( new ByteArrayInputStream( body.getBytes(StandardCharsets.US_ASCII.name()) ) );
+      // The body is rewritten while it is streamed, impersonation parameters are dropped.
+      return new ServletInputStreamWrapper(
+          new UrlEncodedFormRewriter( super.getInputStream(), getImpersonationParamNames(), null ) );
     } else {
       return super.getInputStream();
     }
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.identityasserter.common.filter;
+
+import org.apache.knox.gateway.util.HttpUtils;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable view of the parameters of a query string, parsed once.
+ * Names keep the order of their first occurrence and values the order they appear in.
+ */
+public final class RequestParameters {
+
+  private static final RequestParameters EMPTY = new RequestParameters( Collections.emptyMap() );
+
+  private final Map<String, List<String>> parameters;
+  private Map<String, String[]> arrays;
+
+  private RequestParameters( Map<String, List<String>> parameters ) {
+    this.parameters = parameters;
+  }
+
+  public static RequestParameters empty() {
+    return EMPTY;
+  }
+
+  public static RequestParameters parse( String query ) throws UnsupportedEncodingException {
+    if( query == null || query.isEmpty() ) {
+      return empty();
+    }
+    Map<String, List<String>> parsed = HttpUtils.splitQuery( query );
+    Map<String, List<String>> parameters = new LinkedHashMap<>( parsed.size() * 2 );
+    for( Map.Entry<String, List<String>> entry : parsed.entrySet() ) {
+      parameters.put( entry.getKey(), Collections.unmodifiableList( entry.getValue() ) );
+    }
+    return new RequestParameters( Collections.unmodifiableMap( parameters ) );
+  }
+
+  public boolean isEmpty() {
+    return parameters.isEmpty();
+  }
+
+  public Set<String> getNames() {
+    return parameters.keySet();
+  }
+
+  /**
+   * @param name parameter name
+   * @return the values of the parameter or null if it is not present
+   */
+  public List<String> getValues( String name ) {
+    return parameters.get( name );
+  }
+
+  /**
+   * @return the parameters as a map of value arrays, built on first use; the arrays must not be modified
+   */
+  public Map<String, String[]> toArrayMap() {
+    if( arrays == null ) {
+      Map<String, String[]> map = new LinkedHashMap<>( parameters.size() * 2 );
+      for( Map.Entry<String, List<String>> entry : parameters.entrySet() ) {
+        map.put( entry.getKey(), entry.getValue().toArray( new String[ 0 ] ) );
+      }
+      arrays = Collections.unmodifiableMap( map );
+    }
+    return arrays;
+  }
+
+  /**
+   * @return a modifiable copy of the parameters
+   */
+  public Map<String, List<String>> toMap() {
+    Map<String, List<String>> map = new LinkedHashMap<>( parameters.size() * 2 );
+    for( Map.Entry<String, List<String>> entry : parameters.entrySet() ) {
+      map.put( entry.getKey(), new ArrayList<>( entry.getValue() ) );
+    }
+    return map;
+  }
+}
@@ -0,0 +1,267 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.identityasserter.common.filter;
+
+import org.apache.knox.gateway.SpiGatewayMessages;
+import org.apache.knox.gateway.i18n.messages.MessagesFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Streams an application/x-www-form-urlencoded body while dropping or replacing
+ * selected parameters.
+ *
+ * Parameter names are percent-decoded and compared case insensitively, so
+ * <code>DoAs</code> or <code>user%2Ename</code> are caught as well. A parameter
+ * with a replacement is written once with the replacement value in place of its
+ * first occurrence; every other occurrence and every parameter without a
+ * replacement is dropped. All other bytes pass through unchanged. Only one name
+ * at a time is buffered, names longer than {@link #MAX_NAME_LENGTH} bytes are
+ * passed through without being matched, so memory use does not depend on the
+ * size of the body.
+ */
+public class UrlEncodedFormRewriter extends InputStream {
+
+  private static final SpiGatewayMessages LOG = MessagesFactory.get( SpiGatewayMessages.class );
+
+  static final int MAX_NAME_LENGTH = 1024;
+  private static final int CHUNK_SIZE = 8192;
+
+  private enum State { NAME, NAME_PASS, VALUE_PASS, VALUE_SKIP }
+
+  private final InputStream in;
+  /* Lower case parameter name to replacement value, null to drop */
+  private final Map<String, byte[]> rewrites = new HashMap<>();
+  private final Set<String> replaced = new HashSet<>();
+
+  private final byte[] chunk = new byte[ CHUNK_SIZE ];
+  private int chunkPos;
+  private int chunkLen;
+  private boolean eof;
+
+  private final byte[] name = new byte[ MAX_NAME_LENGTH ];
+  private int nameLen;
+  private State state = State.NAME;
+  private boolean emitted;
+
+  private final byte[] out;
+  private int outPos;
+  private int outLen;
+
+  /**
+   * @param in the form body to rewrite
+   * @param drop names of the parameters to drop
+   * @param replace names of the parameters to replace mapped to their new, unencoded value
+   */
+  public UrlEncodedFormRewriter( InputStream in, Iterable<String> drop, Map<String, String> replace ) {
+    this.in = in;
+    int maxReplacement = 0;
+    if( drop != null ) {
+      for( String param : drop ) {
+        rewrites.put( param.toLowerCase( Locale.ROOT ), null );
+      }
+    }
+    if( replace != null ) {
+      for( Map.Entry<String, String> entry : replace.entrySet() ) {
+        byte[] value = encode( entry.getValue() );
+        rewrites.put( entry.getKey().toLowerCase( Locale.ROOT ), value );
+        maxReplacement = Math.max( maxReplacement, value.length );
+      }
+    }
+    // Room for a chunk plus the most a single input byte can produce: separator, name, '=' and replacement.
+    out = new byte[ CHUNK_SIZE + MAX_NAME_LENGTH + maxReplacement + 2 ];
+  }
+
+  @Override
+  public int read() throws IOException {
+    if( !fill() ) {
+      return -1;
+    }
+    return out[ outPos++ ] & 0xFF;
+  }
+
+  @Override
+  public int read( byte[] b, int off, int len ) throws IOException {
+    if( len == 0 ) {
+      return 0;
+    }
+    int count = 0;
+    while( count < len && fill() ) {
+      int n = Math.min( len - count, outLen - outPos );
+      System.arraycopy( out, outPos, b, off + count, n );
+      outPos += n;
+      count += n;
+      // Return what is there rather than block for more input.
+      if( outPos == outLen && chunkPos == chunkLen ) {
+        break;
+      }
+    }
+    return count == 0 ? -1 : count;
+  }
+
+  @Override
+  public int available() {
+    return outLen - outPos;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  /*
+   * Makes sure there is output to return. Returns false at the end of the body.
+   */
+  private boolean fill() throws IOException {
+    while( outPos == outLen ) {
+      outPos = 0;
+      outLen = 0;
+      if( chunkPos == chunkLen ) {
+        if( eof ) {
+          return false;
+        }
+        chunkLen = in.read( chunk );
+        chunkPos = 0;
+        if( chunkLen < 0 ) {
+          chunkLen = 0;
+          eof = true;
+          if( state == State.NAME && nameLen > 0 ) {
+            endName( false );
+          }
+          continue;
+        }
+      }
+      while( chunkPos < chunkLen && outLen <= CHUNK_SIZE ) {
+        process( chunk[ chunkPos++ ] );
+      }
+    }
+    return true;
+  }
+
+  private void process( byte b ) {
+    switch( state ) {
+      case NAME:
+        if( b == '&' ) {
+          if( nameLen > 0 ) {
+            endName( false );
+          }
+        } else if( b == '=' ) {
+          endName( true );
+        } else if( nameLen == name.length ) {
+          // Too long to be one of the rewritten names.
+          separator();
+          emit( name, nameLen );
+          nameLen = 0;
+          emit( b );
+          state = State.NAME_PASS;
+        } else {
+          name[ nameLen++ ] = b;
+        }
+        break;
+      case NAME_PASS:
+        if( b == '&' ) {
+          state = State.NAME;
+        } else {
+          emit( b );
+          if( b == '=' ) {
+            state = State.VALUE_PASS;
+          }
+        }
+        break;
+      case VALUE_PASS:
+        if( b == '&' ) {
+          state = State.NAME;
+        } else {
+          emit( b );
+        }
+        break;
+      default:
+        if( b == '&' ) {
+          state = State.NAME;
+        }
+        break;
+    }
+  }
+
+  private void endName( boolean hasValue ) {
+    String key = decodeName();
+    if( key == null || !rewrites.containsKey( key ) ) {
+      separator();
+      emit( name, nameLen );
+      if( hasValue ) {
+        emit( (byte)'=' );
+      }
+      state = hasValue ? State.VALUE_PASS : State.NAME;
+    } else {
+      LOG.possibleIdentitySpoofingAttempt( key );
+      byte[] replacement = rewrites.get( key );
+      if( replacement != null && replaced.add( key ) ) {
+        separator();
+        emit( name, nameLen );
+        emit( (byte)'=' );
+        emit( replacement, replacement.length );
+      }
+      state = hasValue ? State.VALUE_SKIP : State.NAME;
+    }
+    nameLen = 0;
+  }
+
+  private String decodeName() {
+    try {
+      return URLDecoder.decode( new String( name, 0, nameLen, StandardCharsets.ISO_8859_1 ),
+          StandardCharsets.UTF_8.name() ).toLowerCase( Locale.ROOT );
+    } catch( IllegalArgumentException | UnsupportedEncodingException e ) {
+      // Not a valid encoded name, so it cannot be one of the rewritten names either.
+      return null;
+    }
+  }
+
+  private void separator() {
+    if( emitted ) {
+      emit( (byte)'&' );
+    }
+    emitted = true;
+  }
+
+  private void emit( byte b ) {
+    out[ outLen++ ] = b;
+  }
+
+  private void emit( byte[] bytes, int length ) {
+    System.arraycopy( bytes, 0, out, outLen, length );
+    outLen += length;
+  }
+
+  private static byte[] encode( String value ) {
+    try {
+      return URLEncoder.encode( value, StandardCharsets.UTF_8.name() ).getBytes( StandardCharsets.US_ASCII );
+    } catch( UnsupportedEncodingException e ) {
+      throw new UnsupportedOperationException( e );
+    }
+  }
+}
@@ -20,6 +20,7 @@ package org.apache.knox.gateway.identityasserter.filter;
 import org.apache.commons.io.IOUtils;
 import org.apache.knox.gateway.config.GatewayConfig;
 import org.apache.knox.gateway.identityasserter.common.filter.IdentityAsserterHttpServletRequestWrapper;
+import org.apache.knox.gateway.identityasserter.common.filter.UrlEncodedFormRewriter;
 import org.apache.knox.test.category.FastTests;
 import org.apache.knox.test.category.UnitTests;
 import org.apache.knox.test.mock.MockHttpServletRequest;
@@ -30,16 +31,20 @@ import org.junit.experimental.categories.Category;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 
 @Category( { UnitTests.class, FastTests.class } )
 public class IdentityAssertionHttpServletRequestWrapperTest {
@@ -262,6 +267,112 @@ public class IdentityAssertionHttpServletRequestWrapperTest {
     assertThat( output, containsString( "param2=abc" ) );
   }
 
+  @Test
+  public void testMultiValuedQueryParameters() {
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    request.setQueryString( "a=1&b=x%20y%26z&a=2&flag" );
+
+    IdentityAsserterHttpServletRequestWrapper wrapper
+        = new IdentityAsserterHttpServletRequestWrapper( request, "output-user" );
+
+    assertThat( wrapper.getParameterValues( "a" ), is( new String[] { "1", "2" } ) );
+    assertThat( wrapper.getParameterValues( "b" ), is( new String[] { "x y&z" } ) );
+    assertThat( wrapper.getParameterValues( "missing" ), nullValue() );
+    assertThat( Collections.list( wrapper.getParameterNames() ), is( Arrays.asList( "a", "b", "flag" ) ) );
+    assertThat( wrapper.getParameterMap(), sameInstance( wrapper.getParameterMap() ) );
+
+    // Callers must not be able to change the cached values.
+    wrapper.getParameterValues( "a" )[ 0 ] = "changed";
+    assertThat( wrapper.getParameterValues( "a" ), is( new String[] { "1", "2" } ) );
+  }
+
+  @Test
+  public void testRemoveImpersonationParamsFromFormBody() throws IOException {
+    String inputBody = "user.name=input-user&arg=a&DoAs=root&arg=b&User%2Ename=x&q=%E2%82%AC+%26&flag&doas";
+
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    request.setInputStream( new MockServletInputStream( new ByteArrayInputStream( inputBody.getBytes( StandardCharsets.UTF_8 ) ) ) );
+    request.setCharacterEncoding( StandardCharsets.UTF_8.name() );
+    request.setContentType( "application/x-www-form-urlencoded" );
+    request.setMethod("POST");
+
+    IdentityAsserterHttpServletRequestWrapper wrapper
+        = new IdentityAsserterHttpServletRequestWrapper( request, "output-user" );
+
+    String outputBody = IOUtils.toString( wrapper.getInputStream(), StandardCharsets.UTF_8 );
+    assertThat( outputBody, is( "arg=a&arg=b&q=%E2%82%AC+%26&flag" ) );
+  }
+
+  @Test
+  public void testReplaceFormParameter() throws IOException {
+    String inputBody = "user.name=a&x=1&USER.NAME=b&" + String.join( "", Collections.nCopies( 2000, "n" ) ) + "=v";
+
+    InputStream output = new UrlEncodedFormRewriter(
+        new ByteArrayInputStream( inputBody.getBytes( StandardCharsets.UTF_8 ) ),
+        Collections.singletonList( "doAs" ),
+        Collections.singletonMap( "user.name", "output user" ) );
+
+    assertThat( IOUtils.toString( output, StandardCharsets.UTF_8 ),
+        is( "user.name=output+user&x=1&" + String.join( "", Collections.nCopies( 2000, "n" ) ) + "=v" ) );
+  }
+
+  @Test
+  public void testRewriteLargeFormBody() throws IOException {
+    final int pairs = 200000;
+    final String kept = "arg=" + String.join( "", Collections.nCopies( 300, "%2F" ) );
+    final String dropped = "doAs=" + String.join( "", Collections.nCopies( 300, "x" ) );
+
+    // Generates pairs on the fly so the body never exists in memory as a whole.
+    InputStream body = new InputStream() {
+      private int pair;
+      private byte[] current = new byte[ 0 ];
+      private int pos;
+
+      @Override
+      public int read() {
+        if( pos == current.length ) {
+          if( pair == pairs ) {
+            return -1;
+          }
+          String next = pair % 10 == 0 ? dropped : kept;
+          current = ( pair == 0 ? next : "&" + next ).getBytes( StandardCharsets.US_ASCII );
+          pos = 0;
+          pair++;
+        }
+        return current[ pos++ ];
+      }
+    };
+
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    request.setInputStream( new MockServletInputStream( body ) );
+    request.setContentType( "application/x-www-form-urlencoded" );
+    request.setMethod( "POST" );
+
+    IdentityAsserterHttpServletRequestWrapper wrapper
+        = new IdentityAsserterHttpServletRequestWrapper( request, "output-user" );
+    assertThat( wrapper.getContentLength(), is( -1 ) );
+
+    InputStream output = wrapper.getInputStream();
+    byte[] buffer = new byte[ 4096 ];
+    long length = 0;
+    int matched = 0;
+    byte[] expected = ( "&" + kept ).getBytes( StandardCharsets.US_ASCII );
+    int expectedPos = 1;
+    for( int n = output.read( buffer ); n >= 0; n = output.read( buffer ) ) {
+      for( int i = 0; i < n; i++ ) {
+        assertThat( buffer[ i ], is( expected[ expectedPos ] ) );
+        expectedPos = ( expectedPos + 1 ) % expected.length;
+        if( expectedPos == 0 ) {
+          matched++;
+        }
+      }
+      length += n;
+    }
+    int keptPairs = pairs - pairs / 10;
+    assertThat( matched, is( keptPairs ) );
+    assertThat( length, is( (long)keptPairs * expected.length - 1 ) );
+  }
+
   @Test
   public void testUrlEncode() {
     String s;
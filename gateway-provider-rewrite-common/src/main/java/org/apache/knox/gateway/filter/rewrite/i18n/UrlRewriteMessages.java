@@ -87,4 +87,7 @@ public interface UrlRewriteMessages {
 
   @Message( level = MessageLevel.DEBUG, text = "No rewrite rule was found, skipping rewriting JSON request body" )
   void skippingRewritingJsonRequestBody();
+
+  @Message( level = MessageLevel.DEBUG, text = "Response body with content encoding {0} can not be decoded, passing it through without rewriting" )
+  void passingThroughEncodedResponseBody( String contentEncoding );
 }
@@ -19,7 +19,6 @@ package org.apache.knox.gateway.filter.rewrite.impl.xml;
 
 import org.apache.commons.digester3.Digester;
 import org.apache.commons.digester3.ExtendedBaseRules;
-import org.apache.commons.digester3.binder.DigesterLoader;
 import org.apache.knox.gateway.filter.rewrite.api.UrlRewriteRulesDescriptor;
 import org.apache.knox.gateway.filter.rewrite.spi.UrlRewriteRulesImporter;
 import org.xml.sax.SAXException;
@@ -30,8 +29,14 @@ import java.io.Reader;
 import static org.apache.commons.digester3.binder.DigesterLoader.newLoader;
 
 public class XmlUrlRewriteRulesImporter implements UrlRewriteRulesImporter {
-  private static final DigesterLoader loader = newLoader( new XmlRewriteRulesDigester() );
-  private static final Digester digester = loader.newDigester( new ExtendedBaseRules() );
+  // Digesters and their rules keep parsing state, each thread gets its own so that rules can be loaded in parallel
+  private static final ThreadLocal<Digester> digesters = ThreadLocal.withInitial(XmlUrlRewriteRulesImporter::newDigester);
+
+  private static Digester newDigester() {
+    final Digester digester = newLoader( new XmlRewriteRulesDigester() ).newDigester( new ExtendedBaseRules() );
+    digester.setValidating(false);
+    return digester;
+  }
 
   @Override
   public String getFormat() {
@@ -40,13 +45,13 @@ public class XmlUrlRewriteRulesImporter implements UrlRewriteRulesImporter {
 
   @Override
   public UrlRewriteRulesDescriptor load( Reader reader ) throws IOException {
-    synchronized (digester) {
-      digester.setValidating(false);
-      try {
-        return digester.parse(reader);
-      } catch (SAXException e) {
-        throw new IOException(e);
-      }
+    final Digester digester = digesters.get();
+    try {
+      return digester.parse(reader);
+    } catch (SAXException e) {
+      throw new IOException(e);
+    } finally {
+      digester.clear();
     }
   }
 }
@@ -17,8 +17,10 @@
  */
 package org.apache.knox.gateway.filter.rewrite.impl;
 
+import org.apache.commons.compress.compressors.brotli.BrotliCompressorInputStream;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.knox.gateway.config.GatewayConfig;
 import org.apache.knox.gateway.filter.GatewayResponseWrapper;
 import org.apache.knox.gateway.filter.ResponseStreamer;
 import org.apache.knox.gateway.filter.rewrite.api.UrlRewriteFilterContentDescriptor;
@@ -29,6 +31,7 @@ import org.apache.knox.gateway.filter.rewrite.api.UrlRewriter;
 import org.apache.knox.gateway.filter.rewrite.i18n.UrlRewriteMessages;
 import org.apache.knox.gateway.filter.rewrite.spi.UrlRewriteStreamFilter;
 import org.apache.knox.gateway.i18n.messages.MessagesFactory;
+import org.apache.knox.gateway.util.CompressionPool;
 import org.apache.knox.gateway.util.MimeTypes;
 import org.apache.knox.gateway.util.Urls;
 import org.apache.knox.gateway.util.urltemplate.Params;
@@ -55,9 +58,7 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.zip.DeflaterOutputStream;
-import java.util.zip.GZIPOutputStream;
-import java.util.zip.InflaterInputStream;
+import java.util.zip.Deflater;
 
 import static org.apache.knox.gateway.filter.rewrite.impl.UrlRewriteUtil.getRewriteFilterConfig;
 import static org.apache.knox.gateway.filter.rewrite.impl.UrlRewriteUtil.pickFirstRuleWithEqualsIgnoreCasePathMatch;
@@ -93,6 +94,7 @@ public class UrlRewriteResponse extends GatewayResponseWrapper implements Params
   private String xForwardedPort;
   private String xForwardedScheme;
   private String contentEncoding;
+  private int compressionLevel;
 
   public UrlRewriteResponse( FilterConfig config, HttpServletRequest request, HttpServletResponse response ) {
     super( response );
@@ -106,6 +108,18 @@ public class UrlRewriteResponse extends GatewayResponseWrapper implements Params
     this.headersFilterName = config.getInitParameter( UrlRewriteServletFilter.RESPONSE_HEADERS_FILTER_PARAM );
     this.headersFilterConfig = getRewriteFilterConfig( rewriter.getConfig(), headersFilterName, UrlRewriteServletFilter.HEADERS_MIME_TYPE );
     this.contentEncoding = "";
+    this.compressionLevel = getCompressionLevel( config );
+  }
+
+  private static int getCompressionLevel( FilterConfig config ) {
+    final GatewayConfig gatewayConfig = (GatewayConfig) config.getServletContext().getAttribute( GatewayConfig.GATEWAY_CONFIG_ATTRIBUTE );
+    if( gatewayConfig != null ) {
+      final int level = gatewayConfig.getResponseCompressionLevel();
+      if( level >= Deflater.DEFAULT_COMPRESSION && level <= Deflater.BEST_COMPRESSION ) {
+        return level;
+      }
+    }
+    return Deflater.DEFAULT_COMPRESSION;
   }
 
   protected boolean ignoreHeader( String name ) {
@@ -170,9 +184,19 @@ public class UrlRewriteResponse extends GatewayResponseWrapper implements Params
     }
 
     UrlRewriteStreamFilter filter = UrlRewriteStreamFilterFactory.create(mimeType, null);
+    if( filter != null && filter.isPassThrough(filterContentConfig) ) {
+      // The body is not rewritten, so it is streamed as it is without decoding it first
+      filter = null;
+    } else if( filter != null && ( !isDecodable(contentEncoding)
+        // A rewritten br body changes its Content-Encoding, which is not possible once the headers are sent
+        || ( "br".equalsIgnoreCase(contentEncoding) && isCommitted() ) ) ) {
+      LOG.passingThroughEncodedResponseBody(contentEncoding);
+      filter = null;
+    }
 
     final InputStream inStream;
     final OutputStream outStream;
+    InputStream decoder = null;
     if( filter != null ) {
       // Use this way to check whether the input stream is gzip compressed, in case
       // the content encoding header is unknown, as it could be unset in inbound response
@@ -187,12 +211,25 @@ public class UrlRewriteResponse extends GatewayResponseWrapper implements Params
       inBuffer.reset();
 
       final InputStream unFilteredStream;
-      if(isGzip || "gzip".equalsIgnoreCase(contentEncoding)) {
+      if(isGzip || isGzip(contentEncoding)) {
         unFilteredStream = new GzipCompressorInputStream(inBuffer, true);
-        outStream = new GZIPOutputStream(output, STREAM_BUFFER_SIZE);
+        outStream = CompressionPool.gzipOutputStream(output, compressionLevel, STREAM_BUFFER_SIZE);
       } else if ("deflate".equalsIgnoreCase(contentEncoding)) {
-        unFilteredStream = new InflaterInputStream(inBuffer);
-        outStream = new DeflaterOutputStream(output);
+        // Returns the pooled inflater once it is closed
+        decoder = CompressionPool.inflateInputStream(inBuffer, STREAM_BUFFER_SIZE);
+        unFilteredStream = decoder;
+        outStream = CompressionPool.deflateOutputStream(output, compressionLevel, STREAM_BUFFER_SIZE);
+      } else if ("br".equalsIgnoreCase(contentEncoding)) {
+        decoder = new BrotliCompressorInputStream(inBuffer);
+        unFilteredStream = decoder;
+        // There is no Brotli encoder, so the rewritten body is sent gzip encoded if the client accepts it
+        if (acceptsGzip(request.getHeader("Accept-Encoding"))) {
+          resetContentEncoding("gzip");
+          outStream = CompressionPool.gzipOutputStream(output, compressionLevel, STREAM_BUFFER_SIZE);
+        } else {
+          resetContentEncoding(null);
+          outStream = output;
+        }
       } else {
         unFilteredStream = inBuffer;
         outStream = output;
@@ -207,10 +244,51 @@ public class UrlRewriteResponse extends GatewayResponseWrapper implements Params
     try {
       IOUtils.copy(inStream, outStream, STREAM_BUFFER_SIZE);
     } finally {
-      outStream.close();
+      try {
+        outStream.close();
+      } finally {
+        if( decoder != null ) {
+          decoder.close();
+        }
+      }
     }
   }
 
+  private static boolean isDecodable( String contentEncoding ) {
+    return StringUtils.isBlank(contentEncoding)
+        || "identity".equalsIgnoreCase(contentEncoding)
+        || isGzip(contentEncoding)
+        || "deflate".equalsIgnoreCase(contentEncoding)
+        || "br".equalsIgnoreCase(contentEncoding);
+  }
+
+  private static boolean isGzip( String contentEncoding ) {
+    return "gzip".equalsIgnoreCase(contentEncoding) || "x-gzip".equalsIgnoreCase(contentEncoding);
+  }
+
+  /**
+   * @param acceptEncoding the Accept-Encoding header of the client, null if it sent none
+   * @return true if the header lists gzip with a non-zero quality
+   */
+  static boolean acceptsGzip( String acceptEncoding ) {
+    if( acceptEncoding == null ) {
+      return false;
+    }
+    for( String element : acceptEncoding.split(",") ) {
+      final String[] parts = element.split(";");
+      if( isGzip(parts[0].trim()) ) {
+        return parts.length < 2 || !parts[1].trim().matches("[qQ]\\s*=\\s*0(\\.0*)?");
+      }
+    }
+    return false;
+  }
+
+  // Replaces the Content-Encoding of the backend response, a null encoding removes the header
+  private void resetContentEncoding( String encoding ) {
+    contentEncoding = encoding == null ? "" : encoding;
+    super.setHeader("Content-Encoding", encoding);
+  }
+
   //TODO: Need to buffer the output here and when it is closed, rewrite it and then write the result to the stream.
   // This should only happen if the caller isn't using the streaming model.
   @Override
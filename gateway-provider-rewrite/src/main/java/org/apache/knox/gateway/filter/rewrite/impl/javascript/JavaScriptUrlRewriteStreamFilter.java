@@ -44,6 +44,12 @@ public class JavaScriptUrlRewriteStreamFilter implements
     return NAMES;
   }
 
+  // Without apply selectors nothing in a script is rewritten
+  @Override
+  public boolean isPassThrough( UrlRewriteFilterContentDescriptor config ) {
+    return config == null || config.getSelectors().isEmpty();
+  }
+
   @Override
   public InputStream filter(
       InputStream stream,
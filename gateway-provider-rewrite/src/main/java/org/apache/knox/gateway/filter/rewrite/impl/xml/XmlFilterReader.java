@@ -17,6 +17,7 @@
  */
 package org.apache.knox.gateway.filter.rewrite.impl.xml;
 
+import org.apache.commons.io.output.StringBuilderWriter;
 import org.apache.commons.text.StringEscapeUtils;
 import org.apache.knox.gateway.filter.rewrite.api.UrlRewriteFilterApplyDescriptor;
 import org.apache.knox.gateway.filter.rewrite.api.UrlRewriteFilterBufferDescriptor;
@@ -34,7 +35,6 @@ import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.Text;
 
-import javax.xml.XMLConstants;
 import javax.xml.namespace.QName;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.stream.XMLEventReader;
@@ -54,42 +54,52 @@ import javax.xml.transform.TransformerException;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
-import javax.xml.xpath.XPathFactoryConfigurationException;
 import java.io.IOException;
 import java.io.Reader;
-import java.io.StringWriter;
 import java.io.Writer;
 import java.util.Iterator;
 import java.util.Stack;
 import java.util.regex.Pattern;
 
+/**
+ * Streams XML content through the rewrite filter configuration.
+ *
+ * When every path in the configuration is in the subset supported by {@link XmlPath} the paths are matched
+ * directly against the StAX events and a DOM is only built for the elements selected by buffer descriptors.
+ * Otherwise the element chain is mirrored into a DOM so that the paths can be evaluated as XPath expressions.
+ */
 public abstract class XmlFilterReader extends Reader {
   private static final UrlRewriteResources RES = ResourcesFactory.get( UrlRewriteResources.class );
 
   private static final String DEFAULT_XML_VERSION = "1.0";
 
-  private static final UrlRewriteFilterPathDescriptor.Compiler<XPathExpression> XPATH_COMPILER = new XmlPathCompiler();
+  private static final UrlRewriteFilterPathDescriptor.Compiler<XmlPath> XML_PATH_COMPILER = new XmlPathCompiler();
   private static final UrlRewriteFilterPathDescriptor.Compiler<Pattern> REGEX_COMPILER = new RegexCompiler();
 
   private Reader reader;
   private UrlRewriteFilterContentDescriptor config;
   private int offset;
-  private StringWriter writer;
-  private StringBuffer buffer;
+  private StringBuilderWriter writer;
+  private StringBuilder buffer;
   private XMLInputFactory factory;
   private XMLEventReader parser;
   private Document document;
   private Stack<Level> stack;
   private boolean isEmptyElement;
+  private boolean streaming;
+  private QName streamingAttribute;
 
   protected XmlFilterReader( Reader reader, UrlRewriteFilterContentDescriptor config ) throws IOException, XMLStreamException {
+    this( reader, config, true );
+  }
+
+  XmlFilterReader( Reader reader, UrlRewriteFilterContentDescriptor config, boolean streaming ) throws IOException, XMLStreamException {
     this.reader = reader;
     this.config = config;
-    writer = new StringWriter();
-    buffer = writer.getBuffer();
+    this.streaming = streaming && isStreamable( config );
+    writer = new StringBuilderWriter();
+    buffer = writer.getBuilder();
     offset = 0;
     document = null;
     stack = new Stack<>();
@@ -188,8 +198,10 @@ public abstract class XmlFilterReader extends Reader {
   private void processStartDocument( StartDocument event ) throws ParserConfigurationException {
     String s;
 
-    document = XmlUtils.createDocument( false );
-    pushLevel( null, document, document, config );
+    if( !streaming ) {
+      document = XmlUtils.createDocument( false );
+    }
+    pushLevel( null, null, document, null, config );
 
     writer.write( "<?xml" );
 
@@ -220,40 +232,43 @@ public abstract class XmlFilterReader extends Reader {
     document = null;
   }
 
-  private void processStartElement( StartElement event ) throws XPathExpressionException {
-    // Create a new "empty" element and add it to the document.
-    Element element = bufferElement( event );
+  private void processStartElement( StartElement event ) throws XPathExpressionException, ParserConfigurationException {
     Level parent = stack.peek();
-    parent.node.appendChild( element );
+    // Create a new "empty" element and add it to the document.
+    // When streaming only buffered elements are added to the document.
+    Element element = null;
+    if( !streaming || parent.buffered ) {
+      element = bufferElement( event );
+      parent.node.appendChild( element );
+    }
+    Level level = pushLevel( parent, event.getName(), element, parent.scope, parent.scopeConfig );
 
     // If already buffering just continue to do so.
     // Note: Don't currently support nested buffer or scope descriptors.
-    if( currentlyBuffering() ) {
-      pushLevel( parent, element, parent.scopeNode, parent.scopeConfig );
+    if( parent.buffered ) {
       bufferAttributes( event, element );
     // Else not currently buffering
     } else {
       // See if there is a matching path descriptor in the current scope.
       UrlRewriteFilterPathDescriptor descriptor = pickFirstMatchingPath( parent );
-      if( descriptor != null ) {
-        // If this is a buffer descriptor then switch to buffering and buffer the attributes.
-        if( descriptor instanceof UrlRewriteFilterBufferDescriptor ) {
-          pushLevel( parent, element, element, (UrlRewriteFilterBufferDescriptor)descriptor );
-          bufferAttributes( event, element );
-        // Otherwise if this is a scope descriptor then change the scope and stream the attributes.
-        } else if( descriptor instanceof UrlRewriteFilterScopeDescriptor ) {
-          pushLevel( parent, element, element, (UrlRewriteFilterScopeDescriptor)descriptor );
-          streamElement( event, element );
-        // Else found an unexpected matching path.
-        } else {
-          // This is likely because there is an <apply> targeted at the text of an element.
-          // That "convenience" config will be taken care of in the streamElement() processing.
-          pushLevel( parent, element, parent.scopeNode, parent.scopeConfig );
-          streamElement( event, element );
+      // If this is a buffer descriptor then switch to buffering and buffer the attributes.
+      if( descriptor instanceof UrlRewriteFilterBufferDescriptor ) {
+        if( element == null ) {
+          Document root = document();
+          element = bufferElement( event );
+          root.appendChild( element );
+          level.node = element;
         }
-      // If there is no matching path descriptor then continue streaming.
+        level.rescope( (UrlRewriteFilterBufferDescriptor)descriptor );
+        bufferAttributes( event, element );
+      // Otherwise if this is a scope descriptor then change the scope and stream the attributes.
+      } else if( descriptor instanceof UrlRewriteFilterScopeDescriptor ) {
+        level.rescope( (UrlRewriteFilterScopeDescriptor)descriptor );
+        streamElement( event, element );
+      // Else either no match or found an unexpected matching path.
+      // This is likely because there is an <apply> targeted at the text of an element.
+      // That "convenience" config will be taken care of in the streamElement() processing.
       } else {
-        pushLevel( parent, element, parent.scopeNode, parent.scopeConfig );
         streamElement( event, element );
       }
     }
@@ -263,8 +278,9 @@ public abstract class XmlFilterReader extends Reader {
     boolean buffering = currentlyBuffering();
     Level child = stack.pop();
     if( buffering ) {
-      if( child.node == child.scopeNode ) {
+      if( child.scope == child ) {
         processBufferedElement( child );
+        child.node.getParentNode().removeChild( child.node );
       }
     } else {
       if( ! isEmptyElement ) {
@@ -278,10 +294,19 @@ public abstract class XmlFilterReader extends Reader {
         writer.write( n.getLocalPart() );
         writer.write( ">" );
       }
-      child.node.getParentNode().removeChild( child.node );
+      if( child.node != null ) {
+        child.node.getParentNode().removeChild( child.node );
+      }
     }
   }
 
+  private Document document() throws ParserConfigurationException {
+    if( document == null ) {
+      document = XmlUtils.createDocument( false );
+    }
+    return document;
+  }
+
   private Element bufferElement( StartElement event ) {
     QName qname = event.getName();
     String prefix = qname.getPrefix();
@@ -334,8 +359,7 @@ public abstract class XmlFilterReader extends Reader {
   private void processBufferedElement( Level level, UrlRewriteFilterGroupDescriptor config ) throws XPathExpressionException {
     for( UrlRewriteFilterPathDescriptor selector : config.getSelectors() ) {
       if( selector instanceof UrlRewriteFilterApplyDescriptor ) {
-        XPathExpression path = (XPathExpression)selector.compiledPath( XPATH_COMPILER );
-        Object node = path.evaluate( level.scopeNode, XPathConstants.NODE );
+        Object node = selectNode( level, selector );
         if( node != null ) {
           UrlRewriteFilterApplyDescriptor apply = (UrlRewriteFilterApplyDescriptor)selector;
           if( node instanceof Element ) {
@@ -358,8 +382,7 @@ public abstract class XmlFilterReader extends Reader {
           }
         }
       } else if( selector instanceof UrlRewriteFilterDetectDescriptor) {
-        XPathExpression path = (XPathExpression)selector.compiledPath( XPATH_COMPILER );
-        Object node = path.evaluate( level.scopeNode, XPathConstants.NODE );
+        Object node = selectNode( level, selector );
         if( node != null ) {
           UrlRewriteFilterDetectDescriptor detect = (UrlRewriteFilterDetectDescriptor)selector;
           String value;
@@ -385,6 +408,15 @@ public abstract class XmlFilterReader extends Reader {
     }
   }
 
+  private Object selectNode( Level level, UrlRewriteFilterPathDescriptor selector ) throws XPathExpressionException {
+    XmlPath path = (XmlPath)selector.compiledPath( XML_PATH_COMPILER );
+    if( streaming ) {
+      return path.select( level.scope.node );
+    } else {
+      return path.xpath().evaluate( level.scope.node, XPathConstants.NODE );
+    }
+  }
+
   private void processBufferedElement( Level level ) throws XPathExpressionException, IOException {
     processBufferedElement( level, level.scopeConfig );
     writeBufferedElement( level.node, writer );
@@ -456,11 +488,13 @@ public abstract class XmlFilterReader extends Reader {
   }
 
   private void streamAttribute( Element element, Attribute attribute ) throws XPathExpressionException {
-    Attr node;
+    Attr node = null;
     QName name = attribute.getName();
     String prefix = name.getPrefix();
     String uri = name.getNamespaceURI();
-    if( uri == null || uri.isEmpty() ) {
+    if( element == null ) {
+      streamingAttribute = name;
+    } else if( uri == null || uri.isEmpty() ) {
       node = document.createAttribute( name.getLocalPart() );
       element.setAttributeNode( node );
     } else {
@@ -475,13 +509,11 @@ public abstract class XmlFilterReader extends Reader {
     Level level = stack.peek();
     if( ( level.scopeConfig ) == null || ( level.scopeConfig.getSelectors().isEmpty() ) ) {
       value = filterAttribute( null, attribute.getName(), value, null );
-      node.setValue( value );
     } else {
       UrlRewriteFilterPathDescriptor path = pickFirstMatchingPath( level );
       if( path instanceof UrlRewriteFilterApplyDescriptor ) {
         String rule = ((UrlRewriteFilterApplyDescriptor)path).rule();
         value = filterAttribute( null, attribute.getName(), value, rule );
-        node.setValue( value );
       }
     }
 
@@ -497,13 +529,19 @@ public abstract class XmlFilterReader extends Reader {
     writer.write( "=\"" );
     writer.write( value );
     writer.write( "\"" );
-    element.removeAttributeNode( node );
+    if( node == null ) {
+      streamingAttribute = null;
+    } else {
+      element.removeAttributeNode( node );
+    }
   }
 
   private void processCharacters( Characters event ) {
     Level level = stack.peek();
-    Node node = stack.peek().node;
-    if( event.isCData() ) {
+    Node node = level.node;
+    if( node == null ) {
+      level.hasText = true;
+    } else if( event.isCData() ) {
       node.appendChild( document.createCDATASection( event.getData() ) );
     } else {
       node.appendChild( document.createTextNode( event.getData() ) );
@@ -512,12 +550,12 @@ public abstract class XmlFilterReader extends Reader {
       String value = event.getData();
       if( !event.isWhiteSpace() ) {
         if( level.scopeConfig == null || level.scopeConfig.getSelectors().isEmpty() ) {
-          value = filterText( extractQName( node ), value, null );
+          value = filterText( level.name, value, null );
         } else {
           UrlRewriteFilterPathDescriptor path = pickFirstMatchingPath( level );
           if( path instanceof UrlRewriteFilterApplyDescriptor ) {
             String rule = ((UrlRewriteFilterApplyDescriptor)path).rule();
-            value = filterText( extractQName( node ), value, rule );
+            value = filterText( level.name, value, rule );
           }
         }
       }
@@ -558,9 +596,14 @@ public abstract class XmlFilterReader extends Reader {
     if( level.scopeConfig != null ) {
       for( UrlRewriteFilterPathDescriptor selector : level.scopeConfig.getSelectors() ) {
         try {
-          XPathExpression path = (XPathExpression)selector.compiledPath( XPATH_COMPILER );
-          Object node = path.evaluate( level.scopeNode, XPathConstants.NODE );
-          if( node != null ) {
+          XmlPath path = (XmlPath)selector.compiledPath( XML_PATH_COMPILER );
+          boolean matched;
+          if( streaming ) {
+            matched = path.matches( stack, level.scope.depth, streamingAttribute );
+          } else {
+            matched = path.xpath().evaluate( level.scope.node, XPathConstants.NODE ) != null;
+          }
+          if( matched ) {
             match = selector;
             break;
           }
@@ -576,54 +619,82 @@ public abstract class XmlFilterReader extends Reader {
     return stack.peek().buffered;
   }
 
-  private Level pushLevel( Level parent, Node node, Node scopeNode, UrlRewriteFilterGroupDescriptor scopeConfig ) {
-    Level level = new Level( parent, node, scopeNode, scopeConfig );
+  private Level pushLevel( Level parent, QName name, Node node, Level scope, UrlRewriteFilterGroupDescriptor scopeConfig ) {
+    Level level = new Level( parent, name, node, scope, scopeConfig );
     stack.push( level );
     return level;
   }
 
-  private static class Level {
+  static boolean isStreamable( UrlRewriteFilterContentDescriptor config ) {
+    return isStreamable( config, false );
+  }
+
+  /*
+   * The streaming engine is only used when every path that is matched against the element chain or against a
+   * buffered element is in the streaming subset. Paths within buffers must also be relative because the buffered
+   * element is not attached to its ancestors while streaming.
+   */
+  private static boolean isStreamable( UrlRewriteFilterGroupDescriptor group, boolean buffered ) {
+    if( group != null ) {
+      for( UrlRewriteFilterPathDescriptor selector : group.getSelectors() ) {
+        XmlPath path = (XmlPath)selector.compiledPath( XML_PATH_COMPILER );
+        if( !path.isStreamable() || ( buffered && path.isAbsolute() ) ) {
+          return false;
+        }
+        if( selector instanceof UrlRewriteFilterGroupDescriptor &&
+            !isStreamable( (UrlRewriteFilterGroupDescriptor)selector,
+                buffered || selector instanceof UrlRewriteFilterBufferDescriptor ) ) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private static class Level implements XmlPath.Frame {
+    private QName name;
     private Node node;
     private UrlRewriteFilterGroupDescriptor scopeConfig;
-    private Node scopeNode;
+    private Level scope;
     private boolean buffered;
+    private boolean hasText;
+    private int depth;
 
-    Level( Level parent, Node node, Node scopeNode, UrlRewriteFilterGroupDescriptor scopeConfig ) {
+    Level( Level parent, QName name, Node node, Level scope, UrlRewriteFilterGroupDescriptor scopeConfig ) {
+      this.name = name;
       this.node = node;
       this.scopeConfig = scopeConfig;
-      this.scopeNode = scopeNode;
+      this.scope = scope == null ? this : scope;
+      this.depth = parent == null ? 0 : parent.depth + 1;
       this.buffered = ( parent != null && parent.buffered ) ||
                       (scopeConfig instanceof UrlRewriteFilterBufferDescriptor);
     }
-  }
 
-  private static class XmlPathCompiler implements UrlRewriteFilterPathDescriptor.Compiler<XPathExpression> {
-    private static final XPathFactory xpathFactory = getXpathFactory();
+    // Makes this level the scope for the given descriptor.
+    void rescope( UrlRewriteFilterGroupDescriptor scopeConfig ) {
+      this.scope = this;
+      this.scopeConfig = scopeConfig;
+      this.buffered = this.buffered || (scopeConfig instanceof UrlRewriteFilterBufferDescriptor);
+    }
 
-    private static synchronized XPathFactory getXpathFactory() {
-      XPathFactory xPathFactory = XPathFactory.newInstance();
-      try {
-        xPathFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, Boolean.TRUE);
-      } catch (XPathFactoryConfigurationException ex) {
-        // ignore
-      }
-      return xPathFactory;
+    @Override
+    public QName name() {
+      return name;
     }
 
-    private synchronized XPathExpression getXPathExpression(String expression) {
-      try {
-        return xpathFactory.newXPath().compile(expression);
-      } catch (XPathExpressionException e) {
-        throw new IllegalArgumentException(e);
-      }
+    @Override
+    public boolean hasText() {
+      return hasText;
     }
+  }
 
+  private static class XmlPathCompiler implements UrlRewriteFilterPathDescriptor.Compiler<XmlPath> {
     @Override
-    public XPathExpression compile( String expression, XPathExpression compiled ) {
+    public XmlPath compile( String expression, XmlPath compiled ) {
       if(compiled != null) {
         return compiled;
       } else {
-        return getXPathExpression(expression);
+        return XmlPath.compile( expression );
       }
     }
   }
@@ -0,0 +1,284 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.filter.rewrite.impl.xml;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+import javax.xml.xpath.XPathFactoryConfigurationException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A compiled XML filter path.
+ *
+ * Paths made only of unprefixed child steps, an optional <code>*</code> wildcard step and an optional
+ * trailing <code>@name</code> or <code>text()</code> step (e.g. <code>/nodes/node/nodeHTTPAddress</code>,
+ * <code>/ClusterStatus/LiveNodes/Node/@name</code> or <code>value</code>) can be evaluated directly against
+ * the element chain of a StAX parse.  Anything else is only evaluated as a full XPath expression against a DOM.
+ * Instances are immutable apart from the lazily compiled XPath expression and are safe to share between threads.
+ */
+class XmlPath {
+
+  private static final XPathFactory XPATH_FACTORY = createXPathFactory();
+
+  private final String expression;
+  private final boolean absolute;
+  private final Step[] steps;
+  private XPathExpression xpath;
+
+  private XmlPath( String expression, boolean absolute, Step[] steps ) {
+    this.expression = expression;
+    this.absolute = absolute;
+    this.steps = steps;
+  }
+
+  static XmlPath compile( String expression ) {
+    if( expression == null || expression.isEmpty() ) {
+      return new XmlPath( expression, false, null );
+    }
+    boolean absolute = expression.charAt( 0 ) == '/';
+    String relative = absolute ? expression.substring( 1 ) : expression;
+    if( relative.isEmpty() ) {
+      return new XmlPath( expression, absolute, absolute ? new Step[ 0 ] : null );
+    }
+    String[] names = relative.split( "/", -1 );
+    List<Step> steps = new ArrayList<>( names.length );
+    for( int i = 0; i < names.length; i++ ) {
+      Step step = Step.parse( names[ i ] );
+      // Only element steps may be followed by further steps.
+      if( step == null || ( step.type != Step.ELEMENT && i < names.length - 1 ) ) {
+        return new XmlPath( expression, absolute, null );
+      }
+      steps.add( step );
+    }
+    return new XmlPath( expression, absolute, steps.toArray( new Step[ 0 ] ) );
+  }
+
+  String expression() {
+    return expression;
+  }
+
+  boolean isStreamable() {
+    return steps != null;
+  }
+
+  boolean isAbsolute() {
+    return absolute;
+  }
+
+  synchronized XPathExpression xpath() {
+    if( xpath == null ) {
+      try {
+        xpath = newXPathExpression( expression );
+      } catch( XPathExpressionException e ) {
+        throw new IllegalArgumentException( e );
+      }
+    }
+    return xpath;
+  }
+
+  /**
+   * Determines if this path selects anything in the tree formed by the frames of a streaming parse.
+   * Each frame is a child of the frame before it and the first frame is the document.  Only the last frame
+   * can carry an attribute and that is the attribute currently being streamed, if any.
+   *
+   * @param frames The frames from the document down to the current element.
+   * @param scope The index of the frame relative paths are evaluated from.
+   * @param attribute The name of the attribute currently being streamed or null.
+   * @return True if the path selects at least one node.
+   */
+  boolean matches( List<? extends Frame> frames, int scope, QName attribute ) {
+    return matches( frames, absolute ? 0 : scope, 0, attribute );
+  }
+
+  private boolean matches( List<? extends Frame> frames, int depth, int index, QName attribute ) {
+    if( index == steps.length ) {
+      return true;
+    }
+    Step step = steps[ index ];
+    switch( step.type ) {
+      case Step.TEXT:
+        return frames.get( depth ).hasText();
+      case Step.ATTRIBUTE:
+        return attribute != null && depth == frames.size() - 1 && step.matches( attribute );
+      default:
+        int child = depth + 1;
+        return child < frames.size()
+            && step.matches( frames.get( child ).name() )
+            && matches( frames, child, index + 1, attribute );
+    }
+  }
+
+  /**
+   * Selects the first node in document order matched by this path relative to a buffered DOM node.
+   *
+   * @param context The node relative paths are evaluated from.
+   * @return The first matching node or null if there is none.
+   */
+  Node select( Node context ) {
+    Node start = context;
+    if( absolute && context.getNodeType() != Node.DOCUMENT_NODE ) {
+      start = context.getOwnerDocument();
+    }
+    return select( start, 0 );
+  }
+
+  private Node select( Node node, int index ) {
+    if( index == steps.length ) {
+      return node;
+    }
+    Step step = steps[ index ];
+    switch( step.type ) {
+      case Step.TEXT:
+        for( Node child = node.getFirstChild(); child != null; child = child.getNextSibling() ) {
+          if( child.getNodeType() == Node.TEXT_NODE || child.getNodeType() == Node.CDATA_SECTION_NODE ) {
+            return child;
+          }
+        }
+        return null;
+      case Step.ATTRIBUTE:
+        if( node instanceof Element ) {
+          NamedNodeMap attributes = node.getAttributes();
+          for( int i = 0; i < attributes.getLength(); i++ ) {
+            Node attribute = attributes.item( i );
+            if( !isNamespaceDeclaration( attribute ) && step.matches( attribute ) ) {
+              return attribute;
+            }
+          }
+        }
+        return null;
+      default:
+        for( Node child = node.getFirstChild(); child != null; child = child.getNextSibling() ) {
+          if( child.getNodeType() == Node.ELEMENT_NODE && step.matches( child ) ) {
+            Node match = select( child, index + 1 );
+            if( match != null ) {
+              return match;
+            }
+          }
+        }
+        return null;
+    }
+  }
+
+  private static boolean isNamespaceDeclaration( Node attribute ) {
+    String name = attribute.getNodeName();
+    return XMLConstants.XMLNS_ATTRIBUTE.equals( name ) || name.startsWith( XMLConstants.XMLNS_ATTRIBUTE + ":" );
+  }
+
+  private static XPathFactory createXPathFactory() {
+    XPathFactory xPathFactory = XPathFactory.newInstance();
+    try {
+      xPathFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, Boolean.TRUE);
+    } catch (XPathFactoryConfigurationException ex) {
+      // ignore
+    }
+    return xPathFactory;
+  }
+
+  private static XPathExpression newXPathExpression( String expression ) throws XPathExpressionException {
+    synchronized( XPATH_FACTORY ) {
+      return XPATH_FACTORY.newXPath().compile( expression );
+    }
+  }
+
+  /**
+   * A level of the element chain maintained while streaming.
+   */
+  interface Frame {
+    /**
+     * @return The name of the element or null for the document.
+     */
+    QName name();
+
+    /**
+     * @return True if any text has been seen as a direct child of this element so far.
+     */
+    boolean hasText();
+  }
+
+  private static class Step {
+    private static final int ELEMENT = 0;
+    private static final int ATTRIBUTE = 1;
+    private static final int TEXT = 2;
+
+    private final int type;
+    // Null for the element wildcard.
+    private final String localName;
+
+    private Step( int type, String localName ) {
+      this.type = type;
+      this.localName = localName;
+    }
+
+    static Step parse( String step ) {
+      if( "text()".equals( step ) ) {
+        return new Step( TEXT, null );
+      } else if( "*".equals( step ) ) {
+        return new Step( ELEMENT, null );
+      } else if( !step.isEmpty() && step.charAt( 0 ) == '@' ) {
+        String name = step.substring( 1 );
+        return isName( name ) ? new Step( ATTRIBUTE, name ) : null;
+      } else {
+        return isName( step ) ? new Step( ELEMENT, step ) : null;
+      }
+    }
+
+    // Unprefixed name tests only match names without a namespace.
+    boolean matches( QName name ) {
+      if( localName == null ) {
+        return name != null;
+      }
+      return name != null
+          && localName.equals( name.getLocalPart() )
+          && ( name.getNamespaceURI() == null || name.getNamespaceURI().isEmpty() );
+    }
+
+    boolean matches( Node node ) {
+      if( localName == null ) {
+        return true;
+      }
+      String uri = node.getNamespaceURI();
+      String name = node.getLocalName() == null ? node.getNodeName() : node.getLocalName();
+      return localName.equals( name ) && ( uri == null || uri.isEmpty() );
+    }
+
+    private static boolean isName( String name ) {
+      if( name.isEmpty() ) {
+        return false;
+      }
+      char first = name.charAt( 0 );
+      if( !Character.isLetter( first ) && first != '_' ) {
+        return false;
+      }
+      for( int i = 1; i < name.length(); i++ ) {
+        char c = name.charAt( i );
+        if( !Character.isLetterOrDigit( c ) && c != '_' && c != '-' && c != '.' ) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
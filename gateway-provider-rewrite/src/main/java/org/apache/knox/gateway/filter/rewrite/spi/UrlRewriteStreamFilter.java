@@ -40,4 +40,13 @@ public interface UrlRewriteStreamFilter {
       UrlRewriteFilterContentDescriptor config )
           throws IOException;
 
+  /**
+   * @param config the filter configuration of the content, may be null
+   * @return true if the filter does not change the content for the configuration, so that
+   *         the content can be streamed as it is without decoding it first
+   */
+  default boolean isPassThrough( UrlRewriteFilterContentDescriptor config ) {
+    return false;
+  }
+
 }
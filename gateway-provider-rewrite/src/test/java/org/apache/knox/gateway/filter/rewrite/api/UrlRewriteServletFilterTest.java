@@ -18,6 +18,7 @@
 package org.apache.knox.gateway.filter.rewrite.api;
 
 import com.jayway.jsonassert.JsonAssert;
+import org.apache.commons.io.IOUtils;
 import org.apache.knox.gateway.filter.AbstractGatewayFilter;
 import org.apache.knox.gateway.util.urltemplate.Parser;
 import org.apache.knox.test.TestUtils;
@@ -39,7 +40,11 @@ import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
@@ -48,6 +53,8 @@ import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Queue;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.anyOf;
@@ -321,6 +328,43 @@ public class UrlRewriteServletFilterTest {
     assertThat( response.getContent(), is( expect ) );
   }
 
+  @Test
+  public void testOutboundXGzipJsonBodyRewrite() throws Exception {
+    testSetUp( null );
+
+    String input = "{\"url\":\"http://mock-host:1/test-input-path\"}";
+    String expect = "{\"url\":\"http://mock-host:1/test-output-path-1\"}";
+
+    ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    try( OutputStream output = new GZIPOutputStream( encoded ) ) {
+      output.write( input.getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+    // Setup the server side request/response interaction.
+    interaction.expect()
+        .method( "GET" )
+        .requestUrl( "http://mock-host:1/test-output-path-1" );
+    interaction.respond()
+        .status( 200 )
+        .contentType( "application/json" )
+        .header( "Content-Encoding", "x-gzip" )
+        .content( encoded.toByteArray() );
+    interactions.add( interaction );
+    request.setMethod( "GET" );
+    request.setURI( "/test-input-path" );
+    request.setHeader( "Host", "mock-host:1" );
+
+    // Execute the request.
+    response = TestUtils.execute( server, request );
+
+    // Test the results.
+    assertThat( response.getStatus(), is( 200 ) );
+    assertThat( response.get( HttpHeader.CONTENT_ENCODING ), is( "x-gzip" ) );
+    try( InputStream decoded = new GZIPInputStream( new ByteArrayInputStream( response.getContentBytes() ) ) ) {
+      assertThat( IOUtils.toString( decoded, StandardCharsets.UTF_8 ), is( expect ) );
+    }
+  }
+
   @Test
   public void testOutboundHtmlBodyRewrite() throws Exception {
     testSetUp( null );
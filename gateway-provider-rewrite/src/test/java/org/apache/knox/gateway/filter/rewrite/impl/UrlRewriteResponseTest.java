@@ -18,9 +18,16 @@
 package org.apache.knox.gateway.filter.rewrite.impl;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.knox.gateway.config.GatewayConfig;
+import org.apache.knox.gateway.filter.rewrite.api.UrlRewriteEnvironment;
 import org.apache.knox.gateway.filter.rewrite.api.UrlRewriteProcessor;
+import org.apache.knox.gateway.filter.rewrite.api.UrlRewriteRulesDescriptorFactory;
 import org.apache.knox.gateway.filter.rewrite.api.UrlRewriteServletContextListener;
 import org.apache.knox.gateway.filter.rewrite.api.UrlRewriteServletFilter;
+import org.apache.knox.gateway.filter.rewrite.api.UrlRewriteServletFilterTest;
+import org.apache.knox.test.TestUtils;
+import org.easymock.Capture;
+import org.easymock.CaptureType;
 import org.easymock.EasyMock;
 import org.junit.Test;
 
@@ -28,13 +35,19 @@ import javax.servlet.FilterConfig;
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
@@ -43,9 +56,14 @@ import java.util.zip.InflaterInputStream;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.IsIterableContaining.hasItems;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class UrlRewriteResponseTest {
 
+  private static final String TEST_INPUT = "{\"url\":\"http://mock-host:1/test-input-path\"}";
+  private static final String TEST_OUTPUT = "{\"url\":\"http://mock-host:1/test-output-path-1\"}";
+
   @Test
   public void testResolve() throws Exception {
 
@@ -165,6 +183,188 @@ public class UrlRewriteResponseTest {
     testStreamResponse(content, rewriteResponse, "deflate");
   }
 
+  @Test
+  public void testStreamResponseWithCompressionLevel() throws IOException {
+    UrlRewriteProcessor rewriter = EasyMock.createNiceMock( UrlRewriteProcessor.class );
+    EasyMock.expect( rewriter.getConfig() ).andReturn( null ).anyTimes();
+
+    GatewayConfig gatewayConfig = EasyMock.createNiceMock( GatewayConfig.class );
+    EasyMock.expect( gatewayConfig.getResponseCompressionLevel() ).andReturn( Deflater.BEST_SPEED ).anyTimes();
+
+    ServletContext context = EasyMock.createNiceMock( ServletContext.class );
+    EasyMock.expect( context.getAttribute( UrlRewriteServletContextListener.PROCESSOR_ATTRIBUTE_NAME ) ).andReturn( rewriter ).anyTimes();
+    EasyMock.expect( context.getAttribute( GatewayConfig.GATEWAY_CONFIG_ATTRIBUTE ) ).andReturn( gatewayConfig ).anyTimes();
+
+    FilterConfig config = EasyMock.createNiceMock( FilterConfig.class );
+    EasyMock.expect( config.getInitParameter( UrlRewriteServletFilter.RESPONSE_BODY_FILTER_PARAM ) ).andReturn( "test-filter" ).anyTimes();
+    EasyMock.expect( config.getServletContext() ).andReturn( context ).anyTimes();
+
+    HttpServletRequest request = EasyMock.createNiceMock( HttpServletRequest.class );
+    HttpServletResponse response = EasyMock.createNiceMock( HttpServletResponse.class );
+    EasyMock.expect( response.getContentType() ).andReturn( "application/json" ).anyTimes();
+
+    EasyMock.replay( rewriter, gatewayConfig, context, config, request, response );
+
+    UrlRewriteResponse rewriteResponse = new UrlRewriteResponse( config, request, response );
+
+    String content = "{\"content\":\"to test compressed streaming\"}";
+    rewriteResponse.setHeader( "Content-Encoding", "gzip" );
+    testStreamResponse(content, rewriteResponse, "gzip");
+    rewriteResponse.setHeader( "Content-Encoding", "deflate" );
+    testStreamResponse(content, rewriteResponse, "deflate");
+  }
+
+  @Test
+  public void testEncodedResponsePassesThroughWithoutBodyRewrite() throws IOException {
+    byte[] encoded = gzip( "var url = 'http://localhost:50070/webhdfs/v1';" );
+    assertThat( streamEncodedResponse( "application/javascript", "gzip", encoded ), is( encoded ) );
+  }
+
+  @Test
+  public void testUndecodableResponsePassesThrough() throws IOException {
+    byte[] encoded = { 0x1f, (byte) 0x9d, (byte) 0x90, 0x7b, 0x7d };
+    assertThat( streamEncodedResponse( "application/json", "compress", encoded ), is( encoded ) );
+  }
+
+  @Test
+  public void testXGzipResponseIsRewritten() throws IOException {
+    Capture<String> contentEncodings = EasyMock.newCapture( CaptureType.ALL );
+    byte[] rewritten = rewriteEncodedResponse( "x-gzip", "gzip, deflate", false, gzip( TEST_INPUT ), contentEncodings );
+    assertThat( contentEncodings.getValues(), is( Collections.singletonList( "x-gzip" ) ) );
+    assertThat( gunzip( rewritten ), is( TEST_OUTPUT ) );
+  }
+
+  @Test
+  public void testBrotliResponseIsRewrittenAsGzip() throws IOException {
+    Capture<String> contentEncodings = EasyMock.newCapture( CaptureType.ALL );
+    byte[] rewritten = rewriteEncodedResponse( "br", "gzip, deflate, br", false, brotliUncompressed( TEST_INPUT ), contentEncodings );
+    assertThat( contentEncodings.getValues(), is( Arrays.asList( "br", "gzip" ) ) );
+    assertThat( gunzip( rewritten ), is( TEST_OUTPUT ) );
+  }
+
+  @Test
+  public void testBrotliResponseIsRewrittenUnencoded() throws IOException {
+    Capture<String> contentEncodings = EasyMock.newCapture( CaptureType.ALL );
+    byte[] rewritten = rewriteEncodedResponse( "br", "br", false, brotliUncompressed( TEST_INPUT ), contentEncodings );
+    assertThat( contentEncodings.getValues(), is( Arrays.asList( "br", null ) ) );
+    assertThat( new String( rewritten, StandardCharsets.UTF_8 ), is( TEST_OUTPUT ) );
+  }
+
+  @Test
+  public void testCommittedBrotliResponsePassesThrough() throws IOException {
+    Capture<String> contentEncodings = EasyMock.newCapture( CaptureType.ALL );
+    byte[] encoded = brotliUncompressed( TEST_INPUT );
+    assertThat( rewriteEncodedResponse( "br", "gzip, br", true, encoded, contentEncodings ), is( encoded ) );
+    assertThat( contentEncodings.getValues(), is( Collections.singletonList( "br" ) ) );
+  }
+
+  @Test
+  public void testAcceptsGzip() {
+    assertFalse( UrlRewriteResponse.acceptsGzip( null ) );
+    assertFalse( UrlRewriteResponse.acceptsGzip( "br" ) );
+    assertTrue( UrlRewriteResponse.acceptsGzip( "gzip, deflate, br" ) );
+    assertTrue( UrlRewriteResponse.acceptsGzip( "br;q=1.0, x-gzip;q=0.5" ) );
+    assertFalse( UrlRewriteResponse.acceptsGzip( "br, gzip;q=0" ) );
+    assertFalse( UrlRewriteResponse.acceptsGzip( "br, gzip; q=0.0" ) );
+  }
+
+  private byte[] streamEncodedResponse( String contentType, String contentEncoding, byte[] encoded ) throws IOException {
+    UrlRewriteProcessor rewriter = EasyMock.createNiceMock( UrlRewriteProcessor.class );
+    EasyMock.expect( rewriter.getConfig() ).andReturn( null ).anyTimes();
+
+    ServletContext context = EasyMock.createNiceMock( ServletContext.class );
+    EasyMock.expect( context.getAttribute( UrlRewriteServletContextListener.PROCESSOR_ATTRIBUTE_NAME ) ).andReturn( rewriter ).anyTimes();
+
+    FilterConfig config = EasyMock.createNiceMock( FilterConfig.class );
+    EasyMock.expect( config.getServletContext() ).andReturn( context ).anyTimes();
+
+    HttpServletRequest request = EasyMock.createNiceMock( HttpServletRequest.class );
+    HttpServletResponse response = EasyMock.createNiceMock( HttpServletResponse.class );
+    EasyMock.expect( response.getContentType() ).andReturn( contentType ).anyTimes();
+
+    EasyMock.replay( rewriter, context, config, request, response );
+
+    UrlRewriteResponse rewriteResponse = new UrlRewriteResponse( config, request, response );
+    rewriteResponse.setHeader( "Content-Encoding", contentEncoding );
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    rewriteResponse.streamResponse( new ByteArrayInputStream( encoded ), output );
+    return output.toByteArray();
+  }
+
+  /*
+   * Streams the encoded body through the test-filter-1 JSON filter of the UrlRewriteServletFilterTest rules,
+   * capturing every Content-Encoding set on the wrapped response.
+   */
+  private byte[] rewriteEncodedResponse( String contentEncoding, String acceptEncoding, boolean committed,
+                                         byte[] encoded, Capture<String> contentEncodings ) throws IOException {
+    UrlRewriteEnvironment environment = EasyMock.createNiceMock( UrlRewriteEnvironment.class );
+    EasyMock.replay( environment );
+
+    UrlRewriteProcessor rewriter = new UrlRewriteProcessor();
+    try( Reader rules = TestUtils.getResourceReader( UrlRewriteServletFilterTest.class, "rewrite.xml", StandardCharsets.UTF_8 ) ) {
+      rewriter.initialize( environment, UrlRewriteRulesDescriptorFactory.load( "xml", rules ) );
+    }
+
+    ServletContext context = EasyMock.createNiceMock( ServletContext.class );
+    EasyMock.expect( context.getAttribute( UrlRewriteServletContextListener.PROCESSOR_ATTRIBUTE_NAME ) ).andReturn( rewriter ).anyTimes();
+
+    FilterConfig config = EasyMock.createNiceMock( FilterConfig.class );
+    EasyMock.expect( config.getInitParameter( UrlRewriteServletFilter.RESPONSE_BODY_FILTER_PARAM ) ).andReturn( "test-filter-1" ).anyTimes();
+    EasyMock.expect( config.getServletContext() ).andReturn( context ).anyTimes();
+
+    HttpServletRequest request = EasyMock.createNiceMock( HttpServletRequest.class );
+    EasyMock.expect( request.getHeader( "Accept-Encoding" ) ).andReturn( acceptEncoding ).anyTimes();
+    HttpServletResponse response = EasyMock.createNiceMock( HttpServletResponse.class );
+    EasyMock.expect( response.getContentType() ).andReturn( "application/json" ).anyTimes();
+    EasyMock.expect( response.isCommitted() ).andReturn( committed ).anyTimes();
+    response.setHeader( EasyMock.eq( "Content-Encoding" ), EasyMock.capture( contentEncodings ) );
+    EasyMock.expectLastCall().anyTimes();
+
+    EasyMock.replay( context, config, request, response );
+
+    UrlRewriteResponse rewriteResponse = new UrlRewriteResponse( config, request, response );
+    rewriteResponse.setHeader( "Content-Encoding", contentEncoding );
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try {
+      rewriteResponse.streamResponse( new ByteArrayInputStream( encoded ), output );
+    } finally {
+      rewriter.destroy();
+    }
+    return output.toByteArray();
+  }
+
+  /*
+   * Builds a Brotli stream holding the content in a single uncompressed meta-block:
+   * WBITS 16, a 4 nibble MLEN and ISUNCOMPRESSED, followed by an empty last meta-block.
+   */
+  private static byte[] brotliUncompressed( String content ) {
+    byte[] data = content.getBytes( StandardCharsets.UTF_8 );
+    int header = ( ( data.length - 1 ) << 4 ) | ( 1 << 20 );
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    stream.write( header & 0xff );
+    stream.write( ( header >> 8 ) & 0xff );
+    stream.write( ( header >> 16 ) & 0xff );
+    stream.write( data, 0, data.length );
+    stream.write( 0x03 );
+    return stream.toByteArray();
+  }
+
+  private static String gunzip( byte[] encoded ) throws IOException {
+    try( InputStream decoded = new GZIPInputStream( new ByteArrayInputStream( encoded ) ) ) {
+      return IOUtils.toString( decoded, StandardCharsets.UTF_8 );
+    }
+  }
+
+  private static byte[] gzip( String content ) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try( OutputStream output = new GZIPOutputStream( bytes ) ) {
+      output.write( content.getBytes( StandardCharsets.UTF_8 ) );
+    }
+    return bytes.toByteArray();
+  }
+
   private void testStreamResponse(String content, UrlRewriteResponse rewriteResponse, String contentType) throws IOException {
     Path inputFile = Files.createTempFile("input", "test");
     Path outputFile = Files.createTempFile("output", "test");
@@ -0,0 +1,300 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.filter.rewrite.impl.xml;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.knox.gateway.filter.rewrite.api.UrlRewriteFilterApplyDescriptor;
+import org.apache.knox.gateway.filter.rewrite.api.UrlRewriteFilterBufferDescriptor;
+import org.apache.knox.gateway.filter.rewrite.api.UrlRewriteFilterContentDescriptor;
+import org.apache.knox.gateway.filter.rewrite.api.UrlRewriteFilterDescriptor;
+import org.apache.knox.gateway.filter.rewrite.api.UrlRewriteFilterDetectDescriptor;
+import org.apache.knox.gateway.filter.rewrite.api.UrlRewriteFilterGroupDescriptor;
+import org.apache.knox.gateway.filter.rewrite.api.UrlRewriteFilterPathDescriptor;
+import org.apache.knox.gateway.filter.rewrite.api.UrlRewriteRulesDescriptor;
+import org.apache.knox.gateway.filter.rewrite.api.UrlRewriteRulesDescriptorFactory;
+import org.apache.knox.gateway.util.XmlUtils;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class XmlFilterReaderEngineTest {
+
+  private static final String URL_VALUE = "http://host.example.com:8088/proxy/application_1/";
+
+  private static class RuleXmlFilterReader extends XmlFilterReader {
+    RuleXmlFilterReader( Reader reader, UrlRewriteFilterContentDescriptor config, boolean streaming ) throws IOException, XMLStreamException {
+      super( reader, config, streaming );
+    }
+
+    @Override
+    protected String filterAttribute( QName elementName, QName attributeName, String attributeValue, String ruleName ) {
+      return ruleName == null ? attributeValue : "attr:" + ruleName + "{" + attributeValue + "}";
+    }
+
+    @Override
+    protected String filterText( QName elementName, String text, String ruleName ) {
+      return ruleName == null ? text : "text:" + ruleName + "{" + text + "}";
+    }
+  }
+
+  @Test
+  public void testXmlPathSubset() {
+    assertTrue( XmlPath.compile( "/" ).isStreamable() );
+    assertTrue( XmlPath.compile( "/configuration/property" ).isStreamable() );
+    assertTrue( XmlPath.compile( "/ClusterStatus/LiveNodes/Node/@name" ).isStreamable() );
+    assertTrue( XmlPath.compile( "/properties/property/value/text()" ).isStreamable() );
+    assertTrue( XmlPath.compile( "/root/*/value" ).isStreamable() );
+    assertTrue( XmlPath.compile( "trackingUrl" ).isStreamable() );
+    assertTrue( XmlPath.compile( "@value" ).isStreamable() );
+
+    assertFalse( XmlPath.compile( "" ).isStreamable() );
+    assertFalse( XmlPath.compile( "$.url" ).isStreamable() );
+    assertFalse( XmlPath.compile( "//property" ).isStreamable() );
+    assertFalse( XmlPath.compile( "/properties/property[@name='x']" ).isStreamable() );
+    assertFalse( XmlPath.compile( "/properties/property/@*" ).isStreamable() );
+    assertFalse( XmlPath.compile( "/properties/@name/value" ).isStreamable() );
+    assertFalse( XmlPath.compile( "/properties/text()/value" ).isStreamable() );
+    assertFalse( XmlPath.compile( "/ns:properties" ).isStreamable() );
+    assertFalse( XmlPath.compile( "../value" ).isStreamable() );
+  }
+
+  @Test
+  public void testFallbackToDomForUnsupportedPath() throws Exception {
+    String input = "<properties><property name=\"a\" value=\"http://a:1/\"/><property name=\"b\" value=\"http://b:2/\"/></properties>";
+    UrlRewriteRulesDescriptor rulesConfig = UrlRewriteRulesDescriptorFactory.create();
+    UrlRewriteFilterContentDescriptor contentConfig = rulesConfig.addFilter( "filter" ).addContent( "*/xml" );
+    contentConfig.addApply( "/properties/property[@name]/@value", "rule" );
+    assertFalse( XmlFilterReader.isStreamable( contentConfig ) );
+
+    contentConfig = rulesConfig.addFilter( "filter-buffered" ).addContent( "*/xml" );
+    contentConfig.addBuffer( "/properties/property" ).addApply( "/properties/property/@value", "rule" );
+    assertFalse( XmlFilterReader.isStreamable( contentConfig ) );
+    assertSameOutput( input, contentConfig );
+  }
+
+  @Test
+  public void testStreamingMatchesDomForMixedContent() throws Exception {
+    String input =
+        "<?xml version=\"1.0\" standalone=\"no\"?>\n" +
+        "<root xmlns:x=\"urn:x\" url=\"" + URL_VALUE + "\">\n" +
+        "  <!-- comment -->\n" +
+        "  <node x:url=\"" + URL_VALUE + "\" url=\"" + URL_VALUE + "\"><value>" + URL_VALUE + "</value></node>\n" +
+        "  <node><value><![CDATA[" + URL_VALUE + "]]></value><other>text &amp; more</other></node>\n" +
+        "  <x:node><value>" + URL_VALUE + "</value></x:node>\n" +
+        "  <property><name>n1</name><value>" + URL_VALUE + "</value></property>\n" +
+        "  <property><name>n2</name><value>" + URL_VALUE + "</value></property>\n" +
+        "</root>";
+    UrlRewriteRulesDescriptor rulesConfig = UrlRewriteRulesDescriptorFactory.create();
+    UrlRewriteFilterContentDescriptor contentConfig = rulesConfig.addFilter( "filter" ).addContent( "*/xml" );
+    contentConfig.addApply( "/root/@url", "root-url" );
+    contentConfig.addApply( "/root/node/@url", "node-url" );
+    contentConfig.addApply( "/root/*/value/text()", "value-text" );
+    UrlRewriteFilterBufferDescriptor buffer = contentConfig.addBuffer( "/root/property" );
+    buffer.addDetect( "name", "n2" ).addApply( "value", "property-value" );
+    assertTrue( XmlFilterReader.isStreamable( contentConfig ) );
+
+    String output = assertSameOutput( input, contentConfig );
+    assertThat( output, containsString( "attr:root-url{" + URL_VALUE + "}" ) );
+    assertThat( output, containsString( "url=\"attr:node-url{" + URL_VALUE + "}\"" ) );
+    assertThat( output, containsString( "text:value-text{" + URL_VALUE + "}" ) );
+    assertThat( output, containsString( "text:property-value{" + URL_VALUE + "}" ) );
+  }
+
+  @Test
+  public void testBundledServiceDefinitionsProduceSameOutput() throws Exception {
+    int contents = 0;
+    for( Path rewrite : listBundledRewriteFiles() ) {
+      UrlRewriteRulesDescriptor rules;
+      try( Reader reader = Files.newBufferedReader( rewrite, StandardCharsets.UTF_8 ) ) {
+        rules = UrlRewriteRulesDescriptorFactory.load( "xml", reader );
+      }
+      for( UrlRewriteFilterDescriptor filter : rules.getFilters() ) {
+        for( UrlRewriteFilterContentDescriptor content : filter.getContents() ) {
+          if( content.type() != null && content.type().endsWith( "/xml" ) ) {
+            assertThat( rewrite + " " + filter.name(), XmlFilterReader.isStreamable( content ), is( true ) );
+            for( String input : createSampleInputs( content ) ) {
+              assertSameOutput( input, content );
+            }
+            contents++;
+          }
+        }
+      }
+    }
+    assertThat( contents, greaterThan( 0 ) );
+  }
+
+  private static String assertSameOutput( String input, UrlRewriteFilterContentDescriptor content ) throws Exception {
+    String dom = IOUtils.toString( new RuleXmlFilterReader( new StringReader( input ), content, false ) );
+    String streaming = IOUtils.toString( new RuleXmlFilterReader( new StringReader( input ), content, true ) );
+    assertEquals( input, dom, streaming );
+    return streaming;
+  }
+
+  private static List<Path> listBundledRewriteFiles() throws Exception {
+    URL url = ClassLoader.getSystemResource( "services/yarn-rm/2.5.0/rewrite.xml" );
+    URI uri = url.toURI();
+    Path root;
+    if( "jar".equals( uri.getScheme() ) ) {
+      FileSystem fileSystem;
+      try {
+        fileSystem = FileSystems.newFileSystem( uri, Collections.emptyMap() );
+      } catch( java.nio.file.FileSystemAlreadyExistsException e ) {
+        fileSystem = FileSystems.getFileSystem( uri );
+      }
+      root = fileSystem.getPath( "/services" );
+    } else {
+      root = Paths.get( uri ).getParent().getParent().getParent();
+    }
+    try( Stream<Path> paths = Files.walk( root ) ) {
+      return paths.filter( path -> "rewrite.xml".equals( String.valueOf( path.getFileName() ) ) ).collect( Collectors.toList() );
+    }
+  }
+
+  /*
+   * Builds documents that contain every path of the content descriptor. Buffered elements are repeated once
+   * for each nested detect with the detected value plus once with a value that matches no detect.
+   */
+  private static List<String> createSampleInputs( UrlRewriteFilterContentDescriptor content ) throws Exception {
+    Map<String,Document> documents = new LinkedHashMap<>();
+    for( UrlRewriteFilterPathDescriptor selector : content.getSelectors() ) {
+      String[] steps = selector.path().replaceFirst( "^/", "" ).split( "/" );
+      Document document = documents.get( steps[ 0 ] );
+      if( document == null ) {
+        document = XmlUtils.createDocument( false );
+        documents.put( steps[ 0 ], document );
+      }
+      if( selector instanceof UrlRewriteFilterGroupDescriptor ) {
+        UrlRewriteFilterGroupDescriptor group = (UrlRewriteFilterGroupDescriptor)selector;
+        List<UrlRewriteFilterDetectDescriptor> detects = new ArrayList<>();
+        for( UrlRewriteFilterPathDescriptor inner : group.getSelectors() ) {
+          if( inner instanceof UrlRewriteFilterDetectDescriptor ) {
+            detects.add( (UrlRewriteFilterDetectDescriptor)inner );
+          }
+        }
+        for( int i = 0; i <= detects.size(); i++ ) {
+          Element element = appendPath( document, steps );
+          fillGroup( element, group, i < detects.size() ? detects.get( i ) : null );
+        }
+      } else {
+        for( int i = 0; i < 2; i++ ) {
+          setValue( document, steps, URL_VALUE );
+        }
+      }
+    }
+    List<String> inputs = new ArrayList<>();
+    for( Document document : documents.values() ) {
+      StringWriter writer = new StringWriter();
+      XmlUtils.writeXml( document, writer, XmlUtils.getTransformer( false, true, 2, false ) );
+      inputs.add( writer.toString() );
+    }
+    return inputs;
+  }
+
+  private static void fillGroup( Element element, UrlRewriteFilterGroupDescriptor group, UrlRewriteFilterDetectDescriptor match ) {
+    Map<String,String> values = new LinkedHashMap<>();
+    collectValues( group, match, values );
+    for( Map.Entry<String,String> entry : values.entrySet() ) {
+      setValue( element, entry.getKey().split( "/" ), entry.getValue() );
+    }
+  }
+
+  private static void collectValues( UrlRewriteFilterGroupDescriptor group, UrlRewriteFilterDetectDescriptor match, Map<String,String> values ) {
+    for( UrlRewriteFilterPathDescriptor selector : group.getSelectors() ) {
+      if( selector instanceof UrlRewriteFilterDetectDescriptor ) {
+        UrlRewriteFilterDetectDescriptor detect = (UrlRewriteFilterDetectDescriptor)selector;
+        if( detect.equals( match ) ) {
+          values.put( detect.path(), detect.value() );
+        } else {
+          values.putIfAbsent( detect.path(), "unmatched" );
+        }
+        collectValues( detect, match, values );
+      } else if( selector instanceof UrlRewriteFilterApplyDescriptor ) {
+        values.putIfAbsent( selector.path(), URL_VALUE );
+      }
+    }
+  }
+
+  private static Element appendPath( Node parent, String[] steps ) {
+    Document document = parent.getNodeType() == Node.DOCUMENT_NODE ? (Document)parent : parent.getOwnerDocument();
+    Node node = parent;
+    for( int i = 0; i < steps.length; i++ ) {
+      String name = "*".equals( steps[ i ] ) ? "any" : steps[ i ];
+      Node child = null;
+      if( i < steps.length - 1 || node.getNodeType() == Node.DOCUMENT_NODE ) {
+        for( Node next = node.getFirstChild(); next != null; next = next.getNextSibling() ) {
+          if( next.getNodeType() == Node.ELEMENT_NODE && name.equals( next.getNodeName() ) ) {
+            child = next;
+          }
+        }
+      }
+      if( child == null ) {
+        child = document.createElement( name );
+        node.appendChild( child );
+      }
+      node = child;
+    }
+    return (Element)node;
+  }
+
+  private static void setValue( Node parent, String[] steps, String value ) {
+    String last = steps[ steps.length - 1 ];
+    if( last.startsWith( "@" ) ) {
+      String[] elements = new String[ steps.length - 1 ];
+      System.arraycopy( steps, 0, elements, 0, elements.length );
+      Element element = elements.length == 0 ? (Element)parent : appendPath( parent, elements );
+      element.setAttribute( last.substring( 1 ), value );
+    } else if( "text()".equals( last ) ) {
+      String[] elements = new String[ steps.length - 1 ];
+      System.arraycopy( steps, 0, elements, 0, elements.length );
+      appendPath( parent, elements ).setTextContent( value );
+    } else {
+      appendPath( parent, steps ).setTextContent( value );
+    }
+  }
+}
@@ -133,6 +133,24 @@ public class AclParserTest {
     assertFalse(p.ipv.getIPAddresses().contains("127.0.0.3"));
   }
 
+  @Test
+  public void testCidrAndExcludedIpAcls() {
+    AclParser p = new AclParser();
+    p.parseAcls("test", "*;*;10.0.0.0/8,!10.1.0.0/16,2001:db8::/32");
+    assertFalse(p.ipv.allowsAnyIP());
+    assertTrue(p.ipv.validateIpAddress("10.200.0.1"));
+    assertTrue(p.ipv.validateIpAddress("::ffff:10.200.0.1"));
+    assertFalse(p.ipv.validateIpAddress("10.1.0.1"));
+    assertTrue(p.ipv.validateIpAddress("2001:db8::1"));
+    assertFalse(p.ipv.validateIpAddress("2001:db9::1"));
+
+    p = new AclParser();
+    p.parseAcls("test", "*;*;*,!127.0.0.1");
+    assertFalse(p.ipv.allowsAnyIP());
+    assertTrue(p.ipv.validateIpAddress("127.0.0.2"));
+    assertFalse(p.ipv.validateIpAddress("127.0.0.1"));
+  }
+
   @Test
   public void testNullACL() {
     AclParser p = new AclParser();
@@ -92,4 +92,7 @@ public interface JWTMessages {
 
   @Message( level = MessageLevel.INFO, text = "Missing token: {0}")
   void missingTokenFromHeader(Pair<JWTFederationFilter.TokenType, String> wireToken);
+
+  @Message( level = MessageLevel.INFO, text = "Replaced the legacy passcode hash of token {0}" )
+  void migratedTokenPasscodeHash(String tokenId);
 }
@@ -17,8 +17,6 @@
  */
 package org.apache.knox.gateway.provider.federation.jwt.filter;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
-
 import java.io.IOException;
 import java.security.Principal;
 import java.security.PrivilegedActionException;
@@ -26,7 +24,6 @@ import java.security.PrivilegedExceptionAction;
 import java.security.interfaces.RSAPublicKey;
 import java.text.ParseException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
@@ -67,6 +64,7 @@ import org.apache.knox.gateway.services.security.token.TokenMetadata;
 import org.apache.knox.gateway.services.security.token.TokenServiceException;
 import org.apache.knox.gateway.services.security.token.TokenStateService;
 import org.apache.knox.gateway.services.security.token.TokenUtils;
+import org.apache.knox.gateway.services.security.token.TokenValidationView;
 import org.apache.knox.gateway.services.security.token.UnknownTokenException;
 import org.apache.knox.gateway.services.security.token.impl.JWT;
 import org.apache.knox.gateway.services.security.token.impl.JWTToken;
@@ -134,7 +132,8 @@ public abstract class AbstractJWTFilter implements Filter {
           try {
             final GatewayConfig config = (GatewayConfig) context.getAttribute(GatewayConfig.GATEWAY_CONFIG_ATTRIBUTE);
             final AliasService aliasService =  services.getService(ServiceType.ALIAS_SERVICE);
-            tokenMAC = new TokenMAC(config.getKnoxTokenHashAlgorithm(), aliasService.getPasswordFromAliasForGateway(TokenMAC.KNOX_TOKEN_HASH_KEY_ALIAS_NAME));
+            tokenMAC = new TokenMAC(config.getKnoxTokenHashAlgorithm(), aliasService.getPasswordFromAliasForGateway(TokenMAC.KNOX_TOKEN_HASH_KEY_ALIAS_NAME),
+                config.isKnoxTokenHashV2Enabled());
           } catch (ServiceLifecycleException | AliasServiceException e) {
             throw new ServletException("Error while initializing Knox token MAC generator", e);
           }
@@ -172,7 +171,11 @@ public abstract class AbstractJWTFilter implements Filter {
   }
 
   protected boolean tokenIsStillValid(final JWT jwtToken) throws UnknownTokenException {
-    Date expires = getServerManagedStateExpiration(TokenUtils.getTokenId(jwtToken));
+    return tokenIsStillValid(jwtToken, getServerManagedStateExpiration(TokenUtils.getTokenId(jwtToken)));
+  }
+
+  private static boolean tokenIsStillValid(final JWT jwtToken, final Date serverManagedExpiration) {
+    Date expires = serverManagedExpiration;
     if (expires == null) {
       // if there is no expiration date then the lifecycle is tied entirely to
       // the cookie validity - otherwise ensure that the current time is before
@@ -183,7 +186,10 @@ public abstract class AbstractJWTFilter implements Filter {
   }
 
   protected boolean tokenIsStillValid(final String tokenId) throws UnknownTokenException {
-    Date expires = getServerManagedStateExpiration(tokenId);
+    return isBeforeExpiration(getServerManagedStateExpiration(tokenId));
+  }
+
+  private static boolean isBeforeExpiration(final Date expires) {
     return expires == null || (new Date().before(expires));
   }
 
@@ -198,6 +204,17 @@ public abstract class AbstractJWTFilter implements Filter {
     return expires;
   }
 
+  private static Date getServerManagedStateExpiration(final TokenValidationView tokenValidationView) {
+    return tokenValidationView == null || tokenValidationView.getExpiration() <= 0 ? null : new Date(tokenValidationView.getExpiration());
+  }
+
+  /*
+   * All the server-managed state needed to validate a request is fetched at once, rather than with a look-up per check.
+   */
+  private TokenValidationView getTokenValidationView(final String tokenId) throws UnknownTokenException {
+    return tokenStateService == null ? null : tokenStateService.getTokenValidationView(tokenId);
+  }
+
   /**
    * Validate whether any of the accepted audience claims is present in the
    * issued token claims list for audience. Override this method in subclasses
@@ -297,6 +314,13 @@ public abstract class AbstractJWTFilter implements Filter {
     return null;
   }
 
+  protected Subject createSubjectFromTokenValidationView(final TokenValidationView tokenValidationView) {
+    if (tokenValidationView.getMetadata() != null) {
+      return createSubjectFromTokenData(tokenValidationView.getUserName(), null);
+    }
+    return null;
+  }
+
   protected Subject createSubjectFromTokenData(final String principal, final String expectedPrincipalClaimValue) {
     String claimValue =
               (expectedPrincipalClaimValue != null) ? expectedPrincipalClaimValue.toLowerCase(Locale.ROOT) : null;
@@ -330,12 +354,13 @@ public abstract class AbstractJWTFilter implements Filter {
       // the cookie validity - otherwise ensure that the current time is before
       // the designated expiration time
       try {
-        if (tokenIsStillValid(token)) {
+        final TokenValidationView tokenValidationView = getTokenValidationView(tokenId);
+        if (tokenIsStillValid(token, getServerManagedStateExpiration(tokenValidationView))) {
           boolean audValid = validateAudiences(token);
           if (audValid) {
             Date nbf = token.getNotBeforeDate();
             if (nbf == null || new Date().after(nbf)) {
-              if (isTokenEnabled(tokenId)) {
+              if (tokenValidationView == null || tokenValidationView.isEnabled()) {
                 if (verifyTokenSignature(token)) {
                   return true;
                 } else {
@@ -378,26 +403,37 @@ public abstract class AbstractJWTFilter implements Filter {
     return false;
   }
 
-  private boolean isTokenEnabled(String tokenId) throws UnknownTokenException {
-    final TokenMetadata tokenMetadata = tokenStateService == null ? null : tokenStateService.getTokenMetadata(tokenId);
-    return tokenMetadata == null ? true : tokenMetadata.isEnabled();
-  }
-
   protected boolean validateToken(final HttpServletRequest request,
                                   final HttpServletResponse response,
                                   final FilterChain chain,
                                   final String tokenId,
                                   final String passcode)
           throws IOException, ServletException {
+    return validatePasscodeToken(request, response, chain, tokenId, passcode) != null;
+  }
+
+  /**
+   * Validate the specified passcode token against its server-managed state.
+   *
+   * @return the server-managed state of the token if it is valid; otherwise, null (the validation error has then
+   *         been handled already)
+   */
+  protected TokenValidationView validatePasscodeToken(final HttpServletRequest request,
+                                                      final HttpServletResponse response,
+                                                      final FilterChain chain,
+                                                      final String tokenId,
+                                                      final String passcode)
+          throws IOException, ServletException {
 
     if (tokenStateService != null) {
       try {
         if (tokenId != null) {
           final String displayableTokenId = Tokens.getTokenIDDisplayText(tokenId);
-          if (tokenIsStillValid(tokenId)) {
-            if (isTokenEnabled(tokenId)) {
-              if (hasSignatureBeenVerified(passcode) || validatePasscode(tokenId, passcode)) {
-                return true;
+          final TokenValidationView tokenValidationView = tokenStateService.getTokenValidationView(tokenId);
+          if (isBeforeExpiration(getServerManagedStateExpiration(tokenValidationView))) {
+            if (tokenValidationView.isEnabled()) {
+              if (hasSignatureBeenVerified(passcode) || validatePasscode(tokenValidationView, passcode)) {
+                return tokenValidationView;
               } else {
                 log.wrongPasscodeToken(tokenId);
                 handleValidationError(request, response, HttpServletResponse.SC_UNAUTHORIZED, "Invalid passcode");
@@ -424,16 +460,23 @@ public abstract class AbstractJWTFilter implements Filter {
       }
     }
 
-    return false;
+    return null;
   }
 
-  private boolean validatePasscode(String tokenId, String passcode) throws UnknownTokenException {
-    final long issueTime = tokenStateService.getTokenIssueTime(tokenId);
-    final TokenMetadata tokenMetadata = tokenStateService.getTokenMetadata(tokenId);
+  private boolean validatePasscode(TokenValidationView tokenValidationView, String passcode) {
+    final String tokenId = tokenValidationView.getTokenId();
+    final long issueTime = tokenValidationView.getIssueTime();
+    final TokenMetadata tokenMetadata = tokenValidationView.getMetadata();
     final String userName = tokenMetadata == null ? "" : tokenMetadata.getUserName();
-    final byte[] storedPasscode = tokenMetadata == null ? null : tokenMetadata.getPasscode().getBytes(UTF_8);
-    final boolean validPasscode = Arrays.equals(tokenMAC.hash(tokenId, issueTime, userName, passcode).getBytes(UTF_8), storedPasscode);
+    final String storedPasscode = tokenValidationView.getPasscode();
+    final boolean validPasscode = tokenMAC.verify(tokenId, issueTime, userName, passcode, storedPasscode);
     if (validPasscode) {
+      if (tokenMAC.needsRehash(storedPasscode)) {
+        // Replace the legacy hash now that the passcode is known to match it
+        tokenMetadata.setPasscode(tokenMAC.hash(tokenId, issueTime, userName, passcode));
+        tokenStateService.addMetadata(tokenId, tokenMetadata);
+        log.migratedTokenPasscodeHash(Tokens.getTokenIDDisplayText(tokenId));
+      }
       recordSignatureVerification(passcode);
     }
     return validPasscode;
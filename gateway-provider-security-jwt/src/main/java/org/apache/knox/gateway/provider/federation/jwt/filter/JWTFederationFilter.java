@@ -41,6 +41,7 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.apache.knox.gateway.i18n.messages.MessagesFactory;
 import org.apache.knox.gateway.provider.federation.jwt.JWTMessages;
 import org.apache.knox.gateway.security.PrimaryPrincipal;
+import org.apache.knox.gateway.services.security.token.TokenValidationView;
 import org.apache.knox.gateway.services.security.token.UnknownTokenException;
 import org.apache.knox.gateway.services.security.token.impl.JWT;
 import org.apache.knox.gateway.services.security.token.impl.JWTToken;
@@ -167,13 +168,11 @@ public class JWTFederationFilter extends AbstractJWTFilter {
               "Error while parsing the received passcode token");
         }
 
-        if (validateToken((HttpServletRequest) request, (HttpServletResponse) response, chain, tokenId, passcode)) {
-          try {
-            Subject subject = createSubjectFromTokenIdentifier(tokenId);
-            continueWithEstablishedSecurityContext(subject, (HttpServletRequest) request, (HttpServletResponse) response, chain);
-          } catch (UnknownTokenException e) {
-            ((HttpServletResponse) response).sendError(HttpServletResponse.SC_UNAUTHORIZED);
-          }
+        final TokenValidationView tokenValidationView =
+            validatePasscodeToken((HttpServletRequest) request, (HttpServletResponse) response, chain, tokenId, passcode);
+        if (tokenValidationView != null) {
+          Subject subject = createSubjectFromTokenValidationView(tokenValidationView);
+          continueWithEstablishedSecurityContext(subject, (HttpServletRequest) request, (HttpServletResponse) response, chain);
         }
       }
     } else {
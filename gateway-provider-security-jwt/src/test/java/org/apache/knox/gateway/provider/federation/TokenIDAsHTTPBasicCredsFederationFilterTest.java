@@ -21,6 +21,7 @@ package org.apache.knox.gateway.provider.federation;
 import static org.junit.Assert.fail;
 
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.text.ParseException;
 import java.time.Instant;
 import java.util.Collection;
@@ -29,10 +30,14 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.TreeSet;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -47,6 +52,7 @@ import org.apache.knox.gateway.services.security.token.KnoxToken;
 import org.apache.knox.gateway.services.security.token.TokenMetadata;
 import org.apache.knox.gateway.services.security.token.TokenStateService;
 import org.apache.knox.gateway.services.security.token.TokenUtils;
+import org.apache.knox.gateway.services.security.token.TokenValidationView;
 import org.apache.knox.gateway.services.security.token.UnknownTokenException;
 import org.apache.knox.gateway.services.security.token.impl.JWT;
 import org.apache.knox.gateway.services.security.token.impl.JWTToken;
@@ -60,15 +66,18 @@ import com.nimbusds.jwt.SignedJWT;
 @SuppressWarnings({"PMD.JUnit4TestShouldUseBeforeAnnotation", "PMD.JUnit4TestShouldUseTestAnnotation"})
 public class TokenIDAsHTTPBasicCredsFederationFilterTest extends JWTAsHTTPBasicCredsFederationFilterTest {
 
+    private static final String PASSCODE_MAC_KEY = UUID.randomUUID().toString();
+
     TestTokenStateService tss;
     TokenMAC tokenMAC;
+    boolean legacyPasscodeHash;
 
     @Override
     public void setUp() throws Exception {
         super.setUp();
         tss = new TestTokenStateService();
         ((TestJWTFederationFilter) handler).setTokenStateService(tss);
-        tokenMAC = new TokenMAC(HmacAlgorithms.HMAC_SHA_256.getName(), "sPj8FCgQhCEi6G18kBfpswxYSki33plbelGLs0hMSbk".toCharArray());
+        tokenMAC = new TokenMAC(HmacAlgorithms.HMAC_SHA_256.getName(), PASSCODE_MAC_KEY.toCharArray(), true);
         ((TestJWTFederationFilter) handler).setTokenMac(tokenMAC);
     }
 
@@ -133,13 +142,28 @@ public class TokenIDAsHTTPBasicCredsFederationFilterTest extends JWTAsHTTPBasicC
             tss.addToken(token, issueTime);
 
             final TokenMetadata metadata = new TokenMetadata(subject);
-            metadata.setPasscode(tokenMAC.hash(TokenUtils.getTokenId(token), issueTime, subject, passcode));
+            metadata.setPasscode(legacyPasscodeHash
+                ? legacyHash(TokenUtils.getTokenId(token), issueTime, subject, passcode)
+                : tokenMAC.hash(TokenUtils.getTokenId(token), issueTime, subject, passcode));
             tss.addMetadata(TokenUtils.getTokenId(token), metadata);
         } catch (ParseException e) {
             Assert.fail(e.getMessage());
         }
     }
 
+    /* The passcode hash as tokens issued before the current hash format stored it */
+    private static String legacyHash(String tokenId, long issueTime, String userName, String passcode) {
+        try {
+            final Mac mac = Mac.getInstance(HmacAlgorithms.HMAC_SHA_256.getName());
+            mac.init(new SecretKeySpec(PASSCODE_MAC_KEY.getBytes(StandardCharsets.UTF_8),
+                HmacAlgorithms.HMAC_SHA_256.getName()));
+            mac.update((tokenId + issueTime + userName).getBytes(StandardCharsets.UTF_8));
+            return new String(mac.doFinal(passcode.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     @Override
     public void testAlternativeCaseUsername() throws Exception {
         try {
@@ -261,6 +285,99 @@ public class TokenIDAsHTTPBasicCredsFederationFilterTest extends JWTAsHTTPBasicC
         }
     }
 
+    @Test
+    public void testLegacyPasscodeHashIsMigrated() throws Exception {
+        legacyPasscodeHash = true;
+        Properties props = getProperties();
+        handler.init(new TestFilterConfig(props));
+
+        SignedJWT jwt = getJWT(AbstractJWTFilter.JWT_DEFAULT_ISSUER, "alice",
+                               new Date(new Date().getTime() + 5000), privateKey);
+
+        HttpServletRequest request = EasyMock.createNiceMock(HttpServletRequest.class);
+        setTokenOnRequest(request, jwt);
+
+        EasyMock.expect(request.getRequestURL()).andReturn(new StringBuffer(SERVICE_URL)).anyTimes();
+        EasyMock.expect(request.getPathInfo()).andReturn("resource").anyTimes();
+        EasyMock.expect(request.getQueryString()).andReturn(null);
+        HttpServletResponse response = EasyMock.createNiceMock(HttpServletResponse.class);
+        EasyMock.expect(response.encodeRedirectURL(SERVICE_URL)).andReturn(SERVICE_URL);
+        EasyMock.expect(response.getOutputStream()).andAnswer(DummyServletOutputStream::new).anyTimes();
+        EasyMock.replay(request, response);
+
+        final String tokenId = getTokenId(jwt);
+        Assert.assertTrue(TokenMAC.isLegacyHash(tss.getTokenMetadata(tokenId).getPasscode()));
+
+        TestFilterChain chain = new TestFilterChain();
+        handler.doFilter(request, response, chain);
+        Assert.assertTrue("doFilterCalled should be true.", chain.doFilterCalled);
+
+        final String passcode = (String) jwt.getJWTClaimsSet().getClaims().get(PASSCODE_CLAIM);
+        final String storedPasscode = tss.getTokenMetadata(tokenId).getPasscode();
+        Assert.assertFalse(TokenMAC.isLegacyHash(storedPasscode));
+        Assert.assertTrue(tokenMAC.verify(tokenId, tss.getTokenIssueTime(tokenId), "alice", passcode, storedPasscode));
+    }
+
+    @Test
+    public void testLegacyPasscodeHashIsKeptUnlessV2HashIsEnabled() throws Exception {
+        legacyPasscodeHash = true;
+        Properties props = getProperties();
+        handler.init(new TestFilterConfig(props));
+        ((TestJWTFederationFilter) handler).setTokenMac(new TokenMAC(HmacAlgorithms.HMAC_SHA_256.getName(), PASSCODE_MAC_KEY.toCharArray()));
+
+        SignedJWT jwt = getJWT(AbstractJWTFilter.JWT_DEFAULT_ISSUER, "alice",
+                               new Date(new Date().getTime() + 5000), privateKey);
+
+        HttpServletRequest request = EasyMock.createNiceMock(HttpServletRequest.class);
+        setTokenOnRequest(request, jwt);
+
+        EasyMock.expect(request.getRequestURL()).andReturn(new StringBuffer(SERVICE_URL)).anyTimes();
+        EasyMock.expect(request.getPathInfo()).andReturn("resource").anyTimes();
+        EasyMock.expect(request.getQueryString()).andReturn(null);
+        HttpServletResponse response = EasyMock.createNiceMock(HttpServletResponse.class);
+        EasyMock.expect(response.encodeRedirectURL(SERVICE_URL)).andReturn(SERVICE_URL);
+        EasyMock.expect(response.getOutputStream()).andAnswer(DummyServletOutputStream::new).anyTimes();
+        EasyMock.replay(request, response);
+
+        final String tokenId = getTokenId(jwt);
+        final String legacyPasscode = tss.getTokenMetadata(tokenId).getPasscode();
+
+        TestFilterChain chain = new TestFilterChain();
+        handler.doFilter(request, response, chain);
+        Assert.assertTrue("doFilterCalled should be true.", chain.doFilterCalled);
+        Assert.assertEquals(legacyPasscode, tss.getTokenMetadata(tokenId).getPasscode());
+    }
+
+    @Test
+    public void testTokenStateIsLookedUpOncePerRequest() throws Exception {
+        Properties props = getProperties();
+        handler.init(new TestFilterConfig(props));
+
+        SignedJWT jwt = getJWT(AbstractJWTFilter.JWT_DEFAULT_ISSUER, "alice",
+                               new Date(new Date().getTime() + 5000), privateKey);
+
+        // The first request verifies the passcode, the second one finds it in the verification cache
+        for (int i = 0; i < 2; i++) {
+            HttpServletRequest request = EasyMock.createNiceMock(HttpServletRequest.class);
+            setTokenOnRequest(request, jwt);
+
+            EasyMock.expect(request.getRequestURL()).andReturn(new StringBuffer(SERVICE_URL)).anyTimes();
+            EasyMock.expect(request.getPathInfo()).andReturn("resource").anyTimes();
+            EasyMock.expect(request.getQueryString()).andReturn(null);
+            HttpServletResponse response = EasyMock.createNiceMock(HttpServletResponse.class);
+            EasyMock.expect(response.encodeRedirectURL(SERVICE_URL)).andReturn(SERVICE_URL);
+            EasyMock.expect(response.getOutputStream()).andAnswer(DummyServletOutputStream::new).anyTimes();
+            EasyMock.replay(request, response);
+
+            tss.lookups.set(0);
+            TestFilterChain chain = new TestFilterChain();
+            handler.doFilter(request, response, chain);
+            Assert.assertTrue("doFilterCalled should be true.", chain.doFilterCalled);
+            Assert.assertNotNull(chain.subject);
+            Assert.assertEquals("Token state should be looked up once per request", 1, tss.lookups.get());
+        }
+    }
+
     @Override
     public void testJWTWithoutKnoxUUIDClaim() throws Exception {
         // Override to disable N/A test
@@ -359,6 +476,7 @@ public class TokenIDAsHTTPBasicCredsFederationFilterTest extends JWTAsHTTPBasicC
         private final Map<String, Long> tokenIssueTimes = new ConcurrentHashMap<>();
         private final Map<String, Long> tokenExpirations = new ConcurrentHashMap<>();
         private final Map<String, TokenMetadata> tokenMetadata = new ConcurrentHashMap<>();
+        private final AtomicInteger lookups = new AtomicInteger();
 
         @Override
         public void init(GatewayConfig config, Map<String, String> options) throws ServiceLifecycleException {
@@ -409,6 +527,7 @@ public class TokenIDAsHTTPBasicCredsFederationFilterTest extends JWTAsHTTPBasicC
 
         @Override
         public long getTokenIssueTime(String tokenId) throws UnknownTokenException {
+        lookups.incrementAndGet();
         return tokenIssueTimes.getOrDefault(tokenId, 0L);
         }
 
@@ -462,6 +581,7 @@ public class TokenIDAsHTTPBasicCredsFederationFilterTest extends JWTAsHTTPBasicC
 
         @Override
         public long getTokenExpiration(String tokenId) throws UnknownTokenException {
+            lookups.incrementAndGet();
             if (!tokenExpirations.containsKey(tokenId)) {
                 throw new UnknownTokenException(tokenId);
             }
@@ -480,12 +600,23 @@ public class TokenIDAsHTTPBasicCredsFederationFilterTest extends JWTAsHTTPBasicC
 
         @Override
         public TokenMetadata getTokenMetadata(String tokenId) throws UnknownTokenException {
+            lookups.incrementAndGet();
             if (!tokenMetadata.containsKey(tokenId)) {
                 throw new UnknownTokenException(tokenId);
             }
             return tokenMetadata.get(tokenId);
         }
 
+        @Override
+        public TokenValidationView getTokenValidationView(String tokenId) throws UnknownTokenException {
+            lookups.incrementAndGet();
+            if (!tokenExpirations.containsKey(tokenId) || !tokenMetadata.containsKey(tokenId)) {
+                throw new UnknownTokenException(tokenId);
+            }
+            return new TokenValidationView(tokenId, tokenIssueTimes.getOrDefault(tokenId, 0L),
+                                           tokenExpirations.get(tokenId), tokenMetadata.get(tokenId));
+        }
+
         @Override
         public Collection<KnoxToken> getTokens(String userName) {
           return fetchTokens(userName, false);
@@ -112,6 +112,25 @@ public class Pac4jDispatcherFilter implements Filter {
 
   public static final String PAC4J_SESSION_STORE_EXCLUDE_PERMISSIONS_DEFAULT = "true";
 
+  /* binary (default) or java, the format written before the binary format, for rolling upgrades */
+  public static final String PAC4J_SESSION_STORE_FORMAT = "pac4j.session.store.format";
+
+  public static final String PAC4J_SESSION_STORE_FORMAT_DEFAULT = "binary";
+
+  /* cookie (default) or server, to keep the session values in memory of the gateway instance */
+  public static final String PAC4J_SESSION_STORE_MODE = "pac4j.session.store.mode";
+
+  public static final String PAC4J_SESSION_STORE_MODE_DEFAULT = "cookie";
+
+  public static final String PAC4J_SESSION_STORE_MAX_SESSIONS = "pac4j.session.store.max.sessions";
+
+  public static final String PAC4J_SESSION_STORE_MAX_SESSIONS_DEFAULT = "10000";
+
+  /* milliseconds after which an unused server side session is dropped */
+  public static final String PAC4J_SESSION_STORE_IDLE_TIMEOUT = "pac4j.session.store.idle.timeout";
+
+  public static final String PAC4J_SESSION_STORE_IDLE_TIMEOUT_DEFAULT = "1800000";
+
   private static final String PAC4J_CLIENT_NAME_PARAM = "clientName";
 
   private static final String PAC4J_OIDC_TYPE = "oidc.type";
@@ -234,7 +253,11 @@ public class Pac4jDispatcherFilter implements Filter {
     if(!StringUtils.isBlank(sessionStoreVar) && JEESessionStore.class.getName().contains(sessionStoreVar) ) {
       sessionStore = new JEESessionStore();
     } else {
-      sessionStore = new KnoxSessionStore(cryptoService, clusterName, domainSuffix, sessionStoreConfigs);
+      setSessionStoreConfig(filterConfig, PAC4J_SESSION_STORE_FORMAT, PAC4J_SESSION_STORE_FORMAT_DEFAULT);
+      setSessionStoreConfig(filterConfig, PAC4J_SESSION_STORE_MODE, PAC4J_SESSION_STORE_MODE_DEFAULT);
+      setSessionStoreConfig(filterConfig, PAC4J_SESSION_STORE_MAX_SESSIONS, PAC4J_SESSION_STORE_MAX_SESSIONS_DEFAULT);
+      setSessionStoreConfig(filterConfig, PAC4J_SESSION_STORE_IDLE_TIMEOUT, PAC4J_SESSION_STORE_IDLE_TIMEOUT_DEFAULT);
+      sessionStore = new KnoxSessionStore(cryptoService, aliasService, clusterName, domainSuffix, sessionStoreConfigs);
     }
 
     config.setSessionStore(sessionStore);
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.pac4j.session;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+/**
+ * Authenticated encryption of session values with AES-GCM.
+ * <p>
+ * The key is derived from the topology's pac4j password once, when the cipher is created,
+ * rather than for every cookie. The salt only depends on the topology name, so every gateway
+ * instance sharing the password derives the same key.
+ *
+ * @since 2.0.0
+ */
+final class KnoxSessionCipher {
+
+  private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+  private static final String KEY_DERIVATION_ALGORITHM = "PBKDF2WithHmacSHA256";
+
+  private static final int KEY_DERIVATION_ITERATIONS = 65536;
+
+  private static final int KEY_LENGTH = 256;
+
+  private static final int IV_LENGTH = 12;
+
+  private static final int TAG_LENGTH = 128;
+
+  private final SecretKey key;
+
+  private final SecureRandom random = new SecureRandom();
+
+  KnoxSessionCipher(final char[] password, final String clusterName) throws GeneralSecurityException {
+    final byte[] salt = ("knox.pac4j.session." + clusterName).getBytes(StandardCharsets.UTF_8);
+    final PBEKeySpec keySpec = new PBEKeySpec(password, salt, KEY_DERIVATION_ITERATIONS, KEY_LENGTH);
+    try {
+      final byte[] derived = SecretKeyFactory.getInstance(KEY_DERIVATION_ALGORITHM).generateSecret(keySpec).getEncoded();
+      key = new SecretKeySpec(derived, "AES");
+    } finally {
+      keySpec.clearPassword();
+    }
+  }
+
+  /**
+   * @param clear the value to encrypt
+   * @param associatedData data the value is bound to, e.g. the name of the cookie carrying it
+   * @return the random IV followed by the cipher text and tag
+   */
+  byte[] encrypt(final byte[] clear, final byte[] associatedData) throws GeneralSecurityException {
+    final byte[] iv = new byte[IV_LENGTH];
+    random.nextBytes(iv);
+    final Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+    cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH, iv));
+    cipher.updateAAD(associatedData);
+    final byte[] sealed = new byte[IV_LENGTH + cipher.getOutputSize(clear.length)];
+    System.arraycopy(iv, 0, sealed, 0, IV_LENGTH);
+    cipher.doFinal(clear, 0, clear.length, sealed, IV_LENGTH);
+    return sealed;
+  }
+
+  /**
+   * @throws GeneralSecurityException if the value was not encrypted with this key and associated data
+   */
+  byte[] decrypt(final byte[] sealed, final byte[] associatedData) throws GeneralSecurityException {
+    if (sealed.length <= IV_LENGTH) {
+      throw new GeneralSecurityException("Truncated session value");
+    }
+    final Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+    cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH, sealed, 0, IV_LENGTH));
+    cipher.updateAAD(associatedData);
+    return cipher.doFinal(sealed, IV_LENGTH, sealed.length - IV_LENGTH);
+  }
+}
@@ -0,0 +1,379 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.pac4j.session;
+
+import org.pac4j.core.profile.CommonProfile;
+import org.pac4j.core.util.JavaSerializationHelper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact binary encoding of the values pac4j keeps in its session.
+ * <p>
+ * Profiles, strings, numbers, dates and collections of them are written field by field,
+ * which avoids the class descriptors of Java serialization. Any other value falls back to
+ * Java serialization. Encoded values start with a format version, followed by flags and the
+ * (optionally deflated) body.
+ *
+ * @since 2.0.0
+ */
+final class KnoxSessionCodec {
+
+  static final byte VERSION = 2;
+
+  private static final byte FLAG_DEFLATED = 1;
+
+  /* bodies shorter than this rarely get smaller when deflated */
+  private static final int MIN_DEFLATE_LENGTH = 128;
+
+  private static final byte NULL = 0;
+  private static final byte STRING = 1;
+  private static final byte BOOLEAN = 2;
+  private static final byte INTEGER = 3;
+  private static final byte LONG = 4;
+  private static final byte DOUBLE = 5;
+  private static final byte DATE = 6;
+  private static final byte LIST = 7;
+  private static final byte SET = 8;
+  private static final byte MAP = 9;
+  private static final byte PROFILE = 10;
+  private static final byte SERIALIZED = 11;
+
+  private final JavaSerializationHelper javaSerializationHelper;
+
+  KnoxSessionCodec(final JavaSerializationHelper javaSerializationHelper) {
+    this.javaSerializationHelper = javaSerializationHelper;
+  }
+
+  byte[] encode(final Object value) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    bytes.write(VERSION);
+    bytes.write(0);
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      write(out, value);
+    }
+    final byte[] encoded = bytes.toByteArray();
+    if (encoded.length - 2 < MIN_DEFLATE_LENGTH) {
+      return encoded;
+    }
+    final byte[] deflated = deflate(encoded, 2);
+    if (deflated.length >= encoded.length) {
+      return encoded;
+    }
+    deflated[0] = VERSION;
+    deflated[1] = FLAG_DEFLATED;
+    return deflated;
+  }
+
+  Object decode(final byte[] encoded) throws IOException {
+    if (encoded.length < 2 || encoded[0] != VERSION) {
+      throw new IOException("Unsupported session value format");
+    }
+    final byte[] body = (encoded[1] & FLAG_DEFLATED) == 0 ? encoded : inflate(encoded, 2);
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(body, 2, body.length - 2))) {
+      return read(in);
+    }
+  }
+
+  private void write(final DataOutputStream out, final Object value) throws IOException {
+    if (value == null) {
+      out.writeByte(NULL);
+    } else if (value instanceof String) {
+      out.writeByte(STRING);
+      writeString(out, (String) value);
+    } else if (value instanceof Boolean) {
+      out.writeByte(BOOLEAN);
+      out.writeBoolean((Boolean) value);
+    } else if (value instanceof Integer) {
+      out.writeByte(INTEGER);
+      out.writeInt((Integer) value);
+    } else if (value instanceof Long) {
+      out.writeByte(LONG);
+      out.writeLong((Long) value);
+    } else if (value instanceof Double) {
+      out.writeByte(DOUBLE);
+      out.writeDouble((Double) value);
+    } else if (value.getClass() == Date.class) {
+      out.writeByte(DATE);
+      out.writeLong(((Date) value).getTime());
+    } else if (value instanceof CommonProfile) {
+      out.writeByte(PROFILE);
+      writeProfile(out, (CommonProfile) value);
+    } else if (value instanceof List) {
+      out.writeByte(LIST);
+      writeCollection(out, (List<?>) value);
+    } else if (value instanceof Set) {
+      out.writeByte(SET);
+      writeCollection(out, (Set<?>) value);
+    } else if (value instanceof Map) {
+      out.writeByte(MAP);
+      writeLength(out, ((Map<?, ?>) value).size());
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        write(out, entry.getKey());
+        write(out, entry.getValue());
+      }
+    } else if (value instanceof Serializable) {
+      out.writeByte(SERIALIZED);
+      final byte[] serialized = javaSerializationHelper.serializeToBytes((Serializable) value);
+      writeLength(out, serialized.length);
+      out.write(serialized);
+    } else {
+      throw new IOException("Cannot store a " + value.getClass().getName() + " in the session");
+    }
+  }
+
+  private Object read(final DataInputStream in) throws IOException {
+    final byte type = in.readByte();
+    switch (type) {
+      case NULL:
+        return null;
+      case STRING:
+        return readString(in);
+      case BOOLEAN:
+        return in.readBoolean();
+      case INTEGER:
+        return in.readInt();
+      case LONG:
+        return in.readLong();
+      case DOUBLE:
+        return in.readDouble();
+      case DATE:
+        return new Date(in.readLong());
+      case PROFILE:
+        return readProfile(in);
+      case LIST:
+        return readCollection(in, new ArrayList<>());
+      case SET:
+        return readCollection(in, new LinkedHashSet<>());
+      case MAP:
+        final int size = readLength(in);
+        final Map<Object, Object> map = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+          map.put(read(in), read(in));
+        }
+        return map;
+      case SERIALIZED:
+        final byte[] serialized = new byte[readLength(in)];
+        in.readFully(serialized);
+        return javaSerializationHelper.deserializeFromBytes(serialized);
+      default:
+        throw new IOException("Unknown session value type " + type);
+    }
+  }
+
+  private void writeProfile(final DataOutputStream out, final CommonProfile profile) throws IOException {
+    writeString(out, profile.getClass().getName());
+    writeNullableString(out, profile.getId());
+    writeNullableString(out, profile.getLinkedId());
+    writeNullableString(out, profile.getClientName());
+    out.writeBoolean(profile.isRemembered());
+    writeStrings(out, profile.getRoles());
+    writeStrings(out, profile.getPermissions());
+    writeAttributes(out, profile.getAttributes());
+    writeAttributes(out, profile.getAuthenticationAttributes());
+  }
+
+  private CommonProfile readProfile(final DataInputStream in) throws IOException {
+    final String className = readString(in);
+    final CommonProfile profile;
+    try {
+      final Class<?> profileClass = Class.forName(className, false, KnoxSessionCodec.class.getClassLoader());
+      if (!CommonProfile.class.isAssignableFrom(profileClass)) {
+        throw new IOException(className + " is not a pac4j profile");
+      }
+      profile = (CommonProfile) profileClass.getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException e) {
+      throw new IOException("Cannot create a " + className, e);
+    }
+    final String id = readNullableString(in);
+    if (id != null) {
+      profile.setId(id);
+    }
+    profile.setLinkedId(readNullableString(in));
+    profile.setClientName(readNullableString(in));
+    profile.setRemembered(in.readBoolean());
+    profile.addRoles(readStrings(in));
+    profile.addPermissions(readStrings(in));
+    profile.addAttributes(readAttributes(in));
+    profile.addAuthenticationAttributes(readAttributes(in));
+    return profile;
+  }
+
+  private void writeAttributes(final DataOutputStream out, final Map<String, Object> attributes) throws IOException {
+    writeLength(out, attributes.size());
+    for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+      writeString(out, attribute.getKey());
+      write(out, attribute.getValue());
+    }
+  }
+
+  private Map<String, Object> readAttributes(final DataInputStream in) throws IOException {
+    final int size = readLength(in);
+    final Map<String, Object> attributes = new LinkedHashMap<>();
+    for (int i = 0; i < size; i++) {
+      attributes.put(readString(in), read(in));
+    }
+    return attributes;
+  }
+
+  private void writeCollection(final DataOutputStream out, final Collection<?> values) throws IOException {
+    writeLength(out, values.size());
+    for (Object value : values) {
+      write(out, value);
+    }
+  }
+
+  private Collection<Object> readCollection(final DataInputStream in, final Collection<Object> values) throws IOException {
+    final int size = readLength(in);
+    for (int i = 0; i < size; i++) {
+      values.add(read(in));
+    }
+    return values;
+  }
+
+  private static void writeStrings(final DataOutputStream out, final Collection<String> values) throws IOException {
+    writeLength(out, values.size());
+    for (String value : values) {
+      writeString(out, value);
+    }
+  }
+
+  private static Set<String> readStrings(final DataInputStream in) throws IOException {
+    final int size = readLength(in);
+    final Set<String> values = new LinkedHashSet<>();
+    for (int i = 0; i < size; i++) {
+      values.add(readString(in));
+    }
+    return values;
+  }
+
+  private static void writeString(final DataOutputStream out, final String value) throws IOException {
+    final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeLength(out, bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(final DataInputStream in) throws IOException {
+    final byte[] bytes = new byte[readLength(in)];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /* a null string is written as length 0, any other string as its length + 1 */
+  private static void writeNullableString(final DataOutputStream out, final String value) throws IOException {
+    if (value == null) {
+      writeLength(out, 0);
+    } else {
+      final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      writeLength(out, bytes.length + 1);
+      out.write(bytes);
+    }
+  }
+
+  private static String readNullableString(final DataInputStream in) throws IOException {
+    final int length = readLength(in);
+    if (length == 0) {
+      return null;
+    }
+    final byte[] bytes = new byte[length - 1];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /* lengths are written as unsigned varints, most of them fit in a single byte */
+  private static void writeLength(final DataOutputStream out, final int length) throws IOException {
+    int remaining = length;
+    while ((remaining & ~0x7F) != 0) {
+      out.writeByte((remaining & 0x7F) | 0x80);
+      remaining >>>= 7;
+    }
+    out.writeByte(remaining);
+  }
+
+  private static int readLength(final DataInputStream in) throws IOException {
+    int length = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      final int b = in.readUnsignedByte();
+      length |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        if (length < 0) {
+          break;
+        }
+        return length;
+      }
+    }
+    throw new IOException("Malformed length in session value");
+  }
+
+  /* deflates the data after the header, keeping room for the header in the result */
+  private static byte[] deflate(final byte[] data, final int offset) {
+    final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+    try {
+      deflater.setInput(data, offset, data.length - offset);
+      deflater.finish();
+      final ByteArrayOutputStream deflated = new ByteArrayOutputStream(data.length);
+      deflated.write(new byte[offset], 0, offset);
+      final byte[] buffer = new byte[1024];
+      while (!deflater.finished()) {
+        deflated.write(buffer, 0, deflater.deflate(buffer));
+      }
+      return deflated.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static byte[] inflate(final byte[] data, final int offset) throws IOException {
+    final Inflater inflater = new Inflater(true);
+    try {
+      inflater.setInput(data, offset, data.length - offset);
+      final ByteArrayOutputStream inflated = new ByteArrayOutputStream(data.length * 4);
+      inflated.write(new byte[offset], 0, offset);
+      final byte[] buffer = new byte[1024];
+      while (!inflater.finished()) {
+        final int length = inflater.inflate(buffer);
+        if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new IOException("Truncated session value");
+        }
+        inflated.write(buffer, 0, length);
+      }
+      return inflated.toByteArray();
+    } catch (DataFormatException e) {
+      throw new IOException(e);
+    } finally {
+      inflater.end();
+    }
+  }
+}
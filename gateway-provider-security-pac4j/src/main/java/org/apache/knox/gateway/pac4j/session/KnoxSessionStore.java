@@ -17,10 +17,14 @@
  */
 package org.apache.knox.gateway.pac4j.session;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.knox.gateway.pac4j.filter.Pac4jDispatcherFilter;
+import org.apache.knox.gateway.services.security.AliasService;
+import org.apache.knox.gateway.services.security.AliasServiceException;
 import org.apache.knox.gateway.services.security.CryptoService;
 import org.apache.knox.gateway.services.security.EncryptionResult;
 import org.apache.knox.gateway.util.Urls;
@@ -40,11 +44,17 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -56,10 +66,28 @@ import static org.apache.knox.gateway.pac4j.filter.Pac4jDispatcherFilter.PAC4J_S
 import static org.apache.knox.gateway.pac4j.filter.Pac4jDispatcherFilter.PAC4J_SESSION_STORE_EXCLUDE_PERMISSIONS_DEFAULT;
 import static org.apache.knox.gateway.pac4j.filter.Pac4jDispatcherFilter.PAC4J_SESSION_STORE_EXCLUDE_ROLES;
 import static org.apache.knox.gateway.pac4j.filter.Pac4jDispatcherFilter.PAC4J_SESSION_STORE_EXCLUDE_ROLES_DEFAULT;
+import static org.apache.knox.gateway.pac4j.filter.Pac4jDispatcherFilter.PAC4J_SESSION_STORE_FORMAT;
+import static org.apache.knox.gateway.pac4j.filter.Pac4jDispatcherFilter.PAC4J_SESSION_STORE_FORMAT_DEFAULT;
+import static org.apache.knox.gateway.pac4j.filter.Pac4jDispatcherFilter.PAC4J_SESSION_STORE_IDLE_TIMEOUT;
+import static org.apache.knox.gateway.pac4j.filter.Pac4jDispatcherFilter.PAC4J_SESSION_STORE_IDLE_TIMEOUT_DEFAULT;
+import static org.apache.knox.gateway.pac4j.filter.Pac4jDispatcherFilter.PAC4J_SESSION_STORE_MAX_SESSIONS;
+import static org.apache.knox.gateway.pac4j.filter.Pac4jDispatcherFilter.PAC4J_SESSION_STORE_MAX_SESSIONS_DEFAULT;
+import static org.apache.knox.gateway.pac4j.filter.Pac4jDispatcherFilter.PAC4J_SESSION_STORE_MODE;
+import static org.apache.knox.gateway.pac4j.filter.Pac4jDispatcherFilter.PAC4J_SESSION_STORE_MODE_DEFAULT;
 
 /**
  * Specific session store where data are saved into cookies (and not in memory).
  * Each data is encrypted and base64 encoded before being saved as a cookie (for security reasons).
+ * <p>
+ * When created with an {@link AliasService}, values are written in a compact binary format
+ * (see {@link KnoxSessionCodec}) and encrypted with a key derived once for the topology. Values
+ * too large for a single cookie are split over several cookies. Cookies in the Java serialization
+ * format written by earlier versions are still read, and can still be written by setting
+ * <code>pac4j.session.store.format</code> to <code>java</code> while a cluster is upgraded.
+ * <p>
+ * With <code>pac4j.session.store.mode</code> set to <code>server</code> the values are kept in a
+ * bounded in-memory store of this gateway instance instead, and the cookie only carries a
+ * random session id. This requires sticky sessions when several gateway instances are used.
  *
  * @since 0.8.0
  */
@@ -71,6 +99,25 @@ public class KnoxSessionStore<C extends WebContext> implements SessionStore<C> {
 
     public static final String PAC4J_SESSION_PREFIX = "pac4j.session.";
 
+    /* Prefix of values in the binary format, which never occurs in the Base64 of the Java serialization format */
+    static final String BINARY_VALUE_PREFIX = KnoxSessionCodec.VERSION + ".";
+
+    /* Prefix of a value that only records over how many chunk cookies the actual value is split */
+    static final String CHUNKED_VALUE_PREFIX = KnoxSessionCodec.VERSION + "~";
+
+    /* Leaves room for the name and attributes of the cookie within the 4096 bytes browsers accept */
+    static final int MAX_COOKIE_VALUE_LENGTH = 3800;
+
+    private static final int MAX_CHUNKS = 16;
+
+    static final String SESSION_ID_COOKIE = PAC4J_SESSION_PREFIX + "knoxSessionId";
+
+    private static final String SESSION_ID_ATTRIBUTE = KnoxSessionStore.class.getName() + ".sessionId";
+
+    private static final java.util.Base64.Encoder BASE64_URL_ENCODER = java.util.Base64.getUrlEncoder().withoutPadding();
+
+    private static final java.util.Base64.Decoder BASE64_URL_DECODER = java.util.Base64.getUrlDecoder();
+
     private final JavaSerializationHelper javaSerializationHelper;
 
     private final CryptoService cryptoService;
@@ -81,11 +128,34 @@ public class KnoxSessionStore<C extends WebContext> implements SessionStore<C> {
 
     final Map<String, String> sessionStoreConfigs;
 
+    private final KnoxSessionCodec codec;
+
+    /* null when values are written in the Java serialization format */
+    private final KnoxSessionCipher cipher;
+
+    /* null unless values are kept on the server */
+    private final Cache<String, Map<String, Object>> sessions;
+
+    private final SecureRandom random = new SecureRandom();
+
     public KnoxSessionStore(final CryptoService cryptoService, final String clusterName, final String domainSuffix) {
         this(cryptoService, clusterName, domainSuffix, new HashMap());
     }
 
     public KnoxSessionStore(final CryptoService cryptoService,
+        final String clusterName,
+        final String domainSuffix,
+        final Map<String, String> sessionStoreConfigs) {
+        this(cryptoService, null, clusterName, domainSuffix, sessionStoreConfigs);
+    }
+
+    /**
+     * @param aliasService provides the pac4j password of the topology to derive the key of the binary
+     *                     format from, values are written in the Java serialization format when null
+     * @since 2.0.0
+     */
+    public KnoxSessionStore(final CryptoService cryptoService,
+        final AliasService aliasService,
         final String clusterName,
         final String domainSuffix,
         final Map<String, String> sessionStoreConfigs) {
@@ -94,12 +164,36 @@ public class KnoxSessionStore<C extends WebContext> implements SessionStore<C> {
         this.clusterName = clusterName;
         this.domainSuffix = domainSuffix;
         this.sessionStoreConfigs = sessionStoreConfigs;
+        codec = new KnoxSessionCodec(javaSerializationHelper);
+        cipher = aliasService == null || "java".equalsIgnoreCase(getConfig(PAC4J_SESSION_STORE_FORMAT, PAC4J_SESSION_STORE_FORMAT_DEFAULT))
+            ? null : createCipher(aliasService, clusterName);
+        if ("server".equalsIgnoreCase(getConfig(PAC4J_SESSION_STORE_MODE, PAC4J_SESSION_STORE_MODE_DEFAULT))) {
+            sessions = Caffeine.newBuilder()
+                .maximumSize(Long.parseLong(getConfig(PAC4J_SESSION_STORE_MAX_SESSIONS, PAC4J_SESSION_STORE_MAX_SESSIONS_DEFAULT)))
+                .expireAfterAccess(Long.parseLong(getConfig(PAC4J_SESSION_STORE_IDLE_TIMEOUT, PAC4J_SESSION_STORE_IDLE_TIMEOUT_DEFAULT)),
+                    TimeUnit.MILLISECONDS)
+                .build();
+        } else {
+            sessions = null;
+        }
+    }
+
+    private String getConfig(final String name, final String defaultValue) {
+        return sessionStoreConfigs == null ? defaultValue : sessionStoreConfigs.getOrDefault(name, defaultValue);
     }
 
+    private static KnoxSessionCipher createCipher(final AliasService aliasService, final String clusterName) {
+        try {
+            return new KnoxSessionCipher(aliasService.getPasswordFromAliasForCluster(clusterName, PAC4J_PASSWORD, true),
+                clusterName);
+        } catch (AliasServiceException | GeneralSecurityException e) {
+            throw new TechnicalException(e);
+        }
+    }
 
     @Override
     public String getOrCreateSessionId(WebContext context) {
-        return null;
+        return sessions == null ? null : serverSessionId(context, true);
     }
 
     private Serializable uncompressDecryptBase64(final String v) {
@@ -122,20 +216,99 @@ public class KnoxSessionStore<C extends WebContext> implements SessionStore<C> {
         return null;
     }
 
+    private Object decryptBinary(final String cookieName, final String v) {
+        if (v == null) {
+            return null;
+        }
+        if (cipher == null) {
+            logger.debug("Ignoring cookie {} in the binary format, no key is available to decrypt it", cookieName);
+            return null;
+        }
+        final byte[] clear;
+        try {
+            clear = cipher.decrypt(BASE64_URL_DECODER.decode(v.substring(BINARY_VALUE_PREFIX.length())),
+                cookieName.getBytes(StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException | GeneralSecurityException e) {
+            logger.debug("Ignoring cookie {} that cannot be decrypted: {}", cookieName, e.toString());
+            return null;
+        }
+        try {
+            return codec.decode(clear);
+        } catch (IOException e) {
+            throw new TechnicalException(e);
+        }
+    }
+
+    private String joinChunks(final WebContext context, final String cookieName, final String header) {
+        final int chunks = getChunkCount(header);
+        final StringBuilder joined = new StringBuilder(chunks * MAX_COOKIE_VALUE_LENGTH);
+        for (int i = 1; i <= chunks; i++) {
+            final Cookie chunk = ContextHelper.getCookie(context, cookieName + "." + i);
+            if (chunk == null || chunk.getValue() == null) {
+                logger.debug("Chunk {} of cookie {} is missing", i, cookieName);
+                return null;
+            }
+            joined.append(chunk.getValue());
+        }
+        return joined.toString();
+    }
+
+    private static int getChunkCount(final String header) {
+        if (header == null || !header.startsWith(CHUNKED_VALUE_PREFIX)) {
+            return 0;
+        }
+        try {
+            return Math.min(Integer.parseInt(header.substring(CHUNKED_VALUE_PREFIX.length())), MAX_CHUNKS);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
     @Override
     public Optional<Object> get(WebContext context, String key) {
-        final Cookie cookie = ContextHelper.getCookie(context, PAC4J_SESSION_PREFIX + key);
         Object value = null;
-        if (cookie != null) {
-            value = uncompressDecryptBase64(cookie.getValue());
+        if (sessions != null) {
+            final Map<String, Object> session = getServerSession(context, false);
+            if (session != null) {
+                value = session.get(key);
+            }
+        } else {
+            final String cookieName = PAC4J_SESSION_PREFIX + key;
+            final Cookie cookie = ContextHelper.getCookie(context, cookieName);
+            if (cookie != null && cookie.getValue() != null) {
+                final String v = cookie.getValue();
+                if (v.startsWith(CHUNKED_VALUE_PREFIX)) {
+                    value = decryptBinary(cookieName, joinChunks(context, cookieName, v));
+                } else if (v.startsWith(BINARY_VALUE_PREFIX)) {
+                    value = decryptBinary(cookieName, v);
+                } else {
+                    value = uncompressDecryptBase64(v);
+                }
+            }
         }
         logger.debug("Get from session: {} = {}", key, value);
         return Optional.ofNullable(value);
     }
 
+    private static boolean isEmpty(final Object o) {
+        return o == null || o.equals("")
+            || (o instanceof Map<?,?> && ((Map<?,?>)o).isEmpty());
+    }
+
+    private String encryptBinary(final String cookieName, final Object o) {
+        if (isEmpty(o)) {
+            return null;
+        }
+        try {
+            final byte[] sealed = cipher.encrypt(codec.encode(o), cookieName.getBytes(StandardCharsets.UTF_8));
+            return BINARY_VALUE_PREFIX + BASE64_URL_ENCODER.encodeToString(sealed);
+        } catch (IOException | GeneralSecurityException e) {
+            throw new TechnicalException(e);
+        }
+    }
+
     private String compressEncryptBase64(final Object o) {
-        if (o == null || o.equals("")
-            || (o instanceof Map<?,?> && ((Map<?,?>)o).isEmpty())) {
+        if (isEmpty(o)) {
             return null;
         } else {
             byte[] bytes = javaSerializationHelper.serializeToBytes((Serializable) o);
@@ -160,19 +333,54 @@ public class KnoxSessionStore<C extends WebContext> implements SessionStore<C> {
     @Override
     public void set(WebContext context, String key, Object value) {
         Object profile = value;
-        Cookie cookie;
+        final String cookieName = PAC4J_SESSION_PREFIX + key;
+        String cookieValue = null;
 
-        if (value == null) {
-            cookie = new Cookie(PAC4J_SESSION_PREFIX + key, null);
-        } else {
+        if (value != null) {
             if (key.contentEquals(Pac4jConstants.USER_PROFILES)) {
                 /* trim the profile object */
                 profile = clearUserProfile(value);
             }
             logger.debug("Save in session: {} = {}", key, profile);
-            cookie = new Cookie(PAC4J_SESSION_PREFIX + key,
-                compressEncryptBase64(profile));
+            if (sessions != null) {
+                setInServerSession(context, key, profile);
+                return;
+            }
+            cookieValue = cipher == null ? compressEncryptBase64(profile) : encryptBinary(cookieName, profile);
+        } else if (sessions != null) {
+            setInServerSession(context, key, null);
+            return;
         }
+
+        int chunks = 0;
+        if (cookieValue != null && cookieValue.length() > MAX_COOKIE_VALUE_LENGTH) {
+            final List<String> values = new ArrayList<>();
+            for (int start = 0; start < cookieValue.length(); start += MAX_COOKIE_VALUE_LENGTH) {
+                values.add(cookieValue.substring(start, Math.min(start + MAX_COOKIE_VALUE_LENGTH, cookieValue.length())));
+            }
+            if (values.size() > MAX_CHUNKS) {
+                throw new TechnicalException("Session value " + key + " is too big to be stored in cookies");
+            }
+            chunks = values.size();
+            addCookie(context, new Cookie(cookieName, CHUNKED_VALUE_PREFIX + chunks));
+            for (int i = 0; i < chunks; i++) {
+                addCookie(context, new Cookie(cookieName + "." + (i + 1), values.get(i)));
+            }
+        } else {
+            addCookie(context, new Cookie(cookieName, cookieValue));
+        }
+
+        /* expire the chunks of a previous, bigger value */
+        final Cookie previous = ContextHelper.getCookie(context, cookieName);
+        final int previousChunks = previous == null ? 0 : getChunkCount(previous.getValue());
+        for (int i = chunks + 1; i <= previousChunks; i++) {
+            final Cookie chunk = new Cookie(cookieName + "." + i, null);
+            chunk.setMaxAge(0);
+            addCookie(context, chunk);
+        }
+    }
+
+    private void addCookie(final WebContext context, final Cookie cookie) {
         try {
             String domain = Urls
                 .getDomainName(context.getFullRequestURL(), this.domainSuffix);
@@ -204,6 +412,44 @@ public class KnoxSessionStore<C extends WebContext> implements SessionStore<C> {
         context.addResponseCookie(cookie);
     }
 
+    private String serverSessionId(final WebContext context, final boolean create) {
+        String id = (String) context.getRequestAttribute(SESSION_ID_ATTRIBUTE).orElse(null);
+        if (id == null) {
+            final Cookie cookie = ContextHelper.getCookie(context, SESSION_ID_COOKIE);
+            id = cookie == null ? null : cookie.getValue();
+        }
+        if (id != null && sessions.getIfPresent(id) != null) {
+            return id;
+        }
+        return create ? startServerSession(context, new ConcurrentHashMap<>()) : null;
+    }
+
+    private String startServerSession(final WebContext context, final Map<String, Object> session) {
+        final byte[] bytes = new byte[32];
+        random.nextBytes(bytes);
+        final String id = BASE64_URL_ENCODER.encodeToString(bytes);
+        sessions.put(id, session);
+        context.setRequestAttribute(SESSION_ID_ATTRIBUTE, id);
+        addCookie(context, new Cookie(SESSION_ID_COOKIE, id));
+        return id;
+    }
+
+    private Map<String, Object> getServerSession(final WebContext context, final boolean create) {
+        final String id = serverSessionId(context, create);
+        return id == null ? null : sessions.getIfPresent(id);
+    }
+
+    private void setInServerSession(final WebContext context, final String key, final Object value) {
+        final Map<String, Object> session = getServerSession(context, !isEmpty(value));
+        if (session != null) {
+            if (isEmpty(value)) {
+                session.remove(key);
+            } else {
+                session.put(key, value);
+            }
+        }
+    }
+
     /**
      * A function used to compress the data using GZIP
      * @param data data to be compressed
@@ -286,8 +532,18 @@ public class KnoxSessionStore<C extends WebContext> implements SessionStore<C> {
     }
 
     @Override
-    public boolean destroySession(WebContext arg0) {
-        return false;
+    public boolean destroySession(WebContext context) {
+        if (sessions == null) {
+            return false;
+        }
+        final String id = serverSessionId(context, false);
+        if (id != null) {
+            sessions.invalidate(id);
+            final Cookie cookie = new Cookie(SESSION_ID_COOKIE, null);
+            cookie.setMaxAge(0);
+            addCookie(context, cookie);
+        }
+        return true;
     }
 
     @Override
@@ -295,8 +551,18 @@ public class KnoxSessionStore<C extends WebContext> implements SessionStore<C> {
         return Optional.empty();
     }
 
+    /* moves the values of a server side session to a new session id */
     @Override
     public boolean renewSession(final WebContext context) {
-        return false;
+        if (sessions == null) {
+            return false;
+        }
+        final String id = serverSessionId(context, false);
+        final Map<String, Object> session = id == null ? null : sessions.getIfPresent(id);
+        if (session != null) {
+            sessions.invalidate(id);
+            startServerSession(context, session);
+        }
+        return true;
     }
 }
@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.pac4j.session;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.pac4j.core.profile.CommonProfile;
+import org.pac4j.core.util.JavaSerializationHelper;
+import org.pac4j.saml.credentials.authenticator.SAML2Authenticator;
+import org.pac4j.saml.profile.SAML2Profile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+public class KnoxSessionCodecTest {
+  private final JavaSerializationHelper javaSerializationHelper = new JavaSerializationHelper();
+  private final KnoxSessionCodec codec = new KnoxSessionCodec(javaSerializationHelper);
+
+  @Test
+  public void testProfileRoundTrip() throws Exception {
+    final CommonProfile profile = new CommonProfile();
+    profile.setId("guest");
+    profile.setLinkedId("linked-guest");
+    profile.setClientName("OidcClient");
+    profile.setRemembered(true);
+    profile.addRoles(Arrays.asList("admin", "user"));
+    profile.addPermissions(Arrays.asList("read", "write"));
+    profile.addAttribute("email", "guest@example.com");
+    profile.addAttribute("verified", Boolean.TRUE);
+    profile.addAttribute("age", 42);
+    profile.addAttribute("updated_at", 1614556800L);
+    profile.addAttribute("score", 0.5d);
+    profile.addAttribute("expires", new Date(1614556800000L));
+    profile.addAttribute("groups", Arrays.asList("admin", "user"));
+    profile.addAttribute("profile", URI.create("https://example.com/guest"));
+    profile.addAuthenticationAttribute("auth_time", 1614556800L);
+
+    final CommonProfile decoded = (CommonProfile) codec.decode(codec.encode(profile));
+
+    Assert.assertEquals(CommonProfile.class, decoded.getClass());
+    Assert.assertEquals("guest", decoded.getId());
+    Assert.assertEquals("linked-guest", decoded.getLinkedId());
+    Assert.assertEquals("OidcClient", decoded.getClientName());
+    Assert.assertTrue(decoded.isRemembered());
+    Assert.assertEquals(profile.getRoles(), decoded.getRoles());
+    Assert.assertEquals(profile.getPermissions(), decoded.getPermissions());
+    Assert.assertEquals(profile.getAttributes(), decoded.getAttributes());
+    Assert.assertEquals(profile.getAuthenticationAttributes(), decoded.getAuthenticationAttributes());
+  }
+
+  @Test
+  public void testUserProfilesRoundTrip() throws Exception {
+    final SAML2Profile samlProfile = new SAML2Profile();
+    samlProfile.setId("guest");
+    samlProfile.addAttribute("groups", new HashSet<>(Arrays.asList("admin", "user")));
+    final Map<String, CommonProfile> profiles = new LinkedHashMap<>();
+    profiles.put("SAML2Client", samlProfile);
+
+    final Map<?, ?> decoded = (Map<?, ?>) codec.decode(codec.encode(profiles));
+
+    Assert.assertEquals(1, decoded.size());
+    final SAML2Profile decodedProfile = (SAML2Profile) decoded.get("SAML2Client");
+    Assert.assertEquals("guest", decodedProfile.getId());
+    Assert.assertEquals(samlProfile.getAttributes(), decodedProfile.getAttributes());
+  }
+
+  /*
+   * A SAML2Profile populated the way the SAML2Authenticator of pac4j does it. The codec writes the
+   * same fields as BasicUserProfile.writeExternal, so the profile getters see the same values.
+   */
+  @Test
+  public void testSAML2ProfileRoundTrip() throws Exception {
+    final SAML2Profile profile = new SAML2Profile();
+    profile.setId("guest");
+    profile.setClientName("SAML2Client");
+    profile.addAuthenticationAttribute(SAML2Authenticator.SESSION_INDEX, "_be9967abd904ddcae3c0eb4189adbe3f71e327cf93");
+    profile.addAuthenticationAttribute(SAML2Authenticator.SAML_NAME_ID_FORMAT,
+        "urn:oasis:names:tc:SAML:1.1:nameid-format:unspecified");
+    profile.addAuthenticationAttribute(SAML2Authenticator.SAML_NAME_ID_NAME_QUALIFIER, "https://idp.example.com");
+    profile.addAuthenticationAttribute(SAML2Authenticator.ISSUER_ID, "https://idp.example.com/saml2");
+    profile.addAuthenticationAttribute(SAML2Authenticator.AUTHN_CONTEXT,
+        Collections.singletonList("urn:oasis:names:tc:SAML:2.0:ac:classes:PasswordProtectedTransport"));
+    profile.addAttribute("email", "guest@example.com");
+    profile.addAttribute("memberOf", Arrays.asList("admin", "user"));
+
+    final SAML2Profile decoded = (SAML2Profile) codec.decode(codec.encode(profile));
+
+    Assert.assertEquals(SAML2Profile.class, decoded.getClass());
+    Assert.assertEquals("guest", decoded.getId());
+    Assert.assertEquals("SAML2Client", decoded.getClientName());
+    Assert.assertEquals(profile.getSessionIndex(), decoded.getSessionIndex());
+    Assert.assertEquals(profile.getSamlNameIdFormat(), decoded.getSamlNameIdFormat());
+    Assert.assertEquals(profile.getSamlNameIdNameQualifier(), decoded.getSamlNameIdNameQualifier());
+    Assert.assertNull(decoded.getSamlNameIdSpNameQualifier());
+    Assert.assertEquals(profile.getIssuerEntityID(), decoded.getIssuerEntityID());
+    Assert.assertEquals(profile.getAuthnContexts(), decoded.getAuthnContexts());
+    Assert.assertEquals(profile.getEmail(), decoded.getEmail());
+    Assert.assertEquals(profile.getAttributes(), decoded.getAttributes());
+    Assert.assertEquals(profile.getAuthenticationAttributes(), decoded.getAuthenticationAttributes());
+  }
+
+  @Test
+  public void testSimpleValuesRoundTrip() throws Exception {
+    Assert.assertEquals("https://localhost:8443/gateway/sandbox/webhdfs/v1",
+        codec.decode(codec.encode("https://localhost:8443/gateway/sandbox/webhdfs/v1")));
+    Assert.assertNull(codec.decode(codec.encode(null)));
+    final StringBuilder large = new StringBuilder(4096);
+    for (int i = 0; i < 256; i++) {
+      large.append("repeated ");
+    }
+    final byte[] encoded = codec.encode(large.toString());
+    Assert.assertTrue(encoded.length < large.length() / 4);
+    Assert.assertEquals(large.toString(), codec.decode(encoded));
+  }
+
+  @Test
+  public void testUnknownFormatIsRejected() {
+    final byte[] legacy = javaSerializationHelper.serializeToBytes("value");
+    Assert.assertThrows(IOException.class, () -> codec.decode(legacy));
+    Assert.assertThrows(IOException.class, () -> codec.decode(new byte[0]));
+  }
+
+  /*
+   * The binary format has to stay smaller than the compressed Java serialization it replaced,
+   * including for profiles with many group memberships.
+   */
+  @Test
+  public void testEncodedSizeRegression() throws Exception {
+    final List<String> groups = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      groups.add("cn=group" + i + ",ou=groups,dc=example,dc=com");
+    }
+    final SAML2Profile samlProfile = new SAML2Profile();
+    samlProfile.setId("guest");
+    samlProfile.addAttribute("email", "guest@example.com");
+    samlProfile.addAttribute("memberOf", groups);
+    samlProfile.addRoles(groups);
+    final LinkedHashMap<String, CommonProfile> profiles = new LinkedHashMap<>();
+    profiles.put("SAML2Client", samlProfile);
+
+    final int binaryLength = codec.encode(profiles).length;
+    final int javaLength = gzip(javaSerializationHelper.serializeToBytes(profiles)).length;
+    Assert.assertTrue("binary " + binaryLength + " bytes, java serialization " + javaLength + " bytes",
+        binaryLength < javaLength);
+
+    final CommonProfile small = new CommonProfile();
+    small.setId("guest");
+    small.addAttribute("email", "guest@example.com");
+    final int smallBinaryLength = codec.encode(small).length;
+    final int smallJavaLength = gzip(javaSerializationHelper.serializeToBytes(small)).length;
+    Assert.assertTrue("binary " + smallBinaryLength + " bytes, java serialization " + smallJavaLength + " bytes",
+        smallBinaryLength * 2 < smallJavaLength);
+  }
+
+  private static byte[] gzip(final byte[] data) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length);
+    try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+      gzip.write(data);
+    }
+    return bytes.toByteArray();
+  }
+
+  @Test
+  public void testNonSerializableValueIsRejected() {
+    final Object value = new Object();
+    Assert.assertFalse(value instanceof Serializable);
+    Assert.assertThrows(IOException.class, () -> codec.encode(value));
+  }
+}
@@ -17,23 +17,38 @@
  */
 package org.apache.knox.gateway.pac4j.session;
 
+import org.apache.commons.codec.binary.Base64;
 import org.apache.knox.gateway.services.security.AliasService;
 import org.apache.knox.gateway.services.security.AliasServiceException;
+import org.apache.knox.gateway.services.security.EncryptionResult;
 import org.apache.knox.gateway.services.security.impl.DefaultCryptoService;
 import org.easymock.Capture;
+import org.easymock.CaptureType;
 import org.easymock.EasyMock;
 import org.junit.Assert;
 import org.junit.Test;
+import org.pac4j.core.context.Cookie;
 import org.pac4j.core.context.WebContext;
 import org.pac4j.core.profile.CommonProfile;
+import org.pac4j.core.util.JavaSerializationHelper;
 import org.pac4j.core.util.Pac4jConstants;
+import org.pac4j.saml.credentials.authenticator.SAML2Authenticator;
 import org.pac4j.saml.profile.SAML2Profile;
 
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
 
 import static org.apache.knox.gateway.pac4j.filter.Pac4jDispatcherFilter.PAC4J_SESSION_STORE_EXCLUDE_CUSTOM_ATTRIBUTES;
 import static org.apache.knox.gateway.pac4j.filter.Pac4jDispatcherFilter.PAC4J_SESSION_STORE_EXCLUDE_GROUPS;
@@ -42,7 +57,10 @@ import static org.apache.knox.gateway.pac4j.filter.Pac4jDispatcherFilter.PAC4J_S
 import static org.apache.knox.gateway.pac4j.filter.Pac4jDispatcherFilter.PAC4J_SESSION_STORE_EXCLUDE_PERMISSIONS_DEFAULT;
 import static org.apache.knox.gateway.pac4j.filter.Pac4jDispatcherFilter.PAC4J_SESSION_STORE_EXCLUDE_ROLES;
 import static org.apache.knox.gateway.pac4j.filter.Pac4jDispatcherFilter.PAC4J_SESSION_STORE_EXCLUDE_ROLES_DEFAULT;
+import static org.apache.knox.gateway.pac4j.filter.Pac4jDispatcherFilter.PAC4J_SESSION_STORE_FORMAT;
+import static org.apache.knox.gateway.pac4j.filter.Pac4jDispatcherFilter.PAC4J_SESSION_STORE_MODE;
 import static org.apache.knox.gateway.pac4j.session.KnoxSessionStore.PAC4J_PASSWORD;
+import static org.apache.knox.gateway.pac4j.session.KnoxSessionStore.PAC4J_SESSION_PREFIX;
 
 public class KnoxSessionStoreTest {
   private static final String CLUSTER_NAME = "knox";
@@ -155,4 +173,210 @@ public class KnoxSessionStoreTest {
     Assert.assertNotNull(samlProfile.getAttribute("https://knox.apache.org/SAML/Attributes/groups"));
     Assert.assertNotNull(samlProfile.getAttribute("https://knox.apache.org/SAML/Attributes/groups2"));
   }
+
+  @Test
+  public void testBinaryCookieRoundTrip() throws AliasServiceException {
+    final AliasService aliasService = createAliasService();
+    final KnoxSessionStore sessionStore = new KnoxSessionStore(createCryptoService(aliasService), aliasService,
+        CLUSTER_NAME, null, new HashMap<>());
+    final List<String> groups = createGroups(10);
+
+    final Capture<Cookie> cookies = EasyMock.newCapture(CaptureType.ALL);
+    sessionStore.set(createContext(Collections.emptyList(), cookies), Pac4jConstants.USER_PROFILES, createProfiles(groups));
+
+    Assert.assertEquals(1, cookies.getValues().size());
+    final Cookie cookie = cookies.getValue();
+    Assert.assertEquals(PAC4J_SESSION_PREFIX + Pac4jConstants.USER_PROFILES, cookie.getName());
+    Assert.assertTrue(cookie.getValue().startsWith(KnoxSessionStore.BINARY_VALUE_PREFIX));
+
+    final Optional<Object> value = sessionStore.get(createContext(cookies.getValues(), EasyMock.newCapture()),
+        Pac4jConstants.USER_PROFILES);
+    Assert.assertTrue(value.isPresent());
+    final CommonProfile profile = (CommonProfile) ((Map<?, ?>) value.get()).get("SAML2Client");
+    Assert.assertEquals("guest", profile.getId());
+    Assert.assertEquals(groups, profile.getAttribute("memberOf"));
+
+    /* the value is bound to the name of its cookie */
+    final Cookie moved = new Cookie(PAC4J_SESSION_PREFIX + Pac4jConstants.REQUESTED_URL, cookie.getValue());
+    Assert.assertFalse(sessionStore.get(createContext(Collections.singletonList(moved), EasyMock.newCapture()),
+        Pac4jConstants.REQUESTED_URL).isPresent());
+  }
+
+  /*
+   * Cookies written by gateways that do not use the binary format yet have to stay readable.
+   */
+  @Test
+  public void testJavaSerializationCookieIsReadable() throws AliasServiceException {
+    final AliasService aliasService = createAliasService();
+    final DefaultCryptoService cryptoService = createCryptoService(aliasService);
+    final Map<String, String> sessionStoreConfigs = new HashMap<>();
+    sessionStoreConfigs.put(PAC4J_SESSION_STORE_FORMAT, "java");
+    final KnoxSessionStore javaSessionStore = new KnoxSessionStore(cryptoService, aliasService, CLUSTER_NAME, null,
+        sessionStoreConfigs);
+    final KnoxSessionStore binarySessionStore = new KnoxSessionStore(cryptoService, aliasService, CLUSTER_NAME, null,
+        new HashMap<>());
+    final List<String> groups = createGroups(10);
+
+    final Capture<Cookie> cookies = EasyMock.newCapture(CaptureType.ALL);
+    javaSessionStore.set(createContext(Collections.emptyList(), cookies), Pac4jConstants.USER_PROFILES, createProfiles(groups));
+    Assert.assertFalse(cookies.getValue().getValue().startsWith(KnoxSessionStore.BINARY_VALUE_PREFIX));
+
+    final Optional<Object> value = binarySessionStore.get(createContext(cookies.getValues(), EasyMock.newCapture()),
+        Pac4jConstants.USER_PROFILES);
+    Assert.assertTrue(value.isPresent());
+    Assert.assertEquals(groups, ((CommonProfile) ((Map<?, ?>) value.get()).get("SAML2Client")).getAttribute("memberOf"));
+  }
+
+  /*
+   * A cookie written by a gateway that predates the binary format: the gzipped Java serialization
+   * of the profiles, encrypted with the CryptoService of the cluster and Base64 encoded.
+   */
+  @Test
+  public void testLegacyJavaSerializationCookieIsReadable() throws Exception {
+    final AliasService aliasService = createAliasService();
+    final DefaultCryptoService cryptoService = createCryptoService(aliasService);
+    final KnoxSessionStore sessionStore = new KnoxSessionStore(cryptoService, aliasService, CLUSTER_NAME, null,
+        new HashMap<>());
+    final List<String> groups = createGroups(10);
+    final Map<String, CommonProfile> profiles = createProfiles(groups);
+    profiles.get("SAML2Client").addAuthenticationAttribute(SAML2Authenticator.SESSION_INDEX, "session-index");
+
+    final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+      gzip.write(new JavaSerializationHelper().serializeToBytes((Serializable) profiles));
+    }
+    final EncryptionResult encrypted = cryptoService.encryptForCluster(CLUSTER_NAME, PAC4J_PASSWORD,
+        compressed.toByteArray());
+    final Cookie legacy = new Cookie(PAC4J_SESSION_PREFIX + Pac4jConstants.USER_PROFILES,
+        Base64.encodeBase64String(encrypted.toByteAray()));
+
+    final Optional<Object> value = sessionStore.get(createContext(Collections.singletonList(legacy),
+        EasyMock.newCapture()), Pac4jConstants.USER_PROFILES);
+    Assert.assertTrue(value.isPresent());
+    final SAML2Profile profile = (SAML2Profile) ((Map<?, ?>) value.get()).get("SAML2Client");
+    Assert.assertEquals("guest", profile.getId());
+    Assert.assertEquals(groups, profile.getAttribute("memberOf"));
+    Assert.assertEquals("session-index", profile.getSessionIndex());
+  }
+
+  @Test
+  public void testLargeValueIsChunked() throws AliasServiceException {
+    final AliasService aliasService = createAliasService();
+    final KnoxSessionStore sessionStore = new KnoxSessionStore(createCryptoService(aliasService), aliasService,
+        CLUSTER_NAME, null, new HashMap<>());
+    final String cookieName = PAC4J_SESSION_PREFIX + Pac4jConstants.USER_PROFILES;
+    final List<String> groups = createGroups(400);
+
+    final Capture<Cookie> cookies = EasyMock.newCapture(CaptureType.ALL);
+    sessionStore.set(createContext(Collections.emptyList(), cookies), Pac4jConstants.USER_PROFILES, createProfiles(groups));
+
+    final int chunks = cookies.getValues().size() - 1;
+    Assert.assertTrue(chunks > 1);
+    Assert.assertEquals(cookieName, cookies.getValues().get(0).getName());
+    Assert.assertEquals(KnoxSessionStore.CHUNKED_VALUE_PREFIX + chunks, cookies.getValues().get(0).getValue());
+    for (int i = 1; i <= chunks; i++) {
+      final Cookie chunk = cookies.getValues().get(i);
+      Assert.assertEquals(cookieName + "." + i, chunk.getName());
+      Assert.assertTrue(chunk.getValue().length() <= KnoxSessionStore.MAX_COOKIE_VALUE_LENGTH);
+    }
+
+    final Optional<Object> value = sessionStore.get(createContext(cookies.getValues(), EasyMock.newCapture()),
+        Pac4jConstants.USER_PROFILES);
+    Assert.assertTrue(value.isPresent());
+    Assert.assertEquals(groups, ((CommonProfile) ((Map<?, ?>) value.get()).get("SAML2Client")).getAttribute("memberOf"));
+
+    /* a missing chunk makes the value unreadable rather than corrupt */
+    final List<Cookie> incomplete = new ArrayList<>(cookies.getValues());
+    incomplete.remove(chunks);
+    Assert.assertFalse(sessionStore.get(createContext(incomplete, EasyMock.newCapture()),
+        Pac4jConstants.USER_PROFILES).isPresent());
+
+    /* replacing the value with a small one expires the chunks */
+    final Capture<Cookie> replaced = EasyMock.newCapture(CaptureType.ALL);
+    sessionStore.set(createContext(cookies.getValues(), replaced), Pac4jConstants.USER_PROFILES, createProfiles(createGroups(1)));
+    Assert.assertEquals(1 + chunks, replaced.getValues().size());
+    Assert.assertTrue(replaced.getValues().get(0).getValue().startsWith(KnoxSessionStore.BINARY_VALUE_PREFIX));
+    for (int i = 1; i <= chunks; i++) {
+      Assert.assertEquals(cookieName + "." + i, replaced.getValues().get(i).getName());
+      Assert.assertNull(replaced.getValues().get(i).getValue());
+      Assert.assertEquals(0, replaced.getValues().get(i).getMaxAge());
+    }
+  }
+
+  @Test
+  public void testServerSideSession() throws AliasServiceException {
+    final AliasService aliasService = createAliasService();
+    final Map<String, String> sessionStoreConfigs = new HashMap<>();
+    sessionStoreConfigs.put(PAC4J_SESSION_STORE_MODE, "server");
+    final KnoxSessionStore sessionStore = new KnoxSessionStore(createCryptoService(aliasService), aliasService,
+        CLUSTER_NAME, null, sessionStoreConfigs);
+    final List<String> groups = createGroups(400);
+
+    final Capture<Cookie> cookies = EasyMock.newCapture(CaptureType.ALL);
+    sessionStore.set(createContext(Collections.emptyList(), cookies), Pac4jConstants.USER_PROFILES, createProfiles(groups));
+
+    /* only the session id is sent to the browser */
+    Assert.assertEquals(1, cookies.getValues().size());
+    Assert.assertEquals(KnoxSessionStore.SESSION_ID_COOKIE, cookies.getValue().getName());
+    Assert.assertTrue(cookies.getValue().getValue().length() < 64);
+
+    final WebContext context = createContext(cookies.getValues(), EasyMock.newCapture());
+    Assert.assertEquals(cookies.getValue().getValue(), sessionStore.getOrCreateSessionId(context));
+    final Optional<Object> value = sessionStore.get(context, Pac4jConstants.USER_PROFILES);
+    Assert.assertTrue(value.isPresent());
+    Assert.assertEquals(groups, ((CommonProfile) ((Map<?, ?>) value.get()).get("SAML2Client")).getAttribute("memberOf"));
+
+    /* an unknown session id finds nothing */
+    final Cookie unknown = new Cookie(KnoxSessionStore.SESSION_ID_COOKIE, UUID.randomUUID().toString());
+    Assert.assertFalse(sessionStore.get(createContext(Collections.singletonList(unknown), EasyMock.newCapture()),
+        Pac4jConstants.USER_PROFILES).isPresent());
+
+    Assert.assertTrue(sessionStore.destroySession(context));
+    Assert.assertFalse(sessionStore.get(context, Pac4jConstants.USER_PROFILES).isPresent());
+  }
+
+  private static AliasService createAliasService() throws AliasServiceException {
+    final AliasService aliasService = EasyMock.createNiceMock(AliasService.class);
+    EasyMock.expect(aliasService.getPasswordFromAliasForCluster(CLUSTER_NAME, PAC4J_PASSWORD, true))
+        .andReturn(PAC4J_PASSWORD.toCharArray()).anyTimes();
+    EasyMock.expect(aliasService.getPasswordFromAliasForCluster(CLUSTER_NAME, PAC4J_PASSWORD))
+        .andReturn(PAC4J_PASSWORD.toCharArray()).anyTimes();
+    EasyMock.replay(aliasService);
+    return aliasService;
+  }
+
+  private static DefaultCryptoService createCryptoService(final AliasService aliasService) {
+    final DefaultCryptoService cryptoService = new DefaultCryptoService();
+    cryptoService.setAliasService(aliasService);
+    return cryptoService;
+  }
+
+  private static WebContext createContext(final Collection<Cookie> requestCookies, final Capture<Cookie> responseCookies) {
+    final WebContext context = EasyMock.createNiceMock(WebContext.class);
+    EasyMock.expect(context.getFullRequestURL()).andReturn("https://local.com/gateway/knoxsso/").anyTimes();
+    EasyMock.expect(context.getRequestCookies()).andReturn(requestCookies).anyTimes();
+    EasyMock.expect(context.getRequestAttribute(EasyMock.anyString())).andReturn(Optional.empty()).anyTimes();
+    context.addResponseCookie(EasyMock.capture(responseCookies));
+    EasyMock.expectLastCall().anyTimes();
+    EasyMock.replay(context);
+    return context;
+  }
+
+  /* random group names, so the profile does not compress well */
+  private static List<String> createGroups(final int count) {
+    final List<String> groups = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      groups.add(UUID.randomUUID().toString());
+    }
+    return groups;
+  }
+
+  private static Map<String, CommonProfile> createProfiles(final List<String> groups) {
+    final SAML2Profile samlProfile = new SAML2Profile();
+    samlProfile.setId("guest");
+    samlProfile.addAttribute("memberOf", groups);
+    final Map<String, CommonProfile> profiles = new HashMap<>();
+    profiles.put("SAML2Client", samlProfile);
+    return profiles;
+  }
 }
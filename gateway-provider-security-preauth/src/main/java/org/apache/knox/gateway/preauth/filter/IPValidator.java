@@ -20,12 +20,20 @@ package org.apache.knox.gateway.preauth.filter;
 import javax.servlet.FilterConfig;
 import javax.servlet.http.HttpServletRequest;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.apache.knox.gateway.util.IpAddressValidator;
 
 public class IPValidator implements PreAuthValidator {
   public static final String IP_ADDRESSES_PARAM = "preauth.ip.addresses";
   public static final String IP_VALIDATION_METHOD_VALUE = "preauth.ip.validation";
 
+  private static final IpAddressValidator ANY_IP = new IpAddressValidator(null);
+
+  /* The address lists seen so far compiled once, there is one per topology using this validator */
+  private final Map<String, IpAddressValidator> validators = new ConcurrentHashMap<>();
+
   public IPValidator() {
   }
 
@@ -33,7 +41,7 @@ public class IPValidator implements PreAuthValidator {
   public boolean validate(HttpServletRequest httpRequest, FilterConfig filterConfig)
       throws PreAuthValidationException {
     String ipParam = filterConfig.getInitParameter(IP_ADDRESSES_PARAM);
-    IpAddressValidator ipv = new IpAddressValidator(ipParam);
+    IpAddressValidator ipv = ipParam == null ? ANY_IP : validators.computeIfAbsent(ipParam, IpAddressValidator::new);
     return ipv.validateIpAddress(httpRequest.getRemoteAddr());
   }
 
@@ -19,19 +19,24 @@
 package org.apache.knox.gateway.shirorealm;
 
 import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.naming.Context;
 import javax.naming.NamingException;
 import javax.naming.ldap.LdapContext;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
 import org.apache.knox.gateway.GatewayMessages;
 import org.apache.knox.gateway.GatewayServer;
 import org.apache.knox.gateway.i18n.messages.MessagesFactory;
 import org.apache.knox.gateway.services.ServiceType;
 import org.apache.knox.gateway.services.GatewayServices;
 import org.apache.knox.gateway.services.security.AliasService;
+import org.apache.knox.gateway.services.metrics.impl.DefaultMetricsService;
 import org.apache.knox.gateway.services.security.AliasServiceException;
 import org.apache.shiro.realm.ldap.JndiLdapContextFactory;
+import org.apache.shiro.util.Destroyable;
 
 /**
  * An extension of {@link JndiLdapContextFactory} that allows a different authentication mechanism
@@ -39,15 +44,28 @@ import org.apache.shiro.realm.ldap.JndiLdapContextFactory;
  * compared to regular authentication.
  *
  * <p>
+ * System contexts can be kept in a pool of <code>systemContextPoolSize</code> contexts
+ * instead of being bound for every lookup, see {@link LdapContextPool}.
+ * The pool is published to the gateway metrics under
+ * <code>ldap.&lt;clusterName&gt;.system-context-pool</code>.
+ *
+ * <p>
  * See {@link KnoxLdapRealm} for typical configuration within <tt>shiro.ini</tt>.
  */
-public class KnoxLdapContextFactory extends JndiLdapContextFactory {
+public class KnoxLdapContextFactory extends JndiLdapContextFactory implements Destroyable {
 
     private static GatewayMessages LOG = MessagesFactory.get( GatewayMessages.class );
 
+    private static final String POOL_METRICS_NAME = "system-context-pool";
+
     private String systemAuthenticationMechanism = "simple";
     private String clusterName = "";
 
+    private int systemContextPoolSize;
+    private long systemContextPoolMaxWait = 5000;
+    private long systemContextPoolValidationInterval = 30000;
+    private final AtomicReference<LdapContextPool> systemContextPool = new AtomicReference<>();
+
     public KnoxLdapContextFactory() {
       setAuthenticationMechanism("simple");
     }
@@ -61,6 +79,61 @@ public class KnoxLdapContextFactory extends JndiLdapContextFactory {
         return super.createLdapContext(env);
     }
 
+    @Override
+    public LdapContext getSystemLdapContext() throws NamingException {
+        if (systemContextPoolSize <= 0) {
+            return super.getSystemLdapContext();
+        }
+        return getSystemContextPool().borrow();
+    }
+
+    @Override
+    protected boolean isPoolingConnections(Object principal) {
+        // The JNDI connection pool is not needed when the contexts themselves are pooled
+        return systemContextPoolSize <= 0 && super.isPoolingConnections(principal);
+    }
+
+    LdapContextPool getSystemContextPool() {
+        LdapContextPool pool = systemContextPool.get();
+        if (pool == null) {
+            pool = new LdapContextPool(super::getSystemLdapContext, systemContextPoolSize,
+                systemContextPoolMaxWait, systemContextPoolValidationInterval);
+            if (systemContextPool.compareAndSet(null, pool)) {
+                registerPoolMetrics(pool);
+            } else {
+                pool = systemContextPool.get();
+            }
+        }
+        return pool;
+    }
+
+    private void registerPoolMetrics(LdapContextPool pool) {
+        MetricRegistry registry = DefaultMetricsService.getMetricRegistry();
+        register(registry, "size", pool::getSize);
+        register(registry, "active", pool::getActiveCount);
+        register(registry, "idle", pool::getIdleCount);
+        register(registry, "saturation", pool::getSaturation);
+        register(registry, "created", pool::getCreatedCount);
+        register(registry, "exhausted", pool::getExhaustedCount);
+        register(registry, "validation-failures", pool::getValidationFailureCount);
+    }
+
+    private void register(MetricRegistry registry, String name, Gauge<?> gauge) {
+        String metricName = MetricRegistry.name("ldap", clusterName, POOL_METRICS_NAME, name);
+        registry.remove(metricName);
+        registry.register(metricName, gauge);
+    }
+
+    @Override
+    public void destroy() {
+        LdapContextPool pool = systemContextPool.getAndSet(null);
+        if (pool != null) {
+            pool.close();
+            DefaultMetricsService.getMetricRegistry().removeMatching(
+                (name, metric) -> name.startsWith(MetricRegistry.name("ldap", clusterName, POOL_METRICS_NAME) + "."));
+        }
+    }
+
     public String getSystemAuthenticationMechanism() {
         return systemAuthenticationMechanism != null? systemAuthenticationMechanism: getAuthenticationMechanism();
     }
@@ -121,4 +194,38 @@ public class KnoxLdapContextFactory extends JndiLdapContextFactory {
         this.clusterName = clusterName.trim();
       }
     }
+
+    public int getSystemContextPoolSize() {
+      return systemContextPoolSize;
+    }
+
+    /**
+     * @param systemContextPoolSize the number of system contexts to keep, 0 to bind a new one for every lookup
+     */
+    public void setSystemContextPoolSize(int systemContextPoolSize) {
+      this.systemContextPoolSize = systemContextPoolSize;
+    }
+
+    public long getSystemContextPoolMaxWait() {
+      return systemContextPoolMaxWait;
+    }
+
+    /**
+     * @param systemContextPoolMaxWait milliseconds to wait for a pooled system context before failing the lookup
+     */
+    public void setSystemContextPoolMaxWait(long systemContextPoolMaxWait) {
+      this.systemContextPoolMaxWait = systemContextPoolMaxWait;
+    }
+
+    public long getSystemContextPoolValidationInterval() {
+      return systemContextPoolValidationInterval;
+    }
+
+    /**
+     * @param systemContextPoolValidationInterval milliseconds a pooled system context may be idle
+     *                                            before it is checked again, negative to never check
+     */
+    public void setSystemContextPoolValidationInterval(long systemContextPoolValidationInterval) {
+      this.systemContextPoolValidationInterval = systemContextPoolValidationInterval;
+    }
 }
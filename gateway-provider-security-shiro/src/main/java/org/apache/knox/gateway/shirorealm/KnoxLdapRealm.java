@@ -19,6 +19,11 @@
 
 package org.apache.knox.gateway.shirorealm;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import org.apache.knox.gateway.GatewayMessages;
 import org.apache.knox.gateway.audit.api.Action;
 import org.apache.knox.gateway.audit.api.ActionOutcome;
@@ -28,6 +33,7 @@ import org.apache.knox.gateway.audit.api.Auditor;
 import org.apache.knox.gateway.audit.api.ResourceType;
 import org.apache.knox.gateway.audit.log4j.audit.AuditConstants;
 import org.apache.knox.gateway.i18n.messages.MessagesFactory;
+import org.apache.knox.gateway.services.metrics.impl.DefaultMetricsService;
 import org.apache.knox.gateway.shirorealm.impl.i18n.KnoxShiroMessages;
 import org.apache.shiro.SecurityUtils;
 import org.apache.shiro.authc.AuthenticationInfo;
@@ -62,6 +68,10 @@ import javax.naming.ldap.LdapName;
 import javax.naming.ldap.PagedResultsControl;
 import javax.naming.ldap.PagedResultsResponseControl;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -73,6 +83,8 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -123,7 +135,29 @@ import java.util.regex.Pattern;
  *
  * securityManager.realms = $ldapRealm
  *
+ * # optional caching of successful logins and of group lookups, sizes of 0 disable them
+ * ldapRealm.authenticationCacheSize=10000
+ * ldapRealm.authenticationCacheTtl=60000
+ * ldapRealm.groupCacheSize=10000
+ * ldapRealm.groupCacheTtl=300000
+ * ldapRealm.groupCacheNegativeTtl=30000
+ *
+ * # optional pooling of the system contexts used for group and user searches
+ * ldapRealm.contextFactory.systemContextPoolSize=10
+ * ldapRealm.contextFactory.systemContextPoolMaxWait=5000
+ * ldapRealm.contextFactory.systemContextPoolValidationInterval=30000
+ *
  * </pre>
+ *
+ * <p>
+ * The authentication cache keeps, per user, a salted SHA-256 hash of the last credentials
+ * that bound successfully. A login with other credentials always goes to LDAP; if that bind
+ * succeeds it replaces the cached entry, if it fails the user is evicted, so a password change
+ * takes effect on the first login with the new password and stale credentials are accepted
+ * at most for <code>authenticationCacheTtl</code> milliseconds.
+ * The group cache keeps the roles and groups looked up for a user, users without any group
+ * are kept for the shorter <code>groupCacheNegativeTtl</code>.
+ * Hit rates and sizes are published to the gateway metrics under <code>ldap.&lt;clusterName&gt;</code>.
  */
 public class KnoxLdapRealm extends DefaultLdapRealm {
 
@@ -151,6 +185,9 @@ public class KnoxLdapRealm extends DefaultLdapRealm {
 
     private static final String HASHING_ALGORITHM = "SHA-256";
 
+  private static final String AUTHENTICATION_CACHE_METRICS_NAME = "authentication-cache";
+  private static final String GROUP_CACHE_METRICS_NAME = "group-cache";
+
     static {
           SUBTREE_SCOPE.setSearchScope(SearchControls.SUBTREE_SCOPE);
           ONELEVEL_SCOPE.setSearchScope(SearchControls.ONELEVEL_SCOPE);
@@ -188,10 +225,116 @@ public class KnoxLdapRealm extends DefaultLdapRealm {
 
     private HashService hashService = new DefaultHashService();
 
+  private long authenticationCacheSize;
+  private long authenticationCacheTtl = 60000;
+  private long groupCacheSize;
+  private long groupCacheTtl = 300000;
+  private long groupCacheNegativeTtl = 30000;
+
+  private final byte[] credentialsSalt = new byte[32];
+  private Cache<String, CachedAuthentication> authenticationCache;
+  private final AtomicLong authenticationCacheHits = new AtomicLong();
+  private final AtomicLong authenticationCacheMisses = new AtomicLong();
+  private Cache<String, RoleLookup> groupCache;
+
     public KnoxLdapRealm() {
       HashedCredentialsMatcher credentialsMatcher = new HashedCredentialsMatcher(HASHING_ALGORITHM);
       setCredentialsMatcher(credentialsMatcher);
+      new SecureRandom().nextBytes(credentialsSalt);
+    }
+
+  @Override
+  protected void onInit() {
+    super.onInit();
+    if (authenticationCacheSize > 0) {
+      authenticationCache = Caffeine.newBuilder()
+          .maximumSize(authenticationCacheSize)
+          .expireAfterWrite(authenticationCacheTtl, TimeUnit.MILLISECONDS)
+          .build();
+    }
+    if (groupCacheSize > 0) {
+      groupCache = Caffeine.newBuilder()
+          .maximumSize(groupCacheSize)
+          .expireAfter(new RoleLookupExpiry(TimeUnit.MILLISECONDS.toNanos(groupCacheTtl),
+              TimeUnit.MILLISECONDS.toNanos(groupCacheNegativeTtl)))
+          .recordStats()
+          .build();
+    }
+    registerCacheMetrics();
+  }
+
+  private void registerCacheMetrics() {
+    MetricRegistry registry = DefaultMetricsService.getMetricRegistry();
+    final Cache<String, CachedAuthentication> authenticationCache = this.authenticationCache;
+    if (authenticationCache != null) {
+      register(registry, AUTHENTICATION_CACHE_METRICS_NAME, "hit-rate", this::getAuthenticationCacheHitRate);
+      register(registry, AUTHENTICATION_CACHE_METRICS_NAME, "size", authenticationCache::estimatedSize);
     }
+    final Cache<String, RoleLookup> groupCache = this.groupCache;
+    if (groupCache != null) {
+      register(registry, GROUP_CACHE_METRICS_NAME, "hit-rate", () -> groupCache.stats().hitRate());
+      register(registry, GROUP_CACHE_METRICS_NAME, "size", groupCache::estimatedSize);
+    }
+  }
+
+  private void register(MetricRegistry registry, String cacheName, String name, Gauge<?> gauge) {
+    String metricName = MetricRegistry.name("ldap", getMetricsScope(), cacheName, name);
+    registry.remove(metricName);
+    registry.register(metricName, gauge);
+  }
+
+  private String getMetricsScope() {
+    LdapContextFactory contextFactory = getContextFactory();
+    if (contextFactory instanceof KnoxLdapContextFactory) {
+      return ((KnoxLdapContextFactory) contextFactory).getClusterName();
+    }
+    return getName();
+  }
+
+  private double getAuthenticationCacheHitRate() {
+    long hits = authenticationCacheHits.get();
+    long total = hits + authenticationCacheMisses.get();
+    return total == 0 ? 1.0 : (double) hits / total;
+  }
+
+  @Override
+  protected AuthenticationInfo queryForAuthenticationInfo(AuthenticationToken token,
+      LdapContextFactory ldapContextFactory) throws NamingException {
+    final Cache<String, CachedAuthentication> authenticationCache = this.authenticationCache;
+    if (authenticationCache == null || token.getPrincipal() == null || token.getCredentials() == null) {
+      return super.queryForAuthenticationInfo(token, ldapContextFactory);
+    }
+    String username = token.getPrincipal().toString();
+    byte[] credentialsKey = credentialsKey(username, token.getCredentials());
+    CachedAuthentication cached = authenticationCache.getIfPresent(username);
+    if (cached != null && MessageDigest.isEqual(cached.credentialsKey, credentialsKey)) {
+      authenticationCacheHits.incrementAndGet();
+      return cached.info;
+    }
+    authenticationCacheMisses.incrementAndGet();
+    try {
+      AuthenticationInfo info = super.queryForAuthenticationInfo(token, ldapContextFactory);
+      authenticationCache.put(username, new CachedAuthentication(credentialsKey, info));
+      return info;
+    } catch (NamingException | RuntimeException e) {
+      authenticationCache.invalidate(username);
+      throw e;
+    }
+  }
+
+  private byte[] credentialsKey(String username, Object credentials) {
+    String password = credentials instanceof char[] ? new String((char[]) credentials) : credentials.toString();
+    try {
+      MessageDigest digest = MessageDigest.getInstance(HASHING_ALGORITHM);
+      digest.update(credentialsSalt);
+      digest.update(username.getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+      digest.update(password.getBytes(StandardCharsets.UTF_8));
+      return digest.digest();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
 
   @Override
   //KNOX-534 overriding this method to be able to audit authentication exceptions
@@ -234,23 +377,40 @@ public class KnoxLdapRealm extends DefaultLdapRealm {
         return simpleAuthorizationInfo;
     }
 
-    private Set<String> getRoles(PrincipalCollection principals,
-        final LdapContextFactory ldapContextFactory) throws NamingException {
-        final String username = (String) getAvailablePrincipal(principals);
+  private Set<String> getRoles(PrincipalCollection principals,
+      final LdapContextFactory ldapContextFactory) throws NamingException {
+    final String username = (String) getAvailablePrincipal(principals);
 
-        LdapContext systemLdapCtx = null;
-        try {
-            systemLdapCtx = ldapContextFactory.getSystemLdapContext();
-            return rolesFor(principals, username, systemLdapCtx, ldapContextFactory);
-        } catch (AuthenticationException e) {
-          LOG.failedToGetSystemLdapConnection(e);
-          return Collections.emptySet();
-        } finally {
-            LdapUtils.closeContext(systemLdapCtx);
-        }
+    final Cache<String, RoleLookup> groupCache = this.groupCache;
+    RoleLookup lookup = groupCache == null ? null : groupCache.getIfPresent(username);
+    if (lookup == null) {
+      LdapContext systemLdapCtx = null;
+      try {
+        systemLdapCtx = ldapContextFactory.getSystemLdapContext();
+        lookup = rolesFor(username, systemLdapCtx, ldapContextFactory);
+      } catch (AuthenticationException e) {
+        LOG.failedToGetSystemLdapConnection(e);
+        return Collections.emptySet();
+      } finally {
+        LdapUtils.closeContext(systemLdapCtx);
+      }
+      if (groupCache != null) {
+        groupCache.put(username, lookup);
+      }
     }
 
-    private Set<String> rolesFor(PrincipalCollection principals, final String userName, final LdapContext ldapCtx,
+    // save role names and group names in session so that they can be easily looked up outside of this object
+    SecurityUtils.getSubject().getSession().setAttribute(SUBJECT_USER_ROLES, new HashSet<>(lookup.roleNames));
+    SecurityUtils.getSubject().getSession().setAttribute(SUBJECT_USER_GROUPS, new HashSet<>(lookup.groupNames));
+    if (!lookup.groupNames.isEmpty() && (principals instanceof MutablePrincipalCollection)) {
+      ((MutablePrincipalCollection)principals).addAll(lookup.groupNames, getName());
+    }
+    LOG.lookedUpUserRoles(lookup.roleNames, username);
+
+    return new HashSet<>(lookup.roleNames);
+  }
+
+    private RoleLookup rolesFor(final String userName, final LdapContext ldapCtx,
         final LdapContextFactory ldapContextFactory) throws NamingException {
       final Set<String> roleNames = new HashSet<>();
       final Set<String> groupNames = new HashSet<>();
@@ -316,15 +476,7 @@ public class KnoxLdapRealm extends DefaultLdapRealm {
         LOG.unableToSetupPagedResults();
       }
 
-      // save role names and group names in session so that they can be easily looked up outside of this object
-      SecurityUtils.getSubject().getSession().setAttribute(SUBJECT_USER_ROLES, roleNames);
-      SecurityUtils.getSubject().getSession().setAttribute(SUBJECT_USER_GROUPS, groupNames);
-      if (!groupNames.isEmpty() && (principals instanceof MutablePrincipalCollection)) {
-        ((MutablePrincipalCollection)principals).addAll(groupNames, getName());
-      }
-      LOG.lookedUpUserRoles(roleNames, userName);
-
-      return roleNames;
+      return new RoleLookup(roleNames, groupNames);
     }
 
   private void addRoleIfMember(final String userDn, final SearchResult group,
@@ -504,6 +656,61 @@ public class KnoxLdapRealm extends DefaultLdapRealm {
       this.userSearchAttributeName = userSearchAttributeName;
     }
 
+  public long getAuthenticationCacheSize() {
+    return authenticationCacheSize;
+  }
+
+  /**
+   * @param authenticationCacheSize the number of users whose last successful login is cached, 0 to disable
+   */
+  public void setAuthenticationCacheSize(long authenticationCacheSize) {
+    this.authenticationCacheSize = authenticationCacheSize;
+  }
+
+  public long getAuthenticationCacheTtl() {
+    return authenticationCacheTtl;
+  }
+
+  /**
+   * @param authenticationCacheTtl milliseconds a successful login is cached for
+   */
+  public void setAuthenticationCacheTtl(long authenticationCacheTtl) {
+    this.authenticationCacheTtl = authenticationCacheTtl;
+  }
+
+  public long getGroupCacheSize() {
+    return groupCacheSize;
+  }
+
+  /**
+   * @param groupCacheSize the number of users whose groups are cached, 0 to disable
+   */
+  public void setGroupCacheSize(long groupCacheSize) {
+    this.groupCacheSize = groupCacheSize;
+  }
+
+  public long getGroupCacheTtl() {
+    return groupCacheTtl;
+  }
+
+  /**
+   * @param groupCacheTtl milliseconds the groups of a user are cached for
+   */
+  public void setGroupCacheTtl(long groupCacheTtl) {
+    this.groupCacheTtl = groupCacheTtl;
+  }
+
+  public long getGroupCacheNegativeTtl() {
+    return groupCacheNegativeTtl;
+  }
+
+  /**
+   * @param groupCacheNegativeTtl milliseconds a user found in no group is cached for
+   */
+  public void setGroupCacheNegativeTtl(long groupCacheNegativeTtl) {
+    this.groupCacheNegativeTtl = groupCacheNegativeTtl;
+  }
+
     public String getUserObjectClass() {
       return userObjectClass;
     }
@@ -762,4 +969,49 @@ public class KnoxLdapRealm extends DefaultLdapRealm {
     return output;
   }
 
+  private static class CachedAuthentication {
+    private final byte[] credentialsKey;
+    private final AuthenticationInfo info;
+
+    CachedAuthentication(byte[] credentialsKey, AuthenticationInfo info) {
+      this.credentialsKey = credentialsKey;
+      this.info = info;
+    }
+  }
+
+  private static class RoleLookup {
+    private final Set<String> roleNames;
+    private final Set<String> groupNames;
+
+    RoleLookup(Set<String> roleNames, Set<String> groupNames) {
+      this.roleNames = Collections.unmodifiableSet(roleNames);
+      this.groupNames = Collections.unmodifiableSet(groupNames);
+    }
+  }
+
+  /* Users found in no group are kept for a shorter time than users with groups */
+  private static class RoleLookupExpiry implements Expiry<String, RoleLookup> {
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+
+    RoleLookupExpiry(long ttlNanos, long negativeTtlNanos) {
+      this.ttlNanos = ttlNanos;
+      this.negativeTtlNanos = negativeTtlNanos;
+    }
+
+    @Override
+    public long expireAfterCreate(String username, RoleLookup lookup, long currentTime) {
+      return lookup.groupNames.isEmpty() && lookup.roleNames.isEmpty() ? negativeTtlNanos : ttlNanos;
+    }
+
+    @Override
+    public long expireAfterUpdate(String username, RoleLookup lookup, long currentTime, long currentDuration) {
+      return expireAfterCreate(username, lookup, currentTime);
+    }
+
+    @Override
+    public long expireAfterRead(String username, RoleLookup lookup, long currentTime, long currentDuration) {
+      return currentDuration;
+    }
+  }
 }
@@ -0,0 +1,279 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package org.apache.knox.gateway.shirorealm;
+
+import javax.naming.CommunicationException;
+import javax.naming.InterruptedNamingException;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.ldap.LdapContext;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of LDAP contexts bound as the same identity.
+ *
+ * Borrowed contexts are proxies whose <code>close()</code> hands the context back to
+ * the pool instead of closing the connection. Request controls and any environment
+ * changes made by the borrower are reset on return, contexts that failed with a
+ * communication error are discarded. Idle contexts are checked with a root DSE
+ * lookup before being handed out again once they have been idle longer than the
+ * validation interval. When all contexts are in use a borrower waits up to the
+ * configured time and then gets a {@link ServiceUnavailableException}.
+ */
+class LdapContextPool {
+
+  interface ContextSource {
+    LdapContext create() throws NamingException;
+  }
+
+  private static final String[] NO_ATTRIBUTES = new String[0];
+
+  private final ContextSource source;
+  private final int size;
+  private final long maxWaitMillis;
+  private final long validationIntervalMillis;
+  private final Semaphore permits;
+  private final Deque<PooledContext> idle = new LinkedBlockingDeque<>();
+  private final AtomicBoolean closed = new AtomicBoolean();
+  private final AtomicInteger active = new AtomicInteger();
+  private final AtomicLong created = new AtomicLong();
+  private final AtomicLong exhausted = new AtomicLong();
+  private final AtomicLong validationFailures = new AtomicLong();
+
+  LdapContextPool(ContextSource source, int size, long maxWaitMillis, long validationIntervalMillis) {
+    this.source = source;
+    this.size = size;
+    this.maxWaitMillis = Math.max(0, maxWaitMillis);
+    this.validationIntervalMillis = validationIntervalMillis;
+    this.permits = new Semaphore(size, true);
+  }
+
+  LdapContext borrow() throws NamingException {
+    if (closed.get()) {
+      throw new ServiceUnavailableException("LDAP context pool is closed");
+    }
+    try {
+      if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+        exhausted.incrementAndGet();
+        throw new ServiceUnavailableException("No LDAP context available within " + maxWaitMillis
+            + " ms, all " + size + " pooled contexts are in use");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedNamingException("Interrupted waiting for a pooled LDAP context");
+    }
+    try {
+      PooledContext pooled = take();
+      active.incrementAndGet();
+      return (LdapContext) Proxy.newProxyInstance(LdapContext.class.getClassLoader(),
+          new Class<?>[]{LdapContext.class}, new Lease(pooled));
+    } catch (NamingException | RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  void close() {
+    if (closed.compareAndSet(false, true)) {
+      PooledContext pooled;
+      while ((pooled = idle.pollFirst()) != null) {
+        closeQuietly(pooled.context);
+      }
+    }
+  }
+
+  int getSize() {
+    return size;
+  }
+
+  int getActiveCount() {
+    return active.get();
+  }
+
+  int getIdleCount() {
+    return idle.size();
+  }
+
+  /**
+   * @return the share of the pool currently borrowed, between 0 and 1
+   */
+  double getSaturation() {
+    return (double) active.get() / size;
+  }
+
+  long getCreatedCount() {
+    return created.get();
+  }
+
+  long getExhaustedCount() {
+    return exhausted.get();
+  }
+
+  long getValidationFailureCount() {
+    return validationFailures.get();
+  }
+
+  private PooledContext take() throws NamingException {
+    PooledContext pooled;
+    while ((pooled = idle.pollFirst()) != null) {
+      if (isValid(pooled)) {
+        return pooled;
+      }
+      validationFailures.incrementAndGet();
+      closeQuietly(pooled.context);
+    }
+    LdapContext context = source.create();
+    created.incrementAndGet();
+    return new PooledContext(context);
+  }
+
+  private boolean isValid(PooledContext pooled) {
+    if (validationIntervalMillis < 0
+        || System.currentTimeMillis() - pooled.lastUsed < validationIntervalMillis) {
+      return true;
+    }
+    try {
+      pooled.context.getAttributes("", NO_ATTRIBUTES);
+      return true;
+    } catch (NamingException e) {
+      return false;
+    }
+  }
+
+  private void giveBack(PooledContext pooled, boolean dirty, boolean broken) {
+    try {
+      active.decrementAndGet();
+      if (broken || closed.get()) {
+        closeQuietly(pooled.context);
+        return;
+      }
+      try {
+        reset(pooled, dirty);
+      } catch (NamingException e) {
+        closeQuietly(pooled.context);
+        return;
+      }
+      pooled.lastUsed = System.currentTimeMillis();
+      idle.offerFirst(pooled);
+      /* The pool may have been closed while the context was being returned */
+      if (closed.get() && idle.remove(pooled)) {
+        closeQuietly(pooled.context);
+      }
+    } finally {
+      permits.release();
+    }
+  }
+
+  private static void reset(PooledContext pooled, boolean dirty) throws NamingException {
+    pooled.context.setRequestControls(null);
+    if (dirty) {
+      Map<?, ?> current = pooled.context.getEnvironment();
+      for (Object key : current.keySet()) {
+        if (!pooled.environment.containsKey(key)) {
+          pooled.context.removeFromEnvironment(key.toString());
+        }
+      }
+      for (Map.Entry<?, ?> entry : pooled.environment.entrySet()) {
+        if (!Objects.equals(entry.getValue(), current.get(entry.getKey()))) {
+          pooled.context.addToEnvironment(entry.getKey().toString(), entry.getValue());
+        }
+      }
+    }
+  }
+
+  private static void closeQuietly(LdapContext context) {
+    try {
+      context.close();
+    } catch (NamingException e) {
+      // The context is being discarded anyway.
+    }
+  }
+
+  private static class PooledContext {
+    private final LdapContext context;
+    private final Map<?, ?> environment;
+    private long lastUsed;
+
+    PooledContext(LdapContext context) throws NamingException {
+      this.context = context;
+      this.environment = new HashMap<>(context.getEnvironment());
+      this.lastUsed = System.currentTimeMillis();
+    }
+  }
+
+  /* One borrowing of a pooled context, it can be returned only once */
+  private class Lease implements InvocationHandler {
+    private final PooledContext pooled;
+    private final AtomicBoolean returned = new AtomicBoolean();
+    private boolean dirty;
+    private boolean broken;
+
+    Lease(PooledContext pooled) {
+      this.pooled = pooled;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      switch (method.getName()) {
+        case "close":
+          if (returned.compareAndSet(false, true)) {
+            giveBack(pooled, dirty, broken);
+          }
+          return null;
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "toString":
+          return "PooledLdapContext@" + Integer.toHexString(System.identityHashCode(proxy));
+        case "addToEnvironment":
+        case "removeFromEnvironment":
+          dirty = true;
+          break;
+        default:
+          break;
+      }
+      if (returned.get()) {
+        throw new IllegalStateException("LDAP context used after it was returned to the pool");
+      }
+      try {
+        return method.invoke(pooled.context, args);
+      } catch (InvocationTargetException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof CommunicationException || cause instanceof ServiceUnavailableException) {
+          broken = true;
+        }
+        throw cause;
+      }
+    }
+  }
+}
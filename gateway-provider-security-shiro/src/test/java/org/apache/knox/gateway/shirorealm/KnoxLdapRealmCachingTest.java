@@ -0,0 +1,249 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package org.apache.knox.gateway.shirorealm;
+
+import com.codahale.metrics.Gauge;
+import org.apache.directory.server.protocol.shared.transport.TcpTransport;
+import org.apache.knox.gateway.security.ldap.SimpleLdapDirectoryServer;
+import org.apache.knox.gateway.services.metrics.impl.DefaultMetricsService;
+import org.apache.knox.test.TestUtils;
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.authc.AuthenticationException;
+import org.apache.shiro.authc.UsernamePasswordToken;
+import org.apache.shiro.mgt.DefaultSecurityManager;
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.util.ThreadContext;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.InitialDirContext;
+import javax.naming.directory.ModificationItem;
+import javax.naming.ldap.LdapContext;
+import java.io.File;
+import java.util.Hashtable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class KnoxLdapRealmCachingTest {
+  private static final String CLUSTER = "ldap-caching-test";
+  private static final String PEOPLE = "ou=people,dc=hadoop,dc=apache,dc=org";
+
+  private static SimpleLdapDirectoryServer ldap;
+  private static String ldapUrl;
+
+  private KnoxLdapContextFactory contextFactory;
+  private KnoxLdapRealm realm;
+
+  @BeforeClass
+  public static void setupLdap() throws Exception {
+    File ldif = new File( TestUtils.getResourceUrl( KnoxLdapRealmCachingTest.class, "users.ldif" ).toURI() );
+    TcpTransport transport = new TcpTransport( 0 );
+    ldap = new SimpleLdapDirectoryServer( "dc=hadoop,dc=apache,dc=org", ldif, transport );
+    ldap.start();
+    ldapUrl = "ldap://localhost:" + transport.getAcceptor().getLocalAddress().getPort();
+  }
+
+  @AfterClass
+  public static void cleanupLdap() throws Exception {
+    if( ldap != null ) {
+      ldap.stop( true );
+    }
+  }
+
+  @Before
+  public void setUp() {
+    contextFactory = new KnoxLdapContextFactory();
+    contextFactory.setUrl( ldapUrl );
+    contextFactory.setSystemUsername( "uid=guest," + PEOPLE );
+    contextFactory.setSystemPassword( "guest-password" );
+    contextFactory.setClusterName( CLUSTER );
+
+    realm = new KnoxLdapRealm();
+    realm.setContextFactory( contextFactory );
+    realm.setUserDnTemplate( "uid={0}," + PEOPLE );
+    realm.setSearchBase( "ou=groups,dc=hadoop,dc=apache,dc=org" );
+    realm.setMemberAttributeValueTemplate( "uid={0}," + PEOPLE );
+    realm.setAuthorizationEnabled( true );
+  }
+
+  @After
+  public void tearDown() {
+    ThreadContext.unbindSubject();
+    SecurityUtils.setSecurityManager( null );
+    contextFactory.destroy();
+  }
+
+  @Test
+  public void testAuthenticationCacheIsInvalidatedOnPasswordChange() throws Exception {
+    realm.setAuthenticationCacheSize( 100 );
+    realm.setAuthenticationCacheTtl( 60000 );
+    realm.init();
+
+    assertNotNull( realm.getAuthenticationInfo( new UsernamePasswordToken( "tom", "tom-password" ) ) );
+    assertNotNull( realm.getAuthenticationInfo( new UsernamePasswordToken( "tom", "tom-password" ) ) );
+    assertEquals( 0.5, (Double)gauge( "authentication-cache.hit-rate" ), 0.0 );
+
+    setPassword( "tom", "tom-new-password" );
+    try {
+      // Still cached until the user logs in with other credentials or the entry expires
+      assertNotNull( realm.getAuthenticationInfo( new UsernamePasswordToken( "tom", "tom-password" ) ) );
+
+      assertNotNull( realm.getAuthenticationInfo( new UsernamePasswordToken( "tom", "tom-new-password" ) ) );
+      // The old password must not be accepted after logging in with the new one
+      assertThrows( AuthenticationException.class,
+          () -> realm.getAuthenticationInfo( new UsernamePasswordToken( "tom", "tom-password" ) ) );
+      assertNotNull( realm.getAuthenticationInfo( new UsernamePasswordToken( "tom", "tom-new-password" ) ) );
+      assertEquals( 1L, gauge( "authentication-cache.size" ) );
+    } finally {
+      setPassword( "tom", "tom-password" );
+    }
+  }
+
+  @Test
+  public void testFailedLoginIsNotCached() throws Exception {
+    realm.setAuthenticationCacheSize( 100 );
+    realm.init();
+
+    for( int i = 0; i < 2; i++ ) {
+      assertThrows( AuthenticationException.class,
+          () -> realm.getAuthenticationInfo( new UsernamePasswordToken( "sam", "wrong-password" ) ) );
+    }
+    assertEquals( 0.0, (Double)gauge( "authentication-cache.hit-rate" ), 0.0 );
+    assertEquals( 0L, gauge( "authentication-cache.size" ) );
+  }
+
+  @Test
+  public void testGroupLookupsAreCached() throws Exception {
+    realm.setGroupCacheSize( 100 );
+    realm.init();
+    SecurityUtils.setSecurityManager( new DefaultSecurityManager( realm ) );
+
+    Subject subject = SecurityUtils.getSubject();
+    subject.login( new UsernamePasswordToken( "sam", "sam-password" ) );
+    assertTrue( subject.hasRole( "analyst" ) );
+    assertTrue( subject.hasRole( "scientist" ) );
+    assertEquals( 0.5, (Double)gauge( "group-cache.hit-rate" ), 0.0 );
+    assertTrue( subject.getPrincipals().asList().contains( "analyst" ) );
+    subject.logout();
+
+    // Users without groups are cached as well
+    subject = SecurityUtils.getSubject();
+    subject.login( new UsernamePasswordToken( "tom", "tom-password" ) );
+    assertFalse( subject.hasRole( "analyst" ) );
+    assertFalse( subject.hasRole( "analyst" ) );
+    assertEquals( 0.5, (Double)gauge( "group-cache.hit-rate" ), 0.0 );
+    assertEquals( 2L, gauge( "group-cache.size" ) );
+  }
+
+  @Test
+  public void testGroupCacheNegativeEntriesExpireFirst() throws Exception {
+    realm.setGroupCacheSize( 100 );
+    realm.setGroupCacheNegativeTtl( 0 );
+    realm.init();
+    SecurityUtils.setSecurityManager( new DefaultSecurityManager( realm ) );
+
+    Subject subject = SecurityUtils.getSubject();
+    subject.login( new UsernamePasswordToken( "tom", "tom-password" ) );
+    assertFalse( subject.hasRole( "analyst" ) );
+    assertFalse( subject.hasRole( "analyst" ) );
+    assertEquals( 0.0, (Double)gauge( "group-cache.hit-rate" ), 0.0 );
+  }
+
+  @Test
+  public void testSystemContextPoolExhaustion() throws Exception {
+    contextFactory.setSystemContextPoolSize( 2 );
+    contextFactory.setSystemContextPoolMaxWait( 100 );
+
+    LdapContext first = contextFactory.getSystemLdapContext();
+    LdapContext second = contextFactory.getSystemLdapContext();
+    assertEquals( 1.0, (Double)poolGauge( "saturation" ), 0.0 );
+    assertThrows( ServiceUnavailableException.class, () -> contextFactory.getSystemLdapContext() );
+    assertEquals( 1L, poolGauge( "exhausted" ) );
+
+    Object referral = first.getEnvironment().get( Context.REFERRAL );
+    first.addToEnvironment( Context.REFERRAL, "throw" );
+    first.close();
+    first.close();
+    assertEquals( 1, poolGauge( "active" ) );
+    assertEquals( 1, poolGauge( "idle" ) );
+
+    LdapContext third = contextFactory.getSystemLdapContext();
+    assertEquals( referral, third.getEnvironment().get( Context.REFERRAL ) );
+    assertNotNull( third.getAttributes( "uid=sam," + PEOPLE ) );
+    // A returned context must not be usable
+    assertThrows( IllegalStateException.class, first::getEnvironment );
+    third.close();
+    second.close();
+    assertEquals( 2L, poolGauge( "created" ) );
+    assertEquals( 0.0, (Double)poolGauge( "saturation" ), 0.0 );
+  }
+
+  @Test
+  public void testGroupLookupsUsePooledContexts() throws Exception {
+    contextFactory.setSystemContextPoolSize( 1 );
+    realm.init();
+    SecurityUtils.setSecurityManager( new DefaultSecurityManager( realm ) );
+
+    Subject subject = SecurityUtils.getSubject();
+    subject.login( new UsernamePasswordToken( "sam", "sam-password" ) );
+    for( int i = 0; i < 5; i++ ) {
+      assertTrue( subject.hasRole( "analyst" ) );
+    }
+    assertEquals( 1L, poolGauge( "created" ) );
+    assertEquals( 0, poolGauge( "active" ) );
+  }
+
+  private static Object gauge( String name ) {
+    Gauge<?> gauge = DefaultMetricsService.getMetricRegistry().getGauges().get( "ldap." + CLUSTER + "." + name );
+    assertNotNull( name, gauge );
+    return gauge.getValue();
+  }
+
+  private static Object poolGauge( String name ) {
+    return gauge( "system-context-pool." + name );
+  }
+
+  private static void setPassword( String user, String password ) throws NamingException {
+    Hashtable<String, String> env = new Hashtable<>();
+    env.put( Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory" );
+    env.put( Context.PROVIDER_URL, ldapUrl );
+    env.put( Context.SECURITY_AUTHENTICATION, "simple" );
+    env.put( Context.SECURITY_PRINCIPAL, "uid=admin,ou=system" );
+    env.put( Context.SECURITY_CREDENTIALS, "secret" );
+    DirContext admin = new InitialDirContext( env );
+    try {
+      admin.modifyAttributes( "uid=" + user + "," + PEOPLE, new ModificationItem[]{
+          new ModificationItem( DirContext.REPLACE_ATTRIBUTE, new BasicAttribute( "userPassword", password ) ) } );
+    } finally {
+      admin.close();
+    }
+  }
+}
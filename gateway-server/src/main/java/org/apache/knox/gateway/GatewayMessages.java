@@ -409,6 +409,15 @@ public interface GatewayMessages {
   @Message( level = MessageLevel.DEBUG, text = "Added Service definition name: {0}, role : {1}, version : {2}" )
   void addedServiceDefinition(String serviceName, String serviceRole, String version);
 
+  @Message( level = MessageLevel.DEBUG, text = "Loaded {0} service definitions from {1} in {2} ms, {3} of them from the snapshot" )
+  void loadedServiceDefinitions(int count, String servicesDir, long elapsedMillis, int fromSnapshot);
+
+  @Message( level = MessageLevel.WARN, text = "Ignoring service definitions snapshot {0}: {1}" )
+  void failedToReadServiceDefinitionsSnapshot(String fileName, @StackTrace( level = MessageLevel.DEBUG ) Exception e);
+
+  @Message( level = MessageLevel.WARN, text = "Failed to write service definitions snapshot {0}: {1}" )
+  void failedToWriteServiceDefinitionsSnapshot(String fileName, @StackTrace( level = MessageLevel.DEBUG ) Exception e);
+
   @Message( level = MessageLevel.INFO, text = "System Property: {0}={1}" )
   void logSysProp( String name, String property );
 
@@ -570,6 +579,12 @@ public interface GatewayMessages {
   @Message( level = MessageLevel.ERROR, text = "Failed to delete remote {0} file {1}." )
   void failedToDeletedRemoteConfigFile(String type, String configFileName);
 
+  @Message( level = MessageLevel.WARN, text = "Failed to read the remote configuration manifest {0}, all remote configuration will be downloaded: {1}" )
+  void failedToReadRemoteConfigurationManifest(String fileName, @StackTrace( level = MessageLevel.DEBUG ) Exception e);
+
+  @Message( level = MessageLevel.WARN, text = "Failed to write the remote configuration manifest {0}: {1}" )
+  void failedToWriteRemoteConfigurationManifest(String fileName, @StackTrace( level = MessageLevel.DEBUG ) Exception e);
+
   @Message( level = MessageLevel.ERROR, text = "An error occurred while processing {0} : {1}" )
   void simpleDescriptorHandlingError(String simpleDesc,
                                      @StackTrace(level = MessageLevel.DEBUG) Exception e);
@@ -718,4 +733,10 @@ public interface GatewayMessages {
 
   @Message(level = MessageLevel.DEBUG, text = "Jetty's maxFormKeys is set to {0}")
   void setMaxFormKeys(int maxFormKeys);
+
+  @Message(level = MessageLevel.INFO, text = "Created shared HTTP connection pool {0} of {1} connections, {2} per backend")
+  void createdSharedConnectionPool(String name, int maxTotal, int maxPerRoute);
+
+  @Message(level = MessageLevel.WARN, text = "Connection to {0} from the shared pool {1} has been leased for {2} ms by {3}, it may have leaked")
+  void connectionLeaseExceededThreshold(String target, String pool, long leasedMillis, String thread);
 }
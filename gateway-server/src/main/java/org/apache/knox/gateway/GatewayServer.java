@@ -17,6 +17,8 @@
  */
 package org.apache.knox.gateway;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.io.FileUtils;
@@ -38,6 +40,7 @@ import org.apache.knox.gateway.i18n.messages.MessagesFactory;
 import org.apache.knox.gateway.i18n.resources.ResourcesFactory;
 import org.apache.knox.gateway.services.GatewayServices;
 import org.apache.knox.gateway.services.ServiceType;
+import org.apache.knox.gateway.services.metrics.impl.DefaultMetricsService;
 import org.apache.knox.gateway.services.registry.ServiceDefinitionRegistry;
 import org.apache.knox.gateway.services.registry.ServiceRegistry;
 import org.apache.knox.gateway.services.security.AliasServiceException;
@@ -56,6 +59,12 @@ import org.apache.knox.gateway.trace.TraceHandler;
 import org.apache.knox.gateway.util.Urls;
 import org.apache.knox.gateway.util.XmlUtils;
 import org.apache.knox.gateway.websockets.GatewayWebsocketHandler;
+import org.eclipse.jetty.alpn.server.ALPNServerConnectionFactory;
+import org.eclipse.jetty.http2.HTTP2Cipher;
+import org.eclipse.jetty.http2.server.AbstractHTTP2ServerConnectionFactory;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.http2.server.HTTP2ServerConnectionFactory;
+import org.eclipse.jetty.io.ConnectionStatistics;
 import org.eclipse.jetty.server.ConnectionFactory;
 import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.Handler;
@@ -65,12 +74,14 @@ import org.eclipse.jetty.server.NetworkConnector;
 import org.eclipse.jetty.server.SecureRequestCustomizer;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.SslConnectionFactory;
 import org.eclipse.jetty.server.handler.ContextHandler;
 import org.eclipse.jetty.server.handler.ContextHandlerCollection;
 import org.eclipse.jetty.server.handler.HandlerCollection;
 import org.eclipse.jetty.server.handler.RequestLogHandler;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
 import org.eclipse.jetty.webapp.Configuration;
 import org.eclipse.jetty.webapp.WebAppContext;
 import org.jboss.shrinkwrap.api.ShrinkWrap;
@@ -114,6 +125,7 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -428,9 +440,27 @@ public class GatewayServer {
         httpsConfig.addCustomizer( new SecureRequestCustomizer() );
         SSLService ssl = services.getService(ServiceType.SSL_SERVICE);
         SslContextFactory sslContextFactory = (SslContextFactory)ssl.buildSslContextFactory( config );
-        connector = new ServerConnector( server, sslContextFactory, new HttpConnectionFactory( httpsConfig ) );
+        HttpConnectionFactory http1 = new HttpConnectionFactory( httpsConfig );
+        if (config.isHttp2Enabled()) {
+          // h2 is negotiated with ALPN, clients without it keep using HTTP/1.1
+          HTTP2ServerConnectionFactory h2 = new HTTP2ServerConnectionFactory( httpsConfig );
+          configureHttp2( h2, config );
+          ALPNServerConnectionFactory alpn = new ALPNServerConnectionFactory( h2.getProtocol(), http1.getProtocol() );
+          alpn.setDefaultProtocol( http1.getProtocol() );
+          sslContextFactory.setCipherComparator( HTTP2Cipher.COMPARATOR );
+          sslContextFactory.setUseCipherSuitesOrder( true );
+          connector = new ServerConnector( server, new SslConnectionFactory( sslContextFactory, alpn.getProtocol() ),
+              alpn, h2, http1 );
+        } else {
+          connector = new ServerConnector( server, sslContextFactory, http1 );
+        }
+      } else if (config.isHttp2Enabled()) {
+        // h2c with prior knowledge or by upgrading an HTTP/1.1 request
+        HTTP2CServerConnectionFactory h2c = new HTTP2CServerConnectionFactory( httpConfig );
+        configureHttp2( h2c, config );
+        connector = new ServerConnector( server, new HttpConnectionFactory( httpConfig ), h2c );
       } else {
-        connector = new ServerConnector( server );
+        connector = new ServerConnector( server, new HttpConnectionFactory( httpConfig ) );
       }
       connector.setHost( address.getHostName() );
       connector.setPort( connectorPort );
@@ -443,11 +473,76 @@ public class GatewayServer {
       if (idleTimeout > 0L) {
         connector.setIdleTimeout(idleTimeout);
       }
+      if (config.isMetricsEnabled()) {
+        registerConnectorMetrics(connector, topologyName);
+      }
       connectors.add(connector);
     }
     return connectors;
   }
 
+  static void configureHttp2(AbstractHTTP2ServerConnectionFactory factory, GatewayConfig config) {
+    factory.setMaxConcurrentStreams(config.getHttp2MaxConcurrentStreams());
+    factory.setInitialStreamRecvWindow(config.getHttp2InitialStreamRecvWindow());
+    factory.setInitialSessionRecvWindow(config.getHttp2InitialSessionRecvWindow());
+    factory.setMaxDynamicTableSize(config.getHttp2MaxHeaderTableSize());
+  }
+
+  /*
+   * Open, maximum and total connections, their mean duration and the requests read per
+   * connection show how well clients reuse connections and so avoid new TLS handshakes.
+   * Jetty adds the requests and bytes of a connection to the totals when it is closed.
+   */
+  static void registerConnectorMetrics(ServerConnector connector, String topologyName) {
+    ConnectionStatistics statistics = new ConnectionStatistics();
+    connector.addBean(statistics);
+    String prefix = MetricRegistry.name("jetty", "connector",
+        StringUtils.isBlank(topologyName) ? "gateway" : topologyName,
+        connector.getHost() + ":" + connector.getPort());
+    Map<String, Gauge<?>> gauges = new LinkedHashMap<>();
+    gauges.put("connections", statistics::getConnections);
+    gauges.put("connections-max", statistics::getConnectionsMax);
+    gauges.put("connections-total", statistics::getConnectionsTotal);
+    gauges.put("connection-duration-mean", statistics::getConnectionDurationMean);
+    gauges.put("connection-duration-max", statistics::getConnectionDurationMax);
+    gauges.put("requests", statistics::getReceivedMessages);
+    gauges.put("requests-per-connection", () -> statistics.getConnectionsTotal() == 0 ? 0.0
+        : (double) statistics.getReceivedMessages() / statistics.getConnectionsTotal());
+    gauges.put("bytes-received", statistics::getReceivedBytes);
+    gauges.put("bytes-sent", statistics::getSentBytes);
+    if (connector.getConnectionFactory(AbstractHTTP2ServerConnectionFactory.class) != null) {
+      Http2StreamStatistics streams = new Http2StreamStatistics();
+      connector.addBean(streams);
+      gauges.put("http2-connections", streams::getSessions);
+      gauges.put("http2-streams", streams::getStreams);
+      gauges.put("http2-streams-total", streams::getStreamsTotal);
+    }
+    registerGauges(prefix, gauges);
+  }
+
+  private static void registerThreadPoolMetrics(ThreadPool threadPool) {
+    Map<String, Gauge<?>> gauges = new LinkedHashMap<>();
+    gauges.put("threads", threadPool::getThreads);
+    gauges.put("idle", threadPool::getIdleThreads);
+    gauges.put("low-on-threads", threadPool::isLowOnThreads);
+    if (threadPool instanceof QueuedThreadPool) {
+      QueuedThreadPool queuedThreadPool = (QueuedThreadPool) threadPool;
+      gauges.put("busy", queuedThreadPool::getBusyThreads);
+      gauges.put("queue-size", queuedThreadPool::getQueueSize);
+      gauges.put("reserved-available", queuedThreadPool::getAvailableReservedThreads);
+    }
+    registerGauges(MetricRegistry.name("jetty", "threadpool"), gauges);
+  }
+
+  private static void registerGauges(String prefix, Map<String, Gauge<?>> gauges) {
+    MetricRegistry registry = DefaultMetricsService.getMetricRegistry();
+    for (Map.Entry<String, Gauge<?>> gauge : gauges.entrySet()) {
+      String name = MetricRegistry.name(prefix, gauge.getKey());
+      registry.remove(name);
+      registry.register(name, gauge.getValue());
+    }
+  }
+
   private static HandlerCollection createHandlers(
       final GatewayConfig config,
       final GatewayServices services,
@@ -600,7 +695,10 @@ public class GatewayServer {
     deployments = new ConcurrentHashMap<>();
 
     // Start Jetty.
-    jetty = new Server( new QueuedThreadPool( config.getThreadPoolMax() ) );
+    jetty = new Server( HttpServerExecutor.createThreadPool( config ) );
+    if (config.isMetricsEnabled()) {
+      registerThreadPoolMetrics(jetty.getThreadPool());
+    }
 
     jetty.setAttribute(ContextHandler.MAX_FORM_CONTENT_SIZE_KEY, config.getJettyMaxFormContentSize());
     log.setMaxFormContentSize(config.getJettyMaxFormContentSize());
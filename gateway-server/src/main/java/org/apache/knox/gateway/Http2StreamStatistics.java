@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway;
+
+import org.eclipse.jetty.http2.HTTP2Connection;
+import org.eclipse.jetty.http2.HTTP2Session;
+import org.eclipse.jetty.io.Connection;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the HTTP/2 streams of a connector. Added as a bean of the connector it is told about
+ * every connection, and keeps the sessions of the open HTTP/2 connections to sum their streams.
+ */
+class Http2StreamStatistics implements Connection.Listener {
+
+  private final Map<HTTP2Connection, HTTP2Session> sessions = new ConcurrentHashMap<>();
+  private final LongAdder closedSessionStreams = new LongAdder();
+
+  @Override
+  public void onOpened(Connection connection) {
+    if (connection instanceof HTTP2Connection) {
+      HTTP2Connection http2Connection = (HTTP2Connection) connection;
+      if (http2Connection.getSession() instanceof HTTP2Session) {
+        sessions.put(http2Connection, (HTTP2Session) http2Connection.getSession());
+      }
+    }
+  }
+
+  @Override
+  public void onClosed(Connection connection) {
+    HTTP2Session session = sessions.remove(connection);
+    if (session != null) {
+      closedSessionStreams.add(session.getStreamsOpened());
+    }
+  }
+
+  /**
+   * @return the number of HTTP/2 connections currently open
+   */
+  public int getSessions() {
+    return sessions.size();
+  }
+
+  /**
+   * @return the number of streams currently open on all HTTP/2 connections
+   */
+  public long getStreams() {
+    long streams = 0;
+    for (HTTP2Session session : sessions.values()) {
+      streams += session.getStreamCount();
+    }
+    return streams;
+  }
+
+  /**
+   * @return the number of streams opened since the connector started
+   */
+  public long getStreamsTotal() {
+    long streams = closedSessionStreams.sum();
+    for (HTTP2Session session : sessions.values()) {
+      streams += session.getStreamsOpened();
+    }
+    return streams;
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.knox.gateway.config.GatewayConfig;
+import org.eclipse.jetty.util.thread.ExecutorThreadPool;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * The thread pool strategies of the gateway's HTTP server, selected with
+ * <code>gateway.httpserver.executor</code>.
+ */
+public enum HttpServerExecutor {
+
+  /**
+   * Jetty's queued thread pool of up to <code>gateway.threadpool.max</code> threads.
+   */
+  QUEUED {
+    @Override
+    ThreadPool create(GatewayConfig config) {
+      QueuedThreadPool threadPool = new QueuedThreadPool(config.getThreadPoolMax());
+      if (config.getThreadPoolReserved() >= 0) {
+        threadPool.setReservedThreads(config.getThreadPoolReserved());
+      }
+      return threadPool;
+    }
+  },
+
+  /**
+   * The queued thread pool keeping <code>gateway.threadpool.reserved</code> threads, one per CPU
+   * if not set, ready to take over the selector so that requests are handled by the thread that
+   * read them instead of being queued.
+   */
+  RESERVED {
+    @Override
+    ThreadPool create(GatewayConfig config) {
+      QueuedThreadPool threadPool = new QueuedThreadPool(config.getThreadPoolMax());
+      int reserved = config.getThreadPoolReserved();
+      threadPool.setReservedThreads(reserved >= 0 ? reserved : Runtime.getRuntime().availableProcessors());
+      return threadPool;
+    }
+  },
+
+  /**
+   * A {@link ThreadPoolExecutor} of the class named by <code>gateway.httpserver.executor.class</code>,
+   * for deployments that need their own queueing or thread factory.
+   */
+  EXECUTOR {
+    @Override
+    ThreadPool create(GatewayConfig config) {
+      String className = config.getHttpServerExecutorClass();
+      if (StringUtils.isBlank(className)) {
+        throw new IllegalArgumentException("The executor strategy requires a ThreadPoolExecutor class");
+      }
+      Object executor;
+      try {
+        executor = Class.forName(className).getConstructor().newInstance();
+      } catch (ReflectiveOperationException e) {
+        throw new IllegalArgumentException("Unable to create the executor " + className, e);
+      }
+      if (!(executor instanceof ThreadPoolExecutor)) {
+        throw new IllegalArgumentException(className + " is not a " + ThreadPoolExecutor.class.getName());
+      }
+      return new ExecutorThreadPool((ThreadPoolExecutor) executor, config.getThreadPoolReserved());
+    }
+  };
+
+  abstract ThreadPool create(GatewayConfig config);
+
+  /**
+   * @param config the gateway configuration
+   * @return the thread pool for the gateway's HTTP server as configured
+   */
+  public static ThreadPool createThreadPool(GatewayConfig config) {
+    String name = config.getHttpServerExecutor();
+    HttpServerExecutor executor;
+    try {
+      executor = StringUtils.isBlank(name) ? QUEUED : valueOf(name.trim().toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Unknown HTTP server executor " + name
+          + ", expected one of queued, reserved or executor", e);
+    }
+    return executor.create(config);
+  }
+}
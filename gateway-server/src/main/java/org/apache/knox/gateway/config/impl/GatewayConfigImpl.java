@@ -123,12 +123,37 @@ public class GatewayConfigImpl extends Configuration implements GatewayConfig {
   private static final long DEFAULT_KEYSTORE_CACHE_LIMIT = 1000;
   private static final String KEYSTORE_CACHE_ENTRY_TTL = GATEWAY_CONFIG_FILE_PREFIX + ".keystore.cache.entry.ttl";
   private static final long DEFAULT_KEYSTORE_CACHE_ENTRY_TTL = 60;
+  private static final String SIGNING_KEY_VERIFIER_CACHE_TTL = GATEWAY_CONFIG_FILE_PREFIX + ".signing.key.verifier.cache.ttl";
+  private static final long DEFAULT_SIGNING_KEY_VERIFIER_CACHE_TTL = 3600;
+  private static final String SIGNING_KEY_ROTATION_OVERLAP = GATEWAY_CONFIG_FILE_PREFIX + ".signing.key.rotation.overlap";
+  private static final long DEFAULT_SIGNING_KEY_ROTATION_OVERLAP = 86400;
+  private static final String SIGNING_KEYSTORE_RELOAD_INTERVAL = GATEWAY_CONFIG_FILE_PREFIX + ".signing.keystore.reload.interval";
+  private static final long DEFAULT_SIGNING_KEYSTORE_RELOAD_INTERVAL = 60;
+  private static final String RESPONSE_COMPRESSION_LEVEL = GATEWAY_CONFIG_FILE_PREFIX + ".response.compression.level";
+  private static final int DEFAULT_RESPONSE_COMPRESSION_LEVEL = -1;
   private static final String XFORWARDED_ENABLED = GATEWAY_CONFIG_FILE_PREFIX + ".xforwarded.enabled";
   private static final String EPHEMERAL_DH_KEY_SIZE = GATEWAY_CONFIG_FILE_PREFIX + ".jdk.tls.ephemeralDHKeySize";
   private static final String HTTP_CLIENT_MAX_CONNECTION = GATEWAY_CONFIG_FILE_PREFIX + ".httpclient.maxConnections";
   private static final String HTTP_CLIENT_CONNECTION_TIMEOUT = GATEWAY_CONFIG_FILE_PREFIX + ".httpclient.connectionTimeout";
   private static final String HTTP_CLIENT_SOCKET_TIMEOUT = GATEWAY_CONFIG_FILE_PREFIX + ".httpclient.socketTimeout";
+  private static final String HTTP_CLIENT_POOL_SHARED = GATEWAY_CONFIG_FILE_PREFIX + ".httpclient.pool.shared";
+  private static final String HTTP_CLIENT_POOL_MAX_TOTAL = GATEWAY_CONFIG_FILE_PREFIX + ".httpclient.pool.maxTotal";
+  private static final String HTTP_CLIENT_POOL_MAX_PER_ROUTE = GATEWAY_CONFIG_FILE_PREFIX + ".httpclient.pool.maxPerRoute";
+  private static final String HTTP_CLIENT_POOL_IDLE_TIMEOUT = GATEWAY_CONFIG_FILE_PREFIX + ".httpclient.pool.idleTimeout";
+  private static final String HTTP_CLIENT_POOL_TIME_TO_LIVE = GATEWAY_CONFIG_FILE_PREFIX + ".httpclient.pool.timeToLive";
+  private static final String HTTP_CLIENT_POOL_LEAK_DETECTION_THRESHOLD =
+      GATEWAY_CONFIG_FILE_PREFIX + ".httpclient.pool.leakDetectionThreshold";
   private static final String THREAD_POOL_MAX = GATEWAY_CONFIG_FILE_PREFIX + ".threadpool.max";
+  public static final String THREAD_POOL_RESERVED = GATEWAY_CONFIG_FILE_PREFIX + ".threadpool.reserved";
+  public static final String HTTP_SERVER_EXECUTOR = GATEWAY_CONFIG_FILE_PREFIX + ".httpserver.executor";
+  public static final String HTTP_SERVER_EXECUTOR_CLASS = GATEWAY_CONFIG_FILE_PREFIX + ".httpserver.executor.class";
+  public static final String SSL_SESSION_CACHE_SIZE = GATEWAY_CONFIG_FILE_PREFIX + ".ssl.session.cache.size";
+  public static final String SSL_SESSION_TIMEOUT = GATEWAY_CONFIG_FILE_PREFIX + ".ssl.session.timeout";
+  public static final String HTTP2_ENABLED = GATEWAY_CONFIG_FILE_PREFIX + ".http2.enabled";
+  public static final String HTTP2_MAX_CONCURRENT_STREAMS = GATEWAY_CONFIG_FILE_PREFIX + ".http2.maxConcurrentStreams";
+  public static final String HTTP2_INITIAL_STREAM_RECV_WINDOW = GATEWAY_CONFIG_FILE_PREFIX + ".http2.initialStreamRecvWindow";
+  public static final String HTTP2_INITIAL_SESSION_RECV_WINDOW = GATEWAY_CONFIG_FILE_PREFIX + ".http2.initialSessionRecvWindow";
+  public static final String HTTP2_MAX_HEADER_TABLE_SIZE = GATEWAY_CONFIG_FILE_PREFIX + ".http2.maxHeaderTableSize";
   public static final String HTTP_SERVER_REQUEST_BUFFER = GATEWAY_CONFIG_FILE_PREFIX + ".httpserver.requestBuffer";
   public static final String HTTP_SERVER_REQUEST_HEADER_BUFFER = GATEWAY_CONFIG_FILE_PREFIX + ".httpserver.requestHeaderBuffer";
   public static final String HTTP_SERVER_RESPONSE_BUFFER = GATEWAY_CONFIG_FILE_PREFIX + ".httpserver.responseBuffer";
@@ -156,6 +181,7 @@ public class GatewayConfigImpl extends Configuration implements GatewayConfig {
   public static final String WEBSOCKET_ASYNC_WRITE_TIMEOUT = GATEWAY_CONFIG_FILE_PREFIX + ".websocket.async.write.timeout";
   public static final String WEBSOCKET_IDLE_TIMEOUT = GATEWAY_CONFIG_FILE_PREFIX + ".websocket.idle.timeout";
   public static final String WEBSOCKET_MAX_WAIT_BUFFER_COUNT = GATEWAY_CONFIG_FILE_PREFIX + ".websocket.max.wait.buffer.count";
+  public static final String WEBSOCKET_MAX_PENDING_BYTES = GATEWAY_CONFIG_FILE_PREFIX + ".websocket.max.pending.bytes";
 
   /**
    * Properties for for gateway port mapping feature
@@ -208,6 +234,13 @@ public class GatewayConfigImpl extends Configuration implements GatewayConfig {
   public static final int DEFAULT_WEBSOCKET_ASYNC_WRITE_TIMEOUT = 60000;
   public static final int DEFAULT_WEBSOCKET_IDLE_TIMEOUT = 300000;
   public static final int DEFAULT_WEBSOCKET_MAX_WAIT_BUFFER_COUNT = 100;
+  public static final long DEFAULT_WEBSOCKET_MAX_PENDING_BYTES = 1024 * 1024;
+
+  public static final String DEFAULT_HTTP_SERVER_EXECUTOR = "queued";
+  public static final int DEFAULT_HTTP2_MAX_CONCURRENT_STREAMS = 128;
+  public static final int DEFAULT_HTTP2_INITIAL_STREAM_RECV_WINDOW = 512 * 1024;
+  public static final int DEFAULT_HTTP2_INITIAL_SESSION_RECV_WINDOW = 1024 * 1024;
+  public static final int DEFAULT_HTTP2_MAX_HEADER_TABLE_SIZE = 4096;
 
   public static final boolean DEFAULT_GATEWAY_PORT_MAPPING_ENABLED = true;
   public static final boolean DEFAULT_REMOTE_ALIAS_SERVICE_ENABLED = true;
@@ -269,12 +302,14 @@ public class GatewayConfigImpl extends Configuration implements GatewayConfig {
   private static final String KNOX_TOKEN_ALIAS_PERSISTENCE_INTERVAL = GATEWAY_CONFIG_FILE_PREFIX + ".knox.token.state.alias.persistence.interval";
   private static final String KNOX_TOKEN_PERMISSIVE_VALIDATION_ENABLED = GATEWAY_CONFIG_FILE_PREFIX + ".knox.token.permissive.validation";
   private static final String KNOX_TOKEN_HASH_ALGORITHM = GATEWAY_CONFIG_FILE_PREFIX + ".knox.token.hash.algorithm";
+  private static final String KNOX_TOKEN_HASH_V2_ENABLED = GATEWAY_CONFIG_FILE_PREFIX + ".knox.token.hash.v2.enabled";
   public static final String KNOX_TOKEN_USER_LIMIT = GATEWAY_CONFIG_FILE_PREFIX + ".knox.token.limit.per.user";
   private static final long KNOX_TOKEN_EVICTION_INTERVAL_DEFAULT = TimeUnit.MINUTES.toSeconds(5);
   private static final long KNOX_TOKEN_EVICTION_GRACE_PERIOD_DEFAULT = TimeUnit.HOURS.toSeconds(24);
   private static final long KNOX_TOKEN_ALIAS_PERSISTENCE_INTERVAL_DEFAULT = TimeUnit.SECONDS.toSeconds(15);
   public static final int KNOX_TOKEN_USER_LIMIT_DEFAULT = 10;
   private static final boolean KNOX_TOKEN_PERMISSIVE_VALIDATION_ENABLED_DEFAULT = false;
+  private static final boolean KNOX_TOKEN_HASH_V2_ENABLED_DEFAULT = false;
 
   private static final String KNOX_HOMEPAGE_PROFILE_PREFIX =  "knox.homepage.profile.";
   private static final String KNOX_HOMEPAGE_PINNED_TOPOLOGIES =  "knox.homepage.pinned.topologies";
@@ -696,6 +731,36 @@ public class GatewayConfigImpl extends Configuration implements GatewayConfig {
     return t;
   }
 
+  @Override
+  public boolean isHttpClientPoolShared() {
+    return getBoolean( HTTP_CLIENT_POOL_SHARED, true );
+  }
+
+  @Override
+  public int getHttpClientPoolMaxTotal() {
+    return getInt( HTTP_CLIENT_POOL_MAX_TOTAL, 1024 );
+  }
+
+  @Override
+  public int getHttpClientPoolMaxPerRoute() {
+    return getInt( HTTP_CLIENT_POOL_MAX_PER_ROUTE, 128 );
+  }
+
+  @Override
+  public long getHttpClientPoolIdleTimeout() {
+    return getLong( HTTP_CLIENT_POOL_IDLE_TIMEOUT, TimeUnit.SECONDS.toMillis(60) );
+  }
+
+  @Override
+  public long getHttpClientPoolTimeToLive() {
+    return getLong( HTTP_CLIENT_POOL_TIME_TO_LIVE, -1L );
+  }
+
+  @Override
+  public long getHttpClientPoolLeakDetectionThreshold() {
+    return getLong( HTTP_CLIENT_POOL_LEAK_DETECTION_THRESHOLD, 0L );
+  }
+
   @Override
   public String getHttpClientTruststorePath() {
     return get(HTTP_CLIENT_TRUSTSTORE_PATH);
@@ -731,6 +796,56 @@ public class GatewayConfigImpl extends Configuration implements GatewayConfig {
     return i;
   }
 
+  @Override
+  public int getThreadPoolReserved() {
+    return getInt( THREAD_POOL_RESERVED, -1 );
+  }
+
+  @Override
+  public String getHttpServerExecutor() {
+    return getTrimmed( HTTP_SERVER_EXECUTOR, DEFAULT_HTTP_SERVER_EXECUTOR );
+  }
+
+  @Override
+  public String getHttpServerExecutorClass() {
+    return getTrimmed( HTTP_SERVER_EXECUTOR_CLASS );
+  }
+
+  @Override
+  public int getSslSessionCacheSize() {
+    return getInt( SSL_SESSION_CACHE_SIZE, -1 );
+  }
+
+  @Override
+  public int getSslSessionTimeout() {
+    return getInt( SSL_SESSION_TIMEOUT, -1 );
+  }
+
+  @Override
+  public boolean isHttp2Enabled() {
+    return getBoolean( HTTP2_ENABLED, false );
+  }
+
+  @Override
+  public int getHttp2MaxConcurrentStreams() {
+    return getInt( HTTP2_MAX_CONCURRENT_STREAMS, DEFAULT_HTTP2_MAX_CONCURRENT_STREAMS );
+  }
+
+  @Override
+  public int getHttp2InitialStreamRecvWindow() {
+    return getInt( HTTP2_INITIAL_STREAM_RECV_WINDOW, DEFAULT_HTTP2_INITIAL_STREAM_RECV_WINDOW );
+  }
+
+  @Override
+  public int getHttp2InitialSessionRecvWindow() {
+    return getInt( HTTP2_INITIAL_SESSION_RECV_WINDOW, DEFAULT_HTTP2_INITIAL_SESSION_RECV_WINDOW );
+  }
+
+  @Override
+  public int getHttp2MaxHeaderTableSize() {
+    return getInt( HTTP2_MAX_HEADER_TABLE_SIZE, DEFAULT_HTTP2_MAX_HEADER_TABLE_SIZE );
+  }
+
   @Override
   public int getHttpServerRequestBuffer() {
     return getInt( HTTP_SERVER_REQUEST_BUFFER, 16 * 1024 );
@@ -861,6 +976,26 @@ public class GatewayConfigImpl extends Configuration implements GatewayConfig {
     }
   }
 
+  @Override
+  public long getSigningKeyVerifierCacheTimeToLive() {
+    return getLong(SIGNING_KEY_VERIFIER_CACHE_TTL, DEFAULT_SIGNING_KEY_VERIFIER_CACHE_TTL);
+  }
+
+  @Override
+  public long getSigningKeyRotationOverlap() {
+    return getLong(SIGNING_KEY_ROTATION_OVERLAP, DEFAULT_SIGNING_KEY_ROTATION_OVERLAP);
+  }
+
+  @Override
+  public long getSigningKeystoreReloadInterval() {
+    return getLong(SIGNING_KEYSTORE_RELOAD_INTERVAL, DEFAULT_SIGNING_KEYSTORE_RELOAD_INTERVAL);
+  }
+
+  @Override
+  public int getResponseCompressionLevel() {
+    return getInt(RESPONSE_COMPRESSION_LEVEL, DEFAULT_RESPONSE_COMPRESSION_LEVEL);
+  }
+
   @Override
   public List<String> getGlobalRulesServices() {
     String value = get( GLOBAL_RULES_SERVICES );
@@ -946,6 +1081,11 @@ public class GatewayConfigImpl extends Configuration implements GatewayConfig {
     return getInt( WEBSOCKET_MAX_WAIT_BUFFER_COUNT, DEFAULT_WEBSOCKET_MAX_WAIT_BUFFER_COUNT);
   }
 
+  @Override
+  public long getWebsocketMaxPendingBytes() {
+    return getLong( WEBSOCKET_MAX_PENDING_BYTES, DEFAULT_WEBSOCKET_MAX_PENDING_BYTES);
+  }
+
   @Override
   public Map<String, Integer> getGatewayPortMappings() {
 
@@ -1235,6 +1375,11 @@ public class GatewayConfigImpl extends Configuration implements GatewayConfig {
     return get(KNOX_TOKEN_HASH_ALGORITHM, HmacAlgorithms.HMAC_SHA_256.getName());
   }
 
+  @Override
+  public boolean isKnoxTokenHashV2Enabled() {
+    return getBoolean(KNOX_TOKEN_HASH_V2_ENABLED, KNOX_TOKEN_HASH_V2_ENABLED_DEFAULT);
+  }
+
   @Override
   public int getMaximumNumberOfTokensPerUser() {
     return getInt(KNOX_TOKEN_USER_LIMIT, KNOX_TOKEN_USER_LIMIT_DEFAULT);
@@ -33,6 +33,7 @@ import org.apache.knox.gateway.topology.Service;
 import org.apache.knox.gateway.topology.Topology;
 import org.apache.knox.gateway.topology.Version;
 import org.apache.knox.gateway.util.ServiceDefinitionsLoader;
+import org.apache.knox.gateway.util.ServiceDefinitionsSnapshot;
 import org.apache.knox.gateway.util.Urls;
 import org.jboss.shrinkwrap.api.ShrinkWrap;
 import org.jboss.shrinkwrap.api.asset.Asset;
@@ -694,7 +695,8 @@ public abstract class DeploymentFactory {
     String stacks = config.getGatewayServicesDir();
     log.usingServicesDirectory(stacks);
     File stacksDir = new File(stacks);
-    Set<ServiceDeploymentContributor> deploymentContributors = ServiceDefinitionsLoader.loadServiceDefinitionDeploymentContributors(stacksDir);
+    Set<ServiceDeploymentContributor> deploymentContributors = ServiceDefinitionsLoader.loadServiceDefinitionDeploymentContributors(stacksDir,
+        ServiceDefinitionsSnapshot.getSnapshotFile(config));
     addServiceDeploymentContributors(deploymentContributors.iterator());
   }
 
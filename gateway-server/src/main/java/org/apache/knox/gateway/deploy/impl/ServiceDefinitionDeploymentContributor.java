@@ -166,6 +166,9 @@ public class ServiceDefinitionDeploymentContributor extends ServiceDeploymentCon
     } else {
       addPolicies(context, service, filterParams, params, resource, policyBindings);
     }
+    if ( !containsPolicy(policyBindings, CACHE_ROLE) ) {
+      addCacheFilter(context, service, resource);
+    }
     addDispatchFilter(context, service, resource, binding);
   }
 
@@ -188,6 +191,17 @@ public class ServiceDefinitionDeploymentContributor extends ServiceDeploymentCon
     }
   }
 
+  private static boolean containsPolicy(List<Policy> policyBindings, String role) {
+    if ( policyBindings != null ) {
+      for ( Policy policyBinding : policyBindings ) {
+        if ( role.equalsIgnoreCase(policyBinding.getRole() == null ? null : policyBinding.getRole().trim()) ) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
   /**
    * A helper method to convert Map<String, String> params to
    * List<FilterParamDescriptor>
@@ -78,6 +78,8 @@ public class DefaultGatewayServices extends AbstractGatewayServices {
     addService(ServiceType.SERVICE_DEFINITION_REGISTRY, gatewayServiceFactory.create(this, ServiceType.SERVICE_DEFINITION_REGISTRY, config, options));
 
     addService(ServiceType.METRICS_SERVICE, gatewayServiceFactory.create(this, ServiceType.METRICS_SERVICE, config, options));
+
+    addService(ServiceType.HTTP_CONNECTION_POOL_SERVICE, gatewayServiceFactory.create(this, ServiceType.HTTP_CONNECTION_POOL_SERVICE, config, options));
   }
 
   @Override
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.services.httpclient.impl;
+
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.knox.gateway.GatewayMessages;
+import org.apache.knox.gateway.config.GatewayConfig;
+import org.apache.knox.gateway.i18n.messages.MessagesFactory;
+import org.apache.knox.gateway.services.ServiceLifecycleException;
+import org.apache.knox.gateway.services.httpclient.HttpConnectionPoolService;
+
+import javax.net.ssl.SSLContext;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+public class DefaultHttpConnectionPoolService implements HttpConnectionPoolService {
+  private static final GatewayMessages LOG = MessagesFactory.get(GatewayMessages.class);
+
+  private final ConcurrentMap<String, SharedConnectionManager> pools = new ConcurrentHashMap<>();
+  private int maxTotal;
+  private int maxPerRoute;
+  private long idleTimeout;
+  private long timeToLive;
+  private long leakDetectionThreshold;
+
+  @Override
+  public void init(GatewayConfig config, Map<String, String> options) throws ServiceLifecycleException {
+    maxTotal = config.getHttpClientPoolMaxTotal();
+    maxPerRoute = config.getHttpClientPoolMaxPerRoute();
+    idleTimeout = config.getHttpClientPoolIdleTimeout();
+    timeToLive = config.getHttpClientPoolTimeToLive();
+    leakDetectionThreshold = config.getHttpClientPoolLeakDetectionThreshold();
+  }
+
+  @Override
+  public void start() throws ServiceLifecycleException {
+  }
+
+  @Override
+  public void stop() throws ServiceLifecycleException {
+    for (SharedConnectionManager pool : pools.values()) {
+      pool.shutdown();
+    }
+    pools.clear();
+  }
+
+  @Override
+  public PoolingHttpClientConnectionManager getConnectionManager(String name, Supplier<SSLContext> sslContextFactory) {
+    return pools.computeIfAbsent(name, key -> createPool(key, sslContextFactory.get()));
+  }
+
+  private SharedConnectionManager createPool(String name, SSLContext sslContext) {
+    final Registry<ConnectionSocketFactory> socketFactories = RegistryBuilder.<ConnectionSocketFactory>create()
+        .register("http", PlainConnectionSocketFactory.getSocketFactory())
+        .register("https", sslContext != null
+            ? new SSLConnectionSocketFactory(sslContext) : SSLConnectionSocketFactory.getSocketFactory())
+        .build();
+    final SharedConnectionManager pool = new SharedConnectionManager(name, socketFactories, timeToLive,
+        leakDetectionThreshold);
+    if (maxTotal > 0) {
+      pool.setMaxTotal(maxTotal);
+    }
+    if (maxPerRoute > 0) {
+      pool.setDefaultMaxPerRoute(maxPerRoute);
+    }
+    pool.evictIdleConnections(idleTimeout);
+    LOG.createdSharedConnectionPool(name, pool.getMaxTotal(), pool.getDefaultMaxPerRoute());
+    return pool;
+  }
+}
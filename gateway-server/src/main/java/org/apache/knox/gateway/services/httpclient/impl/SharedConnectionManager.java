@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.services.httpclient.impl;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.config.Registry;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.impl.client.IdleConnectionEvictor;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.knox.gateway.GatewayMessages;
+import org.apache.knox.gateway.i18n.messages.MessagesFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A connection pool shared by the dispatch clients of several topologies.
+ *
+ * When a leak detection threshold is set, the pool remembers when each connection was
+ * leased and reports the ones still leased after the threshold. The leases are checked
+ * while connections are requested, at most twice per threshold, so no thread of its own
+ * is needed. Idle connections are closed by an {@link IdleConnectionEvictor}.
+ */
+class SharedConnectionManager extends PoolingHttpClientConnectionManager {
+  private static final GatewayMessages LOG = MessagesFactory.get(GatewayMessages.class);
+
+  private final String name;
+  private final long leakDetectionThresholdNanos;
+  private final ConcurrentMap<HttpClientConnection, Lease> leases = new ConcurrentHashMap<>();
+  private final AtomicLong nextLeakCheck = new AtomicLong(System.nanoTime());
+  private IdleConnectionEvictor evictor;
+
+  SharedConnectionManager(String name, Registry<ConnectionSocketFactory> socketFactories,
+                          long timeToLive, long leakDetectionThreshold) {
+    super(socketFactories, null, null, null, timeToLive, TimeUnit.MILLISECONDS);
+    this.name = name;
+    this.leakDetectionThresholdNanos = TimeUnit.MILLISECONDS.toNanos(leakDetectionThreshold);
+  }
+
+  String getName() {
+    return name;
+  }
+
+  /**
+   * Starts closing connections that have been idle for longer than the given time.
+   */
+  void evictIdleConnections(long idleTimeout) {
+    if (idleTimeout > 0) {
+      evictor = new IdleConnectionEvictor(this, Math.max(idleTimeout / 2, 1L), TimeUnit.MILLISECONDS,
+          idleTimeout, TimeUnit.MILLISECONDS);
+      evictor.start();
+    }
+  }
+
+  @Override
+  public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+    final ConnectionRequest request = super.requestConnection(route, state);
+    if (leakDetectionThresholdNanos <= 0) {
+      return request;
+    }
+    return new ConnectionRequest() {
+      @Override
+      public HttpClientConnection get(long timeout, TimeUnit unit)
+          throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+        final HttpClientConnection connection = request.get(timeout, unit);
+        final long now = System.nanoTime();
+        leases.put(connection, new Lease(route, now, Thread.currentThread().getName()));
+        checkLeaksPeriodically(now);
+        return connection;
+      }
+
+      @Override
+      public boolean cancel() {
+        return request.cancel();
+      }
+    };
+  }
+
+  @Override
+  public void releaseConnection(HttpClientConnection connection, Object state, long keepAlive, TimeUnit unit) {
+    leases.remove(connection);
+    super.releaseConnection(connection, state, keepAlive, unit);
+  }
+
+  @Override
+  public void shutdown() {
+    if (evictor != null) {
+      evictor.shutdown();
+    }
+    leases.clear();
+    super.shutdown();
+  }
+
+  private void checkLeaksPeriodically(long now) {
+    final long next = nextLeakCheck.get();
+    if (now - next >= 0 && nextLeakCheck.compareAndSet(next, now + leakDetectionThresholdNanos / 2)) {
+      checkLeaks(now);
+    }
+  }
+
+  /**
+   * Reports the connections leased for longer than the threshold, each of them once.
+   *
+   * @return the number of connections reported
+   */
+  int checkLeaks(long now) {
+    int reported = 0;
+    for (Lease lease : leases.values()) {
+      final long leased = now - lease.leasedAt;
+      if (leased > leakDetectionThresholdNanos && lease.reported.compareAndSet(false, true)) {
+        LOG.connectionLeaseExceededThreshold(lease.route.getTargetHost().toURI(), name,
+            TimeUnit.NANOSECONDS.toMillis(leased), lease.thread);
+        reported++;
+      }
+    }
+    return reported;
+  }
+
+  private static final class Lease {
+    private final HttpRoute route;
+    private final long leasedAt;
+    private final String thread;
+    private final AtomicBoolean reported = new AtomicBoolean();
+
+    Lease(HttpRoute route, long leasedAt, String thread) {
+      this.route = route;
+      this.leasedAt = leasedAt;
+      this.thread = thread;
+    }
+  }
+}
@@ -34,7 +34,11 @@ import org.apache.knox.gateway.services.metrics.MetricsContext;
 import org.apache.knox.gateway.services.metrics.MetricsReporter;
 import org.apache.knox.gateway.services.metrics.MetricsReporterException;
 import org.apache.knox.gateway.services.metrics.MetricsService;
+import org.apache.knox.gateway.services.metrics.PrometheusTextFormat;
+import org.apache.knox.gateway.services.metrics.RequestMetrics;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -48,8 +52,12 @@ public class DefaultMetricsService implements MetricsService {
 
   private static final MetricRegistry metrics = new MetricRegistry();
 
+  private static final RequestMetrics requestMetrics = new RequestMetrics();
+
   public static final String METRICS_REGISTRY = "metrics-registry";
 
+  public static final String REQUEST_METRICS = "request-metrics";
+
   private Map<Class<?>, InstrumentationProvider> instrumentationProviders;
 
   private List<MetricsReporter> metricsReporters;
@@ -68,6 +76,7 @@ public class DefaultMetricsService implements MetricsService {
     this.config = config;
     context = new DefaultMetricsContext(this);
     context.setProperty(METRICS_REGISTRY, getMetricRegistry());
+    context.setProperty(REQUEST_METRICS, requestMetrics);
     instrumentationProviders = new HashMap<>();
     metricsReporters = new ArrayList<>();
     if (config.isMetricsEnabled()) {
@@ -153,6 +162,16 @@ public class DefaultMetricsService implements MetricsService {
     return instrumentationProvider.getInstrumented(context);
   }
 
+  @Override
+  public RequestMetrics getRequestMetrics() {
+    return requestMetrics;
+  }
+
+  @Override
+  public void writePrometheusMetrics(Writer writer) throws IOException {
+    PrometheusTextFormat.write(writer, requestMetrics, metrics);
+  }
+
   public Map<Class<?>, InstrumentationProvider> getInstrumentationProviders() {
     return instrumentationProviders;
   }
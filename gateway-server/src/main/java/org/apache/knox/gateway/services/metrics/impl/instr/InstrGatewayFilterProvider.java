@@ -21,6 +21,7 @@ import com.codahale.metrics.MetricRegistry;
 import org.apache.knox.gateway.GatewayFilter;
 import org.apache.knox.gateway.services.metrics.InstrumentationProvider;
 import org.apache.knox.gateway.services.metrics.MetricsContext;
+import org.apache.knox.gateway.services.metrics.RequestMetrics;
 import org.apache.knox.gateway.services.metrics.impl.DefaultMetricsService;
 
 public class InstrGatewayFilterProvider implements
@@ -33,6 +34,8 @@ public class InstrGatewayFilterProvider implements
 
   @Override
   public GatewayFilter getInstrumented(GatewayFilter gatewayFilter, MetricsContext metricsContext) {
-    return new InstrumentedGatewayFilter(gatewayFilter, (MetricRegistry) metricsContext.getProperty(DefaultMetricsService.METRICS_REGISTRY));
+    return new InstrumentedGatewayFilter(gatewayFilter,
+        (MetricRegistry) metricsContext.getProperty(DefaultMetricsService.METRICS_REGISTRY),
+        (RequestMetrics) metricsContext.getProperty(DefaultMetricsService.REQUEST_METRICS));
   }
 }
@@ -21,16 +21,23 @@ import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.httpclient.HttpClientMetricNameStrategy;
 import com.codahale.metrics.httpclient.InstrumentedHttpRequestExecutor;
 import org.apache.http.Header;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpException;
 import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
 import org.apache.http.RequestLine;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.protocol.HttpContext;
 import org.apache.knox.gateway.services.metrics.InstrumentationProvider;
 import org.apache.knox.gateway.services.metrics.MetricsContext;
+import org.apache.knox.gateway.services.metrics.RequestMetrics;
 import org.apache.knox.gateway.services.metrics.impl.DefaultMetricsService;
 
+import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.Locale;
+import java.util.concurrent.TimeUnit;
 
 public class InstrHttpClientBuilderProvider implements
     InstrumentationProvider<HttpClientBuilder> {
@@ -38,7 +45,8 @@ public class InstrHttpClientBuilderProvider implements
   @Override
   public HttpClientBuilder getInstrumented(MetricsContext metricsContext) {
     MetricRegistry registry = (MetricRegistry) metricsContext.getProperty(DefaultMetricsService.METRICS_REGISTRY);
-    return  HttpClientBuilder.create().setRequestExecutor(new InstrumentedHttpRequestExecutor(registry, TOPOLOGY_URL_AND_METHOD));
+    RequestMetrics requestMetrics = (RequestMetrics) metricsContext.getProperty(DefaultMetricsService.REQUEST_METRICS);
+    return  HttpClientBuilder.create().setRequestExecutor(new BackendTimingRequestExecutor(registry, requestMetrics));
   }
 
   @Override
@@ -46,6 +54,30 @@ public class InstrHttpClientBuilderProvider implements
     throw new UnsupportedOperationException();
   }
 
+  /* Adds the time until the backend response headers arrive to the backend time of the current request */
+  private static class BackendTimingRequestExecutor extends InstrumentedHttpRequestExecutor {
+    private final RequestMetrics requestMetrics;
+
+    BackendTimingRequestExecutor(MetricRegistry registry, RequestMetrics requestMetrics) {
+      super(registry, TOPOLOGY_URL_AND_METHOD);
+      this.requestMetrics = requestMetrics;
+    }
+
+    @Override
+    public HttpResponse execute(HttpRequest request, HttpClientConnection connection, HttpContext context)
+        throws HttpException, IOException {
+      if (requestMetrics == null) {
+        return super.execute(request, connection, context);
+      }
+      long start = System.nanoTime();
+      try {
+        return super.execute(request, connection, context);
+      } finally {
+        requestMetrics.recordBackendTime(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      }
+    }
+  }
+
   private static final HttpClientMetricNameStrategy TOPOLOGY_URL_AND_METHOD = new HttpClientMetricNameStrategy() {
     @Override
     public String getNameFor(String name, HttpRequest request) {
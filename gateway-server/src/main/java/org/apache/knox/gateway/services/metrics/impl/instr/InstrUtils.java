@@ -17,21 +17,15 @@
  */
 package org.apache.knox.gateway.services.metrics.impl.instr;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 public class InstrUtils {
 
-    //This regular expression pattern is used to parse the *first* two elements
-    //of a path. For example, if the path is “/webhdfs/v1/d1/d2/d2/d4”, this pattern
-    //can be used to get the first two ("/webhdfs/v1/"). The "?" in pattern
-    //ensures not to be greedy in matching.
-    private static Pattern p = Pattern.compile("/.*?/.*?/");
-
     /**
      * This function parses the pathinfo provided  in any servlet context and
      * returns the segment that is related to the resource.
-     * For example, if the path is "/webhdfs/v1/d1/d2/d2/d4". it returns "/webhdfs/v1"
+     * For example, if the path is "/webhdfs/v1/d1/d2/d2/d4". it returns "/webhdfs/v1/"
+     *
+     * The path is scanned for the first three slashes instead of matching a
+     * pattern as this runs for every request.
      *
      * @param fullPath full path to determine the resource from
      * @return resource path
@@ -39,9 +33,11 @@ public class InstrUtils {
     public static String getResourcePath(String fullPath) {
         String resourcePath = "";
         if (fullPath != null && !fullPath.isEmpty()) {
-            Matcher m = p.matcher(fullPath);
-            if (m.find()) {
-                resourcePath = m.group(0);
+            int first = fullPath.indexOf('/');
+            int second = first < 0 ? -1 : fullPath.indexOf('/', first + 1);
+            int third = second < 0 ? -1 : fullPath.indexOf('/', second + 1);
+            if (third >= 0) {
+                resourcePath = fullPath.substring(first, third + 1);
             } else {
                 resourcePath = fullPath;
             }
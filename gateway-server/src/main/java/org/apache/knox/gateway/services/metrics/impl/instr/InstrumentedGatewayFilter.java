@@ -20,6 +20,9 @@ package org.apache.knox.gateway.services.metrics.impl.instr;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import org.apache.knox.gateway.GatewayFilter;
+import org.apache.knox.gateway.filter.AbstractGatewayFilter;
+import org.apache.knox.gateway.services.metrics.RequestMetrics;
+import org.apache.knox.gateway.topology.Topology;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -28,9 +31,14 @@ import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 public class InstrumentedGatewayFilter extends GatewayFilter {
 
@@ -38,9 +46,20 @@ public class InstrumentedGatewayFilter extends GatewayFilter {
 
   private MetricRegistry metricRegistry;
 
+  private RequestMetrics requestMetrics;
+
+  /* Timers by context path, resource path and method, resolved once per route */
+  private final ConcurrentMap<TimerKey, Timer> timers = new ConcurrentHashMap<>();
+
   public InstrumentedGatewayFilter(GatewayFilter gatewayFilter, MetricRegistry metricRegistry) {
+    this(gatewayFilter, metricRegistry, null);
+  }
+
+  public InstrumentedGatewayFilter(GatewayFilter gatewayFilter, MetricRegistry metricRegistry,
+                                   RequestMetrics requestMetrics) {
     this.gatewayFilter = gatewayFilter;
     this.metricRegistry = metricRegistry;
+    this.requestMetrics = requestMetrics;
   }
 
   @Override
@@ -65,35 +84,124 @@ public class InstrumentedGatewayFilter extends GatewayFilter {
 
   @Override
   public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain filterChain) throws IOException, ServletException {
+    long start = begin();
     Timer.Context timerContext = this.timer(servletRequest).time();
+    boolean failed = true;
     try {
       gatewayFilter.doFilter(servletRequest, servletResponse, filterChain);
+      failed = false;
     } finally {
       timerContext.stop();
+      end(servletRequest, servletResponse, start, failed);
     }
   }
 
   @Override
   public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse) throws IOException, ServletException {
+    long start = begin();
     Timer.Context timerContext = this.timer(servletRequest).time();
+    boolean failed = true;
     try {
       gatewayFilter.doFilter(servletRequest, servletResponse);
+      failed = false;
     } finally {
       timerContext.stop();
+      end(servletRequest, servletResponse, start, failed);
+    }
+  }
+
+  private long begin() {
+    if (requestMetrics != null) {
+      requestMetrics.beginRequest();
     }
+    return System.nanoTime();
+  }
+
+  private void end(ServletRequest request, ServletResponse response, long start, boolean failed) {
+    if (requestMetrics == null) {
+      return;
+    }
+    long duration = System.nanoTime() - start;
+    String method = null;
+    if (request instanceof HttpServletRequest) {
+      method = ((HttpServletRequest) request).getMethod();
+    }
+    int status = 0;
+    if (failed) {
+      status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+    } else if (response instanceof HttpServletResponse) {
+      status = ((HttpServletResponse) response).getStatus();
+    }
+    requestMetrics.endRequest(topology(request), (String) request.getAttribute(AbstractGatewayFilter.TARGET_SERVICE_ROLE),
+        method, status, duration, TimeUnit.NANOSECONDS);
+  }
+
+  private static String topology(ServletRequest request) {
+    Object topology = request.getServletContext().getAttribute("org.apache.knox.gateway.topology");
+    if (topology instanceof Topology) {
+      return ((Topology) topology).getName();
+    }
+    return request.getServletContext().getContextPath();
   }
 
   private Timer timer(ServletRequest request) {
-    StringBuilder builder = new StringBuilder();
-    builder.append("client.")
-        .append(request.getServletContext().getContextPath());
+    String contextPath = request.getServletContext().getContextPath();
+    String resourcePath = null;
+    String method = null;
     if (request instanceof HttpServletRequest) {
       HttpServletRequest httpServletRequest = (HttpServletRequest) request;
-      builder.append(InstrUtils.getResourcePath(httpServletRequest.getPathInfo()));
-      builder.append('.');
-      builder.append(httpServletRequest.getMethod());
-      builder.append("-requests");
+      resourcePath = InstrUtils.getResourcePath(httpServletRequest.getPathInfo());
+      method = httpServletRequest.getMethod();
+    }
+    TimerKey key = new TimerKey(contextPath, resourcePath, method);
+    Timer timer = timers.get(key);
+    if (timer == null) {
+      timer = timers.computeIfAbsent(key, k -> metricRegistry.timer(k.name()));
+    }
+    return timer;
+  }
+
+  private static final class TimerKey {
+    private final String contextPath;
+    private final String resourcePath;
+    private final String method;
+
+    TimerKey(String contextPath, String resourcePath, String method) {
+      this.contextPath = contextPath;
+      this.resourcePath = resourcePath;
+      this.method = method;
+    }
+
+    String name() {
+      StringBuilder builder = new StringBuilder();
+      builder.append("client.")
+          .append(contextPath);
+      if (method != null) {
+        builder.append(resourcePath);
+        builder.append('.');
+        builder.append(method);
+        builder.append("-requests");
+      }
+      return builder.toString();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof TimerKey)) {
+        return false;
+      }
+      TimerKey that = (TimerKey) other;
+      return Objects.equals(contextPath, that.contextPath)
+          && Objects.equals(resourcePath, that.resourcePath)
+          && Objects.equals(method, that.method);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (31 * Objects.hashCode(contextPath) + Objects.hashCode(resourcePath)) + Objects.hashCode(method);
     }
-    return metricRegistry.timer(builder.toString());
   }
 }
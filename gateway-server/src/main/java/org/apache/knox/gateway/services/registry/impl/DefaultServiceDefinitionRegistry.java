@@ -32,17 +32,21 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.stream.Collectors;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
@@ -57,31 +61,93 @@ import org.apache.knox.gateway.service.definition.Route;
 import org.apache.knox.gateway.service.definition.ServiceDefinition;
 import org.apache.knox.gateway.service.definition.ServiceDefinitionChangeListener;
 import org.apache.knox.gateway.service.definition.ServiceDefinitionPair;
+import org.apache.knox.gateway.service.definition.ServiceDefinitionPairComparator;
 import org.apache.knox.gateway.services.Service;
 import org.apache.knox.gateway.services.ServiceLifecycleException;
 import org.apache.knox.gateway.services.registry.ServiceDefEntry;
 import org.apache.knox.gateway.services.registry.ServiceDefinitionRegistry;
 import org.apache.knox.gateway.services.registry.ServiceDefinitionRegistryException;
 import org.apache.knox.gateway.util.ServiceDefinitionsLoader;
+import org.apache.knox.gateway.util.ServiceDefinitionsSnapshot;
 import org.apache.knox.gateway.util.urltemplate.Matcher;
 import org.apache.knox.gateway.util.urltemplate.Parser;
 import org.apache.knox.gateway.util.urltemplate.Template;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
 public class DefaultServiceDefinitionRegistry implements ServiceDefinitionRegistry, Service {
 
   private static GatewayMessages LOG = MessagesFactory.get(GatewayMessages.class);
 
-  private final ReadWriteLock lock = new ReentrantReadWriteLock();
-  private final Lock writeLock = lock.writeLock();
-  private final Lock readLock = lock.readLock();
+  /* URL patterns resolved by getMatchingService that are remembered per snapshot */
+  private static final int MAX_CACHED_MATCHES = 1024;
+
+  private final Lock writeLock = new ReentrantLock();
   private final Collection<ServiceDefinitionChangeListener> listeners = new HashSet<>();
   private final XmlUrlRewriteRulesExporter xmlRewriteRulesExporter = new XmlUrlRewriteRulesExporter();
+  private final AtomicLong revisions = new AtomicLong();
+  private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
 
   private GatewayConfig gatewayConfig;
-  private Matcher<ServiceDefEntry> entries = new Matcher<>();
-  private Set<ServiceDefinitionPair> serviceDefinitions;
   private JAXBContext jaxbContext;
 
+  /*
+   * The service definitions loaded from the services directory along with their indexes. A snapshot is never
+   * modified once published, readers use whichever snapshot is current without locking.
+   */
+  private static final class Snapshot {
+    final long revision;
+    final Set<ServiceDefinitionPair> serviceDefinitions;
+    final Map<String, List<ServiceDefinitionPair>> byRole = new HashMap<>();
+    final Map<String, ServiceDefinitionPair> byNameRoleAndVersion = new HashMap<>();
+    final Matcher<ServiceDefEntry> entries = new Matcher<>();
+    final Cache<String, Optional<ServiceDefEntry>> matches = Caffeine.newBuilder().maximumSize(MAX_CACHED_MATCHES).build();
+
+    Snapshot(long revision, Set<ServiceDefinitionPair> serviceDefinitions) {
+      this.revision = revision;
+      this.serviceDefinitions = Collections.unmodifiableSet(serviceDefinitions);
+      for (ServiceDefinitionPair serviceDefinitionPair : serviceDefinitions) {
+        final ServiceDefinition serviceDefinition = serviceDefinitionPair.getService();
+        byRole.computeIfAbsent(normalize(serviceDefinition.getRole()), role -> new ArrayList<>()).add(serviceDefinitionPair);
+        byNameRoleAndVersion.putIfAbsent(key(serviceDefinition.getName(), serviceDefinition.getRole(), serviceDefinition.getVersion()),
+            serviceDefinitionPair);
+        for (Route route : serviceDefinition.getRoutes()) {
+          try {
+            addServiceDefEntry(Parser.parseTemplate(route.getPath()), serviceDefinition);
+          } catch (URISyntaxException e) {
+            LOG.failedToParsePath(route.getPath(), e);
+          }
+        }
+      }
+    }
+
+    private void addServiceDefEntry(Template template, ServiceDefinition serviceDefinition) {
+      ServiceDefEntry entry = entries.get(template);
+      if (entry == null) {
+        entries.add(template, new DefaultServiceDefEntry(serviceDefinition.getRole(), serviceDefinition.getName(), template.getPattern()));
+      }
+    }
+
+    Optional<ServiceDefEntry> match(String urlPattern) {
+      Matcher<ServiceDefEntry>.Match match = null;
+      try {
+        match = entries.match(Parser.parseLiteral(urlPattern));
+      } catch (URISyntaxException e) {
+        LOG.failedToParsePath(urlPattern, e);
+      }
+      return match == null ? Optional.empty() : Optional.ofNullable(match.getValue());
+    }
+
+    static String normalize(String value) {
+      return value == null ? "" : value.toLowerCase(Locale.ROOT);
+    }
+
+    static String key(String name, String role, String version) {
+      return normalize(name) + '/' + normalize(role) + '/' + normalize(version);
+    }
+  }
+
   @Override
   public void init(GatewayConfig config, Map<String, String> options) throws ServiceLifecycleException {
     this.gatewayConfig = config;
@@ -94,26 +160,30 @@ public class DefaultServiceDefinitionRegistry implements ServiceDefinitionRegist
   }
 
   private void populateServiceDefinitions() {
-    serviceDefinitions = ServiceDefinitionsLoader.loadServiceDefinitions(new File(gatewayConfig.getGatewayServicesDir()));
-
-    for (ServiceDefinition serviceDefinition : getServices()) {
-      List<Route> routes = serviceDefinition.getRoutes();
-      for (Route route : routes) {
-        try {
-          Template template = Parser.parseTemplate(route.getPath());
-          addServiceDefEntry(template, serviceDefinition);
-        } catch (URISyntaxException e) {
-          LOG.failedToParsePath(route.getPath(), e);
-        }
-      }
-    }
+    final Set<ServiceDefinitionPair> serviceDefinitions = ServiceDefinitionsLoader.loadServiceDefinitions(new File(gatewayConfig.getGatewayServicesDir()),
+        ServiceDefinitionsSnapshot.getSnapshotFile(gatewayConfig));
+    publish(serviceDefinitions);
   }
 
-  private void addServiceDefEntry(Template template, ServiceDefinition serviceDefinition) {
-    ServiceDefEntry entry = entries.get(template);
-    if (entry == null) {
-      entries.add(template, new DefaultServiceDefEntry(serviceDefinition.getRole(), serviceDefinition.getName(), template.getPattern()));
+  private void publish(Set<ServiceDefinitionPair> serviceDefinitions) {
+    snapshot.set(new Snapshot(revisions.incrementAndGet(), serviceDefinitions));
+  }
+
+  /*
+   * Replaces the service definitions stored in the folder of the given name and version, all the other service
+   * definitions are kept as they are instead of loading them again.
+   */
+  private void replaceServiceDefinitions(String name, String version, ServiceDefinitionPair added) {
+    final Set<ServiceDefinitionPair> serviceDefinitions = new TreeSet<>(new ServiceDefinitionPairComparator());
+    for (ServiceDefinitionPair serviceDefinition : snapshot.get().serviceDefinitions) {
+      if (!(name.equals(serviceDefinition.getService().getName()) && version.equals(serviceDefinition.getService().getVersion()))) {
+        serviceDefinitions.add(serviceDefinition);
+      }
     }
+    if (added != null) {
+      serviceDefinitions.add(added);
+    }
+    publish(serviceDefinitions);
   }
 
   @Override
@@ -128,31 +198,36 @@ public class DefaultServiceDefinitionRegistry implements ServiceDefinitionRegist
 
   @Override
   public ServiceDefEntry getMatchingService(String urlPattern) {
-    readLock.lock();
-    try {
-      Matcher<ServiceDefEntry>.Match match = null;
-      try {
-        match = entries.match(Parser.parseLiteral(urlPattern));
-      } catch (URISyntaxException e) {
-        LOG.failedToParsePath(urlPattern, e);
-      }
-      if (match != null) {
-        return match.getValue();
-      }
-      return null;
-    } finally {
-      readLock.unlock();
-    }
+    final Snapshot current = snapshot.get();
+    return current.matches.get(urlPattern, current::match).orElse(null);
   }
 
   @Override
   public Set<ServiceDefinitionPair> getServiceDefinitions() {
-    readLock.lock();
-    try {
-      return Collections.unmodifiableSet(serviceDefinitions);
-    } finally {
-      readLock.unlock();
+    return snapshot.get().serviceDefinitions;
+  }
+
+  @Override
+  public Optional<ServiceDefinitionPair> getServiceDefinition(String role, String version) {
+    final List<ServiceDefinitionPair> serviceDefinitions = snapshot.get().byRole.get(Snapshot.normalize(role));
+    if (serviceDefinitions != null) {
+      for (ServiceDefinitionPair serviceDefinition : serviceDefinitions) {
+        if (version == null || version.equalsIgnoreCase(serviceDefinition.getService().getVersion())) {
+          return Optional.of(serviceDefinition);
+        }
+      }
     }
+    return Optional.empty();
+  }
+
+  @Override
+  public Optional<ServiceDefinitionPair> getServiceDefinition(String name, String role, String version) {
+    return Optional.ofNullable(snapshot.get().byNameRoleAndVersion.get(Snapshot.key(name, role, version)));
+  }
+
+  @Override
+  public long getRevision() {
+    return snapshot.get().revision;
   }
 
   @Override
@@ -169,18 +244,19 @@ public class DefaultServiceDefinitionRegistry implements ServiceDefinitionRegist
 
   public void saveOrUpdateServiceDefinition(ServiceDefinitionPair serviceDefinition, boolean allowUpdate) throws ServiceDefinitionRegistryException {
     final ServiceDefinition service = serviceDefinition.getService();
-    final Optional<ServiceDefinition> persistedServiceDefinition = findServiceDefinition(service.getName(), service.getRole(), service.getVersion());
+    final Optional<ServiceDefinitionPair> persistedServiceDefinition = getServiceDefinition(service.getName(), service.getRole(), service.getVersion());
     if (persistedServiceDefinition.isPresent() && !allowUpdate) {
       throw new ServiceDefinitionRegistryException("The requested service definition (" + serviceDefinition.toString() + ") already exists!");
     } else {
       writeLock.lock();
       try {
         final Path serviceDefinitionFolderPath = createServiceDefinitionFolders(service.getName(), service.getVersion());
-        writeOutServiceDefinitionFile(service, serviceDefinitionFolderPath);
+        final Path serviceDefinitionFilePath = writeOutServiceDefinitionFile(service, serviceDefinitionFolderPath);
         if (serviceDefinition.getRewriteRules() != null) {
           writeOutRewriteRules(serviceDefinition.getRewriteRules(), serviceDefinitionFolderPath);
         }
-        populateServiceDefinitions();
+        // only the saved service definition is read back, exactly as it would be loaded on the next start
+        replaceServiceDefinitions(service.getName(), service.getVersion(), ServiceDefinitionsLoader.loadServiceDefinition(serviceDefinitionFilePath.toFile()));
       } catch (JAXBException | IOException e) {
         throw new ServiceDefinitionRegistryException("Error while persisting service definition " + serviceDefinition.toString(), e);
       } finally {
@@ -195,13 +271,14 @@ public class DefaultServiceDefinitionRegistry implements ServiceDefinitionRegist
     return Files.createDirectories(serviceDefinitionPath);
   }
 
-  private void writeOutServiceDefinitionFile(ServiceDefinition serviceDefinition, Path serviceDefinitionFolderPath) throws JAXBException, IOException {
+  private Path writeOutServiceDefinitionFile(ServiceDefinition serviceDefinition, Path serviceDefinitionFolderPath) throws JAXBException, IOException {
     final Marshaller marshaller = getJaxbContext().createMarshaller();
     marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
-    try (BufferedWriter serviceDefinitionXmlFileWriter = newBufferedWriter(Paths.get(serviceDefinitionFolderPath.toAbsolutePath().toString(), SERVICE_DEFINITION_FILE_NAME),
-        UTF_8);) {
+    final Path serviceDefinitionFilePath = Paths.get(serviceDefinitionFolderPath.toAbsolutePath().toString(), SERVICE_DEFINITION_FILE_NAME);
+    try (BufferedWriter serviceDefinitionXmlFileWriter = newBufferedWriter(serviceDefinitionFilePath, UTF_8);) {
       marshaller.marshal(serviceDefinition, serviceDefinitionXmlFileWriter);
     }
+    return serviceDefinitionFilePath;
   }
 
   private void writeOutRewriteRules(UrlRewriteRulesDescriptor rewriteRules, Path serviceDefinitionFolderPath) throws IOException {
@@ -219,12 +296,12 @@ public class DefaultServiceDefinitionRegistry implements ServiceDefinitionRegist
 
   @Override
   public void deleteServiceDefinition(String name, String role, String version) throws ServiceDefinitionRegistryException {
-    final Optional<ServiceDefinition> serviceDefinition = findServiceDefinition(name, role, version);
+    final Optional<ServiceDefinitionPair> serviceDefinition = getServiceDefinition(name, role, version);
     if (serviceDefinition.isPresent()) {
       writeLock.lock();
       try {
         removeServiceDefinitionFolders(name, version);
-        populateServiceDefinitions();
+        replaceServiceDefinitions(name, version, null);
       } catch (IOException e) {
         throw new ServiceDefinitionRegistryException("Error while deleting service definition " + serviceDefinition.toString(), e);
       } finally {
@@ -237,14 +314,6 @@ public class DefaultServiceDefinitionRegistry implements ServiceDefinitionRegist
     }
   }
 
-  private Set<ServiceDefinition> getServices() {
-    return serviceDefinitions.stream().map(serviceDefinitionPair -> serviceDefinitionPair.getService()).collect(Collectors.toSet());
-  }
-
-  private Optional<ServiceDefinition> findServiceDefinition(String name, String role, String version) {
-    return getServices().stream().filter(sd -> sd.getName().equalsIgnoreCase(name) && sd.getRole().equalsIgnoreCase(role) && sd.getVersion().equalsIgnoreCase(version)).findFirst();
-  }
-
   private void removeServiceDefinitionFolders(String name, String version) throws IOException {
     // removing the given version folder and its content
     final Path serviceDefinitionPath = Paths.get(gatewayConfig.getGatewayServicesDir(), name, version);
@@ -61,6 +61,8 @@ import java.security.UnrecoverableKeyException;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.ECGenParameterSpec;
 import java.text.MessageFormat;
 import java.util.Collections;
 import java.util.HashSet;
@@ -77,6 +79,7 @@ public class DefaultKeystoreService implements KeystoreService {
   private static final String CERT_GEN_MODE = "hadoop.gateway.cert.gen.mode";
   private static final String CERT_GEN_MODE_LOCALHOST = "localhost";
   private static final String CERT_GEN_MODE_HOSTNAME = "hostname";
+  private static final String DEFAULT_KEY_ALGORITHM = "RSA";
   private static GatewayMessages LOG = MessagesFactory.get(GatewayMessages.class);
   private static GatewayResources RES = ResourcesFactory.get(GatewayResources.class);
 
@@ -179,27 +182,51 @@ public class DefaultKeystoreService implements KeystoreService {
   @Override
   public void addSelfSignedCertForGateway(String alias, char[] passphrase, String hostname)
       throws KeystoreServiceException {
-    addCertForGateway(alias, passphrase, hostname);
+    addCertForGateway(alias, passphrase, hostname, DEFAULT_KEY_ALGORITHM);
   }
 
-  private synchronized void addCertForGateway(String alias, char[] passphrase, String hostname)
+  @Override
+  public void addSelfSignedCertForGateway(String alias, char[] passphrase, String hostname, String keyAlgorithm)
+      throws KeystoreServiceException {
+    addCertForGateway(alias, passphrase, hostname, keyAlgorithm == null ? DEFAULT_KEY_ALGORITHM : keyAlgorithm);
+  }
+
+  private synchronized void addCertForGateway(String alias, char[] passphrase, String hostname, String keyAlgorithm)
       throws KeystoreServiceException {
-    KeyPairGenerator keyPairGenerator;
     try {
-      keyPairGenerator = KeyPairGenerator.getInstance("RSA");
-      keyPairGenerator.initialize(2048);
-      KeyPair KPair = keyPairGenerator.generateKeyPair();
+      final KeyPair KPair;
+      final String signatureAlgorithm;
+      switch (keyAlgorithm.toUpperCase(Locale.ROOT)) {
+        case "RSA":
+          KPair = generateKeyPair("RSA", null);
+          signatureAlgorithm = "SHA1withRSA";
+          break;
+        case "ES256":
+          KPair = generateKeyPair("EC", new ECGenParameterSpec("secp256r1"));
+          signatureAlgorithm = "SHA256withECDSA";
+          break;
+        case "ES384":
+          KPair = generateKeyPair("EC", new ECGenParameterSpec("secp384r1"));
+          signatureAlgorithm = "SHA384withECDSA";
+          break;
+        case "ES512":
+          KPair = generateKeyPair("EC", new ECGenParameterSpec("secp521r1"));
+          signatureAlgorithm = "SHA512withECDSA";
+          break;
+        default:
+          throw new KeystoreServiceException("Unsupported key algorithm: " + keyAlgorithm);
+      }
       if (hostname == null) {
         hostname = System.getProperty(CERT_GEN_MODE, CERT_GEN_MODE_LOCALHOST);
       }
       X509Certificate cert;
       if(hostname.equals(CERT_GEN_MODE_HOSTNAME)) {
         String dn = buildDistinguishedName(InetAddress.getLocalHost().getHostName());
-        cert = X509CertificateUtil.generateCertificate(dn, KPair, 365, "SHA1withRSA");
+        cert = X509CertificateUtil.generateCertificate(dn, KPair, 365, signatureAlgorithm);
       }
       else {
         String dn = buildDistinguishedName(hostname);
-        cert = X509CertificateUtil.generateCertificate(dn, KPair, 365, "SHA1withRSA");
+        cert = X509CertificateUtil.generateCertificate(dn, KPair, 365, signatureAlgorithm);
       }
 
       KeyStore privateKS = getKeystoreForGateway();
@@ -215,6 +242,16 @@ public class DefaultKeystoreService implements KeystoreService {
     }
   }
 
+  private static KeyPair generateKeyPair(String algorithm, AlgorithmParameterSpec parameters) throws GeneralSecurityException {
+    final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance(algorithm);
+    if (parameters == null) {
+      keyPairGenerator.initialize(2048);
+    } else {
+      keyPairGenerator.initialize(parameters);
+    }
+    return keyPairGenerator.generateKeyPair();
+  }
+
   private String buildDistinguishedName(String hostname) {
     MessageFormat headerFormatter = new MessageFormat(DN_TEMPLATE, Locale.ROOT);
     String[] paramArray = new String[1];
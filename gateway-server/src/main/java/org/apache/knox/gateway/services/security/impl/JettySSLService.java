@@ -226,6 +226,9 @@ public class JettySSLService implements SSLService {
     }
 
     sslContextFactory.setRenegotiationAllowed(config.isSSLRenegotiationAllowed());
+    // Resumed sessions let clients that open many connections skip the full handshake
+    sslContextFactory.setSslSessionCacheSize(config.getSslSessionCacheSize());
+    sslContextFactory.setSslSessionTimeout(config.getSslSessionTimeout());
     return sslContextFactory;
   }
 
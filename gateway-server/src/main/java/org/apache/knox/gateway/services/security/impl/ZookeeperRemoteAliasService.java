@@ -41,10 +41,12 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * An {@link AliasService} implementation based on zookeeper remote service registry.
@@ -145,21 +147,38 @@ public class ZookeeperRemoteAliasService extends AbstractAliasService {
      * Build an entry path for the given cluster and alias
      */
     private String buildAliasEntryName(final String clusterName, final String alias) {
+      final String aliasEntryName = getAliasEntryName(clusterName, alias);
+      if (shouldCreateTokensSubNode) {
+        ensureTokensSubNodes(clusterName, Collections.singleton(aliasEntryName));
+      }
+      return aliasEntryName;
+    }
+
+    private String getAliasEntryName(final String clusterName, final String alias) {
       final StringBuilder aliasEntryNameBuilder = new StringBuilder(buildClusterEntryName(clusterName));
       // Convert all alias names to lower case (JDK-4891485)
       final String lowercaseAlias = alias.toLowerCase(Locale.ROOT);
       if (shouldCreateTokensSubNode) {
         aliasEntryNameBuilder.append(TOKENS_SUB_NODE_PATH);
-        ensureEntry(aliasEntryNameBuilder.toString(), remoteClient); // the 'tokens' sub-node has to be created in ZK
         // the new sub-node name is the first 2 characters (if any) of the provided alias name
         final String newSubnodeName = lowercaseAlias.length() < 2 ? lowercaseAlias : lowercaseAlias.substring(0, 2);
         aliasEntryNameBuilder.append(PATH_SEPARATOR).append(newSubnodeName);
-        ensureEntry(aliasEntryNameBuilder.toString(), remoteClient); // the new sub-node has to be created in ZK
       }
 
       return aliasEntryNameBuilder.append(PATH_SEPARATOR).append(lowercaseAlias).toString();
     }
 
+    /**
+     * Ensure that the 'tokens' sub-node of the given cluster, and the sub-nodes holding the given alias entries, exist
+     */
+    private void ensureTokensSubNodes(final String clusterName, final Collection<String> aliasEntryNames) {
+      ensureEntry(buildClusterEntryName(clusterName) + TOKENS_SUB_NODE_PATH, remoteClient); // the 'tokens' sub-node has to be created in ZK
+      aliasEntryNames.stream()
+          .map(aliasEntryName -> aliasEntryName.substring(0, aliasEntryName.lastIndexOf(PATH_SEPARATOR)))
+          .distinct()
+          .forEach(subNode -> ensureEntry(subNode, remoteClient)); // the new sub-nodes have to be created in ZK
+    }
+
     /**
      * Build an entry path for the given cluster
      */
@@ -265,8 +284,25 @@ public class ZookeeperRemoteAliasService extends AbstractAliasService {
 
     @Override
     public void addAliasesForCluster(String clusterName, Map<String, String> credentials) throws AliasServiceException {
-        for (Map.Entry<String, String> credential : credentials.entrySet()) {
-            addAliasForCluster(clusterName, credential.getKey(), credential.getValue());
+        if (remoteClient != null && !credentials.isEmpty()) {
+            /* Ensure the entries are properly set up */
+            checkPathsExist(remoteClient);
+            ensureEntry(buildClusterEntryName(clusterName), remoteClient);
+
+            final Map<String, String> aliasEntries = new LinkedHashMap<>();
+            try {
+              for (Map.Entry<String, String> credential : credentials.entrySet()) {
+                aliasEntries.put(getAliasEntryName(clusterName, credential.getKey()), encrypt(credential.getValue()));
+              }
+            } catch (Exception e) {
+                throw new AliasServiceException(e);
+            }
+            if (shouldCreateTokensSubNode) {
+              ensureTokensSubNodes(clusterName, aliasEntries.keySet());
+            }
+
+            // all aliases are written with a single multi-op request
+            remoteClient.setEntriesData(aliasEntries);
         }
     }
 
@@ -288,8 +324,9 @@ public class ZookeeperRemoteAliasService extends AbstractAliasService {
 
     @Override
     public void removeAliasesForCluster(String clusterName, Set<String> aliases) throws AliasServiceException {
-        for (String alias : aliases) {
-            removeAliasForCluster(clusterName, alias);
+        if (remoteClient != null && !aliases.isEmpty()) {
+            // all aliases are deleted with a single multi-op request
+            remoteClient.deleteEntries(aliases.stream().map(alias -> getAliasEntryName(clusterName, alias)).collect(Collectors.toList()));
         }
     }
 
@@ -17,9 +17,13 @@
  */
 package org.apache.knox.gateway.services.token.impl;
 
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.Key;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
@@ -27,25 +31,34 @@ import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.Certificate;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
 import java.text.ParseException;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
 import com.nimbusds.jose.JOSEException;
 import com.nimbusds.jose.JOSEObjectType;
 import com.nimbusds.jose.JWSAlgorithm;
 import com.nimbusds.jose.JWSSigner;
 import com.nimbusds.jose.JWSVerifier;
 import com.nimbusds.jose.KeyLengthException;
+import com.nimbusds.jose.crypto.ECDSASigner;
 import com.nimbusds.jose.crypto.MACSigner;
-import com.nimbusds.jose.crypto.MACVerifier;
 import com.nimbusds.jose.crypto.RSASSASigner;
-import com.nimbusds.jose.crypto.RSASSAVerifier;
 import com.nimbusds.jose.jwk.source.JWKSource;
 import com.nimbusds.jose.jwk.source.RemoteJWKSet;
 import com.nimbusds.jose.proc.BadJOSEException;
@@ -58,6 +71,7 @@ import com.nimbusds.jwt.proc.ConfigurableJWTProcessor;
 import com.nimbusds.jwt.proc.DefaultJWTClaimsVerifier;
 import com.nimbusds.jwt.proc.DefaultJWTProcessor;
 import com.nimbusds.jwt.proc.JWTClaimsSetVerifier;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.knox.gateway.GatewayResources;
 import org.apache.knox.gateway.config.GatewayConfig;
 import org.apache.knox.gateway.i18n.messages.MessagesFactory;
@@ -79,9 +93,10 @@ public class DefaultTokenAuthorityService implements JWTokenAuthority, Service {
   private static final GatewayResources RESOURCES = ResourcesFactory.get(GatewayResources.class);
   private static final TokenAuthorityServiceMessages LOG = MessagesFactory.get(TokenAuthorityServiceMessages.class);
 
-  // Only standard RSA and HMAC signature algorithms are accepted
+  // Only standard RSA, ECDSA and HMAC signature algorithms are accepted
   // https://tools.ietf.org/html/rfc7518
-  private static final Set<String> SUPPORTED_PKI_SIG_ALGS = new HashSet<>(Arrays.asList("RS256", "RS384", "RS512", "PS256", "PS384", "PS512"));
+  private static final Set<String> SUPPORTED_PKI_SIG_ALGS = new HashSet<>(Arrays.asList("RS256", "RS384", "RS512", "PS256", "PS384", "PS512",
+      "ES256", "ES384", "ES512"));
   private static final Set<String> SUPPORTED_HMAC_SIG_ALGS = new HashSet<>(Arrays.asList("HS256", "HS384", "HS512"));
   private AliasService aliasService;
   private KeystoreService keystoreService;
@@ -89,9 +104,16 @@ public class DefaultTokenAuthorityService implements JWTokenAuthority, Service {
 
   private char[] cachedSigningKeyPassphrase;
   private byte[] cachedSigningHmacSecret;
-  private RSAPrivateKey signingKey;
+  private JWSSigner cachedHmacSigner;
+  private final AtomicReference<SigningKey> signingKey = new AtomicReference<>();
+  // signers of the keys requested by name, alias and passphrase when a token is issued
+  private Cache<String, JWSSigner> signers;
 
-  private Optional<String> cachedSigningKeyID = Optional.empty();
+  private TokenVerifierResolver verifierResolver;
+  private Ticker ticker = Ticker.systemTicker();
+  private long keystoreReloadInterval;
+  private final AtomicLong nextKeystoreCheck = new AtomicLong();
+  private final AtomicReference<String> keystoreStamp = new AtomicReference<>();
 
   public void setKeystoreService(KeystoreService ks) {
     this.keystoreService = ks;
@@ -101,14 +123,21 @@ public class DefaultTokenAuthorityService implements JWTokenAuthority, Service {
     this.aliasService = as;
   }
 
+  void setTicker(Ticker ticker) {
+    this.ticker = ticker;
+  }
+
   @Override
   public JWT issueToken(JWTokenAttributes jwtAttributes) throws TokenServiceException {
     final String algorithm = jwtAttributes.getAlgorithm();
+    SigningKey currentSigningKey = null;
     if(SUPPORTED_HMAC_SIG_ALGS.contains(algorithm)) {
       jwtAttributes.setKid(null);
       jwtAttributes.setJku(null);
     } else {
-      jwtAttributes.setKid(cachedSigningKeyID.isPresent() ? cachedSigningKeyID.get() : null);
+      checkSigningKeystore();
+      currentSigningKey = signingKey.get();
+      jwtAttributes.setKid(currentSigningKey != null ? currentSigningKey.kid.orElse(null) : null);
     }
     final JWT token = SUPPORTED_PKI_SIG_ALGS.contains(algorithm) || SUPPORTED_HMAC_SIG_ALGS.contains(algorithm)
         ? new JWTToken(jwtAttributes)
@@ -117,7 +146,8 @@ public class DefaultTokenAuthorityService implements JWTokenAuthority, Service {
       if (SUPPORTED_HMAC_SIG_ALGS.contains(algorithm)) {
         signTokenWithHMAC(token);
       } else {
-        signTokenWithRSA(token, jwtAttributes.getSigningKeystoreName(), jwtAttributes.getSigningKeystoreAlias(), jwtAttributes.getSigningKeystorePassphrase());
+        signTokenWithKey(token, JWSAlgorithm.parse(algorithm), currentSigningKey, jwtAttributes.getSigningKeystoreName(),
+            jwtAttributes.getSigningKeystoreAlias(), jwtAttributes.getSigningKeystorePassphrase());
       }
       return token;
     } else {
@@ -125,31 +155,59 @@ public class DefaultTokenAuthorityService implements JWTokenAuthority, Service {
     }
   }
 
-  private void signTokenWithRSA(final JWT token, String signingKeystoreName, String signingKeystoreAlias, char[] signingKeystorePassphrase) throws TokenServiceException {
-    try {
-      final RSAPrivateKey key = getSigningKey(signingKeystoreName, signingKeystoreAlias, signingKeystorePassphrase);
-      // allowWeakKey to not break existing 1024 bit certificates
-      final JWSSigner signer = new RSASSASigner(key, true);
-      token.sign(signer);
-    } catch (KeystoreServiceException e) {
-      throw new TokenServiceException(e);
+  private void signTokenWithKey(final JWT token, JWSAlgorithm algorithm, SigningKey currentSigningKey, String signingKeystoreName,
+      String signingKeystoreAlias, char[] signingKeystorePassphrase) throws TokenServiceException {
+    final JWSSigner signer = getSigner(currentSigningKey, signingKeystoreName, signingKeystoreAlias, signingKeystorePassphrase);
+    if (signer == null) {
+      throw new TokenServiceException("Cannot issue token - No signing key is available");
     }
+    // RSA keys sign RS* and PS* tokens, EC keys only the ES* algorithm of their curve
+    if (!signer.supportedJWSAlgorithms().contains(algorithm)) {
+      throw new TokenServiceException("Cannot issue token - The signing key does not support the algorithm " + algorithm);
+    }
+    token.sign(signer);
   }
 
-  private RSAPrivateKey getSigningKey(final String signingKeystoreName, final String signingKeystoreAlias, final char[] signingKeystorePassphrase)
-      throws KeystoreServiceException, TokenServiceException {
+  private JWSSigner getSigner(final SigningKey currentSigningKey, final String signingKeystoreName, final String signingKeystoreAlias,
+      final char[] signingKeystorePassphrase) throws TokenServiceException {
 
     if (signingKeystorePassphrase != null) {
-      return (RSAPrivateKey) keystoreService.getSigningKey(signingKeystoreName, getSigningKeyAlias(signingKeystoreAlias), getSigningKeyPassphrase(signingKeystorePassphrase));
+      final String alias = getSigningKeyAlias(signingKeystoreAlias);
+      final char[] passphrase = getSigningKeyPassphrase(signingKeystorePassphrase);
+      final String cacheKey = signingKeystoreName + '\0' + alias + '\0'
+          + Base64.getEncoder().encodeToString(DigestUtils.sha256(new String(passphrase)));
+      JWSSigner signer = signers.getIfPresent(cacheKey);
+      if (signer == null) {
+        try {
+          signer = createSigner(keystoreService.getSigningKey(signingKeystoreName, alias, passphrase));
+        } catch (KeystoreServiceException | JOSEException e) {
+          throw new TokenServiceException(e);
+        }
+        signers.put(cacheKey, signer);
+      }
+      return signer;
     }
 
-    return signingKey;
+    return currentSigningKey == null ? null : currentSigningKey.signer;
+  }
+
+  static JWSSigner createSigner(Key key) throws JOSEException {
+    if (key instanceof RSAPrivateKey) {
+      // allowWeakKey to not break existing 1024 bit certificates
+      return new RSASSASigner((RSAPrivateKey) key, true);
+    }
+    if (key instanceof ECPrivateKey) {
+      return new ECDSASigner((ECPrivateKey) key);
+    }
+    throw new JOSEException("Unsupported signing key: " + (key == null ? null : key.getAlgorithm()));
   }
 
   private void signTokenWithHMAC(final JWT token) throws TokenServiceException {
     try {
-      final JWSSigner signer = new MACSigner(getHmacSecret());
-      token.sign(signer);
+      if (cachedHmacSigner == null) {
+        cachedHmacSigner = new MACSigner(getHmacSecret());
+      }
+      token.sign(cachedHmacSigner);
     } catch (KeyLengthException e) {
       throw new TokenServiceException(e);
     }
@@ -193,27 +251,33 @@ public class DefaultTokenAuthorityService implements JWTokenAuthority, Service {
   @Override
   public boolean verifyToken(JWT token, RSAPublicKey publicKey) throws TokenServiceException {
     final String signatureAlgorithm = token.getSignatureAlgorithm().getName();
-    return SUPPORTED_HMAC_SIG_ALGS.contains(signatureAlgorithm) ? verifyTokenUsingHMAC(token) : verifyTokenUsingRSA(token, publicKey);
+    return SUPPORTED_HMAC_SIG_ALGS.contains(signatureAlgorithm) ? verifyTokenUsingHMAC(token) : verifyTokenUsingKey(token, publicKey);
   }
 
-  private boolean verifyTokenUsingRSA(JWT token, RSAPublicKey publicKey) throws TokenServiceException {
-    try {
-      PublicKey key = publicKey;
-      if (key == null) {
-        key = keystoreService.getSigningKeystore().getCertificate(getSigningKeyAlias()).getPublicKey();
+  private boolean verifyTokenUsingKey(JWT token, RSAPublicKey publicKey) throws TokenServiceException {
+    final JWSAlgorithm algorithm = token.getSignatureAlgorithm();
+    if (publicKey != null) {
+      return token.verify(verifierResolver.getVerifier(algorithm, publicKey));
+    }
+
+    // the key id selects the signing key, tokens without one are tried with all active signing keys
+    checkSigningKeystore();
+    final String kid = token.getClaim(JWTToken.KNOX_KID_CLAIM);
+    final List<JWSVerifier> verifiers = verifierResolver.getSigningKeyVerifiers(kid, algorithm);
+    if (verifiers.isEmpty() && kid != null) {
+      LOG.unknownSigningKeyId(kid);
+    }
+    for (JWSVerifier verifier : verifiers) {
+      if (token.verify(verifier)) {
+        return true;
       }
-      final JWSVerifier verifier = new RSASSAVerifier((RSAPublicKey) key);
-      // TODO: interrogate the token for issuer claim in order to determine the public key to use for verification
-      // consider jwk for specifying the key too
-      return token.verify(verifier);
-    } catch (KeyStoreException | KeystoreServiceException e) {
-      throw new TokenServiceException("Cannot verify token.", e);
     }
+    return false;
   }
 
   private boolean verifyTokenUsingHMAC(JWT token) throws TokenServiceException {
     try {
-      final JWSVerifier verifier = new MACVerifier(getHmacSecret());
+      final JWSVerifier verifier = verifierResolver.getHmacVerifier(token.getSignatureAlgorithm(), getHmacSecret());
       return token.verify(verifier);
     } catch (JOSEException e) {
       throw new TokenServiceException("Cannot verify token.", e);
@@ -255,12 +319,20 @@ public class DefaultTokenAuthorityService implements JWTokenAuthority, Service {
       throw new ServiceLifecycleException("Alias or Keystore service is not set");
     }
     this.config = config;
+    this.verifierResolver = new TokenVerifierResolver(config.getSigningKeyVerifierCacheTimeToLive(), config.getSigningKeyRotationOverlap(), ticker);
+    this.keystoreReloadInterval = TimeUnit.SECONDS.toNanos(config.getSigningKeystoreReloadInterval());
+    this.signers = Caffeine.newBuilder()
+        .expireAfterWrite(config.getSigningKeyVerifierCacheTimeToLive(), TimeUnit.SECONDS)
+        .ticker(ticker)
+        .build();
   }
 
   @Override
   public void start() throws ServiceLifecycleException {
     // Ensure that the default signing keystore is available
     KeyStore keystore;
+    keystoreStamp.set(getSigningKeystoreStamp());
+    nextKeystoreCheck.set(ticker.read() + keystoreReloadInterval);
     try {
       keystore = keystoreService.getSigningKeystore();
       if (keystore == null) {
@@ -280,28 +352,34 @@ public class DefaultTokenAuthorityService implements JWTokenAuthority, Service {
       throw new ServiceLifecycleException(RESOURCES.signingKeyPassphraseNotAvailable(config.getSigningKeyPassphraseAlias()), e);
     }
 
-    String signingKeyAlias = getSigningKeyAlias();
+    setSigningKey(loadSigningKey(keystore, getSigningKeyAlias()));
+  }
 
+  private SigningKey loadSigningKey(KeyStore keystore, String signingKeyAlias) throws ServiceLifecycleException {
     // Ensure that the public signing keys is available
+    PublicKey publicKey;
+    Optional<String> kid;
     try {
       Certificate certificate = keystore.getCertificate(signingKeyAlias);
       if(certificate == null) {
         throw new ServiceLifecycleException(RESOURCES.publicSigningKeyNotFound(signingKeyAlias));
       }
-      PublicKey publicKey = certificate.getPublicKey();
+      publicKey = certificate.getPublicKey();
       if (publicKey == null) {
         throw new ServiceLifecycleException(RESOURCES.publicSigningKeyNotFound(signingKeyAlias));
       }
-      else if (! (publicKey instanceof  RSAPublicKey)) {
+      else if (! (publicKey instanceof RSAPublicKey || publicKey instanceof ECPublicKey)) {
         throw new ServiceLifecycleException(RESOURCES.publicSigningKeyWrongType(signingKeyAlias));
       }
-      cachedSigningKeyID = Optional.of(TokenUtils.getThumbprint((RSAPublicKey) publicKey, "SHA-256"));
     } catch (KeyStoreException e) {
       throw new ServiceLifecycleException(RESOURCES.publicSigningKeyNotFound(signingKeyAlias), e);
+    }
+    try {
+      kid = Optional.of(TokenUtils.getThumbprint(publicKey, "SHA-256"));
     } catch (final JOSEException e) {
       /* in case there is an error getting KID log and move one */
       LOG.errorGettingKid(e.toString());
-      cachedSigningKeyID = Optional.empty();
+      kid = Optional.empty();
     }
 
     // Ensure that the private signing keys is available
@@ -310,20 +388,93 @@ public class DefaultTokenAuthorityService implements JWTokenAuthority, Service {
       if (key == null) {
         throw new ServiceLifecycleException(RESOURCES.privateSigningKeyNotFound(signingKeyAlias));
       }
-      else if (! (key instanceof RSAPrivateKey)) {
+      else if (! (key instanceof RSAPrivateKey || key instanceof ECPrivateKey)) {
         throw new ServiceLifecycleException(RESOURCES.privateSigningKeyWrongType(signingKeyAlias));
       }
-      signingKey = (RSAPrivateKey) key;
+      // the signer is created once per signing key, it is safe to be shared
+      return new SigningKey(kid, publicKey, createSigner(key));
+    } catch (JOSEException e) {
+      throw new ServiceLifecycleException(RESOURCES.privateSigningKeyWrongType(signingKeyAlias), e);
     } catch (KeyStoreException | NoSuchAlgorithmException | UnrecoverableKeyException e) {
       throw new ServiceLifecycleException(RESOURCES.privateSigningKeyNotFound(signingKeyAlias), e);
     }
   }
 
+  private void setSigningKey(SigningKey key) {
+    final SigningKey previous = signingKey.getAndSet(key);
+    verifierResolver.setSigningKey(key.kid.orElse(null), key.publicKey);
+    if (previous != null && !previous.publicKey.equals(key.publicKey)) {
+      LOG.signingKeyChanged(key.kid.orElse(null));
+    }
+  }
+
+  /*
+   * Reloads the signing key when the signing keystore changed since it was last checked.
+   * Only one caller checks per reload interval, the others go on with the current keys.
+   */
+  private void checkSigningKeystore() {
+    final long now = ticker.read();
+    final long next = nextKeystoreCheck.get();
+    if (now - next < 0 || !nextKeystoreCheck.compareAndSet(next, now + keystoreReloadInterval)) {
+      return;
+    }
+    final String stamp = getSigningKeystoreStamp();
+    if (stamp != null && !stamp.equals(keystoreStamp.getAndSet(stamp))) {
+      reloadSigningKey();
+    }
+  }
+
+  /**
+   * Reloads the signing key from the signing keystore and drops the cached
+   * signers and verifiers. The previous signing key stays active for verification for the
+   * configured overlap window. The current keys are kept if the keystore can
+   * not be loaded.
+   */
+  void reloadSigningKey() {
+    try {
+      final KeyStore keystore = keystoreService.getSigningKeystore();
+      if (keystore == null) {
+        throw new ServiceLifecycleException(RESOURCES.signingKeystoreNotAvailable(config.getSigningKeystorePath()));
+      }
+      setSigningKey(loadSigningKey(keystore, getSigningKeyAlias()));
+    } catch (KeystoreServiceException | ServiceLifecycleException e) {
+      LOG.failedToReloadSigningKey(config.getSigningKeystorePath(), e.getMessage());
+    }
+    signers.invalidateAll();
+    verifierResolver.invalidate();
+  }
+
+  private String getSigningKeystoreStamp() {
+    final String keystorePath = config.getSigningKeystorePath();
+    if (keystorePath == null) {
+      return null;
+    }
+    try {
+      final Path path = Paths.get(keystorePath);
+      return Files.getLastModifiedTime(path).toMillis() + "/" + Files.size(path);
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
   @Override
   public void stop() throws ServiceLifecycleException {
   }
 
   protected Optional<String> getCachedSigningKeyID() {
-    return cachedSigningKeyID;
+    final SigningKey current = signingKey.get();
+    return current == null ? Optional.empty() : current.kid;
+  }
+
+  private static class SigningKey {
+    final Optional<String> kid;
+    final PublicKey publicKey;
+    final JWSSigner signer;
+
+    SigningKey(Optional<String> kid, PublicKey publicKey, JWSSigner signer) {
+      this.kid = kid;
+      this.publicKey = publicKey;
+      this.signer = signer;
+    }
   }
 }
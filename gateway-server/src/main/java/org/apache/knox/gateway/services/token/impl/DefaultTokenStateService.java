@@ -62,6 +62,9 @@ public class DefaultTokenStateService implements TokenStateService {
 
   protected static final long DEFAULT_MAX_LIFETIME = MAX_RENEWALS * DEFAULT_RENEWAL_INTERVAL; // 7 days
 
+  /* A renewal is refused unless it leaves at least this much time before the token's maximum lifetime */
+  protected static final long RENEWAL_BUFFER = TimeUnit.SECONDS.toMillis(30);
+
   protected static final TokenStateServiceMessages log = MessagesFactory.get(TokenStateServiceMessages.class);
 
   private final Map<String, Long> tokenExpirations = new ConcurrentHashMap<>();
@@ -265,6 +268,19 @@ public class DefaultTokenStateService implements TokenStateService {
     log.revokedToken(Tokens.getTokenIDDisplayText(tokenId));
   }
 
+  @Override
+  public Set<String> revokeTokens(final Set<String> tokenIds) {
+    final Set<String> knownTokenIds = tokenIds.stream()
+        .filter(tokenId -> tokenId != null && !tokenId.isEmpty() && !isUnknown(tokenId))
+        .collect(Collectors.toSet());
+    if (!knownTokenIds.isEmpty()) {
+      /* no reason to keep revoked tokens around; remove them all at once */
+      removeTokens(knownTokenIds);
+      log.revokedTokens(String.join(", ", Tokens.getDisplayableTokenIDsText(knownTokenIds)));
+    }
+    return knownTokenIds;
+  }
+
   @Override
   public boolean isExpired(final JWTToken token) throws UnknownTokenException {
     return getTokenExpiration(token) <= System.currentTimeMillis();
@@ -314,7 +330,7 @@ public class DefaultTokenStateService implements TokenStateService {
 
   protected boolean hasRemainingRenewals(final String tokenId, long renewInterval) {
     // If the current time + buffer + the renewal interval is less than the max lifetime for the token?
-    return ((System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30) + renewInterval) < getMaxLifetime(tokenId));
+    return ((System.currentTimeMillis() + RENEWAL_BUFFER + renewInterval) < getMaxLifetime(tokenId));
   }
 
   protected long getMaxLifetime(final String tokenId) {
@@ -411,6 +427,18 @@ public class DefaultTokenStateService implements TokenStateService {
     metadataMap.put(tokenId, metadata);
   }
 
+  /**
+   * Updates the enabled flag in the in-memory metadata of the specified tokens, if present.
+   */
+  protected void setEnabledInMemory(final Set<String> tokenIds, boolean enabled) {
+    for (String tokenId : tokenIds) {
+      final TokenMetadata metadata = metadataMap.get(tokenId);
+      if (metadata != null) {
+        metadata.setEnabled(enabled);
+      }
+    }
+  }
+
   @Override
   public TokenMetadata getTokenMetadata(String tokenId) throws UnknownTokenException {
     if (!metadataMap.containsKey(tokenId)) {
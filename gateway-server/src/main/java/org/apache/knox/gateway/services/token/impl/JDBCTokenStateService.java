@@ -20,6 +20,8 @@ package org.apache.knox.gateway.services.token.impl;
 import java.sql.SQLException;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
@@ -35,6 +37,7 @@ import org.apache.knox.gateway.services.security.AliasService;
 import org.apache.knox.gateway.services.security.token.KnoxToken;
 import org.apache.knox.gateway.services.security.token.TokenMetadata;
 import org.apache.knox.gateway.services.security.token.TokenStateServiceException;
+import org.apache.knox.gateway.services.security.token.TokenValidationView;
 import org.apache.knox.gateway.services.security.token.UnknownTokenException;
 import org.apache.knox.gateway.util.JDBCUtils;
 import org.apache.knox.gateway.util.Tokens;
@@ -207,6 +210,69 @@ public class JDBCTokenStateService extends AbstractPersistentTokenStateService {
     }
   }
 
+  @Override
+  public Set<String> revokeTokens(Set<String> tokenIds) {
+    final String displayableTokenIds = String.join(", ", Tokens.getDisplayableTokenIDsText(tokenIds));
+    try {
+      final Set<String> removed = tokenDatabase.removeTokens(tokenIds);
+      if (!removed.isEmpty()) {
+        log.removedTokenBatchFromDatabase(String.join(", ", Tokens.getDisplayableTokenIDsText(removed)));
+
+        // remove from in-memory collections
+        super.removeTokens(removed);
+      }
+      return removed;
+    } catch (SQLException e) {
+      log.errorRemovingTokenBatchFromDatabase(displayableTokenIds, e.getMessage(), e);
+      throw new TokenStateServiceException("An error occurred while removing tokens " + displayableTokenIds + " from the database", e);
+    }
+  }
+
+  @Override
+  public Set<String> setTokensEnabled(Set<String> tokenIds, boolean enabled) {
+    final String displayableTokenIds = String.join(", ", Tokens.getDisplayableTokenIDsText(tokenIds));
+    try {
+      final Set<String> updated = tokenDatabase.setEnabled(tokenIds, enabled);
+      if (!updated.isEmpty()) {
+        log.updatedEnabledFlagInDatabase(String.join(", ", Tokens.getDisplayableTokenIDsText(updated)), enabled);
+
+        // Update in-memory
+        super.setEnabledInMemory(updated, enabled);
+      }
+      return updated;
+    } catch (SQLException e) {
+      log.errorUpdatingEnabledFlagInDatabase(displayableTokenIds, e.getMessage(), e);
+      throw new TokenStateServiceException("An error occurred while updating the enabled flag of tokens " + displayableTokenIds + " in the database", e);
+    }
+  }
+
+  @Override
+  public Map<String, Long> renewTokens(Set<String> tokenIds, long renewInterval) {
+    final String displayableTokenIds = String.join(", ", Tokens.getDisplayableTokenIDsText(tokenIds));
+    final long now = System.currentTimeMillis();
+    final long expiration = now + renewInterval;
+    try {
+      // Tokens whose maximum lifetime would be exceeded are left as they are, just like in hasRemainingRenewals
+      final Set<String> renewed = tokenDatabase.renewTokens(tokenIds, expiration, now + RENEWAL_BUFFER + renewInterval);
+      final Map<String, Long> expirations = new HashMap<>();
+      for (String tokenId : renewed) {
+        // Update in-memory
+        super.updateExpiration(tokenId, expiration);
+        expirations.put(tokenId, expiration);
+        if (tokenStateServiceStatistics != null) {
+          tokenStateServiceStatistics.renewToken();
+        }
+      }
+      if (!renewed.isEmpty()) {
+        log.renewedTokenBatchInDatabase(String.join(", ", Tokens.getDisplayableTokenIDsText(renewed)), expiration);
+      }
+      return expirations;
+    } catch (SQLException e) {
+      log.errorRenewingTokenBatchInDatabase(displayableTokenIds, e.getMessage(), e);
+      throw new TokenStateServiceException("An error occurred while renewing tokens " + displayableTokenIds + " in the database", e);
+    }
+  }
+
   @Override
   protected void evictExpiredTokens() {
     try {
@@ -249,28 +315,18 @@ public class JDBCTokenStateService extends AbstractPersistentTokenStateService {
   private boolean saveMetadataMapInDatabase(String tokenId, Map<String, String> metadataMap) throws SQLException {
     addMetadataLock.lock();
     try {
-      boolean saved = false;
+      final Map<String, String> metadataToSave = new LinkedHashMap<>();
       for (Map.Entry<String, String> metadataMapEntry : metadataMap.entrySet()) {
         if (StringUtils.isNotBlank(metadataMapEntry.getValue())) {
-          if (upsertTokenMetadata(tokenId, metadataMapEntry.getKey(), metadataMapEntry.getValue())) {
-            saved = true;
-          }
+          metadataToSave.put(metadataMapEntry.getKey(), metadataMapEntry.getValue());
         }
       }
-      return saved;
+      return tokenDatabase.upsertMetadata(tokenId, metadataToSave);
     } finally {
       addMetadataLock.unlock();
     }
   }
 
-  private boolean upsertTokenMetadata(String tokenId, String metadataName, String metadataValue) throws SQLException {
-    if (!tokenDatabase.updateMetadata(tokenId, metadataName, metadataValue)) {
-      return tokenDatabase.addMetadata(tokenId, metadataName, metadataValue);
-    } else {
-      return true; //successfully updated
-    }
-  }
-
   @Override
   public TokenMetadata getTokenMetadata(String tokenId) throws UnknownTokenException {
     // To support HA, there is no in-memory lookup here; we should go directly to the DB.
@@ -294,6 +350,23 @@ public class JDBCTokenStateService extends AbstractPersistentTokenStateService {
     return tokenMetadata;
   }
 
+  @Override
+  public TokenValidationView getTokenValidationView(String tokenId) throws UnknownTokenException {
+    // One query instead of the separate expiration, metadata and issue time look-ups
+    try {
+      final TokenValidationView tokenValidationView = tokenDatabase.getTokenValidationView(tokenId);
+      if (tokenValidationView == null || tokenValidationView.getMetadata() == null) {
+        throw new UnknownTokenException(tokenId);
+      }
+      log.fetchedTokenValidationViewFromDatabase(Tokens.getTokenIDDisplayText(tokenId));
+      return tokenValidationView;
+    } catch (SQLException e) {
+      log.errorFetchingTokenValidationViewFromDatabase(Tokens.getTokenIDDisplayText(tokenId), e.getMessage(), e);
+      // Same outcome as the individual getters when the database is unavailable
+      return new TokenValidationView(tokenId, TokenValidationView.UNKNOWN_ISSUE_TIME, 0L, null);
+    }
+  }
+
   @Override
   public Collection<KnoxToken> getTokens(String userName) {
     try {
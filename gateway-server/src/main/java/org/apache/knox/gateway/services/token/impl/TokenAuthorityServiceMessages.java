@@ -25,4 +25,13 @@ import org.apache.knox.gateway.i18n.messages.Messages;
 public interface TokenAuthorityServiceMessages {
   @Message(level = MessageLevel.ERROR, text = "There was an error getting kid, cause: {0}")
   void errorGettingKid(String message);
+
+  @Message(level = MessageLevel.INFO, text = "The signing key changed, its kid is {0}")
+  void signingKeyChanged(String kid);
+
+  @Message(level = MessageLevel.WARN, text = "Failed to reload the signing key from {0}, keeping the current keys: {1}")
+  void failedToReloadSigningKey(String keystorePath, String message);
+
+  @Message(level = MessageLevel.DEBUG, text = "No active signing key has the kid {0}")
+  void unknownSigningKeyId(String kid);
 }
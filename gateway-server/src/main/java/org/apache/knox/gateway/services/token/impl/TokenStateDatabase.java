@@ -19,82 +19,72 @@ package org.apache.knox.gateway.services.token.impl;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
-import java.io.InputStream;
 import java.sql.Connection;
-import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 import javax.sql.DataSource;
 
 import org.apache.commons.codec.binary.Base64;
-import org.apache.commons.io.IOUtils;
 import org.apache.knox.gateway.services.security.token.KnoxToken;
 import org.apache.knox.gateway.services.security.token.TokenMetadata;
+import org.apache.knox.gateway.services.security.token.TokenValidationView;
 
 public class TokenStateDatabase {
-  private static final String TOKENS_TABLE_CREATE_SQL_FILE_NAME = "createKnoxTokenDatabaseTable.sql";
-  private static final String TOKEN_METADATA_TABLE_CREATE_SQL_FILE_NAME = "createKnoxTokenMetadataDatabaseTable.sql";
   static final String TOKENS_TABLE_NAME = "KNOX_TOKENS";
   static final String TOKEN_METADATA_TABLE_NAME = "KNOX_TOKEN_METADATA";
   private static final String ADD_TOKEN_SQL = "INSERT INTO " + TOKENS_TABLE_NAME + "(token_id, issue_time, expiration, max_lifetime) VALUES(?, ?, ?, ?)";
   private static final String REMOVE_TOKEN_SQL = "DELETE FROM " + TOKENS_TABLE_NAME + " WHERE token_id = ?";
-  private static final String GET_EXPIRED_TOKENS_SQL = "SELECT token_id FROM " + TOKENS_TABLE_NAME + " WHERE expiration < ?";
+  static final String GET_EXPIRED_TOKENS_SQL = "SELECT token_id FROM " + TOKENS_TABLE_NAME + " WHERE expiration < ?";
   private static final String REMOVE_EXPIRED_TOKENS_SQL = "DELETE FROM " + TOKENS_TABLE_NAME + " WHERE expiration < ?";
   static final String GET_TOKEN_ISSUE_TIME_SQL = "SELECT issue_time FROM " + TOKENS_TABLE_NAME + " WHERE token_id = ?";
   static final String GET_TOKEN_EXPIRATION_SQL = "SELECT expiration FROM " + TOKENS_TABLE_NAME + " WHERE token_id = ?";
   private static final String UPDATE_TOKEN_EXPIRATION_SQL = "UPDATE " + TOKENS_TABLE_NAME + " SET expiration = ? WHERE token_id = ?";
+  private static final String RENEW_TOKEN_SQL = UPDATE_TOKEN_EXPIRATION_SQL + " AND max_lifetime > ?";
   static final String GET_MAX_LIFETIME_SQL = "SELECT max_lifetime FROM " + TOKENS_TABLE_NAME + " WHERE token_id = ?";
   private static final String ADD_METADATA_SQL = "INSERT INTO " + TOKEN_METADATA_TABLE_NAME + "(token_id, md_name, md_value) VALUES(?, ?, ?)";
   private static final String UPDATE_METADATA_SQL = "UPDATE " + TOKEN_METADATA_TABLE_NAME + " SET md_value = ? WHERE token_id = ? AND md_name = ?";
+  private static final String UPDATE_ENABLED_SQL = "UPDATE " + TOKENS_TABLE_NAME + " SET enabled = ? WHERE token_id = ?";
+  // the flag is inlined in the following statements as some databases cannot infer the type of parameters in a select list
+  private static final String UPDATE_ENABLED_METADATA_SQL = "UPDATE " + TOKEN_METADATA_TABLE_NAME + " SET md_value = '%1$s' WHERE token_id = ? AND md_name = '"
+      + TokenMetadata.ENABLED + "' AND md_value <> '%1$s'";
+  private static final String ADD_ENABLED_METADATA_SQL = "INSERT INTO " + TOKEN_METADATA_TABLE_NAME + "(token_id, md_name, md_value) SELECT kt.token_id, '"
+      + TokenMetadata.ENABLED + "', '%1$s' FROM " + TOKENS_TABLE_NAME + " kt WHERE kt.token_id = ? AND NOT EXISTS (SELECT 1 FROM " + TOKEN_METADATA_TABLE_NAME
+      + " ktm WHERE ktm.token_id = kt.token_id AND ktm.md_name = '" + TokenMetadata.ENABLED + "')";
   private static final String GET_METADATA_SQL = "SELECT md_name, md_value FROM " + TOKEN_METADATA_TABLE_NAME + " WHERE token_id = ?";
-  private static final String GET_TOKENS_BY_USER_NAME_SQL = "SELECT kt.token_id, kt.issue_time, kt.expiration, kt.max_lifetime, ktm.md_name, ktm.md_value FROM " + TOKENS_TABLE_NAME
-      + " kt, " + TOKEN_METADATA_TABLE_NAME + " ktm WHERE kt.token_id = ktm.token_id AND kt.token_id IN (SELECT token_id FROM " + TOKEN_METADATA_TABLE_NAME + " WHERE md_name = '" + TokenMetadata.USER_NAME + "' AND md_value = ? )"
-      + " ORDER BY kt.issue_time";
-  private static final String GET_TOKENS_CREATED_BY_USER_NAME_SQL = "SELECT kt.token_id, kt.issue_time, kt.expiration, kt.max_lifetime, ktm.md_name, ktm.md_value FROM " + TOKENS_TABLE_NAME
-      + " kt, " + TOKEN_METADATA_TABLE_NAME + " ktm WHERE kt.token_id = ktm.token_id AND kt.token_id IN (SELECT token_id FROM " + TOKEN_METADATA_TABLE_NAME + " WHERE md_name = '" + TokenMetadata.CREATED_BY + "' AND md_value = ? )"
-      + " ORDER BY kt.issue_time";
+  private static final String GET_METADATA_NAMES_SQL = "SELECT md_name FROM " + TOKEN_METADATA_TABLE_NAME + " WHERE token_id = ?";
+  static final String GET_TOKEN_VALIDATION_VIEW_SQL = "SELECT kt.issue_time, kt.expiration, ktm.md_name, ktm.md_value FROM " + TOKENS_TABLE_NAME
+      + " kt LEFT OUTER JOIN " + TOKEN_METADATA_TABLE_NAME + " ktm ON kt.token_id = ktm.token_id WHERE kt.token_id = ?";
+  static final String GET_TOKENS_BY_USER_NAME_SQL = "SELECT kt.token_id, kt.issue_time, kt.expiration, kt.max_lifetime, ktm.md_name, ktm.md_value FROM " + TOKENS_TABLE_NAME
+      + " kt, " + TOKEN_METADATA_TABLE_NAME + " ktm WHERE kt.token_id = ktm.token_id AND kt.user_name = ? ORDER BY kt.issue_time";
+  static final String GET_TOKENS_CREATED_BY_USER_NAME_SQL = "SELECT kt.token_id, kt.issue_time, kt.expiration, kt.max_lifetime, ktm.md_name, ktm.md_value FROM " + TOKENS_TABLE_NAME
+      + " kt, " + TOKEN_METADATA_TABLE_NAME + " ktm WHERE kt.token_id = ktm.token_id AND kt.created_by = ? ORDER BY kt.issue_time";
+
+  // The metadata which is also kept in indexed columns of the tokens table, by metadata name
+  private static final Map<String, String> PROMOTED_METADATA_COLUMNS = new LinkedHashMap<>();
+  static {
+    PROMOTED_METADATA_COLUMNS.put(TokenMetadata.USER_NAME, "user_name");
+    PROMOTED_METADATA_COLUMNS.put(TokenMetadata.CREATED_BY, "created_by");
+    PROMOTED_METADATA_COLUMNS.put(TokenMetadata.ENABLED, "enabled");
+  }
 
   private final DataSource dataSource;
 
   TokenStateDatabase(DataSource dataSource) throws Exception {
     this.dataSource = dataSource;
-    createTableIfNotExists(TOKENS_TABLE_NAME, TOKENS_TABLE_CREATE_SQL_FILE_NAME);
-    createTableIfNotExists(TOKEN_METADATA_TABLE_NAME, TOKEN_METADATA_TABLE_CREATE_SQL_FILE_NAME);
-  }
-
-  private void createTableIfNotExists(String tableName, String createSqlFileName) throws Exception {
-    if (!isTableExists(tableName)) {
-      createTable(createSqlFileName);
-    }
-  }
-
-  private boolean isTableExists(String tableName) throws SQLException {
-    boolean exists = false;
-    try (Connection connection = dataSource.getConnection()) {
-      final DatabaseMetaData dbMetadata = connection.getMetaData();
-      final String tableNameToCheck = dbMetadata.storesUpperCaseIdentifiers() ? tableName : tableName.toLowerCase(Locale.ROOT);
-      try (ResultSet tables = dbMetadata.getTables(connection.getCatalog(), null, tableNameToCheck, null)) {
-        exists = tables.next();
-      }
-    }
-    return exists;
-  }
-
-  private void createTable(String createSqlFileName) throws Exception {
-    final InputStream is = TokenStateDatabase.class.getClassLoader().getResourceAsStream(createSqlFileName);
-    final String createTableSql = IOUtils.toString(is, UTF_8);
-    try (Connection connection = dataSource.getConnection(); Statement createTableStatment = connection.createStatement();) {
-      createTableStatment.execute(createTableSql);
-    }
+    new TokenStateDatabaseSchema(dataSource).upgrade();
   }
 
   boolean addToken(String tokenId, long issueTime, long expiration, long maxLifetimeDuration) throws SQLException {
@@ -114,6 +104,38 @@ public class TokenStateDatabase {
     }
   }
 
+  /**
+   * Removes the given tokens, along with their metadata, with a single batch in one transaction.
+   *
+   * @return the identifiers of the tokens which were removed
+   */
+  Set<String> removeTokens(Set<String> tokenIds) throws SQLException {
+    final List<String> orderedTokenIds = new ArrayList<>(tokenIds);
+    if (orderedTokenIds.isEmpty()) {
+      return Collections.emptySet();
+    }
+    try (Connection connection = dataSource.getConnection()) {
+      connection.setAutoCommit(false);
+      try {
+        final Set<String> removed;
+        try (PreparedStatement removeTokenStatement = connection.prepareStatement(REMOVE_TOKEN_SQL)) {
+          for (String tokenId : orderedTokenIds) {
+            removeTokenStatement.setString(1, tokenId);
+            removeTokenStatement.addBatch();
+          }
+          removed = getUpdatedTokenIds(orderedTokenIds, removeTokenStatement.executeBatch());
+        }
+        connection.commit();
+        return removed;
+      } catch (SQLException e) {
+        connection.rollback();
+        throw e;
+      } finally {
+        connection.setAutoCommit(true);
+      }
+    }
+  }
+
   long getTokenIssueTime(String tokenId) throws SQLException {
     try (Connection connection = dataSource.getConnection(); PreparedStatement getTokenExpirationStatement = connection.prepareStatement(GET_TOKEN_ISSUE_TIME_SQL)) {
       getTokenExpirationStatement.setString(1, tokenId);
@@ -140,6 +162,41 @@ public class TokenStateDatabase {
     }
   }
 
+  /**
+   * Sets the given expiration for the tokens whose maximum lifetime is after the given limit, with a single batch in
+   * one transaction.
+   *
+   * @return the identifiers of the tokens which were renewed
+   */
+  Set<String> renewTokens(Set<String> tokenIds, long expiration, long maxLifetimeLimit) throws SQLException {
+    final List<String> orderedTokenIds = new ArrayList<>(tokenIds);
+    if (orderedTokenIds.isEmpty()) {
+      return Collections.emptySet();
+    }
+    try (Connection connection = dataSource.getConnection()) {
+      connection.setAutoCommit(false);
+      try {
+        final Set<String> renewed;
+        try (PreparedStatement renewTokenStatement = connection.prepareStatement(RENEW_TOKEN_SQL)) {
+          for (String tokenId : orderedTokenIds) {
+            renewTokenStatement.setLong(1, expiration);
+            renewTokenStatement.setString(2, tokenId);
+            renewTokenStatement.setLong(3, maxLifetimeLimit);
+            renewTokenStatement.addBatch();
+          }
+          renewed = getUpdatedTokenIds(orderedTokenIds, renewTokenStatement.executeBatch());
+        }
+        connection.commit();
+        return renewed;
+      } catch (SQLException e) {
+        connection.rollback();
+        throw e;
+      } finally {
+        connection.setAutoCommit(true);
+      }
+    }
+  }
+
   long getMaxLifetime(String tokenId) throws SQLException {
     try (Connection connection = dataSource.getConnection(); PreparedStatement getMaxLifetimeStatement = connection.prepareStatement(GET_MAX_LIFETIME_SQL)) {
       getMaxLifetimeStatement.setString(1, tokenId);
@@ -169,22 +226,180 @@ public class TokenStateDatabase {
     }
   }
 
-  boolean updateMetadata(String tokenId, String metadataName, String metadataValue) throws SQLException {
-    try (Connection connection = dataSource.getConnection(); PreparedStatement updateMetadataStatement = connection.prepareStatement(UPDATE_METADATA_SQL)) {
-      updateMetadataStatement.setString(1, metadataName.equals(TokenMetadata.PASSCODE) ? Base64.encodeBase64String(metadataValue.getBytes(UTF_8)) : metadataValue);
-      updateMetadataStatement.setString(2, tokenId);
-      updateMetadataStatement.setString(3, metadataName);
-      return updateMetadataStatement.executeUpdate() == 1;
+  /**
+   * Saves the given metadata of a token in a single transaction; existing entries are updated and new entries are
+   * inserted in one batch each.
+   *
+   * @return <code>true</code> if any metadata was saved
+   */
+  boolean upsertMetadata(String tokenId, Map<String, String> metadata) throws SQLException {
+    if (metadata.isEmpty()) {
+      return false;
+    }
+    try (Connection connection = dataSource.getConnection()) {
+      connection.setAutoCommit(false);
+      try {
+        final Set<String> existingNames = getMetadataNames(connection, tokenId);
+        int saved = 0;
+        try (PreparedStatement updateMetadataStatement = connection.prepareStatement(UPDATE_METADATA_SQL);
+             PreparedStatement addMetadataStatement = connection.prepareStatement(ADD_METADATA_SQL)) {
+          int updates = 0;
+          int inserts = 0;
+          for (Map.Entry<String, String> entry : metadata.entrySet()) {
+            final String metadataValue = encodeMetadata(entry.getKey(), entry.getValue());
+            if (existingNames.contains(entry.getKey())) {
+              updateMetadataStatement.setString(1, metadataValue);
+              updateMetadataStatement.setString(2, tokenId);
+              updateMetadataStatement.setString(3, entry.getKey());
+              updateMetadataStatement.addBatch();
+              updates++;
+            } else {
+              addMetadataStatement.setString(1, tokenId);
+              addMetadataStatement.setString(2, entry.getKey());
+              addMetadataStatement.setString(3, metadataValue);
+              addMetadataStatement.addBatch();
+              inserts++;
+            }
+          }
+          if (updates > 0) {
+            saved += countUpdatedRows(updateMetadataStatement.executeBatch());
+          }
+          if (inserts > 0) {
+            saved += countUpdatedRows(addMetadataStatement.executeBatch());
+          }
+        }
+        updatePromotedMetadata(connection, tokenId, metadata);
+        connection.commit();
+        return saved > 0;
+      } catch (SQLException e) {
+        connection.rollback();
+        throw e;
+      } finally {
+        connection.setAutoCommit(true);
+      }
+    }
+  }
+
+  /**
+   * Enables or disables the given tokens in one transaction; the metadata and the indexed flag of the tokens are
+   * updated with a single batch each.
+   *
+   * @return the identifiers of the tokens whose flag has changed
+   */
+  Set<String> setEnabled(Set<String> tokenIds, boolean enabled) throws SQLException {
+    final List<String> orderedTokenIds = new ArrayList<>(tokenIds);
+    if (orderedTokenIds.isEmpty()) {
+      return Collections.emptySet();
+    }
+    final String flag = String.valueOf(enabled);
+    try (Connection connection = dataSource.getConnection()) {
+      connection.setAutoCommit(false);
+      try {
+        final Set<String> updated;
+        try (PreparedStatement updateEnabledMetadataStatement = connection.prepareStatement(String.format(Locale.ROOT, UPDATE_ENABLED_METADATA_SQL, flag))) {
+          for (String tokenId : orderedTokenIds) {
+            updateEnabledMetadataStatement.setString(1, tokenId);
+            updateEnabledMetadataStatement.addBatch();
+          }
+          updated = getUpdatedTokenIds(orderedTokenIds, updateEnabledMetadataStatement.executeBatch());
+        }
+
+        // tokens without the flag are considered to be disabled
+        final List<String> withoutFlag = orderedTokenIds.stream().filter(tokenId -> !updated.contains(tokenId)).collect(Collectors.toList());
+        if (enabled && !withoutFlag.isEmpty()) {
+          try (PreparedStatement addEnabledMetadataStatement = connection.prepareStatement(String.format(Locale.ROOT, ADD_ENABLED_METADATA_SQL, flag))) {
+            for (String tokenId : withoutFlag) {
+              addEnabledMetadataStatement.setString(1, tokenId);
+              addEnabledMetadataStatement.addBatch();
+            }
+            updated.addAll(getUpdatedTokenIds(withoutFlag, addEnabledMetadataStatement.executeBatch()));
+          }
+        }
+
+        if (!updated.isEmpty()) {
+          try (PreparedStatement updateEnabledStatement = connection.prepareStatement(UPDATE_ENABLED_SQL)) {
+            for (String tokenId : updated) {
+              updateEnabledStatement.setBoolean(1, enabled);
+              updateEnabledStatement.setString(2, tokenId);
+              updateEnabledStatement.addBatch();
+            }
+            updateEnabledStatement.executeBatch();
+          }
+        }
+        connection.commit();
+        return updated;
+      } catch (SQLException e) {
+        connection.rollback();
+        throw e;
+      } finally {
+        connection.setAutoCommit(true);
+      }
+    }
+  }
+
+  private static Set<String> getMetadataNames(Connection connection, String tokenId) throws SQLException {
+    final Set<String> metadataNames = new HashSet<>();
+    try (PreparedStatement getMetadataNamesStatement = connection.prepareStatement(GET_METADATA_NAMES_SQL)) {
+      getMetadataNamesStatement.setString(1, tokenId);
+      try (ResultSet rs = getMetadataNamesStatement.executeQuery()) {
+        while (rs.next()) {
+          metadataNames.add(rs.getString(1));
+        }
+      }
     }
+    return metadataNames;
   }
 
-  boolean addMetadata(String tokenId, String metadataName, String metadataValue) throws SQLException {
-    try (Connection connection = dataSource.getConnection(); PreparedStatement addMetadataStatement = connection.prepareStatement(ADD_METADATA_SQL)) {
-      addMetadataStatement.setString(1, tokenId);
-      addMetadataStatement.setString(2, metadataName);
-      addMetadataStatement.setString(3, metadataName.equals(TokenMetadata.PASSCODE) ? Base64.encodeBase64String(metadataValue.getBytes(UTF_8)) : metadataValue);
-      return addMetadataStatement.executeUpdate() == 1;
+  private static int countUpdatedRows(int[] results) {
+    int count = 0;
+    for (int result : results) {
+      if (result > 0 || result == Statement.SUCCESS_NO_INFO) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static Set<String> getUpdatedTokenIds(List<String> tokenIds, int[] results) {
+    final Set<String> updated = new HashSet<>();
+    for (int i = 0; i < results.length && i < tokenIds.size(); i++) {
+      if (results[i] > 0 || results[i] == Statement.SUCCESS_NO_INFO) {
+        updated.add(tokenIds.get(i));
+      }
     }
+    return updated;
+  }
+
+  private static void updatePromotedMetadata(Connection connection, String tokenId, Map<String, String> metadata) throws SQLException {
+    final List<String> names = new ArrayList<>();
+    final List<String> assignments = new ArrayList<>();
+    for (Map.Entry<String, String> column : PROMOTED_METADATA_COLUMNS.entrySet()) {
+      if (metadata.containsKey(column.getKey())) {
+        names.add(column.getKey());
+        assignments.add(column.getValue() + " = ?");
+      }
+    }
+    if (names.isEmpty()) {
+      return;
+    }
+    final String sql = "UPDATE " + TOKENS_TABLE_NAME + " SET " + String.join(", ", assignments) + " WHERE token_id = ?";
+
+    try (PreparedStatement updatePromotedMetadataStatement = connection.prepareStatement(sql)) {
+      int index = 1;
+      for (String name : names) {
+        if (TokenMetadata.ENABLED.equals(name)) {
+          updatePromotedMetadataStatement.setBoolean(index++, Boolean.parseBoolean(metadata.get(name)));
+        } else {
+          updatePromotedMetadataStatement.setString(index++, metadata.get(name));
+        }
+      }
+      updatePromotedMetadataStatement.setString(index, tokenId);
+      updatePromotedMetadataStatement.executeUpdate();
+    }
+  }
+
+  private static String encodeMetadata(String metadataName, String metadataValue) {
+    return metadataName.equals(TokenMetadata.PASSCODE) ? Base64.encodeBase64String(metadataValue.getBytes(UTF_8)) : metadataValue;
   }
 
   TokenMetadata getTokenMetadata(String tokenId) throws SQLException {
@@ -201,6 +416,32 @@ public class TokenStateDatabase {
     }
   }
 
+  /**
+   * Fetches the issue time, expiration and metadata of a token with a single query.
+   *
+   * @return the token's validation state, or <code>null</code> if the token is unknown
+   */
+  TokenValidationView getTokenValidationView(String tokenId) throws SQLException {
+    try (Connection connection = dataSource.getConnection(); PreparedStatement getTokenValidationViewStatement = connection.prepareStatement(GET_TOKEN_VALIDATION_VIEW_SQL)) {
+      getTokenValidationViewStatement.setString(1, tokenId);
+      try (ResultSet rs = getTokenValidationViewStatement.executeQuery()) {
+        if (!rs.next()) {
+          return null;
+        }
+        final long issueTime = rs.getLong(1);
+        final long expiration = rs.getLong(2);
+        final Map<String, String> metadataMap = new HashMap<>();
+        do {
+          final String metadataName = rs.getString(3);
+          if (metadataName != null) {
+            metadataMap.put(metadataName, decodeMetadata(metadataName, rs.getString(4)));
+          }
+        } while (rs.next());
+        return new TokenValidationView(tokenId, issueTime, expiration, metadataMap.isEmpty() ? null : new TokenMetadata(metadataMap));
+      }
+    }
+  }
+
   private static String decodeMetadata(String metadataName, String metadataValue) {
     return metadataName.equals(TokenMetadata.PASSCODE) ? new String(Base64.decodeBase64(metadataValue.getBytes(UTF_8)), UTF_8) : metadataValue;
   }
@@ -0,0 +1,244 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.services.token.impl;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import javax.sql.DataSource;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.knox.gateway.i18n.messages.MessagesFactory;
+
+/**
+ * Creates and upgrades the tables of the JDBC token state service.
+ * <p>
+ * The version of the schema is recorded in the <code>KNOX_SCHEMA_VERSION</code> table, and every version is reached by
+ * applying the <code>upgrade-&lt;version&gt;.sql</code> script of the dialect of the database. A database that has the
+ * token tables but no version table has the original layout, which is schema version 1.
+ */
+class TokenStateDatabaseSchema {
+  private static final TokenStateServiceMessages LOG = MessagesFactory.get(TokenStateServiceMessages.class);
+
+  static final String SCHEMA_VERSION_TABLE_NAME = "KNOX_SCHEMA_VERSION";
+  static final int LATEST_VERSION = 2;
+
+  private static final String SCRIPTS_LOCATION = "token-state-schema/";
+  private static final String SCHEMA_VERSION_TABLE_CREATE_SQL_FILE_NAME = "create-schema-version-table.sql";
+  private static final String GET_SCHEMA_VERSION_SQL = "SELECT MAX(schema_version) FROM " + SCHEMA_VERSION_TABLE_NAME;
+  private static final String ADD_SCHEMA_VERSION_SQL = "INSERT INTO " + SCHEMA_VERSION_TABLE_NAME + "(schema_version, applied_time) VALUES(?, ?)";
+
+  /**
+   * The databases the token state service has scripts for, identified by the product name their drivers report.
+   */
+  enum Dialect {
+    DERBY("Apache Derby"),
+    HSQLDB("HSQL Database Engine"),
+    POSTGRESQL("PostgreSQL"),
+    MYSQL("MySQL", "MariaDB"),
+    ORACLE("Oracle");
+
+    private final String[] productNames;
+
+    Dialect(String... productNames) {
+      this.productNames = productNames;
+    }
+
+    String getScriptsLocation() {
+      return SCRIPTS_LOCATION + name().toLowerCase(Locale.ROOT) + "/";
+    }
+
+    static Dialect forProductName(String productName) throws SQLException {
+      for (Dialect dialect : values()) {
+        for (String name : dialect.productNames) {
+          if (productName != null && productName.toLowerCase(Locale.ROOT).startsWith(name.toLowerCase(Locale.ROOT))) {
+            return dialect;
+          }
+        }
+      }
+      throw new SQLException("Unsupported token state database: " + productName);
+    }
+  }
+
+  private final DataSource dataSource;
+  private final Dialect dialect;
+
+  TokenStateDatabaseSchema(DataSource dataSource) throws SQLException {
+    this.dataSource = dataSource;
+    try (Connection connection = dataSource.getConnection()) {
+      this.dialect = Dialect.forProductName(connection.getMetaData().getDatabaseProductName());
+    }
+  }
+
+  Dialect getDialect() {
+    return dialect;
+  }
+
+  /**
+   * Applies all the upgrades between the current and the latest schema version.
+   */
+  void upgrade() throws SQLException {
+    if (!isTableExists(SCHEMA_VERSION_TABLE_NAME)) {
+      try {
+        executeScript(SCHEMA_VERSION_TABLE_CREATE_SQL_FILE_NAME);
+      } catch (SQLException e) {
+        // another gateway instance sharing the database may have created it in the meantime
+        if (!isTableExists(SCHEMA_VERSION_TABLE_NAME)) {
+          throw e;
+        }
+      }
+    }
+
+    int version = getCurrentVersion();
+    if (version == 0 && isTableExists(TokenStateDatabase.TOKENS_TABLE_NAME)) {
+      // the tables were created before their schema version was recorded
+      try {
+        recordVersion(1);
+      } catch (SQLException e) {
+        // another gateway instance sharing the database may have recorded it in the meantime
+        if (getCurrentVersion() < 1) {
+          throw e;
+        }
+      }
+      version = getCurrentVersion();
+    }
+
+    while (version < LATEST_VERSION) {
+      final int nextVersion = version + 1;
+      LOG.upgradingTokenStateDatabaseSchema(dialect.name(), version, nextVersion);
+      try {
+        applyUpgrade(nextVersion);
+      } catch (SQLException e) {
+        // another gateway instance sharing the database may have applied the same upgrade
+        if (getCurrentVersion() < nextVersion) {
+          LOG.failedToUpgradeTokenStateDatabaseSchema(nextVersion, e.getMessage(), e);
+          throw e;
+        }
+      }
+      version = getCurrentVersion();
+    }
+  }
+
+  int getCurrentVersion() throws SQLException {
+    if (!isTableExists(SCHEMA_VERSION_TABLE_NAME)) {
+      return 0;
+    }
+    try (Connection connection = dataSource.getConnection();
+         Statement statement = connection.createStatement();
+         ResultSet rs = statement.executeQuery(GET_SCHEMA_VERSION_SQL)) {
+      return rs.next() ? rs.getInt(1) : 0;
+    }
+  }
+
+  boolean isTableExists(String tableName) throws SQLException {
+    try (Connection connection = dataSource.getConnection()) {
+      final DatabaseMetaData dbMetadata = connection.getMetaData();
+      final String tableNameToCheck = dbMetadata.storesUpperCaseIdentifiers() ? tableName : tableName.toLowerCase(Locale.ROOT);
+      try (ResultSet tables = dbMetadata.getTables(connection.getCatalog(), null, tableNameToCheck, null)) {
+        return tables.next();
+      }
+    }
+  }
+
+  /**
+   * Executes the upgrade script for the given version and records the version in a single transaction, as far as the
+   * database supports transactional DDL.
+   */
+  private void applyUpgrade(int version) throws SQLException {
+    final List<String> statements = readScript("upgrade-" + version + ".sql");
+    try (Connection connection = dataSource.getConnection()) {
+      connection.setAutoCommit(false);
+      try {
+        try (Statement statement = connection.createStatement()) {
+          for (String sql : statements) {
+            statement.execute(sql);
+          }
+        }
+        recordVersion(connection, version);
+        connection.commit();
+      } catch (SQLException e) {
+        connection.rollback();
+        throw e;
+      } finally {
+        connection.setAutoCommit(true);
+      }
+    }
+  }
+
+  private void recordVersion(int version) throws SQLException {
+    try (Connection connection = dataSource.getConnection()) {
+      recordVersion(connection, version);
+    }
+  }
+
+  private static void recordVersion(Connection connection, int version) throws SQLException {
+    try (PreparedStatement statement = connection.prepareStatement(ADD_SCHEMA_VERSION_SQL)) {
+      statement.setInt(1, version);
+      statement.setLong(2, System.currentTimeMillis());
+      statement.executeUpdate();
+    }
+  }
+
+  private void executeScript(String scriptName) throws SQLException {
+    try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+      for (String sql : readScript(scriptName)) {
+        statement.execute(sql);
+      }
+    }
+  }
+
+  /**
+   * @return the statements of the script, without comments and the terminating semicolons
+   */
+  List<String> readScript(String scriptName) throws SQLException {
+    final String location = dialect.getScriptsLocation() + scriptName;
+    final String script;
+    try (InputStream is = TokenStateDatabaseSchema.class.getClassLoader().getResourceAsStream(location)) {
+      if (is == null) {
+        throw new SQLException("Missing token state database script " + location);
+      }
+      script = IOUtils.toString(is, UTF_8);
+    } catch (IOException e) {
+      throw new SQLException("Failed to read token state database script " + location, e);
+    }
+
+    final StringBuilder sql = new StringBuilder();
+    for (String line : script.split("\\R")) {
+      if (!line.trim().startsWith("--")) {
+        sql.append(line).append('\n');
+      }
+    }
+    final List<String> statements = new ArrayList<>();
+    for (String statement : sql.toString().split(";")) {
+      if (!statement.trim().isEmpty()) {
+        statements.add(statement.trim());
+      }
+    }
+    return statements;
+  }
+}
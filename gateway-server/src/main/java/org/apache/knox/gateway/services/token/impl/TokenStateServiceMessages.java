@@ -33,6 +33,9 @@ public interface TokenStateServiceMessages {
   @Message(level = MessageLevel.DEBUG, text = "Revoked token {0}")
   void revokedToken(String tokenId);
 
+  @Message(level = MessageLevel.DEBUG, text = "Revoked tokens {0}")
+  void revokedTokens(String tokenIds);
+
   @Message(level = MessageLevel.DEBUG, text = "Removed state for tokens {0}")
   void removedTokenState(String tokenIds);
 
@@ -193,6 +196,12 @@ public interface TokenStateServiceMessages {
   @Message(level = MessageLevel.ERROR, text = "An error occurred while removing token {0} from the database : {1}")
   void errorRemovingTokenFromDatabase(String tokenId, String errorMessage, @StackTrace(level = MessageLevel.DEBUG) Exception e);
 
+  @Message(level = MessageLevel.DEBUG, text = "Tokens {0} have been removed from the database")
+  void removedTokenBatchFromDatabase(String tokenIds);
+
+  @Message(level = MessageLevel.ERROR, text = "An error occurred while removing tokens {0} from the database : {1}")
+  void errorRemovingTokenBatchFromDatabase(String tokenIds, String errorMessage, @StackTrace(level = MessageLevel.DEBUG) Exception e);
+
   @Message(level = MessageLevel.INFO, text = "Removing {0} expired token(s) from the database: {1}")
   void removingExpiredTokensFromDatabase(int size, String expiredTokensList);
 
@@ -223,6 +232,18 @@ public interface TokenStateServiceMessages {
   @Message(level = MessageLevel.ERROR, text = "An error occurred while updating expiration for {0} in the database : {1}")
   void errorUpdatingExpirationInDatabase(String tokenId, String errorMessage, @StackTrace(level = MessageLevel.DEBUG) Exception e);
 
+  @Message(level = MessageLevel.DEBUG, text = "Updated expiration for tokens {0} in the database to {1}")
+  void renewedTokenBatchInDatabase(String tokenIds, long expiration);
+
+  @Message(level = MessageLevel.ERROR, text = "An error occurred while renewing tokens {0} in the database : {1}")
+  void errorRenewingTokenBatchInDatabase(String tokenIds, String errorMessage, @StackTrace(level = MessageLevel.DEBUG) Exception e);
+
+  @Message(level = MessageLevel.DEBUG, text = "Fetched validation state for {0} from the database")
+  void fetchedTokenValidationViewFromDatabase(String tokenId);
+
+  @Message(level = MessageLevel.ERROR, text = "An error occurred while fetching validation state for {0} from the database : {1}")
+  void errorFetchingTokenValidationViewFromDatabase(String tokenId, String errorMessage, @StackTrace(level = MessageLevel.DEBUG) Exception e);
+
   @Message(level = MessageLevel.DEBUG, text = "Fetched max lifetime for {0} from the database : {1}")
   void fetchedMaxLifetimeFromDatabase(String tokenId, long maxLifetime);
 
@@ -238,6 +259,12 @@ public interface TokenStateServiceMessages {
   @Message(level = MessageLevel.ERROR, text = "An error occurred while updating metadata for {0} in the database : {1}")
   void errorUpdatingMetadataInDatabase(String tokenId, String errorMessage, @StackTrace(level = MessageLevel.DEBUG) Exception e);
 
+  @Message(level = MessageLevel.DEBUG, text = "Set the enabled flag of tokens {0} in the database to {1}")
+  void updatedEnabledFlagInDatabase(String tokenIds, boolean enabled);
+
+  @Message(level = MessageLevel.ERROR, text = "An error occurred while updating the enabled flag of tokens {0} in the database : {1}")
+  void errorUpdatingEnabledFlagInDatabase(String tokenIds, String errorMessage, @StackTrace(level = MessageLevel.DEBUG) Exception e);
+
   @Message(level = MessageLevel.DEBUG, text = "Fetched metadata for {0} from the database")
   void fetchedMetadataFromDatabase(String tokenId);
 
@@ -249,4 +276,10 @@ public interface TokenStateServiceMessages {
 
   @Message(level = MessageLevel.ERROR, text = "An error occurred while fetching impersonation tokens for user {0} from the database : {1}")
   void errorFetchingDoAsTokensForUserFromDatabase(String userName, String errorMessage, @StackTrace(level = MessageLevel.DEBUG) Exception e);
+
+  @Message(level = MessageLevel.INFO, text = "Upgrading the {0} token state database schema from version {1} to {2}")
+  void upgradingTokenStateDatabaseSchema(String dialect, int fromVersion, int toVersion);
+
+  @Message(level = MessageLevel.ERROR, text = "Failed to upgrade the token state database schema to version {0} : {1}")
+  void failedToUpgradeTokenStateDatabaseSchema(int version, String errorMessage, @StackTrace(level = MessageLevel.DEBUG) Exception e);
 }
@@ -0,0 +1,203 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.services.token.impl;
+
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.ECDSAVerifier;
+import com.nimbusds.jose.crypto.MACVerifier;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+
+/**
+ * Resolves the verifiers for the signatures of tokens.
+ *
+ * Verifiers are cached by the id of their key, the signature algorithm and the
+ * source of the key: the public key itself for RSA and ECDSA and the HMAC
+ * secret for HMAC signatures. The cache is invalidated when the signing keystore is
+ * reloaded and its entries expire after the configured time to live.
+ *
+ * The keys of the signing keystore that are active for verification are the
+ * current signing key and the previous ones, which stay active for the overlap
+ * window after the signing key changed so that the tokens they signed are
+ * still accepted during a key rotation.
+ */
+class TokenVerifierResolver {
+  private static final String HMAC_SOURCE = "hmac";
+
+  private final Cache<VerifierKey, JWSVerifier> verifiers;
+  private final AtomicReference<List<ActiveKey>> activeKeys = new AtomicReference<>(Collections.emptyList());
+  private final Ticker ticker;
+  private final long overlapNanos;
+
+  /**
+   * @param timeToLive the time - in seconds - a verifier is cached; 0 disables the cache
+   * @param overlap the time - in seconds - a previous signing key stays active
+   */
+  TokenVerifierResolver(long timeToLive, long overlap, Ticker ticker) {
+    this.ticker = ticker;
+    this.overlapNanos = TimeUnit.SECONDS.toNanos(overlap);
+    this.verifiers = Caffeine.newBuilder()
+        .expireAfterWrite(timeToLive, TimeUnit.SECONDS)
+        .ticker(ticker)
+        .build();
+  }
+
+  /**
+   * Makes the key the current signing key. The previous signing key, if it is
+   * a different one, stays active until the end of the overlap window.
+   *
+   * @param kid the id of the key, may be null
+   */
+  void setSigningKey(String kid, PublicKey key) {
+    final long now = ticker.read();
+    final List<ActiveKey> keys = new ArrayList<>();
+    keys.add(new ActiveKey(kid, key, true, 0));
+    for (ActiveKey active : activeKeys.get()) {
+      if (active.key.equals(key)) {
+        continue;
+      }
+      final long retiredAt = active.current ? now + overlapNanos : active.retiredAt;
+      if (retiredAt - now > 0) {
+        keys.add(new ActiveKey(active.kid, active.key, false, retiredAt));
+      }
+    }
+    activeKeys.set(Collections.unmodifiableList(keys));
+  }
+
+  /**
+   * @param kid the id of the key the token claims to be signed with, may be null
+   * @return the verifiers of the active signing keys matching the key id: the
+   *         one of the matching key, none if no active key matches, or all of
+   *         them, current signing key first, if the token has no key id
+   */
+  List<JWSVerifier> getSigningKeyVerifiers(String kid, JWSAlgorithm algorithm) {
+    final long now = ticker.read();
+    final List<JWSVerifier> candidates = new ArrayList<>(1);
+    for (ActiveKey active : activeKeys.get()) {
+      if (!active.current && active.retiredAt - now <= 0) {
+        continue;
+      }
+      if (kid == null) {
+        candidates.add(getVerifier(null, algorithm, active.key));
+      } else if (kid.equals(active.kid)) {
+        candidates.add(getVerifier(kid, algorithm, active.key));
+        break;
+      }
+    }
+    return candidates;
+  }
+
+  /**
+   * @return the verifier for a key provided by the caller
+   */
+  JWSVerifier getVerifier(JWSAlgorithm algorithm, RSAPublicKey key) {
+    return getVerifier(null, algorithm, key);
+  }
+
+  /**
+   * @return the verifier for the HMAC secret
+   */
+  JWSVerifier getHmacVerifier(JWSAlgorithm algorithm, byte[] secret) throws JOSEException {
+    final VerifierKey cacheKey = new VerifierKey(null, algorithm, HMAC_SOURCE);
+    JWSVerifier verifier = verifiers.getIfPresent(cacheKey);
+    if (verifier == null) {
+      verifier = new MACVerifier(secret);
+      verifiers.put(cacheKey, verifier);
+    }
+    return verifier;
+  }
+
+  /**
+   * Drops all cached verifiers.
+   */
+  void invalidate() {
+    verifiers.invalidateAll();
+  }
+
+  private JWSVerifier getVerifier(String kid, JWSAlgorithm algorithm, PublicKey key) {
+    return verifiers.get(new VerifierKey(kid, algorithm, key), cacheKey -> createVerifier(key));
+  }
+
+  private static JWSVerifier createVerifier(PublicKey key) {
+    if (key instanceof ECPublicKey) {
+      try {
+        return new ECDSAVerifier((ECPublicKey) key);
+      } catch (JOSEException e) {
+        throw new IllegalArgumentException("Unsupported EC signing key", e);
+      }
+    }
+    return new RSASSAVerifier((RSAPublicKey) key);
+  }
+
+  private static class ActiveKey {
+    final String kid;
+    final PublicKey key;
+    final boolean current;
+    final long retiredAt;
+
+    ActiveKey(String kid, PublicKey key, boolean current, long retiredAt) {
+      this.kid = kid;
+      this.key = key;
+      this.current = current;
+      this.retiredAt = retiredAt;
+    }
+  }
+
+  private static class VerifierKey {
+    final String kid;
+    final JWSAlgorithm algorithm;
+    final Object source;
+
+    VerifierKey(String kid, JWSAlgorithm algorithm, Object source) {
+      this.kid = kid;
+      this.algorithm = algorithm;
+      this.source = source;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      final VerifierKey that = (VerifierKey) o;
+      return Objects.equals(kid, that.kid) && Objects.equals(algorithm, that.algorithm) && source.equals(that.source);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(kid, algorithm, source);
+    }
+  }
+}
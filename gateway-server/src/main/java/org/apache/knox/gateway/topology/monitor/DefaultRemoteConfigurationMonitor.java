@@ -16,23 +16,46 @@
  */
 package org.apache.knox.gateway.topology.monitor;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.apache.knox.gateway.GatewayMessages;
 import org.apache.knox.gateway.config.GatewayConfig;
 import org.apache.knox.gateway.i18n.messages.MessagesFactory;
 import org.apache.knox.gateway.services.config.client.RemoteConfigurationRegistryClient;
 import org.apache.knox.gateway.services.config.client.RemoteConfigurationRegistryClient.ChildEntryListener;
-import org.apache.knox.gateway.services.config.client.RemoteConfigurationRegistryClient.EntryListener;
+import org.apache.knox.gateway.services.config.client.RemoteConfigurationRegistryClient.EntryData;
+import org.apache.knox.gateway.services.config.client.RemoteConfigurationRegistryClient.EntryVersion;
 import org.apache.knox.gateway.services.config.client.RemoteConfigurationRegistryClientService;
 import org.apache.zookeeper.ZooDefs;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the local provider configurations and descriptors in sync with the remote configuration registry.
+ * <p>
+ * The version and content hash of every downloaded entry are recorded in a manifest in the gateway data directory, so
+ * that entries which have not changed since they were last downloaded are not fetched again when the monitor starts.
+ * Changed entries are fetched concurrently, and every local file is replaced atomically. Bursts of remote change
+ * events are coalesced, and applied to the local directories as a single batch.
+ */
 class DefaultRemoteConfigurationMonitor implements RemoteConfigurationMonitor {
 
     private static final String NODE_KNOX = "/knox";
@@ -40,6 +63,13 @@ class DefaultRemoteConfigurationMonitor implements RemoteConfigurationMonitor {
     private static final String NODE_KNOX_PROVIDERS = NODE_KNOX_CONFIG + "/shared-providers";
     private static final String NODE_KNOX_DESCRIPTORS = NODE_KNOX_CONFIG + "/descriptors";
 
+    static final String MANIFEST_FILE_NAME = "remote-config-manifest.properties";
+
+    // The time to wait for further change events before applying a batch of remote changes
+    static final long COALESCE_DELAY_MILLIS = 200L;
+
+    private static final long FETCH_TIMEOUT_SECONDS = 30L;
+
     private static GatewayMessages log = MessagesFactory.get(GatewayMessages.class);
 
     // N.B. This is ZooKeeper-specific, and should be abstracted when another registry is supported
@@ -108,6 +138,16 @@ class DefaultRemoteConfigurationMonitor implements RemoteConfigurationMonitor {
     private File providersDir;
     private File descriptorsDir;
 
+    private final File manifestFile;
+
+    // The version and content hash of the entries downloaded from the registry, by entry path
+    private final Map<String, ManifestEntry> manifest = new HashMap<>();
+
+    // The remote change events which have not been applied yet, by entry path
+    private final Map<String, ChildEntryListener.Type> pendingChanges = new LinkedHashMap<>();
+
+    private ScheduledExecutorService changeExecutor;
+
     private final List<RemoteConfigurationRegistryClient.EntryACL> replacementACL = new ArrayList<>();
 
     /**
@@ -119,6 +159,9 @@ class DefaultRemoteConfigurationMonitor implements RemoteConfigurationMonitor {
         this.providersDir   = new File(config.getGatewayProvidersConfigDir());
         this.descriptorsDir = new File(config.getGatewayDescriptorsDir());
 
+        String dataDir = config.getGatewayDataDir();
+        this.manifestFile = dataDir != null ? new File(dataDir, MANIFEST_FILE_NAME) : null;
+
         if (registryClientService != null) {
             String clientName = config.getRemoteConfigurationMonitorClientName();
             if (clientName != null) {
@@ -159,19 +202,6 @@ class DefaultRemoteConfigurationMonitor implements RemoteConfigurationMonitor {
         if (providerConfigs == null) {
             // Either the ZNode does not exist, or there is an authentication problem
             throw new IllegalStateException("Unable to access remote path: " + NODE_KNOX_PROVIDERS);
-        } else {
-            // Download any existing provider configs in the remote registry, which either do not exist locally, or have
-            // been modified, so that they are certain to be present when this monitor downloads any descriptors that
-            // reference them.
-            for (String providerConfig : providerConfigs) {
-                File localFile = new File(providersDir, providerConfig);
-
-                byte[] remoteContent = client.getEntryData(NODE_KNOX_PROVIDERS + "/" + providerConfig).getBytes(StandardCharsets.UTF_8);
-                if (!localFile.exists() || !Arrays.equals(remoteContent, FileUtils.readFileToByteArray(localFile))) {
-                    FileUtils.writeByteArrayToFile(localFile, remoteContent);
-                    log.downloadedRemoteConfigFile(providersDir.getName(), providerConfig);
-                }
-            }
         }
 
         // Confirm access to the remote descriptors directory znode
@@ -181,11 +211,26 @@ class DefaultRemoteConfigurationMonitor implements RemoteConfigurationMonitor {
             throw new IllegalStateException("Unable to access remote path: " + NODE_KNOX_DESCRIPTORS);
         }
 
-        // Register a listener for provider config znode additions/removals
-        client.addChildEntryListener(NODE_KNOX_PROVIDERS, new ConfigDirChildEntryListener(providersDir));
+        // Download any provider configs in the remote registry which either do not exist locally, or have been
+        // modified since they were last downloaded, before the descriptors which reference them. Local files for
+        // entries which have been removed from the registry in the meantime are deleted.
+        synchronized (this) {
+            loadManifest();
+            synchronize(NODE_KNOX_PROVIDERS, providersDir, toEntryChanges(NODE_KNOX_PROVIDERS, providerConfigs), true);
+            synchronize(NODE_KNOX_DESCRIPTORS, descriptorsDir, toEntryChanges(NODE_KNOX_DESCRIPTORS, descriptors), true);
+            saveManifest();
+
+            changeExecutor = new ScheduledThreadPoolExecutor(1, new BasicThreadFactory.Builder()
+                                                                    .namingPattern("RemoteConfigurationMonitor-%d")
+                                                                    .daemon(true)
+                                                                    .build());
+        }
+
+        // Register a listener for provider config znode changes
+        client.addChildEntryListener(NODE_KNOX_PROVIDERS, new ConfigDirChildEntryListener());
 
-        // Register a listener for descriptor znode additions/removals
-        client.addChildEntryListener(NODE_KNOX_DESCRIPTORS, new ConfigDirChildEntryListener(descriptorsDir));
+        // Register a listener for descriptor znode changes
+        client.addChildEntryListener(NODE_KNOX_DESCRIPTORS, new ConfigDirChildEntryListener());
 
         log.monitoringRemoteConfigurationSource(monitorSource);
     }
@@ -195,6 +240,17 @@ class DefaultRemoteConfigurationMonitor implements RemoteConfigurationMonitor {
     public void stop() throws Exception {
         client.removeEntryListener(NODE_KNOX_PROVIDERS);
         client.removeEntryListener(NODE_KNOX_DESCRIPTORS);
+
+        ScheduledExecutorService executor;
+        synchronized (this) {
+            executor = changeExecutor;
+            changeExecutor = null;
+            pendingChanges.clear();
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
     }
 
     private void ensureEntries() {
@@ -229,64 +285,273 @@ class DefaultRemoteConfigurationMonitor implements RemoteConfigurationMonitor {
         }
     }
 
-    private static class ConfigDirChildEntryListener implements ChildEntryListener {
-        File localDir;
+    private static Map<String, ChildEntryListener.Type> toEntryChanges(String parent, List<String> children) {
+        Map<String, ChildEntryListener.Type> changes = new LinkedHashMap<>();
+        for (String child : children) {
+            changes.put(parent + "/" + child, ChildEntryListener.Type.ADDED);
+        }
+        return changes;
+    }
 
-        ConfigDirChildEntryListener(File localDir) {
-            this.localDir = localDir;
+    /**
+     * Record a remote change event, and schedule the application of the pending changes unless it has already been
+     * scheduled.
+     */
+    synchronized void entryChanged(ChildEntryListener.Type type, String path) {
+        if (changeExecutor == null) {
+            return;
         }
+        boolean scheduled = !pendingChanges.isEmpty();
+        pendingChanges.put(path, type);
+        if (!scheduled) {
+            changeExecutor.schedule(this::applyPendingChanges, COALESCE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
 
-        @Override
-        public void childEvent(RemoteConfigurationRegistryClient client, Type type, String path) {
-            File localFile = new File(localDir, path.substring(path.lastIndexOf('/') + 1));
-
-            switch (type) {
-                case REMOVED:
-                    FileUtils.deleteQuietly(localFile);
-                    log.deletedRemoteConfigFile(localDir.getName(), localFile.getName());
-                    try {
-                        client.removeEntryListener(path);
-                    } catch (Exception e) {
-                        log.errorRemovingRemoteConfigurationListenerForPath(path, e);
-                    }
-                    break;
-                case ADDED:
-                    try {
-                        client.addEntryListener(path, new ConfigEntryListener(localDir));
-                    } catch (Exception e) {
-                        log.errorAddingRemoteConfigurationListenerForPath(path, e);
-                    }
-                    break;
+    private synchronized void applyPendingChanges() {
+        Map<String, ChildEntryListener.Type> providerChanges = new LinkedHashMap<>();
+        Map<String, ChildEntryListener.Type> descriptorChanges = new LinkedHashMap<>();
+        for (Map.Entry<String, ChildEntryListener.Type> change : pendingChanges.entrySet()) {
+            if (change.getKey().startsWith(NODE_KNOX_PROVIDERS + "/")) {
+                providerChanges.put(change.getKey(), change.getValue());
+            } else {
+                descriptorChanges.put(change.getKey(), change.getValue());
             }
         }
+        pendingChanges.clear();
+
+        // Apply provider config changes first, so that they are in place for the descriptors that reference them
+        synchronize(NODE_KNOX_PROVIDERS, providersDir, providerChanges, false);
+        synchronize(NODE_KNOX_DESCRIPTORS, descriptorsDir, descriptorChanges, false);
+        saveManifest();
     }
 
-    private static class ConfigEntryListener implements EntryListener {
-        private File localDir;
+    /**
+     * Bring the local files for the specified entries up to date.
+     *
+     * @param parent   The path of the registry entry containing the entries
+     * @param localDir The local directory corresponding to the parent entry
+     * @param changes  The changed entries, by path
+     * @param complete true, if the changes comprise every entry currently beneath the parent entry, such that local
+     *                 files for any other previously downloaded entries are stale
+     */
+    private void synchronize(String                                parent,
+                             File                                  localDir,
+                             Map<String, ChildEntryListener.Type> changes,
+                             boolean                               complete) {
+        // Remove the local files for the entries which no longer exist in the registry
+        List<String> removed = new ArrayList<>();
+        for (Map.Entry<String, ChildEntryListener.Type> change : changes.entrySet()) {
+            if (change.getValue() == ChildEntryListener.Type.REMOVED) {
+                removed.add(change.getKey());
+            }
+        }
+        if (complete) {
+            for (String path : manifest.keySet()) {
+                if (path.startsWith(parent + "/") && !changes.containsKey(path)) {
+                    removed.add(path);
+                }
+            }
+        }
+        for (String path : removed) {
+            deleteLocalFile(path, localDir);
+        }
+
+        // Check the versions of the added entries, since those include the entries which already existed when the
+        // listener was registered. Updated entries are known to have changed.
+        Map<String, CompletableFuture<EntryVersion>> versions = new LinkedHashMap<>();
+        List<String> updated = new ArrayList<>();
+        for (Map.Entry<String, ChildEntryListener.Type> change : changes.entrySet()) {
+            if (change.getValue() == ChildEntryListener.Type.ADDED) {
+                versions.put(change.getKey(), client.getEntryVersionAsync(change.getKey()));
+            } else if (change.getValue() == ChildEntryListener.Type.UPDATED) {
+                updated.add(change.getKey());
+            }
+        }
+        for (Map.Entry<String, CompletableFuture<EntryVersion>> version : versions.entrySet()) {
+            String path = version.getKey();
+            try {
+                if (!isUnchanged(path, localDir, version.getValue().get(FETCH_TIMEOUT_SECONDS, TimeUnit.SECONDS))) {
+                    updated.add(path);
+                }
+            } catch (Exception e) {
+                updated.add(path);
+            }
+        }
 
-        ConfigEntryListener(File localDir) {
-            this.localDir = localDir;
+        // Fetch the changed entries concurrently
+        Map<String, CompletableFuture<EntryData>> fetches = new LinkedHashMap<>();
+        for (String path : updated) {
+            fetches.put(path, client.getEntryDataAsync(path));
         }
+        for (Map.Entry<String, CompletableFuture<EntryData>> fetch : fetches.entrySet()) {
+            String path = fetch.getKey();
+            try {
+                EntryData data = fetch.getValue().get(FETCH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                if (data == null) {
+                    deleteLocalFile(path, localDir);
+                } else {
+                    writeLocalFile(path, localDir, data);
+                }
+            } catch (Exception e) {
+                log.errorDownloadingRemoteConfiguration(path, e);
+            }
+        }
+    }
 
-        @Override
-        public void entryChanged(RemoteConfigurationRegistryClient client, String path, byte[] data) {
-            File localFile = new File(localDir, path.substring(path.lastIndexOf('/')));
-            if (data != null) {
+    /**
+     * @return true, if the entry has been downloaded at the specified version, and the local file still has the
+     *         content which was downloaded.
+     */
+    private boolean isUnchanged(String path, File localDir, EntryVersion version) throws IOException {
+        ManifestEntry entry = manifest.get(path);
+        if (entry == null || version == null || !entry.matches(version)) {
+            return false;
+        }
+        File localFile = getLocalFile(path, localDir);
+        return localFile.exists() && entry.hash.equals(DigestUtils.sha256Hex(FileUtils.readFileToByteArray(localFile)));
+    }
+
+    private void writeLocalFile(String path, File localDir, EntryData data) throws IOException {
+        File localFile = getLocalFile(path, localDir);
+        String hash = DigestUtils.sha256Hex(data.getData());
+
+        // If there is no corresponding local file, or the content is different from the existing local file, replace
+        // the local file.
+        if (!localFile.exists() || !hash.equals(DigestUtils.sha256Hex(FileUtils.readFileToByteArray(localFile)))) {
+            Files.createDirectories(localDir.toPath());
+            Path tempFile = Files.createTempFile(localDir.toPath(), "." + localFile.getName(), ".tmp");
+            try {
+                Files.write(tempFile, data.getData());
+                Files.move(tempFile, localFile.toPath(),
+                           StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+            log.downloadedRemoteConfigFile(localDir.getName(), localFile.getName());
+        }
+
+        EntryVersion version = data.getVersion();
+        if (version != null) {
+            manifest.put(path, new ManifestEntry(version.getModifiedTransactionId(), version.getVersion(), hash));
+        } else {
+            manifest.remove(path);
+        }
+    }
+
+    private void deleteLocalFile(String path, File localDir) {
+        manifest.remove(path);
+        File localFile = getLocalFile(path, localDir);
+        if (localFile.exists()) {
+            if (FileUtils.deleteQuietly(localFile)) {
+                log.deletedRemoteConfigFile(localDir.getName(), localFile.getName());
+            } else {
+                log.failedToDeletedRemoteConfigFile(localDir.getName(), localFile.getName());
+            }
+        }
+    }
+
+    private static File getLocalFile(String path, File localDir) {
+        return new File(localDir, path.substring(path.lastIndexOf('/') + 1));
+    }
+
+    private void loadManifest() {
+        manifest.clear();
+        if (manifestFile == null || !manifestFile.isFile()) {
+            return;
+        }
+
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(manifestFile.toPath())) {
+            properties.load(in);
+        } catch (IOException e) {
+            log.failedToReadRemoteConfigurationManifest(manifestFile.getAbsolutePath(), e);
+            return;
+        }
+        for (String path : properties.stringPropertyNames()) {
+            ManifestEntry entry = ManifestEntry.parse(properties.getProperty(path));
+            if (entry != null) {
+                manifest.put(path, entry);
+            }
+        }
+    }
+
+    private void saveManifest() {
+        if (manifestFile == null) {
+            return;
+        }
+
+        Properties properties = new Properties();
+        for (Map.Entry<String, ManifestEntry> entry : manifest.entrySet()) {
+            properties.setProperty(entry.getKey(), entry.getValue().toString());
+        }
+
+        Path tempFile = null;
+        try {
+            Path directory = manifestFile.getAbsoluteFile().getParentFile().toPath();
+            Files.createDirectories(directory);
+            tempFile = Files.createTempFile(directory, MANIFEST_FILE_NAME, ".tmp");
+            try (OutputStream out = Files.newOutputStream(tempFile)) {
+                properties.store(out, null);
+            }
+            Files.move(tempFile, manifestFile.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            tempFile = null;
+        } catch (IOException e) {
+            log.failedToWriteRemoteConfigurationManifest(manifestFile.getAbsolutePath(), e);
+        } finally {
+            if (tempFile != null) {
                 try {
-                    // If there is no corresponding local file, or the content is different from the existing local
-                    // file, write the data to the local file.
-                    if (!localFile.exists() || !Arrays.equals(FileUtils.readFileToByteArray(localFile), data)) {
-                        FileUtils.writeByteArrayToFile(localFile, data);
-                        log.downloadedRemoteConfigFile(localDir.getName(), localFile.getName());
-                    }
+                    Files.deleteIfExists(tempFile);
                 } catch (IOException e) {
-                    log.errorDownloadingRemoteConfiguration(path, e);
+                    log.failedToWriteRemoteConfigurationManifest(tempFile.toString(), e);
                 }
-            } else {
-                FileUtils.deleteQuietly(localFile);
-                log.deletedRemoteConfigFile(localDir.getName(), localFile.getName());
             }
         }
     }
 
+    /**
+     * The version of a registry entry at the time it was downloaded, and the hash of the content that was written to
+     * the corresponding local file.
+     */
+    private static final class ManifestEntry {
+        private final long modifiedTransactionId;
+        private final int version;
+        private final String hash;
+
+        ManifestEntry(long modifiedTransactionId, int version, String hash) {
+            this.modifiedTransactionId = modifiedTransactionId;
+            this.version = version;
+            this.hash = hash;
+        }
+
+        boolean matches(EntryVersion other) {
+            return modifiedTransactionId == other.getModifiedTransactionId() && version == other.getVersion();
+        }
+
+        static ManifestEntry parse(String value) {
+            String[] parts = value.split(",");
+            if (parts.length != 3) {
+                return null;
+            }
+            try {
+                return new ManifestEntry(Long.parseLong(parts[0]), Integer.parseInt(parts[1]), parts[2]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d,%d,%s", modifiedTransactionId, version, hash);
+        }
+    }
+
+    private class ConfigDirChildEntryListener implements ChildEntryListener {
+        @Override
+        public void childEvent(RemoteConfigurationRegistryClient client, Type type, String path) {
+            entryChanged(type, path);
+        }
+    }
+
 }
@@ -25,6 +25,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.net.InetAddress;
+import java.net.URI;
 import java.net.UnknownHostException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
@@ -59,7 +60,12 @@ import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.knox.gateway.GatewayCommandLine;
@@ -103,6 +109,16 @@ public class KnoxCLI extends Configured implements Tool {
 
   private static final Collection<String> SUPPORTED_JWK_ALGORITHMS = Stream
       .of(JWSAlgorithm.HS256.getName(), JWSAlgorithm.HS384.getName(), JWSAlgorithm.HS512.getName()).collect(Collectors.toSet());
+  private static final Collection<String> SUPPORTED_CERT_KEY_ALGORITHMS = Stream
+      .of("RSA", JWSAlgorithm.ES256.getName(), JWSAlgorithm.ES384.getName(), JWSAlgorithm.ES512.getName()).collect(Collectors.toSet());
+  // The batch operations of the KNOXTOKEN service, by command name
+  private static final Map<String, String> TOKEN_BATCH_OPERATIONS = new LinkedHashMap<>();
+  static {
+    TOKEN_BATCH_OPERATIONS.put("revoke-tokens", "revoke");
+    TOKEN_BATCH_OPERATIONS.put("enable-tokens", "enable");
+    TOKEN_BATCH_OPERATIONS.put("disable-tokens", "disable");
+    TOKEN_BATCH_OPERATIONS.put("renew-tokens", "renew");
+  }
   private static final String USAGE_PREFIX = "KnoxCLI {cmd} [options]";
   private static final String COMMANDS =
       "   [--help]\n" +
@@ -120,6 +136,7 @@ public class KnoxCLI extends Configured implements Tool {
       "   [" + LDAPAuthCommand.USAGE + "]\n" +
       "   [" + LDAPSysBindCommand.USAGE + "]\n" +
       "   [" + ServiceTestCommand.USAGE + "]\n" +
+      "   [" + TokenBatchCommand.USAGE + "]\n" +
       "   [" + RemoteRegistryClientsListCommand.USAGE + "]\n" +
       "   [" + RemoteRegistryListProviderConfigsCommand.USAGE + "]\n" +
       "   [" + RemoteRegistryUploadProviderConfigCommand.USAGE + "]\n" +
@@ -143,12 +160,16 @@ public class KnoxCLI extends Configured implements Tool {
   private String path;
   private String generate = "false";
   private String hostname;
+  private String keyAlgorithm = "RSA";
   private String port;
   private boolean force;
   private boolean debug;
   private String user;
   private String pass;
   private boolean groups;
+  private String tokenIds;
+  private String tokenUser;
+  private String tokenCreatedBy;
   private JWSAlgorithm jwsAlgorithm = JWSAlgorithm.HS256;
   private String alias;
 
@@ -333,6 +354,26 @@ public class KnoxCLI extends Configured implements Tool {
         } else {
           command = new ServiceTestCommand();
         }
+      } else if (TOKEN_BATCH_OPERATIONS.containsKey(args[i])) {
+        command = new TokenBatchCommand(TOKEN_BATCH_OPERATIONS.get(args[i]));
+      } else if (args[i].equals("--token-ids")) {
+        if( i+1 >= args.length || args[i+1].startsWith( "-" ) ) {
+          printKnoxShellUsage();
+          return -1;
+        }
+        this.tokenIds = args[++i];
+      } else if (args[i].equals("--token-user")) {
+        if( i+1 >= args.length || args[i+1].startsWith( "-" ) ) {
+          printKnoxShellUsage();
+          return -1;
+        }
+        this.tokenUser = args[++i];
+      } else if (args[i].equals("--token-created-by")) {
+        if( i+1 >= args.length || args[i+1].startsWith( "-" ) ) {
+          printKnoxShellUsage();
+          return -1;
+        }
+        this.tokenCreatedBy = args[++i];
       } else if (args[i].equals("--generate")) {
         if ( command instanceof MasterCreateCommand ) {
           this.master = UUID.randomUUID().toString();
@@ -357,6 +398,12 @@ public class KnoxCLI extends Configured implements Tool {
           return -1;
         }
         this.hostname = args[++i];
+      } else if (args[i].equals("--keyalg")) {
+        if( i+1 >= args.length || !SUPPORTED_CERT_KEY_ALGORITHMS.contains(args[i+1]) ) {
+          printKnoxShellUsage();
+          return -1;
+        }
+        this.keyAlgorithm = args[++i];
       } else if (args[i].equals("--port")) {
         if( i+1 >= args.length || args[i+1].startsWith( "-" ) ) {
           printKnoxShellUsage();
@@ -579,6 +626,9 @@ public class KnoxCLI extends Configured implements Tool {
       out.println(ServiceTestCommand.USAGE + "\n\n" + ServiceTestCommand.DESC);
       out.println();
       out.println( div );
+      out.println(TokenBatchCommand.USAGE + "\n\n" + TokenBatchCommand.DESC);
+      out.println();
+      out.println( div );
       out.println(RemoteRegistryClientsListCommand.USAGE + "\n\n" + RemoteRegistryClientsListCommand.DESC);
       out.println();
       out.println( div );
@@ -751,14 +801,17 @@ public class KnoxCLI extends Configured implements Tool {
 
  public class CertCreateCommand extends Command {
 
-  public static final String USAGE = "create-cert [--force] [--hostname h]";
+  public static final String USAGE = "create-cert [--force] [--hostname h] [--keyalg RSA|ES256|ES384|ES512]";
   public static final String DESC = "The create-cert command populates the configured identity\n" +
                                     "keystore with a self-signed certificate to be used as the\n" +
                                     "gateway identity. If a cert exists and it is determined to\n" +
                                     "not have been generated by Knox, --force must be specified\n" +
                                     "to overwrite it.  If a self-signed cert is created, a\n" +
                                     "password for the key will be generated and stored in the\n" +
-                                    "__gateway-credentials.jceks credential store.";
+                                    "__gateway-credentials.jceks credential store.\n" +
+                                    "The --keyalg option selects the key of the certificate: a\n" +
+                                    "2048 bit RSA key (default) or an EC key on the P-256, P-384\n" +
+                                    "or P-521 curve for ES256, ES384 or ES512 signed tokens.";
   private static final String GATEWAY_CREDENTIAL_STORE_NAME = "__gateway";
 
    public CertCreateCommand() {
@@ -804,7 +857,7 @@ public class KnoxCLI extends Configured implements Tool {
              MasterService ms = services.getService(ServiceType.MASTER_SERVICE);
              passphrase = ms.getMasterSecret();
            }
-           ks.addSelfSignedCertForGateway(config.getIdentityKeyAlias(), passphrase, hostname);
+           ks.addSelfSignedCertForGateway(config.getIdentityKeyAlias(), passphrase, hostname, keyAlgorithm);
 //         logAndValidateCertificate();
            out.println("Certificate " + config.getIdentityKeyAlias() + " has been successfully created.");
          } else {
@@ -1988,6 +2041,123 @@ public class KnoxCLI extends Configured implements Tool {
 
   }
 
+  public class TokenBatchCommand extends Command {
+    static final String USAGE = "{revoke-tokens|enable-tokens|disable-tokens|renew-tokens} [--token-ids id1,id2...] " +
+        "[--token-user username] [--token-created-by username] --cluster clustername [--u username] [--p password] " +
+        "[--hostname name] [--port port]";
+    static final String DESC =
+        "This command requires a running instance of Knox, with token management enabled for the KNOXTOKEN\n" +
+        "service of the given topology. It revokes, enables, disables or renews all of the selected tokens\n" +
+        "with a single request; tokens are selected by ID, by the user they were issued for and/or by the\n" +
+        "user who created them on behalf of others. The processed and skipped tokens are returned. JSON formatted.\n";
+
+    private final String operation;
+    private boolean ssl = true;
+
+    TokenBatchCommand(String operation) {
+      this.operation = operation;
+    }
+
+    @Override
+    public String getUsage() { return USAGE + ":\n\n" + DESC; }
+
+    @Override
+    public void execute() {
+      if (cluster == null) {
+        printKnoxShellUsage();
+        out.println("A --cluster argument is required.");
+        return;
+      }
+      if (tokenIds == null && tokenUser == null && tokenCreatedBy == null) {
+        printKnoxShellUsage();
+        out.println("At least one of the --token-ids, --token-user or --token-created-by arguments is required.");
+        return;
+      }
+
+      GatewayConfig conf = getGatewayConfig();
+      String host = hostname;
+      if (host == null) {
+        try {
+          host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+          out.println(e.toString());
+          out.println("Defaulting address to localhost. Use --hostname option to specify a different hostname");
+          host = "localhost";
+        }
+      }
+      String gatewayPort;
+      if (port != null) {
+        gatewayPort = port;
+      } else if (conf.getGatewayPort() > -1) {
+        gatewayPort = Integer.toString(conf.getGatewayPort());
+      } else {
+        out.println("Could not get port. Please supply it using the --port option");
+        return;
+      }
+      String url = (ssl ? "https://" : "http://") + host + ":" + gatewayPort + "/" + conf.getGatewayPath() + "/" + cluster +
+          "/knoxtoken/api/v1/token/batch/" + operation;
+
+      Map<String, Object> selection = new LinkedHashMap<>();
+      if (tokenIds != null) {
+        selection.put("tokenIds", Arrays.stream(tokenIds.split(",")).map(String::trim).filter(StringUtils::isNotEmpty).collect(Collectors.toList()));
+      }
+      if (tokenUser != null) {
+        selection.put("userName", tokenUser);
+      }
+      if (tokenCreatedBy != null) {
+        selection.put("createdBy", tokenCreatedBy);
+      }
+
+      // same HTTP methods as the single token operations of the KNOXTOKEN service
+      final String method = "revoke".equals(operation) ? HttpDelete.METHOD_NAME : HttpPut.METHOD_NAME;
+      HttpEntityEnclosingRequestBase request = new HttpEntityEnclosingRequestBase() {
+        @Override
+        public String getMethod() {
+          return method;
+        }
+      };
+      request.setURI(URI.create(url));
+      request.setEntity(new StringEntity(JsonUtils.renderAsJsonString(selection), ContentType.APPLICATION_JSON));
+      if (user != null && pass != null) {
+        request.setHeader("Authorization", "Basic " + Base64.encodeBase64String((user + ":" + pass).getBytes(StandardCharsets.UTF_8)));
+      } else {
+        out.println("Username and/or password not supplied. Expect HTTP 401 Unauthorized responses.");
+      }
+      request.setHeader("Accept", MediaType.APPLICATION_JSON.getMediaType());
+
+      out.println(request.toString());
+      try (CloseableHttpClient client = HttpClients.createDefault();
+           CloseableHttpResponse response = client.execute(request)) {
+        switch (response.getStatusLine().getStatusCode()) {
+          case 200:
+            response.getEntity().writeTo(out);
+            break;
+          case 404:
+            out.println("Could not find the knoxtoken resource");
+            out.println("Make sure you have configured the KNOXTOKEN service in your topology.");
+            break;
+          default:
+            out.println(response.getStatusLine().toString());
+            response.getEntity().writeTo(out);
+            break;
+        }
+        out.println();
+      } catch (SSLException e) {
+        out.println(e.toString());
+        if (ssl) {
+          ssl = false;
+          out.println("Attempting request without SSL.");
+          execute();
+        }
+      } catch (IOException e) {
+        out.println(e.toString());
+        if (debug) {
+          e.printStackTrace(out);
+        }
+      }
+    }
+  }
+
   public class RemoteRegistryClientsListCommand extends Command {
 
     static final String USAGE = "list-registry-clients";
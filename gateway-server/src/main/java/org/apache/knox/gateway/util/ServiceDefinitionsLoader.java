@@ -34,6 +34,7 @@ import org.apache.knox.gateway.service.definition.ServiceDefinitionPairComparato
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -42,20 +43,30 @@ import java.io.InputStreamReader;
 import java.io.Reader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 public class ServiceDefinitionsLoader {
-  private static final JAXBContext jaxbContext = getJAXBContext();
-
   private static final GatewayMessages log = MessagesFactory.get(GatewayMessages.class);
 
   private static final String SERVICE_FILE_NAME = "service";
 
   private static final String REWRITE_FILE = "rewrite.xml";
 
+  // initialized on first use, there is no need for JAXB if all definitions come from the snapshot
+  private static final class JAXBContextHolder {
+    private static final JAXBContext JAXB_CONTEXT = getJAXBContext();
+  }
+
   private static JAXBContext getJAXBContext() {
     try {
       return JAXBContext.newInstance(ServiceDefinition.class);
@@ -64,45 +75,102 @@ public class ServiceDefinitionsLoader {
     }
   }
 
-  private static Unmarshaller createUnmarshaller() {
-    try {
-      return jaxbContext.createUnmarshaller();
-    } catch (JAXBException e) {
-      throw new RuntimeException("Could not create unmarshaller", e);
-    }
+  public static Set<ServiceDeploymentContributor> loadServiceDefinitionDeploymentContributors(File servicesDir) {
+    return loadServiceDefinitionDeploymentContributors(servicesDir, null);
   }
 
-  public static Set<ServiceDeploymentContributor> loadServiceDefinitionDeploymentContributors(File servicesDir) {
+  public static Set<ServiceDeploymentContributor> loadServiceDefinitionDeploymentContributors(File servicesDir, File snapshotFile) {
     final Set<ServiceDeploymentContributor> contributors = new HashSet<>();
-    loadServiceDefinitions(servicesDir).forEach(
+    loadServiceDefinitions(servicesDir, snapshotFile).forEach(
         serviceDefinitionPair -> contributors.add(new ServiceDefinitionDeploymentContributor(serviceDefinitionPair.getService(), serviceDefinitionPair.getRewriteRules())));
     return contributors;
   }
 
   public static Set<ServiceDefinitionPair> loadServiceDefinitions(File servicesDir) {
+    return loadServiceDefinitions(servicesDir, null);
+  }
+
+  /**
+   * Loads the service definitions found in the given directory, the files are parsed in parallel.
+   *
+   * @param servicesDir the services directory
+   * @param snapshotFile the snapshot of previously parsed service definitions, may be <code>null</code>;
+   *                     it is updated when it does not reflect the current content of the services directory
+   * @return the service definitions ordered by name, role and version
+   */
+  public static Set<ServiceDefinitionPair> loadServiceDefinitions(File servicesDir, File snapshotFile) {
     final Set<ServiceDefinitionPair> serviceDefinitions = new TreeSet<>(new ServiceDefinitionPairComparator());
     if (servicesDir.exists() && servicesDir.isDirectory()) {
-      final Unmarshaller unmarshaller = createUnmarshaller();
-      getFileList(servicesDir).forEach(serviceFile -> {
-        try {
-          serviceDefinitions.add(loadServiceDefinition(unmarshaller, serviceFile));
-        } catch (FileNotFoundException e) {
-          log.failedToFindServiceDefinitionFile(serviceFile.getAbsolutePath(), e);
-        } catch (IOException | JAXBException e) {
-          log.failedToLoadServiceDefinition(serviceFile.getAbsolutePath(), e);
+      final long start = System.nanoTime();
+      final Map<String, ServiceDefinitionsSnapshot.Entry> snapshot = ServiceDefinitionsSnapshot.read(snapshotFile);
+      final List<LoadedServiceDefinition> loadedServiceDefinitions = getFileList(servicesDir).parallelStream()
+          .map(serviceFile -> loadServiceDefinition(servicesDir, serviceFile, snapshot))
+          .filter(Objects::nonNull)
+          .collect(Collectors.toList());
+
+      final List<ServiceDefinitionsSnapshot.Entry> entries = new ArrayList<>(loadedServiceDefinitions.size());
+      int fromSnapshot = 0;
+      for (LoadedServiceDefinition loadedServiceDefinition : loadedServiceDefinitions) {
+        serviceDefinitions.add(loadedServiceDefinition.serviceDefinition);
+        entries.add(loadedServiceDefinition.entry);
+        if (loadedServiceDefinition.fromSnapshot) {
+          fromSnapshot++;
         }
-      });
+      }
+      if (snapshotFile != null && (fromSnapshot != entries.size() || snapshot.size() != entries.size())) {
+        ServiceDefinitionsSnapshot.write(snapshotFile, entries);
+      }
+      log.loadedServiceDefinitions(serviceDefinitions.size(), servicesDir.getAbsolutePath(),
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), fromSnapshot);
     }
 
     return serviceDefinitions;
   }
 
-  private static ServiceDefinitionPair loadServiceDefinition(Unmarshaller unmarshaller, File serviceFile) throws IOException, JAXBException {
-    try (InputStream inputStream = Files.newInputStream(serviceFile.toPath())) {
-      final ServiceDefinition service = (ServiceDefinition) unmarshaller.unmarshal(serviceFile);
+  private static final class LoadedServiceDefinition {
+    final ServiceDefinitionPair serviceDefinition;
+    final ServiceDefinitionsSnapshot.Entry entry;
+    final boolean fromSnapshot;
+
+    LoadedServiceDefinition(ServiceDefinitionPair serviceDefinition, ServiceDefinitionsSnapshot.Entry entry, boolean fromSnapshot) {
+      this.serviceDefinition = serviceDefinition;
+      this.entry = entry;
+      this.fromSnapshot = fromSnapshot;
+    }
+  }
+
+  private static LoadedServiceDefinition loadServiceDefinition(File servicesDir, File serviceFile, Map<String, ServiceDefinitionsSnapshot.Entry> snapshot) {
+    try {
+      final byte[] content = Files.readAllBytes(serviceFile.toPath());
+      final ServiceDefinitionsSnapshot.Fingerprint fingerprint = ServiceDefinitionsSnapshot.Fingerprint.of(
+          servicesDir.toPath().relativize(serviceFile.toPath()).toString(), serviceFile.lastModified(), content);
+      final ServiceDefinitionsSnapshot.Entry cached = snapshot.get(fingerprint.path);
+      final boolean fromSnapshot = cached != null && cached.fingerprint.matches(fingerprint);
+      final ServiceDefinition service = fromSnapshot ? cached.serviceDefinition : unmarshal(content);
       final UrlRewriteRulesDescriptor rewriteRules = loadRewriteRules(serviceFile.getParentFile());
-      return new ServiceDefinitionPair(service, rewriteRules);
+      return new LoadedServiceDefinition(new ServiceDefinitionPair(service, rewriteRules),
+          new ServiceDefinitionsSnapshot.Entry(fingerprint, service), fromSnapshot);
+    } catch (NoSuchFileException e) {
+      log.failedToFindServiceDefinitionFile(serviceFile.getAbsolutePath(), e);
+    } catch (IOException | JAXBException e) {
+      log.failedToLoadServiceDefinition(serviceFile.getAbsolutePath(), e);
     }
+    return null;
+  }
+
+  /**
+   * Loads a single service definition along with the rewrite rules next to it.
+   */
+  public static ServiceDefinitionPair loadServiceDefinition(File serviceFile) throws IOException, JAXBException {
+    final ServiceDefinition service = unmarshal(Files.readAllBytes(serviceFile.toPath()));
+    final UrlRewriteRulesDescriptor rewriteRules = loadRewriteRules(serviceFile.getParentFile());
+    return new ServiceDefinitionPair(service, rewriteRules);
+  }
+
+  private static ServiceDefinition unmarshal(byte[] content) throws JAXBException {
+    // unmarshallers are not thread safe, they are cheap to create from the shared context though
+    final Unmarshaller unmarshaller = JAXBContextHolder.JAXB_CONTEXT.createUnmarshaller();
+    return (ServiceDefinition) unmarshaller.unmarshal(new ByteArrayInputStream(content));
   }
 
   public static Set<ServiceDefinition> getServiceDefinitions(File servicesDir) {
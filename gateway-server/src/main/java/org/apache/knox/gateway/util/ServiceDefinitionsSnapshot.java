@@ -0,0 +1,420 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.util;
+
+import org.apache.knox.gateway.GatewayMessages;
+import org.apache.knox.gateway.config.GatewayConfig;
+import org.apache.knox.gateway.i18n.messages.MessagesFactory;
+import org.apache.knox.gateway.service.definition.CustomDispatch;
+import org.apache.knox.gateway.service.definition.DispatchParam;
+import org.apache.knox.gateway.service.definition.Metadata;
+import org.apache.knox.gateway.service.definition.Policy;
+import org.apache.knox.gateway.service.definition.Rewrite;
+import org.apache.knox.gateway.service.definition.Route;
+import org.apache.knox.gateway.service.definition.Sample;
+import org.apache.knox.gateway.service.definition.ServiceDefinition;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A binary snapshot of parsed service definitions that is kept in the gateway data directory,
+ * so that unchanged <code>service.xml</code> files do not have to be unmarshalled on every start.
+ * <p>
+ * Every entry records the path, modification time, size and SHA-256 hash of the file it was
+ * parsed from and is only reused while all of them match. The whole snapshot is protected by a
+ * SHA-256 checksum, a snapshot that cannot be read or verified is ignored.
+ */
+public final class ServiceDefinitionsSnapshot {
+  private static final GatewayMessages LOG = MessagesFactory.get(GatewayMessages.class);
+
+  static final String SNAPSHOT_FILE_NAME = "service-definitions.snapshot";
+
+  private static final int MAGIC = 0x4B534453; // KSDS
+  private static final byte FORMAT_VERSION = 1;
+  private static final String DIGEST_ALGORITHM = "SHA-256";
+  private static final int DIGEST_LENGTH = 32;
+
+  private ServiceDefinitionsSnapshot() {
+  }
+
+  /**
+   * @return the snapshot file in the data directory of the given configuration or <code>null</code> if there is none
+   */
+  public static File getSnapshotFile(GatewayConfig config) {
+    final String dataDir = config == null ? null : config.getGatewayDataDir();
+    return dataDir == null ? null : new File(dataDir, SNAPSHOT_FILE_NAME);
+  }
+
+  /**
+   * Identifies the content of a service definition file.
+   */
+  static final class Fingerprint {
+    final String path;
+    final long lastModified;
+    final long length;
+    final byte[] hash;
+
+    Fingerprint(String path, long lastModified, long length, byte[] hash) {
+      this.path = path;
+      this.lastModified = lastModified;
+      this.length = length;
+      this.hash = hash;
+    }
+
+    static Fingerprint of(String path, long lastModified, byte[] content) {
+      return new Fingerprint(path, lastModified, content.length, sha256(content));
+    }
+
+    boolean matches(Fingerprint other) {
+      return other != null && path.equals(other.path) && lastModified == other.lastModified && length == other.length
+          && MessageDigest.isEqual(hash, other.hash);
+    }
+  }
+
+  static final class Entry {
+    final Fingerprint fingerprint;
+    final ServiceDefinition serviceDefinition;
+
+    Entry(Fingerprint fingerprint, ServiceDefinition serviceDefinition) {
+      this.fingerprint = fingerprint;
+      this.serviceDefinition = serviceDefinition;
+    }
+  }
+
+  /**
+   * @return the entries of the snapshot by file path; empty if there is no usable snapshot
+   */
+  static Map<String, Entry> read(File snapshotFile) {
+    if (snapshotFile == null || !snapshotFile.isFile()) {
+      return Collections.emptyMap();
+    }
+    try {
+      final byte[] bytes = Files.readAllBytes(snapshotFile.toPath());
+      final DataInputStream header = new DataInputStream(new ByteArrayInputStream(bytes));
+      if (bytes.length < 9 + DIGEST_LENGTH || header.readInt() != MAGIC || header.readByte() != FORMAT_VERSION) {
+        throw new IOException("Unsupported service definitions snapshot format");
+      }
+      final int payloadLength = header.readInt();
+      if (payloadLength != bytes.length - 9 - DIGEST_LENGTH) {
+        throw new IOException("Truncated service definitions snapshot");
+      }
+      final byte[] payload = Arrays.copyOfRange(bytes, 9, 9 + payloadLength);
+      if (!MessageDigest.isEqual(sha256(payload), Arrays.copyOfRange(bytes, 9 + payloadLength, bytes.length))) {
+        throw new IOException("Service definitions snapshot checksum mismatch");
+      }
+
+      final DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+      final int count = in.readInt();
+      final Map<String, Entry> entries = new HashMap<>();
+      for (int i = 0; i < count; i++) {
+        final String path = in.readUTF();
+        final long lastModified = in.readLong();
+        final long length = in.readLong();
+        final byte[] hash = new byte[DIGEST_LENGTH];
+        in.readFully(hash);
+        entries.put(path, new Entry(new Fingerprint(path, lastModified, length, hash), readServiceDefinition(in)));
+      }
+      return entries;
+    } catch (IOException | RuntimeException e) {
+      LOG.failedToReadServiceDefinitionsSnapshot(snapshotFile.getAbsolutePath(), e);
+      return Collections.emptyMap();
+    }
+  }
+
+  /**
+   * Replaces the snapshot file with the given entries. The file is written next to the snapshot
+   * and moved in place, so readers never see a partially written snapshot.
+   */
+  static void write(File snapshotFile, Collection<Entry> entries) {
+    Path tempFile = null;
+    try {
+      final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+      final DataOutputStream out = new DataOutputStream(payload);
+      out.writeInt(entries.size());
+      for (Entry entry : entries) {
+        out.writeUTF(entry.fingerprint.path);
+        out.writeLong(entry.fingerprint.lastModified);
+        out.writeLong(entry.fingerprint.length);
+        out.write(entry.fingerprint.hash);
+        writeServiceDefinition(out, entry.serviceDefinition);
+      }
+      out.flush();
+      final byte[] payloadBytes = payload.toByteArray();
+
+      final ByteArrayOutputStream snapshot = new ByteArrayOutputStream(payloadBytes.length + 9 + DIGEST_LENGTH);
+      final DataOutputStream header = new DataOutputStream(snapshot);
+      header.writeInt(MAGIC);
+      header.writeByte(FORMAT_VERSION);
+      header.writeInt(payloadBytes.length);
+      header.write(payloadBytes);
+      header.write(sha256(payloadBytes));
+      header.flush();
+
+      final Path directory = snapshotFile.getAbsoluteFile().getParentFile().toPath();
+      Files.createDirectories(directory);
+      tempFile = Files.createTempFile(directory, SNAPSHOT_FILE_NAME, ".tmp");
+      Files.write(tempFile, snapshot.toByteArray());
+      Files.move(tempFile, snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      tempFile = null;
+    } catch (IOException e) {
+      LOG.failedToWriteServiceDefinitionsSnapshot(snapshotFile.getAbsolutePath(), e);
+    } finally {
+      if (tempFile != null) {
+        try {
+          Files.deleteIfExists(tempFile);
+        } catch (IOException e) {
+          LOG.failedToWriteServiceDefinitionsSnapshot(tempFile.toString(), e);
+        }
+      }
+    }
+  }
+
+  static byte[] sha256(byte[] content) {
+    try {
+      return MessageDigest.getInstance(DIGEST_ALGORITHM).digest(content);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  static void writeServiceDefinition(DataOutputStream out, ServiceDefinition serviceDefinition) throws IOException {
+    writeString(out, serviceDefinition.getName());
+    writeString(out, serviceDefinition.getRole());
+    writeString(out, serviceDefinition.getVersion());
+    writeMetadata(out, serviceDefinition.getMetadata());
+    writeList(out, serviceDefinition.getRoutes(), ServiceDefinitionsSnapshot::writeRoute);
+    writeList(out, serviceDefinition.getPolicies(), ServiceDefinitionsSnapshot::writePolicy);
+    writeDispatch(out, serviceDefinition.getDispatch());
+    writeList(out, serviceDefinition.getTestURLs(), ServiceDefinitionsSnapshot::writeString);
+  }
+
+  static ServiceDefinition readServiceDefinition(DataInputStream in) throws IOException {
+    final ServiceDefinition serviceDefinition = new ServiceDefinition();
+    serviceDefinition.setName(readString(in));
+    serviceDefinition.setRole(readString(in));
+    serviceDefinition.setVersion(readString(in));
+    serviceDefinition.setMetadata(readMetadata(in));
+    serviceDefinition.setRoutes(readList(in, ServiceDefinitionsSnapshot::readRoute));
+    serviceDefinition.setPolicies(readList(in, ServiceDefinitionsSnapshot::readPolicy));
+    serviceDefinition.setDispatch(readDispatch(in));
+    serviceDefinition.setTestURLs(readList(in, ServiceDefinitionsSnapshot::readString));
+    return serviceDefinition;
+  }
+
+  private static void writeMetadata(DataOutputStream out, Metadata metadata) throws IOException {
+    out.writeBoolean(metadata != null);
+    if (metadata != null) {
+      writeString(out, metadata.getType());
+      writeString(out, metadata.getContext());
+      writeString(out, metadata.getShortDesc());
+      writeString(out, metadata.getDescription());
+      writeList(out, metadata.getSamples(), ServiceDefinitionsSnapshot::writeSample);
+    }
+  }
+
+  private static Metadata readMetadata(DataInputStream in) throws IOException {
+    if (!in.readBoolean()) {
+      return null;
+    }
+    final Metadata metadata = new Metadata();
+    metadata.setType(readString(in));
+    metadata.setContext(readString(in));
+    metadata.setShortDesc(readString(in));
+    metadata.setDescription(readString(in));
+    metadata.setSamples(readList(in, ServiceDefinitionsSnapshot::readSample));
+    return metadata;
+  }
+
+  private static void writeSample(DataOutputStream out, Sample sample) throws IOException {
+    writeString(out, sample.getDescription());
+    writeString(out, sample.getMethod());
+    writeString(out, sample.getPath());
+    writeString(out, sample.getValue());
+  }
+
+  private static Sample readSample(DataInputStream in) throws IOException {
+    final Sample sample = new Sample();
+    sample.setDescription(readString(in));
+    sample.setMethod(readString(in));
+    sample.setPath(readString(in));
+    sample.setValue(readString(in));
+    return sample;
+  }
+
+  private static void writeRoute(DataOutputStream out, Route route) throws IOException {
+    writeString(out, route.getPath());
+    writeList(out, route.getRewrites(), ServiceDefinitionsSnapshot::writeRewrite);
+    writeList(out, route.getPolicies(), ServiceDefinitionsSnapshot::writePolicy);
+    writeDispatch(out, route.getDispatch());
+  }
+
+  private static Route readRoute(DataInputStream in) throws IOException {
+    final Route route = new Route();
+    route.setPath(readString(in));
+    route.setRewrites(readList(in, ServiceDefinitionsSnapshot::readRewrite));
+    route.setPolicies(readList(in, ServiceDefinitionsSnapshot::readPolicy));
+    route.setDispatch(readDispatch(in));
+    return route;
+  }
+
+  private static void writeRewrite(DataOutputStream out, Rewrite rewrite) throws IOException {
+    writeString(out, rewrite.getApply());
+    writeString(out, rewrite.getTo());
+  }
+
+  private static Rewrite readRewrite(DataInputStream in) throws IOException {
+    final Rewrite rewrite = new Rewrite();
+    rewrite.setApply(readString(in));
+    rewrite.setTo(readString(in));
+    return rewrite;
+  }
+
+  private static void writePolicy(DataOutputStream out, Policy policy) throws IOException {
+    writeString(out, policy.getName());
+    writeString(out, policy.getRole());
+    writeParams(out, policy.getParams());
+  }
+
+  private static Policy readPolicy(DataInputStream in) throws IOException {
+    final Policy policy = new Policy();
+    policy.setName(readString(in));
+    policy.setRole(readString(in));
+    for (DispatchParam param : readParams(in)) {
+      policy.addParam(param);
+    }
+    return policy;
+  }
+
+  private static void writeDispatch(DataOutputStream out, CustomDispatch dispatch) throws IOException {
+    out.writeBoolean(dispatch != null);
+    if (dispatch != null) {
+      writeString(out, dispatch.getContributorName());
+      writeString(out, dispatch.getHaContributorName());
+      writeString(out, dispatch.getClassName());
+      writeString(out, dispatch.getHaClassName());
+      writeString(out, dispatch.getHttpClientFactory());
+      out.writeBoolean(dispatch.getUseTwoWaySsl());
+      writeParams(out, dispatch.getParams());
+    }
+  }
+
+  private static CustomDispatch readDispatch(DataInputStream in) throws IOException {
+    if (!in.readBoolean()) {
+      return null;
+    }
+    final CustomDispatch dispatch = new CustomDispatch();
+    dispatch.setContributorName(readString(in));
+    dispatch.setHaContributorName(readString(in));
+    dispatch.setClassName(readString(in));
+    dispatch.setHaClassName(readString(in));
+    dispatch.setHttpClientFactory(readString(in));
+    dispatch.setUseTwoWaySsl(in.readBoolean());
+    for (DispatchParam param : readParams(in)) {
+      dispatch.addParam(param);
+    }
+    return dispatch;
+  }
+
+  private static void writeParams(DataOutputStream out, Map<String, String> params) throws IOException {
+    out.writeInt(params.size());
+    for (Map.Entry<String, String> param : params.entrySet()) {
+      writeString(out, param.getKey());
+      writeString(out, param.getValue());
+    }
+  }
+
+  private static List<DispatchParam> readParams(DataInputStream in) throws IOException {
+    final int count = in.readInt();
+    final List<DispatchParam> params = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      params.add(new DispatchParam(readString(in), readString(in)));
+    }
+    return params;
+  }
+
+  private interface Writer<T> {
+    void write(DataOutputStream out, T value) throws IOException;
+  }
+
+  private interface Reader<T> {
+    T read(DataInputStream in) throws IOException;
+  }
+
+  private static <T> void writeList(DataOutputStream out, List<T> values, Writer<T> writer) throws IOException {
+    // JAXB leaves absent lists null, -1 keeps them apart from empty ones
+    out.writeInt(values == null ? -1 : values.size());
+    if (values != null) {
+      for (T value : values) {
+        writer.write(out, value);
+      }
+    }
+  }
+
+  private static <T> List<T> readList(DataInputStream in, Reader<T> reader) throws IOException {
+    final int count = in.readInt();
+    if (count < 0) {
+      return null;
+    }
+    final List<T> values = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      values.add(reader.read(in));
+    }
+    return values;
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+    } else {
+      final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    final int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    if (length > in.available()) {
+      throw new IOException("Invalid string length " + length);
+    }
+    final byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
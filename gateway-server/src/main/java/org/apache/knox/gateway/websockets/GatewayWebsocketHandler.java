@@ -27,6 +27,8 @@ import org.apache.knox.gateway.services.registry.ServiceDefinitionRegistry;
 import org.apache.knox.gateway.services.registry.ServiceRegistry;
 import org.apache.knox.gateway.services.security.KeystoreService;
 import org.apache.knox.gateway.services.security.KeystoreServiceException;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.eclipse.jetty.websocket.jsr356.ClientContainer;
 import org.eclipse.jetty.websocket.server.WebSocketHandler;
 import org.eclipse.jetty.websocket.servlet.ServletUpgradeRequest;
 import org.eclipse.jetty.websocket.servlet.ServletUpgradeResponse;
@@ -34,9 +36,10 @@ import org.eclipse.jetty.websocket.servlet.WebSocketCreator;
 import org.eclipse.jetty.websocket.servlet.WebSocketServletFactory;
 
 import javax.websocket.ClientEndpointConfig;
+import javax.websocket.ContainerProvider;
+import javax.websocket.WebSocketContainer;
 import java.net.MalformedURLException;
 import java.net.URI;
-import java.net.URISyntaxException;
 import java.net.URL;
 import java.security.KeyStore;
 import java.util.Arrays;
@@ -75,6 +78,13 @@ public class GatewayWebsocketHandler extends WebSocketHandler
    */
   private final ExecutorService pool;
 
+  /**
+   * Client container shared by all proxied connections, created when the
+   * handler starts.
+   * @since 2.0.0
+   */
+  private WebSocketContainer container;
+
   final GatewayConfig config;
   final GatewayServices services;
 
@@ -87,6 +97,54 @@ public class GatewayWebsocketHandler extends WebSocketHandler
     pool = Executors.newFixedThreadPool(POOL_SIZE);
   }
 
+  @Override
+  protected void doStart() throws Exception {
+    container = createClientContainer();
+    super.doStart();
+  }
+
+  @Override
+  protected void doStop() throws Exception {
+    super.doStop();
+    final WebSocketContainer stopping = container;
+    container = null;
+    if (stopping instanceof LifeCycle) {
+      ((LifeCycle) stopping).stop();
+    }
+  }
+
+  /**
+   * Creates the client container used to connect to backends, configured
+   * the same way as the server side of the proxied connections.
+   */
+  private WebSocketContainer createClientContainer() {
+    final WebSocketContainer clientContainer = ContainerProvider.getWebSocketContainer();
+    clientContainer.setDefaultMaxTextMessageBufferSize(config.getWebsocketMaxTextMessageBufferSize());
+    clientContainer.setDefaultMaxBinaryMessageBufferSize(config.getWebsocketMaxBinaryMessageBufferSize());
+    clientContainer.setAsyncSendTimeout(config.getWebsocketAsyncWriteTimeout());
+    clientContainer.setDefaultMaxSessionIdleTimeout(config.getWebsocketIdleTimeout());
+    try {
+      setTruststore(clientContainer, getTruststore());
+    } catch (final KeystoreServiceException e) {
+      LOG.failedCreatingWebSocket(e);
+    }
+    return clientContainer;
+  }
+
+  /*
+   * Currently javax.websocket API has no provisions to configure SSL
+   * https://github.com/eclipse-ee4j/websocket-api/issues/210
+   * Until that gets fixed we'll have to resort to this.
+   */
+  static void setTruststore(final WebSocketContainer container, final KeyStore ks) {
+    if(container instanceof ClientContainer &&
+        ((ClientContainer)container).getClient() != null &&
+        ((ClientContainer)container).getClient().getSslContextFactory() != null ) {
+      ((ClientContainer)container).getClient().getHttpClient().getSslContextFactory().setTrustStore(ks);
+      LOG.logMessage("Truststore for websocket setup");
+    }
+  }
+
   @Override
   public void configure(final WebSocketServletFactory factory) {
     factory.setCreator(this);
@@ -121,9 +179,13 @@ public class GatewayWebsocketHandler extends WebSocketHandler
       LOG.debugLog("Generated backend URL for websocket connection: " + backendURL);
 
       /* Upgrade happens here */
-      final ClientEndpointConfig clientConfig = getClientEndpointConfig(req);
-      clientConfig.getUserProperties().put("org.apache.knox.gateway.websockets.truststore", getTruststore());
-      return new ProxyWebSocketAdapter(URI.create(backendURL), pool, clientConfig, config);
+      final URI backendURI = URI.create(backendURL);
+      final ClientEndpointConfig clientConfig = getClientEndpointConfig(req, backendURI);
+      final WebSocketContainer shared = container;
+      if (shared == null) {
+        clientConfig.getUserProperties().put("org.apache.knox.gateway.websockets.truststore", getTruststore());
+      }
+      return new ProxyWebSocketAdapter(backendURI, pool, clientConfig, config, shared);
     } catch (final Exception e) {
       LOG.failedCreatingWebSocket(e);
       throw new RuntimeException(e);
@@ -148,7 +210,7 @@ public class GatewayWebsocketHandler extends WebSocketHandler
    * to be passed to the backend.
    * @since 0.14.0
    */
-  private ClientEndpointConfig getClientEndpointConfig(final ServletUpgradeRequest req) {
+  private ClientEndpointConfig getClientEndpointConfig(final ServletUpgradeRequest req, final URI backendURL) {
 
     return ClientEndpointConfig.Builder.create()
         .configurator(new ClientEndpointConfig.Configurator() {
@@ -158,14 +220,7 @@ public class GatewayWebsocketHandler extends WebSocketHandler
 
             /* Add request headers */
             req.getHeaders().forEach(headers::putIfAbsent);
-            try {
-              final URI backendURL = new URI(getMatchedBackendURL(req.getRequestURI()));
-              headers.put("Host", Arrays.asList(backendURL.getHost() + ":" + backendURL.getPort()));
-            } catch (final URISyntaxException e) {
-              LOG.onError(String.format(Locale.ROOT,
-                  "Error getting backend url, this could cause 'Host does not match SNI' exception. Cause: ",
-                  e.toString()));
-            }
+            headers.put("Host", Arrays.asList(backendURL.getHost() + ":" + backendURL.getPort()));
           }
         }).build();
   }
@@ -174,10 +229,11 @@ public class GatewayWebsocketHandler extends WebSocketHandler
    * This method looks at the context path and returns the backend websocket
    * url. If websocket url is found it is used as is, or we default to
    * ws://{host}:{port} which might or might not be right.
+   * The lookup only reads the service registries, so it is not synchronized.
    * @param requestURI url to match
    * @return Websocket backend url
    */
-  protected synchronized String getMatchedBackendURL(final URI requestURI) {
+  protected String getMatchedBackendURL(final URI requestURI) {
     final String path = requestURI.getRawPath();
     final String query = requestURI.getRawQuery();
 
@@ -57,6 +57,15 @@ public interface MessageEventCallback {
    */
   void onMessageText(String message, Object session);
 
+  /**
+   * Callback when part of a text message is received.
+   * Only used by clients that handle partial messages.
+   * @param message part of the message
+   * @param last whether this is the last part of the message
+   * @param session session
+   */
+  void onMessageText(String message, boolean last, Object session);
+
   /**
    * Callback when a binary message is received.
    * @param message message
@@ -35,13 +35,24 @@ public class ProxyInboundClient extends Endpoint {
    */
   private MessageEventCallback callback;
 
+  /**
+   * Whether messages are handed to the callback frame by frame instead of
+   * being assembled first.
+   */
+  private final boolean partial;
+
   protected Session session;
   protected EndpointConfig config;
 
 
   public ProxyInboundClient(final MessageEventCallback callback) {
+    this(callback, false);
+  }
+
+  public ProxyInboundClient(final MessageEventCallback callback, final boolean partial) {
     super();
     this.callback = callback;
+    this.partial = partial;
   }
 
   /**
@@ -56,6 +67,31 @@ public class ProxyInboundClient extends Endpoint {
     this.session = backendSession;
     this.config = config;
 
+    if (partial) {
+      addPartialMessageHandlers();
+    } else {
+      addWholeMessageHandlers();
+    }
+
+    /* Add message handler for Pong Control Message */
+    session.addMessageHandler(new MessageHandler.Whole<PongMessage>() {
+
+      /**
+       * Called when a ping message has been received.
+       *
+       * @param message the message data.
+       */
+      @Override
+      public void onMessage(final PongMessage pongMessage) {
+        callback.onMessagePong(pongMessage, session);
+      }
+
+    });
+
+    callback.onConnectionOpen(backendSession);
+  }
+
+  private void addWholeMessageHandlers() {
     /* Add message handler for binary data */
     session.addMessageHandler(new MessageHandler.Whole<byte[]>() {
 
@@ -85,23 +121,40 @@ public class ProxyInboundClient extends Endpoint {
       }
 
     });
+  }
 
-    /* Add message handler for Pong Control Message */
-    session.addMessageHandler(new MessageHandler.Whole<PongMessage>() {
+  private void addPartialMessageHandlers() {
+    /* Add message handler for binary data */
+    session.addMessageHandler(new MessageHandler.Partial<byte[]>() {
 
       /**
-       * Called when a ping message has been received.
+       * Called when the next part of a message has been received.
        *
-       * @param message the message data.
+       * @param message the partial message data.
+       * @param last whether this is the last part of the message.
        */
       @Override
-      public void onMessage(final PongMessage pongMessage) {
-        callback.onMessagePong(pongMessage, session);
+      public void onMessage(final byte[] message, final boolean last) {
+        callback.onMessageBinary(message, last, session);
       }
 
     });
 
-    callback.onConnectionOpen(backendSession);
+    /* Add message handler for text data */
+    session.addMessageHandler(new MessageHandler.Partial<String>() {
+
+      /**
+       * Called when the next part of a message has been received.
+       *
+       * @param message the partial message data.
+       * @param last whether this is the last part of the message.
+       */
+      @Override
+      public void onMessage(final String message, final boolean last) {
+        callback.onMessageText(message, last, session);
+      }
+
+    });
   }
 
   @Override
@@ -19,11 +19,8 @@ package org.apache.knox.gateway.websockets;
 
 import java.io.IOException;
 import java.net.URI;
-import java.util.List;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 import javax.websocket.ClientEndpointConfig;
 import javax.websocket.CloseReason;
@@ -33,20 +30,24 @@ import javax.websocket.WebSocketContainer;
 
 import org.apache.knox.gateway.i18n.messages.MessagesFactory;
 import org.apache.knox.gateway.config.GatewayConfig;
+import org.apache.knox.gateway.config.impl.GatewayConfigImpl;
 import org.eclipse.jetty.io.RuntimeIOException;
 import org.eclipse.jetty.util.component.LifeCycle;
-import org.eclipse.jetty.websocket.api.BatchMode;
-import org.eclipse.jetty.websocket.api.RemoteEndpoint;
 import org.eclipse.jetty.websocket.api.Session;
 import org.eclipse.jetty.websocket.api.StatusCode;
-import org.eclipse.jetty.websocket.api.WebSocketAdapter;
+import org.eclipse.jetty.websocket.api.WebSocketPartialListener;
+import org.eclipse.jetty.websocket.api.WebSocketPolicy;
 import java.security.KeyStore;
 /**
  * Handles outbound/inbound Websocket connections and sessions.
  *
+ * Text and binary frames are relayed in both directions as they arrive,
+ * so fragmented messages are never assembled in the gateway. Writes are
+ * asynchronous and bounded per direction, see {@link WebsocketFrameForwarder}.
+ *
  * @since 0.10
  */
-public class ProxyWebSocketAdapter extends WebSocketAdapter {
+public class ProxyWebSocketAdapter implements WebSocketPartialListener {
   private static final WebsocketLogMessages LOG = MessagesFactory.get(WebsocketLogMessages.class);
 
   /* URI for the backend */
@@ -60,12 +61,17 @@ public class ProxyWebSocketAdapter extends WebSocketAdapter {
 
   private WebSocketContainer container;
 
+  /* Whether the container is shared with other connections and must not be stopped here */
+  private final boolean sharedContainer;
+
   private ExecutorService pool;
 
-  /* Message buffer for holding data frames temporarily in memory till connection is setup.
-   Keeping the max size of the buffer as 100 messages for now. */
-  private List<String> messageBuffer = new ArrayList<>();
-  private Lock remoteLock = new ReentrantLock();
+  /* Frames from the frontend on their way to the backend */
+  private WebsocketFrameForwarder toBackend;
+
+  /* Frames from the backend on their way to the frontend, these are held back
+   until the frontend connection is setup */
+  private WebsocketFrameForwarder toFrontend;
 
   private final GatewayConfig config;
 
@@ -81,45 +87,51 @@ public class ProxyWebSocketAdapter extends WebSocketAdapter {
 
   public ProxyWebSocketAdapter(final URI backend, final ExecutorService pool, final ClientEndpointConfig clientConfig,
                                GatewayConfig config) {
+    this(backend, pool, clientConfig, config, null);
+  }
+
+  /**
+   * @param backend backend websocket URI
+   * @param pool pool used for cleanup
+   * @param clientConfig config for the backend connection, may be null
+   * @param config gateway config
+   * @param container client container shared by all proxied connections, if null
+   *                  a container is created for this connection only
+   * @since 2.0.0
+   */
+  public ProxyWebSocketAdapter(final URI backend, final ExecutorService pool, final ClientEndpointConfig clientConfig,
+                               GatewayConfig config, final WebSocketContainer container) {
     super();
     this.backend = backend;
     this.pool = pool;
     this.clientConfig = clientConfig;
     this.config = config;
+    this.container = container;
+    this.sharedContainer = container != null;
   }
 
   @Override
   public void onWebSocketConnect(final Session frontEndSession) {
+    final WebSocketPolicy policy = frontEndSession.getPolicy();
+    long maxPendingBytes = config.getWebsocketMaxPendingBytes();
+    if (maxPendingBytes <= 0) {
+      maxPendingBytes = GatewayConfigImpl.DEFAULT_WEBSOCKET_MAX_PENDING_BYTES;
+    }
+    final int maxWaitFrames = config.getWebsocketMaxWaitBufferCount();
+    toBackend = new WebsocketFrameForwarder(maxPendingBytes, maxWaitFrames,
+        policy.getMaxTextMessageSize(), policy.getMaxBinaryMessageSize());
+    toFrontend = new WebsocketFrameForwarder(maxPendingBytes, maxWaitFrames,
+        policy.getMaxTextMessageSize(), policy.getMaxBinaryMessageSize());
+
     /*
      * Let's connect to the backend, this is where the Backend-to-frontend
      * plumbing takes place
      */
-    container = ContainerProvider.getWebSocketContainer();
-    container.setDefaultMaxTextMessageBufferSize(frontEndSession.getPolicy().getMaxTextMessageBufferSize());
-    container.setDefaultMaxBinaryMessageBufferSize(frontEndSession.getPolicy().getMaxBinaryMessageBufferSize());
-    container.setAsyncSendTimeout(frontEndSession.getPolicy().getAsyncWriteTimeout());
-    container.setDefaultMaxSessionIdleTimeout(frontEndSession.getPolicy().getIdleTimeout());
-
-    KeyStore ks = null;
-    if(clientConfig != null) {
-      ks = (KeyStore) clientConfig.getUserProperties().get("org.apache.knox.gateway.websockets.truststore");
-    }
-
-    /*
-       Currently javax.websocket API has no provisions to configure SSL
-       https://github.com/eclipse-ee4j/websocket-api/issues/210
-       Until that gets fixed we'll have to resort to this.
-    */
-    if(container instanceof org.eclipse.jetty.websocket.jsr356.ClientContainer &&
-        ((org.eclipse.jetty.websocket.jsr356.ClientContainer)container).getClient() != null &&
-        ((org.eclipse.jetty.websocket.jsr356.ClientContainer)container).getClient().getSslContextFactory() != null ) {
-      ((org.eclipse.jetty.websocket.jsr356.ClientContainer)container).getClient().getHttpClient().getSslContextFactory().setTrustStore(ks);
-      LOG.logMessage("Truststore for websocket setup");
+    if (!sharedContainer) {
+      container = createContainer(policy);
     }
 
-    final ProxyInboundClient backendSocket = new ProxyInboundClient(getMessageCallback());
-
-    /* build the configuration */
+    final ProxyInboundClient backendSocket = new ProxyInboundClient(getMessageCallback(), true);
 
     /* Attempt Connect */
     try {
@@ -135,61 +147,57 @@ public class ProxyWebSocketAdapter extends WebSocketAdapter {
       throw new RuntimeIOException(e);
     }
 
-    remoteLock.lock();
-    super.onWebSocketConnect(frontEndSession);
     this.frontendSession = frontEndSession;
+    toBackend.setSource(frontEndSession);
+    toBackend.setTarget(backendSession);
+    /* Flushes the frames received from the backend so far */
+    toFrontend.setTarget(frontEndSession);
+  }
 
-    final RemoteEndpoint remote = frontEndSession.getRemote();
-    try {
-      if (!messageBuffer.isEmpty()) {
-        flushBufferedMessages(remote);
+  /*
+   * Creates a container for this connection only, used when there is no shared container.
+   */
+  private WebSocketContainer createContainer(final WebSocketPolicy policy) {
+    final WebSocketContainer perConnection = ContainerProvider.getWebSocketContainer();
+    perConnection.setDefaultMaxTextMessageBufferSize(policy.getMaxTextMessageBufferSize());
+    perConnection.setDefaultMaxBinaryMessageBufferSize(policy.getMaxBinaryMessageBufferSize());
+    perConnection.setAsyncSendTimeout(policy.getAsyncWriteTimeout());
+    perConnection.setDefaultMaxSessionIdleTimeout(policy.getIdleTimeout());
 
-        if (remote.getBatchMode() == BatchMode.ON) {
-          remote.flush();
-        }
-      } else {
-        LOG.debugLog("Message buffer is empty");
-      }
-    } catch (IOException e) {
-      LOG.connectionFailed(e);
-      throw new RuntimeIOException(e);
-    }
-    finally
-    {
-      remoteLock.unlock();
+    KeyStore ks = null;
+    if(clientConfig != null) {
+      ks = (KeyStore) clientConfig.getUserProperties().get("org.apache.knox.gateway.websockets.truststore");
     }
+    GatewayWebsocketHandler.setTruststore(perConnection, ks);
+    return perConnection;
   }
 
   @Override
-  public void onWebSocketBinary(final byte[] payload, final int offset, final int length) {
+  public void onWebSocketPartialBinary(final ByteBuffer payload, final boolean fin) {
     if (isNotConnected()) {
       return;
     }
 
-    throw new UnsupportedOperationException(
-        "Websocket support for binary messages is not supported at this time.");
+    LOG.debugLog("[From Frontend --->] binary frame of " + payload.remaining() + " bytes");
+
+    /* Proxy frame to backend */
+    toBackend.forwardBinary(payload, fin);
   }
 
   @Override
-  public void onWebSocketText(final String message) {
+  public void onWebSocketPartialText(final String message, final boolean fin) {
     if (isNotConnected()) {
       return;
     }
 
     LOG.logMessage("[From Frontend --->]" + message);
 
-    /* Proxy message to backend */
-    try {
-      backendSession.getBasicRemote().sendText(message);
-
-    } catch (IOException e) {
-      LOG.connectionFailed(e);
-    }
+    /* Proxy frame to backend */
+    toBackend.forwardText(message, fin);
   }
 
   @Override
   public void onWebSocketClose(int statusCode, String reason) {
-    super.onWebSocketClose(statusCode, reason);
     cleanup();
     LOG.onConnectionClose(backend.toString());
   }
@@ -199,6 +207,10 @@ public class ProxyWebSocketAdapter extends WebSocketAdapter {
     cleanupOnError(t);
   }
 
+  private boolean isNotConnected() {
+    final Session session = frontendSession;
+    return session == null || !session.isOpen();
+  }
   /**
    * Cleanup sessions
    */
@@ -206,13 +218,13 @@ public class ProxyWebSocketAdapter extends WebSocketAdapter {
 
     LOG.onError(t.toString());
     if (t.toString().contains("exceeds maximum size")) {
-      if(frontendSession != null && !frontendSession.isOpen()) {
+      if(frontendSession != null && frontendSession.isOpen()) {
         frontendSession.close(StatusCode.MESSAGE_TOO_LARGE, t.getMessage());
       }
     }
 
     else {
-      if(frontendSession != null && !frontendSession.isOpen()) {
+      if(frontendSession != null && frontendSession.isOpen()) {
         frontendSession.close(StatusCode.SERVER_ERROR, t.getMessage());
       }
       cleanup();
@@ -229,14 +241,17 @@ public class ProxyWebSocketAdapter extends WebSocketAdapter {
 
       @Override
       public void onConnectionOpen(Object session) {
-        /* do nothing */
+        /* reads from the backend are suspended while the frontend falls behind */
+        toFrontend.setSource(session);
       }
 
       @Override
       public void onConnectionClose(final CloseReason reason) {
         try {
-          frontendSession.close(reason.getCloseCode().getCode(),
-              reason.getReasonPhrase());
+          if (frontendSession != null) {
+            frontendSession.close(reason.getCloseCode().getCode(),
+                reason.getReasonPhrase());
+          }
         } finally {
           cleanup();
         }
@@ -249,73 +264,32 @@ public class ProxyWebSocketAdapter extends WebSocketAdapter {
 
       @Override
       public void onMessageText(String message, Object session) {
-        LOG.logMessage("[From Backend <---]" + message);
-        remoteLock.lock();
-        final RemoteEndpoint remote = getRemote();
-        try {
-          if (remote == null) {
-            LOG.debugLog("Remote endpoint is null");
-            if (messageBuffer.size() >= config.getWebsocketMaxWaitBufferCount()) {
-              throw new RuntimeIOException("Remote is null and message buffer is full. Cannot buffer anymore ");
-            }
-            LOG.debugLog("Buffering message: " + message);
-            messageBuffer.add(message);
-            return;
-          }
+        onMessageText(message, true, session);
+      }
 
-          /* Proxy message to frontend */
-          flushBufferedMessages(remote);
+      @Override
+      public void onMessageText(String message, boolean last, Object session) {
+        LOG.logMessage("[From Backend <---]" + message);
 
-          LOG.debugLog("Sending current message [From Backend <---]: " + message);
-          remote.sendString(message);
-          if (remote.getBatchMode() == BatchMode.ON) {
-            remote.flush();
-          }
-        } catch (IOException e) {
-          LOG.connectionFailed(e);
-          throw new RuntimeIOException(e);
-        }
-        finally
-        {
-          remoteLock.unlock();
-        }
+        /* Proxy frame to frontend */
+        toFrontend.forwardText(message, last);
       }
 
       @Override
       public void onMessageBinary(byte[] message, boolean last,
           Object session) {
-        throw new UnsupportedOperationException(
-            "Websocket support for binary messages is not supported at this time.");
+        LOG.debugLog("[From Backend <---] binary frame of " + message.length + " bytes");
 
+        /* Proxy frame to frontend */
+        toFrontend.forwardBinary(ByteBuffer.wrap(message), last);
       }
 
       @Override
       public void onMessagePong(javax.websocket.PongMessage message, Object session) {
         LOG.logMessage("[From Backend <---]: PING");
-        remoteLock.lock();
-        final RemoteEndpoint remote = getRemote();
-        try {
-          if (remote == null) {
-            LOG.debugLog("Remote endpoint is null");
-            return;
-          }
 
-          /* Proxy Ping message to frontend */
-          flushBufferedMessages(remote);
-
-          LOG.logMessage("Sending current PING [From Backend <---]: ");
-          remote.sendPing(message.getApplicationData());
-          if (remote.getBatchMode() == BatchMode.ON) {
-            remote.flush();
-          }
-        } catch (IOException e) {
-          LOG.connectionFailed(e);
-          throw new RuntimeIOException(e);
-        }
-        finally
-        {
-          remoteLock.unlock();
-        }
+        /* Proxy Ping message to frontend */
+        toFrontend.forwardPing(message.getApplicationData());
       }
 
     };
@@ -335,14 +309,15 @@ public class ProxyWebSocketAdapter extends WebSocketAdapter {
 
   private void closeQuietly() {
     try {
-      if(backendSession != null && !backendSession.isOpen()) {
+      if(backendSession != null && backendSession.isOpen()) {
         backendSession.close();
       }
     } catch (IOException e) {
       LOG.connectionFailed(e);
     }
 
-    if (container instanceof LifeCycle) {
+    /* a shared container outlives this connection */
+    if (!sharedContainer && container instanceof LifeCycle) {
       try {
         ((LifeCycle) container).stop();
       } catch (Exception e) {
@@ -350,20 +325,8 @@ public class ProxyWebSocketAdapter extends WebSocketAdapter {
       }
     }
 
-    if(frontendSession != null && !frontendSession.isOpen()) {
+    if(frontendSession != null && frontendSession.isOpen()) {
       frontendSession.close();
     }
   }
-
-  /*
-   * Function to flush buffered messages. Should be called with remoteLock held
-   */
-  private void flushBufferedMessages(final RemoteEndpoint remote) throws IOException {
-    LOG.debugLog("Flushing old buffered messages");
-    for(String obj:messageBuffer) {
-      LOG.debugLog("Sending old buffered message [From Backend <---]: " + obj);
-      remote.sendString(obj);
-    }
-    messageBuffer.clear();
-  }
 }
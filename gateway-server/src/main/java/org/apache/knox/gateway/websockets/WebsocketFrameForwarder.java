@@ -0,0 +1,274 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.websockets;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.knox.gateway.i18n.messages.MessagesFactory;
+import org.eclipse.jetty.io.RuntimeIOException;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.websocket.api.MessageTooLargeException;
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.SuspendToken;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.eclipse.jetty.websocket.common.WebSocketFrame;
+import org.eclipse.jetty.websocket.common.WebSocketRemoteEndpoint;
+import org.eclipse.jetty.websocket.common.frames.BinaryFrame;
+import org.eclipse.jetty.websocket.common.frames.ContinuationFrame;
+import org.eclipse.jetty.websocket.common.frames.PingFrame;
+import org.eclipse.jetty.websocket.common.frames.TextFrame;
+
+/**
+ * Forwards the frames read from one side of a proxied websocket connection
+ * to the other side without assembling whole messages.
+ *
+ * Frames are written asynchronously. Once more than the configured number of
+ * bytes are waiting to be written, reading from the source session is
+ * suspended until the backlog has drained to half that limit. Frames
+ * forwarded before the target is known are held back, up to a fixed number
+ * of frames, and written as soon as the target is set.
+ *
+ * The forward methods must only be called by the thread delivering the frames
+ * of the source session, which is how Jetty dispatches them.
+ *
+ * @since 2.0.0
+ */
+class WebsocketFrameForwarder {
+  private static final WebsocketLogMessages LOG = MessagesFactory.get(WebsocketLogMessages.class);
+
+  private final long maxPendingBytes;
+  private final int maxWaitFrames;
+  private final long maxTextMessageSize;
+  private final long maxBinaryMessageSize;
+
+  private final AtomicLong pendingBytes = new AtomicLong();
+
+  /* Guards the frames waiting for a target and the suspend state */
+  private final Lock lock = new ReentrantLock();
+  private final List<WebSocketFrame> waiting = new ArrayList<>();
+  private final AtomicReference<WebSocketRemoteEndpoint> target = new AtomicReference<>();
+  private Session source;
+  private SuspendToken suspendToken;
+  private final AtomicBoolean suspended = new AtomicBoolean();
+
+  /* Only used by the thread delivering frames of the source session */
+  private boolean continuation;
+  private long messageSize;
+
+  /**
+   * @param maxPendingBytes bytes that may wait to be written before the source is suspended
+   * @param maxWaitFrames frames that may be held back until the target is set
+   * @param maxTextMessageSize largest text message to forward, unlimited if not positive
+   * @param maxBinaryMessageSize largest binary message to forward, unlimited if not positive
+   */
+  WebsocketFrameForwarder(final long maxPendingBytes, final int maxWaitFrames,
+      final long maxTextMessageSize, final long maxBinaryMessageSize) {
+    this.maxPendingBytes = maxPendingBytes;
+    this.maxWaitFrames = maxWaitFrames;
+    this.maxTextMessageSize = maxTextMessageSize;
+    this.maxBinaryMessageSize = maxBinaryMessageSize;
+  }
+
+  /**
+   * Sets the session frames are read from, which is suspended while the
+   * target falls behind.
+   * @param session source session
+   */
+  void setSource(final Object session) {
+    if (!(session instanceof Session)) {
+      return;
+    }
+    lock.lock();
+    try {
+      source = (Session) session;
+      if (suspended.get() && suspendToken == null) {
+        suspendToken = source.suspend();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Sets the remote endpoint frames are written to and writes any frames
+   * held back until now.
+   * @param remote target endpoint, must be a Jetty {@link WebSocketRemoteEndpoint}
+   */
+  void setTarget(final Object remote) {
+    final WebSocketRemoteEndpoint endpoint = toEndpoint(remote);
+    lock.lock();
+    try {
+      for (final WebSocketFrame frame : waiting) {
+        write(endpoint, frame);
+      }
+      waiting.clear();
+      target.set(endpoint);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  long getPendingBytes() {
+    return pendingBytes.get();
+  }
+
+  boolean isSuspended() {
+    return suspended.get();
+  }
+
+  void forwardText(final String partial, final boolean last) {
+    final WebSocketFrame frame = continuation
+        ? new ContinuationFrame().setPayload(partial)
+        : new TextFrame().setPayload(partial);
+    forwardData(frame, last, maxTextMessageSize, "Text");
+  }
+
+  void forwardBinary(final ByteBuffer partial, final boolean last) {
+    /* Jetty reuses the buffers handed to listeners, so the payload has to be copied */
+    final ByteBuffer payload = BufferUtil.copy(partial);
+    final WebSocketFrame frame = continuation
+        ? new ContinuationFrame().setPayload(payload)
+        : new BinaryFrame().setPayload(payload);
+    forwardData(frame, last, maxBinaryMessageSize, "Binary");
+  }
+
+  void forwardPing(final ByteBuffer payload) {
+    send(new PingFrame().setPayload(BufferUtil.toArray(payload)));
+  }
+
+  private void forwardData(final WebSocketFrame frame, final boolean last,
+      final long maxMessageSize, final String type) {
+    messageSize = (continuation ? messageSize : 0) + frame.getPayloadLength();
+    if (maxMessageSize > 0 && messageSize > maxMessageSize) {
+      throw new MessageTooLargeException(String.format(Locale.ROOT,
+          "%s message size [%d] exceeds maximum size [%d]", type, messageSize, maxMessageSize));
+    }
+    frame.setFin(last);
+    continuation = !last;
+    send(frame);
+  }
+
+  private void send(final WebSocketFrame frame) {
+    WebSocketRemoteEndpoint remote = target.get();
+    if (remote == null) {
+      lock.lock();
+      try {
+        remote = target.get();
+        if (remote == null) {
+          if (waiting.size() >= maxWaitFrames) {
+            throw new RuntimeIOException("Remote is null and message buffer is full. Cannot buffer anymore ");
+          }
+          LOG.debugLog("Buffering frame: " + frame);
+          waiting.add(frame);
+          return;
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+    write(remote, frame);
+  }
+
+  private void write(final WebSocketRemoteEndpoint remote, final WebSocketFrame frame) {
+    final int length = frame.getPayloadLength();
+    if (pendingBytes.addAndGet(length) > maxPendingBytes) {
+      suspend();
+    }
+    remote.uncheckedSendFrame(frame, new WriteCallback() {
+      @Override
+      public void writeFailed(final Throwable x) {
+        LOG.onError(x.toString());
+        release(length);
+      }
+
+      @Override
+      public void writeSuccess() {
+        release(length);
+      }
+    });
+  }
+
+  private void release(final int length) {
+    /*
+     * suspend() publishes the suspended flag before it re-reads the pending
+     * bytes, so either it sees this write drain or this sees the flag.
+     */
+    if (pendingBytes.addAndGet(-length) <= maxPendingBytes / 2 && suspended.get()) {
+      resume();
+    }
+  }
+
+  private void suspend() {
+    lock.lock();
+    try {
+      if (!suspended.get() && pendingBytes.get() > maxPendingBytes) {
+        suspended.set(true);
+        if (source != null) {
+          suspendToken = source.suspend();
+        }
+        if (pendingBytes.get() <= maxPendingBytes / 2) {
+          resumeLocked();
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void resume() {
+    lock.lock();
+    try {
+      if (suspended.get() && pendingBytes.get() <= maxPendingBytes / 2) {
+        resumeLocked();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void resumeLocked() {
+    suspended.set(false);
+    if (suspendToken != null) {
+      final SuspendToken token = suspendToken;
+      suspendToken = null;
+      token.resume();
+    }
+  }
+
+  private static WebSocketRemoteEndpoint toEndpoint(final Object remote) {
+    if (remote instanceof WebSocketRemoteEndpoint) {
+      return (WebSocketRemoteEndpoint) remote;
+    }
+    if (remote instanceof Session) {
+      return toEndpoint(((Session) remote).getRemote());
+    }
+    if (remote instanceof RemoteEndpoint) {
+      throw new IllegalArgumentException("Unsupported remote endpoint " + remote.getClass().getName());
+    }
+    throw new IllegalArgumentException("Not a websocket session or remote endpoint: " + remote);
+  }
+}
@@ -13,10 +13,8 @@
 --  License for the specific language governing permissions and limitations under
 --  the License.
 
-CREATE TABLE IF NOT EXISTS KNOX_TOKENS ( -- IF NOT EXISTS syntax is not supported by Derby
-   token_id varchar(128) NOT NULL,
-   issue_time bigint NOT NULL,
-   expiration bigint NOT NULL,
-   max_lifetime bigint NOT NULL,
-   PRIMARY KEY (token_id)
-)
\ No newline at end of file
+CREATE TABLE KNOX_SCHEMA_VERSION (
+   schema_version int NOT NULL,
+   applied_time bigint NOT NULL,
+   PRIMARY KEY (schema_version)
+);
@@ -13,10 +13,20 @@
 --  License for the specific language governing permissions and limitations under
 --  the License.
 
-CREATE TABLE IF NOT EXISTS KNOX_TOKEN_METADATA ( -- IF NOT EXISTS syntax is not supported by Derby
+-- The original layout of the token state tables
+
+CREATE TABLE KNOX_TOKENS (
+   token_id varchar(128) NOT NULL,
+   issue_time bigint NOT NULL,
+   expiration bigint NOT NULL,
+   max_lifetime bigint NOT NULL,
+   PRIMARY KEY (token_id)
+);
+
+CREATE TABLE KNOX_TOKEN_METADATA (
    token_id varchar(128) NOT NULL,
    md_name varchar(32) NOT NULL,
    md_value varchar(256) NOT NULL,
    PRIMARY KEY (token_id, md_name),
    CONSTRAINT fk_token_id FOREIGN KEY(token_id) REFERENCES KNOX_TOKENS(token_id) ON DELETE CASCADE
-)
\ No newline at end of file
+);
@@ -0,0 +1,36 @@
+--  Licensed to the Apache Software Foundation (ASF) under one or more
+--  contributor license agreements. See the NOTICE file distributed with this
+--  work for additional information regarding copyright ownership. The ASF
+--  licenses this file to you under the Apache License, Version 2.0 (the
+--  "License"); you may not use this file except in compliance with the License.
+--  You may obtain a copy of the License at
+-- 
+--  http://www.apache.org/licenses/LICENSE-2.0
+-- 
+--  Unless required by applicable law or agreed to in writing, software
+--  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+--  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+--  License for the specific language governing permissions and limitations under
+--  the License.
+
+-- Promote the metadata the tokens are looked up by to indexed columns of KNOX_TOKENS. The values are kept in
+-- KNOX_TOKEN_METADATA as well, which remains the source of the complete token metadata.
+
+ALTER TABLE KNOX_TOKENS ADD (user_name VARCHAR2(256), created_by VARCHAR2(256), enabled NUMBER(1));
+
+UPDATE KNOX_TOKENS SET user_name = (SELECT md_value FROM KNOX_TOKEN_METADATA
+   WHERE KNOX_TOKEN_METADATA.token_id = KNOX_TOKENS.token_id AND md_name = 'userName');
+
+UPDATE KNOX_TOKENS SET created_by = (SELECT md_value FROM KNOX_TOKEN_METADATA
+   WHERE KNOX_TOKEN_METADATA.token_id = KNOX_TOKENS.token_id AND md_name = 'createdBy');
+
+UPDATE KNOX_TOKENS SET enabled = (SELECT CASE WHEN md_value = 'true' THEN 1 ELSE 0 END FROM KNOX_TOKEN_METADATA
+   WHERE KNOX_TOKEN_METADATA.token_id = KNOX_TOKENS.token_id AND md_name = 'enabled');
+
+CREATE INDEX KNOX_TOKENS_EXPIRATION_IDX ON KNOX_TOKENS (expiration);
+
+CREATE INDEX KNOX_TOKENS_USER_NAME_IDX ON KNOX_TOKENS (user_name);
+
+CREATE INDEX KNOX_TOKENS_CREATED_BY_IDX ON KNOX_TOKENS (created_by);
+
+CREATE INDEX KNOX_TOKENS_ENABLED_IDX ON KNOX_TOKENS (enabled);
@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway;
+
+import com.mycila.xmltool.XMLDoc;
+import com.mycila.xmltool.XMLTag;
+import org.apache.commons.io.FileUtils;
+import org.apache.http.HttpStatus;
+import org.apache.knox.gateway.dispatch.DefaultDispatch;
+import org.apache.knox.gateway.services.DefaultGatewayServices;
+import org.apache.knox.gateway.services.ServiceLifecycleException;
+import org.apache.knox.test.TestUtils;
+import org.apache.knox.test.mock.MockServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.client.http.HttpClientTransportOverHTTP2;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.File;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.apache.knox.test.TestUtils.LOG_ENTER;
+import static org.apache.knox.test.TestUtils.LOG_EXIT;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Requests through the gateway with Jetty's HTTP/2 client, over TLS with ALPN and in clear text.
+ */
+public class GatewayHttp2Test {
+  private static final Logger LOG = LogManager.getLogger( GatewayHttp2Test.class );
+
+  private static final String LISTING = "{\"FileStatuses\":{\"FileStatus\":[]}}";
+
+  private static MockServer mockBackend;
+  private GatewayTestConfig config;
+  private GatewayServer gateway;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    LOG_ENTER();
+    mockBackend = new MockServer( "REPEAT", true );
+    LOG_EXIT();
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    LOG_ENTER();
+    mockBackend.stop();
+    LOG_EXIT();
+  }
+
+  @After
+  public void stopGateway() throws Exception {
+    if( gateway != null ) {
+      gateway.stop();
+    }
+    mockBackend.reset();
+    if( config != null ) {
+      FileUtils.deleteQuietly( new File( config.getGatewayHomeDir() ) );
+    }
+  }
+
+  @Test( timeout = TestUtils.MEDIUM_TIMEOUT )
+  public void testH2OverAlpn() throws Exception {
+    LOG_ENTER();
+    String url = startGateway( true );
+
+    SslContextFactory.Client sslContextFactory = new SslContextFactory.Client( true );
+    sslContextFactory.setEndpointIdentificationAlgorithm( null );
+    HttpClient client = new HttpClient( new HttpClientTransportOverHTTP2( new HTTP2Client() ), sslContextFactory );
+    assertListings( client, url );
+    LOG_EXIT();
+  }
+
+  @Test( timeout = TestUtils.MEDIUM_TIMEOUT )
+  public void testH2cWithPriorKnowledge() throws Exception {
+    LOG_ENTER();
+    String url = startGateway( false );
+
+    HttpClient client = new HttpClient( new HttpClientTransportOverHTTP2( new HTTP2Client() ) );
+    assertListings( client, url );
+    LOG_EXIT();
+  }
+
+  @Test( timeout = TestUtils.MEDIUM_TIMEOUT )
+  public void testHttp11ClientsAreStillServed() throws Exception {
+    LOG_ENTER();
+    String url = startGateway( true );
+
+    SslContextFactory.Client sslContextFactory = new SslContextFactory.Client( true );
+    sslContextFactory.setEndpointIdentificationAlgorithm( null );
+    HttpClient client = new HttpClient( sslContextFactory );
+    client.start();
+    try {
+      mockBackend.expect().method( "GET" ).pathInfo( "/repeat-context/tmp" ).queryParam( "op", "LISTSTATUS" )
+          .respond().status( HttpStatus.SC_OK ).contentType( "application/json" )
+          .content( LISTING, StandardCharsets.UTF_8 );
+      ContentResponse response = client.GET( url );
+      assertThat( response.getStatus(), is( HttpStatus.SC_OK ) );
+      assertThat( response.getVersion(), is( HttpVersion.HTTP_1_1 ) );
+      assertThat( response.getContentAsString(), is( LISTING ) );
+    } finally {
+      client.stop();
+    }
+    LOG_EXIT();
+  }
+
+  /*
+   * The requests are sent one after another, the mock backend is not thread safe, and are
+   * all streams of the one connection the client opened.
+   */
+  private static void assertListings( HttpClient client, String url ) throws Exception {
+    client.start();
+    try {
+      for( int i = 0; i < 3; i++ ) {
+        mockBackend.expect().method( "GET" ).pathInfo( "/repeat-context/tmp" ).queryParam( "op", "LISTSTATUS" )
+            .respond().status( HttpStatus.SC_OK ).contentType( "application/json" )
+            .content( LISTING, StandardCharsets.UTF_8 );
+        ContentResponse response = client.GET( url );
+        assertThat( response.getStatus(), is( HttpStatus.SC_OK ) );
+        assertThat( response.getVersion(), is( HttpVersion.HTTP_2 ) );
+        assertThat( response.getContentAsString(), is( LISTING ) );
+      }
+      assertThat( mockBackend.isEmpty(), is( true ) );
+    } finally {
+      client.stop();
+    }
+  }
+
+  private String startGateway( boolean ssl ) throws Exception {
+    File targetDir = new File( System.getProperty( "user.dir" ), "target" );
+    File gatewayDir = new File( targetDir, "gateway-home-" + UUID.randomUUID() );
+    gatewayDir.mkdirs();
+
+    config = new GatewayTestConfig();
+    config.setGatewayHomeDir( gatewayDir.getAbsolutePath() );
+    config.setSSLEnabled( ssl );
+    config.setHttp2Enabled( true );
+    URL servicesDir = ClassLoader.getSystemResource( "http2-services" );
+    config.setGatewayServicesDir( new File( servicesDir.toURI() ).getAbsolutePath() );
+
+    File topoDir = new File( config.getGatewayTopologyDir() );
+    topoDir.mkdirs();
+    new File( config.getGatewayDescriptorsDir() ).mkdirs();
+    new File( config.getGatewayProvidersConfigDir() ).mkdirs();
+    new File( config.getGatewayDeploymentDir() ).mkdirs();
+    new File( config.getGatewaySecurityDir() ).mkdirs();
+    // a long lived identity so that the gateway does not have to generate a certificate
+    FileUtils.copyURLToFile( ClassLoader.getSystemResource( "keystores/gateway-identity.jks" ),
+        new File( config.getIdentityKeystorePath() ) );
+
+    try( OutputStream stream = Files.newOutputStream( new File( topoDir, "test-cluster.xml" ).toPath() ) ) {
+      createTopology().toStream( stream );
+    }
+
+    DefaultGatewayServices services = new DefaultGatewayServices();
+    Map<String,String> options = new HashMap<>();
+    options.put( "persist-master", "false" );
+    options.put( "master", "password" );
+    try {
+      services.init( config, options );
+    } catch ( ServiceLifecycleException e ) {
+      e.printStackTrace(); // I18N not required.
+    }
+
+    gateway = GatewayServer.startGateway( config, services );
+    assertThat( "Failed to start gateway.", gateway, notNullValue() );
+
+    int port = gateway.getAddresses()[ 0 ].getPort();
+    LOG.info( "Gateway port = " + port );
+    return ( ssl ? "https" : "http" ) + "://localhost:" + port + "/" + config.getGatewayPath()
+        + "/test-cluster/repeat/tmp?op=LISTSTATUS";
+  }
+
+  private static XMLTag createTopology() {
+    return XMLDoc.newDocument( true )
+        .addRoot( "topology" )
+        .addTag( "gateway" )
+        .addTag( "provider" )
+        .addTag( "role" ).addText( "dispatch" )
+        .addTag( "name" ).addText( "http-client" )
+        .addTag( "enabled" ).addText( "true" )
+        .gotoRoot()
+        .addTag( "service" )
+        .addTag( "role" ).addText( "REPEAT" )
+        .addTag( "url" ).addText( "http://localhost:" + mockBackend.getPort() + "/repeat-context" )
+        .gotoRoot();
+  }
+
+  /* Sends the requests of the REPEAT service to the mock backend */
+  public static class BackendDispatch extends DefaultDispatch {
+    @Override
+    public URI getDispatchUrl( HttpServletRequest request ) {
+      String path = request.getPathInfo().replaceFirst( "^/repeat", "" );
+      return URI.create( "http://localhost:" + mockBackend.getPort() + "/repeat-context" + path
+          + "?" + request.getQueryString() );
+    }
+  }
+}
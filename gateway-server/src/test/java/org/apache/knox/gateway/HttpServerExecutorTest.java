@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway;
+
+import com.codahale.metrics.Gauge;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.apache.knox.gateway.config.impl.GatewayConfigImpl;
+import org.apache.knox.gateway.services.metrics.impl.DefaultMetricsService;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.client.http.HttpClientTransportOverHTTP2;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.thread.ExecutorThreadPool;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class HttpServerExecutorTest {
+
+  @Test
+  public void testQueuedIsTheDefault() {
+    GatewayConfigImpl config = new GatewayConfigImpl();
+    config.set("gateway.threadpool.max", "32");
+    ThreadPool threadPool = HttpServerExecutor.createThreadPool(config);
+    assertTrue(threadPool instanceof QueuedThreadPool);
+    assertEquals(32, ((QueuedThreadPool) threadPool).getMaxThreads());
+  }
+
+  @Test
+  public void testReservedDefaultsToOneThreadPerProcessor() {
+    GatewayConfigImpl config = new GatewayConfigImpl();
+    config.set(GatewayConfigImpl.HTTP_SERVER_EXECUTOR, " Reserved ");
+    QueuedThreadPool threadPool = (QueuedThreadPool) HttpServerExecutor.createThreadPool(config);
+    assertEquals(Runtime.getRuntime().availableProcessors(), threadPool.getReservedThreads());
+
+    config.set(GatewayConfigImpl.THREAD_POOL_RESERVED, "2");
+    threadPool = (QueuedThreadPool) HttpServerExecutor.createThreadPool(config);
+    assertEquals(2, threadPool.getReservedThreads());
+  }
+
+  @Test
+  public void testInvalidExecutors() {
+    GatewayConfigImpl config = new GatewayConfigImpl();
+    config.set(GatewayConfigImpl.HTTP_SERVER_EXECUTOR, "virtual");
+    assertThrows(IllegalArgumentException.class, () -> HttpServerExecutor.createThreadPool(config));
+
+    config.set(GatewayConfigImpl.HTTP_SERVER_EXECUTOR, "executor");
+    assertThrows(IllegalArgumentException.class, () -> HttpServerExecutor.createThreadPool(config));
+
+    config.set(GatewayConfigImpl.HTTP_SERVER_EXECUTOR_CLASS, String.class.getName());
+    assertThrows(IllegalArgumentException.class, () -> HttpServerExecutor.createThreadPool(config));
+  }
+
+  @Test
+  public void testKeepAliveRequestsOnExecutor() throws Exception {
+    GatewayConfigImpl config = new GatewayConfigImpl();
+    config.set(GatewayConfigImpl.HTTP_SERVER_EXECUTOR, "executor");
+    config.set(GatewayConfigImpl.HTTP_SERVER_EXECUTOR_CLASS, TestExecutor.class.getName());
+    ThreadPool threadPool = HttpServerExecutor.createThreadPool(config);
+    assertTrue(threadPool instanceof ExecutorThreadPool);
+
+    Server server = new Server(threadPool);
+    ServerConnector connector = new ServerConnector(server);
+    connector.setHost("localhost");
+    GatewayServer.registerConnectorMetrics(connector, "sandbox");
+    server.addConnector(connector);
+    server.setHandler(new AbstractHandler() {
+      @Override
+      public void handle(String target, Request baseRequest, HttpServletRequest request,
+                         HttpServletResponse response) {
+        response.setStatus(HttpServletResponse.SC_OK);
+        baseRequest.setHandled(true);
+      }
+    });
+    server.start();
+    try {
+      String url = "http://localhost:" + connector.getLocalPort() + "/";
+      try (CloseableHttpClient client = HttpClients.custom().setMaxConnTotal(1).build()) {
+        for (int i = 0; i < 3; i++) {
+          try (CloseableHttpResponse response = client.execute(new HttpGet(url))) {
+            assertEquals(HttpServletResponse.SC_OK, response.getStatusLine().getStatusCode());
+            EntityUtils.consume(response.getEntity());
+          }
+        }
+      }
+
+      String prefix = "jetty.connector.sandbox.localhost:0.";
+      long deadline = System.currentTimeMillis() + 5000;
+      while (((Number) gauge(prefix + "connections").getValue()).longValue() > 0
+          && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(1L, gauge(prefix + "connections-total").getValue());
+      assertEquals(3L, gauge(prefix + "requests").getValue());
+      assertEquals(3.0, (Double) gauge(prefix + "requests-per-connection").getValue(), 0.0);
+    } finally {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testHttp2StreamMetrics() throws Exception {
+    GatewayConfigImpl config = new GatewayConfigImpl();
+    config.set(GatewayConfigImpl.HTTP2_MAX_CONCURRENT_STREAMS, "16");
+    Server server = new Server();
+    HttpConfiguration httpConfig = new HttpConfiguration();
+    HTTP2CServerConnectionFactory h2c = new HTTP2CServerConnectionFactory(httpConfig);
+    GatewayServer.configureHttp2(h2c, config);
+    assertEquals(16, h2c.getMaxConcurrentStreams());
+    assertEquals(GatewayConfigImpl.DEFAULT_HTTP2_INITIAL_STREAM_RECV_WINDOW, h2c.getInitialStreamRecvWindow());
+
+    ServerConnector connector = new ServerConnector(server, new HttpConnectionFactory(httpConfig), h2c);
+    connector.setHost("localhost");
+    GatewayServer.registerConnectorMetrics(connector, "h2c");
+    server.addConnector(connector);
+    server.setHandler(new AbstractHandler() {
+      @Override
+      public void handle(String target, Request baseRequest, HttpServletRequest request,
+                         HttpServletResponse response) {
+        response.setStatus(HttpServletResponse.SC_OK);
+        baseRequest.setHandled(true);
+      }
+    });
+    server.start();
+    HttpClient client = new HttpClient(new HttpClientTransportOverHTTP2(new HTTP2Client()));
+    client.start();
+    try {
+      String url = "http://localhost:" + connector.getLocalPort() + "/";
+      for (int i = 0; i < 3; i++) {
+        ContentResponse response = client.GET(url);
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        assertEquals(HttpVersion.HTTP_2, response.getVersion());
+      }
+      String prefix = "jetty.connector.h2c.localhost:0.";
+      assertEquals(1, gauge(prefix + "http2-connections").getValue());
+      assertEquals(3L, gauge(prefix + "http2-streams-total").getValue());
+
+      client.stop();
+      long deadline = System.currentTimeMillis() + 5000;
+      while (((Number) gauge(prefix + "connections").getValue()).longValue() > 0
+          && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(0, gauge(prefix + "http2-connections").getValue());
+      assertEquals(0L, gauge(prefix + "http2-streams").getValue());
+      assertEquals(3L, gauge(prefix + "http2-streams-total").getValue());
+    } finally {
+      client.stop();
+      server.stop();
+    }
+  }
+
+  private static Gauge<?> gauge(String name) {
+    return DefaultMetricsService.getMetricRegistry().getGauges().get(name);
+  }
+
+  @SuppressWarnings("PMD.DoNotUseThreads")
+  public static class TestExecutor extends ThreadPoolExecutor {
+    public TestExecutor() {
+      super(8, 8, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+    }
+  }
+}
@@ -62,7 +62,8 @@ public class AbstractGatewayServicesTest {
         ServiceType.CRYPTO_SERVICE,
         ServiceType.HOST_MAPPING_SERVICE,
         ServiceType.SERVICE_DEFINITION_REGISTRY,
-        ServiceType.SERVICE_REGISTRY_SERVICE
+        ServiceType.SERVICE_REGISTRY_SERVICE,
+        ServiceType.HTTP_CONNECTION_POOL_SERVICE
     };
 
     assertNotEquals(ServiceType.values(), orderedServiceTypes);
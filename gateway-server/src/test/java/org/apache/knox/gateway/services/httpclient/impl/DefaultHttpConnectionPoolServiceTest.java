@@ -0,0 +1,220 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.services.httpclient.impl;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.apache.knox.gateway.config.GatewayConfig;
+import org.apache.knox.gateway.config.impl.GatewayConfigImpl;
+import org.apache.knox.gateway.dispatch.DefaultHttpClientFactory;
+import org.apache.knox.gateway.services.GatewayServices;
+import org.apache.knox.gateway.services.ServiceType;
+import org.apache.knox.gateway.services.security.KeystoreService;
+import org.easymock.EasyMock;
+import org.eclipse.jetty.io.Connection;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DefaultHttpConnectionPoolServiceTest {
+  private final AtomicInteger openedConnections = new AtomicInteger();
+  private Server backend;
+  private HttpHost backendHost;
+  private String backendUrl;
+  private DefaultHttpConnectionPoolService poolService;
+
+  @Before
+  public void setUp() throws Exception {
+    backend = new Server();
+    ServerConnector connector = new ServerConnector(backend);
+    connector.setHost("localhost");
+    connector.addBean(new Connection.Listener() {
+      @Override
+      public void onOpened(Connection connection) {
+        openedConnections.incrementAndGet();
+      }
+
+      @Override
+      public void onClosed(Connection connection) {
+        // only opened connections are counted
+      }
+    });
+    backend.addConnector(connector);
+    backend.setHandler(new AbstractHandler() {
+      @Override
+      public void handle(String target, Request baseRequest, HttpServletRequest request,
+                         HttpServletResponse response) throws IOException {
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.getWriter().write("{\"boolean\":true}");
+        baseRequest.setHandled(true);
+      }
+    });
+    backend.start();
+    backendHost = new HttpHost("localhost", connector.getLocalPort());
+    backendUrl = backendHost.toURI() + "/webhdfs/v1/tmp?op=GETFILESTATUS";
+
+    GatewayConfigImpl config = new GatewayConfigImpl();
+    config.set("gateway.httpclient.pool.maxPerRoute", "8");
+    config.set("gateway.httpclient.pool.leakDetectionThreshold", "1");
+    poolService = new DefaultHttpConnectionPoolService();
+    poolService.init(config, Collections.emptyMap());
+    poolService.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    poolService.stop();
+    backend.stop();
+  }
+
+  @Test
+  public void testPoolAndTlsContextAreCreatedOnce() {
+    AtomicInteger sslContexts = new AtomicInteger();
+    PoolingHttpClientConnectionManager first = poolService.getConnectionManager("default", () -> {
+      sslContexts.incrementAndGet();
+      return null;
+    });
+    PoolingHttpClientConnectionManager second = poolService.getConnectionManager("default", () -> {
+      sslContexts.incrementAndGet();
+      return null;
+    });
+    assertSame(first, second);
+    assertEquals(1, sslContexts.get());
+    assertEquals(8, first.getDefaultMaxPerRoute());
+    assertEquals(1024, first.getMaxTotal());
+  }
+
+  @Test
+  public void testTopologiesReuseConnectionsToTheSameBackend() throws Exception {
+    HttpClient sandbox = createDispatchClient("sandbox");
+    HttpClient production = createDispatchClient("production");
+
+    execute(sandbox);
+    execute(production);
+    execute(sandbox);
+    assertEquals(1, openedConnections.get());
+  }
+
+  @Test
+  @SuppressWarnings("PMD.DoNotUseThreads")
+  public void testConcurrentTopologiesShareThePool() throws Exception {
+    final HttpClient[] clients = { createDispatchClient("sandbox"), createDispatchClient("production") };
+    final int threads = 8;
+    final int requests = 50;
+    final CountDownLatch start = new CountDownLatch(1);
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      final List<Future<Void>> results = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        final int thread = t;
+        results.add(executor.submit((Callable<Void>) () -> {
+          start.await();
+          for (int i = 0; i < requests; i++) {
+            execute(clients[(thread + i) % clients.length]);
+          }
+          return null;
+        }));
+      }
+      start.countDown();
+      for (Future<Void> result : results) {
+        result.get(60, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // Separate pools would have opened up to twice as many connections
+    assertTrue("Opened " + openedConnections.get(), openedConnections.get() <= threads);
+    PoolingHttpClientConnectionManager pool = poolService.getConnectionManager("default", () -> null);
+    assertEquals(0, pool.getTotalStats().getLeased());
+    assertEquals(openedConnections.get(), pool.getTotalStats().getAvailable());
+  }
+
+  @Test
+  public void testLeakedConnectionsAreReportedOnce() throws Exception {
+    SharedConnectionManager pool = (SharedConnectionManager) poolService.getConnectionManager("default", () -> null);
+    HttpRoute route = new HttpRoute(backendHost);
+    ConnectionRequest request = pool.requestConnection(route, null);
+    HttpClientConnection connection = request.get(5, TimeUnit.SECONDS);
+    long later = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+    assertEquals(1, pool.checkLeaks(later));
+    assertEquals(0, pool.checkLeaks(later));
+
+    pool.releaseConnection(connection, null, 0, TimeUnit.MILLISECONDS);
+    ConnectionRequest next = pool.requestConnection(route, null);
+    HttpClientConnection nextConnection = next.get(5, TimeUnit.SECONDS);
+    pool.releaseConnection(nextConnection, null, 0, TimeUnit.MILLISECONDS);
+    assertEquals(0, pool.checkLeaks(System.nanoTime() + TimeUnit.SECONDS.toNanos(1)));
+  }
+
+  private void execute(HttpClient client) throws IOException {
+    EntityUtils.consume(client.execute(new HttpGet(backendUrl)).getEntity());
+  }
+
+  private HttpClient createDispatchClient(String topology) {
+    KeystoreService keystoreService = EasyMock.createNiceMock(KeystoreService.class);
+    GatewayConfig gatewayConfig = EasyMock.createNiceMock(GatewayConfig.class);
+    EasyMock.expect(gatewayConfig.isHttpClientPoolShared()).andReturn(true).anyTimes();
+
+    GatewayServices services = EasyMock.createNiceMock(GatewayServices.class);
+    EasyMock.expect(services.getService(ServiceType.HTTP_CONNECTION_POOL_SERVICE)).andReturn(poolService).anyTimes();
+    EasyMock.expect(services.getService(ServiceType.KEYSTORE_SERVICE)).andReturn(keystoreService).anyTimes();
+
+    ServletContext context = EasyMock.createNiceMock(ServletContext.class);
+    EasyMock.expect(context.getContextPath()).andReturn("/gateway/" + topology).anyTimes();
+    EasyMock.expect(context.getAttribute(GatewayConfig.GATEWAY_CONFIG_ATTRIBUTE)).andReturn(gatewayConfig).anyTimes();
+    EasyMock.expect(context.getAttribute(GatewayServices.GATEWAY_SERVICES_ATTRIBUTE)).andReturn(services).anyTimes();
+
+    FilterConfig filterConfig = EasyMock.createNiceMock(FilterConfig.class);
+    EasyMock.expect(filterConfig.getServletContext()).andReturn(context).anyTimes();
+    EasyMock.expect(filterConfig.getInitParameter("serviceRole")).andReturn("WEBHDFS").anyTimes();
+
+    EasyMock.replay(keystoreService, gatewayConfig, services, context, filterConfig);
+    return new DefaultHttpClientFactory().createHttpClient(filterConfig);
+  }
+}
@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.services.metrics.impl.instr;
+
+import com.codahale.metrics.MetricRegistry;
+import org.apache.knox.gateway.GatewayFilter;
+import org.apache.knox.gateway.filter.AbstractGatewayFilter;
+import org.apache.knox.gateway.services.metrics.PrometheusTextFormat;
+import org.apache.knox.gateway.services.metrics.RequestMetrics;
+import org.apache.knox.gateway.topology.Topology;
+import org.easymock.EasyMock;
+import org.junit.Test;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+
+public class InstrumentedGatewayFilterTest {
+  private static final int THREADS = 8;
+  private static final int REQUESTS_PER_THREAD = 500;
+
+  @Test
+  public void testRequestCountsUnderConcurrentLoad() throws Exception {
+    MetricRegistry registry = new MetricRegistry();
+    RequestMetrics requestMetrics = new RequestMetrics();
+    InstrumentedGatewayFilter filter = new InstrumentedGatewayFilter(new DispatchingFilter(requestMetrics),
+        registry, requestMetrics);
+    ServletContext context = servletContext();
+    HttpServletRequest get = request(context, "GET", "WEBHDFS");
+    HttpServletRequest put = request(context, "PUT", "WEBHDFS");
+    HttpServletRequest unmatched = request(context, "GET", null);
+    HttpServletResponse ok = response(200);
+    HttpServletResponse notFound = response(404);
+
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      List<Callable<Void>> tasks = new ArrayList<>();
+      for (int t = 0; t < THREADS; t++) {
+        tasks.add(() -> {
+          for (int i = 0; i < REQUESTS_PER_THREAD; i++) {
+            switch (i % 4) {
+              case 0:
+                filter.doFilter(unmatched, notFound);
+                break;
+              case 1:
+                filter.doFilter(put, ok);
+                break;
+              default:
+                filter.doFilter(get, ok);
+                break;
+            }
+          }
+          return null;
+        });
+      }
+      for (Future<Void> result : executor.invokeAll(tasks)) {
+        result.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    int total = THREADS * REQUESTS_PER_THREAD;
+    Map<String, String> samples = scrape(requestMetrics, registry);
+
+    String gets = "topology=\"sandbox\",service=\"WEBHDFS\",method=\"GET\",status=\"2xx\"";
+    assertEquals(Integer.toString(total / 2), samples.get("knox_request_duration_seconds_count{" + gets + "}"));
+    assertEquals(Integer.toString(total / 2), samples.get("knox_request_duration_seconds_bucket{" + gets + ",le=\"+Inf\"}"));
+    assertEquals(Integer.toString(total / 2), samples.get("knox_gateway_overhead_seconds_count{" + gets + "}"));
+    assertEquals(Integer.toString(total / 2), samples.get("knox_backend_duration_seconds_count{" + gets + "}"));
+    // Every GET waited 2ms on the simulated backend
+    assertEquals("0", samples.get("knox_backend_duration_seconds_bucket{" + gets + ",le=\"0.001\"}"));
+    assertEquals(Integer.toString(total / 2), samples.get("knox_backend_duration_seconds_bucket{" + gets + ",le=\"0.0025\"}"));
+    assertEquals(total / 2 * 0.002,
+        Double.parseDouble(samples.get("knox_backend_duration_seconds_sum{" + gets + "}")), 1e-6);
+
+    String puts = "topology=\"sandbox\",service=\"WEBHDFS\",method=\"PUT\",status=\"2xx\"";
+    assertEquals(Integer.toString(total / 4), samples.get("knox_request_duration_seconds_count{" + puts + "}"));
+    assertNull(samples.get("knox_backend_duration_seconds_count{" + puts + "}"));
+
+    String notMatched = "topology=\"sandbox\",service=\"unknown\",method=\"GET\",status=\"4xx\"";
+    assertEquals(Integer.toString(total / 4), samples.get("knox_request_duration_seconds_count{" + notMatched + "}"));
+
+    // The Dropwizard timers do not tell matched and unmatched requests apart
+    assertEquals(total * 3 / 4, registry.timer("client./gateway/sandbox/webhdfs/v1/.GET-requests").getCount());
+    assertEquals(Integer.toString(total * 3 / 4),
+        samples.get("client__gateway_sandbox_webhdfs_v1__GET_requests_seconds_count"));
+  }
+
+  @Test
+  public void testFailedRequestsAreServerErrors() throws Exception {
+    RequestMetrics requestMetrics = new RequestMetrics();
+    GatewayFilter failing = new GatewayFilter() {
+      @Override
+      public void doFilter(ServletRequest request, ServletResponse response) throws ServletException {
+        throw new ServletException("backend failed");
+      }
+    };
+    InstrumentedGatewayFilter filter = new InstrumentedGatewayFilter(failing, new MetricRegistry(), requestMetrics);
+    HttpServletRequest request = request(servletContext(), "GET", "WEBHDFS");
+
+    assertThrows(ServletException.class, () -> filter.doFilter(request, response(200)));
+
+    Map<String, String> samples = scrape(requestMetrics, null);
+    assertEquals("1", samples.get(
+        "knox_request_duration_seconds_count{topology=\"sandbox\",service=\"WEBHDFS\",method=\"GET\",status=\"5xx\"}"));
+  }
+
+  @Test
+  public void testResourcePath() {
+    assertEquals("/webhdfs/v1/", InstrUtils.getResourcePath("/webhdfs/v1/d1/d2/d2/d4"));
+    assertEquals("/webhdfs/v1/", InstrUtils.getResourcePath("/webhdfs/v1/"));
+    assertEquals("/webhdfs/v1", InstrUtils.getResourcePath("/webhdfs/v1"));
+    assertEquals("/v1/x/", InstrUtils.getResourcePath("webhdfs/v1/x/y"));
+    assertEquals("", InstrUtils.getResourcePath(null));
+  }
+
+  private static Map<String, String> scrape(RequestMetrics requestMetrics, MetricRegistry registry) throws Exception {
+    StringWriter writer = new StringWriter();
+    PrometheusTextFormat.write(writer, requestMetrics, registry);
+    Map<String, String> samples = new HashMap<>();
+    for (String line : writer.toString().split("\n")) {
+      if (!line.isEmpty() && !line.startsWith("#")) {
+        int separator = line.lastIndexOf(' ');
+        assertNull("Duplicate series " + line, samples.put(line.substring(0, separator), line.substring(separator + 1)));
+      }
+    }
+    return samples;
+  }
+
+  private static ServletContext servletContext() {
+    Topology topology = new Topology();
+    topology.setName("sandbox");
+    ServletContext context = EasyMock.createNiceMock(ServletContext.class);
+    EasyMock.expect(context.getContextPath()).andReturn("/gateway/sandbox").anyTimes();
+    EasyMock.expect(context.getAttribute("org.apache.knox.gateway.topology")).andReturn(topology).anyTimes();
+    EasyMock.replay(context);
+    return context;
+  }
+
+  private static HttpServletRequest request(ServletContext context, String method, String serviceRole) {
+    HttpServletRequest request = EasyMock.createNiceMock(HttpServletRequest.class);
+    EasyMock.expect(request.getServletContext()).andReturn(context).anyTimes();
+    EasyMock.expect(request.getMethod()).andReturn(method).anyTimes();
+    EasyMock.expect(request.getPathInfo()).andReturn("/webhdfs/v1/tmp").anyTimes();
+    EasyMock.expect(request.getAttribute(AbstractGatewayFilter.TARGET_SERVICE_ROLE)).andReturn(serviceRole).anyTimes();
+    EasyMock.replay(request);
+    return request;
+  }
+
+  private static HttpServletResponse response(int status) {
+    HttpServletResponse response = EasyMock.createNiceMock(HttpServletResponse.class);
+    EasyMock.expect(response.getStatus()).andReturn(status).anyTimes();
+    EasyMock.replay(response);
+    return response;
+  }
+
+  /* Stands in for a dispatch, GETs spend 2ms on the backend */
+  private static class DispatchingFilter extends GatewayFilter {
+    private final RequestMetrics requestMetrics;
+
+    DispatchingFilter(RequestMetrics requestMetrics) {
+      this.requestMetrics = requestMetrics;
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response) {
+      if ("GET".equals(((HttpServletRequest) request).getMethod())
+          && request.getAttribute(AbstractGatewayFilter.TARGET_SERVICE_ROLE) != null) {
+        requestMetrics.recordBackendTime(2, TimeUnit.MILLISECONDS);
+      }
+    }
+  }
+}
@@ -17,16 +17,29 @@
  */
 package org.apache.knox.gateway.services.registry;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.knox.gateway.config.GatewayConfig;
+import org.apache.knox.gateway.service.definition.ServiceDefinition;
+import org.apache.knox.gateway.service.definition.ServiceDefinitionPair;
 import org.apache.knox.gateway.services.registry.impl.DefaultServiceDefinitionRegistry;
 import org.easymock.EasyMock;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
 import java.net.URL;
+import java.util.Collections;
+import java.util.Optional;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class DefaultServiceDefinitionRegistryTest {
 
@@ -43,4 +56,61 @@ public class DefaultServiceDefinitionRegistryTest {
     entry = registry.getMatchingService("/bar/?somepath");
     assertThat( entry.getRole(), is("BAR"));
   }
+
+  @Rule
+  public final TemporaryFolder testFolder = new TemporaryFolder();
+
+  @Test
+  public void lookupByRoleNameAndVersion() throws Exception {
+    final DefaultServiceDefinitionRegistry registry = createRegistry(ClassLoader.getSystemResource("services").getFile());
+
+    final Optional<ServiceDefinitionPair> foo = registry.getServiceDefinition("foo", null);
+    assertTrue(foo.isPresent());
+    assertEquals("FOO", foo.get().getService().getRole());
+    assertTrue(registry.getServiceDefinition("FOO", "1.0.0").isPresent());
+    assertFalse(registry.getServiceDefinition("FOO", "2.0.0").isPresent());
+    assertFalse(registry.getServiceDefinition("BAZ", null).isPresent());
+
+    assertSame(foo.get(), registry.getServiceDefinition("foo", "foo", "1.0.0").get());
+    assertTrue(registry.getServiceDefinition("bar", "BAR", "2.0.0").isPresent());
+    assertFalse(registry.getServiceDefinition("bar", "FOO", "2.0.0").isPresent());
+  }
+
+  @Test
+  public void changesArePublishedToReaders() throws Exception {
+    final File servicesDir = testFolder.newFolder("services");
+    FileUtils.copyDirectory(new File(ClassLoader.getSystemResource("services").getFile()), servicesDir);
+    final DefaultServiceDefinitionRegistry registry = createRegistry(servicesDir.getAbsolutePath());
+    final long initialRevision = registry.getRevision();
+    final ServiceDefinitionPair foo = registry.getServiceDefinition("FOO", null).get();
+    assertThat(registry.getMatchingService("/bar/?somepath").getRole(), is("BAR"));
+
+    final ServiceDefinition baz = new ServiceDefinition();
+    baz.setName("baz");
+    baz.setRole("BAZ");
+    baz.setVersion("1.0.0");
+    baz.setRoutes(Collections.emptyList());
+    registry.saveServiceDefinition(new ServiceDefinitionPair(baz, null));
+    final long savedRevision = registry.getRevision();
+    assertNotEquals(initialRevision, savedRevision);
+    assertTrue(registry.getServiceDefinition("baz", "1.0.0").isPresent());
+    assertEquals(3, registry.getServiceDefinitions().size());
+    // only the saved service definition was loaded
+    assertSame(foo, registry.getServiceDefinition("FOO", null).get());
+
+    registry.deleteServiceDefinition("bar", "BAR", "2.0.0");
+    assertNotEquals(savedRevision, registry.getRevision());
+    assertFalse(registry.getServiceDefinition("BAR", null).isPresent());
+    assertEquals(2, registry.getServiceDefinitions().size());
+    assertNull(registry.getMatchingService("/bar/?somepath"));
+  }
+
+  private static DefaultServiceDefinitionRegistry createRegistry(String servicesDir) throws Exception {
+    final DefaultServiceDefinitionRegistry registry = new DefaultServiceDefinitionRegistry();
+    final GatewayConfig config = EasyMock.createNiceMock(GatewayConfig.class);
+    EasyMock.expect(config.getGatewayServicesDir()).andReturn(new File(servicesDir).getAbsolutePath()).anyTimes();
+    EasyMock.replay(config);
+    registry.init(config, null);
+    return registry;
+  }
 }
@@ -482,6 +482,8 @@ public class JettySSLServiceTest {
     expect(config.getExcludedSSLCiphers()).andReturn(null).atLeastOnce();
     expect(config.getExcludedSSLProtocols()).andReturn(null).atLeastOnce();
     expect(config.isSSLRenegotiationAllowed()).andReturn(true).atLeastOnce();
+    expect(config.getSslSessionCacheSize()).andReturn(-1).atLeastOnce();
+    expect(config.getSslSessionTimeout()).andReturn(-1).atLeastOnce();
     return config;
   }
 
@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.services.token.impl;
+
+import java.io.File;
+import java.security.interfaces.RSAPublicKey;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+import org.apache.knox.gateway.config.GatewayConfig;
+import org.apache.knox.gateway.services.security.AliasService;
+import org.apache.knox.gateway.services.security.MasterService;
+import org.apache.knox.gateway.services.security.impl.DefaultKeystoreService;
+import org.apache.knox.gateway.services.security.token.JWTokenAttributesBuilder;
+import org.apache.knox.gateway.services.security.token.impl.JWT;
+import org.apache.knox.test.category.ManualTests;
+import org.easymock.EasyMock;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the throughput of {@link DefaultTokenAuthorityService#verifyToken(JWT)} with
+ * cached verifiers to loading the signing key from the keystore and creating a verifier
+ * for every token, as the service did before.
+ * Run with <code>mvn test -Dtest=DefaultTokenAuthorityServiceBenchmarkTest -DexcludedGroups=none</code>.
+ */
+@Category(ManualTests.class)
+public class DefaultTokenAuthorityServiceBenchmarkTest {
+  private static final int WARMUP = 2_000;
+  private static final int VERIFICATIONS = 20_000;
+
+  @Test
+  public void benchmark() throws Exception {
+    String basedir = System.getProperty("basedir");
+    if (basedir == null) {
+      basedir = new File(".").getCanonicalPath();
+    }
+
+    GatewayConfig config = EasyMock.createNiceMock(GatewayConfig.class);
+    EasyMock.expect(config.getGatewaySecurityDir()).andReturn(basedir + "/target/test-classes").anyTimes();
+    EasyMock.expect(config.getGatewayKeystoreDir()).andReturn(basedir + "/target/test-classes/keystores").anyTimes();
+    EasyMock.expect(config.getSigningKeystoreName()).andReturn("server-keystore.jks").anyTimes();
+    EasyMock.expect(config.getSigningKeystorePath()).andReturn(basedir + "/target/test-classes/keystores/server-keystore.jks").anyTimes();
+    EasyMock.expect(config.getSigningKeystorePasswordAlias()).andReturn(GatewayConfig.DEFAULT_SIGNING_KEYSTORE_PASSWORD_ALIAS).anyTimes();
+    EasyMock.expect(config.getSigningKeyPassphraseAlias()).andReturn(GatewayConfig.DEFAULT_SIGNING_KEY_PASSPHRASE_ALIAS).anyTimes();
+    EasyMock.expect(config.getSigningKeystoreType()).andReturn("jks").anyTimes();
+    EasyMock.expect(config.getSigningKeyAlias()).andReturn("server").anyTimes();
+    EasyMock.expect(config.getCredentialStoreType()).andReturn(GatewayConfig.DEFAULT_CREDENTIAL_STORE_TYPE).anyTimes();
+    EasyMock.expect(config.getCredentialStoreAlgorithm()).andReturn(GatewayConfig.DEFAULT_CREDENTIAL_STORE_ALG).anyTimes();
+    EasyMock.expect(config.getSigningKeyVerifierCacheTimeToLive()).andReturn(3600L).anyTimes();
+    EasyMock.expect(config.getSigningKeyRotationOverlap()).andReturn(86400L).anyTimes();
+    EasyMock.expect(config.getSigningKeystoreReloadInterval()).andReturn(60L).anyTimes();
+
+    MasterService ms = EasyMock.createNiceMock(MasterService.class);
+    EasyMock.expect(ms.getMasterSecret()).andReturn("horton".toCharArray()).anyTimes();
+
+    AliasService as = EasyMock.createNiceMock(AliasService.class);
+    EasyMock.expect(as.getSigningKeyPassphrase()).andReturn("horton".toCharArray()).anyTimes();
+
+    EasyMock.replay(config, ms, as);
+
+    DefaultKeystoreService ks = new DefaultKeystoreService();
+    ks.setMasterService(ms);
+    ks.init(config, new HashMap<>());
+
+    DefaultTokenAuthorityService ta = new DefaultTokenAuthorityService();
+    ta.setAliasService(as);
+    ta.setKeystoreService(ks);
+    ta.init(config, new HashMap<>());
+    ta.start();
+
+    JWT token = ta.issueToken(new JWTokenAttributesBuilder().setUserName("alice").setAlgorithm("RS256").build());
+
+    for (int i = 0; i < WARMUP; i++) {
+      assertTrue(ta.verifyToken(token));
+      assertTrue(token.verify(new RSASSAVerifier((RSAPublicKey) ks.getSigningKeystore().getCertificate("server").getPublicKey())));
+    }
+
+    long start = System.nanoTime();
+    for (int i = 0; i < VERIFICATIONS; i++) {
+      ta.verifyToken(token);
+    }
+    long cachedNanos = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int i = 0; i < VERIFICATIONS; i++) {
+      token.verify(new RSASSAVerifier((RSAPublicKey) ks.getSigningKeystore().getCertificate("server").getPublicKey()));
+    }
+    long uncachedNanos = System.nanoTime() - start;
+
+    double cachedPerSecond = VERIFICATIONS * (double) TimeUnit.SECONDS.toNanos(1) / cachedNanos;
+    double uncachedPerSecond = VERIFICATIONS * (double) TimeUnit.SECONDS.toNanos(1) / uncachedNanos;
+    System.out.println(String.format(Locale.ROOT,
+        "%d verifications: cached verifiers %.0f tokens/s, keystore load and new verifier %.0f tokens/s",
+        VERIFICATIONS, cachedPerSecond, uncachedPerSecond));
+    assertTrue(cachedPerSecond > uncachedPerSecond);
+  }
+}
@@ -18,15 +18,35 @@
 package org.apache.knox.gateway.services.token.impl;
 
 import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.Key;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
 import java.security.Principal;
+import java.security.cert.Certificate;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.nimbusds.jose.crypto.ECDSAVerifier;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jwt.SignedJWT;
 import org.apache.knox.gateway.config.GatewayConfig;
 import org.apache.knox.gateway.services.ServiceLifecycleException;
 import org.apache.knox.gateway.services.security.AliasService;
+import org.apache.knox.gateway.services.security.KeystoreServiceException;
 import org.apache.knox.gateway.services.security.MasterService;
 import org.apache.knox.gateway.services.security.impl.DefaultKeystoreService;
 import org.apache.knox.gateway.services.security.token.impl.JWT;
@@ -34,18 +54,29 @@ import org.apache.knox.gateway.services.security.token.impl.JWTToken;
 import org.apache.knox.gateway.services.security.token.JWTokenAttributes;
 import org.apache.knox.gateway.services.security.token.JWTokenAttributesBuilder;
 import org.apache.knox.gateway.services.security.token.TokenServiceException;
+import org.apache.knox.gateway.services.security.token.TokenUtils;
+import org.apache.knox.gateway.util.X509CertificateUtil;
 
 import org.easymock.EasyMock;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 
 /**
  * Some unit tests for the DefaultTokenAuthorityService.
  */
 public class DefaultTokenAuthorityServiceTest {
+  private static final char[] SECRET = "horton".toCharArray();
+
+  @Rule
+  public final TemporaryFolder testFolder = new TemporaryFolder();
+
   @Test
   public void testTokenCreation() throws Exception {
     final String userName = "john.doe@example.com";
@@ -369,6 +400,9 @@ public class DefaultTokenAuthorityServiceTest {
     EasyMock.expect(config.getSigningKeyAlias()).andReturn("server").anyTimes();
     EasyMock.expect(config.getKeystoreCacheEntryTimeToLiveInMinutes()).andReturn(0L).anyTimes();
     EasyMock.expect(config.getKeystoreCacheSizeLimit()).andReturn(0L).anyTimes();
+    EasyMock.expect(config.getSigningKeyVerifierCacheTimeToLive()).andReturn(0L).anyTimes();
+    EasyMock.expect(config.getSigningKeyRotationOverlap()).andReturn(0L).anyTimes();
+    EasyMock.expect(config.getSigningKeystoreReloadInterval()).andReturn(0L).anyTimes();
     EasyMock.expect(config.getCredentialStoreType()).andReturn(GatewayConfig.DEFAULT_CREDENTIAL_STORE_TYPE).anyTimes();
     EasyMock.expect(config.getCredentialStoreAlgorithm()).andReturn(GatewayConfig.DEFAULT_CREDENTIAL_STORE_ALG).anyTimes();
 
@@ -412,6 +446,9 @@ public class DefaultTokenAuthorityServiceTest {
     EasyMock.expect(config.getSigningKeystorePasswordAlias()).andReturn(GatewayConfig.DEFAULT_SIGNING_KEYSTORE_PASSWORD_ALIAS).anyTimes();
     EasyMock.expect(config.getKeystoreCacheEntryTimeToLiveInMinutes()).andReturn(0L).anyTimes();
     EasyMock.expect(config.getKeystoreCacheSizeLimit()).andReturn(0L).anyTimes();
+    EasyMock.expect(config.getSigningKeyVerifierCacheTimeToLive()).andReturn(0L).anyTimes();
+    EasyMock.expect(config.getSigningKeyRotationOverlap()).andReturn(0L).anyTimes();
+    EasyMock.expect(config.getSigningKeystoreReloadInterval()).andReturn(0L).anyTimes();
     EasyMock.expect(config.getCredentialStoreType()).andReturn(GatewayConfig.DEFAULT_CREDENTIAL_STORE_TYPE).anyTimes();
     EasyMock.expect(config.getCredentialStoreAlgorithm()).andReturn(GatewayConfig.DEFAULT_CREDENTIAL_STORE_ALG).anyTimes();
 
@@ -460,6 +497,9 @@ public class DefaultTokenAuthorityServiceTest {
     EasyMock.expect(config.getSigningKeyAlias()).andReturn("server").anyTimes();
     EasyMock.expect(config.getKeystoreCacheEntryTimeToLiveInMinutes()).andReturn(0L).anyTimes();
     EasyMock.expect(config.getKeystoreCacheSizeLimit()).andReturn(0L).anyTimes();
+    EasyMock.expect(config.getSigningKeyVerifierCacheTimeToLive()).andReturn(0L).anyTimes();
+    EasyMock.expect(config.getSigningKeyRotationOverlap()).andReturn(0L).anyTimes();
+    EasyMock.expect(config.getSigningKeystoreReloadInterval()).andReturn(0L).anyTimes();
     EasyMock.expect(config.getCredentialStoreType()).andReturn(GatewayConfig.DEFAULT_CREDENTIAL_STORE_TYPE).anyTimes();
     EasyMock.expect(config.getCredentialStoreAlgorithm()).andReturn(GatewayConfig.DEFAULT_CREDENTIAL_STORE_ALG).anyTimes();
 
@@ -508,6 +548,9 @@ public class DefaultTokenAuthorityServiceTest {
     EasyMock.expect(config.getSigningKeyAlias()).andReturn("invalid_key").anyTimes();
     EasyMock.expect(config.getKeystoreCacheEntryTimeToLiveInMinutes()).andReturn(0L).anyTimes();
     EasyMock.expect(config.getKeystoreCacheSizeLimit()).andReturn(0L).anyTimes();
+    EasyMock.expect(config.getSigningKeyVerifierCacheTimeToLive()).andReturn(0L).anyTimes();
+    EasyMock.expect(config.getSigningKeyRotationOverlap()).andReturn(0L).anyTimes();
+    EasyMock.expect(config.getSigningKeystoreReloadInterval()).andReturn(0L).anyTimes();
     EasyMock.expect(config.getCredentialStoreType()).andReturn(GatewayConfig.DEFAULT_CREDENTIAL_STORE_TYPE).anyTimes();
     EasyMock.expect(config.getCredentialStoreAlgorithm()).andReturn(GatewayConfig.DEFAULT_CREDENTIAL_STORE_ALG).anyTimes();
 
@@ -556,6 +599,9 @@ public class DefaultTokenAuthorityServiceTest {
     EasyMock.expect(config.getSigningKeyAlias()).andReturn("server").anyTimes();
     EasyMock.expect(config.getKeystoreCacheEntryTimeToLiveInMinutes()).andReturn(0L).anyTimes();
     EasyMock.expect(config.getKeystoreCacheSizeLimit()).andReturn(0L).anyTimes();
+    EasyMock.expect(config.getSigningKeyVerifierCacheTimeToLive()).andReturn(0L).anyTimes();
+    EasyMock.expect(config.getSigningKeyRotationOverlap()).andReturn(0L).anyTimes();
+    EasyMock.expect(config.getSigningKeystoreReloadInterval()).andReturn(0L).anyTimes();
     EasyMock.expect(config.getCredentialStoreType()).andReturn(GatewayConfig.DEFAULT_CREDENTIAL_STORE_TYPE).anyTimes();
     EasyMock.expect(config.getCredentialStoreAlgorithm()).andReturn(GatewayConfig.DEFAULT_CREDENTIAL_STORE_ALG).anyTimes();
 
@@ -637,4 +683,239 @@ public class DefaultTokenAuthorityServiceTest {
     opt = ta.getCachedSigningKeyID();
     assertTrue("Missing expected KID value", opt.isPresent());
   }
+
+  @Test
+  public void testSigningKeyRotation() throws Exception {
+    final Path keystore = copySigningKeystore();
+    final AtomicLong time = new AtomicLong();
+    final DefaultTokenAuthorityService ta = startTokenAuthority(keystore, time);
+
+    final JWT before = ta.issueToken(new JWTokenAttributesBuilder().setUserName("alice").setAlgorithm("RS256").build());
+    assertTrue(ta.verifyToken(before));
+
+    replaceSigningKey(keystore);
+
+    // the keystore is not checked again before the reload interval elapsed
+    time.addAndGet(TimeUnit.SECONDS.toNanos(5));
+    assertEquals(before.getClaim(JWTToken.KNOX_KID_CLAIM),
+        ta.issueToken(new JWTokenAttributesBuilder().setUserName("alice").setAlgorithm("RS256").build()).getClaim(JWTToken.KNOX_KID_CLAIM));
+
+    time.addAndGet(TimeUnit.SECONDS.toNanos(10));
+    final JWT after = ta.issueToken(new JWTokenAttributesBuilder().setUserName("alice").setAlgorithm("RS256").build());
+    assertNotEquals(before.getClaim(JWTToken.KNOX_KID_CLAIM), after.getClaim(JWTToken.KNOX_KID_CLAIM));
+    assertEquals(ta.getCachedSigningKeyID().get(), after.getClaim(JWTToken.KNOX_KID_CLAIM));
+    assertTrue(ta.verifyToken(after));
+
+    // tokens signed with the previous key are accepted during the overlap window only
+    assertTrue(ta.verifyToken(before));
+    time.addAndGet(TimeUnit.SECONDS.toNanos(61));
+    assertFalse(ta.verifyToken(before));
+    assertTrue(ta.verifyToken(after));
+  }
+
+  @Test
+  public void testVerifyTokenWithMismatchedKid() throws Exception {
+    final Path keystore = copySigningKeystore();
+    final DefaultTokenAuthorityService ta = startTokenAuthority(keystore, new AtomicLong());
+    final RSAPrivateKey key = (RSAPrivateKey) loadKeystore(keystore).getKey("server", SECRET);
+
+    final JWT unknownKid = new JWTToken(new JWTokenAttributesBuilder().setUserName("alice").setAlgorithm("RS256").setKid("unknown").build());
+    unknownKid.sign(new RSASSASigner(key, true));
+    assertFalse(ta.verifyToken(unknownKid));
+
+    final JWT noKid = new JWTToken(new JWTokenAttributesBuilder().setUserName("alice").setAlgorithm("RS256").build());
+    noKid.sign(new RSASSASigner(key, true));
+    assertTrue(ta.verifyToken(noKid));
+
+    // the kid of the signing key does not make a token signed with another key valid
+    final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(2048);
+    final JWT otherKey = new JWTToken(new JWTokenAttributesBuilder().setUserName("alice").setAlgorithm("RS256")
+        .setKid(ta.getCachedSigningKeyID().get()).build());
+    otherKey.sign(new RSASSASigner(generator.generateKeyPair().getPrivate()));
+    assertFalse(ta.verifyToken(otherKey));
+  }
+
+  @Test
+  public void testES256SignatureAlgorithm() throws Exception {
+    assertECDSASignature("ES256", "secp256r1", "SHA256withECDSA");
+  }
+
+  @Test
+  public void testES384SignatureAlgorithm() throws Exception {
+    assertECDSASignature("ES384", "secp384r1", "SHA384withECDSA");
+  }
+
+  @Test
+  public void testES512SignatureAlgorithm() throws Exception {
+    assertECDSASignature("ES512", "secp521r1", "SHA512withECDSA");
+  }
+
+  private void assertECDSASignature(String algorithm, String curve, String certificateAlgorithm) throws Exception {
+    final Path keystore = copySigningKeystore();
+    replaceSigningKey(keystore, generateECKeyPair(curve), certificateAlgorithm);
+    final DefaultTokenAuthorityService ta = startTokenAuthority(keystore, new AtomicLong());
+    final ECPublicKey publicKey = (ECPublicKey) loadKeystore(keystore).getCertificate("server").getPublicKey();
+
+    final JWT token = ta.issueToken(new JWTokenAttributesBuilder().setUserName("alice").setAlgorithm(algorithm).build());
+    assertEquals(algorithm, token.getSignatureAlgorithm().getName());
+    assertEquals(TokenUtils.getThumbprint(publicKey, "SHA-256"), token.getClaim(JWTToken.KNOX_KID_CLAIM));
+    assertTrue(ta.verifyToken(token));
+
+    // the signature is verified by a verifier independent of the token authority
+    assertTrue(SignedJWT.parse(token.toString()).verify(new ECDSAVerifier(publicKey)));
+
+    // an EC key only signs with the algorithm of its curve
+    assertThrows(TokenServiceException.class,
+        () -> ta.issueToken(new JWTokenAttributesBuilder().setUserName("alice").setAlgorithm("RS256").build()));
+    assertThrows(TokenServiceException.class,
+        () -> ta.issueToken(new JWTokenAttributesBuilder().setUserName("alice").setAlgorithm("ES256".equals(algorithm) ? "ES384" : "ES256").build()));
+  }
+
+  @Test
+  public void testRSAKeyDoesNotSignECDSA() throws Exception {
+    final DefaultTokenAuthorityService ta = startTokenAuthority(copySigningKeystore(), new AtomicLong());
+    assertThrows(TokenServiceException.class,
+        () -> ta.issueToken(new JWTokenAttributesBuilder().setUserName("alice").setAlgorithm("ES256").build()));
+  }
+
+  @Test
+  public void testSigningKeyRotationFromRSAToEC() throws Exception {
+    final Path keystore = copySigningKeystore();
+    final AtomicLong time = new AtomicLong();
+    final DefaultTokenAuthorityService ta = startTokenAuthority(keystore, time);
+
+    final JWT before = ta.issueToken(new JWTokenAttributesBuilder().setUserName("alice").setAlgorithm("RS256").build());
+
+    replaceSigningKey(keystore, generateECKeyPair("secp256r1"), "SHA256withECDSA");
+    time.addAndGet(TimeUnit.SECONDS.toNanos(10));
+
+    final JWT after = ta.issueToken(new JWTokenAttributesBuilder().setUserName("alice").setAlgorithm("ES256").build());
+    assertNotEquals(before.getClaim(JWTToken.KNOX_KID_CLAIM), after.getClaim(JWTToken.KNOX_KID_CLAIM));
+    assertTrue(ta.verifyToken(after));
+    assertTrue(ta.verifyToken(before));
+    assertThrows(TokenServiceException.class,
+        () -> ta.issueToken(new JWTokenAttributesBuilder().setUserName("alice").setAlgorithm("RS256").build()));
+
+    time.addAndGet(TimeUnit.SECONDS.toNanos(61));
+    assertFalse(ta.verifyToken(before));
+    assertTrue(ta.verifyToken(after));
+  }
+
+  @Test
+  public void testCustomSigningKeySignerIsCached() throws Exception {
+    final Path keystore = copySigningKeystore();
+    final AtomicLong time = new AtomicLong();
+    final AtomicInteger loads = new AtomicInteger();
+    final DefaultKeystoreService ks = new DefaultKeystoreService() {
+      @Override
+      public Key getSigningKey(String keystoreName, String alias, char[] passphrase) throws KeystoreServiceException {
+        loads.incrementAndGet();
+        return super.getSigningKey(keystoreName, alias, passphrase);
+      }
+    };
+    final DefaultTokenAuthorityService ta = startTokenAuthority(keystore, time, ks);
+    final JWTokenAttributesBuilder attributes = new JWTokenAttributesBuilder().setUserName("alice").setAlgorithm("RS256")
+        .setSigningKeystoreName("server-keystore").setSigningKeystoreAlias("server");
+
+    final RSAPublicKey publicKey = (RSAPublicKey) loadKeystore(keystore).getCertificate("server").getPublicKey();
+    for (int i = 0; i < 3; i++) {
+      assertTrue(ta.verifyToken(ta.issueToken(attributes.setSigningKeystorePassphrase(SECRET).build()), publicKey));
+    }
+    assertEquals(1, loads.get());
+
+    // a different passphrase is not served from the cache
+    assertThrows(TokenServiceException.class,
+        () -> ta.issueToken(attributes.setSigningKeystorePassphrase("wrong".toCharArray()).build()));
+    assertEquals(2, loads.get());
+
+    // the cached signers are dropped when the signing keystore is reloaded
+    replaceSigningKey(keystore);
+    time.addAndGet(TimeUnit.SECONDS.toNanos(10));
+    final JWT token = ta.issueToken(attributes.setSigningKeystorePassphrase(SECRET).build());
+    assertEquals(3, loads.get());
+    assertTrue(ta.verifyToken(token, (RSAPublicKey) loadKeystore(keystore).getCertificate("server").getPublicKey()));
+  }
+
+  private Path copySigningKeystore() throws Exception {
+    String basedir = System.getProperty("basedir");
+    if (basedir == null) {
+      basedir = new File(".").getCanonicalPath();
+    }
+    final Path keystore = testFolder.getRoot().toPath().resolve("server-keystore.jks");
+    Files.copy(new File(basedir, "target/test-classes/keystores/server-keystore.jks").toPath(), keystore);
+    return keystore;
+  }
+
+  private DefaultTokenAuthorityService startTokenAuthority(Path keystore, AtomicLong time) throws Exception {
+    return startTokenAuthority(keystore, time, new DefaultKeystoreService());
+  }
+
+  private DefaultTokenAuthorityService startTokenAuthority(Path keystore, AtomicLong time, DefaultKeystoreService ks) throws Exception {
+    GatewayConfig config = EasyMock.createNiceMock(GatewayConfig.class);
+    EasyMock.expect(config.getGatewaySecurityDir()).andReturn(testFolder.getRoot().getAbsolutePath()).anyTimes();
+    EasyMock.expect(config.getGatewayKeystoreDir()).andReturn(testFolder.getRoot().getAbsolutePath()).anyTimes();
+    EasyMock.expect(config.getSigningKeystoreName()).andReturn("server-keystore.jks").anyTimes();
+    EasyMock.expect(config.getSigningKeystorePath()).andReturn(keystore.toString()).anyTimes();
+    EasyMock.expect(config.getSigningKeystorePasswordAlias()).andReturn(GatewayConfig.DEFAULT_SIGNING_KEYSTORE_PASSWORD_ALIAS).anyTimes();
+    EasyMock.expect(config.getSigningKeyPassphraseAlias()).andReturn(GatewayConfig.DEFAULT_SIGNING_KEY_PASSPHRASE_ALIAS).anyTimes();
+    EasyMock.expect(config.getSigningKeystoreType()).andReturn("jks").anyTimes();
+    EasyMock.expect(config.getSigningKeyAlias()).andReturn("server").anyTimes();
+    EasyMock.expect(config.getCredentialStoreType()).andReturn(GatewayConfig.DEFAULT_CREDENTIAL_STORE_TYPE).anyTimes();
+    EasyMock.expect(config.getCredentialStoreAlgorithm()).andReturn(GatewayConfig.DEFAULT_CREDENTIAL_STORE_ALG).anyTimes();
+    EasyMock.expect(config.getSigningKeyVerifierCacheTimeToLive()).andReturn(3600L).anyTimes();
+    EasyMock.expect(config.getSigningKeyRotationOverlap()).andReturn(60L).anyTimes();
+    EasyMock.expect(config.getSigningKeystoreReloadInterval()).andReturn(10L).anyTimes();
+
+    MasterService ms = EasyMock.createNiceMock(MasterService.class);
+    EasyMock.expect(ms.getMasterSecret()).andReturn(SECRET).anyTimes();
+
+    AliasService as = EasyMock.createNiceMock(AliasService.class);
+    EasyMock.expect(as.getSigningKeyPassphrase()).andReturn(SECRET).anyTimes();
+
+    EasyMock.replay(config, ms, as);
+
+    ks.setMasterService(ms);
+    ks.init(config, new HashMap<>());
+
+    DefaultTokenAuthorityService ta = new DefaultTokenAuthorityService();
+    ta.setAliasService(as);
+    ta.setKeystoreService(ks);
+    ta.setTicker(time::get);
+    ta.init(config, new HashMap<>());
+    ta.start();
+    return ta;
+  }
+
+  private static KeyStore loadKeystore(Path keystore) throws Exception {
+    final KeyStore keyStore = KeyStore.getInstance("jks");
+    try (InputStream input = Files.newInputStream(keystore)) {
+      keyStore.load(input, SECRET);
+    }
+    return keyStore;
+  }
+
+  private static void replaceSigningKey(Path keystore) throws Exception {
+    final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(2048);
+    replaceSigningKey(keystore, generator.generateKeyPair(), "SHA256withRSA");
+  }
+
+  private static KeyPair generateECKeyPair(String curve) throws Exception {
+    final KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+    generator.initialize(new ECGenParameterSpec(curve));
+    return generator.generateKeyPair();
+  }
+
+  private static void replaceSigningKey(Path keystore, KeyPair keyPair, String certificateAlgorithm) throws Exception {
+    final Certificate certificate = X509CertificateUtil.generateCertificate("CN=server", keyPair, 365, certificateAlgorithm);
+
+    final KeyStore keyStore = loadKeystore(keystore);
+    keyStore.setKeyEntry("server", keyPair.getPrivate(), SECRET, new Certificate[] { certificate });
+    final FileTime modified = Files.getLastModifiedTime(keystore);
+    try (OutputStream output = Files.newOutputStream(keystore)) {
+      keyStore.store(output, SECRET);
+    }
+    Files.setLastModifiedTime(keystore, FileTime.fromMillis(modified.toMillis() + 10_000));
+  }
 }
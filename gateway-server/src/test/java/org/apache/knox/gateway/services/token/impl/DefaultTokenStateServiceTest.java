@@ -30,8 +30,11 @@ import java.nio.file.Path;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.interfaces.RSAPrivateKey;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
@@ -196,6 +199,73 @@ public class DefaultTokenStateServiceTest {
     }
   }
 
+  @Test
+  public void testBulkRevocation() throws Exception {
+    final TokenStateService tss = createTokenStateService();
+    final String tokenId1 = addBulkTestToken(tss, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(60));
+    final String tokenId2 = addBulkTestToken(tss, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(60));
+    final String tokenId3 = addBulkTestToken(tss, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(60));
+    final String unknownTokenId = UUID.randomUUID().toString();
+
+    assertEquals(new HashSet<>(Arrays.asList(tokenId1, tokenId2)),
+        tss.revokeTokens(new HashSet<>(Arrays.asList(tokenId1, tokenId2, unknownTokenId))));
+    assertThrows(UnknownTokenException.class, () -> tss.getTokenExpiration(tokenId1));
+    assertThrows(UnknownTokenException.class, () -> tss.getTokenExpiration(tokenId2));
+    assertTrue(tss.getTokenExpiration(tokenId3) > System.currentTimeMillis());
+  }
+
+  @Test
+  public void testBulkSetEnabled() throws Exception {
+    final TokenStateService tss = createTokenStateService();
+    final String tokenId1 = addBulkTestToken(tss, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(60));
+    final String tokenId2 = addBulkTestToken(tss, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(60));
+    final String tokenId3 = addBulkTestToken(tss, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(60));
+    final String unknownTokenId = UUID.randomUUID().toString();
+
+    assertEquals(new HashSet<>(Arrays.asList(tokenId1, tokenId2)),
+        tss.setTokensEnabled(new HashSet<>(Arrays.asList(tokenId1, tokenId2, unknownTokenId)), false));
+    assertFalse(tss.getTokenMetadata(tokenId1).isEnabled());
+    assertFalse(tss.getTokenMetadata(tokenId2).isEnabled());
+    assertTrue(tss.getTokenMetadata(tokenId3).isEnabled());
+
+    // tokens which are already disabled are skipped
+    assertTrue(tss.setTokensEnabled(new HashSet<>(Arrays.asList(tokenId1, tokenId2)), false).isEmpty());
+
+    assertEquals(Collections.singleton(tokenId1), tss.setTokensEnabled(new HashSet<>(Arrays.asList(tokenId1, tokenId3)), true));
+    assertTrue(tss.getTokenMetadata(tokenId1).isEnabled());
+    assertFalse(tss.getTokenMetadata(tokenId2).isEnabled());
+    assertTrue(tss.getTokenMetadata(tokenId3).isEnabled());
+  }
+
+  @Test
+  public void testBulkRenewal() throws Exception {
+    final TokenStateService tss = createTokenStateService();
+    final String expiredTokenId = addBulkTestToken(tss, System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(60));
+    final long issueTime = System.currentTimeMillis();
+    final long maxLifetimeDuration = TimeUnit.SECONDS.toMillis(5);
+    final String shortLivedTokenId = UUID.randomUUID().toString();
+    addToken(tss, shortLivedTokenId, issueTime, issueTime + maxLifetimeDuration, maxLifetimeDuration);
+    tss.addMetadata(shortLivedTokenId, new TokenMetadata("alice"));
+    final String unknownTokenId = UUID.randomUUID().toString();
+
+    final Map<String, Long> renewed =
+        tss.renewTokens(new HashSet<>(Arrays.asList(expiredTokenId, shortLivedTokenId, unknownTokenId)), tss.getDefaultRenewInterval());
+
+    // the maximum lifetime of the short-lived token would be exceeded
+    assertEquals(Collections.singleton(expiredTokenId), renewed.keySet());
+    assertEquals(renewed.get(expiredTokenId).longValue(), tss.getTokenExpiration(expiredTokenId));
+    assertTrue(tss.getTokenExpiration(expiredTokenId) > System.currentTimeMillis());
+    assertEquals(issueTime + maxLifetimeDuration, tss.getTokenExpiration(shortLivedTokenId));
+  }
+
+  private String addBulkTestToken(TokenStateService tss, long expiration) {
+    final String tokenId = UUID.randomUUID().toString();
+    final long issueTime = System.currentTimeMillis();
+    addToken(tss, tokenId, issueTime, expiration, tss.getDefaultMaxLifetimeDuration());
+    tss.addMetadata(tokenId, new TokenMetadata("alice"));
+    return tokenId;
+  }
+
   @Test
   public void testNegativeTokenEviction() throws Exception {
     final JWTToken token = createMockToken(System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(60));
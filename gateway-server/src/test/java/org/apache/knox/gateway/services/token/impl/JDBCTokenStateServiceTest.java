@@ -21,8 +21,13 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.apache.knox.gateway.util.JDBCUtils.HSQL;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
@@ -31,11 +36,16 @@ import java.sql.SQLException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.codec.digest.HmacAlgorithms;
@@ -44,6 +54,7 @@ import org.apache.knox.gateway.config.GatewayConfig;
 import org.apache.knox.gateway.services.security.AliasService;
 import org.apache.knox.gateway.services.security.token.KnoxToken;
 import org.apache.knox.gateway.services.security.token.TokenMetadata;
+import org.apache.knox.gateway.services.security.token.TokenValidationView;
 import org.apache.knox.gateway.services.security.token.UnknownTokenException;
 import org.apache.knox.gateway.services.security.token.impl.TokenMAC;
 import org.apache.knox.gateway.util.JDBCUtils;
@@ -58,6 +69,9 @@ public class JDBCTokenStateServiceTest {
   public static final String USERNAME = "SA";
   public static final String PASSWORD = "";
   private static final String GET_TOKENS_COUNT_SQL = "SELECT count(*) FROM " + TokenStateDatabase.TOKENS_TABLE_NAME;
+  private static final String GET_ENABLED_SQL = "SELECT enabled FROM " + TokenStateDatabase.TOKENS_TABLE_NAME + " WHERE token_id = ?";
+  private static final String GET_ENABLED_METADATA_SQL = "SELECT md_value FROM " + TokenStateDatabase.TOKEN_METADATA_TABLE_NAME
+      + " WHERE token_id = ? AND md_name = '" + TokenMetadata.ENABLED + "'";
   private static final String TRUNCATE_KNOX_TOKENS_SQL = "DELETE FROM " + TokenStateDatabase.TOKENS_TABLE_NAME;
   private static final String TRUNCATE_KNOX_TOKEN_METADATA_SQL = "DELETE FROM " + TokenStateDatabase.TOKEN_METADATA_TABLE_NAME;
 
@@ -216,6 +230,125 @@ public class JDBCTokenStateServiceTest {
     jdbcTokenStateService.getTokenMetadata(tokenId);
   }
 
+  @Test
+  public void testGetTokenValidationViewWithOneQuery() throws Exception {
+    final String tokenId = UUID.randomUUID().toString();
+    final long issueTime = System.currentTimeMillis();
+    final long expiration = issueTime + 1000;
+    jdbcTokenStateService.addToken(tokenId, issueTime, expiration, 1000);
+    final TokenMetadata metadata = new TokenMetadata("alice", "comment", false);
+    metadata.setPasscode(tokenMAC.hash(tokenId, issueTime, "alice", "passcode"));
+    jdbcTokenStateService.addMetadata(tokenId, metadata);
+
+    final TokenStateDatabase tokenDatabase = (TokenStateDatabase) FieldUtils.readField(jdbcTokenStateService, "tokenDatabase", true);
+    final DataSource dataSource = (DataSource) FieldUtils.readField(tokenDatabase, "dataSource", true);
+    final AtomicInteger statements = new AtomicInteger();
+    FieldUtils.writeField(jdbcTokenStateService, "tokenDatabase", new TokenStateDatabase(countStatements(dataSource, statements)), true);
+    try {
+      statements.set(0);
+      final TokenValidationView tokenValidationView = jdbcTokenStateService.getTokenValidationView(tokenId);
+      assertEquals(1, statements.get());
+      assertEquals(tokenId, tokenValidationView.getTokenId());
+      assertEquals(issueTime, tokenValidationView.getIssueTime());
+      assertEquals(expiration, tokenValidationView.getExpiration());
+      assertEquals("alice", tokenValidationView.getUserName());
+      assertEquals(metadata.getPasscode(), tokenValidationView.getPasscode());
+      assertFalse(tokenValidationView.isEnabled());
+
+      statements.set(0);
+      assertThrows(UnknownTokenException.class, () -> jdbcTokenStateService.getTokenValidationView(UUID.randomUUID().toString()));
+      assertEquals(1, statements.get());
+    } finally {
+      FieldUtils.writeField(jdbcTokenStateService, "tokenDatabase", tokenDatabase, true);
+    }
+  }
+
+  @Test
+  public void testBulkOperationsAreBatched() throws Exception {
+    final long issueTime = System.currentTimeMillis();
+    final List<String> tokenIds = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      final String tokenId = UUID.randomUUID().toString();
+      jdbcTokenStateService.addToken(tokenId, issueTime, issueTime + 1000, TimeUnit.DAYS.toMillis(7));
+      jdbcTokenStateService.addMetadata(tokenId, new TokenMetadata("bulkUser"));
+      tokenIds.add(tokenId);
+    }
+    // a token with a short maximum lifetime, which cannot be renewed
+    final String shortLivedTokenId = UUID.randomUUID().toString();
+    jdbcTokenStateService.addToken(shortLivedTokenId, issueTime, issueTime + 1000, 1000);
+    final String unknownTokenId = UUID.randomUUID().toString();
+
+    final TokenStateDatabase tokenDatabase = (TokenStateDatabase) FieldUtils.readField(jdbcTokenStateService, "tokenDatabase", true);
+    final DataSource dataSource = (DataSource) FieldUtils.readField(tokenDatabase, "dataSource", true);
+    final AtomicInteger statements = new AtomicInteger();
+    FieldUtils.writeField(jdbcTokenStateService, "tokenDatabase", new TokenStateDatabase(countStatements(dataSource, statements)), true);
+    try {
+      final Set<String> disabledTokenIds = new HashSet<>(tokenIds.subList(0, 5));
+      disabledTokenIds.add(unknownTokenId);
+      statements.set(0);
+      assertEquals(new HashSet<>(tokenIds.subList(0, 5)), jdbcTokenStateService.setTokensEnabled(disabledTokenIds, false));
+      // metadata and indexed flag updates
+      assertEquals(2, statements.get());
+      for (String tokenId : tokenIds) {
+        final boolean enabled = !disabledTokenIds.contains(tokenId);
+        assertEquals(String.valueOf(enabled), getStringTokenAttributeFromDatabase(tokenId, GET_ENABLED_METADATA_SQL));
+        assertEquals(enabled, getBooleanTokenAttributeFromDatabase(tokenId, GET_ENABLED_SQL));
+      }
+      assertTrue(jdbcTokenStateService.setTokensEnabled(disabledTokenIds, false).isEmpty());
+
+      final Set<String> renewedTokenIds = new HashSet<>(tokenIds);
+      renewedTokenIds.add(shortLivedTokenId);
+      renewedTokenIds.add(unknownTokenId);
+      statements.set(0);
+      final Map<String, Long> renewed = jdbcTokenStateService.renewTokens(renewedTokenIds, TimeUnit.HOURS.toMillis(1));
+      assertEquals(1, statements.get());
+      assertEquals(new HashSet<>(tokenIds), renewed.keySet());
+      for (String tokenId : tokenIds) {
+        assertEquals(renewed.get(tokenId).longValue(), getLongTokenAttributeFromDatabase(tokenId, TokenStateDatabase.GET_TOKEN_EXPIRATION_SQL));
+      }
+      assertEquals(issueTime + 1000, getLongTokenAttributeFromDatabase(shortLivedTokenId, TokenStateDatabase.GET_TOKEN_EXPIRATION_SQL));
+
+      final Set<String> revokedTokenIds = new HashSet<>(tokenIds);
+      revokedTokenIds.add(unknownTokenId);
+      statements.set(0);
+      assertEquals(new HashSet<>(tokenIds), jdbcTokenStateService.revokeTokens(revokedTokenIds));
+      assertEquals(1, statements.get());
+      for (String tokenId : tokenIds) {
+        assertEquals(0, getLongTokenAttributeFromDatabase(tokenId, TokenStateDatabase.GET_TOKEN_EXPIRATION_SQL));
+        assertNull(getStringTokenAttributeFromDatabase(tokenId, GET_ENABLED_METADATA_SQL));
+      }
+      assertEquals(issueTime + 1000, getLongTokenAttributeFromDatabase(shortLivedTokenId, TokenStateDatabase.GET_TOKEN_EXPIRATION_SQL));
+    } finally {
+      FieldUtils.writeField(jdbcTokenStateService, "tokenDatabase", tokenDatabase, true);
+    }
+  }
+
+  /* Wraps the given data source so that every statement prepared on its connections is counted */
+  private static DataSource countStatements(DataSource dataSource, AtomicInteger statements) {
+    return (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(), new Class<?>[] { DataSource.class },
+        (proxy, method, args) -> {
+          final Object result = invoke(dataSource, method, args);
+          if (result instanceof Connection) {
+            return Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+                (connectionProxy, connectionMethod, connectionArgs) -> {
+                  if ("prepareStatement".equals(connectionMethod.getName())) {
+                    statements.incrementAndGet();
+                  }
+                  return invoke(result, connectionMethod, connectionArgs);
+                });
+          }
+          return result;
+        });
+  }
+
+  private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
   @Test
   public void testEvictExpiredTokens() throws Exception {
     truncateDatabase();
@@ -240,6 +373,15 @@ public class JDBCTokenStateServiceTest {
     }
   }
 
+  private boolean getBooleanTokenAttributeFromDatabase(String tokenId, String sql) throws SQLException {
+    try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
+      stmt.setString(1, tokenId);
+      try (ResultSet rs = stmt.executeQuery()) {
+        return rs.next() && rs.getBoolean(1);
+      }
+    }
+  }
+
   private String getStringTokenAttributeFromDatabase(String tokenId, String sql) throws SQLException {
     try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
       stmt.setString(1, tokenId);
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.services.token.impl;
+
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.digest.HmacAlgorithms;
+import org.apache.knox.gateway.services.security.token.impl.TokenMAC;
+import org.apache.knox.test.category.ManualTests;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Compares the throughput of {@link TokenMAC#verify} on several threads to hashing with a
+ * single {@link Mac} behind a fair lock, as TokenMAC did before.
+ * Run with <code>mvn test -Dtest=TokenMACBenchmarkTest -DexcludedGroups=none</code>.
+ */
+@Category(ManualTests.class)
+@SuppressWarnings("PMD.DoNotUseThreads")
+public class TokenMACBenchmarkTest {
+  private static final String KEY = UUID.randomUUID().toString();
+  private static final int THREADS = 8;
+  private static final int HASHES_PER_THREAD = 100_000;
+
+  @Test
+  public void benchmark() throws Exception {
+    final TokenMAC tokenMAC = new TokenMAC(HmacAlgorithms.HMAC_SHA_256.getName(), KEY.toCharArray(), true);
+    final String stored = tokenMAC.hash("tokenId", 123L, "smolnar", "passcode");
+
+    final Mac shared = Mac.getInstance(HmacAlgorithms.HMAC_SHA_256.getName());
+    shared.init(new SecretKeySpec(KEY.getBytes(StandardCharsets.UTF_8), HmacAlgorithms.HMAC_SHA_256.getName()));
+    final Lock lock = new ReentrantLock(true);
+    final Runnable locked = () -> {
+      lock.lock();
+      try {
+        shared.update(("tokenId" + 123L + "smolnar").getBytes(StandardCharsets.UTF_8));
+        new String(shared.doFinal("passcode".getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
+      } finally {
+        lock.unlock();
+      }
+    };
+    final Runnable lockFree = () -> assertTrue(tokenMAC.verify("tokenId", 123L, "smolnar", "passcode", stored));
+
+    run(locked);
+    run(lockFree);
+    final double lockedPerSecond = run(locked);
+    final double lockFreePerSecond = run(lockFree);
+    System.out.println(String.format(Locale.ROOT,
+        "%d threads: shared Mac behind a lock %.0f hashes/s, per-thread Mac %.0f verifications/s",
+        THREADS, lockedPerSecond, lockFreePerSecond));
+    assertTrue(lockFreePerSecond > lockedPerSecond);
+  }
+
+  private static double run(Runnable hash) throws Exception {
+    final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      final CountDownLatch start = new CountDownLatch(1);
+      final List<Future<Void>> results = new ArrayList<>();
+      for (int t = 0; t < THREADS; t++) {
+        results.add(executor.submit((Callable<Void>) () -> {
+          start.await();
+          for (int i = 0; i < HASHES_PER_THREAD; i++) {
+            hash.run();
+          }
+          return null;
+        }));
+      }
+      final long begin = System.nanoTime();
+      start.countDown();
+      for (Future<Void> result : results) {
+        result.get();
+      }
+      final long nanos = System.nanoTime() - begin;
+      return THREADS * (double) HASHES_PER_THREAD * TimeUnit.SECONDS.toNanos(1) / nanos;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -18,19 +18,33 @@
 package org.apache.knox.gateway.services.token.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 
 import org.apache.commons.codec.digest.HmacAlgorithms;
 import org.apache.knox.gateway.services.security.token.impl.TokenMAC;
 import org.junit.Test;
 
 public class TokenMACTest {
+  private static final String KEY = UUID.randomUUID().toString();
 
   @Test
   public void testHash() throws Exception {
-    final TokenMAC tokenMAC = new TokenMAC(HmacAlgorithms.HMAC_SHA_256.getName(), "sPj8FCgQhCEi6G18kBfpswxYSki33plbelGLs0hMSbk".toCharArray());
+    final TokenMAC tokenMAC = new TokenMAC(HmacAlgorithms.HMAC_SHA_256.getName(), KEY.toCharArray(), true);
     final String toBeHashed = "sampleTokenContent";
     final String tokenId = UUID.randomUUID().toString();
     final long issueTime = 123L;
@@ -40,4 +54,97 @@ public class TokenMACTest {
     assertEquals(hashed, tokenMAC.hash(tokenId, issueTime, userName, toBeHashed));
   }
 
+  @Test
+  public void testHashIsBase64EncodedDigest() throws Exception {
+    final TokenMAC tokenMAC = new TokenMAC(HmacAlgorithms.HMAC_SHA_256.getName(), KEY.toCharArray(), true);
+    final String hashed = tokenMAC.hash("tokenId", 123L, "smolnar", "sampleTokenContent");
+    assertTrue(hashed.startsWith("v2:"));
+    assertFalse(TokenMAC.isLegacyHash(hashed));
+    assertEquals(32, Base64.getUrlDecoder().decode(hashed.substring(3)).length);
+  }
+
+  @Test
+  public void testLegacyHashIsWrittenUnlessV2HashIsEnabled() throws Exception {
+    final TokenMAC tokenMAC = new TokenMAC(HmacAlgorithms.HMAC_SHA_256.getName(), KEY.toCharArray());
+    final String tokenId = UUID.randomUUID().toString();
+    final String hashed = tokenMAC.hash(tokenId, 123L, "smolnar", "passcode");
+    assertEquals(legacyHash(tokenId, 123L, "smolnar", "passcode"), hashed);
+    assertFalse(tokenMAC.needsRehash(hashed));
+    assertTrue(tokenMAC.verify(tokenId, 123L, "smolnar", "passcode", hashed));
+
+    final TokenMAC v2TokenMAC = new TokenMAC(HmacAlgorithms.HMAC_SHA_256.getName(), KEY.toCharArray(), true);
+    assertTrue(v2TokenMAC.needsRehash(hashed));
+    assertTrue(v2TokenMAC.verify(tokenId, 123L, "smolnar", "passcode", hashed));
+    // A gateway that does not write v2 hashes yet still verifies them
+    assertTrue(tokenMAC.verify(tokenId, 123L, "smolnar", "passcode", v2TokenMAC.hash(tokenId, 123L, "smolnar", "passcode")));
+  }
+
+  @Test
+  public void testSaltValuesDoNotRunTogether() throws Exception {
+    final TokenMAC tokenMAC = new TokenMAC(HmacAlgorithms.HMAC_SHA_256.getName(), KEY.toCharArray(), true);
+    assertNotEquals(tokenMAC.hash("token1", 23L, "smolnar", "passcode"), tokenMAC.hash("token", 123L, "smolnar", "passcode"));
+    assertNotEquals(tokenMAC.hash("token", 12L, "3smolnar", "passcode"), tokenMAC.hash("token", 123L, "smolnar", "passcode"));
+  }
+
+  @Test
+  public void testVerify() throws Exception {
+    final TokenMAC tokenMAC = new TokenMAC(HmacAlgorithms.HMAC_SHA_256.getName(), KEY.toCharArray(), true);
+    final String tokenId = UUID.randomUUID().toString();
+    final String stored = tokenMAC.hash(tokenId, 123L, "smolnar", "passcode");
+    assertTrue(tokenMAC.verify(tokenId, 123L, "smolnar", "passcode", stored));
+    assertFalse(tokenMAC.verify(tokenId, 123L, "smolnar", "passcodf", stored));
+    assertFalse(tokenMAC.verify(tokenId, 124L, "smolnar", "passcode", stored));
+    assertFalse(tokenMAC.verify(tokenId, 123L, "guest", "passcode", stored));
+    assertFalse(tokenMAC.verify(tokenId, 123L, "smolnar", null, stored));
+    assertFalse(tokenMAC.verify(tokenId, 123L, "smolnar", "passcode", null));
+  }
+
+  @Test
+  public void testVerifyLegacyHash() throws Exception {
+    final TokenMAC tokenMAC = new TokenMAC(HmacAlgorithms.HMAC_SHA_256.getName(), KEY.toCharArray(), true);
+    final String tokenId = UUID.randomUUID().toString();
+    final long issueTime = System.currentTimeMillis();
+    for (int i = 0; i < 100; i++) {
+      final String passcode = UUID.randomUUID().toString();
+      final String stored = legacyHash(tokenId, issueTime, "smolnar", passcode);
+      assertTrue(TokenMAC.isLegacyHash(stored));
+      assertTrue(tokenMAC.verify(tokenId, issueTime, "smolnar", passcode, stored));
+      assertFalse(tokenMAC.verify(tokenId, issueTime, "smolnar", passcode + "x", stored));
+      assertFalse(tokenMAC.verify(tokenId, issueTime + 1, "smolnar", passcode, stored));
+    }
+  }
+
+  @Test
+  public void testConcurrentHashing() throws Exception {
+    final TokenMAC tokenMAC = new TokenMAC(HmacAlgorithms.HMAC_SHA_512.getName(), KEY.toCharArray(), true);
+    final String expected = tokenMAC.hash("tokenId", 123L, "smolnar", "passcode");
+    @SuppressWarnings("PMD.DoNotUseThreads")
+    final ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      final List<Future<Boolean>> results = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        results.add(executor.submit((Callable<Boolean>) () -> {
+          boolean matching = true;
+          for (int i = 0; i < 1000; i++) {
+            matching &= expected.equals(tokenMAC.hash("tokenId", 123L, "smolnar", "passcode"))
+                && tokenMAC.verify("tokenId", 123L, "smolnar", "passcode", expected);
+          }
+          return matching;
+        }));
+      }
+      for (Future<Boolean> result : results) {
+        assertTrue(result.get());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /* The passcode hash as tokens issued before the current hash format stored it */
+  static String legacyHash(String tokenId, long issueTime, String userName, String passcode) throws Exception {
+    final Mac mac = Mac.getInstance(HmacAlgorithms.HMAC_SHA_256.getName());
+    mac.init(new SecretKeySpec(KEY.getBytes(StandardCharsets.UTF_8), HmacAlgorithms.HMAC_SHA_256.getName()));
+    mac.update((tokenId + issueTime + userName).getBytes(StandardCharsets.UTF_8));
+    return new String(mac.doFinal(passcode.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
+  }
 }
@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.services.token.impl;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.RSAKeyGenParameterSpec;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.knox.gateway.config.GatewayConfig;
+import org.apache.knox.gateway.services.security.AliasService;
+import org.apache.knox.gateway.services.security.MasterService;
+import org.apache.knox.gateway.services.security.impl.DefaultKeystoreService;
+import org.apache.knox.gateway.services.security.token.JWTokenAttributes;
+import org.apache.knox.gateway.services.security.token.JWTokenAttributesBuilder;
+import org.apache.knox.gateway.services.security.token.impl.JWT;
+import org.apache.knox.gateway.util.X509CertificateUtil;
+import org.apache.knox.test.category.ManualTests;
+import org.easymock.EasyMock;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the throughput of issuing and verifying tokens signed with RSA and ECDSA keys.
+ * Run with <code>mvn test -Dtest=TokenSigningBenchmarkTest -DexcludedGroups=none</code>.
+ */
+@Category(ManualTests.class)
+public class TokenSigningBenchmarkTest {
+  private static final char[] SECRET = "horton".toCharArray();
+  private static final int WARMUP = 200;
+  private static final int OPERATIONS = 2_000;
+
+  @Rule
+  public final TemporaryFolder testFolder = new TemporaryFolder();
+
+  @Test
+  public void benchmark() throws Exception {
+    final AlgorithmParameterSpec rsa = new RSAKeyGenParameterSpec(2048, RSAKeyGenParameterSpec.F4);
+    benchmark("RS256", "RSA", rsa, "SHA256withRSA");
+    benchmark("ES256", "EC", new ECGenParameterSpec("secp256r1"), "SHA256withECDSA");
+    benchmark("ES384", "EC", new ECGenParameterSpec("secp384r1"), "SHA384withECDSA");
+    benchmark("ES512", "EC", new ECGenParameterSpec("secp521r1"), "SHA512withECDSA");
+  }
+
+  private void benchmark(String algorithm, String keyAlgorithm, AlgorithmParameterSpec keySpec, String certificateAlgorithm)
+      throws Exception {
+    final DefaultTokenAuthorityService ta = startTokenAuthority(createKeystore(algorithm, keyAlgorithm, keySpec, certificateAlgorithm));
+    final JWTokenAttributes attributes = new JWTokenAttributesBuilder().setUserName("alice").setAlgorithm(algorithm).build();
+
+    final JWT token = ta.issueToken(attributes);
+    for (int i = 0; i < WARMUP; i++) {
+      ta.issueToken(attributes);
+      assertTrue(ta.verifyToken(token));
+    }
+
+    long start = System.nanoTime();
+    for (int i = 0; i < OPERATIONS; i++) {
+      ta.issueToken(attributes);
+    }
+    final long issueNanos = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int i = 0; i < OPERATIONS; i++) {
+      ta.verifyToken(token);
+    }
+    final long verifyNanos = System.nanoTime() - start;
+
+    System.out.println(String.format(Locale.ROOT, "%s: issued %.0f tokens/s, verified %.0f tokens/s, token length %d",
+        algorithm, perSecond(issueNanos), perSecond(verifyNanos), token.toString().length()));
+  }
+
+  private static double perSecond(long nanos) {
+    return OPERATIONS * (double) TimeUnit.SECONDS.toNanos(1) / nanos;
+  }
+
+  private Path createKeystore(String name, String keyAlgorithm, AlgorithmParameterSpec keySpec, String certificateAlgorithm)
+      throws Exception {
+    final KeyPairGenerator generator = KeyPairGenerator.getInstance(keyAlgorithm);
+    generator.initialize(keySpec);
+    final KeyPair keyPair = generator.generateKeyPair();
+    final Certificate certificate = X509CertificateUtil.generateCertificate("CN=server", keyPair, 365, certificateAlgorithm);
+
+    final KeyStore keyStore = KeyStore.getInstance("jks");
+    keyStore.load(null, SECRET);
+    keyStore.setKeyEntry("server", keyPair.getPrivate(), SECRET, new Certificate[] { certificate });
+    final Path keystore = testFolder.getRoot().toPath().resolve(name + ".jks");
+    try (OutputStream output = Files.newOutputStream(keystore)) {
+      keyStore.store(output, SECRET);
+    }
+    return keystore;
+  }
+
+  private DefaultTokenAuthorityService startTokenAuthority(Path keystore) throws Exception {
+    GatewayConfig config = EasyMock.createNiceMock(GatewayConfig.class);
+    EasyMock.expect(config.getGatewaySecurityDir()).andReturn(testFolder.getRoot().getAbsolutePath()).anyTimes();
+    EasyMock.expect(config.getGatewayKeystoreDir()).andReturn(testFolder.getRoot().getAbsolutePath()).anyTimes();
+    EasyMock.expect(config.getSigningKeystoreName()).andReturn(keystore.getFileName().toString()).anyTimes();
+    EasyMock.expect(config.getSigningKeystorePath()).andReturn(keystore.toString()).anyTimes();
+    EasyMock.expect(config.getSigningKeystorePasswordAlias()).andReturn(GatewayConfig.DEFAULT_SIGNING_KEYSTORE_PASSWORD_ALIAS).anyTimes();
+    EasyMock.expect(config.getSigningKeyPassphraseAlias()).andReturn(GatewayConfig.DEFAULT_SIGNING_KEY_PASSPHRASE_ALIAS).anyTimes();
+    EasyMock.expect(config.getSigningKeystoreType()).andReturn("jks").anyTimes();
+    EasyMock.expect(config.getSigningKeyAlias()).andReturn("server").anyTimes();
+    EasyMock.expect(config.getCredentialStoreType()).andReturn(GatewayConfig.DEFAULT_CREDENTIAL_STORE_TYPE).anyTimes();
+    EasyMock.expect(config.getCredentialStoreAlgorithm()).andReturn(GatewayConfig.DEFAULT_CREDENTIAL_STORE_ALG).anyTimes();
+    EasyMock.expect(config.getSigningKeyVerifierCacheTimeToLive()).andReturn(3600L).anyTimes();
+    EasyMock.expect(config.getSigningKeyRotationOverlap()).andReturn(60L).anyTimes();
+    EasyMock.expect(config.getSigningKeystoreReloadInterval()).andReturn(3600L).anyTimes();
+
+    MasterService ms = EasyMock.createNiceMock(MasterService.class);
+    EasyMock.expect(ms.getMasterSecret()).andReturn(SECRET).anyTimes();
+
+    AliasService as = EasyMock.createNiceMock(AliasService.class);
+    EasyMock.expect(as.getSigningKeyPassphrase()).andReturn(SECRET).anyTimes();
+
+    EasyMock.replay(config, ms, as);
+
+    DefaultKeystoreService ks = new DefaultKeystoreService();
+    ks.setMasterService(ms);
+    ks.init(config, new HashMap<>());
+
+    DefaultTokenAuthorityService ta = new DefaultTokenAuthorityService();
+    ta.setAliasService(as);
+    ta.setKeystoreService(ks);
+    ta.init(config, new HashMap<>());
+    ta.start();
+    return ta;
+  }
+}
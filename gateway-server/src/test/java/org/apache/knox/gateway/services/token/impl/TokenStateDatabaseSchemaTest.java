@@ -0,0 +1,323 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.services.token.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.sql.DataSource;
+
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.apache.knox.gateway.services.security.token.KnoxToken;
+import org.apache.knox.gateway.services.security.token.TokenMetadata;
+import org.hsqldb.jdbc.JDBCDataSource;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TokenStateDatabaseSchemaTest {
+  private static final int LEGACY_TOKEN_COUNT = 500;
+  private static final int USER_COUNT = 10;
+
+  @ClassRule
+  public static final TemporaryFolder testFolder = new TemporaryFolder();
+
+  @BeforeClass
+  public static void setUpDerby() {
+    // keep the embedded Derby log out of the working directory
+    System.setProperty("derby.stream.error.file", new File(testFolder.getRoot(), "derby.log").getAbsolutePath());
+  }
+
+  @Test
+  public void testUpgradeLegacyDerbySchema() throws Exception {
+    final DataSource dataSource = createDerbyDataSource("legacyDerby");
+    createLegacySchema(dataSource);
+
+    final TokenStateDatabase database = new TokenStateDatabase(dataSource);
+    assertUpgradedLegacySchema(dataSource, database);
+
+    assertTrue(getDerbyPlan(dataSource, "SELECT token_id FROM KNOX_TOKENS WHERE expiration < 10")
+        .contains("KNOX_TOKENS_EXPIRATION_IDX"));
+    assertTrue(getDerbyPlan(dataSource, "SELECT token_id FROM KNOX_TOKENS WHERE user_name = 'user3'")
+        .contains("KNOX_TOKENS_USER_NAME_IDX"));
+  }
+
+  @Test
+  public void testUpgradeLegacyHsqldbSchema() throws Exception {
+    final DataSource dataSource = createHsqldbDataSource("legacyHsqldb");
+    createLegacySchema(dataSource);
+
+    final TokenStateDatabase database = new TokenStateDatabase(dataSource);
+    assertUpgradedLegacySchema(dataSource, database);
+
+    assertTrue(getHsqldbPlan(dataSource, "SELECT token_id FROM KNOX_TOKENS WHERE expiration < 10")
+        .contains("KNOX_TOKENS_EXPIRATION_IDX"));
+    assertTrue(getHsqldbPlan(dataSource, "SELECT token_id FROM KNOX_TOKENS WHERE user_name = 'user3'")
+        .contains("KNOX_TOKENS_USER_NAME_IDX"));
+    assertTrue(getHsqldbPlan(dataSource, "SELECT token_id FROM KNOX_TOKENS WHERE created_by = 'admin'")
+        .contains("KNOX_TOKENS_CREATED_BY_IDX"));
+  }
+
+  @Test
+  public void testConcurrentUpgradeOfLegacySchema() throws Exception {
+    final DataSource dataSource = createHsqldbDataSource("legacyConcurrent");
+    createLegacySchema(dataSource);
+
+    // reads the version of the schema right before another gateway instance upgrades it
+    final AtomicBoolean stale = new AtomicBoolean(true);
+    final TokenStateDatabaseSchema schema = new TokenStateDatabaseSchema(dataSource) {
+      @Override
+      int getCurrentVersion() throws SQLException {
+        if (stale.compareAndSet(true, false)) {
+          new TokenStateDatabaseSchema(dataSource).upgrade();
+          return 0;
+        }
+        return super.getCurrentVersion();
+      }
+    };
+    schema.upgrade();
+
+    assertEquals(TokenStateDatabaseSchema.LATEST_VERSION, schema.getCurrentVersion());
+    assertEquals(TokenStateDatabaseSchema.LATEST_VERSION, countRows(dataSource, TokenStateDatabaseSchema.SCHEMA_VERSION_TABLE_NAME));
+  }
+
+  @Test
+  public void testCreateAndReopenSchema() throws Exception {
+    final DataSource dataSource = createHsqldbDataSource("fresh");
+    new TokenStateDatabase(dataSource);
+
+    final TokenStateDatabaseSchema schema = new TokenStateDatabaseSchema(dataSource);
+    assertEquals(TokenStateDatabaseSchema.Dialect.HSQLDB, schema.getDialect());
+    assertEquals(TokenStateDatabaseSchema.LATEST_VERSION, schema.getCurrentVersion());
+    assertEquals(TokenStateDatabaseSchema.LATEST_VERSION, countRows(dataSource, TokenStateDatabaseSchema.SCHEMA_VERSION_TABLE_NAME));
+
+    // opening an up-to-date database does not apply any upgrade again
+    new TokenStateDatabase(dataSource);
+    assertEquals(TokenStateDatabaseSchema.LATEST_VERSION, countRows(dataSource, TokenStateDatabaseSchema.SCHEMA_VERSION_TABLE_NAME));
+  }
+
+  @Test
+  public void testUpsertMetadata() throws Exception {
+    final DataSource dataSource = createDerbyDataSource("upsert");
+    final TokenStateDatabase database = new TokenStateDatabase(dataSource);
+    database.addToken("token1", 1, 1, 1);
+
+    final TokenMetadata metadata = new TokenMetadata("user1", "comment", true);
+    metadata.setCreatedBy("admin");
+    assertTrue(database.upsertMetadata("token1", metadata.getMetadataMap()));
+
+    final Map<String, String> changes = new HashMap<>();
+    changes.put(TokenMetadata.ENABLED, "false");
+    changes.put(TokenMetadata.COMMENT, "changed");
+    changes.put("custom", "value");
+    assertTrue(database.upsertMetadata("token1", changes));
+
+    final TokenMetadata saved = database.getTokenMetadata("token1");
+    assertEquals("user1", saved.getUserName());
+    assertEquals("admin", saved.getCreatedBy());
+    assertEquals("changed", saved.getComment());
+    assertEquals("value", saved.getMetadata("custom"));
+    assertFalse(saved.isEnabled());
+    assertEquals("user1|admin|false", getPromotedColumns(dataSource, "token1"));
+
+    assertEquals(1, database.getTokens("user1").size());
+    assertEquals(1, database.getDoAsTokens("admin").size());
+    assertTrue(database.getTokens("admin").isEmpty());
+  }
+
+  @Test
+  public void testBatchOperations() throws Exception {
+    final DataSource dataSource = createDerbyDataSource("batch");
+    final TokenStateDatabase database = new TokenStateDatabase(dataSource);
+    database.addToken("token1", 1, 1, 100);
+    database.addToken("token2", 1, 1, 100);
+    database.addToken("token3", 1, 1, 10);
+    database.upsertMetadata("token1", new TokenMetadata("user1").getMetadataMap());
+    database.upsertMetadata("token2", new TokenMetadata("user1").getMetadataMap());
+    final Set<String> tokenIds = new HashSet<>(Arrays.asList("token1", "token2", "token3", "unknown"));
+
+    assertEquals(new HashSet<>(Arrays.asList("token1", "token2")), database.setEnabled(tokenIds, false));
+    assertFalse(database.getTokenMetadata("token1").isEnabled());
+    assertEquals("user1|null|false", getPromotedColumns(dataSource, "token2"));
+    assertTrue(database.setEnabled(tokenIds, false).isEmpty());
+
+    // the flag is added to the metadata of token3, which does not have it yet
+    assertEquals(new HashSet<>(Arrays.asList("token1", "token2", "token3")), database.setEnabled(tokenIds, true));
+    assertTrue(database.getTokenMetadata("token3").isEnabled());
+    assertEquals("user1|null|true", getPromotedColumns(dataSource, "token1"));
+    assertEquals("null|null|true", getPromotedColumns(dataSource, "token3"));
+
+    // token3 would exceed its maximum lifetime
+    assertEquals(new HashSet<>(Arrays.asList("token1", "token2")), database.renewTokens(tokenIds, 50, 60));
+    assertEquals(50, database.getTokenExpiration("token1"));
+    assertEquals(1, database.getTokenExpiration("token3"));
+
+    assertEquals(new HashSet<>(Arrays.asList("token1", "token3")), database.removeTokens(new HashSet<>(Arrays.asList("token1", "token3", "unknown"))));
+    assertEquals(1, countRows(dataSource, TokenStateDatabase.TOKENS_TABLE_NAME));
+    assertEquals(2, countRows(dataSource, TokenStateDatabase.TOKEN_METADATA_TABLE_NAME));
+  }
+
+  private static void assertUpgradedLegacySchema(DataSource dataSource, TokenStateDatabase database) throws SQLException {
+    final TokenStateDatabaseSchema schema = new TokenStateDatabaseSchema(dataSource);
+    assertEquals(TokenStateDatabaseSchema.LATEST_VERSION, schema.getCurrentVersion());
+    assertEquals(LEGACY_TOKEN_COUNT, countRows(dataSource, TokenStateDatabase.TOKENS_TABLE_NAME));
+
+    // the promoted columns are populated from the existing metadata
+    assertEquals("user3|admin|false", getPromotedColumns(dataSource, "token-3"));
+    assertEquals("user4|null|true", getPromotedColumns(dataSource, "token-4"));
+
+    final List<KnoxToken> tokens = new ArrayList<>(database.getTokens("user3"));
+    assertEquals(LEGACY_TOKEN_COUNT / USER_COUNT, tokens.size());
+    for (KnoxToken token : tokens) {
+      assertEquals("user3", token.getMetadata().getUserName());
+    }
+    assertEquals(LEGACY_TOKEN_COUNT / 3 + 1, database.getDoAsTokens("admin").size());
+    assertEquals(10, database.getExpiredTokenIds(10).size());
+
+    // the metadata of the legacy tokens can still be changed
+    final Map<String, String> metadata = new HashMap<>();
+    metadata.put(TokenMetadata.USER_NAME, "user5");
+    assertTrue(database.upsertMetadata("token-3", metadata));
+    assertEquals("user5", database.getTokenMetadata("token-3").getUserName());
+    assertEquals(LEGACY_TOKEN_COUNT / USER_COUNT - 1, database.getTokens("user3").size());
+  }
+
+  /**
+   * Creates the tables as they were created before schema versions were recorded, and populates them.
+   */
+  private static void createLegacySchema(DataSource dataSource) throws SQLException {
+    final TokenStateDatabaseSchema schema = new TokenStateDatabaseSchema(dataSource);
+    try (Connection connection = dataSource.getConnection()) {
+      try (Statement statement = connection.createStatement()) {
+        for (String sql : schema.readScript("upgrade-1.sql")) {
+          statement.execute(sql);
+        }
+      }
+      try (PreparedStatement addToken = connection.prepareStatement("INSERT INTO KNOX_TOKENS(token_id, issue_time, expiration, max_lifetime) VALUES(?, ?, ?, ?)");
+           PreparedStatement addMetadata = connection.prepareStatement("INSERT INTO KNOX_TOKEN_METADATA(token_id, md_name, md_value) VALUES(?, ?, ?)")) {
+        for (int i = 0; i < LEGACY_TOKEN_COUNT; i++) {
+          final String tokenId = "token-" + i;
+          addToken.setString(1, tokenId);
+          addToken.setLong(2, i);
+          addToken.setLong(3, i);
+          addToken.setLong(4, i + 1000L);
+          addToken.addBatch();
+
+          addMetadata(addMetadata, tokenId, TokenMetadata.USER_NAME, "user" + (i % USER_COUNT));
+          addMetadata(addMetadata, tokenId, TokenMetadata.ENABLED, String.valueOf(i % 2 == 0));
+          addMetadata(addMetadata, tokenId, TokenMetadata.COMMENT, "comment " + i);
+          if (i % 3 == 0) {
+            addMetadata(addMetadata, tokenId, TokenMetadata.CREATED_BY, "admin");
+          }
+        }
+        addToken.executeBatch();
+        addMetadata.executeBatch();
+      }
+    }
+    assertFalse(schema.isTableExists(TokenStateDatabaseSchema.SCHEMA_VERSION_TABLE_NAME));
+  }
+
+  private static void addMetadata(PreparedStatement statement, String tokenId, String name, String value) throws SQLException {
+    statement.setString(1, tokenId);
+    statement.setString(2, name);
+    statement.setString(3, value);
+    statement.addBatch();
+  }
+
+  private static String getPromotedColumns(DataSource dataSource, String tokenId) throws SQLException {
+    try (Connection connection = dataSource.getConnection();
+         PreparedStatement statement = connection.prepareStatement("SELECT user_name, created_by, enabled FROM KNOX_TOKENS WHERE token_id = ?")) {
+      statement.setString(1, tokenId);
+      try (ResultSet rs = statement.executeQuery()) {
+        assertTrue(rs.next());
+        return rs.getString(1) + "|" + rs.getString(2) + "|" + rs.getBoolean(3);
+      }
+    }
+  }
+
+  private static long countRows(DataSource dataSource, String tableName) throws SQLException {
+    try (Connection connection = dataSource.getConnection();
+         Statement statement = connection.createStatement();
+         ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM " + tableName)) {
+      assertTrue(rs.next());
+      return rs.getLong(1);
+    }
+  }
+
+  private static String getDerbyPlan(DataSource dataSource, String sql) throws SQLException {
+    try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+      statement.execute("CALL SYSCS_UTIL.SYSCS_SET_RUNTIMESTATISTICS(1)");
+      // the statistics are only available once the result set has been consumed
+      int rows = 0;
+      try (ResultSet rs = statement.executeQuery(sql)) {
+        while (rs.next()) {
+          rows++;
+        }
+      }
+      assertTrue(rows > 0);
+      try (ResultSet rs = statement.executeQuery("VALUES SYSCS_UTIL.SYSCS_GET_RUNTIMESTATISTICS()")) {
+        assertTrue(rs.next());
+        return rs.getString(1).toUpperCase(Locale.ROOT);
+      }
+    }
+  }
+
+  private static String getHsqldbPlan(DataSource dataSource, String sql) throws SQLException {
+    final StringBuilder plan = new StringBuilder();
+    try (Connection connection = dataSource.getConnection();
+         Statement statement = connection.createStatement();
+         ResultSet rs = statement.executeQuery("EXPLAIN PLAN FOR " + sql)) {
+      while (rs.next()) {
+        plan.append(rs.getString(1)).append('\n');
+      }
+    }
+    return plan.toString().toUpperCase(Locale.ROOT);
+  }
+
+  private static DataSource createDerbyDataSource(String name) {
+    final EmbeddedDataSource dataSource = new EmbeddedDataSource();
+    dataSource.setDatabaseName("memory:" + name);
+    dataSource.setCreateDatabase("create");
+    return dataSource;
+  }
+
+  private static DataSource createHsqldbDataSource(String name) {
+    final JDBCDataSource dataSource = new JDBCDataSource();
+    dataSource.setUrl("jdbc:hsqldb:mem:" + name);
+    dataSource.setUser("SA");
+    dataSource.setPassword("");
+    return dataSource;
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.services.token.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSVerifier;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TokenVerifierResolverTest {
+  private final AtomicLong time = new AtomicLong();
+  private TokenVerifierResolver resolver;
+  private RSAPublicKey first;
+  private RSAPublicKey second;
+
+  @Before
+  public void setUp() throws Exception {
+    resolver = new TokenVerifierResolver(60, 30, time::get);
+    final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(2048);
+    first = (RSAPublicKey) generator.generateKeyPair().getPublic();
+    second = (RSAPublicKey) generator.generateKeyPair().getPublic();
+  }
+
+  @Test
+  public void testVerifiersAreCachedUntilTheyExpire() {
+    resolver.setSigningKey("first", first);
+    final JWSVerifier verifier = resolver.getSigningKeyVerifiers("first", JWSAlgorithm.RS256).get(0);
+    assertSame(verifier, resolver.getSigningKeyVerifiers("first", JWSAlgorithm.RS256).get(0));
+    assertNotSame(verifier, resolver.getSigningKeyVerifiers("first", JWSAlgorithm.RS512).get(0));
+
+    time.addAndGet(TimeUnit.SECONDS.toNanos(61));
+    assertNotSame(verifier, resolver.getSigningKeyVerifiers("first", JWSAlgorithm.RS256).get(0));
+  }
+
+  @Test
+  public void testInvalidate() throws Exception {
+    final JWSVerifier verifier = resolver.getVerifier(JWSAlgorithm.RS256, first);
+    final JWSVerifier hmacVerifier = resolver.getHmacVerifier(JWSAlgorithm.HS256, "a-secret-of-at-least-256-bits-for-hs256".getBytes(StandardCharsets.UTF_8));
+    assertSame(verifier, resolver.getVerifier(JWSAlgorithm.RS256, first));
+    assertNotSame(verifier, resolver.getVerifier(JWSAlgorithm.RS256, second));
+
+    resolver.invalidate();
+    assertNotSame(verifier, resolver.getVerifier(JWSAlgorithm.RS256, first));
+    assertNotSame(hmacVerifier, resolver.getHmacVerifier(JWSAlgorithm.HS256, "a-secret-of-at-least-256-bits-for-hs256".getBytes(StandardCharsets.UTF_8)));
+  }
+
+  @Test
+  public void testPreviousSigningKeyIsActiveDuringOverlap() {
+    resolver.setSigningKey("first", first);
+    time.addAndGet(TimeUnit.SECONDS.toNanos(10));
+    resolver.setSigningKey("second", second);
+
+    assertEquals(1, resolver.getSigningKeyVerifiers("first", JWSAlgorithm.RS256).size());
+    assertEquals(1, resolver.getSigningKeyVerifiers("second", JWSAlgorithm.RS256).size());
+    assertEquals(2, resolver.getSigningKeyVerifiers(null, JWSAlgorithm.RS256).size());
+
+    // setting the same key again does not extend the overlap of the previous one
+    time.addAndGet(TimeUnit.SECONDS.toNanos(20));
+    resolver.setSigningKey("second", second);
+    time.addAndGet(TimeUnit.SECONDS.toNanos(11));
+    assertEquals(Collections.emptyList(), resolver.getSigningKeyVerifiers("first", JWSAlgorithm.RS256));
+    assertEquals(1, resolver.getSigningKeyVerifiers(null, JWSAlgorithm.RS256).size());
+  }
+
+  @Test
+  public void testUnknownKid() {
+    resolver.setSigningKey("first", first);
+    assertTrue(resolver.getSigningKeyVerifiers("unknown", JWSAlgorithm.RS256).isEmpty());
+  }
+}
@@ -25,6 +25,7 @@ import org.apache.curator.test.TestingCluster;
 import org.apache.knox.gateway.config.GatewayConfig;
 import org.apache.knox.gateway.service.config.remote.zk.ZooKeeperClientService;
 import org.apache.knox.gateway.service.config.remote.zk.ZooKeeperClientServiceProvider;
+import org.apache.knox.gateway.services.config.client.RemoteConfigurationRegistryClient;
 import org.apache.knox.gateway.services.config.client.RemoteConfigurationRegistryClientService;
 import org.apache.knox.gateway.services.security.AliasService;
 import org.apache.knox.test.TestUtils;
@@ -37,12 +38,18 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
@@ -266,6 +273,227 @@ public class ZooKeeperConfigurationMonitorTest {
         }
     }
 
+    /**
+     * Restarting the monitor must not fetch any entries which have not changed since they were last downloaded.
+     */
+    @Test
+    public void testRestartWithoutRemoteChanges() throws Exception {
+        final File dataDir = TestUtils.createTempDir(testTmp + "/restart-data");
+        final List<String> fetched = new CopyOnWriteArrayList<>();
+        final String prefix = "restart-";
+
+        for (int i = 0; i < 3; i++) {
+            client.create().forPath(getProviderPath(prefix + i + ".xml"), TEST_PROVIDERS_CONFIG_1.getBytes(StandardCharsets.UTF_8));
+        }
+        for (int i = 0; i < 5; i++) {
+            client.create().forPath(getDescriptorPath(prefix + i + ".json"), TEST_DESCRIPTOR_1.getBytes(StandardCharsets.UTF_8));
+        }
+
+        try {
+            runMonitor(dataDir, fetched, () -> {});
+            assertEquals(8, countFetches(fetched, prefix));
+            for (int i = 0; i < 5; i++) {
+                assertEquals(TEST_DESCRIPTOR_1,
+                             FileUtils.readFileToString(new File(descriptorsDir, prefix + i + ".json"), StandardCharsets.UTF_8));
+            }
+
+            fetched.clear();
+            runMonitor(dataDir, fetched, () -> {});
+            assertEquals("Unchanged entries should not be fetched again.", 0, countFetches(fetched, prefix));
+
+            // A local file which no longer has the downloaded content is restored
+            final File modified = new File(providersDir, prefix + "1.xml");
+            FileUtils.writeStringToFile(modified, "modified", StandardCharsets.UTF_8);
+            fetched.clear();
+            runMonitor(dataDir, fetched, () -> {});
+            assertEquals(1, countFetches(fetched, prefix));
+            assertEquals(TEST_PROVIDERS_CONFIG_1, FileUtils.readFileToString(modified, StandardCharsets.UTF_8));
+        } finally {
+            deleteEntries(prefix, 3, 5);
+        }
+    }
+
+    /**
+     * A burst of remote updates and deletions must be applied to the local files, fetching every updated entry once.
+     */
+    @Test
+    public void testBulkRemoteChanges() throws Exception {
+        final File dataDir = TestUtils.createTempDir(testTmp + "/bulk-data");
+        final List<String> fetched = new CopyOnWriteArrayList<>();
+        final String prefix = "bulk-";
+        final int count = 10;
+
+        for (int i = 0; i < count; i++) {
+            client.create().forPath(getDescriptorPath(prefix + i + ".json"), TEST_DESCRIPTOR_1.getBytes(StandardCharsets.UTF_8));
+        }
+
+        try {
+            runMonitor(dataDir, fetched, () -> {
+                // Allow the events for the existing entries to be processed before changing them
+                Thread.sleep(DefaultRemoteConfigurationMonitor.COALESCE_DELAY_MILLIS * 5);
+                assertEquals(count, countFetches(fetched, prefix));
+                fetched.clear();
+
+                for (int i = 0; i < count; i++) {
+                    client.setData().forPath(getDescriptorPath(prefix + i + ".json"), TEST_DESCRIPTOR_2.getBytes(StandardCharsets.UTF_8));
+                }
+                for (int i = 0; i < count; i++) {
+                    final File descriptor = new File(descriptorsDir, prefix + i + ".json");
+                    assertTrue(TestUtils.waitUntil(
+                        () -> TEST_DESCRIPTOR_2.equals(FileUtils.readFileToString(descriptor, StandardCharsets.UTF_8)),
+                        true, 5000));
+                }
+                assertEquals(count, countFetches(fetched, prefix));
+
+                for (int i = 0; i < count / 2; i++) {
+                    client.delete().forPath(getDescriptorPath(prefix + i + ".json"));
+                }
+                for (int i = 0; i < count / 2; i++) {
+                    assertFalse(TestUtils.waitUntil(new File(descriptorsDir, prefix + i + ".json")::exists, false, 5000));
+                }
+                for (int i = count / 2; i < count; i++) {
+                    assertTrue(new File(descriptorsDir, prefix + i + ".json").exists());
+                }
+            });
+
+            final Properties manifest = loadManifest(dataDir);
+            assertFalse(manifest.containsKey(getDescriptorPath(prefix + "0.json")));
+            assertTrue(manifest.containsKey(getDescriptorPath(prefix + (count - 1) + ".json")));
+        } finally {
+            deleteEntries(prefix, 0, count);
+        }
+    }
+
+    /**
+     * Entries which were removed from the registry while the monitor was not running must be deleted locally when it
+     * starts, without affecting local files which were not downloaded from the registry.
+     */
+    @Test
+    public void testRemoteDeletionsWhileStopped() throws Exception {
+        final File dataDir = TestUtils.createTempDir(testTmp + "/deletion-data");
+        final List<String> fetched = new CopyOnWriteArrayList<>();
+        final String prefix = "deletion-";
+
+        for (int i = 0; i < 2; i++) {
+            client.create().forPath(getProviderPath(prefix + i + ".xml"), TEST_PROVIDERS_CONFIG_2.getBytes(StandardCharsets.UTF_8));
+            client.create().forPath(getDescriptorPath(prefix + i + ".json"), TEST_DESCRIPTOR_2.getBytes(StandardCharsets.UTF_8));
+        }
+        final File localOnly = new File(descriptorsDir, prefix + "local.json");
+        FileUtils.writeStringToFile(localOnly, TEST_DESCRIPTOR_1, StandardCharsets.UTF_8);
+
+        try {
+            runMonitor(dataDir, fetched, () -> {});
+            assertTrue(new File(providersDir, prefix + "0.xml").exists());
+            assertTrue(new File(descriptorsDir, prefix + "0.json").exists());
+
+            client.delete().forPath(getProviderPath(prefix + "0.xml"));
+            client.delete().forPath(getDescriptorPath(prefix + "0.json"));
+
+            fetched.clear();
+            runMonitor(dataDir, fetched, () -> {});
+            assertEquals(0, countFetches(fetched, prefix));
+            assertFalse(new File(providersDir, prefix + "0.xml").exists());
+            assertFalse(new File(descriptorsDir, prefix + "0.json").exists());
+            assertTrue(new File(providersDir, prefix + "1.xml").exists());
+            assertTrue(new File(descriptorsDir, prefix + "1.json").exists());
+            assertTrue("Local files which were not downloaded must be kept.", localOnly.exists());
+            assertFalse(loadManifest(dataDir).containsKey(getProviderPath(prefix + "0.xml")));
+        } finally {
+            deleteEntries(prefix, 2, 2);
+            FileUtils.deleteQuietly(localOnly);
+        }
+    }
+
+    private interface MonitorAction {
+        void run() throws Exception;
+    }
+
+    /**
+     * Start a monitor with a new registry client which records the paths of the fetched entries, perform the action,
+     * and stop the monitor again.
+     */
+    private void runMonitor(File dataDir, List<String> fetched, MonitorAction action) throws Exception {
+        final String configMonitorName = "remoteConfigMonitorClient";
+
+        final GatewayConfig config = EasyMock.createNiceMock(GatewayConfig.class);
+        EasyMock.expect(config.getGatewayProvidersConfigDir()).andReturn(providersDir.getAbsolutePath()).anyTimes();
+        EasyMock.expect(config.getGatewayDescriptorsDir()).andReturn(descriptorsDir.getAbsolutePath()).anyTimes();
+        EasyMock.expect(config.getGatewayDataDir()).andReturn(dataDir.getAbsolutePath()).anyTimes();
+        EasyMock.expect(config.getRemoteRegistryConfigurationNames())
+                .andReturn(Collections.singletonList(configMonitorName))
+                .anyTimes();
+        EasyMock.expect(config.getRemoteRegistryConfiguration(configMonitorName))
+                .andReturn(GatewayConfig.REMOTE_CONFIG_REGISTRY_TYPE + "=" + ZooKeeperClientService.TYPE + ";" +
+                           GatewayConfig.REMOTE_CONFIG_REGISTRY_ADDRESS + "=" + zkCluster.getConnectString())
+                .anyTimes();
+        EasyMock.expect(config.getRemoteConfigurationMonitorClientName()).andReturn(configMonitorName).anyTimes();
+        EasyMock.replay(config);
+
+        final AliasService aliasService = EasyMock.createNiceMock(AliasService.class);
+        EasyMock.replay(aliasService);
+
+        final RemoteConfigurationRegistryClientService clientService = (new ZooKeeperClientServiceProvider()).newInstance();
+        clientService.setAliasService(aliasService);
+        clientService.init(config, Collections.emptyMap());
+        clientService.start();
+
+        final RemoteConfigurationRegistryClient delegate = clientService.get(configMonitorName);
+        final RemoteConfigurationRegistryClient countingClient = (RemoteConfigurationRegistryClient)
+            Proxy.newProxyInstance(RemoteConfigurationRegistryClient.class.getClassLoader(),
+                                   new Class<?>[]{RemoteConfigurationRegistryClient.class},
+                                   (proxy, method, args) -> {
+                                       if (method.getName().startsWith("getEntryData")) {
+                                           fetched.add((String) args[0]);
+                                       }
+                                       try {
+                                           return method.invoke(delegate, args);
+                                       } catch (InvocationTargetException e) {
+                                           throw e.getCause();
+                                       }
+                                   });
+        final RemoteConfigurationRegistryClientService countingClientService =
+            EasyMock.createNiceMock(RemoteConfigurationRegistryClientService.class);
+        EasyMock.expect(countingClientService.get(configMonitorName)).andReturn(countingClient).anyTimes();
+        EasyMock.replay(countingClientService);
+
+        final DefaultRemoteConfigurationMonitor cm = new DefaultRemoteConfigurationMonitor(config, countingClientService);
+        try {
+            cm.start();
+            action.run();
+        } finally {
+            cm.stop();
+            clientService.stop();
+        }
+    }
+
+    private static long countFetches(List<String> fetched, String prefix) {
+        return fetched.stream().filter(path -> path.substring(path.lastIndexOf('/') + 1).startsWith(prefix)).count();
+    }
+
+    private static Properties loadManifest(File dataDir) throws Exception {
+        final Properties manifest = new Properties();
+        try (InputStream in = Files.newInputStream(
+                 new File(dataDir, DefaultRemoteConfigurationMonitor.MANIFEST_FILE_NAME).toPath())) {
+            manifest.load(in);
+        }
+        return manifest;
+    }
+
+    private static void deleteEntries(String prefix, int providerCount, int descriptorCount) throws Exception {
+        for (int i = 0; i < providerCount; i++) {
+            if (client.checkExists().forPath(getProviderPath(prefix + i + ".xml")) != null) {
+                client.delete().forPath(getProviderPath(prefix + i + ".xml"));
+            }
+            FileUtils.deleteQuietly(new File(providersDir, prefix + i + ".xml"));
+        }
+        for (int i = 0; i < descriptorCount; i++) {
+            if (client.checkExists().forPath(getDescriptorPath(prefix + i + ".json")) != null) {
+                client.delete().forPath(getDescriptorPath(prefix + i + ".json"));
+            }
+            FileUtils.deleteQuietly(new File(descriptorsDir, prefix + i + ".json"));
+        }
+    }
+
     private static String getDescriptorPath(String descriptorName) {
         return PATH_KNOX_DESCRIPTORS + "/" + descriptorName;
     }
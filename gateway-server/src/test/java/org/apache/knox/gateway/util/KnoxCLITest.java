@@ -37,6 +37,8 @@ import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.security.cert.Certificate;
+import java.security.interfaces.ECPublicKey;
 import java.util.UUID;
 
 import org.apache.commons.io.FileUtils;
@@ -48,6 +50,7 @@ import org.apache.knox.gateway.services.ServiceType;
 import org.apache.knox.gateway.services.config.client.RemoteConfigurationRegistryClient;
 import org.apache.knox.gateway.services.config.client.RemoteConfigurationRegistryClientService;
 import org.apache.knox.gateway.services.security.AliasService;
+import org.apache.knox.gateway.services.security.KeystoreService;
 import org.apache.knox.gateway.services.security.MasterService;
 import org.apache.knox.gateway.services.security.token.impl.TokenMAC;
 import org.apache.knox.test.TestUtils;
@@ -699,6 +702,32 @@ public class KnoxCLITest {
         "created."));
   }
 
+  @Test
+  public void testCreateSelfSignedECCert() throws Exception {
+    GatewayConfigImpl config = new GatewayConfigImpl();
+    FileUtils.deleteQuietly( new File( config.getGatewaySecurityDir() ) );
+    createTestMaster();
+    outContent.reset();
+    KnoxCLI cli = new KnoxCLI();
+    cli.setConf( config );
+    String[] gwCreateArgs = {"create-cert", "--hostname", "hostname1", "--keyalg", "ES384", "--master", "master"};
+    int rc;
+    rc = cli.run(gwCreateArgs);
+    assertEquals(0, rc);
+    assertTrue(outContent.toString(StandardCharsets.UTF_8.name()), outContent.toString(StandardCharsets.UTF_8.name()).contains("gateway-identity has been successfully " +
+        "created."));
+
+    KeystoreService ks = cli.getGatewayServices().getService(ServiceType.KEYSTORE_SERVICE);
+    Certificate cert = ks.getKeystoreForGateway().getCertificate("gateway-identity");
+    assertTrue(cert.getPublicKey() instanceof ECPublicKey);
+    assertEquals(384, ((ECPublicKey) cert.getPublicKey()).getParams().getCurve().getField().getFieldSize());
+
+    outContent.reset();
+    String[] unsupportedArgs = {"create-cert", "--hostname", "hostname1", "--keyalg", "EdDSA", "--master", "master"};
+    rc = cli.run(unsupportedArgs);
+    assertEquals(-1, rc);
+  }
+
   @Test
   public void testExportCert() throws Exception {
     GatewayConfigImpl config = new GatewayConfigImpl();
@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.knox.test.category.ManualTests;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Measures how long loading the bundled service definitions takes with and without the snapshot.
+ * Run with <code>mvn test -Dtest=ServiceDefinitionsLoaderBenchmarkTest -DexcludedGroups=none</code>.
+ */
+@Category(ManualTests.class)
+public class ServiceDefinitionsLoaderBenchmarkTest {
+  private static final File BUNDLED_SERVICES_DIR = new File("../gateway-service-definitions/src/main/resources/services");
+  private static final int ITERATIONS = 20;
+
+  @Rule
+  public final TemporaryFolder testFolder = new TemporaryFolder();
+
+  @Test
+  public void benchmark() throws Exception {
+    assumeTrue(BUNDLED_SERVICES_DIR.isDirectory());
+    final File snapshotFile = new File(testFolder.getRoot(), ServiceDefinitionsSnapshot.SNAPSHOT_FILE_NAME);
+
+    long start = System.nanoTime();
+    final int count = ServiceDefinitionsLoader.loadServiceDefinitions(BUNDLED_SERVICES_DIR, snapshotFile).size();
+    report("first load, writes the snapshot", System.nanoTime() - start);
+
+    start = System.nanoTime();
+    assertEquals(count, ServiceDefinitionsLoader.loadServiceDefinitions(BUNDLED_SERVICES_DIR, snapshotFile).size());
+    report("first load from the snapshot", System.nanoTime() - start);
+
+    start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      assertEquals(count, ServiceDefinitionsLoader.loadServiceDefinitions(BUNDLED_SERVICES_DIR).size());
+    }
+    report("without snapshot (average)", (System.nanoTime() - start) / ITERATIONS);
+
+    start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      assertEquals(count, ServiceDefinitionsLoader.loadServiceDefinitions(BUNDLED_SERVICES_DIR, snapshotFile).size());
+    }
+    report("with snapshot (average)", (System.nanoTime() - start) / ITERATIONS);
+  }
+
+  private static void report(String label, long nanos) {
+    System.out.println(String.format(Locale.ROOT, "%-35s %6d ms", label, TimeUnit.NANOSECONDS.toMillis(nanos)));
+  }
+}
@@ -17,20 +17,30 @@
  */
 package org.apache.knox.gateway.util;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.knox.gateway.deploy.ServiceDeploymentContributor;
 import org.apache.knox.gateway.service.definition.ServiceDefinition;
 import org.apache.knox.gateway.service.definition.ServiceDefinitionComparator;
+import org.apache.knox.gateway.service.definition.ServiceDefinitionPair;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 
 public class ServiceDefinitionsLoaderTest {
 
+  @Rule
+  public final TemporaryFolder testFolder = new TemporaryFolder();
+
   @Test
   public void testServiceDefinitionLoading() {
     final List<String> barVersions = Arrays.asList("1.0.0", "2.0.0");
@@ -57,4 +67,25 @@ public class ServiceDefinitionsLoaderTest {
     final Set<ServiceDefinition> serviceDefinitions = ServiceDefinitionsLoader.getServiceDefinitions(new File(url.getFile()));
     Assert.assertTrue(CollectionUtils.isSorted(serviceDefinitions, new ServiceDefinitionComparator()));
   }
+
+  @Test
+  public void shouldLoadServiceDefinitionsInParallel() throws Exception {
+    final File fooDir = new File(ClassLoader.getSystemResource("services/foo/1.0.0").getFile());
+    final String serviceXml = new String(Files.readAllBytes(new File(fooDir, "service.xml").toPath()), StandardCharsets.UTF_8);
+    final File servicesDir = testFolder.newFolder("services");
+    final int count = 64;
+    for (int i = 0; i < count; i++) {
+      final Path serviceDir = Files.createDirectories(servicesDir.toPath().resolve("foo" + i).resolve("1.0.0"));
+      Files.write(serviceDir.resolve("service.xml"), serviceXml.replace("name=\"foo\"", "name=\"foo" + i + "\"").getBytes(StandardCharsets.UTF_8));
+      FileUtils.copyFileToDirectory(new File(fooDir, "rewrite.xml"), serviceDir.toFile());
+    }
+
+    final Set<ServiceDefinitionPair> serviceDefinitions = ServiceDefinitionsLoader.loadServiceDefinitions(servicesDir);
+    Assert.assertEquals(count, serviceDefinitions.size());
+    for (ServiceDefinitionPair serviceDefinition : serviceDefinitions) {
+      Assert.assertEquals(2, serviceDefinition.getService().getRoutes().size());
+      Assert.assertNotNull(serviceDefinition.getRewriteRules());
+      Assert.assertNotNull(serviceDefinition.getRewriteRules().getRule("FOO/foo/inbound"));
+    }
+  }
 }
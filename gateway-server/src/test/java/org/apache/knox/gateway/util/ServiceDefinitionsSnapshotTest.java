@@ -0,0 +1,244 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.knox.gateway.service.definition.CustomDispatch;
+import org.apache.knox.gateway.service.definition.DispatchParam;
+import org.apache.knox.gateway.service.definition.Metadata;
+import org.apache.knox.gateway.service.definition.Policy;
+import org.apache.knox.gateway.service.definition.Rewrite;
+import org.apache.knox.gateway.service.definition.Route;
+import org.apache.knox.gateway.service.definition.Sample;
+import org.apache.knox.gateway.service.definition.ServiceDefinition;
+import org.apache.knox.gateway.service.definition.ServiceDefinitionPair;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ServiceDefinitionsSnapshotTest {
+  private static final String SNAPSHOT_MARKER = "http://from-the-snapshot";
+
+  @Rule
+  public final TemporaryFolder testFolder = new TemporaryFolder();
+
+  private File servicesDir;
+  private File snapshotFile;
+
+  @Before
+  public void setUp() throws Exception {
+    servicesDir = testFolder.newFolder("services");
+    FileUtils.copyDirectory(new File(ClassLoader.getSystemResource("services").getFile()), servicesDir);
+    snapshotFile = new File(testFolder.newFolder("data"), ServiceDefinitionsSnapshot.SNAPSHOT_FILE_NAME);
+  }
+
+  @Test
+  public void testServiceDefinitionRoundTrip() throws Exception {
+    final ServiceDefinition serviceDefinition = new ServiceDefinition();
+    serviceDefinition.setName("test");
+    serviceDefinition.setRole("TEST");
+    serviceDefinition.setVersion("1.0.0");
+    final Metadata metadata = new Metadata();
+    metadata.setType("API");
+    metadata.setContext("/test");
+    metadata.setShortDesc("Test é");
+    final Sample sample = new Sample();
+    sample.setMethod("GET");
+    sample.setPath("/test/v1");
+    metadata.setSamples(Collections.singletonList(sample));
+    serviceDefinition.setMetadata(metadata);
+    final Route route = new Route();
+    route.setPath("/test/**");
+    final Rewrite rewrite = new Rewrite();
+    rewrite.setApply("TEST/test/inbound");
+    rewrite.setTo("request.url");
+    route.setRewrites(Collections.singletonList(rewrite));
+    final Policy policy = new Policy();
+    policy.setName("rewrite");
+    policy.setRole("rewrite");
+    policy.addParam(new DispatchParam("name", "value"));
+    serviceDefinition.setPolicies(Collections.singletonList(policy));
+    serviceDefinition.setRoutes(Collections.singletonList(route));
+    final CustomDispatch dispatch = new CustomDispatch();
+    dispatch.setClassName("org.apache.knox.gateway.dispatch.DefaultDispatch");
+    dispatch.setHaClassName("org.apache.knox.gateway.ha.dispatch.DefaultHaDispatch");
+    dispatch.setUseTwoWaySsl(true);
+    dispatch.addParam(new DispatchParam("replayBufferSize", "8"));
+    serviceDefinition.setDispatch(dispatch);
+    serviceDefinition.setTestURLs(Arrays.asList("/test/v1", "/test/v2"));
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    ServiceDefinitionsSnapshot.writeServiceDefinition(out, serviceDefinition);
+    out.flush();
+    final ServiceDefinition read = ServiceDefinitionsSnapshot.readServiceDefinition(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+    assertEquals("test", read.getName());
+    assertEquals("TEST", read.getRole());
+    assertEquals("1.0.0", read.getVersion());
+    assertEquals("API", read.getMetadata().getType());
+    assertEquals("/test", read.getMetadata().getContext());
+    assertEquals("Test é", read.getMetadata().getShortDesc());
+    assertNull(read.getMetadata().getDescription());
+    assertEquals("GET", read.getMetadata().getSamples().get(0).getMethod());
+    assertEquals("/test/v1", read.getMetadata().getSamples().get(0).getPath());
+    assertEquals("/test/**", read.getRoutes().get(0).getPath());
+    assertEquals("TEST/test/inbound", read.getRoutes().get(0).getRewrites().get(0).getApply());
+    assertNull(read.getRoutes().get(0).getPolicies());
+    assertNull(read.getRoutes().get(0).getDispatch());
+    assertEquals(Collections.singletonMap("name", "value"), read.getPolicies().get(0).getParams());
+    assertEquals("org.apache.knox.gateway.ha.dispatch.DefaultHaDispatch", read.getDispatch().getHaClassName());
+    assertTrue(read.getDispatch().getUseTwoWaySsl());
+    assertEquals(Collections.singletonMap("replayBufferSize", "8"), read.getDispatch().getParams());
+    assertEquals(Arrays.asList("/test/v1", "/test/v2"), read.getTestURLs());
+  }
+
+  @Test
+  public void testSnapshotIsWrittenAndReused() throws Exception {
+    final Set<ServiceDefinitionPair> loaded = ServiceDefinitionsLoader.loadServiceDefinitions(servicesDir, snapshotFile);
+    assertEquals(2, loaded.size());
+    assertTrue(snapshotFile.isFile());
+    assertEquals(2, ServiceDefinitionsSnapshot.read(snapshotFile).size());
+
+    markSnapshot();
+    final Set<ServiceDefinitionPair> reloaded = ServiceDefinitionsLoader.loadServiceDefinitions(servicesDir, snapshotFile);
+    assertEquals(2, reloaded.size());
+    for (ServiceDefinitionPair serviceDefinition : reloaded) {
+      assertEquals(Collections.singletonList(SNAPSHOT_MARKER), serviceDefinition.getService().getTestURLs());
+    }
+    // rewrite rules are not part of the snapshot
+    assertNotNull(getServiceDefinition(reloaded, "foo").getRewriteRules());
+  }
+
+  @Test
+  public void testCorruptedSnapshotIsIgnored() throws Exception {
+    markSnapshot();
+    final byte[] bytes = Files.readAllBytes(snapshotFile.toPath());
+    bytes[bytes.length / 2] ^= 0x01;
+    Files.write(snapshotFile.toPath(), bytes);
+    assertTrue(ServiceDefinitionsSnapshot.read(snapshotFile).isEmpty());
+
+    assertLoadedFromFiles(ServiceDefinitionsLoader.loadServiceDefinitions(servicesDir, snapshotFile));
+    // a valid snapshot replaces the corrupted one
+    assertEquals(2, ServiceDefinitionsSnapshot.read(snapshotFile).size());
+  }
+
+  @Test
+  public void testTruncatedSnapshotIsIgnored() throws Exception {
+    markSnapshot();
+    final byte[] bytes = Files.readAllBytes(snapshotFile.toPath());
+    Files.write(snapshotFile.toPath(), Arrays.copyOf(bytes, bytes.length - 10));
+    assertLoadedFromFiles(ServiceDefinitionsLoader.loadServiceDefinitions(servicesDir, snapshotFile));
+
+    Files.write(snapshotFile.toPath(), "not a snapshot".getBytes(StandardCharsets.UTF_8));
+    assertLoadedFromFiles(ServiceDefinitionsLoader.loadServiceDefinitions(servicesDir, snapshotFile));
+    assertEquals(2, ServiceDefinitionsSnapshot.read(snapshotFile).size());
+  }
+
+  @Test
+  public void testModifiedServiceDefinitionIsParsedAgain() throws Exception {
+    markSnapshot();
+    final File fooServiceFile = new File(servicesDir, "foo/1.0.0/service.xml");
+    assertTrue(fooServiceFile.setLastModified(fooServiceFile.lastModified() - 10_000L));
+
+    final Set<ServiceDefinitionPair> loaded = ServiceDefinitionsLoader.loadServiceDefinitions(servicesDir, snapshotFile);
+    assertNull(getServiceDefinition(loaded, "foo").getService().getTestURLs());
+    assertEquals(Collections.singletonList(SNAPSHOT_MARKER), getServiceDefinition(loaded, "bar").getService().getTestURLs());
+  }
+
+  @Test
+  public void testChangedContentWithSameTimestampAndSizeIsParsedAgain() throws Exception {
+    markSnapshot();
+    final File fooServiceFile = new File(servicesDir, "foo/1.0.0/service.xml");
+    final long lastModified = fooServiceFile.lastModified();
+    final String content = new String(Files.readAllBytes(fooServiceFile.toPath()), StandardCharsets.UTF_8);
+    Files.write(fooServiceFile.toPath(), content.replace("role=\"FOO\"", "role=\"BAZ\"").getBytes(StandardCharsets.UTF_8));
+    assertTrue(fooServiceFile.setLastModified(lastModified));
+
+    final Set<ServiceDefinitionPair> loaded = ServiceDefinitionsLoader.loadServiceDefinitions(servicesDir, snapshotFile);
+    assertEquals("BAZ", getServiceDefinition(loaded, "foo").getService().getRole());
+    assertNull(getServiceDefinition(loaded, "foo").getService().getTestURLs());
+  }
+
+  @Test
+  public void testRemovedServiceDefinitionIsDroppedFromTheSnapshot() throws Exception {
+    markSnapshot();
+    FileUtils.deleteDirectory(new File(servicesDir, "bar"));
+
+    final Set<ServiceDefinitionPair> loaded = ServiceDefinitionsLoader.loadServiceDefinitions(servicesDir, snapshotFile);
+    assertEquals(1, loaded.size());
+    final Map<String, ServiceDefinitionsSnapshot.Entry> entries = ServiceDefinitionsSnapshot.read(snapshotFile);
+    assertEquals(1, entries.size());
+    assertEquals("foo", entries.values().iterator().next().serviceDefinition.getName());
+  }
+
+  @Test
+  public void testNoSnapshotFile() throws Exception {
+    assertTrue(ServiceDefinitionsSnapshot.read(null).isEmpty());
+    assertTrue(ServiceDefinitionsSnapshot.read(snapshotFile).isEmpty());
+    assertLoadedFromFiles(ServiceDefinitionsLoader.loadServiceDefinitions(servicesDir, null));
+    assertFalse(snapshotFile.exists());
+  }
+
+  /*
+   * Replaces the test URLs in the snapshot, so that definitions restored from it can be told apart from parsed ones.
+   */
+  private void markSnapshot() throws Exception {
+    ServiceDefinitionsLoader.loadServiceDefinitions(servicesDir, snapshotFile);
+    final Map<String, ServiceDefinitionsSnapshot.Entry> entries = ServiceDefinitionsSnapshot.read(snapshotFile);
+    assertEquals(2, entries.size());
+    for (ServiceDefinitionsSnapshot.Entry entry : entries.values()) {
+      entry.serviceDefinition.setTestURLs(Collections.singletonList(SNAPSHOT_MARKER));
+      assertArrayEquals(entry.fingerprint.hash,
+          ServiceDefinitionsSnapshot.sha256(Files.readAllBytes(new File(servicesDir, entry.fingerprint.path).toPath())));
+    }
+    ServiceDefinitionsSnapshot.write(snapshotFile, entries.values());
+  }
+
+  private static void assertLoadedFromFiles(Set<ServiceDefinitionPair> serviceDefinitions) {
+    assertEquals(2, serviceDefinitions.size());
+    for (ServiceDefinitionPair serviceDefinition : serviceDefinitions) {
+      assertNull(serviceDefinition.getService().getTestURLs());
+    }
+  }
+
+  private static ServiceDefinitionPair getServiceDefinition(Set<ServiceDefinitionPair> serviceDefinitions, String name) {
+    return serviceDefinitions.stream().filter(serviceDefinition -> name.equals(serviceDefinition.getService().getName())).findFirst()
+        .orElseThrow(() -> new AssertionError("No service definition named " + name));
+  }
+}
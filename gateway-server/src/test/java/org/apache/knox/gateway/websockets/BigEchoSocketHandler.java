@@ -17,7 +17,7 @@
  */
 package org.apache.knox.gateway.websockets;
 
-import org.eclipse.jetty.websocket.api.WebSocketAdapter;
+import org.eclipse.jetty.websocket.api.WebSocketConnectionListener;
 import org.eclipse.jetty.websocket.server.WebSocketHandler;
 import org.eclipse.jetty.websocket.servlet.ServletUpgradeRequest;
 import org.eclipse.jetty.websocket.servlet.ServletUpgradeResponse;
@@ -28,9 +28,9 @@ import org.eclipse.jetty.websocket.servlet.WebSocketServletFactory;
  * A Mock websocket handler that just Echos messages
  */
 class BigEchoSocketHandler extends WebSocketHandler implements WebSocketCreator {
-  private final WebSocketAdapter socket;
+  private final WebSocketConnectionListener socket;
 
-  BigEchoSocketHandler(final WebSocketAdapter socket) {
+  BigEchoSocketHandler(final WebSocketConnectionListener socket) {
     this.socket = socket;
   }
 
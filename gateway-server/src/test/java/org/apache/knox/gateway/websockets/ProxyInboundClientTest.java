@@ -121,6 +121,10 @@ public class ProxyInboundClientTest {
         isTestComplete.set(true);
       }
 
+      @Override
+      public void onMessageText(String message, boolean last, Object session) {
+      }
+
       @Override
       public void onMessageBinary(byte[] message, boolean last, Object session) {
       }
@@ -176,6 +180,10 @@ public class ProxyInboundClientTest {
         isTestComplete.set(true);
       }
 
+      @Override
+      public void onMessageText(String message, boolean last, Object session) {
+      }
+
       @Override
       public void onMessageBinary(byte[] message, boolean last, Object session) {
         receivedBinaryMessage = message;
@@ -200,4 +208,64 @@ public class ProxyInboundClientTest {
     Assert.assertEquals("Binary message does not match", textMessage, new String(receivedBinaryMessage, StandardCharsets.UTF_8));
   }
 
+  @Test(timeout = 3000)
+  public void testPartialTextMessage() throws IOException, DeploymentException {
+    final String textMessage = "Echo";
+
+    final AtomicBoolean isTestComplete = new AtomicBoolean(false);
+    final StringBuilder parts = new StringBuilder();
+
+    final WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+    final ProxyInboundClient client = new ProxyInboundClient( new MessageEventCallback() {
+      @Override
+      public void doCallback(String message) {
+      }
+
+      @Override
+      public void onConnectionOpen(Object session) {
+      }
+
+      @Override
+      public void onConnectionClose(CloseReason reason) {
+        isTestComplete.set(true);
+      }
+
+      @Override
+      public void onError(Throwable cause) {
+        isTestComplete.set(true);
+      }
+
+      @Override
+      public void onMessageText(String message, Object session) {
+      }
+
+      @Override
+      public void onMessageText(String message, boolean last, Object session) {
+        parts.append(message);
+        if (last) {
+          receivedMessage = parts.toString();
+          isTestComplete.set(true);
+        }
+      }
+
+      @Override
+      public void onMessageBinary(byte[] message, boolean last, Object session) {
+      }
+
+      @Override
+      public void onMessagePong(PongMessage message, Object session) {
+      }
+    }, true);
+
+    Session session = container.connectToServer(client, serverUri);
+
+    session.getBasicRemote().sendText(textMessage);
+
+    while(!isTestComplete.get()) { // NOPMD
+      /* just wait for the test to finish */
+    }
+
+    Assert.assertEquals("The received text message is not the same as the sent", textMessage, receivedMessage);
+  }
+
 }
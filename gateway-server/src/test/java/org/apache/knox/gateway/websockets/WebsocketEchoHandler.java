@@ -28,8 +28,6 @@ import org.eclipse.jetty.websocket.servlet.WebSocketServletFactory;
  *
  */
 public class WebsocketEchoHandler extends WebSocketHandler implements WebSocketCreator {
-  private final EchoSocket socket = new EchoSocket();
-
   @Override
   public void configure(WebSocketServletFactory factory) {
       factory.getPolicy().setMaxTextMessageSize(2 * 1024 * 1024);
@@ -38,6 +36,7 @@ public class WebsocketEchoHandler extends WebSocketHandler implements WebSocketC
 
   @Override
   public Object createWebSocket(ServletUpgradeRequest req, ServletUpgradeResponse resp) {
-      return socket;
+      /* one socket per connection so echoes go back to the session they came from */
+      return new EchoSocket();
   }
 }
@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.websockets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.easymock.Capture;
+import org.easymock.CaptureType;
+import org.easymock.EasyMock;
+import org.eclipse.jetty.io.RuntimeIOException;
+import org.eclipse.jetty.websocket.api.MessageTooLargeException;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.SuspendToken;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.eclipse.jetty.websocket.api.extensions.Frame;
+import org.eclipse.jetty.websocket.common.WebSocketFrame;
+import org.eclipse.jetty.websocket.common.WebSocketRemoteEndpoint;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WebsocketFrameForwarderTest {
+  private final Capture<WebSocketFrame> frames = Capture.newInstance(CaptureType.ALL);
+  private final Capture<WriteCallback> callbacks = Capture.newInstance(CaptureType.ALL);
+  private WebSocketRemoteEndpoint remote;
+
+  @Before
+  public void setUp() {
+    remote = EasyMock.createMock(WebSocketRemoteEndpoint.class);
+    remote.uncheckedSendFrame(EasyMock.capture(frames), EasyMock.capture(callbacks));
+    EasyMock.expectLastCall().anyTimes();
+    EasyMock.replay(remote);
+  }
+
+  @Test
+  public void testFragmentsAreForwardedAsContinuationFrames() {
+    final WebsocketFrameForwarder forwarder = new WebsocketFrameForwarder(1024, 10, 0, 0);
+    forwarder.setTarget(remote);
+
+    forwarder.forwardText("Hello ", false);
+    forwarder.forwardText("World", true);
+    forwarder.forwardBinary(ByteBuffer.wrap(new byte[]{1, 2, 3}), true);
+
+    assertEquals(3, frames.getValues().size());
+    assertFrame(frames.getValues().get(0), Frame.Type.TEXT, false, "Hello ");
+    assertFrame(frames.getValues().get(1), Frame.Type.CONTINUATION, true, "World");
+    assertEquals(Frame.Type.BINARY, frames.getValues().get(2).getType());
+    assertTrue(frames.getValues().get(2).isFin());
+  }
+
+  @Test
+  public void testBinaryPayloadIsCopied() {
+    final WebsocketFrameForwarder forwarder = new WebsocketFrameForwarder(1024, 10, 0, 0);
+    forwarder.setTarget(remote);
+
+    final byte[] payload = {1, 2, 3};
+    forwarder.forwardBinary(ByteBuffer.wrap(payload), true);
+    payload[0] = 9;
+
+    assertEquals(1, frames.getValue().getPayload().get(0));
+  }
+
+  @Test
+  public void testFramesAreHeldUntilTargetIsSet() {
+    final WebsocketFrameForwarder forwarder = new WebsocketFrameForwarder(1024, 2, 0, 0);
+
+    forwarder.forwardText("one", true);
+    forwarder.forwardText("two", true);
+    assertFalse(frames.hasCaptured());
+
+    forwarder.setTarget(remote);
+    forwarder.forwardText("three", true);
+
+    assertEquals(3, frames.getValues().size());
+    assertFrame(frames.getValues().get(0), Frame.Type.TEXT, true, "one");
+    assertFrame(frames.getValues().get(2), Frame.Type.TEXT, true, "three");
+  }
+
+  @Test(expected = RuntimeIOException.class)
+  public void testHeldFramesAreBounded() {
+    final WebsocketFrameForwarder forwarder = new WebsocketFrameForwarder(1024, 1, 0, 0);
+    forwarder.forwardText("one", true);
+    forwarder.forwardText("two", true);
+  }
+
+  @Test(expected = MessageTooLargeException.class)
+  public void testFragmentedMessageSizeIsLimited() {
+    final WebsocketFrameForwarder forwarder = new WebsocketFrameForwarder(1024, 10, 8, 0);
+    forwarder.setTarget(remote);
+
+    forwarder.forwardText("12345", false);
+    forwarder.forwardText("67890", true);
+  }
+
+  @Test
+  public void testSourceIsSuspendedWhileWritesArePending() {
+    final SuspendToken token = EasyMock.createMock(SuspendToken.class);
+    token.resume();
+    EasyMock.expectLastCall().once();
+    final Session source = EasyMock.createMock(Session.class);
+    EasyMock.expect(source.suspend()).andReturn(token).once();
+    EasyMock.replay(token, source);
+
+    final WebsocketFrameForwarder forwarder = new WebsocketFrameForwarder(100, 10, 0, 0);
+    forwarder.setSource(source);
+    forwarder.setTarget(remote);
+
+    forwarder.forwardBinary(ByteBuffer.wrap(new byte[60]), true);
+    assertFalse(forwarder.isSuspended());
+    forwarder.forwardBinary(ByteBuffer.wrap(new byte[60]), true);
+    forwarder.forwardBinary(ByteBuffer.wrap(new byte[60]), true);
+    assertTrue(forwarder.isSuspended());
+    assertEquals(180, forwarder.getPendingBytes());
+
+    callbacks.getValues().get(0).writeSuccess();
+    callbacks.getValues().get(1).writeFailed(new RuntimeIOException("test"));
+    assertTrue(forwarder.isSuspended());
+
+    callbacks.getValues().get(2).writeSuccess();
+    assertFalse(forwarder.isSuspended());
+    assertEquals(0, forwarder.getPendingBytes());
+
+    EasyMock.verify(token, source);
+  }
+
+  private static void assertFrame(WebSocketFrame frame, Frame.Type type, boolean fin, String payload) {
+    assertEquals(type, frame.getType());
+    assertEquals(fin, frame.isFin());
+    assertEquals(payload, StandardCharsets.UTF_8.decode(frame.getPayload()).toString());
+  }
+}
@@ -23,6 +23,8 @@ import static org.apache.knox.gateway.config.GatewayConfig.DEFAULT_SIGNING_KEY_P
 import static org.apache.knox.gateway.config.GatewayConfig.DEFAULT_IDENTITY_KEYSTORE_PASSWORD_ALIAS;
 import static org.apache.knox.gateway.config.GatewayConfig.DEFAULT_IDENTITY_KEYSTORE_TYPE;
 import static org.apache.knox.gateway.config.GatewayConfig.DEFAULT_IDENTITY_KEY_PASSPHRASE_ALIAS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import com.mycila.xmltool.XMLDoc;
 import com.mycila.xmltool.XMLTag;
@@ -43,15 +45,18 @@ import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.handler.ContextHandler;
 import org.eclipse.jetty.server.handler.HandlerCollection;
+import org.eclipse.jetty.util.component.LifeCycle;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import javax.websocket.ClientEndpointConfig;
 import javax.websocket.ContainerProvider;
 import javax.websocket.Endpoint;
 import javax.websocket.EndpointConfig;
 import javax.websocket.MessageHandler;
+import javax.websocket.RemoteEndpoint;
 import javax.websocket.Session;
 import javax.websocket.WebSocketContainer;
 import java.io.File;
@@ -59,6 +64,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -70,6 +76,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Test how Knox holds up under multiple concurrent connections.
@@ -115,6 +122,18 @@ public class WebsocketMultipleConnectionTest {
    */
   private static int MAX_CONNECTIONS = 99;
 
+  /**
+   * Number of sessions for the mixed traffic test. Every proxied session uses
+   * four file descriptors in this JVM, so 10k sessions need a ulimit of 40k or
+   * more, run with -Dknox.test.websocket.sessions=10000 where that is available.
+   */
+  private static final int MIXED_TRAFFIC_SESSIONS = Integer.getInteger("knox.test.websocket.sessions", 200);
+
+  /**
+   * Number of text and of binary messages sent by every session.
+   */
+  private static final int MIXED_TRAFFIC_MESSAGES = 5;
+
   public WebsocketMultipleConnectionTest() {
     super();
   }
@@ -181,6 +200,107 @@ public class WebsocketMultipleConnectionTest {
     */
   }
 
+  /*
+   * Sends fragmented text and binary messages on many concurrent sessions and
+   * checks every session gets its own messages echoed back in order.
+   */
+  @Test(timeout = 300000)
+  public void testMixedTrafficEcho() throws Exception {
+    final WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+    final CountDownLatch latch = new CountDownLatch(MIXED_TRAFFIC_SESSIONS * MIXED_TRAFFIC_MESSAGES * 2);
+    final AtomicInteger mismatches = new AtomicInteger();
+    final URI uri = new URI(serverUri.toString() + "gateway/websocket/ws");
+
+    final List<Session> sessions = new ArrayList<>(MIXED_TRAFFIC_SESSIONS);
+    try {
+      for (int i = 0; i < MIXED_TRAFFIC_SESSIONS; i++) {
+        sessions.add(container.connectToServer(new MixedTrafficClient(i, latch, mismatches),
+            ClientEndpointConfig.Builder.create().build(), uri));
+      }
+
+      for (int m = 0; m < MIXED_TRAFFIC_MESSAGES; m++) {
+        for (int i = 0; i < MIXED_TRAFFIC_SESSIONS; i++) {
+          final RemoteEndpoint.Basic remote = sessions.get(i).getBasicRemote();
+          final String text = textMessage(i, m);
+          final int split = text.length() / 2;
+          remote.sendText(text.substring(0, split), false);
+          remote.sendText(text.substring(split), true);
+
+          final byte[] binary = binaryMessage(i, m);
+          if (m % 2 == 0) {
+            remote.sendBinary(ByteBuffer.wrap(binary));
+          } else {
+            remote.sendBinary(ByteBuffer.wrap(binary, 0, 100), false);
+            remote.sendBinary(ByteBuffer.wrap(binary, 100, binary.length - 100), true);
+          }
+        }
+      }
+
+      assertTrue("Not all messages were echoed", latch.await(240, TimeUnit.SECONDS));
+      assertEquals(0, mismatches.get());
+    } finally {
+      for (final Session session : sessions) {
+        session.close();
+      }
+      ((LifeCycle) container).stop();
+    }
+  }
+
+  private static String textMessage(final int session, final int message) {
+    final StringBuilder text = new StringBuilder(1100);
+    while (text.length() < 1024) {
+      text.append("session ").append(session).append(" message ").append(message).append(' ');
+    }
+    return text.toString();
+  }
+
+  private static byte[] binaryMessage(final int session, final int message) {
+    final byte[] binary = new byte[2048];
+    for (int i = 0; i < binary.length; i++) {
+      binary[i] = (byte) (session * 31 + message * 7 + i);
+    }
+    return binary;
+  }
+
+  /**
+   * Client that checks every echo against the message it sent at the same position.
+   */
+  private static class MixedTrafficClient extends Endpoint {
+    private final int id;
+    private final CountDownLatch latch;
+    private final AtomicInteger mismatches;
+    private int texts;
+    private int binaries;
+
+    MixedTrafficClient(final int id, final CountDownLatch latch, final AtomicInteger mismatches) {
+      this.id = id;
+      this.latch = latch;
+      this.mismatches = mismatches;
+    }
+
+    @Override
+    public void onOpen(final Session session, final EndpointConfig config) {
+      session.addMessageHandler(new MessageHandler.Whole<String>() {
+        @Override
+        public void onMessage(final String message) {
+          if (!textMessage(id, texts++).equals(message)) {
+            mismatches.incrementAndGet();
+          }
+          latch.countDown();
+        }
+      });
+      session.addMessageHandler(new MessageHandler.Whole<ByteBuffer>() {
+        @Override
+        public void onMessage(final ByteBuffer message) {
+          if (!ByteBuffer.wrap(binaryMessage(id, binaries++)).equals(message)) {
+            mismatches.incrementAndGet();
+          }
+          latch.countDown();
+        }
+      });
+    }
+  }
+
   /**
    * Start Mock Websocket server that acts as backend.
    * @throws Exception exception on websocket server start
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.service.admin;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import org.apache.knox.gateway.config.GatewayConfig;
+import org.apache.knox.gateway.services.GatewayServices;
+import org.apache.knox.gateway.services.ServiceType;
+import org.apache.knox.gateway.services.metrics.MetricsService;
+import org.apache.knox.gateway.services.metrics.PrometheusTextFormat;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import static javax.ws.rs.core.Response.Status.NOT_FOUND;
+import static javax.ws.rs.core.Response.ok;
+import static javax.ws.rs.core.Response.status;
+
+@Api(value = "metrics",  description = "The Knox Admin API to scrape gateway metrics in the Prometheus text format.")
+@Path( "/api/v1" )
+public class MetricsResource {
+  @Context
+  private HttpServletRequest request;
+
+  @GET
+  @Produces(PrometheusTextFormat.CONTENT_TYPE)
+  @Path( "metrics" )
+  @ApiOperation(value = "Get gateway metrics",
+      notes = "Request latencies per topology, service, method and status class, backend connection pools and"
+          + " all other gateway metrics in the Prometheus text exposition format.")
+  public Response getMetrics() {
+    GatewayConfig config = (GatewayConfig) request.getServletContext().getAttribute(GatewayConfig.GATEWAY_CONFIG_ATTRIBUTE);
+    GatewayServices services = (GatewayServices) request.getServletContext()
+        .getAttribute(GatewayServices.GATEWAY_SERVICES_ATTRIBUTE);
+    MetricsService metricsService = services == null ? null : services.getService(ServiceType.METRICS_SERVICE);
+    if (config == null || !config.isMetricsEnabled() || metricsService == null) {
+      return status(NOT_FOUND).entity("Metrics are not enabled").build();
+    }
+    StreamingOutput output = stream -> {
+      Writer writer = new OutputStreamWriter(stream, StandardCharsets.UTF_8);
+      metricsService.writePrometheusMetrics(writer);
+      writer.flush();
+    };
+    return ok(output, PrometheusTextFormat.CONTENT_TYPE).build();
+  }
+}
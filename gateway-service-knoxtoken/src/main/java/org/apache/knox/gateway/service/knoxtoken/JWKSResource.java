@@ -19,6 +19,10 @@ package org.apache.knox.gateway.service.knoxtoken;
 
 import com.nimbusds.jose.JOSEException;
 import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.crypto.impl.ECDSA;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
 import com.nimbusds.jose.jwk.JWKSet;
 import com.nimbusds.jose.jwk.KeyUse;
 import com.nimbusds.jose.jwk.RSAKey;
@@ -42,7 +46,9 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
+import java.security.PublicKey;
 import java.security.cert.Certificate;
+import java.security.interfaces.ECPublicKey;
 import java.security.interfaces.RSAPublicKey;
 
 import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
@@ -81,20 +87,14 @@ public class JWKSResource {
   private Response getJwks(final String keystore) {
     JWKSet jwks;
     try {
-      final RSAPublicKey rsa = getPublicKey(keystore);
+      final PublicKey publicKey = getPublicKey(keystore);
       /* no public cert found, return empty set */
-      if(rsa == null) {
+      if(publicKey == null) {
         return Response.ok()
             .entity(new JWKSet().toJSONObject().toString()).build();
       }
 
-      final String kid = TokenUtils.getThumbprint(rsa, "SHA-256");
-      final RSAKey.Builder builder = new RSAKey.Builder(rsa)
-          .keyUse(KeyUse.SIGNATURE)
-          .algorithm(new JWSAlgorithm(this.signatureAlgorithm))
-          .keyID(kid);
-
-      jwks = new JWKSet(builder.build());
+      jwks = new JWKSet(toJWK(publicKey));
 
     } catch (KeyStoreException | JOSEException e) {
       return Response.status(500)
@@ -108,10 +108,29 @@ public class JWKSResource {
         .entity(jwks.toJSONObject().toString()).build();
   }
 
-  protected RSAPublicKey getPublicKey(final String keystore) throws KeystoreServiceException, KeyStoreException {
+  private JWK toJWK(final PublicKey publicKey) throws JOSEException {
+    final String kid = TokenUtils.getThumbprint(publicKey, "SHA-256");
+    if (publicKey instanceof ECPublicKey) {
+      /* an EC key signs with the single algorithm of its curve */
+      final ECPublicKey ec = (ECPublicKey) publicKey;
+      final Curve curve = Curve.forECParameterSpec(ec.getParams());
+      return new ECKey.Builder(curve, ec)
+          .keyUse(KeyUse.SIGNATURE)
+          .algorithm(ECDSA.resolveAlgorithm(curve))
+          .keyID(kid)
+          .build();
+    }
+    return new RSAKey.Builder((RSAPublicKey) publicKey)
+        .keyUse(KeyUse.SIGNATURE)
+        .algorithm(new JWSAlgorithm(this.signatureAlgorithm))
+        .keyID(kid)
+        .build();
+  }
+
+  protected PublicKey getPublicKey(final String keystore) throws KeystoreServiceException, KeyStoreException {
     final KeyStore ks = keystoreService.getSigningKeystore(keystore);
     final Certificate cert = ks.getCertificate(getSigningKeyAlias());
-    return (cert != null) ? (RSAPublicKey) cert.getPublicKey() : null;
+    return (cert != null) ? cert.getPublicKey() : null;
   }
 
   private String getSigningKeyAlias() {
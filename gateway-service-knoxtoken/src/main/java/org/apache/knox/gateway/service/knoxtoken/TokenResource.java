@@ -32,12 +32,15 @@ import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import javax.annotation.PostConstruct;
@@ -83,6 +86,7 @@ import org.apache.knox.gateway.services.security.token.PersistentTokenStateServi
 import org.apache.knox.gateway.services.security.token.TokenMetadata;
 import org.apache.knox.gateway.services.security.token.TokenServiceException;
 import org.apache.knox.gateway.services.security.token.TokenStateService;
+import org.apache.knox.gateway.services.security.token.TokenStateServiceException;
 import org.apache.knox.gateway.services.security.token.TokenUtils;
 import org.apache.knox.gateway.services.security.token.UnknownTokenException;
 import org.apache.knox.gateway.services.security.token.impl.JWT;
@@ -142,6 +146,15 @@ public class TokenResource {
   static final String REVOKE_PATH = "/revoke";
   static final String ENABLE_PATH = "/enable";
   static final String DISABLE_PATH = "/disable";
+  static final String BATCH_PATH = "/batch";
+  static final String BATCH_RENEW_PATH = BATCH_PATH + RENEW_PATH;
+  static final String BATCH_REVOKE_PATH = BATCH_PATH + REVOKE_PATH;
+  static final String BATCH_ENABLE_PATH = BATCH_PATH + ENABLE_PATH;
+  static final String BATCH_DISABLE_PATH = BATCH_PATH + DISABLE_PATH;
+  static final String BATCH_TOKEN_IDS = "tokenIds";
+  static final String BATCH_USER_NAME = "userName";
+  static final String BATCH_CREATED_BY = "createdBy";
+  private static final String BATCH_SKIPPED = "skipped";
   private static final String TARGET_ENDPOINT_PULIC_CERT_PEM = TOKEN_PARAM_PREFIX + "target.endpoint.cert.pem";
   static final String QUERY_PARAMETER_DOAS = "doAs";
   static final String PROXYUSER_PREFIX = TOKEN_PARAM_PREFIX + "proxyuser";
@@ -194,7 +207,8 @@ public class TokenResource {
     INVALID_TOKEN(40),
     UNKNOWN_TOKEN(50),
     ALREADY_DISABLED(60),
-    ALREADY_ENABLED(70);
+    ALREADY_ENABLED(70),
+    INVALID_REQUEST(80);
 
     private final int code;
 
@@ -285,7 +299,8 @@ public class TokenResource {
       tokenStateService = services.getService(ServiceType.TOKEN_STATE_SERVICE);
       final GatewayConfig gatewayConfig = (GatewayConfig) context.getAttribute(GatewayConfig.GATEWAY_CONFIG_ATTRIBUTE);
       final AliasService aliasService = services.getService(ServiceType.ALIAS_SERVICE);
-      tokenMAC = new TokenMAC(gatewayConfig.getKnoxTokenHashAlgorithm(), aliasService.getPasswordFromAliasForGateway(TokenMAC.KNOX_TOKEN_HASH_KEY_ALIAS_NAME));
+      tokenMAC = new TokenMAC(gatewayConfig.getKnoxTokenHashAlgorithm(), aliasService.getPasswordFromAliasForGateway(TokenMAC.KNOX_TOKEN_HASH_KEY_ALIAS_NAME),
+          gatewayConfig.isKnoxTokenHashV2Enabled());
 
       tokenLimitPerUser = gatewayConfig.getMaximumNumberOfTokensPerUser();
       final String userLimitExceededActionParam = context.getInitParameter(KNOX_TOKEN_USER_LIMIT_EXCEEDED_ACTION);
@@ -689,6 +704,149 @@ public class TokenResource {
     }
   }
 
+  /*
+   * The batch endpoints expect a JSON object selecting the tokens by any combination of
+   * token IDs (or entire JWTs), token owner and token creator; for instance:
+   * {"tokenIds": ["id1", "id2"], "userName": "alice", "createdBy": "admin"}
+   */
+
+  @PUT
+  @Path(BATCH_RENEW_PATH)
+  @Produces({ APPLICATION_JSON })
+  public Response renewTokens(String request) {
+    // only the configured renewers may renew tokens
+    return processBatchRequest("renewal", request, false, tokenIds -> {
+      final Map<String, Long> renewed = tokenStateService.renewTokens(tokenIds,
+          renewInterval.orElse(tokenStateService.getDefaultRenewInterval()));
+      return toBatchResult("renewed", new TreeMap<>(renewed), tokenIds, renewed.keySet());
+    });
+  }
+
+  @DELETE
+  @Path(BATCH_REVOKE_PATH)
+  @Produces({ APPLICATION_JSON })
+  public Response revokeTokens(String request) {
+    return processBatchRequest("revocation", request, true, tokenIds -> {
+      final Set<String> revoked = tokenStateService.revokeTokens(tokenIds);
+      return toBatchResult("revoked", new TreeSet<>(revoked), tokenIds, revoked);
+    });
+  }
+
+  @PUT
+  @Path(BATCH_ENABLE_PATH)
+  @Produces({ APPLICATION_JSON })
+  public Response enableTokens(String request) {
+    return setTokensEnabledFlag(request, true);
+  }
+
+  @PUT
+  @Path(BATCH_DISABLE_PATH)
+  @Produces({ APPLICATION_JSON })
+  public Response disableTokens(String request) {
+    return setTokensEnabledFlag(request, false);
+  }
+
+  private Response setTokensEnabledFlag(String request, boolean enabled) {
+    return processBatchRequest(enabled ? "enable" : "disable", request, true, tokenIds -> {
+      final Set<String> updated = tokenStateService.setTokensEnabled(tokenIds, enabled);
+      return toBatchResult(enabled ? "enabled" : "disabled", new TreeSet<>(updated), tokenIds, updated);
+    });
+  }
+
+  private Response processBatchRequest(String operation, String request, boolean ownersAllowed,
+                                       Function<Set<String>, Map<String, Object>> batchOperation) {
+    String          error;
+    ErrorCode       errorCode;
+    Response.Status errorStatus = Response.Status.BAD_REQUEST;
+
+    if (tokenStateService == null) {
+      error = "Batch " + operation + " support is not configured";
+      errorCode = ErrorCode.CONFIGURATION_ERROR;
+    } else {
+      final String caller = SubjectUtils.getCurrentEffectivePrincipalName();
+      try {
+        final Set<String> tokenIds = getBatchTokenIds(request);
+        if (isAllowedToManageTokens(caller, tokenIds, ownersAllowed)) {
+          final Map<String, Object> result = batchOperation.apply(tokenIds);
+          log.processedBatchRequest(getTopologyName(), operation, tokenIds.size(), caller);
+          return Response.status(Response.Status.OK).entity(JsonUtils.renderAsJsonString(result)).build();
+        }
+        errorStatus = Response.Status.FORBIDDEN;
+        error = "Caller (" + caller + ") not authorized to manage the selected tokens.";
+        errorCode = ErrorCode.UNAUTHORIZED;
+      } catch (ParseException e) {
+        error = safeGetMessage(e);
+        errorCode = ErrorCode.INVALID_TOKEN;
+      } catch (IllegalArgumentException e) {
+        error = safeGetMessage(e);
+        errorCode = ErrorCode.INVALID_REQUEST;
+      } catch (TokenStateServiceException e) {
+        errorStatus = Response.Status.INTERNAL_SERVER_ERROR;
+        error = safeGetMessage(e);
+        errorCode = ErrorCode.INTERNAL_ERROR;
+      }
+    }
+
+    log.badBatchRequest(getTopologyName(), operation, error);
+    final Map<String, Object> errorResponse = new LinkedHashMap<>();
+    errorResponse.put("error", error);
+    errorResponse.put("code", errorCode.toInt());
+    return Response.status(errorStatus).entity(JsonUtils.renderAsJsonString(errorResponse)).build();
+  }
+
+  private Set<String> getBatchTokenIds(String request) throws ParseException {
+    final Object selection = StringUtils.isBlank(request) ? null : JsonUtils.getObjectFromJsonString(request);
+    if (!(selection instanceof Map)) {
+      throw new IllegalArgumentException("The request should be a JSON object selecting the tokens");
+    }
+    final Map<?, ?> selectionMap = (Map<?, ?>) selection;
+    final Object tokens = selectionMap.get(BATCH_TOKEN_IDS);
+    final Object userName = selectionMap.get(BATCH_USER_NAME);
+    final Object createdBy = selectionMap.get(BATCH_CREATED_BY);
+    if (tokens == null && userName == null && createdBy == null) {
+      throw new IllegalArgumentException("The request should select the tokens by " + BATCH_TOKEN_IDS + ", " + BATCH_USER_NAME + " or " + BATCH_CREATED_BY);
+    }
+    if ((tokens != null && !(tokens instanceof Collection)) || (userName != null && !(userName instanceof String))
+        || (createdBy != null && !(createdBy instanceof String))) {
+      throw new IllegalArgumentException("The request should select the tokens by a list of token IDs and/or by user names");
+    }
+
+    final Set<String> tokenIds = new TreeSet<>();
+    if (tokens != null) {
+      for (Object token : (Collection<?>) tokens) {
+        tokenIds.add(getTokenId(String.valueOf(token)));
+      }
+    }
+    if (userName != null) {
+      tokenStateService.getTokens((String) userName).forEach(knoxToken -> tokenIds.add(knoxToken.getTokenId()));
+    }
+    if (createdBy != null) {
+      tokenStateService.getDoAsTokens((String) createdBy).forEach(knoxToken -> tokenIds.add(knoxToken.getTokenId()));
+    }
+    return tokenIds;
+  }
+
+  /*
+   * The configured renewers may manage any token; other callers may only manage their own tokens, if allowed
+   */
+  private boolean isAllowedToManageTokens(String caller, Set<String> tokenIds, boolean ownersAllowed) {
+    if (allowedRenewers.contains(caller)) {
+      return true;
+    }
+    if (!ownersAllowed || StringUtils.isBlank(caller)) {
+      return false;
+    }
+    final Set<String> ownTokenIds = tokenStateService.getTokens(caller).stream().map(KnoxToken::getTokenId).collect(Collectors.toSet());
+    return ownTokenIds.containsAll(tokenIds);
+  }
+
+  private static Map<String, Object> toBatchResult(String resultName, Object result, Set<String> tokenIds, Set<String> processedTokenIds) {
+    final Map<String, Object> batchResult = new LinkedHashMap<>();
+    batchResult.put(resultName, result);
+    batchResult.put(BATCH_SKIPPED, tokenIds.stream().filter(tokenId -> !processedTokenIds.contains(tokenId)).collect(Collectors.toCollection(TreeSet::new)));
+    return batchResult;
+  }
+
   private X509Certificate extractCertificate(HttpServletRequest req) {
     X509Certificate[] certs = (X509Certificate[]) req.getAttribute("javax.servlet.request.X509Certificate");
     if (null != certs && certs.length > 0) {
@@ -74,6 +74,12 @@ public interface TokenServiceMessages {
   @Message( level = MessageLevel.ERROR, text = "Knox Token service ({0}) rejected a bad set enabled flag request for token {1}: {2}")
   void badSetEnabledFlagRequest(String topologyName, String tokenId, String error);
 
+  @Message( level = MessageLevel.INFO, text = "Knox Token service ({0}) processed a batch {1} request for {2} token(s) (caller={3})")
+  void processedBatchRequest(String topologyName, String operation, int size, String caller);
+
+  @Message( level = MessageLevel.ERROR, text = "Knox Token service ({0}) rejected a bad batch {1} request: {2}")
+  void badBatchRequest(String topologyName, String operation, String error);
+
   @Message( level = MessageLevel.DEBUG, text = "Knox Token service ({0}) stored state for token {1} ({2})")
   void storedToken(String topologyName, String tokenDisplayText, String tokenId);
 
@@ -24,8 +24,10 @@ import java.security.KeyStoreSpi;
 import java.security.Provider;
 import java.security.PublicKey;
 import java.security.cert.Certificate;
+import java.security.interfaces.ECPrivateKey;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
 import java.util.Collections;
 
 import javax.servlet.ServletContext;
@@ -38,6 +40,7 @@ import org.apache.knox.gateway.services.ServiceType;
 import org.apache.knox.gateway.services.security.AliasService;
 import org.apache.knox.gateway.services.security.KeystoreService;
 import org.apache.knox.gateway.services.security.token.JWTokenAttributesBuilder;
+import org.apache.knox.gateway.services.security.token.TokenUtils;
 import org.apache.knox.gateway.services.security.token.impl.JWT;
 import org.apache.knox.gateway.services.security.token.impl.JWTToken;
 import org.easymock.EasyMock;
@@ -46,12 +49,17 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.nimbusds.jose.JWSAlgorithm;
 import com.nimbusds.jose.JWSSigner;
 import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.crypto.ECDSAVerifier;
 import com.nimbusds.jose.crypto.RSASSASigner;
 import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.nimbusds.jose.jwk.Curve;
 import com.nimbusds.jose.jwk.JWK;
 import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.KeyType;
 
 /**
  * Unit tests for JWKS Resource
@@ -133,6 +141,40 @@ public class JWKSResourceTest {
         testToken.verify(verifier));
   }
 
+  /**
+   * The JWKS of an EC signing key carries the curve and the algorithm of the curve.
+   */
+  @Test
+  public void testECKeyE2E() throws Exception {
+    final KeyPairGenerator kpg = KeyPairGenerator.getInstance("EC");
+    kpg.initialize(new ECGenParameterSpec("secp384r1"));
+    final KeyPair ecKeyPair = kpg.generateKeyPair();
+
+    final JWT testToken = new JWTToken(new JWTokenAttributesBuilder().setAlgorithm("ES384").setAudiences(Collections.singletonList("aud"))
+        .setManaged(false).build());
+    testToken.sign(new ECDSASigner((ECPrivateKey) ecKeyPair.getPrivate()));
+
+    final JWKSResource jwksResource = new JWKSResource() {
+      @Override
+      protected PublicKey getPublicKey(String keystore) {
+        return ecKeyPair.getPublic();
+      }
+    };
+    jwksResource.context = context;
+    jwksResource.request = request;
+    jwksResource.init();
+    final Response retResponse = jwksResource.getJwksResponse();
+    Assert.assertEquals(Response.Status.OK.getStatusCode(), retResponse.getStatus());
+
+    final JWK jwk = JWKSet.parse(retResponse.getEntity().toString()).getKeys().get(0);
+    Assert.assertEquals(KeyType.EC, jwk.getKeyType());
+    Assert.assertEquals(Curve.P_384, jwk.toECKey().getCurve());
+    Assert.assertEquals(JWSAlgorithm.ES384, jwk.getAlgorithm());
+    Assert.assertEquals(TokenUtils.getThumbprint(ecKeyPair.getPublic(), "SHA-256"), jwk.getKeyID());
+    Assert.assertTrue("Cannot verify the token, wrong certificate",
+        testToken.verify(new ECDSAVerifier(jwk.toECKey().toECPublicKey())));
+  }
+
   private JWT getTestToken(final String algorithm) {
     String[] claimArray = new String[6];
     claimArray[0] = "KNOXSSO";
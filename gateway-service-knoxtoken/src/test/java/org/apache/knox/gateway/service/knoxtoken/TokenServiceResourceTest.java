@@ -56,6 +56,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.TreeSet;
+import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
@@ -850,6 +851,115 @@ public class TokenServiceResourceTest {
     validateSuccessfulRevocationResponse(renewalResponse);
   }
 
+  @Test
+  public void testBatchTokenOperations_Renewer() throws Exception {
+    final TokenResource tr = createBatchTestTokenResource("admin");
+    final String aliceToken1 = addBatchTestToken(USER_NAME);
+    final String aliceToken2 = addBatchTestToken(USER_NAME);
+    final String bobToken = addBatchTestToken("bob");
+    final String unknownToken = UUID.randomUUID().toString();
+    final Subject admin = createTestSubject("admin");
+
+    Response response = Subject.doAs(admin, (PrivilegedAction<Response>) () -> tr.disableTokens("{\"tokenIds\": [\"" + unknownToken + "\"], \"userName\": \"" + USER_NAME + "\"}"));
+    assertEquals(200, response.getStatus());
+    Map<String, Object> json = parseJSONResponse(response.getEntity().toString());
+    assertEquals(new HashSet<>(Arrays.asList(aliceToken1, aliceToken2)), new HashSet<>((List<?>) json.get("disabled")));
+    assertEquals(Collections.singletonList(unknownToken), json.get("skipped"));
+    assertFalse(tss.getTokenMetadata(aliceToken1).isEnabled());
+    assertFalse(tss.getTokenMetadata(aliceToken2).isEnabled());
+    assertTrue(tss.getTokenMetadata(bobToken).isEnabled());
+
+    response = Subject.doAs(admin, (PrivilegedAction<Response>) () -> tr.renewTokens("{\"tokenIds\": [\"" + aliceToken1 + "\", \"" + bobToken + "\"]}"));
+    assertEquals(200, response.getStatus());
+    json = parseJSONResponse(response.getEntity().toString());
+    assertEquals(new HashSet<>(Arrays.asList(aliceToken1, bobToken)), ((Map<?, ?>) json.get("renewed")).keySet());
+
+    response = Subject.doAs(admin, (PrivilegedAction<Response>) () ->
+        tr.revokeTokens("{\"tokenIds\": [\"" + bobToken + "\"], \"userName\": \"" + USER_NAME + "\"}"));
+    assertEquals(200, response.getStatus());
+    json = parseJSONResponse(response.getEntity().toString());
+    assertEquals(new HashSet<>(Arrays.asList(aliceToken1, aliceToken2, bobToken)), new HashSet<>((List<?>) json.get("revoked")));
+    assertTrue(tss.getTokens(USER_NAME).isEmpty());
+    assertTrue(tss.getTokens("bob").isEmpty());
+  }
+
+  @Test
+  public void testBatchTokenOperations_Owner() throws Exception {
+    final TokenResource tr = createBatchTestTokenResource("admin");
+    final String aliceToken = addBatchTestToken(USER_NAME);
+    final String bobToken = addBatchTestToken("bob");
+    final Subject alice = createTestSubject(USER_NAME);
+
+    // token owners may manage their own tokens
+    Response response = Subject.doAs(alice, (PrivilegedAction<Response>) () -> tr.disableTokens("{\"tokenIds\": [\"" + aliceToken + "\"]}"));
+    assertEquals(200, response.getStatus());
+    assertFalse(tss.getTokenMetadata(aliceToken).isEnabled());
+    response = Subject.doAs(alice, (PrivilegedAction<Response>) () -> tr.enableTokens("{\"userName\": \"" + USER_NAME + "\"}"));
+    assertEquals(200, response.getStatus());
+    assertEquals(Collections.singletonList(aliceToken), parseJSONResponse(response.getEntity().toString()).get("enabled"));
+    assertTrue(tss.getTokenMetadata(aliceToken).isEnabled());
+
+    // but not the tokens of others
+    response = Subject.doAs(alice, (PrivilegedAction<Response>) () -> tr.revokeTokens("{\"tokenIds\": [\"" + aliceToken + "\", \"" + bobToken + "\"]}"));
+    assertEquals(403, response.getStatus());
+    assertEquals(TokenResource.ErrorCode.UNAUTHORIZED.toInt(), parseJSONResponse(response.getEntity().toString()).get("code"));
+    assertNotNull(tss.getTokenMetadata(aliceToken));
+    assertNotNull(tss.getTokenMetadata(bobToken));
+
+    // and only the configured renewers may renew tokens
+    response = Subject.doAs(alice, (PrivilegedAction<Response>) () -> tr.renewTokens("{\"tokenIds\": [\"" + aliceToken + "\"]}"));
+    assertEquals(403, response.getStatus());
+  }
+
+  @Test
+  public void testBatchTokenOperations_InvalidRequest() throws Exception {
+    final TokenResource tr = createBatchTestTokenResource("admin");
+    final Subject admin = createTestSubject("admin");
+    for (String request : Arrays.asList(null, "not JSON", "[]", "{}", "{\"tokenIds\": \"not a list\"}")) {
+      final Response response = Subject.doAs(admin, (PrivilegedAction<Response>) () -> tr.revokeTokens(request));
+      assertEquals(400, response.getStatus());
+      assertEquals(TokenResource.ErrorCode.INVALID_REQUEST.toInt(), parseJSONResponse(response.getEntity().toString()).get("code"));
+    }
+    final Response response = Subject.doAs(admin, (PrivilegedAction<Response>) () -> tr.revokeTokens("{\"tokenIds\": [\"not a token\"]}"));
+    assertEquals(400, response.getStatus());
+    assertEquals(TokenResource.ErrorCode.INVALID_TOKEN.toInt(), parseJSONResponse(response.getEntity().toString()).get("code"));
+  }
+
+  @Test
+  public void testBatchTokenOperations_NotConfigured() throws Exception {
+    configureCommonExpectations(Collections.singletonMap("knox.token.renewer.whitelist", "admin"));
+    final TokenResource tr = new TokenResource();
+    tr.request = request;
+    tr.context = context;
+    tr.init();
+
+    final Response response = Subject.doAs(createTestSubject("admin"), (PrivilegedAction<Response>) () -> tr.revokeTokens("{\"userName\": \"alice\"}"));
+    assertEquals(400, response.getStatus());
+    assertEquals(TokenResource.ErrorCode.CONFIGURATION_ERROR.toInt(), parseJSONResponse(response.getEntity().toString()).get("code"));
+  }
+
+  private TokenResource createBatchTestTokenResource(String renewers) throws Exception {
+    final Map<String, String> contextExpectations = new HashMap<>();
+    contextExpectations.put("knox.token.exp.server-managed", "true");
+    contextExpectations.put("knox.token.renewer.whitelist", renewers);
+    configureCommonExpectations(contextExpectations);
+
+    final TokenResource tr = new TokenResource();
+    tr.request = request;
+    tr.context = context;
+    tr.init();
+    return tr;
+  }
+
+  private String addBatchTestToken(String userName) {
+    final String tokenId = UUID.randomUUID().toString();
+    // tokens are ordered by issue time when listed, so make them distinct
+    final long issueTime = System.currentTimeMillis() + tss.issueTimes.size();
+    tss.addToken(tokenId, issueTime, issueTime + 60000);
+    tss.addMetadata(tokenId, new TokenMetadata(userName));
+    return tokenId;
+  }
+
   @Test
   public void testKidJkuClaims() throws Exception {
     final Map<String, String> contextExpectations = new HashMap<>();
@@ -28,16 +28,11 @@ import java.security.NoSuchAlgorithmException;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Optional;
-import java.util.Set;
-import java.util.TreeSet;
 
 import javax.inject.Singleton;
 import javax.servlet.http.HttpServletRequest;
@@ -48,15 +43,17 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.Variant;
 
 import org.apache.knox.gateway.config.GatewayConfig;
 import org.apache.knox.gateway.dto.HomePageProfile;
 import org.apache.knox.gateway.i18n.messages.MessagesFactory;
-import org.apache.knox.gateway.service.definition.Metadata;
-import org.apache.knox.gateway.service.definition.ServiceDefinitionPair;
 import org.apache.knox.gateway.services.GatewayServices;
 import org.apache.knox.gateway.services.ServerInfoService;
 import org.apache.knox.gateway.services.ServiceType;
@@ -67,8 +64,6 @@ import org.apache.knox.gateway.services.security.KeystoreService;
 import org.apache.knox.gateway.services.security.KeystoreServiceException;
 import org.apache.knox.gateway.services.security.token.impl.TokenMAC;
 import org.apache.knox.gateway.services.topology.TopologyService;
-import org.apache.knox.gateway.topology.Service;
-import org.apache.knox.gateway.topology.Topology;
 import org.apache.knox.gateway.util.JsonUtils;
 import org.apache.knox.gateway.util.X509CertificateUtil;
 
@@ -81,15 +76,18 @@ import io.swagger.annotations.ApiOperation;
 public class KnoxMetadataResource {
   private static final MetadataServiceMessages LOG = MessagesFactory.get(MetadataServiceMessages.class);
   private static final String SNAPSHOT_VERSION_POSTFIX = "-SNAPSHOT";
-  private static final Set<String> UNREAL_SERVICES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList("NAMENODE", "JOBTRACKER", "RESOURCEMANAGERAPI")));
+  private static final List<Variant> TOPOLOGY_VARIANTS = Variant.mediaTypes(MediaType.APPLICATION_XML_TYPE, MediaType.APPLICATION_JSON_TYPE).build();
 
-  private Set<String> pinnedTopologies;
+  private final TopologyInformationCache topologyInformationCache = new TopologyInformationCache();
   private java.nio.file.Path pemFilePath;
   private java.nio.file.Path jksFilePath;
 
   @Context
   private HttpServletRequest request;
 
+  @Context
+  private Request restRequest;
+
   @ApiOperation(value="Get general proxy information", notes="Get general proxy information such as TLS Public Certificate, Knox Admin UI Url, etc...", response=GeneralProxyInformation.class)
   @GET
   @Produces({ APPLICATION_JSON, APPLICATION_XML })
@@ -204,74 +202,38 @@ public class KnoxMetadataResource {
   @GET
   @Produces({ APPLICATION_XML, APPLICATION_JSON })
   @Path("topologies")
-  public TopologyInformationWrapper getTopologies() {
+  public Response getTopologies() {
     return getTopologies(null);
   }
 
   @GET
   @Produces({ APPLICATION_XML, APPLICATION_JSON })
   @Path("topologies/{name}")
-  public TopologyInformationWrapper getTopology(@PathParam("name") String topologyName) {
+  public Response getTopology(@PathParam("name") String topologyName) {
     return getTopologies(topologyName);
   }
 
-  private TopologyInformationWrapper getTopologies(String topologyName) {
-    final TopologyInformationWrapper topologies = new TopologyInformationWrapper();
+  /*
+   * Responds with 304 Not Modified if the If-None-Match header of the request lists the entity tag of the current response.
+   */
+  private Response getTopologies(String topologyName) {
+    final Variant variant = restRequest.selectVariant(TOPOLOGY_VARIANTS);
+    if (variant == null) {
+      return Response.notAcceptable(TOPOLOGY_VARIANTS).build();
+    }
     final GatewayServices gatewayServices = (GatewayServices) request.getServletContext().getAttribute(GatewayServices.GATEWAY_SERVICES_ATTRIBUTE);
     final GatewayConfig config = (GatewayConfig) request.getServletContext().getAttribute(GatewayConfig.GATEWAY_CONFIG_ATTRIBUTE);
     final ServiceDefinitionRegistry serviceDefinitionRegistry = gatewayServices.getService(ServiceType.SERVICE_DEFINITION_REGISTRY);
-    final Set<String> hiddenTopologies = config.getHiddenTopologiesOnHomepage();
-    if (gatewayServices != null) {
-      final TopologyService topologyService = gatewayServices.getService(ServiceType.TOPOLOGY_SERVICE);
-      for (Topology topology : topologyService.getTopologies()) {
-        if (!hiddenTopologies.contains(topology.getName()) && (topologyName == null || topology.getName().equalsIgnoreCase(topologyName))) {
-          Set<ServiceModel> apiServices = new HashSet<>();
-          Set<ServiceModel> uiServices = new HashSet<>();
-          topology.getServices().stream().filter(service -> !UNREAL_SERVICES.contains(service.getRole())).forEach(service -> {
-            service.getUrls().forEach(serviceUrl -> {
-              ServiceModel serviceModel = getServiceModel(request, config.getGatewayPath(), topology.getName(), service, getServiceMetadata(serviceDefinitionRegistry, service),
-                  serviceUrl);
-              if (ServiceModel.Type.UI == serviceModel.getType()) {
-                uiServices.add(serviceModel);
-              } else if (ServiceModel.Type.API_AND_UI == serviceModel.getType()) {
-                uiServices.add(serviceModel);
-                apiServices.add(serviceModel);
-              } else {
-                apiServices.add(serviceModel);
-              }
-            });
-          });
-          topologies.addTopology(topology.getName(), isPinnedTopology(topology.getName(), config), new TreeSet<>(apiServices), new TreeSet<>(uiServices));
-        }
-      }
+    final TopologyService topologyService = gatewayServices.getService(ServiceType.TOPOLOGY_SERVICE);
+    final long version = topologyInformationCache.refresh(topologyService.getTopologies(), serviceDefinitionRegistry);
+    final TopologyInformationCache.RenderedTopologies topologies = topologyInformationCache.getTopologies(version, topologyName, request, config,
+        variant.getMediaType());
+    final EntityTag entityTag = new EntityTag(topologies.getEntityTag());
+    final ResponseBuilder notModified = restRequest.evaluatePreconditions(entityTag);
+    if (notModified != null) {
+      return notModified.build();
     }
-    return topologies;
-  }
-
-  boolean isPinnedTopology(String topologyName, GatewayConfig config) {
-    if (pinnedTopologies == null) {
-      pinnedTopologies = config.getPinnedTopologiesOnHomepage();
-    }
-    return pinnedTopologies.contains(topologyName);
-  }
-
-  private Metadata getServiceMetadata(ServiceDefinitionRegistry serviceDefinitionRegistry, Service service) {
-    final Optional<ServiceDefinitionPair> serviceDefinition = serviceDefinitionRegistry.getServiceDefinitions().stream()
-        .filter(serviceDefinitionPair -> serviceDefinitionPair.getService().getRole().equalsIgnoreCase(service.getRole()))
-        .filter(serviceDefinitionPair -> service.getVersion() == null || service.getVersion().toString().equalsIgnoreCase(serviceDefinitionPair.getService().getVersion()))
-        .findFirst();
-    return serviceDefinition.isPresent() ? serviceDefinition.get().getService().getMetadata() : null;
-  }
-
-  private ServiceModel getServiceModel(HttpServletRequest request, String gatewayPath, String topologyName, Service service, Metadata serviceMetadata, String serviceUrl) {
-    final ServiceModel serviceModel = new ServiceModel();
-    serviceModel.setRequest(request);
-    serviceModel.setGatewayPath(gatewayPath);
-    serviceModel.setTopologyName(topologyName);
-    serviceModel.setService(service);
-    serviceModel.setServiceMetadata(serviceMetadata);
-    serviceModel.setServiceUrl(serviceUrl);
-    return serviceModel;
+    return Response.ok(topologies.getContent(), variant).tag(entityTag).build();
   }
 
   @GET
@@ -0,0 +1,226 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.service.metadata;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.annotation.Annotation;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.MediaType;
+
+import org.apache.knox.gateway.config.GatewayConfig;
+import org.apache.knox.gateway.service.definition.Metadata;
+import org.apache.knox.gateway.service.definition.ServiceDefinitionPair;
+import org.apache.knox.gateway.services.registry.ServiceDefinitionRegistry;
+import org.apache.knox.gateway.topology.Service;
+import org.apache.knox.gateway.topology.Topology;
+
+/**
+ * Caches what the homepage shows about each deployed topology.
+ * <p>
+ * The services of a topology and the metadata of their service definitions are looked up once, and again only
+ * when the topology is redeployed, added or removed, or when the service definitions change. Rendered responses
+ * are kept per request origin and media type along with a strong entity tag derived from their content.
+ */
+class TopologyInformationCache {
+
+  static final Set<String> UNREAL_SERVICES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList("NAMENODE", "JOBTRACKER", "RESOURCEMANAGERAPI")));
+
+  /* bounds the rendered responses, as the origin of the requests comes from the Host header */
+  private static final int MAX_RENDERED_RESPONSES = 256;
+
+  private final Map<String, CachedTopology> topologies = new ConcurrentHashMap<>();
+  private final Map<String, RenderedTopologies> responses = new ConcurrentHashMap<>();
+  private final AtomicLong version = new AtomicLong();
+  private final TopologyInformationWrapperMarshaller marshaller = new TopologyInformationWrapperMarshaller();
+
+  private static final class CachedTopology {
+    private final Topology topology;
+    private final long serviceDefinitionsRevision;
+    private final List<CachedService> services;
+
+    CachedTopology(Topology topology, long serviceDefinitionsRevision, List<CachedService> services) {
+      this.topology = topology;
+      this.serviceDefinitionsRevision = serviceDefinitionsRevision;
+      this.services = services;
+    }
+  }
+
+  private static final class CachedService {
+    private final Service service;
+    private final Metadata metadata;
+    private final String url;
+
+    CachedService(Service service, Metadata metadata, String url) {
+      this.service = service;
+      this.metadata = metadata;
+      this.url = url;
+    }
+  }
+
+  static final class RenderedTopologies {
+    private final byte[] content;
+    private final String entityTag;
+
+    RenderedTopologies(byte[] content, String entityTag) {
+      this.content = content;
+      this.entityTag = entityTag;
+    }
+
+    byte[] getContent() {
+      return content.clone();
+    }
+
+    String getEntityTag() {
+      return entityTag;
+    }
+  }
+
+  /**
+   * Brings the cached topologies in line with the deployed ones.
+   *
+   * @return the version of the cached topologies, which changes whenever a cached topology does
+   */
+  synchronized long refresh(Collection<Topology> deployedTopologies, ServiceDefinitionRegistry serviceDefinitionRegistry) {
+    final long serviceDefinitionsRevision = serviceDefinitionRegistry.getRevision();
+    boolean changed = false;
+    final Set<String> names = new HashSet<>();
+    for (Topology topology : deployedTopologies) {
+      names.add(topology.getName());
+      final CachedTopology cached = topologies.get(topology.getName());
+      // deployed topologies are replaced, never modified, when they change
+      if (cached == null || cached.topology != topology || cached.serviceDefinitionsRevision != serviceDefinitionsRevision) {
+        topologies.put(topology.getName(), new CachedTopology(topology, serviceDefinitionsRevision, getServices(topology, serviceDefinitionRegistry)));
+        changed = true;
+      }
+    }
+    changed |= topologies.keySet().retainAll(names);
+    if (changed) {
+      responses.clear();
+      return version.incrementAndGet();
+    }
+    return version.get();
+  }
+
+  private static List<CachedService> getServices(Topology topology, ServiceDefinitionRegistry serviceDefinitionRegistry) {
+    final List<CachedService> services = new ArrayList<>();
+    for (Service service : topology.getServices()) {
+      if (!UNREAL_SERVICES.contains(service.getRole())) {
+        final Metadata metadata = serviceDefinitionRegistry
+            .getServiceDefinition(service.getRole(), service.getVersion() == null ? null : service.getVersion().toString())
+            .map(ServiceDefinitionPair::getService).map(serviceDefinition -> serviceDefinition.getMetadata()).orElse(null);
+        for (String url : service.getUrls()) {
+          services.add(new CachedService(service, metadata, url));
+        }
+      }
+    }
+    return services;
+  }
+
+  /**
+   * @param version the version returned by {@link #refresh}
+   * @param topologyName the topology to render, or all topologies if <code>null</code>
+   */
+  RenderedTopologies getTopologies(long version, String topologyName, HttpServletRequest request, GatewayConfig config, MediaType mediaType) {
+    final String key = version + "|" + request.getScheme() + "://" + request.getServerName() + ":" + request.getServerPort() + "|"
+        + (topologyName == null ? "" : topologyName.toLowerCase(Locale.ROOT)) + "|" + mediaType;
+    RenderedTopologies rendered = responses.get(key);
+    if (rendered == null) {
+      if (responses.size() >= MAX_RENDERED_RESPONSES) {
+        responses.clear();
+      }
+      rendered = render(getTopologyInformation(topologyName, request, config), mediaType);
+      responses.put(key, rendered);
+    }
+    return rendered;
+  }
+
+  TopologyInformationWrapper getTopologyInformation(String topologyName, HttpServletRequest request, GatewayConfig config) {
+    final TopologyInformationWrapper topologyInformation = new TopologyInformationWrapper();
+    final Set<String> hiddenTopologies = config.getHiddenTopologiesOnHomepage();
+    final Set<String> pinnedTopologies = config.getPinnedTopologiesOnHomepage();
+    for (CachedTopology cached : topologies.values()) {
+      final String name = cached.topology.getName();
+      if (!hiddenTopologies.contains(name) && (topologyName == null || name.equalsIgnoreCase(topologyName))) {
+        final Set<ServiceModel> apiServices = new HashSet<>();
+        final Set<ServiceModel> uiServices = new HashSet<>();
+        for (CachedService cachedService : cached.services) {
+          final ServiceModel serviceModel = getServiceModel(request, config.getGatewayPath(), name, cachedService);
+          if (ServiceModel.Type.UI == serviceModel.getType()) {
+            uiServices.add(serviceModel);
+          } else if (ServiceModel.Type.API_AND_UI == serviceModel.getType()) {
+            uiServices.add(serviceModel);
+            apiServices.add(serviceModel);
+          } else {
+            apiServices.add(serviceModel);
+          }
+        }
+        topologyInformation.addTopology(name, pinnedTopologies.contains(name), new TreeSet<>(apiServices), new TreeSet<>(uiServices));
+      }
+    }
+    return topologyInformation;
+  }
+
+  private static ServiceModel getServiceModel(HttpServletRequest request, String gatewayPath, String topologyName, CachedService cachedService) {
+    final ServiceModel serviceModel = new ServiceModel();
+    serviceModel.setRequest(request);
+    serviceModel.setGatewayPath(gatewayPath);
+    serviceModel.setTopologyName(topologyName);
+    serviceModel.setService(cachedService.service);
+    serviceModel.setServiceMetadata(cachedService.metadata);
+    serviceModel.setServiceUrl(cachedService.url);
+    return serviceModel;
+  }
+
+  private RenderedTopologies render(TopologyInformationWrapper topologyInformation, MediaType mediaType) {
+    final ByteArrayOutputStream content = new ByteArrayOutputStream(4096);
+    try {
+      // the marshallers are shared and not thread-safe
+      synchronized (marshaller) {
+        marshaller.writeTo(topologyInformation, TopologyInformationWrapper.class, TopologyInformationWrapper.class, new Annotation[0], mediaType, null,
+            content);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    final byte[] bytes = content.toByteArray();
+    try {
+      final byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+      return new RenderedTopologies(bytes, Base64.getUrlEncoder().withoutPadding().encodeToString(digest));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.service.metadata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.MediaType;
+
+import org.apache.knox.gateway.config.GatewayConfig;
+import org.apache.knox.gateway.service.definition.Metadata;
+import org.apache.knox.gateway.service.definition.ServiceDefinition;
+import org.apache.knox.gateway.service.definition.ServiceDefinitionPair;
+import org.apache.knox.gateway.services.registry.ServiceDefinitionRegistry;
+import org.apache.knox.gateway.topology.Service;
+import org.apache.knox.gateway.topology.Topology;
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TopologyInformationCacheTest {
+
+  private final AtomicLong revision = new AtomicLong(1);
+  private final AtomicReference<String> shortDescription = new AtomicReference<>("Hadoop Distributed File System");
+  private final AtomicInteger lookups = new AtomicInteger();
+  private final List<Topology> topologies = new ArrayList<>();
+  private final TopologyInformationCache cache = new TopologyInformationCache();
+  private ServiceDefinitionRegistry registry;
+  private GatewayConfig config;
+
+  @Before
+  public void setUp() {
+    registry = EasyMock.createNiceMock(ServiceDefinitionRegistry.class);
+    EasyMock.expect(registry.getRevision()).andAnswer(revision::get).anyTimes();
+    EasyMock.expect(registry.getServiceDefinition(EasyMock.anyString(), EasyMock.<String>anyObject())).andAnswer(() -> {
+      lookups.incrementAndGet();
+      return Optional.of(createServiceDefinition((String) EasyMock.getCurrentArguments()[0]));
+    }).anyTimes();
+    EasyMock.replay(registry);
+
+    config = EasyMock.createNiceMock(GatewayConfig.class);
+    EasyMock.expect(config.getGatewayPath()).andReturn("gateway").anyTimes();
+    EasyMock.expect(config.getHiddenTopologiesOnHomepage()).andReturn(Collections.singleton("hidden")).anyTimes();
+    EasyMock.expect(config.getPinnedTopologiesOnHomepage()).andReturn(Collections.emptySet()).anyTimes();
+    EasyMock.replay(config);
+
+    topologies.add(createTopology("sandbox", "http://localhost:50070/webhdfs"));
+  }
+
+  @Test
+  public void testUnchangedTopologiesAreServedFromTheCache() {
+    final long version = cache.refresh(topologies, registry);
+    final TopologyInformationCache.RenderedTopologies rendered = render(version, null, "localhost");
+    assertEquals(1, lookups.get());
+
+    assertEquals(version, cache.refresh(topologies, registry));
+    assertSame(rendered, render(version, null, "localhost"));
+    assertEquals(1, lookups.get());
+    assertTrue(content(rendered).contains("http://localhost:50070/webhdfs"));
+  }
+
+  @Test
+  public void testAddedTopologyInvalidatesTheCache() {
+    final TopologyInformationCache.RenderedTopologies before = render(cache.refresh(topologies, registry), null, "localhost");
+
+    topologies.add(createTopology("production", "http://namenode:50070/webhdfs"));
+    final TopologyInformationCache.RenderedTopologies after = render(cache.refresh(topologies, registry), null, "localhost");
+
+    assertNotEquals(before.getEntityTag(), after.getEntityTag());
+    assertFalse(content(before).contains("production"));
+    assertTrue(content(after).contains("production"));
+    // the unchanged topology was not looked up again
+    assertEquals(2, lookups.get());
+  }
+
+  @Test
+  public void testRedeployedTopologyInvalidatesTheCache() {
+    final TopologyInformationCache.RenderedTopologies before = render(cache.refresh(topologies, registry), null, "localhost");
+
+    topologies.set(0, createTopology("sandbox", "http://namenode:50070/webhdfs"));
+    final TopologyInformationCache.RenderedTopologies after = render(cache.refresh(topologies, registry), null, "localhost");
+
+    assertNotEquals(before.getEntityTag(), after.getEntityTag());
+    assertFalse(content(after).contains("http://localhost:50070/webhdfs"));
+    assertTrue(content(after).contains("http://namenode:50070/webhdfs"));
+  }
+
+  @Test
+  public void testDeletedTopologyInvalidatesTheCache() {
+    topologies.add(createTopology("production", "http://namenode:50070/webhdfs"));
+    final TopologyInformationCache.RenderedTopologies before = render(cache.refresh(topologies, registry), null, "localhost");
+    final TopologyInformationCache.RenderedTopologies production = render(cache.refresh(topologies, registry), "production", "localhost");
+
+    topologies.remove(1);
+    final long version = cache.refresh(topologies, registry);
+    final TopologyInformationCache.RenderedTopologies after = render(version, null, "localhost");
+
+    assertNotEquals(before.getEntityTag(), after.getEntityTag());
+    assertTrue(content(before).contains("production"));
+    assertFalse(content(after).contains("production"));
+    assertNotEquals(production.getEntityTag(), render(version, "production", "localhost").getEntityTag());
+  }
+
+  @Test
+  public void testChangedServiceDefinitionsInvalidateTheCache() {
+    final TopologyInformationCache.RenderedTopologies before = render(cache.refresh(topologies, registry), null, "localhost");
+
+    shortDescription.set("Updated description");
+    revision.incrementAndGet();
+    final TopologyInformationCache.RenderedTopologies after = render(cache.refresh(topologies, registry), null, "localhost");
+
+    assertNotEquals(before.getEntityTag(), after.getEntityTag());
+    assertTrue(content(after).contains("Updated description"));
+    assertEquals(2, lookups.get());
+  }
+
+  @Test
+  public void testResponsesDependOnTheRequest() {
+    final long version = cache.refresh(topologies, registry);
+    final TopologyInformationCache.RenderedTopologies xml = render(version, null, "localhost");
+
+    assertEquals(xml.getEntityTag(), render(version, null, "localhost").getEntityTag());
+    assertNotEquals(xml.getEntityTag(), render(version, null, "knox.example.com").getEntityTag());
+    assertTrue(content(render(version, null, "knox.example.com")).contains("knox.example.com"));
+    final TopologyInformationCache.RenderedTopologies json = cache.getTopologies(version, null, createRequest("localhost"), config,
+        MediaType.APPLICATION_JSON_TYPE);
+    assertNotEquals(xml.getEntityTag(), json.getEntityTag());
+  }
+
+  @Test
+  public void testHiddenTopologiesAreNotRendered() {
+    topologies.add(createTopology("hidden", "http://namenode:50070/webhdfs"));
+    final long version = cache.refresh(topologies, registry);
+    assertFalse(content(render(version, null, "localhost")).contains("hidden"));
+    assertTrue(cache.getTopologyInformation("hidden", createRequest("localhost"), config).getTopologies().isEmpty());
+  }
+
+  private TopologyInformationCache.RenderedTopologies render(long version, String topologyName, String serverName) {
+    return cache.getTopologies(version, topologyName, createRequest(serverName), config, MediaType.APPLICATION_XML_TYPE);
+  }
+
+  private static String content(TopologyInformationCache.RenderedTopologies rendered) {
+    return new String(rendered.getContent(), StandardCharsets.UTF_8);
+  }
+
+  private static HttpServletRequest createRequest(String serverName) {
+    final HttpServletRequest request = EasyMock.createNiceMock(HttpServletRequest.class);
+    EasyMock.expect(request.getScheme()).andReturn("https").anyTimes();
+    EasyMock.expect(request.getServerName()).andReturn(serverName).anyTimes();
+    EasyMock.expect(request.getServerPort()).andReturn(8443).anyTimes();
+    EasyMock.replay(request);
+    return request;
+  }
+
+  private static Topology createTopology(String name, String url) {
+    final Service service = new Service();
+    service.setRole("WEBHDFS");
+    service.addUrl(url);
+    final Topology topology = new Topology();
+    topology.setName(name);
+    topology.addService(service);
+    return topology;
+  }
+
+  private ServiceDefinitionPair createServiceDefinition(String role) {
+    final Metadata metadata = new Metadata();
+    metadata.setType("API");
+    metadata.setContext("{{BACKEND_HOST}}/webhdfs");
+    metadata.setShortDesc(shortDescription.get());
+    metadata.setDescription(shortDescription.get());
+    final ServiceDefinition serviceDefinition = new ServiceDefinition();
+    serviceDefinition.setRole(role);
+    serviceDefinition.setName(role.toLowerCase(Locale.ROOT));
+    serviceDefinition.setVersion("2.7.0");
+    serviceDefinition.setMetadata(metadata);
+    return new ServiceDefinitionPair(serviceDefinition, null);
+  }
+}
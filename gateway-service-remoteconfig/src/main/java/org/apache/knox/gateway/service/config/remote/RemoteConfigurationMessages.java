@@ -35,6 +35,9 @@ public interface RemoteConfigurationMessages {
     @Message(level = MessageLevel.ERROR, text = "An error occurred interacting with the remote configuration registry : {0}")
     void errorInteractingWithRemoteConfigRegistry(@StackTrace(level = MessageLevel.DEBUG) Exception e);
 
+    @Message(level = MessageLevel.WARN, text = "Failed to apply {0} change(s) to the remote configuration registry in a single transaction, applying them one by one : {1}")
+    void errorApplyingRemoteConfigRegistryTransaction(int size, @StackTrace(level = MessageLevel.DEBUG) Exception e);
+
     @Message(level = MessageLevel.ERROR, text = "An error occurred handling the ACL for remote configuration {0} : {1}")
     void errorHandlingRemoteConfigACL(String path,
                                       @StackTrace(level = MessageLevel.DEBUG) Exception e);
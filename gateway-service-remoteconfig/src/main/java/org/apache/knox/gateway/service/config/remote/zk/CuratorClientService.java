@@ -19,6 +19,8 @@ package org.apache.knox.gateway.service.config.remote.zk;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
 import org.apache.curator.framework.api.ACLProvider;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.curator.framework.api.transaction.CuratorOp;
 import org.apache.curator.framework.imps.DefaultACLProvider;
 import org.apache.curator.framework.recipes.cache.ChildData;
 import org.apache.curator.framework.recipes.cache.NodeCache;
@@ -38,6 +40,7 @@ import org.apache.knox.gateway.services.config.client.RemoteConfigurationRegistr
 import org.apache.knox.gateway.services.config.client.RemoteConfigurationRegistryClient.ChildEntryListener;
 import org.apache.knox.gateway.services.config.client.RemoteConfigurationRegistryClient.EntryListener;
 import org.apache.knox.gateway.services.security.AliasService;
+import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.ZooDefs;
 import org.apache.zookeeper.client.ZKClientConfig;
 import org.apache.zookeeper.data.ACL;
@@ -47,9 +50,13 @@ import org.apache.zookeeper.data.Stat;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * RemoteConfigurationRegistryClientService implementation that employs the Curator ZooKeeper client framework.
@@ -160,12 +167,17 @@ class CuratorClientService implements ZooKeeperClientService {
 
     private static final class ClientAdapter implements RemoteConfigurationRegistryClient {
 
+        // Keeps each multi-op request well below the default ZooKeeper request size limit
+        private static final int MAX_TRANSACTION_OPERATIONS = 500;
+
         private CuratorFramework delegate;
 
         private RemoteConfigurationRegistryConfig config;
 
         private Map<String, NodeCache> entryNodeCaches = new HashMap<>();
 
+        private Map<String, List<PathChildrenCache>> childEntryCaches = new HashMap<>();
+
         ClientAdapter(CuratorFramework delegate, RemoteConfigurationRegistryConfig config) {
             this.delegate = delegate;
             this.config = config;
@@ -249,6 +261,7 @@ class CuratorClientService implements ZooKeeperClientService {
             PathChildrenCache childCache = new PathChildrenCache(delegate, path, false);
             childCache.getListenable().addListener(new ChildEntryListenerAdapter(this, listener));
             childCache.start();
+            childEntryCaches.computeIfAbsent(path, p -> new ArrayList<>()).add(childCache);
         }
 
         @Override
@@ -265,6 +278,12 @@ class CuratorClientService implements ZooKeeperClientService {
             if (nodeCache != null) {
                 nodeCache.close();
             }
+            List<PathChildrenCache> childCaches = childEntryCaches.remove(path);
+            if (childCaches != null) {
+                for (PathChildrenCache childCache : childCaches) {
+                    childCache.close();
+                }
+            }
         }
 
         @Override
@@ -296,6 +315,57 @@ class CuratorClientService implements ZooKeeperClientService {
             return result;
         }
 
+        @Override
+        public CompletableFuture<EntryVersion> getEntryVersionAsync(String path) {
+            CompletableFuture<EntryVersion> result = new CompletableFuture<>();
+            try {
+                delegate.checkExists().inBackground((client, event) -> {
+                    if (completeIfFailed(result, event)) {
+                        return;
+                    }
+                    result.complete(event.getStat() != null ? new StatVersionAdapter(event.getStat()) : null);
+                }).forPath(path);
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+            return result;
+        }
+
+        @Override
+        public CompletableFuture<EntryData> getEntryDataAsync(String path) {
+            CompletableFuture<EntryData> result = new CompletableFuture<>();
+            try {
+                delegate.getData().inBackground((client, event) -> {
+                    if (completeIfFailed(result, event)) {
+                        return;
+                    }
+                    result.complete(new EntryDataAdapter(event.getData(), event.getStat()));
+                }).forPath(path);
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+            return result;
+        }
+
+        /**
+         * Completes the future for a background operation that did not succeed; with null if the node does not exist,
+         * and exceptionally for any other error.
+         *
+         * @return true, if the future was completed
+         */
+        private static boolean completeIfFailed(CompletableFuture<?> result, CuratorEvent event) {
+            KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+            if (code == KeeperException.Code.OK) {
+                return false;
+            }
+            if (code == KeeperException.Code.NONODE) {
+                result.complete(null);
+            } else {
+                result.completeExceptionally(KeeperException.create(code, event.getPath()));
+            }
+            return true;
+        }
+
         @Override
         public void createEntry(String path) {
             createEntry(path, null);
@@ -353,6 +423,75 @@ class CuratorClientService implements ZooKeeperClientService {
             }
         }
 
+        @Override
+        public void setEntriesData(Map<String, String> entries) {
+            try {
+                final Map<String, Set<String>> childrenByParent = new HashMap<>();
+                final List<CuratorOp> operations = new ArrayList<>();
+                for (Map.Entry<String, String> entry : entries.entrySet()) {
+                    final String path = entry.getKey();
+                    final byte[] dataBytes = entry.getValue() == null ? new byte[0] : entry.getValue().getBytes(StandardCharsets.UTF_8);
+                    if (getSiblingNames(childrenByParent, path).contains(getEntryName(path))) {
+                        operations.add(delegate.transactionOp().setData().forPath(path, dataBytes));
+                    } else {
+                        operations.add(delegate.transactionOp().create().forPath(path, dataBytes));
+                    }
+                }
+                commit(operations);
+            } catch (Exception e) {
+                log.errorApplyingRemoteConfigRegistryTransaction(entries.size(), e);
+                // Fall back to writing the entries one by one
+                RemoteConfigurationRegistryClient.super.setEntriesData(entries);
+            }
+        }
+
+        @Override
+        public void deleteEntries(Collection<String> paths) {
+            try {
+                final Map<String, Set<String>> childrenByParent = new HashMap<>();
+                final List<CuratorOp> operations = new ArrayList<>();
+                for (String path : paths) {
+                    if (getSiblingNames(childrenByParent, path).contains(getEntryName(path))) {
+                        operations.add(delegate.transactionOp().delete().forPath(path));
+                    }
+                }
+                commit(operations);
+            } catch (Exception e) {
+                log.errorApplyingRemoteConfigRegistryTransaction(paths.size(), e);
+                // Fall back to deleting the entries one by one
+                RemoteConfigurationRegistryClient.super.deleteEntries(paths);
+            }
+        }
+
+        /**
+         * Lists the children of the parent of the given entry, once per parent.
+         */
+        private Set<String> getSiblingNames(Map<String, Set<String>> childrenByParent, String path) throws Exception {
+            final String parentPath = path.substring(0, Math.max(path.lastIndexOf('/'), 1));
+            Set<String> children = childrenByParent.get(parentPath);
+            if (children == null) {
+                children = new HashSet<>();
+                if (delegate.checkExists().forPath(parentPath) != null) {
+                    children.addAll(delegate.getChildren().forPath(parentPath));
+                }
+                childrenByParent.put(parentPath, children);
+            }
+            return children;
+        }
+
+        private static String getEntryName(String path) {
+            return path.substring(path.lastIndexOf('/') + 1);
+        }
+
+        /**
+         * Applies the given operations with as few multi-op requests as possible.
+         */
+        private void commit(List<CuratorOp> operations) throws Exception {
+            for (int from = 0; from < operations.size(); from += MAX_TRANSACTION_OPERATIONS) {
+                delegate.transaction().forOperations(operations.subList(from, Math.min(from + MAX_TRANSACTION_OPERATIONS, operations.size())));
+            }
+        }
+
         @Override
         public void close() throws Exception {
             delegate.close();
@@ -454,6 +593,52 @@ class CuratorClientService implements ZooKeeperClientService {
         }
     }
 
+    /**
+     * Entry version adapter
+     */
+    private static final class StatVersionAdapter implements RemoteConfigurationRegistryClient.EntryVersion {
+        private final long mzxid;
+        private final int version;
+
+        StatVersionAdapter(Stat stat) {
+            this.mzxid = stat.getMzxid();
+            this.version = stat.getVersion();
+        }
+
+        @Override
+        public long getModifiedTransactionId() {
+            return mzxid;
+        }
+
+        @Override
+        public int getVersion() {
+            return version;
+        }
+    }
+
+    /**
+     * Entry data adapter
+     */
+    private static final class EntryDataAdapter implements RemoteConfigurationRegistryClient.EntryData {
+        private final byte[] data;
+        private final RemoteConfigurationRegistryClient.EntryVersion version;
+
+        EntryDataAdapter(byte[] data, Stat stat) {
+            this.data = data != null ? data : new byte[0];
+            this.version = stat != null ? new StatVersionAdapter(stat) : null;
+        }
+
+        @Override
+        public byte[] getData() {
+            return data;
+        }
+
+        @Override
+        public RemoteConfigurationRegistryClient.EntryVersion getVersion() {
+            return version;
+        }
+    }
+
     /**
      * ACL adapter
      */
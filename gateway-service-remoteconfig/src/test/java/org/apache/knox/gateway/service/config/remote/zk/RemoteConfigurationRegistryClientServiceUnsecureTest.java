@@ -21,6 +21,8 @@ import static org.junit.Assert.assertNotNull;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.test.TestingCluster;
@@ -112,4 +114,54 @@ public class RemoteConfigurationRegistryClientServiceUnsecureTest extends Remote
             doTestZooKeeperClient(setupClient, REGISTRY_CLIENT_NAME_2, clientService, false);
         }
     }
+
+    /*
+     * Test writing and deleting several entries with multi-op requests.
+     */
+    @Test
+    public void testUnsecuredZooKeeperMultipleEntries() throws Exception {
+        final String REGISTRY_CLIENT_NAME = "zkclient";
+        final String PARENT = "/batch";
+
+        try (TestingCluster zkCluster = setupAndStartSecureTestZooKeeper(null, null)) {
+            GatewayConfig config = EasyMock.createNiceMock(GatewayConfig.class);
+            EasyMock.expect(config.getRemoteRegistryConfiguration(REGISTRY_CLIENT_NAME))
+                .andReturn(GatewayConfig.REMOTE_CONFIG_REGISTRY_TYPE + "=" + ZooKeeperClientService.TYPE + ";" +
+                               GatewayConfig.REMOTE_CONFIG_REGISTRY_ADDRESS + "=" + zkCluster.getConnectString())
+                .anyTimes();
+            EasyMock.expect(config.getRemoteRegistryConfigurationNames())
+                .andReturn(Collections.singletonList(REGISTRY_CLIENT_NAME)).anyTimes();
+            EasyMock.replay(config);
+
+            RemoteConfigurationRegistryClientService clientService =
+                RemoteConfigurationRegistryClientServiceFactory.newInstance(config);
+            clientService.setAliasService(null);
+            clientService.init(config, null);
+            clientService.start();
+
+            RemoteConfigurationRegistryClient client = clientService.get(REGISTRY_CLIENT_NAME);
+            assertNotNull(client);
+            client.createEntry(PARENT);
+
+            final Map<String, String> entries = new LinkedHashMap<>();
+            entries.put(PARENT + "/a", "1");
+            entries.put(PARENT + "/b", "2");
+            client.setEntriesData(entries);
+            assertEquals("1", client.getEntryData(PARENT + "/a"));
+            assertEquals("2", client.getEntryData(PARENT + "/b"));
+
+            // existing entries are updated, new ones are created
+            entries.clear();
+            entries.put(PARENT + "/a", "3");
+            entries.put(PARENT + "/c", "4");
+            client.setEntriesData(entries);
+            assertEquals("3", client.getEntryData(PARENT + "/a"));
+            assertEquals("2", client.getEntryData(PARENT + "/b"));
+            assertEquals("4", client.getEntryData(PARENT + "/c"));
+
+            // entries which do not exist are ignored
+            client.deleteEntries(Arrays.asList(PARENT + "/a", PARENT + "/c", PARENT + "/missing"));
+            assertEquals(Collections.singletonList("b"), client.listChildEntries(PARENT));
+        }
+    }
 }
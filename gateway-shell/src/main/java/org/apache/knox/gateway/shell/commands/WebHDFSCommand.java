@@ -36,6 +36,7 @@ import org.apache.knox.gateway.shell.KnoxSession;
 import org.apache.knox.gateway.shell.KnoxShellException;
 import org.apache.knox.gateway.shell.hdfs.Hdfs;
 import org.apache.knox.gateway.shell.hdfs.Status.Response;
+import org.apache.knox.gateway.shell.hdfs.Transfer;
 import org.apache.knox.gateway.shell.table.KnoxShellTable;
 import org.apache.knox.gateway.util.JsonUtils;
 import org.codehaus.groovy.tools.shell.Groovysh;
@@ -50,6 +51,8 @@ public class WebHDFSCommand extends AbstractKnoxShellCommand {
       "  :fs cat {target-path} \n" +
       "  :fs get {from-path} {to-path} \n" +
       "  :fs put {from-path} {tp-path} \n" +
+      "  :fs upload {from-path} {to-path} [threads] \n" +
+      "  :fs download {from-path} {to-path} [threads] \n" +
       "  :fs rm {target-path} \n" +
       "  :fs mkdir {dir-path} \n";
   private Map<String, KnoxSession> sessions = new HashMap<>();
@@ -92,6 +95,17 @@ public class WebHDFSCommand extends AbstractKnoxShellCommand {
 
       return put(mounts, localFile, path, permission);
     }
+    else if (args.get(0).equalsIgnoreCase("upload") || args.get(0).equalsIgnoreCase("download")) {
+      // Hdfs.upload( session ).from( localDir ).to( dataDir ).threads( 8 ).now()
+      // :fs upload from-path to-path [threads]
+      // :fs download from-path to-path [threads]
+      boolean upload = args.get(0).equalsIgnoreCase("upload");
+      int threads = Transfer.DEFAULT_THREADS;
+      if (args.size() >= 4) {
+        threads = Integer.parseInt(args.get(3));
+      }
+      return transfer(mounts, upload, args.get(1), args.get(2), threads);
+    }
     else if (args.get(0).equalsIgnoreCase("rm")) {
       // Hdfs.rm( session ).file( dataFile ).now()
       // :fs rm target-path
@@ -248,6 +262,25 @@ public class WebHDFSCommand extends AbstractKnoxShellCommand {
     return "Successfully put: " + localFile + " to: " + path;
   }
 
+  private String transfer(Map<String, String> mounts, boolean upload, String from, String to, int threads) {
+    String path = upload ? to : from;
+    String mountPoint = determineMountPoint(path);
+    KnoxSession session = getSessionForMountPoint(mounts, mountPoint);
+    if (session == null) {
+      return "No session established for mountPoint: " + mountPoint + " Use :fs mount {topology-url} {mountpoint-name}";
+    }
+    String targetPath = determineTargetPath(path, mountPoint);
+    try {
+      Transfer.Request request = upload
+          ? Hdfs.upload(session).from(from).to(targetPath)
+          : Hdfs.download(session).from(targetPath).to(to);
+      return request.threads(threads).now().toString();
+    } catch (KnoxShellException e) {
+      e.printStackTrace();
+      return "Exception ocurred: " + e.getMessage();
+    }
+  }
+
   private boolean exists(KnoxSession session, String path) {
     boolean rc = false;
     try {
@@ -51,6 +51,10 @@ println "Status=" + future.get().statusCode
 
 Hdfs.get(hadoop).file( outputFile ).from( "/tmp/test/input/LICENSE" ).now()
 
+println Hdfs.upload(hadoop).from( "samples" ).to( "/tmp/test/samples" ).threads( 8 ).now()
+
+println Hdfs.download(hadoop).from( "/tmp/test/samples" ).to( "samples-copy" ).threads( 8 ).now()
+
 hadoop.shutdown( 10, SECONDS );
 
 
@@ -51,4 +51,12 @@ public class Hdfs {
     return new Mkdir.Request( session );
   }
 
+  public static Transfer.Request upload( KnoxSession session ) {
+    return new Transfer.Request( session, Transfer.Direction.UPLOAD );
+  }
+
+  public static Transfer.Request download( KnoxSession session ) {
+    return new Transfer.Request( session, Transfer.Direction.DOWNLOAD );
+  }
+
 }
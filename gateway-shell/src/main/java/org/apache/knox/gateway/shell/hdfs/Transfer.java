@@ -0,0 +1,686 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.shell.hdfs;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+import org.apache.knox.gateway.shell.AbstractRequest;
+import org.apache.knox.gateway.shell.ErrorResponse;
+import org.apache.knox.gateway.shell.HttpDelete;
+import org.apache.knox.gateway.shell.KnoxSession;
+import org.apache.knox.gateway.shell.KnoxShellException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Copies files and directory trees between the local file system and HDFS with
+ * a bounded pool of threads.
+ *
+ * Files larger than the chunk size are split. An upload creates the target
+ * with the first chunk and every other chunk as a part file next to it, all of
+ * them in parallel, and concatenates the parts to the target with CONCAT. When
+ * the cluster rejects the concatenation, for example because the chunk size is
+ * not a multiple of the block size, the remaining chunks are appended to the
+ * target in order with APPEND instead. A download reads the ranges of the
+ * chunks with OPEN in parallel into a partial file that is moved into place
+ * once complete.
+ *
+ * Completed chunks and files are recorded in a {@link TransferCheckpoint}, so
+ * that running an interrupted transfer again only copies what is missing. The
+ * checkpoint is removed when the transfer completes.
+ *
+ * Unless overwrite is set, an upload checks that its targets do not exist when
+ * it is planned, and records them in the checkpoint before copying anything.
+ * The first chunk is always created with overwrite, so that retrying it, or
+ * resuming the transfer, replaces whatever an earlier attempt wrote.
+ */
+public class Transfer {
+  static final long DEFAULT_CHUNK_SIZE = 128L * 1024 * 1024;
+  public static final int DEFAULT_THREADS = 4;
+  static final int DEFAULT_RETRIES = 3;
+  static final String PART_SUFFIX = ".knoxpart";
+
+  private static final long RETRY_INTERVAL_MILLIS = 100;
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  enum Direction {
+    UPLOAD, DOWNLOAD
+  }
+
+  public static class Request extends AbstractRequest<Response> {
+
+    private final Direction direction;
+    private String from;
+    private String to;
+    private int threads = DEFAULT_THREADS;
+    private long chunkSize = DEFAULT_CHUNK_SIZE;
+    private int retries = DEFAULT_RETRIES;
+    private boolean overwrite;
+    private int permission = 755;
+    private String checkpoint;
+
+    Request( KnoxSession session, Direction direction ) {
+      super( session );
+      this.direction = direction;
+    }
+
+    /**
+     * @param from the local file or directory to upload, or the HDFS file or directory to download
+     */
+    public Request from( String from ) {
+      this.from = from;
+      return this;
+    }
+
+    /**
+     * @param to the HDFS path to upload to, or the local path to download to
+     */
+    public Request to( String to ) {
+      this.to = to;
+      return this;
+    }
+
+    public Request threads( int threads ) {
+      this.threads = threads;
+      return this;
+    }
+
+    public Request chunkSize( long chunkSize ) {
+      this.chunkSize = chunkSize;
+      return this;
+    }
+
+    public Request retries( int retries ) {
+      this.retries = retries;
+      return this;
+    }
+
+    public Request overwrite( boolean overwrite ) {
+      this.overwrite = overwrite;
+      return this;
+    }
+
+    public Request permission( int permission ) {
+      this.permission = permission;
+      return this;
+    }
+
+    /**
+     * @param checkpoint the local file recording the progress of this transfer, by default a
+     *                   file in ~/.knoxshell/transfers named after the session and the paths
+     */
+    public Request checkpoint( String checkpoint ) {
+      this.checkpoint = checkpoint;
+      return this;
+    }
+
+    @Override
+    protected Callable<Response> callable() {
+      return () -> {
+        if( threads < 1 || chunkSize < 1 || retries < 0 ) {
+          throw new IllegalArgumentException( "Invalid transfer options" );
+        }
+        return new Job( new TransferCheckpoint( checkpointFile() ) ).run();
+      };
+    }
+
+    private Path checkpointFile() {
+      if( checkpoint != null ) {
+        return Paths.get( checkpoint );
+      }
+      final String id = DigestUtils.sha256Hex( direction + "\n" + getSession().base() + "\n" + from + "\n" + to );
+      return Paths.get( System.getProperty( "user.home" ), ".knoxshell", "transfers", id + ".properties" );
+    }
+
+    /* A file to copy and the chunks of it that are still missing */
+    private class FileTransfer {
+      final String key;
+      final String source;
+      final String target;
+      final long length;
+      final int chunks;
+      final boolean started;
+      final BitSet completed;
+      final AtomicInteger remaining;
+
+      FileTransfer( TransferCheckpoint checkpoint, String key, String source, String target, long length, long modified ) {
+        this.key = key;
+        this.source = source;
+        this.target = target;
+        this.length = length;
+        this.chunks = (int) Math.max( 1, ( length + chunkSize - 1 ) / chunkSize );
+        this.started = checkpoint.contains( key, length, modified, chunkSize );
+        this.completed = checkpoint.completed( key, length, modified, chunkSize, chunks );
+        this.remaining = new AtomicInteger( chunks - completed.cardinality() );
+      }
+
+      long offset( int chunk ) {
+        return chunk * chunkSize;
+      }
+
+      long length( int chunk ) {
+        return Math.min( chunkSize, length - offset( chunk ) );
+      }
+    }
+
+    private class Job {
+      private final TransferCheckpoint checkpoint;
+      private final List<FileTransfer> files = new ArrayList<>();
+      private final AtomicLong bytes = new AtomicLong();
+      private long resumedBytes;
+
+      Job( TransferCheckpoint checkpoint ) {
+        this.checkpoint = checkpoint;
+      }
+
+      Response run() throws Exception {
+        if( direction == Direction.UPLOAD ) {
+          planUpload();
+          // the targets are ours from now on, even if no chunk completes
+          checkpoint.save();
+        } else {
+          planDownload();
+        }
+        final ExecutorService pool = Executors.newFixedThreadPool( threads );
+        try {
+          final List<Future<Void>> futures = new ArrayList<>();
+          for( FileTransfer file : files ) {
+            if( checkpoint.isDone( file.key ) ) {
+              resumedBytes += file.length;
+              continue;
+            }
+            if( file.remaining.get() == 0 ) {
+              futures.add( pool.submit( () -> finish( file ) ) );
+            }
+            for( int chunk = 0; chunk < file.chunks; chunk++ ) {
+              if( file.completed.get( chunk ) ) {
+                resumedBytes += file.length( chunk );
+              } else {
+                final int index = chunk;
+                futures.add( pool.submit( () -> copy( file, index ) ) );
+              }
+            }
+          }
+          for( Future<Void> future : futures ) {
+            future.get();
+          }
+        } catch( ExecutionException e ) {
+          pool.shutdownNow();
+          throw new KnoxShellException( "Transfer failed, run it again to resume: " + e.getCause().getMessage(), e.getCause() );
+        } finally {
+          pool.shutdownNow();
+          pool.awaitTermination( 1, TimeUnit.MINUTES );
+        }
+        checkpoint.delete();
+        return new Response( files.size(), bytes.get(), resumedBytes );
+      }
+
+      private void planUpload() throws Exception {
+        final Path root = Paths.get( from );
+        if( !Files.isDirectory( root ) ) {
+          add( root.getFileName().toString(), root, to );
+          return;
+        }
+        final List<Path> paths;
+        try( Stream<Path> walk = Files.walk( root ) ) {
+          paths = walk.sorted().collect( Collectors.toList() );
+        }
+        for( Path path : paths ) {
+          final String relative = root.relativize( path ).toString().replace( File.separatorChar, '/' );
+          final String target = relative.isEmpty() ? to : to + "/" + relative;
+          if( Files.isDirectory( path ) ) {
+            mkdirs( target );
+          } else {
+            add( relative, path, target );
+          }
+        }
+      }
+
+      private void add( String key, Path source, String target ) throws Exception {
+        final FileTransfer file = new FileTransfer( checkpoint, key, source.toString(), target,
+            Files.size( source ), Files.getLastModifiedTime( source ).toMillis() );
+        if( !overwrite && !file.started && fileStatus( target ) != null ) {
+          throw new FileAlreadyExistsException( target );
+        }
+        files.add( file );
+      }
+
+      private void planDownload() throws Exception {
+        final JsonNode status = fileStatus( from );
+        if( status == null ) {
+          throw new KnoxShellException( "File not found: " + from );
+        }
+        if( "DIRECTORY".equals( status.path( "type" ).asText() ) ) {
+          planDownload( from, Paths.get( to ), "" );
+        } else {
+          add( Paths.get( from ).getFileName().toString(), from, Paths.get( to ), status );
+        }
+      }
+
+      private void planDownload( String directory, Path local, String prefix ) throws Exception {
+        Files.createDirectories( local );
+        for( JsonNode status : listStatus( directory ) ) {
+          final String name = status.path( "pathSuffix" ).asText();
+          if( "DIRECTORY".equals( status.path( "type" ).asText() ) ) {
+            planDownload( directory + "/" + name, local.resolve( name ), prefix + name + "/" );
+          } else {
+            add( prefix + name, directory + "/" + name, local.resolve( name ), status );
+          }
+        }
+      }
+
+      private void add( String key, String source, Path target, JsonNode status ) throws IOException {
+        final FileTransfer file = new FileTransfer( checkpoint, key, source, target.toString(),
+            status.path( "length" ).asLong(), status.path( "modificationTime" ).asLong() );
+        if( !checkpoint.isDone( key ) ) {
+          if( !overwrite && Files.exists( target ) ) {
+            throw new FileAlreadyExistsException( target.toString() );
+          }
+          if( !file.completed.isEmpty() && !Files.exists( partial( file ) ) ) {
+            // the chunks were written to a partial file that is gone
+            file.completed.clear();
+            file.remaining.set( file.chunks );
+          }
+        }
+        files.add( file );
+      }
+
+      private Void copy( FileTransfer file, int chunk ) throws Exception {
+        retry( () -> {
+          if( direction == Direction.UPLOAD ) {
+            upload( file, chunk );
+          } else {
+            download( file, chunk );
+          }
+          return null;
+        } );
+        bytes.addAndGet( file.length( chunk ) );
+        checkpoint.chunkDone( file.key, chunk );
+        if( file.remaining.decrementAndGet() == 0 ) {
+          finish( file );
+        }
+        return null;
+      }
+
+      private Void finish( FileTransfer file ) throws Exception {
+        retry( () -> {
+          if( direction == Direction.UPLOAD ) {
+            finishUpload( file );
+          } else {
+            finishDownload( file );
+          }
+          return null;
+        } );
+        checkpoint.fileDone( file.key );
+        return null;
+      }
+
+      private void upload( FileTransfer file, int chunk ) throws Exception {
+        final HttpEntity entity = new FileRangeEntity( new File( file.source ), file.offset( chunk ), file.length( chunk ) );
+        if( chunk == 0 ) {
+          // an existing target was rejected when planning, so this only replaces an earlier attempt
+          create( file.target, entity, true );
+        } else {
+          create( part( file.target, chunk ), entity, true );
+        }
+      }
+
+      private void finishUpload( FileTransfer file ) throws Exception {
+        long remote = fileLength( file.target );
+        if( remote != file.length && file.chunks > 1 && remote == file.length( 0 ) ) {
+          final List<String> parts = new ArrayList<>();
+          for( int chunk = 1; chunk < file.chunks; chunk++ ) {
+            parts.add( part( file.target, chunk ) );
+          }
+          try {
+            concat( file.target, parts );
+            remote = file.length;
+          } catch( ErrorResponse e ) {
+            EntityUtils.consumeQuietly( e.getResponse().getEntity() );
+            if( e.getResponse().getStatusLine().getStatusCode() >= HttpStatus.SC_INTERNAL_SERVER_ERROR ) {
+              throw e;
+            }
+          }
+        }
+        // appends whatever the concatenation did not add, resuming an interrupted append
+        for( int chunk = 1; chunk < file.chunks && remote != file.length; chunk++ ) {
+          if( remote == file.offset( chunk ) ) {
+            append( file.target, new FileRangeEntity( new File( file.source ), remote, file.length( chunk ) ) );
+            remote += file.length( chunk );
+            delete( part( file.target, chunk ) );
+          }
+        }
+        if( remote != file.length ) {
+          throw new IOException( String.format( Locale.ROOT, "%s has %d bytes instead of %d", file.target, remote, file.length ) );
+        }
+      }
+
+      private void download( FileTransfer file, int chunk ) throws Exception {
+        final Path partial = partial( file );
+        try( FileChannel out = FileChannel.open( partial, StandardOpenOption.WRITE, StandardOpenOption.CREATE ) ) {
+          if( file.length( chunk ) == 0 ) {
+            return;
+          }
+          final long offset = file.offset( chunk );
+          final long length = file.length( chunk );
+          try( CloseableHttpResponse response = open( file.source, offset, length );
+               ReadableByteChannel in = Channels.newChannel( response.getEntity().getContent() ) ) {
+            // positional writes, as the chunks after this one may not have been written yet
+            final ByteBuffer buffer = ByteBuffer.allocate( (int) Math.min( length, BUFFER_SIZE ) );
+            long copied = 0;
+            while( copied < length && in.read( buffer ) >= 0 ) {
+              buffer.flip();
+              while( buffer.hasRemaining() ) {
+                copied += out.write( buffer, offset + copied );
+              }
+              buffer.clear();
+            }
+            if( copied != length ) {
+              throw new IOException( String.format( Locale.ROOT, "Read %d bytes of %s at %d instead of %d",
+                  copied, file.source, offset, length ) );
+            }
+          }
+        }
+      }
+
+      private void finishDownload( FileTransfer file ) throws IOException {
+        final Path partial = partial( file );
+        if( Files.size( partial ) != file.length ) {
+          throw new IOException( String.format( Locale.ROOT, "%s has %d bytes instead of %d", partial, Files.size( partial ), file.length ) );
+        }
+        if( overwrite ) {
+          Files.move( partial, Paths.get( file.target ), StandardCopyOption.REPLACE_EXISTING );
+        } else {
+          Files.move( partial, Paths.get( file.target ) );
+        }
+      }
+
+      /* Retries failed requests, but not the ones the server rejected */
+      private void retry( Callable<Void> action ) throws Exception {
+        for( int attempt = 0; ; attempt++ ) {
+          try {
+            action.call();
+            return;
+          } catch( ErrorResponse e ) {
+            EntityUtils.consumeQuietly( e.getResponse().getEntity() );
+            if( attempt >= retries || e.getResponse().getStatusLine().getStatusCode() < HttpStatus.SC_INTERNAL_SERVER_ERROR ) {
+              throw e;
+            }
+          } catch( IOException | KnoxShellException e ) {
+            if( attempt >= retries ) {
+              throw e;
+            }
+          }
+          Thread.sleep( RETRY_INTERVAL_MILLIS * ( attempt + 1 ) );
+        }
+      }
+    }
+
+    private Path partial( FileTransfer file ) {
+      return Paths.get( file.target + PART_SUFFIX );
+    }
+
+    private String part( String target, int chunk ) {
+      final int slash = target.lastIndexOf( '/' );
+      return String.format( Locale.ROOT, "%s.%s%s-%05d", target.substring( 0, slash + 1 ), target.substring( slash + 1 ), PART_SUFFIX, chunk );
+    }
+
+    private void create( String path, HttpEntity entity, boolean overwrite ) throws Exception {
+      final URIBuilder uri = uri( Hdfs.SERVICE_PATH, path );
+      addQueryParam( uri, "op", "CREATE" );
+      addQueryParam( uri, "overwrite", overwrite );
+      addQueryParam( uri, "permission", permission );
+      redirectWithData( new HttpPut( uri.build() ), new HttpPut(), entity );
+    }
+
+    private void append( String path, HttpEntity entity ) throws Exception {
+      final URIBuilder uri = uri( Hdfs.SERVICE_PATH, path );
+      addQueryParam( uri, "op", "APPEND" );
+      redirectWithData( new HttpPost( uri.build() ), new HttpPost(), entity );
+    }
+
+    /* Sends the operation to the name node and the data to the data node it redirects to */
+    private void redirectWithData( HttpRequestBase nn, HttpEntityEnclosingRequestBase dn, HttpEntity entity ) throws Exception {
+      final String location;
+      try( CloseableHttpResponse response = execute( nn ) ) {
+        EntityUtils.consumeQuietly( response.getEntity() );
+        if( response.getStatusLine().getStatusCode() != HttpStatus.SC_TEMPORARY_REDIRECT ) {
+          throw new KnoxShellException( response.getStatusLine().toString() );
+        }
+        final Header[] h = response.getHeaders( "Location" );
+        if( h == null || h.length != 1 ) {
+          throw new KnoxShellException( "Invalid Location header." );
+        }
+        location = h[0].getValue();
+      }
+      dn.setURI( new URIBuilder( location ).build() );
+      dn.setEntity( entity );
+      try( CloseableHttpResponse response = execute( dn ) ) {
+        EntityUtils.consumeQuietly( response.getEntity() );
+      }
+    }
+
+    private void concat( String path, List<String> sources ) throws Exception {
+      final URIBuilder uri = uri( Hdfs.SERVICE_PATH, path );
+      addQueryParam( uri, "op", "CONCAT" );
+      addQueryParam( uri, "sources", String.join( ",", sources ) );
+      try( CloseableHttpResponse response = execute( new HttpPost( uri.build() ) ) ) {
+        EntityUtils.consumeQuietly( response.getEntity() );
+      }
+    }
+
+    private void delete( String path ) throws Exception {
+      final URIBuilder uri = uri( Hdfs.SERVICE_PATH, path );
+      addQueryParam( uri, "op", "DELETE" );
+      try( CloseableHttpResponse response = execute( new HttpDelete( uri.build() ) ) ) {
+        EntityUtils.consumeQuietly( response.getEntity() );
+      }
+    }
+
+    private void mkdirs( String path ) throws IOException, URISyntaxException {
+      final URIBuilder uri = uri( Hdfs.SERVICE_PATH, path );
+      addQueryParam( uri, "op", "MKDIRS" );
+      addQueryParam( uri, "permission", permission );
+      try( CloseableHttpResponse response = execute( new HttpPut( uri.build() ) ) ) {
+        EntityUtils.consumeQuietly( response.getEntity() );
+      }
+    }
+
+    private CloseableHttpResponse open( String path, long offset, long length ) throws Exception {
+      final URIBuilder uri = uri( Hdfs.SERVICE_PATH, path );
+      addQueryParam( uri, "op", "OPEN" );
+      addQueryParam( uri, "offset", offset );
+      addQueryParam( uri, "length", length );
+      return execute( new HttpGet( uri.build() ) );
+    }
+
+    /* @return the status of the path, or null if it does not exist */
+    private JsonNode fileStatus( String path ) throws Exception {
+      final URIBuilder uri = uri( Hdfs.SERVICE_PATH, path );
+      addQueryParam( uri, "op", "GETFILESTATUS" );
+      try( CloseableHttpResponse response = execute( new HttpGet( uri.build() ) ) ) {
+        return MAPPER.readTree( EntityUtils.toString( response.getEntity() ) ).path( "FileStatus" );
+      } catch( ErrorResponse e ) {
+        EntityUtils.consumeQuietly( e.getResponse().getEntity() );
+        if( e.getResponse().getStatusLine().getStatusCode() == HttpStatus.SC_NOT_FOUND ) {
+          return null;
+        }
+        throw e;
+      }
+    }
+
+    private long fileLength( String path ) throws Exception {
+      final JsonNode status = fileStatus( path );
+      return status == null ? -1 : status.path( "length" ).asLong();
+    }
+
+    private JsonNode listStatus( String path ) throws Exception {
+      final URIBuilder uri = uri( Hdfs.SERVICE_PATH, path );
+      addQueryParam( uri, "op", "LISTSTATUS" );
+      try( CloseableHttpResponse response = execute( new HttpGet( uri.build() ) ) ) {
+        return MAPPER.readTree( EntityUtils.toString( response.getEntity() ) ).path( "FileStatuses" ).path( "FileStatus" );
+      }
+    }
+  }
+
+  public static class Response {
+    private final int files;
+    private final long bytes;
+    private final long resumedBytes;
+
+    Response( int files, long bytes, long resumedBytes ) {
+      this.files = files;
+      this.bytes = bytes;
+      this.resumedBytes = resumedBytes;
+    }
+
+    /**
+     * @return the number of files of the transfer, including the ones completed before it was resumed
+     */
+    public int getFiles() {
+      return files;
+    }
+
+    /**
+     * @return the bytes copied by this run of the transfer
+     */
+    public long getBytes() {
+      return bytes;
+    }
+
+    /**
+     * @return the bytes copied before the transfer was resumed
+     */
+    public long getResumedBytes() {
+      return resumedBytes;
+    }
+
+    @Override
+    public String toString() {
+      return String.format( Locale.ROOT, "Transferred %d files, %d bytes (%d bytes resumed)", files, bytes + resumedBytes, resumedBytes );
+    }
+  }
+
+  /* A range of a local file as a repeatable request body */
+  static class FileRangeEntity extends AbstractHttpEntity {
+    private final File file;
+    private final long offset;
+    private final long length;
+
+    FileRangeEntity( File file, long offset, long length ) {
+      this.file = file;
+      this.offset = offset;
+      this.length = length;
+      setContentType( ContentType.APPLICATION_OCTET_STREAM.toString() );
+    }
+
+    @Override
+    public boolean isRepeatable() {
+      return true;
+    }
+
+    @Override
+    public long getContentLength() {
+      return length;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+      final InputStream in = Files.newInputStream( file.toPath() );
+      try {
+        long skipped = 0;
+        while( skipped < offset ) {
+          final long n = in.skip( offset - skipped );
+          if( n <= 0 ) {
+            throw new IOException( "Can not skip to " + offset + " of " + file );
+          }
+          skipped += n;
+        }
+      } catch( IOException e ) {
+        in.close();
+        throw e;
+      }
+      return new BoundedInputStream( in, length );
+    }
+
+    @Override
+    public void writeTo( OutputStream out ) throws IOException {
+      try( FileChannel in = FileChannel.open( file.toPath(), StandardOpenOption.READ ) ) {
+        final WritableByteChannel channel = Channels.newChannel( out );
+        long written = 0;
+        while( written < length ) {
+          final long n = in.transferTo( offset + written, length - written, channel );
+          if( n <= 0 ) {
+            throw new IOException( "Unexpected end of " + file );
+          }
+          written += n;
+        }
+      }
+    }
+
+    @Override
+    public boolean isStreaming() {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.shell.hdfs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Records which chunks of which files of a {@link Transfer} are complete, so
+ * that running the same transfer again after an interruption skips them.
+ *
+ * The file is a properties file keyed by the path of each file relative to the
+ * root of the transfer. Its value is the length and modification time of the
+ * source file and the chunk size when the transfer started, followed by either
+ * <code>done</code> or the indexes of the completed chunks. A file whose source
+ * changed or that is transferred with a different chunk size starts over.
+ * Every change is written to a temporary file first and moved into place.
+ */
+class TransferCheckpoint {
+  static final String DONE = "done";
+
+  private final Path file;
+  private final Properties entries = new Properties();
+
+  TransferCheckpoint(Path file) throws IOException {
+    this.file = file;
+    if (file != null && Files.exists(file)) {
+      try (InputStream in = Files.newInputStream(file)) {
+        entries.load(in);
+      }
+    }
+  }
+
+  /**
+   * @return true if the checkpoint has an entry for this version of the file,
+   *         that is an earlier run of the transfer planned it
+   */
+  synchronized boolean contains(String key, long length, long modified, long chunkSize) {
+    final String value = entries.getProperty(key);
+    return value != null && value.startsWith(prefix(length, modified, chunkSize));
+  }
+
+  /**
+   * @return the completed chunks of the file, all of them if the file is done,
+   *         none if the checkpoint has no entry for this version of the file
+   */
+  synchronized BitSet completed(String key, long length, long modified, long chunkSize, int chunks) {
+    final BitSet completed = new BitSet(chunks);
+    final String value = entries.getProperty(key);
+    final String prefix = prefix(length, modified, chunkSize);
+    if (value == null || !value.startsWith(prefix)) {
+      entries.setProperty(key, prefix);
+      return completed;
+    }
+    final String state = value.substring(prefix.length());
+    if (DONE.equals(state)) {
+      completed.set(0, chunks);
+    } else if (!state.isEmpty()) {
+      for (String chunk : state.split(",")) {
+        completed.set(Integer.parseInt(chunk));
+      }
+    }
+    return completed;
+  }
+
+  synchronized void chunkDone(String key, int chunk) throws IOException {
+    final String value = entries.getProperty(key);
+    entries.setProperty(key, value.endsWith(":") ? value + chunk : value + "," + chunk);
+    store();
+  }
+
+  synchronized void fileDone(String key) throws IOException {
+    final String value = entries.getProperty(key);
+    entries.setProperty(key, value.substring(0, value.lastIndexOf(':') + 1) + DONE);
+    store();
+  }
+
+  /* Records the files of a planned transfer before any of their chunks completes */
+  synchronized void save() throws IOException {
+    store();
+  }
+
+  synchronized boolean isDone(String key) {
+    final String value = entries.getProperty(key);
+    return value != null && value.endsWith(":" + DONE);
+  }
+
+  /* Removes the checkpoint once the whole transfer completed */
+  synchronized void delete() throws IOException {
+    entries.clear();
+    if (file != null) {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  private void store() throws IOException {
+    if (file == null) {
+      return;
+    }
+    if (file.getParent() != null) {
+      Files.createDirectories(file.getParent());
+    }
+    final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (OutputStream out = Files.newOutputStream(temp)) {
+      entries.store(out, "KnoxShell transfer checkpoint");
+    }
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static String prefix(long length, long modified, long chunkSize) {
+    return String.format(Locale.ROOT, "%d:%d:%d:", length, modified, chunkSize);
+  }
+}
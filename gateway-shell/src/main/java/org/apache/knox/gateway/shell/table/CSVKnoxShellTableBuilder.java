@@ -26,6 +26,8 @@ import java.io.Reader;
 import java.net.URL;
 import java.net.URLConnection;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 public class CSVKnoxShellTableBuilder extends KnoxShellTableBuilder {
 
@@ -70,10 +72,7 @@ public class CSVKnoxShellTableBuilder extends KnoxShellTableBuilder {
       if (!addingHeaders) {
         this.table.row();
       }
-      // handle comma's within quoted string values for single col
-      String[] data = row.split(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)", -1);
-
-      for (String value : data) {
+      for (String value : split(row)) {
         if (addingHeaders) {
           this.table.header(value);
         } else {
@@ -84,4 +83,31 @@ public class CSVKnoxShellTableBuilder extends KnoxShellTableBuilder {
     }
   }
 
+  /*
+   * Handles comma's within quoted string values: splits at every comma followed
+   * by an even number of quotes, like the regular expression
+   * ,(?=([^"]*"[^"]*")*[^"]*$) would, but in a single pass over the row.
+   */
+  static List<String> split(String row) {
+    int quotesAfter = 0;
+    for (int i = 0; i < row.length(); i++) {
+      if (row.charAt(i) == '"') {
+        quotesAfter++;
+      }
+    }
+    final List<String> values = new ArrayList<>();
+    int start = 0;
+    for (int i = 0; i < row.length(); i++) {
+      final char c = row.charAt(i);
+      if (c == '"') {
+        quotesAfter--;
+      } else if (c == ',' && quotesAfter % 2 == 0) {
+        values.add(row.substring(start, i));
+        start = i + 1;
+      }
+    }
+    values.add(row.substring(start));
+    return values;
+  }
+
 }
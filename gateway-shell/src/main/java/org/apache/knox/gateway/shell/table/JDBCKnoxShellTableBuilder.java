@@ -123,17 +123,20 @@ public class JDBCKnoxShellTableBuilder extends KnoxShellTableBuilder {
     catch (SQLException e) {
       // nop. Apache HiveDriver doesn't support this.
     }
+    final String[] columnNames = new String[colCount];
     for (int i = 1; i < colCount + 1; i++) {
-      this.table.header(metadata.getColumnName(i));
+      columnNames[i - 1] = metadata.getColumnName(i);
+      this.table.header(columnNames[i - 1]);
     }
+    // rows go straight into the columns of the table as the result set is read
     while (resultSet.next()) {
       this.table.row();
-      for (int i = 1; i < colCount + 1; i++) {
+      for (String columnName : columnNames) {
         try {
-          table.value(resultSet.getObject(metadata.getColumnName(i), Comparable.class));
+          table.value(resultSet.getObject(columnName, Comparable.class));
         }
         catch (SQLException e) {
-          table.value(resultSet.getString(metadata.getColumnName(i)));
+          table.value(resultSet.getString(columnName));
         }
       }
     }
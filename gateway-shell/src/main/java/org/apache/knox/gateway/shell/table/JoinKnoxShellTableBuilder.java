@@ -18,8 +18,9 @@
 package org.apache.knox.gateway.shell.table;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class JoinKnoxShellTableBuilder extends KnoxShellTableBuilder {
 
@@ -64,27 +65,37 @@ public class JoinKnoxShellTableBuilder extends KnoxShellTableBuilder {
     }
 
     this.table.headers.addAll(new ArrayList<>(left.headers));
-    for (List<Comparable<? extends Object>> row : left.rows) {
-      this.table.rows.add(new ArrayList<>(row));
-    }
-    List<Comparable<? extends Object>> row;
+    this.table.headers.addAll(new ArrayList<>(right.headers));
+    Map<Object, Integer> rightKeys = null;
     Comparable<? extends Object> leftKey;
-    int matchedIndex;
+    Integer matchedIndex;
 
-    this.table.headers.addAll(new ArrayList<>(right.headers));
-    for (Iterator<List<Comparable<? extends Object>>> it = this.table.rows.iterator(); it.hasNext();) {
-      row = it.next();
+    for (List<Comparable<? extends Object>> row : left.rows) {
       leftKey = row.get(leftIndex);
+      matchedIndex = null;
       if (leftKey != null) {
-        matchedIndex = right.values(rightIndex).indexOf(leftKey);
-        if (matchedIndex > -1) {
-          row.addAll(right.rows.get(matchedIndex));
-        } else {
-          it.remove();
+        if (rightKeys == null) {
+          rightKeys = indexKeys(right.values(rightIndex));
         }
+        matchedIndex = rightKeys.get(leftKey);
+        if (matchedIndex == null) {
+          continue;
+        }
+      }
+      this.table.rows.add(row);
+      if (matchedIndex != null) {
+        this.table.rows.get(this.table.rows.size() - 1).addAll(right.rows.get(matchedIndex));
       }
     }
     return this.table;
   }
 
+  /* Maps each key to the first row having it, as List.indexOf would find */
+  private static Map<Object, Integer> indexKeys(List<Comparable<? extends Object>> keys) {
+    final Map<Object, Integer> indexes = new HashMap<>();
+    for (int i = 0; i < keys.size(); i++) {
+      indexes.putIfAbsent(keys.get(i), i);
+    }
+    return indexes;
+  }
 }
@@ -34,6 +34,9 @@ import org.apache.commons.math3.stat.StatUtils;
  * Simple table representation and text based rendering of a table via
  * toString(). Headers are optional but when used must have the same count as
  * columns within the rows.
+ *
+ * Rows are stored column by column, see {@link KnoxShellTableRows}; filtered,
+ * sorted and selected tables share the values of the table they were made from.
  */
 @JsonFilter("knoxShellTableFilter")
 public class KnoxShellTable {
@@ -51,7 +54,7 @@ public class KnoxShellTable {
   private static final String LINE_SEPARATOR = System.getProperty("line.separator");
 
   List<String> headers = new ArrayList<>();
-  List<List<Comparable<? extends Object>>> rows = new ArrayList<>();
+  KnoxShellTableRows rows = new KnoxShellTableRows();
   String title;
   long id;
 
@@ -70,14 +73,13 @@ public class KnoxShellTable {
   }
 
   public KnoxShellTable row() {
-    rows.add(new ArrayList<>());
+    rows.addRow();
     return this;
   }
 
   public KnoxShellTable value(Comparable<? extends Object> value) {
     final int index = rows.isEmpty() ? 0 : rows.size() - 1;
-    final List<Comparable<? extends Object>> row = rows.get(index);
-    row.add(value);
+    rows.addValue(index, value);
     return this;
   }
 
@@ -86,16 +88,11 @@ public class KnoxShellTable {
   }
 
   public List<Comparable<? extends Object>> values(int colIndex) {
-    List<Comparable<? extends Object>> col = new ArrayList<>();
-    rows.forEach(row -> col.add(row.get(colIndex)));
-    return col;
+    return new ArrayList<>(rows.getColumn(colIndex));
   }
 
   public List<Comparable<? extends Object>> values(String colName) {
-    int colIndex = headers.indexOf(colName);
-    List<Comparable<? extends Object>> col = new ArrayList<>();
-    rows.forEach(row -> col.add(row.get(colIndex)));
-    return col;
+    return values(headers.indexOf(colName));
   }
 
   private Conversions getConversion(Comparable<? extends Object> colIndex) {
@@ -133,6 +130,10 @@ public class KnoxShellTable {
   }
 
   private double[] toDoubleArray(String colName) throws IllegalArgumentException {
+    final double[] typed = rows.toDoubles(headers.indexOf(colName));
+    if (typed != null) {
+      return typed;
+    }
     List<Comparable<? extends Object>> col = values(colName);
     double[] colArray = new double[col.size()];
     Conversions conversionMethod = null;
@@ -363,19 +364,14 @@ public class KnoxShellTable {
 
   public KnoxShellTable select(String cols) {
     KnoxShellTable table = new KnoxShellTable();
-    List<List<Comparable<? extends Object>>> columns = new ArrayList<>();
     cols = cols.trim();
     String[] colnames = cols.split("\\s*,\\s*");
-    for (String colName : colnames) {
-      table.header(colName);
-      columns.add(values(headers.indexOf(colName)));
-    }
-    for (int i = 0; i < rows.size(); i++) {
-      table.row();
-      for (List<Comparable<? extends Object>> col : columns) {
-        table.value(col.get(i));
-      }
+    int[] columns = new int[colnames.length];
+    for (int i = 0; i < colnames.length; i++) {
+      table.header(colnames[i]);
+      columns[i] = headers.indexOf(colnames[i]);
     }
+    table.rows = rows.project(columns);
     return table;
   }
 
@@ -393,14 +389,16 @@ public class KnoxShellTable {
   }
 
   public KnoxShellTable sort(String colName, SortOrder order) {
+    final int[] sorted = rows.sortedByDictionary(headers.indexOf(colName), !SortOrder.ASCENDING.equals(order));
+    if (sorted != null) {
+      return sorted(sorted);
+    }
     List<Comparable<? extends Object>> col = values(colName);
     return sort(col, order);
   }
 
   public KnoxShellTable sort(List<Comparable<? extends Object>> col,
       SortOrder order) {
-    KnoxShellTable table = new KnoxShellTable();
-
     Comparable<? extends Object> value;
     List<RowIndex> index = new ArrayList<>();
     for (int i = 0; i < col.size(); i++) {
@@ -413,10 +411,17 @@ public class KnoxShellTable {
     else {
       index.sort(Collections.reverseOrder());
     }
-    table.headers = new ArrayList<>(headers);
-    for (RowIndex i : index) {
-      table.rows.add(new ArrayList<>(this.rows.get(i.index)));
+    final int[] sorted = new int[index.size()];
+    for (int i = 0; i < sorted.length; i++) {
+      sorted[i] = index.get(i).index;
     }
+    return sorted(sorted);
+  }
+
+  private KnoxShellTable sorted(int[] sorted) {
+    KnoxShellTable table = new KnoxShellTable();
+    table.headers = new ArrayList<>(headers);
+    table.rows = rows.select(sorted, sorted.length);
     return table;
   }
 
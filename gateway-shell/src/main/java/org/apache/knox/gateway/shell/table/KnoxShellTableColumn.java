@@ -0,0 +1,390 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.shell.table;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A column of a {@link KnoxShellTable}. Whole numbers and floating point numbers
+ * are kept in primitive buffers, strings are dictionary encoded and anything
+ * else is kept as is. A column takes the type of its first non-null value and
+ * is widened to a plain list of values when a value of another type is stored;
+ * the values read back are always of the type they were stored with.
+ */
+abstract class KnoxShellTableColumn {
+  /* Beyond this many distinct strings, more than half of them unique, a dictionary does not pay off */
+  static final int MAX_DICTIONARY_SIZE = 1 << 16;
+
+  abstract int size();
+
+  abstract Comparable<? extends Object> get(int row);
+
+  /**
+   * @return false if the value can not be stored in this column, which must be widened then
+   */
+  abstract boolean add(Comparable<? extends Object> value);
+
+  /**
+   * @return false if the value can not be stored in this column, which must be widened then
+   */
+  abstract boolean set(int row, Comparable<? extends Object> value);
+
+  /**
+   * Converts the given rows to doubles without boxing them.
+   *
+   * @return the values, or null if this column can not convert them the way
+   *         {@link KnoxShellTable} converts boxed values
+   */
+  double[] toDoubles(int[] rows, int count) {
+    return null;
+  }
+
+  /**
+   * Stores a value, padding the column with nulls up to the row and widening
+   * it if necessary.
+   *
+   * @return the column holding the value, either the given or a wider one
+   */
+  static KnoxShellTableColumn put(KnoxShellTableColumn column, int row, Comparable<? extends Object> value,
+      KnoxShellTableSpill spill) {
+    while (column.size() < row) {
+      column.add(null);
+    }
+    if (store(column, row, value)) {
+      return column;
+    }
+    final KnoxShellTableColumn widened = column instanceof NullColumn ? forValue(value, spill) : new ObjectColumn();
+    for (int i = 0; i < column.size(); i++) {
+      widened.add(column.get(i));
+    }
+    store(widened, row, value);
+    return widened;
+  }
+
+  private static boolean store(KnoxShellTableColumn column, int row, Comparable<? extends Object> value) {
+    return column.size() == row ? column.add(value) : column.set(row, value);
+  }
+
+  private static KnoxShellTableColumn forValue(Comparable<? extends Object> value, KnoxShellTableSpill spill) {
+    if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      return new LongColumn(value.getClass(), spill);
+    }
+    if (value instanceof Double || value instanceof Float) {
+      return new DoubleColumn(value.getClass(), spill);
+    }
+    if (value instanceof String) {
+      return new DictionaryColumn(spill);
+    }
+    return new ObjectColumn();
+  }
+
+  static int physical(int[] rows, int index) {
+    return rows == null ? index : rows[index];
+  }
+
+  /* Holds the nulls of a column until its first value tells its type */
+  static class NullColumn extends KnoxShellTableColumn {
+    private int size;
+
+    @Override
+    int size() {
+      return size;
+    }
+
+    @Override
+    Comparable<? extends Object> get(int row) {
+      return null;
+    }
+
+    @Override
+    boolean add(Comparable<? extends Object> value) {
+      if (value != null) {
+        return false;
+      }
+      size++;
+      return true;
+    }
+
+    @Override
+    boolean set(int row, Comparable<? extends Object> value) {
+      return value == null;
+    }
+  }
+
+  static class ObjectColumn extends KnoxShellTableColumn {
+    private final List<Comparable<? extends Object>> values = new ArrayList<>();
+
+    @Override
+    int size() {
+      return values.size();
+    }
+
+    @Override
+    Comparable<? extends Object> get(int row) {
+      return values.get(row);
+    }
+
+    @Override
+    boolean add(Comparable<? extends Object> value) {
+      values.add(value);
+      return true;
+    }
+
+    @Override
+    boolean set(int row, Comparable<? extends Object> value) {
+      values.set(row, value);
+      return true;
+    }
+  }
+
+  /* Long, Integer, Short or Byte values */
+  static class LongColumn extends KnoxShellTableColumn {
+    private final Class<?> type;
+    private final KnoxShellTableColumnBuffer values;
+    private final BitSet nulls = new BitSet();
+
+    LongColumn(Class<?> type, KnoxShellTableSpill spill) {
+      this.type = type;
+      this.values = new KnoxShellTableColumnBuffer(Long.BYTES, spill);
+    }
+
+    @Override
+    int size() {
+      return values.size();
+    }
+
+    @Override
+    Comparable<? extends Object> get(int row) {
+      if (nulls.get(row)) {
+        return null;
+      }
+      final long value = values.getLong(row);
+      if (type == Integer.class) {
+        return (int) value;
+      } else if (type == Short.class) {
+        return (short) value;
+      } else if (type == Byte.class) {
+        return (byte) value;
+      }
+      return value;
+    }
+
+    @Override
+    boolean add(Comparable<? extends Object> value) {
+      if (value == null) {
+        nulls.set(values.size());
+        values.addLong(0);
+        return true;
+      }
+      if (value.getClass() != type) {
+        return false;
+      }
+      values.addLong(((Number) value).longValue());
+      return true;
+    }
+
+    @Override
+    boolean set(int row, Comparable<? extends Object> value) {
+      if (value != null && value.getClass() != type) {
+        return false;
+      }
+      nulls.set(row, value == null);
+      values.setLong(row, value == null ? 0 : ((Number) value).longValue());
+      return true;
+    }
+
+    @Override
+    double[] toDoubles(int[] rows, int count) {
+      final double[] doubles = new double[count];
+      for (int i = 0; i < count; i++) {
+        final int row = physical(rows, i);
+        if (nulls.get(row)) {
+          return null;
+        }
+        doubles[i] = values.getLong(row);
+      }
+      return doubles;
+    }
+  }
+
+  /* Double or Float values */
+  static class DoubleColumn extends KnoxShellTableColumn {
+    private final Class<?> type;
+    private final KnoxShellTableColumnBuffer values;
+    private final BitSet nulls = new BitSet();
+
+    DoubleColumn(Class<?> type, KnoxShellTableSpill spill) {
+      this.type = type;
+      this.values = new KnoxShellTableColumnBuffer(Double.BYTES, spill);
+    }
+
+    @Override
+    int size() {
+      return values.size();
+    }
+
+    @Override
+    Comparable<? extends Object> get(int row) {
+      if (nulls.get(row)) {
+        return null;
+      }
+      final double value = values.getDouble(row);
+      if (type == Float.class) {
+        return (float) value;
+      }
+      return value;
+    }
+
+    @Override
+    boolean add(Comparable<? extends Object> value) {
+      if (value == null) {
+        nulls.set(values.size());
+        values.addDouble(0);
+        return true;
+      }
+      if (value.getClass() != type) {
+        return false;
+      }
+      values.addDouble(((Number) value).doubleValue());
+      return true;
+    }
+
+    @Override
+    boolean set(int row, Comparable<? extends Object> value) {
+      if (value != null && value.getClass() != type) {
+        return false;
+      }
+      nulls.set(row, value == null);
+      values.setDouble(row, value == null ? 0 : ((Number) value).doubleValue());
+      return true;
+    }
+
+    @Override
+    double[] toDoubles(int[] rows, int count) {
+      final double[] doubles = new double[count];
+      for (int i = 0; i < count; i++) {
+        final int row = physical(rows, i);
+        if (nulls.get(row)) {
+          return null;
+        }
+        doubles[i] = values.getDouble(row);
+      }
+      return doubles;
+    }
+  }
+
+  /* Strings as codes into a dictionary of their distinct values, null is -1 */
+  static class DictionaryColumn extends KnoxShellTableColumn {
+    private final Map<String, Integer> codes = new HashMap<>();
+    private final List<String> dictionary = new ArrayList<>();
+    private final KnoxShellTableColumnBuffer values;
+
+    DictionaryColumn(KnoxShellTableSpill spill) {
+      this.values = new KnoxShellTableColumnBuffer(Integer.BYTES, spill);
+    }
+
+    @Override
+    int size() {
+      return values.size();
+    }
+
+    @Override
+    Comparable<? extends Object> get(int row) {
+      final int code = values.getInt(row);
+      return code < 0 ? null : dictionary.get(code);
+    }
+
+    @Override
+    boolean add(Comparable<? extends Object> value) {
+      final int code = encode(value);
+      if (code == Integer.MIN_VALUE) {
+        return false;
+      }
+      values.addInt(code);
+      return true;
+    }
+
+    @Override
+    boolean set(int row, Comparable<? extends Object> value) {
+      final int code = encode(value);
+      if (code == Integer.MIN_VALUE) {
+        return false;
+      }
+      values.setInt(row, code);
+      return true;
+    }
+
+    private int encode(Comparable<? extends Object> value) {
+      if (value == null) {
+        return -1;
+      }
+      if (!(value instanceof String)) {
+        return Integer.MIN_VALUE;
+      }
+      Integer code = codes.get(value);
+      if (code == null) {
+        if (dictionary.size() >= MAX_DICTIONARY_SIZE && dictionary.size() * 2 > values.size()) {
+          return Integer.MIN_VALUE;
+        }
+        code = dictionary.size();
+        dictionary.add((String) value);
+        codes.put((String) value, code);
+      }
+      return code;
+    }
+
+    int code(int row) {
+      return values.getInt(row);
+    }
+
+    List<String> dictionary() {
+      return dictionary;
+    }
+
+    /*
+     * Parses every distinct string once. Blank strings count as 0 and the first
+     * value must be numeric, as in KnoxShellTable.
+     */
+    @Override
+    double[] toDoubles(int[] rows, int count) {
+      final double[] parsed = new double[dictionary.size()];
+      final BitSet done = new BitSet(dictionary.size());
+      final double[] doubles = new double[count];
+      for (int i = 0; i < count; i++) {
+        final int code = values.getInt(physical(rows, i));
+        if (code < 0) {
+          return null;
+        }
+        if (!done.get(code)) {
+          final String value = dictionary.get(code).trim().isEmpty() ? "0" : dictionary.get(code);
+          if (i == 0 && !value.matches("-?\\d+(\\.\\d+)?")) {
+            throw new IllegalArgumentException("String contains non-numeric characters");
+          }
+          parsed[code] = Double.parseDouble(value);
+          done.set(code);
+        }
+        doubles[i] = parsed[code];
+      }
+      return doubles;
+    }
+  }
+}
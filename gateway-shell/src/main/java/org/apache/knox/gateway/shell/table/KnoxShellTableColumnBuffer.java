@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.shell.table;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * A growable array of fixed width primitive values stored in chunks of
+ * {@value #CHUNK_SIZE} values. Full chunks are handed to the
+ * {@link KnoxShellTableSpill} which may move them out of the heap.
+ */
+class KnoxShellTableColumnBuffer {
+  static final int CHUNK_SHIFT = 16;
+  static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final int widthShift;
+  private final KnoxShellTableSpill spill;
+  private ByteBuffer[] chunks = new ByteBuffer[4];
+  private int size;
+
+  /**
+   * @param width the bytes per value, 4 or 8
+   */
+  KnoxShellTableColumnBuffer(int width, KnoxShellTableSpill spill) {
+    this.widthShift = Integer.numberOfTrailingZeros(width);
+    this.spill = spill;
+  }
+
+  int size() {
+    return size;
+  }
+
+  long getLong(int index) {
+    return chunks[index >>> CHUNK_SHIFT].getLong((index & CHUNK_MASK) << widthShift);
+  }
+
+  void setLong(int index, long value) {
+    chunks[index >>> CHUNK_SHIFT].putLong((index & CHUNK_MASK) << widthShift, value);
+  }
+
+  void addLong(long value) {
+    append().putLong((size & CHUNK_MASK) << widthShift, value);
+    appended();
+  }
+
+  double getDouble(int index) {
+    return chunks[index >>> CHUNK_SHIFT].getDouble((index & CHUNK_MASK) << widthShift);
+  }
+
+  void setDouble(int index, double value) {
+    chunks[index >>> CHUNK_SHIFT].putDouble((index & CHUNK_MASK) << widthShift, value);
+  }
+
+  void addDouble(double value) {
+    append().putDouble((size & CHUNK_MASK) << widthShift, value);
+    appended();
+  }
+
+  int getInt(int index) {
+    return chunks[index >>> CHUNK_SHIFT].getInt((index & CHUNK_MASK) << widthShift);
+  }
+
+  void setInt(int index, int value) {
+    chunks[index >>> CHUNK_SHIFT].putInt((index & CHUNK_MASK) << widthShift, value);
+  }
+
+  void addInt(int value) {
+    append().putInt((size & CHUNK_MASK) << widthShift, value);
+    appended();
+  }
+
+  /* Returns the chunk the next value goes to, growing the last chunk up to its full size first */
+  private ByteBuffer append() {
+    final int chunkIndex = size >>> CHUNK_SHIFT;
+    if (chunkIndex == chunks.length) {
+      chunks = Arrays.copyOf(chunks, chunks.length * 2);
+    }
+    ByteBuffer chunk = chunks[chunkIndex];
+    final int offset = (size & CHUNK_MASK) << widthShift;
+    if (chunk == null || offset == chunk.capacity()) {
+      final int capacity = chunk == null ? INITIAL_CAPACITY << widthShift : chunk.capacity() * 2;
+      final ByteBuffer grown = ByteBuffer.allocate(Math.min(capacity, CHUNK_SIZE << widthShift)).order(ByteOrder.nativeOrder());
+      if (chunk != null) {
+        chunk.clear();
+        grown.put(chunk);
+      }
+      chunks[chunkIndex] = chunk = grown;
+    }
+    return chunk;
+  }
+
+  private void appended() {
+    size++;
+    if ((size & CHUNK_MASK) == 0) {
+      final int chunkIndex = (size - 1) >>> CHUNK_SHIFT;
+      chunks[chunkIndex] = spill.retire(chunks[chunkIndex]);
+    }
+  }
+}
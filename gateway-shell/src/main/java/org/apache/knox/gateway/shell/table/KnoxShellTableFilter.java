@@ -57,36 +57,22 @@ public class KnoxShellTableFilter {
   // doesn't contain, etc
   public KnoxShellTable regex(Comparable<String> regex) {
     final Pattern pattern = Pattern.compile((String) regex);
-    prepareFilteredTable();
-    for (List<Comparable<?>> row : tableToFilter.rows) {
-      if (pattern.matcher(row.get(index).toString()).matches()) {
-        filteredTable.row();
-        row.forEach(value -> {
-          filteredTable.value(value);
-        });
-      }
-    }
+    prepareFilteredTable(tableToFilter.rows.matching(index, value -> pattern.matcher(value.toString()).matches()));
     return filteredTable;
   }
 
-  private void prepareFilteredTable() {
+  // The filtered table shares the values of the table to filter, it only keeps
+  // the indexes of the matching rows
+  private void prepareFilteredTable(int[] matchingRows) {
     filteredTable.headers.addAll(tableToFilter.headers);
     filteredTable.title(tableToFilter.title);
+    filteredTable.rows = tableToFilter.rows.select(matchingRows, matchingRows.length);
   }
 
   @SuppressWarnings("rawtypes")
   private KnoxShellTable filter(Predicate<Comparable> p) throws KnoxShellTableFilterException {
     try {
-      prepareFilteredTable();
-      for (List<Comparable<? extends Object>> row : tableToFilter.rows) {
-        if (p.test(row.get(index))) {
-          filteredTable.row(); // Adds a new empty row to filtered table
-          // Add each value to the row
-          row.forEach(value -> {
-            filteredTable.value(value);
-          });
-        }
-      }
+      prepareFilteredTable(tableToFilter.rows.matching(index, p));
       return filteredTable;
     } catch (Exception e) {
       throw new KnoxShellTableFilterException(e);
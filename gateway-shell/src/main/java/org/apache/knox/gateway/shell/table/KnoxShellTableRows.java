@@ -0,0 +1,362 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.shell.table;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * The rows of a {@link KnoxShellTable}, stored column by column.
+ *
+ * Each row is a view of its cells in the columns. Filtering, sorting and
+ * selecting columns do not copy any values: the result shares the columns and
+ * keeps a selection vector of the rows it contains and the columns it shows.
+ * Whichever of the two sides is changed afterwards first copies the rows it
+ * holds, so tables never see the changes of each other.
+ */
+class KnoxShellTableRows extends AbstractList<List<Comparable<? extends Object>>> {
+
+  private final KnoxShellTableSpill spill;
+  private KnoxShellTableColumn[] columns;
+  private int columnCount;
+  /* number of cells per stored row, null if every row has all columns */
+  private KnoxShellTableColumnBuffer widths;
+  /* the stored rows this instance consists of, null for all of them in order */
+  private int[] selection;
+  private int size;
+  /* the columns are shared with other instances, which see the stored rows below this one */
+  private boolean view;
+  private int sharedRows;
+
+  KnoxShellTableRows() {
+    this(new KnoxShellTableSpill());
+  }
+
+  KnoxShellTableRows(KnoxShellTableSpill spill) {
+    this.spill = spill;
+    this.columns = new KnoxShellTableColumn[4];
+    this.widths = new KnoxShellTableColumnBuffer(Integer.BYTES, spill);
+  }
+
+  private KnoxShellTableRows(KnoxShellTableRows rows, KnoxShellTableColumn[] columns,
+      KnoxShellTableColumnBuffer widths, int[] selection, int size) {
+    this.spill = rows.spill;
+    this.columns = columns;
+    this.columnCount = columns.length;
+    this.widths = widths;
+    this.selection = selection;
+    this.size = size;
+    this.view = true;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public List<Comparable<? extends Object>> get(int index) {
+    checkRow(index);
+    return new Row(index);
+  }
+
+  /**
+   * Appends a copy of the given row.
+   */
+  @Override
+  public void add(int index, List<Comparable<? extends Object>> row) {
+    if (index != size) {
+      throw new UnsupportedOperationException("Rows can only be appended");
+    }
+    addRow();
+    for (Comparable<? extends Object> value : row) {
+      addValue(size - 1, value);
+    }
+  }
+
+  /**
+   * Removes a row from the selection of this instance, the values stay in the columns
+   * until the rows are copied.
+   */
+  @Override
+  public List<Comparable<? extends Object>> remove(int index) {
+    checkRow(index);
+    final List<Comparable<? extends Object>> removed = Arrays.asList(get(index).toArray(new Comparable<?>[0]));
+    final int[] remaining = new int[size - 1];
+    for (int i = 0, j = 0; i < size; i++) {
+      if (i != index) {
+        remaining[j++] = physical(i);
+      }
+    }
+    if (!view) {
+      sharedRows = size;
+    }
+    selection = remaining;
+    size--;
+    view = true;
+    modCount++;
+    return removed;
+  }
+
+  void addRow() {
+    prepareWrite(size);
+    widths.addInt(0);
+    size++;
+    modCount++;
+  }
+
+  void addValue(int row, Comparable<? extends Object> value) {
+    checkRow(row);
+    prepareWrite(row);
+    final int column = widths.getInt(row);
+    if (column == columnCount) {
+      if (columnCount == columns.length) {
+        columns = Arrays.copyOf(columns, columnCount * 2);
+      }
+      columns[columnCount++] = new KnoxShellTableColumn.NullColumn();
+    }
+    columns[column] = KnoxShellTableColumn.put(columns[column], row, value, spill);
+    widths.setInt(row, column + 1);
+  }
+
+  Comparable<? extends Object> getValue(int row, int column) {
+    if (column < 0 || column >= width(row)) {
+      throw new IndexOutOfBoundsException("Column " + column + " of row " + row);
+    }
+    final int physical = physical(row);
+    return physical < columns[column].size() ? columns[column].get(physical) : null;
+  }
+
+  void setValue(int row, int column, Comparable<? extends Object> value) {
+    if (column < 0 || column >= width(row)) {
+      throw new IndexOutOfBoundsException("Column " + column + " of row " + row);
+    }
+    prepareWrite(row);
+    columns[column] = KnoxShellTableColumn.put(columns[column], row, value, spill);
+  }
+
+  List<Comparable<? extends Object>> getColumn(int column) {
+    return new AbstractList<Comparable<? extends Object>>() {
+      @Override
+      public Comparable<? extends Object> get(int row) {
+        checkRow(row);
+        return getValue(row, column);
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  /**
+   * @return the rows with the given indexes, sharing the columns of these rows
+   */
+  KnoxShellTableRows select(int[] rows, int count) {
+    final int[] physical = new int[count];
+    for (int i = 0; i < count; i++) {
+      checkRow(rows[i]);
+      physical[i] = physical(rows[i]);
+    }
+    share();
+    return new KnoxShellTableRows(this, Arrays.copyOf(columns, columnCount), widths, physical, count);
+  }
+
+  /**
+   * @return the rows with the given columns only, sharing these columns
+   */
+  KnoxShellTableRows project(int[] projection) {
+    final KnoxShellTableColumn[] projected = new KnoxShellTableColumn[projection.length];
+    for (int i = 0; i < projection.length; i++) {
+      if (size > 0 && (projection[i] < 0 || projection[i] >= columnCount)) {
+        throw new IndexOutOfBoundsException("Column " + projection[i]);
+      }
+      projected[i] = size > 0 ? columns[projection[i]] : new KnoxShellTableColumn.NullColumn();
+    }
+    share();
+    return new KnoxShellTableRows(this, projected, null, selection, size);
+  }
+
+  /**
+   * @return the indexes of the rows whose value in the given column matches the predicate,
+   *         strings of a dictionary encoded column are tested once each
+   */
+  @SuppressWarnings("rawtypes")
+  int[] matching(int column, Predicate<Comparable> predicate) {
+    final KnoxShellTableColumn values = column >= 0 && column < columnCount ? columns[column] : null;
+    final byte[] tested = values instanceof KnoxShellTableColumn.DictionaryColumn
+        ? new byte[((KnoxShellTableColumn.DictionaryColumn) values).dictionary().size()] : null;
+    int[] matches = new int[Math.min(size, 1024)];
+    int count = 0;
+    for (int row = 0; row < size; row++) {
+      final boolean match;
+      if (tested != null && column < width(row) && physical(row) < values.size()
+          && ((KnoxShellTableColumn.DictionaryColumn) values).code(physical(row)) >= 0) {
+        final int code = ((KnoxShellTableColumn.DictionaryColumn) values).code(physical(row));
+        if (tested[code] == 0) {
+          tested[code] = predicate.test(values.get(physical(row))) ? (byte) 1 : (byte) 2;
+        }
+        match = tested[code] == 1;
+      } else {
+        match = predicate.test(getValue(row, column));
+      }
+      if (match) {
+        if (count == matches.length) {
+          matches = Arrays.copyOf(matches, count * 2);
+        }
+        matches[count++] = row;
+      }
+    }
+    return Arrays.copyOf(matches, count);
+  }
+
+  /**
+   * @return the values of a column as doubles, or null if they have to be converted one by one
+   */
+  double[] toDoubles(int column) {
+    if (column < 0 || column >= columnCount) {
+      return null;
+    }
+    for (int row = 0; row < size; row++) {
+      if (column >= width(row) || physical(row) >= columns[column].size()) {
+        return null;
+      }
+    }
+    return columns[column].toDoubles(selection, size);
+  }
+
+  /**
+   * @return the row indexes in the stable sort order of a string column, or null if the
+   *         column is not dictionary encoded or has nulls
+   */
+  int[] sortedByDictionary(int column, boolean descending) {
+    if (column < 0 || column >= columnCount || !(columns[column] instanceof KnoxShellTableColumn.DictionaryColumn)) {
+      return null;
+    }
+    final KnoxShellTableColumn.DictionaryColumn values = (KnoxShellTableColumn.DictionaryColumn) columns[column];
+    final List<String> dictionary = values.dictionary();
+    final Integer[] byValue = new Integer[dictionary.size()];
+    for (int i = 0; i < byValue.length; i++) {
+      byValue[i] = i;
+    }
+    Arrays.sort(byValue, (left, right) -> dictionary.get(left).compareTo(dictionary.get(right)));
+    final int[] rank = new int[byValue.length];
+    for (int i = 0; i < byValue.length; i++) {
+      // equal strings can not have different codes, so ranks are distinct
+      rank[byValue[i]] = descending ? byValue.length - 1 - i : i;
+    }
+    final long[] keys = new long[size];
+    for (int row = 0; row < size; row++) {
+      if (column >= width(row) || physical(row) >= values.size() || values.code(physical(row)) < 0) {
+        return null;
+      }
+      keys[row] = ((long) rank[values.code(physical(row))] << 32) | row;
+    }
+    Arrays.sort(keys);
+    final int[] sorted = new int[size];
+    for (int i = 0; i < size; i++) {
+      sorted[i] = (int) keys[i];
+    }
+    return sorted;
+  }
+
+  private int physical(int row) {
+    return selection == null ? row : selection[row];
+  }
+
+  private int width(int row) {
+    return widths == null ? columnCount : widths.getInt(physical(row));
+  }
+
+  private void checkRow(int row) {
+    if (row < 0 || row >= size) {
+      throw new IndexOutOfBoundsException("Row " + row + ", size " + size);
+    }
+  }
+
+  private void share() {
+    if (!view) {
+      sharedRows = size;
+    }
+  }
+
+  /* Copies the rows before changing a row other instances may see */
+  private void prepareWrite(int row) {
+    if (view || row < sharedRows) {
+      copy();
+    }
+  }
+
+  private void copy() {
+    final KnoxShellTableColumnBuffer copiedWidths = new KnoxShellTableColumnBuffer(Integer.BYTES, spill);
+    for (int row = 0; row < size; row++) {
+      copiedWidths.addInt(width(row));
+    }
+    final KnoxShellTableColumn[] copiedColumns = new KnoxShellTableColumn[Math.max(columnCount, 4)];
+    for (int column = 0; column < columnCount; column++) {
+      KnoxShellTableColumn copied = new KnoxShellTableColumn.NullColumn();
+      for (int row = 0; row < size; row++) {
+        if (column < copiedWidths.getInt(row)) {
+          copied = KnoxShellTableColumn.put(copied, row, getValue(row, column), spill);
+        }
+      }
+      copiedColumns[column] = copied;
+    }
+    columns = copiedColumns;
+    widths = copiedWidths;
+    selection = null;
+    view = false;
+    sharedRows = 0;
+  }
+
+  private class Row extends AbstractList<Comparable<? extends Object>> {
+    private final int index;
+
+    Row(int index) {
+      this.index = index;
+    }
+
+    @Override
+    public Comparable<? extends Object> get(int column) {
+      return getValue(index, column);
+    }
+
+    @Override
+    public Comparable<? extends Object> set(int column, Comparable<? extends Object> value) {
+      final Comparable<? extends Object> previous = getValue(index, column);
+      setValue(index, column, value);
+      return previous;
+    }
+
+    @Override
+    public void add(int column, Comparable<? extends Object> value) {
+      if (column != size()) {
+        throw new UnsupportedOperationException("Values can only be appended to a row");
+      }
+      addValue(index, value);
+    }
+
+    @Override
+    public int size() {
+      return width(index);
+    }
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.shell.table;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Keeps the full chunks of the typed columns of a table in memory up to a
+ * threshold and moves every chunk beyond it to a memory mapped temporary file,
+ * so that large result sets are paged by the operating system instead of
+ * filling the heap of the shell.
+ *
+ * The threshold defaults to a quarter of the maximum heap and may be set in
+ * bytes with the <code>knox.shell.table.memory.threshold</code> system property.
+ */
+class KnoxShellTableSpill {
+  static final String MEMORY_THRESHOLD_PROPERTY = "knox.shell.table.memory.threshold";
+
+  private final long threshold;
+  private long inMemory;
+  private long spilled;
+  private FileChannel channel;
+
+  KnoxShellTableSpill() {
+    this(Long.getLong(MEMORY_THRESHOLD_PROPERTY, Runtime.getRuntime().maxMemory() / 4));
+  }
+
+  KnoxShellTableSpill(long threshold) {
+    this.threshold = threshold;
+  }
+
+  /**
+   * @param chunk a chunk that will not grow anymore
+   * @return the chunk itself while below the threshold, its copy in the spill file otherwise
+   */
+  synchronized ByteBuffer retire(ByteBuffer chunk) {
+    final int bytes = chunk.capacity();
+    if (inMemory + bytes <= threshold) {
+      inMemory += bytes;
+      return chunk;
+    }
+    try {
+      if (channel == null) {
+        channel = open();
+      }
+      final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, spilled, bytes);
+      spilled += bytes;
+      final ByteBuffer source = chunk.duplicate();
+      source.clear();
+      mapped.put(source);
+      return mapped.order(ByteOrder.nativeOrder());
+    } catch (IOException e) {
+      // without a spill file the chunk simply stays on the heap
+      inMemory += bytes;
+      return chunk;
+    }
+  }
+
+  synchronized long getSpilledBytes() {
+    return spilled;
+  }
+
+  private static FileChannel open() throws IOException {
+    final Path file = Files.createTempFile("knoxshell-table", ".spill");
+    return FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+  }
+}
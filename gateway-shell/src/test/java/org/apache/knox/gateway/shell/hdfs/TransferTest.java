@@ -0,0 +1,459 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.shell.hdfs;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.knox.gateway.shell.ClientContext;
+import org.apache.knox.gateway.shell.KnoxSession;
+import org.apache.knox.gateway.shell.KnoxShellException;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class TransferTest {
+  private static final int CHUNK_SIZE = 1024;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Server server;
+  private MockWebHdfsServlet webhdfs;
+  private KnoxSession session;
+
+  @Before
+  public void setUp() throws Exception {
+    webhdfs = new MockWebHdfsServlet();
+    final ServletContextHandler context = new ServletContextHandler();
+    context.setContextPath("/");
+    context.addServlet(new ServletHolder(webhdfs), "/*");
+    server = new Server(0);
+    server.setHandler(context);
+    server.start();
+    session = KnoxSession.login(ClientContext.with("http://localhost:" + server.getURI().getPort() + "/gateway/sandbox"));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    session.close();
+    server.stop();
+  }
+
+  @Test
+  public void testUploadDirectoryTreeWithFailures() throws Exception {
+    final File local = createTree(folder.newFolder("tree"));
+    final File checkpoint = new File(folder.getRoot(), "upload.checkpoint");
+    webhdfs.failEvery.set(7);
+
+    final Transfer.Response response = Hdfs.upload(session).from(local.getPath()).to("/user/guest/tree")
+        .chunkSize(CHUNK_SIZE).threads(4).checkpoint(checkpoint.getPath()).now();
+
+    assertEquals(5, response.getFiles());
+    assertEquals(0, response.getResumedBytes());
+    assertTrue(webhdfs.failures.get() > 0);
+    assertUploaded(local, "/user/guest/tree");
+    assertTrue(webhdfs.directories.contains("/user/guest/tree/sub/deeper"));
+    assertFalse(checkpoint.exists());
+  }
+
+  @Test
+  public void testDownloadDirectoryTreeWithFailures() throws Exception {
+    final File expected = createTree(folder.newFolder("tree"));
+    Hdfs.upload(session).from(expected.getPath()).to("/user/guest/tree")
+        .chunkSize(CHUNK_SIZE).checkpoint(new File(folder.getRoot(), "upload.checkpoint").getPath()).now();
+    final File local = new File(folder.getRoot(), "copy");
+    final File checkpoint = new File(folder.getRoot(), "download.checkpoint");
+    webhdfs.failEvery.set(5);
+
+    final Transfer.Response response = Hdfs.download(session).from("/user/guest/tree").to(local.getPath())
+        .chunkSize(CHUNK_SIZE).threads(4).checkpoint(checkpoint.getPath()).now();
+
+    assertEquals(5, response.getFiles());
+    assertTrue(webhdfs.failures.get() > 0);
+    assertSameTree(expected, local);
+    assertFalse(checkpoint.exists());
+  }
+
+  @Test
+  public void testInterruptedUploadResumes() throws Exception {
+    final File local = folder.newFile("large.bin");
+    Files.write(local.toPath(), random(20 * CHUNK_SIZE + 17, 1));
+    final File checkpoint = new File(folder.getRoot(), "upload.checkpoint");
+    webhdfs.failEvery.set(6);
+
+    assertThrows(KnoxShellException.class, () -> Hdfs.upload(session).from(local.getPath()).to("/user/guest/large.bin")
+        .chunkSize(CHUNK_SIZE).retries(0).checkpoint(checkpoint.getPath()).now());
+    assertTrue(checkpoint.exists());
+
+    webhdfs.failEvery.set(0);
+    final int uploadsBefore = webhdfs.dataRequests.get();
+    final Transfer.Response response = Hdfs.upload(session).from(local.getPath()).to("/user/guest/large.bin")
+        .chunkSize(CHUNK_SIZE).retries(0).checkpoint(checkpoint.getPath()).now();
+
+    assertTrue(response.getResumedBytes() > 0);
+    assertEquals(local.length(), response.getBytes() + response.getResumedBytes());
+    assertTrue(webhdfs.dataRequests.get() - uploadsBefore < 21);
+    assertEquals(sha256(local), DigestUtils.sha256Hex(webhdfs.files.get("/user/guest/large.bin")));
+    assertEquals(Collections.singleton("/user/guest/large.bin"), webhdfs.files.keySet());
+    assertFalse(checkpoint.exists());
+  }
+
+  @Test
+  public void testInterruptedDownloadResumes() throws Exception {
+    final byte[] data = random(20 * CHUNK_SIZE + 17, 2);
+    webhdfs.files.put("/user/guest/large.bin", data);
+    final File local = new File(folder.getRoot(), "large.bin");
+    final File checkpoint = new File(folder.getRoot(), "download.checkpoint");
+    webhdfs.failEvery.set(6);
+
+    assertThrows(KnoxShellException.class, () -> Hdfs.download(session).from("/user/guest/large.bin").to(local.getPath())
+        .chunkSize(CHUNK_SIZE).retries(0).checkpoint(checkpoint.getPath()).now());
+    assertFalse(local.exists());
+
+    webhdfs.failEvery.set(0);
+    final int readsBefore = webhdfs.dataRequests.get();
+    final Transfer.Response response = Hdfs.download(session).from("/user/guest/large.bin").to(local.getPath())
+        .chunkSize(CHUNK_SIZE).retries(0).checkpoint(checkpoint.getPath()).now();
+
+    assertTrue(response.getResumedBytes() > 0);
+    assertTrue(webhdfs.dataRequests.get() - readsBefore < 21);
+    assertEquals(DigestUtils.sha256Hex(data), sha256(local));
+    assertFalse(new File(local.getPath() + Transfer.PART_SUFFIX).exists());
+    assertFalse(checkpoint.exists());
+  }
+
+  @Test
+  public void testRejectedConcatFallsBackToAppend() throws Exception {
+    final File local = folder.newFile("large.bin");
+    Files.write(local.toPath(), random(7 * CHUNK_SIZE + 3, 3));
+    webhdfs.concat.set(false);
+
+    Hdfs.upload(session).from(local.getPath()).to("/user/guest/large.bin")
+        .chunkSize(CHUNK_SIZE).checkpoint(new File(folder.getRoot(), "upload.checkpoint").getPath()).now();
+
+    assertEquals(sha256(local), DigestUtils.sha256Hex(webhdfs.files.get("/user/guest/large.bin")));
+    assertEquals(Collections.singleton("/user/guest/large.bin"), webhdfs.files.keySet());
+  }
+
+  @Test
+  public void testExistingTargetIsNotOverwritten() throws Exception {
+    final File local = folder.newFile("small.bin");
+    Files.write(local.toPath(), random(100, 4));
+    webhdfs.files.put("/user/guest/small.bin", new byte[0]);
+
+    assertThrows(KnoxShellException.class, () -> Hdfs.upload(session).from(local.getPath()).to("/user/guest/small.bin")
+        .checkpoint(new File(folder.getRoot(), "upload.checkpoint").getPath()).now());
+    assertEquals(0, webhdfs.files.get("/user/guest/small.bin").length);
+
+    Hdfs.upload(session).from(local.getPath()).to("/user/guest/small.bin").overwrite(true)
+        .checkpoint(new File(folder.getRoot(), "upload.checkpoint").getPath()).now();
+    assertEquals(sha256(local), DigestUtils.sha256Hex(webhdfs.files.get("/user/guest/small.bin")));
+  }
+
+  @Test
+  public void testFirstChunkFailedMidWriteIsRetried() throws Exception {
+    final File local = folder.newFile("large.bin");
+    Files.write(local.toPath(), random(3 * CHUNK_SIZE + 5, 5));
+    webhdfs.failMidWrite.set("/user/guest/large.bin");
+
+    Hdfs.upload(session).from(local.getPath()).to("/user/guest/large.bin")
+        .chunkSize(CHUNK_SIZE).checkpoint(new File(folder.getRoot(), "upload.checkpoint").getPath()).now();
+
+    assertEquals(1, webhdfs.failures.get());
+    assertEquals(sha256(local), DigestUtils.sha256Hex(webhdfs.files.get("/user/guest/large.bin")));
+    assertEquals(Collections.singleton("/user/guest/large.bin"), webhdfs.files.keySet());
+  }
+
+  @Test
+  public void testFirstChunkFailedMidWriteResumes() throws Exception {
+    final File local = folder.newFile("large.bin");
+    Files.write(local.toPath(), random(3 * CHUNK_SIZE + 5, 6));
+    final File checkpoint = new File(folder.getRoot(), "upload.checkpoint");
+    webhdfs.failMidWrite.set("/user/guest/large.bin");
+
+    assertThrows(KnoxShellException.class, () -> Hdfs.upload(session).from(local.getPath()).to("/user/guest/large.bin")
+        .chunkSize(CHUNK_SIZE).retries(0).checkpoint(checkpoint.getPath()).now());
+    assertTrue(checkpoint.exists());
+    assertTrue(webhdfs.files.get("/user/guest/large.bin").length < CHUNK_SIZE);
+
+    Hdfs.upload(session).from(local.getPath()).to("/user/guest/large.bin")
+        .chunkSize(CHUNK_SIZE).retries(0).checkpoint(checkpoint.getPath()).now();
+
+    assertEquals(sha256(local), DigestUtils.sha256Hex(webhdfs.files.get("/user/guest/large.bin")));
+    assertEquals(Collections.singleton("/user/guest/large.bin"), webhdfs.files.keySet());
+    assertFalse(checkpoint.exists());
+  }
+
+  private File createTree(File root) throws IOException {
+    Files.createDirectories(root.toPath().resolve("sub/deeper"));
+    Files.write(root.toPath().resolve("a.bin"), random(5 * CHUNK_SIZE + 123, 10));
+    Files.write(root.toPath().resolve("b.bin"), random(CHUNK_SIZE, 11));
+    Files.write(root.toPath().resolve("sub/c.bin"), random(CHUNK_SIZE - 1, 12));
+    Files.write(root.toPath().resolve("sub/empty.bin"), new byte[0]);
+    Files.write(root.toPath().resolve("sub/deeper/d.bin"), random(3, 13));
+    return root;
+  }
+
+  private void assertUploaded(File local, String remote) throws IOException {
+    final Set<String> expected = new TreeSet<>();
+    final List<Path> paths;
+    try (Stream<Path> walk = Files.walk(local.toPath())) {
+      paths = walk.collect(Collectors.toList());
+    }
+    for (Path path : paths) {
+      if (Files.isRegularFile(path)) {
+        final String target = remote + "/" + local.toPath().relativize(path).toString().replace(File.separatorChar, '/');
+        expected.add(target);
+        assertEquals(target, sha256(path.toFile()), DigestUtils.sha256Hex(webhdfs.files.get(target)));
+      }
+    }
+    assertEquals(expected, new TreeSet<>(webhdfs.files.keySet()));
+  }
+
+  private void assertSameTree(File expected, File actual) throws IOException {
+    final String[] names = expected.list();
+    final String[] copied = actual.list();
+    Arrays.sort(names);
+    Arrays.sort(copied);
+    assertEquals(Arrays.asList(names), Arrays.asList(copied));
+    for (String name : names) {
+      final File file = new File(expected, name);
+      if (file.isDirectory()) {
+        assertSameTree(file, new File(actual, name));
+      } else {
+        assertEquals(name, sha256(file), sha256(new File(actual, name)));
+      }
+    }
+  }
+
+  private static String sha256(File file) throws IOException {
+    return DigestUtils.sha256Hex(Files.readAllBytes(file.toPath()));
+  }
+
+  private static byte[] random(int length, long seed) {
+    final byte[] bytes = new byte[length];
+    new Random(seed).nextBytes(bytes);
+    return bytes;
+  }
+
+  /**
+   * Keeps files and directories in memory and answers the WebHDFS operations
+   * a transfer uses. CREATE and APPEND redirect to a "data node" URL the way a
+   * name node does. Every n-th request carrying file data fails: uploads with
+   * an error status and reads with a truncated body. The first CREATE of the
+   * failMidWrite path writes half of its data before it fails.
+   */
+  private static class MockWebHdfsServlet extends HttpServlet {
+    private static final String PREFIX = "/gateway/sandbox/webhdfs/v1";
+
+    final Map<String, byte[]> files = new ConcurrentHashMap<>();
+    final Set<String> directories = ConcurrentHashMap.newKeySet();
+    final AtomicInteger failEvery = new AtomicInteger();
+    final AtomicInteger dataRequests = new AtomicInteger();
+    final AtomicInteger failures = new AtomicInteger();
+    final AtomicBoolean concat = new AtomicBoolean(true);
+    final AtomicReference<String> failMidWrite = new AtomicReference<>();
+
+    @Override
+    protected void service(HttpServletRequest request, HttpServletResponse response) throws IOException {
+      final String path = request.getRequestURI().substring(PREFIX.length());
+      final String op = request.getParameter("op");
+      final boolean data = request.getParameter("data") != null;
+      switch (op) {
+        case "CREATE":
+        case "APPEND":
+          if (!data) {
+            response.setStatus(HttpServletResponse.SC_TEMPORARY_REDIRECT);
+            response.setHeader("Location", request.getRequestURL() + "?" + request.getQueryString() + "&data=true");
+          } else {
+            write(request, response, path, "CREATE".equals(op));
+          }
+          break;
+        case "CONCAT":
+          concat(request, response, path);
+          break;
+        case "OPEN":
+          open(request, response, path);
+          break;
+        case "GETFILESTATUS":
+          if (files.containsKey(path) || directories.contains(path)) {
+            json(response, "{\"FileStatus\":" + status(path, "") + "}");
+          } else {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+          }
+          break;
+        case "LISTSTATUS":
+          list(response, path);
+          break;
+        case "MKDIRS":
+          for (String directory = path; !directory.isEmpty(); directory = directory.substring(0, directory.lastIndexOf('/'))) {
+            directories.add(directory);
+          }
+          json(response, "{\"boolean\":true}");
+          break;
+        case "DELETE":
+          json(response, "{\"boolean\":" + (files.remove(path) != null) + "}");
+          break;
+        default:
+          response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+      }
+    }
+
+    private boolean fail() {
+      final int every = failEvery.get();
+      if (every > 0 && dataRequests.incrementAndGet() % every == 0) {
+        failures.incrementAndGet();
+        return true;
+      }
+      if (every == 0) {
+        dataRequests.incrementAndGet();
+      }
+      return false;
+    }
+
+    private void write(HttpServletRequest request, HttpServletResponse response, String path, boolean create)
+        throws IOException {
+      final byte[] body = IOUtils.toByteArray(request.getInputStream());
+      final String failing = failMidWrite.get();
+      if (create && path.equals(failing) && failMidWrite.compareAndSet(failing, null)) {
+        files.put(path, Arrays.copyOf(body, body.length / 2));
+        failures.incrementAndGet();
+        response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        return;
+      }
+      if (fail()) {
+        response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        return;
+      }
+      synchronized (this) {
+        if (create) {
+          if (files.containsKey(path) && !Boolean.parseBoolean(request.getParameter("overwrite"))) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN, "FileAlreadyExistsException");
+            return;
+          }
+          files.put(path, body);
+          response.setStatus(HttpServletResponse.SC_CREATED);
+        } else {
+          final byte[] existing = files.get(path);
+          final byte[] appended = Arrays.copyOf(existing, existing.length + body.length);
+          System.arraycopy(body, 0, appended, existing.length, body.length);
+          files.put(path, appended);
+        }
+      }
+    }
+
+    private synchronized void concat(HttpServletRequest request, HttpServletResponse response, String path)
+        throws IOException {
+      if (!concat.get()) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "UnsupportedOperationException");
+        return;
+      }
+      byte[] target = files.get(path);
+      for (String source : request.getParameter("sources").split(",")) {
+        final byte[] bytes = files.remove(source);
+        final byte[] concatenated = Arrays.copyOf(target, target.length + bytes.length);
+        System.arraycopy(bytes, 0, concatenated, target.length, bytes.length);
+        target = concatenated;
+      }
+      files.put(path, target);
+    }
+
+    private void open(HttpServletRequest request, HttpServletResponse response, String path) throws IOException {
+      final byte[] bytes = files.get(path);
+      final int offset = Integer.parseInt(request.getParameter("offset"));
+      final int length = Math.min(Integer.parseInt(request.getParameter("length")), bytes.length - offset);
+      response.setContentType("application/octet-stream");
+      response.setContentLength(length);
+      final OutputStream out = response.getOutputStream();
+      if (fail()) {
+        out.write(bytes, offset, length / 2);
+        out.flush();
+        throw new IOException("Simulated failure of a data node");
+      }
+      out.write(bytes, offset, length);
+    }
+
+    private void list(HttpServletResponse response, String path) throws IOException {
+      final Set<String> children = new TreeSet<>();
+      for (String child : files.keySet()) {
+        if (child.startsWith(path + "/") && child.indexOf('/', path.length() + 1) < 0) {
+          children.add(child);
+        }
+      }
+      for (String child : directories) {
+        if (child.startsWith(path + "/") && child.indexOf('/', path.length() + 1) < 0) {
+          children.add(child);
+        }
+      }
+      final StringBuilder json = new StringBuilder("{\"FileStatuses\":{\"FileStatus\":[");
+      for (String child : children) {
+        if (json.charAt(json.length() - 1) == '}') {
+          json.append(',');
+        }
+        json.append(status(child, child.substring(path.length() + 1)));
+      }
+      json(response, json.append("]}}").toString());
+    }
+
+    private String status(String path, String suffix) {
+      final byte[] bytes = files.get(path);
+      return String.format(Locale.ROOT,
+          "{\"pathSuffix\":\"%s\",\"type\":\"%s\",\"length\":%d,\"modificationTime\":1000}",
+          suffix, bytes == null ? "DIRECTORY" : "FILE", bytes == null ? 0 : bytes.length);
+    }
+
+    private void json(HttpServletResponse response, String json) throws IOException {
+      response.setContentType("application/json");
+      response.getOutputStream().write(json.getBytes(StandardCharsets.UTF_8));
+    }
+  }
+}
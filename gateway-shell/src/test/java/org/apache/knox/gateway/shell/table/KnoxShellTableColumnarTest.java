@@ -0,0 +1,312 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.shell.table;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import javax.swing.SortOrder;
+
+import org.apache.commons.math3.stat.StatUtils;
+import org.apache.knox.test.category.ManualTests;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Compares the columnar tables with plain lists of rows, the way tables were
+ * stored before.
+ */
+public class KnoxShellTableColumnarTest {
+  private static final String[] CITIES = {"Budapest", "Santa Clara", "Szeged", "Toronto", "Debrecen", "Boston", "", "Austin"};
+
+  @Rule
+  public final TemporaryFolder testFolder = new TemporaryFolder();
+
+  @Test
+  public void testMatchesRowMajorTable() throws Exception {
+    final List<List<Comparable<? extends Object>>> expected = generateRows(5000, new Random(42));
+    final KnoxShellTable table = toTable(expected);
+
+    assertEquals(expected, table.getRows());
+    assertEquals(expected.get(17).get(5), table.cell(5, 17).value);
+
+    assertEquals(filter(expected, 0, value -> (Integer) value > 2500),
+        table.filter().name("id").greaterThan(2500).getRows());
+    assertEquals(filter(expected, 2, value -> (Double) value <= 0.25),
+        table.filter().name("score").lessThanOrEqualTo(0.25d).getRows());
+    assertEquals(filter(expected, 3, "Szeged"::equals),
+        table.filter().name("city").equalTo("Szeged").getRows());
+    assertEquals(filter(expected, 3, value -> ((String) value).matches("S.*")),
+        table.filter().name("city").regex("S.*").getRows());
+    assertEquals(filter(filter(expected, 3, "Boston"::equals), 1, value -> (Long) value < 0),
+        table.filter().name("city").equalTo("Boston").filter().name("total").lessThan(0L).getRows());
+
+    assertEquals(sort(expected, 3, false), table.sort("city").getRows());
+    assertEquals(sort(expected, 3, true), table.sort("city", SortOrder.DESCENDING).getRows());
+    assertEquals(sort(expected, 1, false), table.sort("total").getRows());
+    assertEquals(sort(expected, 2, true), table.sort("score", SortOrder.DESCENDING).getRows());
+
+    for (int column : new int[] {0, 1, 2, 4}) {
+      final double[] doubles = toDoubles(expected, column);
+      final String name = table.getHeaders().get(column);
+      assertEquals(StatUtils.sum(doubles), table.sum(name), 0.0);
+      assertEquals(StatUtils.mean(doubles), table.mean(name), 0.0);
+      assertEquals(StatUtils.min(doubles), table.min(name), 0.0);
+      assertEquals(StatUtils.max(doubles), table.max(name), 0.0);
+      assertEquals(StatUtils.percentile(doubles, 50), table.median(name), 0.0);
+    }
+    final KnoxShellTable filtered = table.filter().name("city").equalTo("Toronto");
+    assertEquals(StatUtils.sum(toDoubles(filter(expected, 3, "Toronto"::equals), 4)), filtered.sum("amount"), 0.0);
+
+    final KnoxShellTable selected = table.select("city,id");
+    assertEquals(Arrays.asList("city", "id"), selected.getHeaders());
+    assertEquals(expected.stream().map(row -> Arrays.asList(row.get(3), row.get(0))).collect(Collectors.toList()),
+        selected.getRows());
+
+    assertEquals(toCSV(expected), table.toCSV().substring(table.toCSV().indexOf('\n') + 1));
+  }
+
+  @Test
+  public void testValuesKeepTheirTypes() {
+    final KnoxShellTable table = new KnoxShellTable();
+    table.row().value(1).value(1.5f).value((short) 2).value((byte) 3).value(null);
+    table.row().value("two").value(2.5f).value((short) -2).value((byte) -3).value(7L);
+    table.row().value(null).value(null).value(null).value(null).value(null);
+
+    assertEquals(Arrays.asList(1, 1.5f, (short) 2, (byte) 3, null), table.getRows().get(0));
+    assertEquals(Arrays.asList("two", 2.5f, (short) -2, (byte) -3, 7L), table.getRows().get(1));
+    assertEquals(Arrays.asList(null, null, null, null, null), table.getRows().get(2));
+    assertTrue(table.getRows().get(0).get(1) instanceof Float);
+    assertTrue(table.getRows().get(1).get(4) instanceof Long);
+  }
+
+  @Test
+  public void testFilteredAndSortedTablesAreCopiedOnWrite() throws Exception {
+    final KnoxShellTable table = new KnoxShellTable();
+    table.header("name").header("count");
+    table.row().value("a").value(3);
+    table.row().value("b").value(1);
+    table.row().value("c").value(2);
+
+    final KnoxShellTable filtered = table.filter().name("count").greaterThan(1);
+    final KnoxShellTable sorted = table.sort("count");
+    filtered.getRows().get(0).set(0, "changed");
+    assertEquals("a", table.getRows().get(0).get(0));
+    assertEquals("a", sorted.getRows().get(2).get(0));
+
+    table.getRows().get(2).set(1, 20);
+    table.row().value("d").value(4);
+    assertEquals(Arrays.asList(Arrays.asList("changed", 3), Arrays.asList("c", 2)), filtered.getRows());
+    assertEquals(Arrays.asList(Arrays.asList("b", 1), Arrays.asList("c", 2), Arrays.asList("a", 3)), sorted.getRows());
+    assertEquals(Arrays.asList("c", 20), table.getRows().get(2));
+    assertEquals(4, table.getRows().size());
+
+    sorted.row().value("e").value(5);
+    assertEquals(4, sorted.getRows().size());
+    assertEquals(Arrays.asList("e", 5), sorted.getRows().get(3));
+    assertEquals(4, table.getRows().size());
+  }
+
+  @Test
+  public void testSpillToTemporaryFile() throws Exception {
+    final KnoxShellTableSpill spill = new KnoxShellTableSpill(0);
+    final List<List<Comparable<? extends Object>>> expected = generateRows(KnoxShellTableColumnBuffer.CHUNK_SIZE * 2 + 7, new Random(7));
+    final KnoxShellTable table = new KnoxShellTable();
+    table.rows = new KnoxShellTableRows(spill);
+    fill(table, expected);
+
+    assertTrue(spill.getSpilledBytes() > 0);
+    assertEquals(expected, table.getRows());
+    assertEquals(filter(expected, 3, "Austin"::equals), table.filter().name("city").equalTo("Austin").getRows());
+    assertEquals(StatUtils.sum(toDoubles(expected, 1)), table.sum("total"), 0.0);
+
+    table.getRows().get(5).set(1, 12345L);
+    assertEquals(12345L, table.getRows().get(5).get(1));
+  }
+
+  @Test
+  public void testHighCardinalityStrings() {
+    final List<List<Comparable<? extends Object>>> expected = new ArrayList<>();
+    for (int i = 0; i < KnoxShellTableColumn.MAX_DICTIONARY_SIZE + 10; i++) {
+      expected.add(Arrays.asList("id-" + i, "group-" + (i % 3)));
+    }
+    final KnoxShellTable table = new KnoxShellTable();
+    table.header("id").header("group");
+    fill(table, expected);
+
+    assertEquals(expected, table.getRows());
+    assertEquals(sort(expected, 0, true), table.sort("id", SortOrder.DESCENDING).getRows());
+  }
+
+  @Test
+  public void testEmptyTable() {
+    final KnoxShellTable table = new KnoxShellTable();
+    table.header("a");
+    assertTrue(table.getRows().isEmpty());
+    assertTrue(table.sort("a").getRows().isEmpty());
+    assertTrue(table.select("a").getRows().isEmpty());
+    assertTrue(Double.isNaN(table.mean("a")));
+  }
+
+  @Test
+  public void testCSVSplitMatchesRegularExpression() {
+    final String[] rows = {"", ",", "a,b,c", "a,,c,", "\"a,b\",c", "a,\"b,c\",\"d\"", "\"a,b", "a\",b,c",
+        "\"\"\"x,y\"\"\",z", ",\"a\",\"b,\"c", "no quotes at all"};
+    for (String row : rows) {
+      assertEquals(row, Arrays.asList(row.split(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)", -1)), CSVKnoxShellTableBuilder.split(row));
+    }
+  }
+
+  @Test
+  public void testJoinKeepsUnmatchedNullKeys() {
+    final KnoxShellTable left = new KnoxShellTable();
+    left.header("id").header("name");
+    left.row().value(1).value("one");
+    left.row().value(2).value("two");
+    left.row().value(null).value("none");
+    final KnoxShellTable right = new KnoxShellTable();
+    right.header("id").header("value");
+    right.row().value(2).value("first");
+    right.row().value(2).value("second");
+
+    final KnoxShellTable joined = KnoxShellTable.builder().join().left(left).right(right).on(0, 0);
+    assertEquals(Arrays.asList(Arrays.asList(2, "two", 2, "first"), Arrays.asList(null, "none")), joined.getRows());
+  }
+
+  /*
+   * Loads a generated CSV of ten million rows and times the table operations:
+   * mvn test -Dtest=KnoxShellTableColumnarTest#testTenMillionRowCSV -Dgroups=org.apache.knox.test.category.ManualTests
+   */
+  @Test
+  @Category(ManualTests.class)
+  public void testTenMillionRowCSV() throws Exception {
+    final int rowCount = 10_000_000;
+    final File csv = testFolder.newFile("benchmark.csv");
+    final Random random = new Random(1);
+    try (BufferedWriter writer = Files.newBufferedWriter(csv.toPath(), StandardCharsets.UTF_8)) {
+      writer.write("id,city,amount\n");
+      for (int i = 0; i < rowCount; i++) {
+        writer.write(i + "," + CITIES[random.nextInt(CITIES.length)] + "," + random.nextInt(100000) + "\n");
+      }
+    }
+
+    long start = System.nanoTime();
+    final KnoxShellTable table = KnoxShellTable.builder().csv().withHeaders().url(csv.toURI().toString());
+    report("load", start);
+    assertEquals(rowCount, table.getRows().size());
+
+    start = System.nanoTime();
+    final KnoxShellTable filtered = table.filter().name("city").equalTo("Szeged");
+    report("filter (" + filtered.getRows().size() + " rows)", start);
+
+    start = System.nanoTime();
+    final KnoxShellTable sorted = table.sort("city");
+    report("sort", start);
+    assertEquals(rowCount, sorted.getRows().size());
+
+    start = System.nanoTime();
+    final double sum = filtered.sum("amount");
+    report("sum of the filtered rows (" + sum + ")", start);
+
+    final Runtime runtime = Runtime.getRuntime();
+    System.out.println(String.format(Locale.ROOT, "heap used: %d MB", (runtime.totalMemory() - runtime.freeMemory()) >> 20));
+  }
+
+  private static void report(String operation, long start) {
+    System.out.println(String.format(Locale.ROOT, "%s: %d ms", operation,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+  }
+
+  private static List<List<Comparable<? extends Object>>> generateRows(int count, Random random) {
+    final List<List<Comparable<? extends Object>>> rows = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      final List<Comparable<? extends Object>> row = new ArrayList<>();
+      row.add(i);
+      row.add(random.nextLong() % 1_000_000L);
+      row.add(random.nextDouble());
+      row.add(CITIES[random.nextInt(CITIES.length)]);
+      row.add(String.valueOf(random.nextInt(1000)));
+      row.add(i % 3 == 0 ? null : (i % 3 == 1 ? (Comparable<? extends Object>) ("text" + i % 10) : Integer.valueOf(i)));
+      rows.add(row);
+    }
+    return rows;
+  }
+
+  private static KnoxShellTable toTable(List<List<Comparable<? extends Object>>> rows) {
+    final KnoxShellTable table = new KnoxShellTable();
+    table.header("id").header("total").header("score").header("city").header("amount").header("mixed");
+    fill(table, rows);
+    return table;
+  }
+
+  private static void fill(KnoxShellTable table, List<List<Comparable<? extends Object>>> rows) {
+    if (table.headers.isEmpty()) {
+      table.header("id").header("total").header("score").header("city").header("amount").header("mixed");
+    }
+    for (List<Comparable<? extends Object>> row : rows) {
+      table.row();
+      row.forEach(table::value);
+    }
+  }
+
+  private static List<List<Comparable<? extends Object>>> filter(List<List<Comparable<? extends Object>>> rows,
+      int column, Predicate<Object> predicate) {
+    return rows.stream().filter(row -> predicate.test(row.get(column))).collect(Collectors.toList());
+  }
+
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  private static List<List<Comparable<? extends Object>>> sort(List<List<Comparable<? extends Object>>> rows,
+      int column, boolean descending) {
+    Comparator<List<Comparable<? extends Object>>> comparator = (left, right) -> ((Comparable) left.get(column)).compareTo(right.get(column));
+    final List<List<Comparable<? extends Object>>> sorted = new ArrayList<>(rows);
+    sorted.sort(descending ? comparator.reversed() : comparator);
+    return sorted;
+  }
+
+  private static double[] toDoubles(List<List<Comparable<? extends Object>>> rows, int column) {
+    return rows.stream().mapToDouble(row -> {
+      final Object value = row.get(column);
+      return value instanceof String ? Double.parseDouble((String) value) : ((Number) value).doubleValue();
+    }).toArray();
+  }
+
+  private static String toCSV(List<List<Comparable<? extends Object>>> rows) {
+    final StringBuilder csv = new StringBuilder();
+    for (List<Comparable<? extends Object>> row : rows) {
+      csv.append(row.stream().map(String::valueOf).collect(Collectors.joining(","))).append('\n');
+    }
+    return csv.toString();
+  }
+
+}
@@ -49,6 +49,7 @@ public class GatewayTestConfig extends Configuration implements GatewayConfig {
   public static final int DEFAULT_WEBSOCKET_ASYNC_WRITE_TIMEOUT = 60000;
   public static final int DEFAULT_WEBSOCKET_IDLE_TIMEOUT = 300000;
   public static final int DEFAULT_WEBSOCKET_MAX_WAIT_BUFFER_COUNT = 100;
+  public static final long DEFAULT_WEBSOCKET_MAX_PENDING_BYTES = 1024 * 1024;
 
   private Path gatewayHomePath = Paths.get("gateway-home");
   private String hadoopConfDir = "hadoop";
@@ -67,6 +68,7 @@ public class GatewayTestConfig extends Configuration implements GatewayConfig {
   private List<String> includedSSLCiphers;
   private List<String> excludedSSLCiphers;
   private boolean sslEnabled;
+  private boolean http2Enabled;
   private String truststoreType = "jks";
   private String keystoreType = "jks";
   private boolean isTopologyPortMappingEnabled = true;
@@ -414,6 +416,36 @@ public class GatewayTestConfig extends Configuration implements GatewayConfig {
     return -1;
   }
 
+  @Override
+  public boolean isHttpClientPoolShared() {
+    return true;
+  }
+
+  @Override
+  public int getHttpClientPoolMaxTotal() {
+    return 64;
+  }
+
+  @Override
+  public int getHttpClientPoolMaxPerRoute() {
+    return 16;
+  }
+
+  @Override
+  public long getHttpClientPoolIdleTimeout() {
+    return 60000L;
+  }
+
+  @Override
+  public long getHttpClientPoolTimeToLive() {
+    return -1L;
+  }
+
+  @Override
+  public long getHttpClientPoolLeakDetectionThreshold() {
+    return 0L;
+  }
+
   @Override
   public String getHttpClientTruststorePath() {
     return null;
@@ -444,6 +476,60 @@ public class GatewayTestConfig extends Configuration implements GatewayConfig {
     return 254;
   }
 
+  @Override
+  public int getThreadPoolReserved() {
+    return -1;
+  }
+
+  @Override
+  public String getHttpServerExecutor() {
+    return "queued";
+  }
+
+  @Override
+  public String getHttpServerExecutorClass() {
+    return null;
+  }
+
+  @Override
+  public int getSslSessionCacheSize() {
+    return -1;
+  }
+
+  @Override
+  public int getSslSessionTimeout() {
+    return -1;
+  }
+
+  @Override
+  public boolean isHttp2Enabled() {
+    return http2Enabled;
+  }
+
+  public void setHttp2Enabled( boolean http2Enabled ) {
+    this.http2Enabled = http2Enabled;
+  }
+
+  @Override
+  public int getHttp2MaxConcurrentStreams() {
+    return 128;
+  }
+
+  @Override
+  public int getHttp2InitialStreamRecvWindow() {
+    return 512 * 1024;
+  }
+
+  @Override
+  public int getHttp2InitialSessionRecvWindow() {
+    return 1024 * 1024;
+  }
+
+  @Override
+  public int getHttp2MaxHeaderTableSize() {
+    return 4096;
+  }
+
   @Override
   public int getHttpServerRequestBuffer() {
     return 16*1024;
@@ -521,6 +607,26 @@ public class GatewayTestConfig extends Configuration implements GatewayConfig {
     return DEFAULT_SIGNING_KEY_PASSPHRASE_ALIAS;
   }
 
+  @Override
+  public long getSigningKeyVerifierCacheTimeToLive() {
+    return 3600;
+  }
+
+  @Override
+  public long getSigningKeyRotationOverlap() {
+    return 86400;
+  }
+
+  @Override
+  public long getSigningKeystoreReloadInterval() {
+    return 60;
+  }
+
+  @Override
+  public int getResponseCompressionLevel() {
+    return -1;
+  }
+
   @Override
   public List<String> getGlobalRulesServices() {
     ArrayList<String> services = new ArrayList<>();
@@ -578,6 +684,11 @@ public class GatewayTestConfig extends Configuration implements GatewayConfig {
     return DEFAULT_WEBSOCKET_MAX_WAIT_BUFFER_COUNT;
   }
 
+  @Override
+  public long getWebsocketMaxPendingBytes() {
+    return DEFAULT_WEBSOCKET_MAX_PENDING_BYTES;
+  }
+
   @Override
   public boolean isMetricsEnabled() {
     return false;
@@ -843,6 +954,11 @@ public class GatewayTestConfig extends Configuration implements GatewayConfig {
     return null;
   }
 
+  @Override
+  public boolean isKnoxTokenHashV2Enabled() {
+    return false;
+  }
+
   @Override
   public int getMaximumNumberOfTokensPerUser() {
     return 0;
@@ -114,4 +114,10 @@ public interface SpiGatewayMessages {
 
   @Message( level = MessageLevel.INFO, text = "HTTP client retry non safe request is set to {0} for {1}" )
   void setRetryNonIndependent(boolean retryNonIndependent, String serviceRole);
+
+  @Message( level = MessageLevel.INFO, text = "HTTP client asks the backend for content encodings {0} for {1}" )
+  void setBackendContentEncodings(String encodings, String serviceRole);
+
+  @Message( level = MessageLevel.WARN, text = "Content encoding {0} can not be decoded, the backend of {1} is not asked for it" )
+  void unsupportedBackendContentEncoding(String encoding, String serviceRole);
 }
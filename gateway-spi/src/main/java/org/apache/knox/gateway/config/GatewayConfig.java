@@ -223,6 +223,37 @@ public interface GatewayConfig {
 
   int getHttpClientSocketTimeout();
 
+  /**
+   * @return true if the dispatch HTTP clients of all topologies share their connection pools
+   */
+  boolean isHttpClientPoolShared();
+
+  /**
+   * @return the maximum number of connections in a shared connection pool
+   */
+  int getHttpClientPoolMaxTotal();
+
+  /**
+   * @return the maximum number of connections to one backend in a shared connection pool
+   */
+  int getHttpClientPoolMaxPerRoute();
+
+  /**
+   * @return the milliseconds after which idle pooled connections are closed; 0 to keep them
+   */
+  long getHttpClientPoolIdleTimeout();
+
+  /**
+   * @return the milliseconds after which pooled connections are no longer reused; -1 for no limit
+   */
+  long getHttpClientPoolTimeToLive();
+
+  /**
+   * @return the milliseconds a pooled connection may be leased before it is reported as leaked;
+   * 0 to disable the detection
+   */
+  long getHttpClientPoolLeakDetectionThreshold();
+
   /**
    * Returns the configured value for the path to the truststore to be used by the HTTP client instance
    * connecting to a service from the Gateway.
@@ -259,6 +290,64 @@ public interface GatewayConfig {
 
   int getThreadPoolMax();
 
+  /**
+   * @return the number of threads the gateway's HTTP server keeps reserved to take over selector
+   * work without a thread hand-off, or -1 to let Jetty size it
+   */
+  int getThreadPoolReserved();
+
+  /**
+   * Strategy for the thread pool of the gateway's HTTP server: <code>queued</code> for Jetty's
+   * queued thread pool, <code>reserved</code> for the queued thread pool with an explicit number of
+   * reserved threads or <code>executor</code> for the {@link java.util.concurrent.ThreadPoolExecutor}
+   * class named by {@link #getHttpServerExecutorClass()}.
+   * @return executor strategy name
+   */
+  String getHttpServerExecutor();
+
+  /**
+   * @return the name of the {@link java.util.concurrent.ThreadPoolExecutor} class, with a public
+   * no-argument constructor, used by the <code>executor</code> strategy
+   */
+  String getHttpServerExecutorClass();
+
+  /**
+   * @return the number of TLS sessions the gateway caches for resumption, or -1 for the JVM default
+   */
+  int getSslSessionCacheSize();
+
+  /**
+   * @return the number of seconds a cached TLS session may be resumed, or -1 for the JVM default
+   */
+  int getSslSessionTimeout();
+
+  /**
+   * @return true if the gateway's connectors also speak HTTP/2, negotiated with ALPN over TLS
+   * (h2) or by prior knowledge and upgrade on plain connectors (h2c)
+   */
+  boolean isHttp2Enabled();
+
+  /**
+   * @return the number of streams a client may have open at once on one HTTP/2 connection
+   */
+  int getHttp2MaxConcurrentStreams();
+
+  /**
+   * @return the bytes a client may send on one HTTP/2 stream before the gateway opens the window
+   */
+  int getHttp2InitialStreamRecvWindow();
+
+  /**
+   * @return the bytes a client may send on all streams of one HTTP/2 connection before the
+   * gateway opens the window
+   */
+  int getHttp2InitialSessionRecvWindow();
+
+  /**
+   * @return the size in bytes of the HPACK dynamic table used to decode request headers
+   */
+  int getHttp2MaxHeaderTableSize();
+
   int getHttpServerRequestBuffer();
 
   int getHttpServerRequestHeaderBuffer();
@@ -347,6 +436,28 @@ public interface GatewayConfig {
    */
   String getSigningKeyPassphraseAlias();
 
+  /**
+   * @return the time - in seconds - a verifier for the signature of tokens is cached; 0 disables the cache
+   */
+  long getSigningKeyVerifierCacheTimeToLive();
+
+  /**
+   * @return the time - in seconds - tokens signed with the previous signing key are still accepted
+   *         once the signing key changed
+   */
+  long getSigningKeyRotationOverlap();
+
+  /**
+   * @return the interval - in seconds - at which the signing keystore is checked for changes
+   */
+  long getSigningKeystoreReloadInterval();
+
+  /**
+   * @return the level, from 0 to 9 or -1 for the default, at which response bodies are compressed
+   *         again once they were decompressed to be rewritten
+   */
+  int getResponseCompressionLevel();
+
 
   List<String> getGlobalRulesServices();
 
@@ -414,6 +525,13 @@ public interface GatewayConfig {
    */
   int getWebsocketMaxWaitBufferCount();
 
+  /**
+   * Max number of bytes that may be queued for sending on one side of a proxied websocket connection
+   * before reading from the other side is suspended.
+   * @return pending bytes limit
+   */
+  long getWebsocketMaxPendingBytes();
+
   boolean isMetricsEnabled();
 
   boolean isJmxMetricsReportingEnabled();
@@ -732,6 +850,12 @@ public interface GatewayConfig {
    */
   String getKnoxTokenHashAlgorithm();
 
+  /**
+   * @return true if Knox Token passcodes are hashed in the v2 format. Only enable it once every
+   *         gateway sharing the token state runs a version that can verify v2 hashes.
+   */
+  boolean isKnoxTokenHashV2Enabled();
+
   /**
    * @return the maximum number of tokens a user can manage at the same time. -1
    *         means that users are allowed to create/manage as many tokens as they
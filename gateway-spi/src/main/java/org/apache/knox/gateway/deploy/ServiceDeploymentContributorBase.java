@@ -32,6 +32,8 @@ import java.util.Map;
 
 public abstract class ServiceDeploymentContributorBase extends DeploymentContributorBase implements ServiceDeploymentContributor {
 
+  protected static final String CACHE_ROLE = "cache";
+
   @Override
   public Version getVersion() {
     return new Version();
@@ -92,6 +94,12 @@ public abstract class ServiceDeploymentContributorBase extends DeploymentContrib
     }
   }
 
+  protected void addCacheFilter( DeploymentContext context, Service service, ResourceDescriptor resource) {
+    if (topologyContainsProviderType(context, CACHE_ROLE)) {
+      context.contributeFilter( service, resource, CACHE_ROLE, null, null );
+    }
+  }
+
 //    Temp - TODO refactor xForwardedHeaderFilter
   protected void addXForwardedFilter(DeploymentContext context, Service service, ResourceDescriptor resource) {
     final String XFORWARDED_FILTER_NAME = "XForwardedHeaderFilter";
@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.dispatch;
+
+import org.apache.commons.compress.compressors.brotli.BrotliCompressorInputStream;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.client.entity.DecompressingEntity;
+import org.apache.http.client.entity.DeflateInputStreamFactory;
+import org.apache.http.client.entity.GZIPInputStreamFactory;
+import org.apache.http.client.entity.InputStreamFactory;
+import org.apache.http.protocol.HttpContext;
+import org.apache.knox.gateway.SpiGatewayMessages;
+import org.apache.knox.gateway.i18n.messages.MessagesFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Asks the backend for compressed responses, whether the client accepts them or not.
+ *
+ * The Accept-Encoding header of the client is replaced by the encodings configured
+ * for the service and kept in the context of the request. A response in an encoding
+ * the client accepts is left as it is, so that its compressed bytes are streamed to
+ * the client. Any other encoded response is decoded for the client.
+ */
+final class ContentEncodingNegotiation implements HttpRequestInterceptor, HttpResponseInterceptor {
+  private static final SpiGatewayMessages LOG = MessagesFactory.get(SpiGatewayMessages.class);
+
+  static final String CLIENT_ACCEPT_ENCODING_ATTRIBUTE = "knox.client.accept-encoding";
+  static final String DEFAULT_ENCODINGS = "gzip,deflate,br";
+
+  private static final Map<String, InputStreamFactory> DECODERS = new LinkedHashMap<>();
+  static {
+    DECODERS.put("gzip", GZIPInputStreamFactory.getInstance());
+    DECODERS.put("x-gzip", GZIPInputStreamFactory.getInstance());
+    DECODERS.put("deflate", DeflateInputStreamFactory.getInstance());
+    DECODERS.put("br", BrotliCompressorInputStream::new);
+  }
+
+  private final String acceptEncoding;
+
+  private ContentEncodingNegotiation(String acceptEncoding) {
+    this.acceptEncoding = acceptEncoding;
+  }
+
+  /**
+   * @param encodings the comma separated encodings to ask the backend for, true for all
+   *                  supported ones, false or null to leave the Accept-Encoding header alone
+   * @return the negotiation, null if no encoding is to be asked for
+   */
+  static ContentEncodingNegotiation create(String encodings, String serviceRole) {
+    if (encodings == null || encodings.trim().isEmpty() || "false".equalsIgnoreCase(encodings.trim())) {
+      return null;
+    }
+    final String requested = "true".equalsIgnoreCase(encodings.trim()) ? DEFAULT_ENCODINGS : encodings;
+    final StringBuilder acceptEncoding = new StringBuilder();
+    for (String encoding : requested.split(",")) {
+      final String name = encoding.trim().toLowerCase(Locale.ROOT);
+      if (name.isEmpty()) {
+        continue;
+      }
+      if (!DECODERS.containsKey(name)) {
+        LOG.unsupportedBackendContentEncoding(name, serviceRole);
+        continue;
+      }
+      if (acceptEncoding.length() > 0) {
+        acceptEncoding.append(", ");
+      }
+      acceptEncoding.append(name);
+    }
+    if (acceptEncoding.length() == 0) {
+      return null;
+    }
+    LOG.setBackendContentEncodings(acceptEncoding.toString(), serviceRole);
+    return new ContentEncodingNegotiation(acceptEncoding.toString());
+  }
+
+  String getAcceptEncoding() {
+    return acceptEncoding;
+  }
+
+  @Override
+  public void process(HttpRequest request, HttpContext context) {
+    final Header[] headers = request.getHeaders(HttpHeaders.ACCEPT_ENCODING);
+    if (headers.length > 0) {
+      final StringBuilder clientAcceptEncoding = new StringBuilder();
+      for (Header header : headers) {
+        if (clientAcceptEncoding.length() > 0) {
+          clientAcceptEncoding.append(',');
+        }
+        clientAcceptEncoding.append(header.getValue());
+      }
+      context.setAttribute(CLIENT_ACCEPT_ENCODING_ATTRIBUTE, clientAcceptEncoding.toString());
+    }
+    request.setHeader(HttpHeaders.ACCEPT_ENCODING, acceptEncoding);
+  }
+
+  @Override
+  public void process(HttpResponse response, HttpContext context) {
+    final HttpEntity entity = response.getEntity();
+    if (entity == null || entity.getContentLength() == 0 || entity.getContentEncoding() == null) {
+      return;
+    }
+    final String encoding = entity.getContentEncoding().getValue().trim().toLowerCase(Locale.ROOT);
+    if (encoding.isEmpty() || "identity".equals(encoding)
+        || accepts((String) context.getAttribute(CLIENT_ACCEPT_ENCODING_ATTRIBUTE), encoding)) {
+      return;
+    }
+    final InputStreamFactory decoder = DECODERS.get(encoding);
+    if (decoder != null) {
+      response.setEntity(new DecompressingEntity(entity, decoder));
+      response.removeHeaders(HttpHeaders.CONTENT_ENCODING);
+      response.removeHeaders(HttpHeaders.CONTENT_LENGTH);
+      response.removeHeaders(HttpHeaders.CONTENT_MD5);
+    }
+  }
+
+  /**
+   * @param acceptEncoding the Accept-Encoding header of the client, null if it sent none
+   * @return true if the header accepts the encoding with a non-zero quality
+   */
+  static boolean accepts(String acceptEncoding, String encoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    Boolean wildcard = null;
+    for (String element : acceptEncoding.split(",")) {
+      final String[] parts = element.split(";");
+      final String name = parts[0].trim().toLowerCase(Locale.ROOT);
+      final boolean accepted = quality(parts) > 0;
+      if (name.equals(encoding) || ("x-" + name).equals(encoding) || ("x-" + encoding).equals(name)) {
+        return accepted;
+      }
+      if ("*".equals(name)) {
+        wildcard = accepted;
+      }
+    }
+    return Boolean.TRUE.equals(wildcard);
+  }
+
+  private static float quality(String[] parts) {
+    for (int i = 1; i < parts.length; i++) {
+      final String parameter = parts[i].trim();
+      if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+        try {
+          return Float.parseFloat(parameter.substring(2).trim());
+        } catch (NumberFormatException e) {
+          return 0;
+        }
+      }
+    }
+    return 1;
+  }
+}
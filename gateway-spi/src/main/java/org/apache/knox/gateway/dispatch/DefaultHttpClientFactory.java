@@ -31,6 +31,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
 import org.apache.http.ssl.SSLContextBuilder;
 import org.apache.knox.gateway.services.ServiceType;
+import org.apache.knox.gateway.services.httpclient.HttpConnectionPoolService;
 import org.apache.knox.gateway.services.security.AliasService;
 import org.apache.knox.gateway.services.security.KeystoreService;
 import org.apache.knox.gateway.SpiGatewayMessages;
@@ -38,8 +39,11 @@ import org.apache.knox.gateway.config.GatewayConfig;
 import org.apache.knox.gateway.i18n.messages.MessagesFactory;
 import org.apache.knox.gateway.services.GatewayServices;
 import org.apache.knox.gateway.services.metrics.MetricsService;
+import org.apache.knox.gateway.topology.Topology;
 import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
 import org.apache.http.ProtocolException;
 import org.apache.http.auth.AuthSchemeProvider;
 import org.apache.http.auth.AuthScope;
@@ -54,6 +58,8 @@ import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.config.Registry;
 import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.cookie.Cookie;
 import org.apache.http.impl.DefaultConnectionReuseStrategy;
@@ -61,6 +67,7 @@ import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.ssl.SSLContexts;
 import org.joda.time.Period;
@@ -76,6 +83,13 @@ public class DefaultHttpClientFactory implements HttpClientFactory {
   static final String PARAMETER_RETRY_NON_SAFE_REQUEST = "retryNonSafeRequest";
   /* do not retry non-idempotent requests OOTB */
   static final boolean DEFAULT_PARAMETER_RETRY_NON_SAFE_REQUEST = false;
+  /* comma separated content encodings to ask the backend for, true for all supported ones */
+  static final String PARAMETER_CONTENT_COMPRESSION = "httpclient.contentCompression";
+  private static final String PARAMETER_MAX_CONNECTIONS = "httpclient.maxConnections";
+  /* names of the shared connection pools, by TLS setup */
+  static final String SHARED_POOL_DEFAULT = "default";
+  static final String SHARED_POOL_TWO_WAY_SSL = "two-way-ssl";
+  private static final String SHARED_POOL_TOPOLOGY = "shared";
 
   @Override
   public HttpClient createHttpClient(FilterConfig filterConfig) {
@@ -84,17 +98,23 @@ public class DefaultHttpClientFactory implements HttpClientFactory {
     GatewayConfig gatewayConfig = (GatewayConfig) filterConfig.getServletContext().getAttribute(GatewayConfig.GATEWAY_CONFIG_ATTRIBUTE);
     GatewayServices services = (GatewayServices) filterConfig.getServletContext()
         .getAttribute(GatewayServices.GATEWAY_SERVICES_ATTRIBUTE);
+    MetricsService metricsService = null;
     if (gatewayConfig != null && gatewayConfig.isMetricsEnabled()) {
-      MetricsService metricsService = services.getService(ServiceType.METRICS_SERVICE);
+      metricsService = services.getService(ServiceType.METRICS_SERVICE);
       builder = metricsService.getInstrumented(HttpClientBuilder.class);
     } else {
       builder = HttpClients.custom();
     }
 
-    // Conditionally set a custom SSLContext
-    SSLContext sslContext = createSSLContext(services, filterConfig, serviceRole);
-    if(sslContext != null) {
-      builder.setSSLSocketFactory(new SSLConnectionSocketFactory(sslContext));
+    HttpConnectionPoolService connectionPoolService = getConnectionPoolService(gatewayConfig, services, filterConfig);
+    SSLConnectionSocketFactory sslSocketFactory = null;
+    if (connectionPoolService == null) {
+      // Conditionally set a custom SSLContext
+      SSLContext sslContext = createSSLContext(services, filterConfig, serviceRole);
+      if(sslContext != null) {
+        sslSocketFactory = new SSLConnectionSocketFactory(sslContext);
+        builder.setSSLSocketFactory(sslSocketFactory);
+      }
     }
 
     if (Boolean.parseBoolean(System.getProperty(GatewayConfig.HADOOP_KERBEROS_SECURED))) {
@@ -117,14 +137,32 @@ public class DefaultHttpClientFactory implements HttpClientFactory {
     builder.setRedirectStrategy( new NeverRedirectStrategy() );
     builder.setRetryHandler( new NeverRetryHandler() );
 
-    int maxConnections = getMaxConnections( filterConfig );
-    builder.setMaxConnTotal( maxConnections );
-    builder.setMaxConnPerRoute( maxConnections );
+    if (connectionPoolService != null) {
+      // The TLS setup is all that differs between the clients, the pool keeps connections per backend
+      String poolName = Boolean.parseBoolean(filterConfig.getInitParameter(PARAMETER_USE_TWO_WAY_SSL))
+          ? SHARED_POOL_TWO_WAY_SSL : SHARED_POOL_DEFAULT;
+      PoolingHttpClientConnectionManager connectionManager = connectionPoolService.getConnectionManager(poolName,
+          () -> createSSLContext(services, filterConfig, serviceRole));
+      builder.setConnectionManager(connectionManager);
+      builder.setConnectionManagerShared(true);
+      if (metricsService != null) {
+        metricsService.getRequestMetrics().registerConnectionPool(SHARED_POOL_TOPOLOGY, poolName, connectionManager);
+      }
+    } else {
+      configurePrivateConnectionPool(builder, filterConfig, serviceRole, sslSocketFactory, metricsService);
+    }
 
     builder.setDefaultRequestConfig(getRequestConfig(filterConfig, serviceRole));
 
     // See KNOX-1530 for details
     builder.disableContentCompression();
+    // Compression towards the backend is opt-in and leaves responses encoded for the clients accepting them
+    final ContentEncodingNegotiation contentEncodingNegotiation =
+        ContentEncodingNegotiation.create(filterConfig.getInitParameter(PARAMETER_CONTENT_COMPRESSION), serviceRole);
+    if (contentEncodingNegotiation != null) {
+      builder.addInterceptorLast((HttpRequestInterceptor) contentEncodingNegotiation);
+      builder.addInterceptorFirst((HttpResponseInterceptor) contentEncodingNegotiation);
+    }
 
     if (doesRetryParamExist(filterConfig)) {
       int retryCount = Integer.parseInt(filterConfig.getInitParameter(PARAMETER_RETRY_COUNT));
@@ -143,6 +181,34 @@ public class DefaultHttpClientFactory implements HttpClientFactory {
     return builder.build();
   }
 
+  /**
+   * @return the service holding the pools shared by all topologies, or null if the client
+   *         needs a pool of its own
+   */
+  private static HttpConnectionPoolService getConnectionPoolService(GatewayConfig gatewayConfig, GatewayServices services,
+                                                                    FilterConfig filterConfig) {
+    // A service limiting its own connections keeps them in a separate pool
+    if (gatewayConfig == null || services == null || !gatewayConfig.isHttpClientPoolShared()
+        || filterConfig.getInitParameter(PARAMETER_MAX_CONNECTIONS) != null) {
+      return null;
+    }
+    return services.getService(ServiceType.HTTP_CONNECTION_POOL_SERVICE);
+  }
+
+  private void configurePrivateConnectionPool(HttpClientBuilder builder, FilterConfig filterConfig, String serviceRole,
+                                              SSLConnectionSocketFactory sslSocketFactory, MetricsService metricsService) {
+    int maxConnections = getMaxConnections( filterConfig );
+    if (metricsService != null) {
+      // Create the pool the builder would create to expose its statistics
+      PoolingHttpClientConnectionManager connectionManager = createConnectionManager(sslSocketFactory, maxConnections);
+      builder.setConnectionManager(connectionManager);
+      metricsService.getRequestMetrics().registerConnectionPool(getTopologyName(filterConfig), serviceRole, connectionManager);
+    } else {
+      builder.setMaxConnTotal( maxConnections );
+      builder.setMaxConnPerRoute( maxConnections );
+    }
+  }
+
   private boolean doesRetryParamExist(final FilterConfig filterConfig) {
     return filterConfig.getInitParameter(PARAMETER_RETRY_COUNT) != null
         && StringUtils
@@ -225,6 +291,28 @@ public class DefaultHttpClientFactory implements HttpClientFactory {
     }
   }
 
+  private static PoolingHttpClientConnectionManager createConnectionManager(SSLConnectionSocketFactory sslSocketFactory,
+                                                                            int maxConnections) {
+    Registry<ConnectionSocketFactory> socketFactories = RegistryBuilder.<ConnectionSocketFactory>create()
+        .register("http", PlainConnectionSocketFactory.getSocketFactory())
+        .register("https", sslSocketFactory != null ? sslSocketFactory : SSLConnectionSocketFactory.getSocketFactory())
+        .build();
+    PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(socketFactories);
+    if (maxConnections > 0) {
+      connectionManager.setMaxTotal(maxConnections);
+      connectionManager.setDefaultMaxPerRoute(maxConnections);
+    }
+    return connectionManager;
+  }
+
+  private static String getTopologyName(FilterConfig filterConfig) {
+    Object topology = filterConfig.getServletContext().getAttribute("org.apache.knox.gateway.topology");
+    if (topology instanceof Topology) {
+      return ((Topology) topology).getName();
+    }
+    return filterConfig.getServletContext().getContextPath();
+  }
+
   static RequestConfig getRequestConfig(FilterConfig config, String serviceRole) {
     RequestConfig.Builder builder = RequestConfig.custom();
     int connectionTimeout = getConnectionTimeout( config );
@@ -314,7 +402,7 @@ public class DefaultHttpClientFactory implements HttpClientFactory {
     if( config != null ) {
       maxConnections = config.getHttpClientMaxConnections();
     }
-    String str = filterConfig.getInitParameter( "httpclient.maxConnections" );
+    String str = filterConfig.getInitParameter( PARAMETER_MAX_CONNECTIONS );
     if( str != null ) {
       try {
         maxConnections = Integer.parseInt( str );
@@ -40,6 +40,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class GatewayDispatchFilter extends AbstractGatewayFilter {
 
@@ -51,7 +52,8 @@ public class GatewayDispatchFilter extends AbstractGatewayFilter {
 
   private String whitelist;
 
-  private Dispatch dispatch;
+  /* Read on every request without locking, replaced only when the filter is set up */
+  private final AtomicReference<Dispatch> dispatch = new AtomicReference<>();
 
   private HttpClient httpClient;
 
@@ -71,11 +73,12 @@ public class GatewayDispatchFilter extends AbstractGatewayFilter {
   public void init(FilterConfig filterConfig) throws ServletException {
     super.init(filterConfig);
     synchronized(lock) {
-      if (dispatch == null) {
+      Dispatch configured = dispatch.get();
+      if (configured == null) {
         String dispatchImpl = filterConfig.getInitParameter("dispatch-impl");
-        dispatch = newInstanceFromName(dispatchImpl);
+        configured = newInstanceFromName(dispatchImpl);
       }
-      ConfigurationInjectorBuilder.configuration().target(dispatch).source(filterConfig).inject();
+      ConfigurationInjectorBuilder.configuration().target(configured).source(filterConfig).inject();
       HttpClientFactory httpClientFactory;
       String httpClientFactoryClass = filterConfig.getInitParameter("httpClientFactory");
       if (httpClientFactoryClass != null) {
@@ -84,15 +87,20 @@ public class GatewayDispatchFilter extends AbstractGatewayFilter {
         httpClientFactory = new DefaultHttpClientFactory();
       }
       httpClient = httpClientFactory.createHttpClient(filterConfig);
-      dispatch.setHttpClient(httpClient);
-      dispatch.init();
+      configured.setHttpClient(httpClient);
+      configured.init();
+      // Requests only see the dispatch once it is completely set up
+      dispatch.set(configured);
     }
   }
 
   @Override
   public void destroy() {
     synchronized(lock) {
-      dispatch.destroy();
+      Dispatch configured = dispatch.get();
+      if (configured != null) {
+        configured.destroy();
+      }
       try {
         if (httpClient instanceof  CloseableHttpClient) {
           ((CloseableHttpClient) httpClient).close();
@@ -104,15 +112,11 @@ public class GatewayDispatchFilter extends AbstractGatewayFilter {
   }
 
   public Dispatch getDispatch() {
-    synchronized(lock) {
-      return dispatch;
-    }
+    return dispatch.get();
   }
 
   public void setDispatch(Dispatch dispatch) {
-    synchronized(lock) {
-      this.dispatch = dispatch;
-    }
+    this.dispatch.set(dispatch);
   }
 
   @Override
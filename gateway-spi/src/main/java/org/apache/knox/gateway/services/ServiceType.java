@@ -25,6 +25,7 @@ public enum ServiceType {
   CLUSTER_CONFIGURATION_MONITOR_SERVICE("ClusterConfigurationMonitorService"),
   CRYPTO_SERVICE("CryptoService"),
   HOST_MAPPING_SERVICE("HostMappingService"),
+  HTTP_CONNECTION_POOL_SERVICE("HttpConnectionPoolService"),
   KEYSTORE_SERVICE("KeystoreService"),
   MASTER_SERVICE("MasterService"),
   METRICS_SERVICE("MetricsService"),
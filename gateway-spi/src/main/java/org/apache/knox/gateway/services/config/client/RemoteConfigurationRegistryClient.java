@@ -16,7 +16,11 @@
  */
 package org.apache.knox.gateway.services.config.client;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public interface RemoteConfigurationRegistryClient extends AutoCloseable {
 
@@ -36,6 +40,44 @@ public interface RemoteConfigurationRegistryClient extends AutoCloseable {
 
     String getEntryData(String path, String encoding);
 
+    /**
+     * Get the version of an entry without fetching its data.
+     *
+     * @param path The path of the entry
+     *
+     * @return A future for the version of the entry, which completes with null if the entry does not exist or the
+     *         registry does not track entry versions.
+     */
+    default CompletableFuture<EntryVersion> getEntryVersionAsync(String path) {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Fetch the data of an entry, along with the version of the entry that data belongs to. Implementations should
+     * not block the caller, so that many entries can be fetched concurrently.
+     *
+     * @param path The path of the entry
+     *
+     * @return A future for the data of the entry, which completes with null if the entry does not exist.
+     */
+    default CompletableFuture<EntryData> getEntryDataAsync(String path) {
+        final String data = getEntryData(path);
+        if (data == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.completedFuture(new EntryData() {
+            @Override
+            public byte[] getData() {
+                return data.getBytes(StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public EntryVersion getVersion() {
+                return null;
+            }
+        });
+    }
+
     void createEntry(String path);
 
     void createEntry(String path, String data);
@@ -48,6 +90,36 @@ public interface RemoteConfigurationRegistryClient extends AutoCloseable {
 
     void deleteEntry(String path);
 
+    /**
+     * Create or update several entries. Implementations should apply all of the changes with a single operation against
+     * the registry; the default implementation writes the entries one by one.
+     *
+     * @param entries The data of the entries, by path; the parents of the entries must already exist
+     */
+    default void setEntriesData(Map<String, String> entries) {
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            if (entryExists(entry.getKey())) {
+                setEntryData(entry.getKey(), entry.getValue());
+            } else {
+                createEntry(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Delete several entries; entries which do not exist are ignored. Implementations should apply all of the changes
+     * with a single operation against the registry; the default implementation deletes the entries one by one.
+     *
+     * @param paths The paths of the entries to delete
+     */
+    default void deleteEntries(Collection<String> paths) {
+        for (String path : paths) {
+            if (entryExists(path)) {
+                deleteEntry(path);
+            }
+        }
+    }
+
     void addChildEntryListener(String path, ChildEntryListener listener) throws Exception;
 
     void addEntryListener(String path, EntryListener listener) throws Exception;
@@ -73,6 +145,30 @@ public interface RemoteConfigurationRegistryClient extends AutoCloseable {
         void entryChanged(RemoteConfigurationRegistryClient client, String path, byte[] data);
     }
 
+    /**
+     * Identifies a particular revision of an entry.
+     */
+    interface EntryVersion {
+        /**
+         * @return The registry-wide identifier of the transaction that last modified the entry
+         */
+        long getModifiedTransactionId();
+
+        /**
+         * @return The number of changes made to the data of the entry
+         */
+        int getVersion();
+    }
+
+    interface EntryData {
+        byte[] getData();
+
+        /**
+         * @return The version of the entry the data belongs to, or null if the registry does not track entry versions
+         */
+        EntryVersion getVersion();
+    }
+
     interface EntryACL {
         String getId();
         String getType();
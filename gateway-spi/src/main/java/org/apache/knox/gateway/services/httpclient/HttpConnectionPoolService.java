@@ -0,0 +1,44 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.services.httpclient;
+
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.knox.gateway.services.Service;
+
+import javax.net.ssl.SSLContext;
+import java.util.function.Supplier;
+
+/**
+ * Holds the connection pools the dispatch HTTP clients of all topologies share.
+ *
+ * Clients with the same TLS setup get the same pool, so topologies pointing at the
+ * same backend reuse each other's connections and the TLS context is only built once.
+ * Connections are pooled per route, bounded by
+ * {@link org.apache.knox.gateway.config.GatewayConfig#getHttpClientPoolMaxPerRoute()}.
+ */
+public interface HttpConnectionPoolService extends Service {
+
+  /**
+   * @param name identifies the TLS setup of the clients using the pool
+   * @param sslContextFactory creates the TLS context of a new pool, it may return null
+   *                          for the default one
+   * @return the pool shared by the clients with the given TLS setup, which must not be
+   *         shut down by them
+   */
+  PoolingHttpClientConnectionManager getConnectionManager(String name, Supplier<SSLContext> sslContextFactory);
+}
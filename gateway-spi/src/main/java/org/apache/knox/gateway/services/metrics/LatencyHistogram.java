@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.services.metrics;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock free latency histogram with fixed buckets from 100 microseconds to one minute.
+ *
+ * Recording is a binary search over the bucket bounds and an increment of a striped
+ * counter, so concurrent requests on the same route do not contend on a single cache
+ * line. The bucket bounds are the ones exposed as <code>le</code> labels, which keeps
+ * the cumulative counts written to Prometheus exact.
+ */
+public final class LatencyHistogram {
+
+  private static final long[] BOUNDS_MICROS = {
+      100, 250, 500,
+      1_000, 2_500, 5_000,
+      10_000, 25_000, 50_000,
+      100_000, 250_000, 500_000,
+      1_000_000, 2_500_000, 5_000_000,
+      10_000_000, 30_000_000, 60_000_000
+  };
+
+  private static final String[] BOUNDS_SECONDS = new String[BOUNDS_MICROS.length];
+  static {
+    for (int i = 0; i < BOUNDS_MICROS.length; i++) {
+      BOUNDS_SECONDS[i] = BigDecimal.valueOf(BOUNDS_MICROS[i], 6).stripTrailingZeros().toPlainString();
+    }
+  }
+
+  /* One counter per bucket plus the overflow bucket */
+  private final LongAdder[] buckets = new LongAdder[BOUNDS_MICROS.length + 1];
+  private final LongAdder sumNanos = new LongAdder();
+
+  public LatencyHistogram() {
+    for (int i = 0; i < buckets.length; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  public void record(long duration, TimeUnit unit) {
+    long nanos = Math.max(0, unit.toNanos(duration));
+    int index = Arrays.binarySearch(BOUNDS_MICROS, TimeUnit.NANOSECONDS.toMicros(nanos));
+    if (index < 0) {
+      index = -index - 1;
+    }
+    buckets[index].increment();
+    sumNanos.add(nanos);
+  }
+
+  /**
+   * @return the number of recorded values for every bucket including all smaller ones,
+   * the last element is the total count
+   */
+  public long[] getCumulativeCounts() {
+    long[] counts = new long[buckets.length];
+    long total = 0;
+    for (int i = 0; i < buckets.length; i++) {
+      total += buckets[i].sum();
+      counts[i] = total;
+    }
+    return counts;
+  }
+
+  public long getCount() {
+    long total = 0;
+    for (LongAdder bucket : buckets) {
+      total += bucket.sum();
+    }
+    return total;
+  }
+
+  public double getSumSeconds() {
+    return sumNanos.sum() / 1e9;
+  }
+
+  /**
+   * @return the upper bounds of all but the overflow bucket in seconds, formatted for
+   * <code>le</code> labels
+   */
+  public static String[] getBucketBounds() {
+    return BOUNDS_SECONDS.clone();
+  }
+}
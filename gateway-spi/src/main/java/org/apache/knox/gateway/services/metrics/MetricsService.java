@@ -19,10 +19,26 @@ package org.apache.knox.gateway.services.metrics;
 
 import org.apache.knox.gateway.services.Service;
 
+import java.io.IOException;
+import java.io.Writer;
+
 public interface MetricsService extends Service {
 
   <T> T getInstrumented(T instanceClass);
 
   <T> T getInstrumented(Class<T> clazz);
 
+  /**
+   * @return the per route request latencies and backend connection pools of the gateway
+   */
+  RequestMetrics getRequestMetrics();
+
+  /**
+   * Writes all metrics in the Prometheus text exposition format.
+   *
+   * @param writer the writer to write the metrics to
+   * @throws IOException if writing fails
+   */
+  void writePrometheusMetrics(Writer writer) throws IOException;
+
 }
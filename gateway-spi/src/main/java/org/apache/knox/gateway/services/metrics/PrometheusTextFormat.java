@@ -0,0 +1,271 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.services.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Writes gateway metrics in the Prometheus text exposition format, version 0.0.4.
+ *
+ * Request latencies are written as histograms labelled by topology, service, method and
+ * status class, connection pools as gauges per backend. Metrics of the Dropwizard
+ * registry keep their names with invalid characters replaced: counters and gauges become
+ * gauges, meters counters and timers and histograms summaries without a sum, the same
+ * mapping the Prometheus Dropwizard exporter uses.
+ */
+public final class PrometheusTextFormat {
+
+  public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  private static final double[] QUANTILES = {0.5, 0.75, 0.95, 0.98, 0.99, 0.999};
+
+  private static final String[] POOL_STATES = {"leased", "available", "pending"};
+
+  private final Writer writer;
+  private final Set<String> families = new HashSet<>();
+
+  private PrometheusTextFormat(Writer writer) {
+    this.writer = writer;
+  }
+
+  public static void write(Writer writer, RequestMetrics requestMetrics, MetricRegistry registry)
+      throws IOException {
+    PrometheusTextFormat format = new PrometheusTextFormat(writer);
+    if (requestMetrics != null) {
+      format.writeRequests(requestMetrics.getRoutes());
+      format.writeConnectionPools(requestMetrics.getConnectionPools());
+    }
+    if (registry != null) {
+      format.writeRegistry(registry);
+    }
+    writer.flush();
+  }
+
+  private void writeRequests(Collection<RequestMetrics.Route> routes) throws IOException {
+    writeHistograms("knox_request_duration_seconds",
+        "Time from receiving a request until the response is complete.", routes, RequestMetrics.Route::getTotal);
+    writeHistograms("knox_gateway_overhead_seconds",
+        "Request time not spent waiting for the backend.", routes, RequestMetrics.Route::getOverhead);
+    writeHistograms("knox_backend_duration_seconds",
+        "Time until the backend response headers arrived.", routes, RequestMetrics.Route::getBackend);
+  }
+
+  private void writeHistograms(String name, String help, Collection<RequestMetrics.Route> routes,
+                               Function<RequestMetrics.Route, LatencyHistogram> histogram) throws IOException {
+    if (!family(name, "histogram", help)) {
+      return;
+    }
+    String[] bounds = LatencyHistogram.getBucketBounds();
+    for (RequestMetrics.Route route : routes) {
+      LatencyHistogram latencies = histogram.apply(route);
+      long[] counts = latencies.getCumulativeCounts();
+      long count = counts[counts.length - 1];
+      if (count == 0) {
+        continue;
+      }
+      Map<String, String> labels = route.getLabels();
+      for (int i = 0; i < bounds.length; i++) {
+        labels.put("le", bounds[i]);
+        sample(name + "_bucket", labels, Long.toString(counts[i]));
+      }
+      labels.put("le", "+Inf");
+      sample(name + "_bucket", labels, Long.toString(count));
+      labels.remove("le");
+      sample(name + "_sum", labels, number(latencies.getSumSeconds()));
+      sample(name + "_count", labels, Long.toString(count));
+    }
+  }
+
+  /* Pools of the same service are summed up, a service may dispatch through several clients */
+  private void writeConnectionPools(Map<PoolingHttpClientConnectionManager, RequestMetrics.ConnectionPool> pools)
+      throws IOException {
+    Map<Map<String, String>, int[]> backends = new LinkedHashMap<>();
+    for (Map.Entry<PoolingHttpClientConnectionManager, RequestMetrics.ConnectionPool> entry : pools.entrySet()) {
+      PoolingHttpClientConnectionManager connectionManager = entry.getKey();
+      for (HttpRoute route : connectionManager.getRoutes()) {
+        PoolStats stats = connectionManager.getStats(route);
+        Map<String, String> labels = new LinkedHashMap<>();
+        labels.put("topology", entry.getValue().getTopology());
+        labels.put("service", entry.getValue().getServiceRole());
+        labels.put("backend", route.getTargetHost().toURI());
+        int[] values = backends.computeIfAbsent(labels, key -> new int[POOL_STATES.length + 1]);
+        values[0] += stats.getLeased();
+        values[1] += stats.getAvailable();
+        values[2] += stats.getPending();
+        values[POOL_STATES.length] += stats.getMax();
+      }
+    }
+    if (backends.isEmpty()) {
+      return;
+    }
+    family("knox_backend_connections", "gauge", "Connections to a backend by state.");
+    for (Map.Entry<Map<String, String>, int[]> backend : backends.entrySet()) {
+      Map<String, String> labels = new LinkedHashMap<>(backend.getKey());
+      for (int i = 0; i < POOL_STATES.length; i++) {
+        labels.put("state", POOL_STATES[i]);
+        sample("knox_backend_connections", labels, Integer.toString(backend.getValue()[i]));
+      }
+    }
+    family("knox_backend_connections_max", "gauge", "Maximum number of connections to a backend.");
+    for (Map.Entry<Map<String, String>, int[]> backend : backends.entrySet()) {
+      sample("knox_backend_connections_max", backend.getKey(),
+          Integer.toString(backend.getValue()[POOL_STATES.length]));
+    }
+  }
+
+  private void writeRegistry(MetricRegistry registry) throws IOException {
+    for (Map.Entry<String, Gauge> entry : registry.getGauges().entrySet()) {
+      Object value;
+      try {
+        value = entry.getValue().getValue();
+      } catch (RuntimeException e) {
+        continue;
+      }
+      if (value instanceof Number || value instanceof Boolean) {
+        String name = sanitize(entry.getKey());
+        if (family(name, "gauge", entry.getKey())) {
+          double number = value instanceof Boolean
+              ? ((Boolean) value ? 1 : 0) : ((Number) value).doubleValue();
+          sample(name, null, number(number));
+        }
+      }
+    }
+    for (Map.Entry<String, Counter> entry : registry.getCounters().entrySet()) {
+      String name = sanitize(entry.getKey());
+      if (family(name, "gauge", entry.getKey())) {
+        sample(name, null, Long.toString(entry.getValue().getCount()));
+      }
+    }
+    for (Map.Entry<String, Meter> entry : registry.getMeters().entrySet()) {
+      String name = sanitize(entry.getKey()) + "_total";
+      if (family(name, "counter", entry.getKey())) {
+        sample(name, null, Long.toString(entry.getValue().getCount()));
+      }
+    }
+    for (Map.Entry<String, Histogram> entry : registry.getHistograms().entrySet()) {
+      summary(sanitize(entry.getKey()), entry.getKey(), entry.getValue().getSnapshot(),
+          entry.getValue().getCount(), 1);
+    }
+    for (Map.Entry<String, Timer> entry : registry.getTimers().entrySet()) {
+      summary(sanitize(entry.getKey()) + "_seconds", entry.getKey(), entry.getValue().getSnapshot(),
+          entry.getValue().getCount(), 1e-9);
+    }
+  }
+
+  private void summary(String name, String help, Snapshot snapshot, long count, double factor)
+      throws IOException {
+    if (!family(name, "summary", help)) {
+      return;
+    }
+    Map<String, String> labels = new LinkedHashMap<>();
+    for (double quantile : QUANTILES) {
+      labels.put("quantile", number(quantile));
+      sample(name, labels, number(snapshot.getValue(quantile) * factor));
+    }
+    sample(name + "_count", null, Long.toString(count));
+  }
+
+  /* Writes the header of a metric family, false if a family of the same name was written already */
+  private boolean family(String name, String type, String help) throws IOException {
+    if (!families.add(name)) {
+      return false;
+    }
+    writer.write("# HELP ");
+    writer.write(name);
+    writer.write(' ');
+    writer.write(help.replace("\\", "\\\\").replace("\n", "\\n"));
+    writer.write("\n# TYPE ");
+    writer.write(name);
+    writer.write(' ');
+    writer.write(type);
+    writer.write('\n');
+    return true;
+  }
+
+  private void sample(String name, Map<String, String> labels, String value) throws IOException {
+    writer.write(name);
+    if (labels != null && !labels.isEmpty()) {
+      writer.write('{');
+      boolean first = true;
+      for (Map.Entry<String, String> label : labels.entrySet()) {
+        if (!first) {
+          writer.write(',');
+        }
+        first = false;
+        writer.write(label.getKey());
+        writer.write("=\"");
+        writer.write(escape(label.getValue()));
+        writer.write('"');
+      }
+      writer.write('}');
+    }
+    writer.write(' ');
+    writer.write(value);
+    writer.write('\n');
+  }
+
+  static String sanitize(String name) {
+    StringBuilder builder = new StringBuilder(name.length() + 1);
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == ':'
+          || (c >= '0' && c <= '9' && i > 0);
+      if (!valid && c >= '0' && c <= '9') {
+        builder.append('_');
+        valid = true;
+      }
+      builder.append(valid ? c : '_');
+    }
+    return builder.toString();
+  }
+
+  private static String escape(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  private static String number(double value) {
+    if (Double.isNaN(value)) {
+      return "NaN";
+    }
+    if (Double.isInfinite(value)) {
+      return value > 0 ? "+Inf" : "-Inf";
+    }
+    if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+      return Long.toString((long) value);
+    }
+    return Double.toString(value);
+  }
+}
@@ -0,0 +1,231 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.services.metrics;
+
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request latencies of the gateway broken down by topology, service role, method and
+ * status class, and the connection pools used to dispatch to the backends.
+ *
+ * The handles for a route are created on the first request and looked up without any
+ * string building afterwards. Backend time is collected per thread from
+ * {@link #beginRequest()} until the request ends, which matches the synchronous dispatch
+ * of the gateway, and is subtracted from the total to get the gateway overhead.
+ */
+public class RequestMetrics {
+
+  public static final String UNKNOWN = "unknown";
+
+  /* Label of the methods that are not standard, clients must not be able to add series */
+  public static final String OTHER = "other";
+
+  private static final String[] STATUS_CLASSES = {UNKNOWN, "1xx", "2xx", "3xx", "4xx", "5xx"};
+
+  private final ConcurrentMap<RouteKey, Route> routes = new ConcurrentHashMap<>();
+
+  /* Backend nanos and backend calls of the request in progress on a thread */
+  private final ThreadLocal<long[]> backend = ThreadLocal.withInitial(() -> new long[2]);
+
+  private final Map<PoolingHttpClientConnectionManager, ConnectionPool> pools =
+      Collections.synchronizedMap(new WeakHashMap<>());
+
+  public void beginRequest() {
+    long[] current = backend.get();
+    current[0] = 0;
+    current[1] = 0;
+  }
+
+  public void recordBackendTime(long duration, TimeUnit unit) {
+    long[] current = backend.get();
+    current[0] += unit.toNanos(duration);
+    current[1]++;
+  }
+
+  /**
+   * Records a finished request, the backend time is taken from the calls recorded on the
+   * current thread since {@link #beginRequest()}.
+   */
+  public void endRequest(String topology, String serviceRole, String method, int status, long duration,
+                         TimeUnit unit) {
+    long[] current = backend.get();
+    long totalNanos = unit.toNanos(duration);
+    Route route = route(topology, serviceRole, method, status);
+    route.total.record(totalNanos, TimeUnit.NANOSECONDS);
+    if (current[1] > 0) {
+      route.backend.record(current[0], TimeUnit.NANOSECONDS);
+    }
+    route.overhead.record(totalNanos - current[0], TimeUnit.NANOSECONDS);
+    current[0] = 0;
+    current[1] = 0;
+  }
+
+  public Route route(String topology, String serviceRole, String method, int status) {
+    RouteKey key = new RouteKey(topology == null ? UNKNOWN : topology,
+        serviceRole == null ? UNKNOWN : serviceRole, methodLabel(method), statusClass(status));
+    Route route = routes.get(key);
+    if (route == null) {
+      route = routes.computeIfAbsent(key, Route::new);
+    }
+    return route;
+  }
+
+  public Collection<Route> getRoutes() {
+    return Collections.unmodifiableCollection(routes.values());
+  }
+
+  /**
+   * Tracks the connection pool used to dispatch requests of a service. Pools are held
+   * weakly so that the pools of undeployed topologies go away with their clients.
+   */
+  public void registerConnectionPool(String topology, String serviceRole,
+                                     PoolingHttpClientConnectionManager connectionManager) {
+    pools.put(connectionManager, new ConnectionPool(topology == null ? UNKNOWN : topology,
+        serviceRole == null ? UNKNOWN : serviceRole));
+  }
+
+  public Map<PoolingHttpClientConnectionManager, ConnectionPool> getConnectionPools() {
+    synchronized (pools) {
+      return new LinkedHashMap<>(pools);
+    }
+  }
+
+  static String methodLabel(String method) {
+    if (method == null) {
+      return UNKNOWN;
+    }
+    switch (method) {
+      case "GET":
+      case "POST":
+      case "PUT":
+      case "DELETE":
+      case "HEAD":
+      case "OPTIONS":
+      case "PATCH":
+        return method;
+      default:
+        return OTHER;
+    }
+  }
+
+  static String statusClass(int status) {
+    int index = status / 100;
+    return index > 0 && index < STATUS_CLASSES.length ? STATUS_CLASSES[index] : UNKNOWN;
+  }
+
+  public static final class Route {
+    private final RouteKey key;
+    private final LatencyHistogram total = new LatencyHistogram();
+    private final LatencyHistogram overhead = new LatencyHistogram();
+    private final LatencyHistogram backend = new LatencyHistogram();
+
+    Route(RouteKey key) {
+      this.key = key;
+    }
+
+    public Map<String, String> getLabels() {
+      Map<String, String> labels = new LinkedHashMap<>();
+      labels.put("topology", key.topology);
+      labels.put("service", key.serviceRole);
+      labels.put("method", key.method);
+      labels.put("status", key.statusClass);
+      return labels;
+    }
+
+    /** @return the time from the gateway receiving a request until the response is complete */
+    public LatencyHistogram getTotal() {
+      return total;
+    }
+
+    /** @return the total time less the time spent waiting for backend responses */
+    public LatencyHistogram getOverhead() {
+      return overhead;
+    }
+
+    /** @return the time until backend response headers arrived, for requests that were dispatched */
+    public LatencyHistogram getBackend() {
+      return backend;
+    }
+  }
+
+  /* The labels of a registered pool, it must not reference the pool itself */
+  public static final class ConnectionPool {
+    private final String topology;
+    private final String serviceRole;
+
+    ConnectionPool(String topology, String serviceRole) {
+      this.topology = topology;
+      this.serviceRole = serviceRole;
+    }
+
+    public String getTopology() {
+      return topology;
+    }
+
+    public String getServiceRole() {
+      return serviceRole;
+    }
+  }
+
+  private static final class RouteKey {
+    private final String topology;
+    private final String serviceRole;
+    private final String method;
+    private final String statusClass;
+    private final int hash;
+
+    RouteKey(String topology, String serviceRole, String method, String statusClass) {
+      this.topology = topology;
+      this.serviceRole = serviceRole;
+      this.method = method;
+      this.statusClass = statusClass;
+      this.hash = 31 * (31 * (31 * topology.hashCode() + serviceRole.hashCode()) + method.hashCode())
+          + statusClass.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof RouteKey)) {
+        return false;
+      }
+      RouteKey that = (RouteKey) other;
+      return hash == that.hash
+          && topology.equals(that.topology)
+          && serviceRole.equals(that.serviceRole)
+          && method.equals(that.method)
+          && statusClass.equals(that.statusClass);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
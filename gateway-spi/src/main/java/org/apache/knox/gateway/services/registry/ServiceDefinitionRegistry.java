@@ -17,6 +17,7 @@
  */
 package org.apache.knox.gateway.services.registry;
 
+import java.util.Optional;
 import java.util.Set;
 
 import org.apache.knox.gateway.service.definition.ServiceDefinitionChangeListener;
@@ -28,6 +29,23 @@ public interface ServiceDefinitionRegistry {
 
   Set<ServiceDefinitionPair> getServiceDefinitions();
 
+  /**
+   * @param role the role of the service, compared ignoring case
+   * @param version the version of the service; any version of the role matches if <code>null</code>
+   * @return the first matching service definition
+   */
+  Optional<ServiceDefinitionPair> getServiceDefinition(String role, String version);
+
+  /**
+   * @return the service definition with the given name, role and version, compared ignoring case
+   */
+  Optional<ServiceDefinitionPair> getServiceDefinition(String name, String role, String version);
+
+  /**
+   * @return a number that changes whenever service definitions are loaded, saved or deleted
+   */
+  long getRevision();
+
   void saveServiceDefinition(ServiceDefinitionPair serviceDefinition) throws ServiceDefinitionRegistryException;
 
   void saveOrUpdateServiceDefinition(ServiceDefinitionPair serviceDefinition) throws ServiceDefinitionRegistryException;
@@ -34,6 +34,21 @@ public interface KeystoreService extends Service {
 
   void addSelfSignedCertForGateway(String alias, char[] passphrase, String hostname) throws KeystoreServiceException;
 
+  /**
+   * Adds a self-signed certificate with a new key of the given algorithm for the gateway.
+   * Implementations that only create RSA keys need not override it, any other algorithm is rejected.
+   *
+   * @param keyAlgorithm <code>RSA</code> for a 2048 bit RSA key, or the JWS algorithm the EC key is meant for:
+   *                     <code>ES256</code> (P-256), <code>ES384</code> (P-384) or <code>ES512</code> (P-521)
+   */
+  default void addSelfSignedCertForGateway(String alias, char[] passphrase, String hostname, String keyAlgorithm)
+      throws KeystoreServiceException {
+    if (keyAlgorithm != null && !"RSA".equalsIgnoreCase(keyAlgorithm)) {
+      throw new KeystoreServiceException("Unsupported key algorithm for the gateway certificate: " + keyAlgorithm);
+    }
+    addSelfSignedCertForGateway(alias, passphrase, hostname);
+  }
+
   KeyStore getKeystoreForGateway() throws KeystoreServiceException;
 
   /**
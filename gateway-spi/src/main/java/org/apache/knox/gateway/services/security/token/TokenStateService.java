@@ -17,6 +17,10 @@
 package org.apache.knox.gateway.services.security.token;
 
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.knox.gateway.services.Service;
 import org.apache.knox.gateway.services.security.token.impl.JWT;
@@ -144,6 +148,82 @@ public interface TokenStateService extends Service {
    */
   long renewToken(String tokenId, long renewInterval) throws UnknownTokenException;
 
+  /**
+   * Disable any subsequent use of the specified tokens.
+   * <p>
+   * Implementations should override this to apply the revocations with a single write to their backend; the default
+   * implementation revokes the tokens one by one.
+   *
+   * @param tokenIds The unique identifiers of the tokens to revoke.
+   *
+   * @return The identifiers of the revoked tokens; unknown tokens are skipped.
+   */
+  default Set<String> revokeTokens(Set<String> tokenIds) {
+    final Set<String> revoked = new HashSet<>();
+    for (String tokenId : tokenIds) {
+      try {
+        revokeToken(tokenId);
+        revoked.add(tokenId);
+      } catch (UnknownTokenException e) {
+        // Skip it
+      }
+    }
+    return revoked;
+  }
+
+  /**
+   * Enable or disable the specified tokens.
+   * <p>
+   * Implementations should override this to apply the changes with a single write to their backend; the default
+   * implementation updates the metadata of the tokens one by one.
+   *
+   * @param tokenIds The unique identifiers of the tokens to update.
+   * @param enabled  Whether the tokens should be enabled or disabled.
+   *
+   * @return The identifiers of the tokens whose flag has changed; unknown tokens and tokens which are already in the
+   *         requested state are skipped.
+   */
+  default Set<String> setTokensEnabled(Set<String> tokenIds, boolean enabled) {
+    final Set<String> updated = new HashSet<>();
+    for (String tokenId : tokenIds) {
+      try {
+        final TokenMetadata metadata = getTokenMetadata(tokenId);
+        if (metadata != null && metadata.isEnabled() != enabled) {
+          metadata.setEnabled(enabled);
+          addMetadata(tokenId, metadata);
+          updated.add(tokenId);
+        }
+      } catch (UnknownTokenException e) {
+        // Skip it
+      }
+    }
+    return updated;
+  }
+
+  /**
+   * Extend the lifetime of the specified tokens by the specified amount of time.
+   * <p>
+   * Implementations should override this to apply the renewals with a single write to their backend; the default
+   * implementation renews the tokens one by one.
+   *
+   * @param tokenIds      The unique identifiers of the tokens to renew.
+   * @param renewInterval The amount of time that should be added to the lifetime of the tokens.
+   *
+   * @return The updated expiration times in milliseconds, by identifier of the renewed tokens; unknown tokens and
+   *         tokens which have reached their maximum lifetime are skipped.
+   */
+  default Map<String, Long> renewTokens(Set<String> tokenIds, long renewInterval) {
+    final Map<String, Long> renewed = new HashMap<>();
+    for (String tokenId : tokenIds) {
+      try {
+        renewed.put(tokenId, renewToken(tokenId, renewInterval));
+      } catch (UnknownTokenException | IllegalArgumentException e) {
+        // Skip it
+      }
+    }
+    return renewed;
+  }
+
   /**
    * Get the token expiration.
    *
@@ -195,6 +275,26 @@ public interface TokenStateService extends Service {
    */
   TokenMetadata getTokenMetadata(String tokenId) throws UnknownTokenException;
 
+  /**
+   * Get everything needed to validate a request presenting the specified token: its expiration, its metadata (which
+   * tells whether it is enabled and holds its passcode hash) and, if it has a passcode, its issue time.
+   * <p>
+   * Implementations should override this to fetch the state with a single look-up in their backend; the default
+   * implementation combines the individual getters.
+   *
+   * @param tokenId The token unique identifier.
+   * @throws UnknownTokenException Exception if token is not found.
+   *
+   * @return The token's validation state; never null.
+   */
+  default TokenValidationView getTokenValidationView(String tokenId) throws UnknownTokenException {
+    final long expiration = getTokenExpiration(tokenId);
+    final TokenMetadata metadata = getTokenMetadata(tokenId);
+    final long issueTime = metadata != null && metadata.getPasscode() != null
+        ? getTokenIssueTime(tokenId) : TokenValidationView.UNKNOWN_ISSUE_TIME;
+    return new TokenValidationView(tokenId, issueTime, expiration, metadata);
+  }
+
   /**
    * @param userName The name of the user to get tokens for
    * @return a collection of tokens associated to the given user; it's an empty
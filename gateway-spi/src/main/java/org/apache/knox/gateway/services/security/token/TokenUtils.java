@@ -17,6 +17,8 @@
 package org.apache.knox.gateway.services.security.token;
 
 import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
 import com.nimbusds.jose.jwk.KeyType;
 import com.nimbusds.jose.jwk.ThumbprintUtils;
 import com.nimbusds.jose.util.Base64URL;
@@ -29,6 +31,8 @@ import org.apache.knox.gateway.services.security.token.impl.JWTToken;
 
 import javax.servlet.FilterConfig;
 import javax.servlet.ServletContext;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
 import java.security.interfaces.RSAPublicKey;
 import java.util.LinkedHashMap;
 
@@ -107,6 +111,28 @@ public class TokenUtils {
     return ThumbprintUtils.compute(hashAlgorithm, params).toString();
   }
 
+  /**
+   * Utility method to calculate the thumbprint of an RSA or EC public key
+   * @param publicKey
+   * @param hashAlgorithm
+   * @return
+   * @throws JOSEException if the key is neither an RSA key nor an EC key on a curve supported for JWS
+   */
+  public static String getThumbprint(final PublicKey publicKey, final String hashAlgorithm)
+      throws JOSEException {
+    if (publicKey instanceof RSAPublicKey) {
+      return getThumbprint((RSAPublicKey) publicKey, hashAlgorithm);
+    }
+    if (publicKey instanceof ECPublicKey) {
+      final ECPublicKey ecPublicKey = (ECPublicKey) publicKey;
+      final Curve curve = Curve.forECParameterSpec(ecPublicKey.getParams());
+      if (curve != null) {
+        return new ECKey.Builder(curve, ecPublicKey).build().computeThumbprint(hashAlgorithm).toString();
+      }
+    }
+    throw new JOSEException("Unsupported public key: " + (publicKey == null ? null : publicKey.getAlgorithm()));
+  }
+
   /**
    * @return true, if the HMAC secret is configured via the alias service for the gateway AND signing keystore name is not set ; false
    *         otherwise
@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.services.security.token;
+
+/**
+ * The server-managed state of a token which is needed to validate a request presenting that token, as fetched from
+ * the token state backend in a single look-up.
+ */
+public class TokenValidationView {
+  /**
+   * The issue time of a token for which the backend has not provided it.
+   */
+  public static final long UNKNOWN_ISSUE_TIME = -1L;
+
+  private final String tokenId;
+  private final long issueTime;
+  private final long expiration;
+  private final TokenMetadata metadata;
+
+  public TokenValidationView(String tokenId, long issueTime, long expiration, TokenMetadata metadata) {
+    this.tokenId = tokenId;
+    this.issueTime = issueTime;
+    this.expiration = expiration;
+    this.metadata = metadata;
+  }
+
+  public String getTokenId() {
+    return tokenId;
+  }
+
+  /**
+   * @return The time the token was issued, or {@link #UNKNOWN_ISSUE_TIME} if the backend has not provided it.
+   */
+  public long getIssueTime() {
+    return issueTime;
+  }
+
+  public long getExpiration() {
+    return expiration;
+  }
+
+  public TokenMetadata getMetadata() {
+    return metadata;
+  }
+
+  /**
+   * @return true, unless the metadata of the token marks it as disabled.
+   */
+  public boolean isEnabled() {
+    return metadata == null || metadata.isEnabled();
+  }
+
+  public String getUserName() {
+    return metadata == null ? null : metadata.getUserName();
+  }
+
+  public String getPasscode() {
+    return metadata == null ? null : metadata.getPasscode();
+  }
+}
@@ -17,11 +17,12 @@
  */
 package org.apache.knox.gateway.services.security.token.impl;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Base64;
 
 import javax.crypto.Mac;
 import javax.crypto.SecretKey;
@@ -29,18 +30,45 @@ import javax.crypto.spec.SecretKeySpec;
 
 import org.apache.knox.gateway.services.ServiceLifecycleException;
 
+/**
+ * Hashes and verifies the passcodes of Knox tokens.
+ *
+ * A hash is the Base64 encoded MAC of the passcode, salted with the token ID, issue time
+ * and user name, and is prefixed by {@link #HASH_PREFIX}. The salt encodes each value
+ * with its length, so that different values can not produce the same salt.
+ *
+ * Passcodes hashed before this format existed were stored as the raw MAC bytes decoded
+ * as UTF-8, with the salt values simply concatenated. {@link #verify} accepts both formats,
+ * but new hashes are only written in the current format when it is enabled: gateways that
+ * share their token state must all be able to verify it first. Once it is enabled
+ * {@link #needsRehash(String)} tells the caller to store a new hash for a verified legacy one.
+ *
+ * Every thread uses a {@link Mac} of its own, cloned from one initialized with the key,
+ * so hashing does not need any locking.
+ */
 public class TokenMAC {
   public static final String KNOX_TOKEN_HASH_KEY_ALIAS_NAME = "knox.token.hash.key";
 
-  private final Mac mac;
-  private final Lock hashLock = new ReentrantLock(true);
+  static final String HASH_PREFIX = "v2:";
+
+  private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+  private final Mac prototype;
+  private final SecretKey key;
+  private final ThreadLocal<Mac> macs = ThreadLocal.withInitial(this::newMac);
+  private final boolean v2HashEnabled;
 
   public TokenMAC(String algorithm, char[] knoxTokenHashKey) throws ServiceLifecycleException {
+    this(algorithm, knoxTokenHashKey, false);
+  }
+
+  public TokenMAC(String algorithm, char[] knoxTokenHashKey, boolean v2HashEnabled) throws ServiceLifecycleException {
+    this.v2HashEnabled = v2HashEnabled;
     try {
       if (knoxTokenHashKey != null) {
-        final SecretKey key = new SecretKeySpec(new String(knoxTokenHashKey).getBytes(StandardCharsets.UTF_8), algorithm);
-        mac = Mac.getInstance(algorithm);
-        mac.init(key);
+        key = new SecretKeySpec(new String(knoxTokenHashKey).getBytes(StandardCharsets.UTF_8), algorithm);
+        prototype = Mac.getInstance(algorithm);
+        prototype.init(key);
       } else {
         throw new ServiceLifecycleException("Missing " + KNOX_TOKEN_HASH_KEY_ALIAS_NAME + " alias from Gateway's credential store");
       }
@@ -49,18 +77,89 @@ public class TokenMAC {
     }
   }
 
+  /**
+   * @return the hash to store for the passcode of the token
+   */
   public String hash(String tokenId, long issueTime, String userName, String toBeHashed) {
-    hashLock.lock();
-    try {
-      mac.update(getSalt(tokenId, issueTime, userName));
-      return new String(mac.doFinal(toBeHashed.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
-    } finally {
-      hashLock.unlock();
+    return v2HashEnabled ? v2Hash(tokenId, issueTime, userName, toBeHashed) : legacyHash(tokenId, issueTime, userName, toBeHashed);
+  }
+
+  /**
+   * Checks a passcode against its stored hash in constant time, the stored hash may be
+   * in the legacy format.
+   *
+   * @return true if the passcode matches the stored hash
+   */
+  public boolean verify(String tokenId, long issueTime, String userName, String passcode, String storedHash) {
+    if (passcode == null || storedHash == null) {
+      return false;
     }
+    if (storedHash.startsWith(HASH_PREFIX)
+        && MessageDigest.isEqual(v2Hash(tokenId, issueTime, userName, passcode).getBytes(StandardCharsets.UTF_8),
+                                 storedHash.getBytes(StandardCharsets.UTF_8))) {
+      return true;
+    }
+    // A legacy hash may start with the prefix as well, however unlikely
+    return MessageDigest.isEqual(legacyHash(tokenId, issueTime, userName, passcode).getBytes(StandardCharsets.UTF_8),
+                                 storedHash.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * @return true if the stored hash is not in the current format
+   */
+  public static boolean isLegacyHash(String storedHash) {
+    return storedHash != null && !storedHash.startsWith(HASH_PREFIX);
   }
 
-  private byte[] getSalt(String tokenId, long issueTime, String userName) {
-    return (tokenId + issueTime + userName).getBytes(StandardCharsets.UTF_8);
+  /**
+   * @return true if the stored hash should be replaced once the passcode was verified
+   */
+  public boolean needsRehash(String storedHash) {
+    return v2HashEnabled && isLegacyHash(storedHash);
   }
 
+  String v2Hash(String tokenId, long issueTime, String userName, String toBeHashed) {
+    return HASH_PREFIX + ENCODER.encodeToString(mac(tokenId, issueTime, userName, toBeHashed));
+  }
+
+  String legacyHash(String tokenId, long issueTime, String userName, String toBeHashed) {
+    final Mac mac = macs.get();
+    mac.update((tokenId + issueTime + userName).getBytes(StandardCharsets.UTF_8));
+    return new String(mac.doFinal(toBeHashed.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
+  }
+
+  private byte[] mac(String tokenId, long issueTime, String userName, String toBeHashed) {
+    final Mac mac = macs.get();
+    mac.update(getSalt(tokenId, issueTime, userName));
+    return mac.doFinal(toBeHashed.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static byte[] getSalt(String tokenId, long issueTime, String userName) {
+    final byte[] id = bytes(tokenId);
+    final byte[] user = bytes(userName);
+    return ByteBuffer.allocate(Integer.BYTES + id.length + Long.BYTES + Integer.BYTES + user.length)
+        .putInt(id.length).put(id)
+        .putLong(issueTime)
+        .putInt(user.length).put(user)
+        .array();
+  }
+
+  private static byte[] bytes(String value) {
+    return value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private Mac newMac() {
+    try {
+      return (Mac) prototype.clone();
+    } catch (CloneNotSupportedException e) {
+      // Not every provider can clone its MACs
+      try {
+        final Mac mac = Mac.getInstance(prototype.getAlgorithm(), prototype.getProvider());
+        mac.init(key);
+        return mac;
+      } catch (NoSuchAlgorithmException | InvalidKeyException ex) {
+        throw new IllegalStateException("Error while creating Knox Token MAC: " + ex, ex);
+      }
+    }
+  }
 }
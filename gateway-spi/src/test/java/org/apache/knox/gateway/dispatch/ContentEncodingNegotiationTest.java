@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.dispatch;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.apache.knox.test.mock.MockServer;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ContentEncodingNegotiationTest {
+  private static final byte[] CONTENT = "{\"FileStatuses\":{\"FileStatus\":[{\"pathSuffix\":\"tmp\",\"type\":\"DIRECTORY\"}]}}"
+      .getBytes(StandardCharsets.UTF_8);
+
+  private static MockServer backend;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    backend = new MockServer("backend", true);
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    backend.stop();
+  }
+
+  @Test
+  public void testCreate() {
+    assertNull(ContentEncodingNegotiation.create(null, "WEBHDFS"));
+    assertNull(ContentEncodingNegotiation.create("false", "WEBHDFS"));
+    assertNull(ContentEncodingNegotiation.create("compress", "WEBHDFS"));
+    assertEquals("gzip, deflate, br", ContentEncodingNegotiation.create("true", "WEBHDFS").getAcceptEncoding());
+    assertEquals("deflate", ContentEncodingNegotiation.create(" Deflate , compress", "WEBHDFS").getAcceptEncoding());
+  }
+
+  @Test
+  public void testAccepts() {
+    assertFalse(ContentEncodingNegotiation.accepts(null, "gzip"));
+    assertTrue(ContentEncodingNegotiation.accepts("gzip, deflate", "gzip"));
+    assertTrue(ContentEncodingNegotiation.accepts("x-gzip", "gzip"));
+    assertFalse(ContentEncodingNegotiation.accepts("gzip;q=0, deflate", "gzip"));
+    assertTrue(ContentEncodingNegotiation.accepts("br;q=1.0, *;q=0.5", "deflate"));
+    assertFalse(ContentEncodingNegotiation.accepts("*, gzip;q=0", "gzip"));
+    assertFalse(ContentEncodingNegotiation.accepts("identity", "deflate"));
+  }
+
+  @Test
+  public void testEncodedResponsePassesThroughToAcceptingClient() throws Exception {
+    final byte[] gzipped = gzip(CONTENT);
+    assertPassThrough("gzip", gzipped, "gzip, deflate");
+    assertPassThrough("gzip", gzipped, "*");
+    final byte[] deflated = deflate(CONTENT);
+    assertPassThrough("deflate", deflated, "deflate;q=0.5");
+  }
+
+  @Test
+  public void testEncodedResponseIsDecodedForOtherClients() throws Exception {
+    assertDecoded("gzip", gzip(CONTENT), null);
+    assertDecoded("gzip", gzip(CONTENT), "deflate");
+    assertDecoded("deflate", deflate(CONTENT), null);
+    assertDecoded("deflate", deflate(CONTENT), "gzip, deflate;q=0");
+    assertDecoded("br", brotli(CONTENT), "gzip, deflate");
+  }
+
+  @Test
+  public void testPlainResponseIsLeftAlone() throws Exception {
+    final ContentEncodingNegotiation negotiation = ContentEncodingNegotiation.create("true", "WEBHDFS");
+    backend.expect()
+        .method("GET")
+        .header(HttpHeaders.ACCEPT_ENCODING, negotiation.getAcceptEncoding())
+        .respond()
+        .status(200)
+        .contentType("application/json")
+        .content(CONTENT);
+    try (CloseableHttpClient client = createClient(negotiation);
+         CloseableHttpResponse response = client.execute(new HttpGet(backendUrl()))) {
+      assertNull(response.getFirstHeader(HttpHeaders.CONTENT_ENCODING));
+      assertArrayEquals(CONTENT, EntityUtils.toByteArray(response.getEntity()));
+    }
+    assertTrue(backend.isEmpty());
+  }
+
+  private void assertPassThrough(String encoding, byte[] encoded, String clientAcceptEncoding) throws IOException {
+    final ContentEncodingNegotiation negotiation = ContentEncodingNegotiation.create("true", "WEBHDFS");
+    expectEncodedResponse(negotiation, encoding, encoded);
+    try (CloseableHttpClient client = createClient(negotiation);
+         CloseableHttpResponse response = client.execute(request(clientAcceptEncoding))) {
+      assertEquals(encoding, response.getFirstHeader(HttpHeaders.CONTENT_ENCODING).getValue());
+      assertArrayEquals(encoded, EntityUtils.toByteArray(response.getEntity()));
+    }
+    assertTrue(backend.isEmpty());
+  }
+
+  private void assertDecoded(String encoding, byte[] encoded, String clientAcceptEncoding) throws IOException {
+    final ContentEncodingNegotiation negotiation = ContentEncodingNegotiation.create("true", "WEBHDFS");
+    expectEncodedResponse(negotiation, encoding, encoded);
+    try (CloseableHttpClient client = createClient(negotiation);
+         CloseableHttpResponse response = client.execute(request(clientAcceptEncoding))) {
+      assertNull(response.getFirstHeader(HttpHeaders.CONTENT_ENCODING));
+      assertNull(response.getFirstHeader(HttpHeaders.CONTENT_LENGTH));
+      assertArrayEquals(CONTENT, EntityUtils.toByteArray(response.getEntity()));
+    }
+    assertTrue(backend.isEmpty());
+  }
+
+  private static void expectEncodedResponse(ContentEncodingNegotiation negotiation, String encoding, byte[] encoded) {
+    backend.expect()
+        .method("GET")
+        .header(HttpHeaders.ACCEPT_ENCODING, negotiation.getAcceptEncoding())
+        .respond()
+        .status(200)
+        .contentType("application/json")
+        .header(HttpHeaders.CONTENT_ENCODING, encoding)
+        .content(encoded);
+  }
+
+  private static HttpGet request(String clientAcceptEncoding) {
+    final HttpGet request = new HttpGet(backendUrl());
+    if (clientAcceptEncoding != null) {
+      request.setHeader(HttpHeaders.ACCEPT_ENCODING, clientAcceptEncoding);
+    }
+    return request;
+  }
+
+  private static String backendUrl() {
+    return "http://localhost:" + backend.getPort() + "/webhdfs/v1/?op=LISTSTATUS";
+  }
+
+  private static CloseableHttpClient createClient(ContentEncodingNegotiation negotiation) {
+    return HttpClients.custom()
+        .disableContentCompression()
+        .addInterceptorLast((HttpRequestInterceptor) negotiation)
+        .addInterceptorFirst((HttpResponseInterceptor) negotiation)
+        .build();
+  }
+
+  private static byte[] gzip(byte[] content) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (OutputStream output = new GZIPOutputStream(bytes)) {
+      output.write(content);
+    }
+    return bytes.toByteArray();
+  }
+
+  /*
+   * Builds a Brotli stream holding the content in a single uncompressed meta-block:
+   * WBITS 16, a 4 nibble MLEN and ISUNCOMPRESSED, followed by an empty last meta-block.
+   */
+  private static byte[] brotli(byte[] content) {
+    final int header = ((content.length - 1) << 4) | (1 << 20);
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    bytes.write(header & 0xff);
+    bytes.write((header >> 8) & 0xff);
+    bytes.write((header >> 16) & 0xff);
+    bytes.write(content, 0, content.length);
+    bytes.write(0x03);
+    return bytes.toByteArray();
+  }
+
+  private static byte[] deflate(byte[] content) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (OutputStream output = new DeflaterOutputStream(bytes)) {
+      output.write(content);
+    }
+    return bytes.toByteArray();
+  }
+}
@@ -58,6 +58,7 @@ public class DefaultHttpClientFactoryTest {
 
     GatewayConfig gatewayConfig = createMock(GatewayConfig.class);
     expect(gatewayConfig.isMetricsEnabled()).andReturn(false).once();
+    expect(gatewayConfig.isHttpClientPoolShared()).andReturn(false).once();
     expect(gatewayConfig.getHttpClientMaxConnections()).andReturn(32).once();
     expect(gatewayConfig.getHttpClientConnectionTimeout()).andReturn(20000).once();
     expect(gatewayConfig.getHttpClientSocketTimeout()).andReturn(20000).once();
@@ -77,6 +78,7 @@ public class DefaultHttpClientFactoryTest {
     expect(filterConfig.getInitParameter("httpclient.socketTimeout")).andReturn(null).once();
     expect(filterConfig.getInitParameter("serviceRole")).andReturn(null).once();
     expect(filterConfig.getInitParameter("retryCount")).andReturn(null).once();
+    expect(filterConfig.getInitParameter("httpclient.contentCompression")).andReturn(null).once();
 
     replay(keystoreService, gatewayConfig, gatewayServices, servletContext, filterConfig);
 
@@ -243,6 +245,7 @@ public class DefaultHttpClientFactoryTest {
 
     GatewayConfig gatewayConfig = createMock(GatewayConfig.class);
     expect(gatewayConfig.isMetricsEnabled()).andReturn(false).anyTimes();
+    expect(gatewayConfig.isHttpClientPoolShared()).andReturn(false).anyTimes();
     expect(gatewayConfig.getHttpClientMaxConnections()).andReturn(32).anyTimes();
     expect(gatewayConfig.getHttpClientConnectionTimeout()).andReturn(20000).anyTimes();
     expect(gatewayConfig.getHttpClientSocketTimeout()).andReturn(20000).anyTimes();
@@ -263,6 +266,7 @@ public class DefaultHttpClientFactoryTest {
     expect(filterConfigSafe.getInitParameter("serviceRole")).andReturn(null).once();
     expect(filterConfigSafe.getInitParameter("retryCount")).andReturn("3").anyTimes();
     expect(filterConfigSafe.getInitParameter("retryNonSafeRequest")).andReturn(null).anyTimes();
+    expect(filterConfigSafe.getInitParameter("httpclient.contentCompression")).andReturn(null).anyTimes();
 
     FilterConfig filterConfigUnSafe = createMock(FilterConfig.class);
     expect(filterConfigUnSafe.getServletContext()).andReturn(servletContext).atLeastOnce();
@@ -273,6 +277,7 @@ public class DefaultHttpClientFactoryTest {
     expect(filterConfigUnSafe.getInitParameter("serviceRole")).andReturn(null).once();
     expect(filterConfigUnSafe.getInitParameter("retryCount")).andReturn("3").anyTimes();
     expect(filterConfigUnSafe.getInitParameter("retryNonSafeRequest")).andReturn("true").anyTimes();
+    expect(filterConfigUnSafe.getInitParameter("httpclient.contentCompression")).andReturn(null).anyTimes();
 
     replay(keystoreService, gatewayConfig, gatewayServices, servletContext, filterConfigSafe, filterConfigUnSafe);
 
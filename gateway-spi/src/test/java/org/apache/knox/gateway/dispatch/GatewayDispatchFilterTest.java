@@ -33,6 +33,7 @@ import java.util.Collections;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 
 public class GatewayDispatchFilterTest {
@@ -66,6 +67,16 @@ public class GatewayDispatchFilterTest {
     assertEquals(400, response.getStatus());
   }
 
+  /*
+   * Destroying a filter whose dispatch was never set up (e.g. because init failed) should not fail.
+   */
+  @Test
+  public void testDestroyWithoutDispatch() {
+    GatewayDispatchFilter gdf = new GatewayDispatchFilter();
+    gdf.destroy();
+    assertNull(gdf.getDispatch());
+  }
+
 
   /*
    * If the dispatch service is not configured to honor the whitelist, the dispatching should be permitted.
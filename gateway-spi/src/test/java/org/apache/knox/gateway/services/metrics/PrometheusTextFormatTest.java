@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.services.metrics;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PrometheusTextFormatTest {
+
+  @Test
+  public void testRequestHistograms() throws Exception {
+    RequestMetrics requestMetrics = new RequestMetrics();
+    requestMetrics.beginRequest();
+    requestMetrics.recordBackendTime(3, TimeUnit.MILLISECONDS);
+    requestMetrics.recordBackendTime(4, TimeUnit.MILLISECONDS);
+    requestMetrics.endRequest("sandbox", "WEBHDFS", "GET", 200, 8, TimeUnit.MILLISECONDS);
+    requestMetrics.beginRequest();
+    requestMetrics.endRequest("sandbox", null, "GET", 404, 200, TimeUnit.MICROSECONDS);
+
+    Map<String, String> samples = parse(write(requestMetrics, null));
+
+    String route = "topology=\"sandbox\",service=\"WEBHDFS\",method=\"GET\",status=\"2xx\"";
+    assertEquals("0", samples.get("knox_request_duration_seconds_bucket{" + route + ",le=\"0.005\"}"));
+    assertEquals("1", samples.get("knox_request_duration_seconds_bucket{" + route + ",le=\"0.01\"}"));
+    assertEquals("1", samples.get("knox_request_duration_seconds_bucket{" + route + ",le=\"+Inf\"}"));
+    assertEquals("1", samples.get("knox_request_duration_seconds_count{" + route + "}"));
+    assertEquals(0.008, Double.parseDouble(samples.get("knox_request_duration_seconds_sum{" + route + "}")), 1e-9);
+    // Both backend calls of the request add up to one backend observation
+    assertEquals("1", samples.get("knox_backend_duration_seconds_bucket{" + route + ",le=\"0.01\"}"));
+    assertEquals("0", samples.get("knox_backend_duration_seconds_bucket{" + route + ",le=\"0.005\"}"));
+    assertEquals("1", samples.get("knox_gateway_overhead_seconds_bucket{" + route + ",le=\"0.001\"}"));
+
+    String unmatched = "topology=\"sandbox\",service=\"unknown\",method=\"GET\",status=\"4xx\"";
+    assertEquals("1", samples.get("knox_request_duration_seconds_bucket{" + unmatched + ",le=\"0.00025\"}"));
+    assertEquals("1", samples.get("knox_gateway_overhead_seconds_count{" + unmatched + "}"));
+    assertNull(samples.get("knox_backend_duration_seconds_count{" + unmatched + "}"));
+  }
+
+  @Test
+  public void testRouteHandlesAreReused() {
+    RequestMetrics requestMetrics = new RequestMetrics();
+    RequestMetrics.Route route = requestMetrics.route("sandbox", "HIVE", "POST", 201);
+    assertSame(route, requestMetrics.route("sandbox", "HIVE", "POST", 204));
+    assertNotSame(route, requestMetrics.route("sandbox", "HIVE", "POST", 500));
+    assertEquals("unknown", requestMetrics.route("sandbox", "HIVE", "POST", 0).getLabels().get("status"));
+  }
+
+  @Test
+  public void testNonStandardMethodsShareOneRoute() {
+    RequestMetrics requestMetrics = new RequestMetrics();
+    RequestMetrics.Route route = requestMetrics.route("sandbox", "WEBHDFS", "PROPFIND", 200);
+    assertEquals("other", route.getLabels().get("method"));
+    assertSame(route, requestMetrics.route("sandbox", "WEBHDFS", "X-RANDOM-1", 200));
+    assertSame(route, requestMetrics.route("sandbox", "WEBHDFS", "get", 200));
+    assertEquals("PATCH", requestMetrics.route("sandbox", "WEBHDFS", "PATCH", 200).getLabels().get("method"));
+    assertEquals("unknown", requestMetrics.route("sandbox", "WEBHDFS", null, 200).getLabels().get("method"));
+    assertEquals(3, requestMetrics.getRoutes().size());
+  }
+
+  @Test
+  public void testConnectionPools() throws Exception {
+    RequestMetrics requestMetrics = new RequestMetrics();
+    PoolingHttpClientConnectionManager first = new PoolingHttpClientConnectionManager();
+    first.setDefaultMaxPerRoute(10);
+    PoolingHttpClientConnectionManager second = new PoolingHttpClientConnectionManager();
+    second.setDefaultMaxPerRoute(5);
+    requestMetrics.registerConnectionPool("sandbox", "WEBHDFS", first);
+    requestMetrics.registerConnectionPool("sandbox", "WEBHDFS", second);
+
+    HttpRoute route = new HttpRoute(new HttpHost("namenode.example.com", 50070));
+    HttpClientConnection firstConnection = first.requestConnection(route, null).get(1, TimeUnit.SECONDS);
+    HttpClientConnection secondConnection = second.requestConnection(route, null).get(1, TimeUnit.SECONDS);
+    try {
+      Map<String, String> samples = parse(write(requestMetrics, null));
+      String backend = "topology=\"sandbox\",service=\"WEBHDFS\",backend=\"http://namenode.example.com:50070\"";
+      assertEquals("2", samples.get("knox_backend_connections{" + backend + ",state=\"leased\"}"));
+      assertEquals("0", samples.get("knox_backend_connections{" + backend + ",state=\"pending\"}"));
+      assertEquals("15", samples.get("knox_backend_connections_max{" + backend + "}"));
+    } finally {
+      first.releaseConnection(firstConnection, null, 0, TimeUnit.MILLISECONDS);
+      second.releaseConnection(secondConnection, null, 0, TimeUnit.MILLISECONDS);
+      first.shutdown();
+      second.shutdown();
+    }
+  }
+
+  @Test
+  public void testRegistryMetrics() throws Exception {
+    MetricRegistry registry = new MetricRegistry();
+    registry.counter("client./gateway/sandbox/webhdfs/v1/.GET-requests").inc(3);
+    registry.meter("2xx-responses").mark(2);
+    registry.register("jvm.threads.deadlock", (Gauge<String>) () -> "none");
+    registry.register("ldap.cluster.hit-rate", (Gauge<Double>) () -> 0.25);
+    registry.timer("service.webhdfs").update(5, TimeUnit.MILLISECONDS);
+
+    String text = write(null, registry);
+    Map<String, String> samples = parse(text);
+
+    assertEquals("3", samples.get("client__gateway_sandbox_webhdfs_v1__GET_requests"));
+    assertEquals("2", samples.get("_2xx_responses_total"));
+    assertEquals("0.25", samples.get("ldap_cluster_hit_rate"));
+    assertEquals(0.005, Double.parseDouble(samples.get("service_webhdfs_seconds{quantile=\"0.5\"}")), 1e-9);
+    assertEquals("1", samples.get("service_webhdfs_seconds_count"));
+    assertFalse(text.contains("deadlock"));
+    assertTrue(text.contains("# TYPE service_webhdfs_seconds summary\n"));
+    assertTrue(text.contains("# TYPE _2xx_responses_total counter\n"));
+  }
+
+  @Test
+  public void testLabelValuesAreEscaped() throws Exception {
+    RequestMetrics requestMetrics = new RequestMetrics();
+    requestMetrics.endRequest("a\"b\\c\nd", "ROLE", "GET", 200, 1, TimeUnit.MILLISECONDS);
+    String text = write(requestMetrics, null);
+    assertTrue(text, text.contains("knox_request_duration_seconds_count{topology=\"a\\\"b\\\\c\\nd\",service=\"ROLE\""));
+  }
+
+  private static String write(RequestMetrics requestMetrics, MetricRegistry registry) throws Exception {
+    StringWriter writer = new StringWriter();
+    PrometheusTextFormat.write(writer, requestMetrics, registry);
+    return writer.toString();
+  }
+
+  /* Maps the series of every sample line, name and labels, to its value */
+  static Map<String, String> parse(String text) {
+    Map<String, String> samples = new HashMap<>();
+    for (String line : text.split("\n")) {
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      int separator = line.lastIndexOf(' ');
+      assertNull("Duplicate series " + line, samples.put(line.substring(0, separator), line.substring(separator + 1)));
+    }
+    return samples;
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.apache.knox.gateway.services.security;
+
+import org.junit.Test;
+
+import static org.easymock.EasyMock.aryEq;
+import static org.easymock.EasyMock.createMockBuilder;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertThrows;
+
+public class KeystoreServiceTest {
+
+  @Test
+  public void testRsaDelegatesToTheHostnameMethod() throws Exception {
+    char[] passphrase = "secret".toCharArray();
+    KeystoreService keystoreService = rsaOnlyKeystoreService();
+    keystoreService.addSelfSignedCertForGateway(eq("gateway-identity"), aryEq(passphrase), eq("localhost"));
+    expectLastCall().times(3);
+    replay(keystoreService);
+
+    keystoreService.addSelfSignedCertForGateway("gateway-identity", passphrase, "localhost", "RSA");
+    keystoreService.addSelfSignedCertForGateway("gateway-identity", passphrase, "localhost", "rsa");
+    keystoreService.addSelfSignedCertForGateway("gateway-identity", passphrase, "localhost", null);
+    verify(keystoreService);
+  }
+
+  @Test
+  public void testOtherAlgorithmsAreRejected() {
+    KeystoreService keystoreService = rsaOnlyKeystoreService();
+    replay(keystoreService);
+
+    assertThrows(KeystoreServiceException.class, () -> keystoreService.addSelfSignedCertForGateway(
+        "gateway-identity", "secret".toCharArray(), "localhost", "ES256"));
+    verify(keystoreService);
+  }
+
+  private static KeystoreService rsaOnlyKeystoreService() {
+    return createMockBuilder(RsaOnlyKeystoreService.class)
+        .addMockedMethod("addSelfSignedCertForGateway", String.class, char[].class, String.class)
+        .createMock();
+  }
+
+  /* An implementation written before the key algorithm could be chosen */
+  abstract static class RsaOnlyKeystoreService implements KeystoreService {
+    @Override
+    public abstract void addSelfSignedCertForGateway(String alias, char[] passphrase, String hostname)
+        throws KeystoreServiceException;
+  }
+}
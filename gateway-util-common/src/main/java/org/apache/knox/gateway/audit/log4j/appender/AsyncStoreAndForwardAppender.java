@@ -0,0 +1,353 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.audit.log4j.appender;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.Core;
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.Logger;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginElement;
+import org.apache.logging.log4j.core.config.plugins.PluginFactory;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+
+/**
+ * Store and forward appender that keeps the logging thread off any lock or disk write.
+ *
+ * Events are put into a bounded lock-free ring buffer; when it is full the event
+ * is dropped and counted. A writer thread drains the buffer and appends the events
+ * in batches to an {@link AuditSegmentLog} in the configured directory, syncing
+ * according to the fsync policy. A forwarder thread reads the log in batches and
+ * hands each event to the appenders of the forward logger, retrying the appenders
+ * that failed a bounded number of times. Events not forwarded when the appender
+ * stops or the process dies are forwarded again by the next appender using the
+ * same directory; only an event the process died in the middle of forwarding can
+ * reach an appender twice.
+ */
+@Plugin(
+    name = "AsyncStoreAndForwardAppender",
+    category = Core.CATEGORY_NAME,
+    elementType = Appender.ELEMENT_TYPE)
+public class AsyncStoreAndForwardAppender extends AbstractAppender {
+  private static final long IDLE_WAIT_MILLIS = 100;
+
+  private final File dir;
+  private final int batchSize;
+  private final long segmentSize;
+  private final AuditSegmentLog.FsyncPolicy fsyncPolicy;
+  private final long fsyncInterval;
+  private final int maxRetries;
+  private final long retryInterval;
+  private final Logger forward;
+  private final MpscRingBuffer<LogEvent> buffer;
+
+  private final AtomicBoolean writerWaiting = new AtomicBoolean();
+  private final AtomicBoolean stopping = new AtomicBoolean();
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicLong written = new AtomicLong();
+  private final AtomicLong forwarded = new AtomicLong();
+  private final AtomicLong retries = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+
+  private AuditSegmentLog log;
+  private Thread writer; //NOPMD - Expected use of threading
+  private Thread forwarder; //NOPMD - Expected use of threading
+
+  @SuppressWarnings("PMD.ExcessiveParameterList")
+  private AsyncStoreAndForwardAppender( String name, Filter filter, String dir, int bufferSize, int batchSize,
+                                        long segmentSize, String fsync, long fsyncInterval, int maxRetries,
+                                        long retryInterval, String forward ) {
+    super( name, filter, null );
+    this.dir = new File( dir );
+    this.batchSize = Math.max( 1, batchSize );
+    this.segmentSize = segmentSize;
+    this.fsyncPolicy = AuditSegmentLog.FsyncPolicy.parse( fsync );
+    this.fsyncInterval = fsyncInterval;
+    this.maxRetries = Math.max( 0, maxRetries );
+    this.retryInterval = retryInterval;
+    this.buffer = new MpscRingBuffer<>( bufferSize );
+    this.forward = (Logger)LogManager.getLogger( forward );
+    this.forward.setAdditive( false );
+  }
+
+  @PluginFactory
+  @SuppressWarnings("PMD.ExcessiveParameterList")
+  public static AsyncStoreAndForwardAppender createAppender(
+      @PluginAttribute("name") String name,
+      @PluginElement("Filter") Filter filter,
+      @PluginAttribute("dir") String dir,
+      @PluginAttribute(value = "bufferSize", defaultInt = 8192) int bufferSize,
+      @PluginAttribute(value = "batchSize", defaultInt = 512) int batchSize,
+      @PluginAttribute(value = "segmentSize", defaultLong = 16L * 1024 * 1024) long segmentSize,
+      @PluginAttribute(value = "fsync", defaultString = "interval") String fsync,
+      @PluginAttribute(value = "fsyncInterval", defaultLong = 1000) long fsyncInterval,
+      @PluginAttribute(value = "maxRetries", defaultInt = 3) int maxRetries,
+      @PluginAttribute(value = "retryInterval", defaultLong = 100) long retryInterval,
+      @PluginAttribute(value = "forward", defaultString = "audit.forward") String forward ) {
+    return new AsyncStoreAndForwardAppender( name, filter, dir, bufferSize, batchSize, segmentSize,
+        fsync, fsyncInterval, maxRetries, retryInterval, forward );
+  }
+
+  @Override
+  public void start() {
+    try {
+      log = new AuditSegmentLog( dir, segmentSize, fsyncPolicy, fsyncInterval );
+    } catch( IOException e ) {
+      throw new IllegalStateException( e );
+    }
+    writer = new Writer( getName() );
+    writer.setDaemon( true );
+    writer.start();
+    forwarder = new Forwarder( getName() );
+    forwarder.setDaemon( true );
+    forwarder.start();
+    super.start();
+  }
+
+  @Override
+  public void append( LogEvent event ) {
+    if( !buffer.offer( event.toImmutable() ) ) {
+      dropped.incrementAndGet();
+      return;
+    }
+    if( writerWaiting.get() ) {
+      LockSupport.unpark( writer );
+    }
+  }
+
+  @Override
+  public void stop() {
+    setStopping();
+    stopping.set( true );
+    try {
+      LockSupport.unpark( writer );
+      writer.join();
+      forwarder.join();
+      log.close();
+    } catch( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException( e );
+    } catch( IOException e ) {
+      throw new RuntimeException( e );
+    }
+    super.stop();
+  }
+
+  /**
+   * @return the number of events waiting in the ring buffer
+   */
+  public int getQueueDepth() {
+    return buffer.size();
+  }
+
+  /**
+   * @return the number of events dropped because the ring buffer was full
+   */
+  public long getDroppedCount() {
+    return dropped.get();
+  }
+
+  /**
+   * @return the number of events written to the segment log
+   */
+  public long getWrittenCount() {
+    return written.get();
+  }
+
+  /**
+   * @return the number of events handed to the forward appenders
+   */
+  public long getForwardedCount() {
+    return forwarded.get();
+  }
+
+  /**
+   * @return the number of times forwarding an event was retried
+   */
+  public long getRetryCount() {
+    return retries.get();
+  }
+
+  /**
+   * @return the number of events given up on after all retries failed
+   */
+  public long getFailedCount() {
+    return failed.get();
+  }
+
+  /**
+   * @return the number of events stored but not yet forwarded
+   */
+  public long getPendingCount() {
+    return log == null ? 0 : log.getPending();
+  }
+
+  public boolean isForwarderRunning() {
+    return forwarder != null && forwarder.isAlive();
+  }
+
+  private static byte[] serialize( LogEvent event ) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream( 256 );
+    try( ObjectOutputStream out = new ObjectOutputStream( bytes ) ) {
+      out.writeObject( Log4jLogEvent.serialize( event, event.isIncludeLocation() ) );
+    }
+    return bytes.toByteArray();
+  }
+
+  private static LogEvent deserialize( byte[] record ) throws IOException, ClassNotFoundException {
+    try( ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( record ) ) ) {
+      /* The serialized proxy resolves itself back into a LogEvent */
+      return (LogEvent)in.readObject();
+    }
+  }
+
+  @SuppressWarnings("PMD.DoNotUseThreads")
+  private class Writer extends Thread {
+    Writer( String name ) {
+      super( "audit-writer-" + name );
+    }
+
+    @Override
+    public void run() {
+      final List<LogEvent> events = new ArrayList<>( batchSize );
+      final List<byte[]> records = new ArrayList<>( batchSize );
+      while( true ) {
+        try {
+          if( events.isEmpty() && buffer.drain( events, batchSize ) == 0 ) {
+            if( stopping.get() && buffer.isEmpty() ) {
+              break;
+            }
+            awaitEvents();
+            log.syncWritesIfDue();
+            continue;
+          }
+          records.clear();
+          for( LogEvent event : events ) {
+            records.add( serialize( event ) );
+          }
+          log.append( records );
+          written.addAndGet( records.size() );
+          events.clear();
+        } catch( IOException e ) {
+          LOGGER.error( "Failed to store audit events in {}", dir, e );
+          if( stopping.get() ) {
+            break;
+          }
+          LockSupport.parkNanos( TimeUnit.MILLISECONDS.toNanos( retryInterval ) );
+        }
+      }
+    }
+
+    private void awaitEvents() {
+      writerWaiting.set( true );
+      if( buffer.isEmpty() && !stopping.get() ) {
+        LockSupport.parkNanos( TimeUnit.MILLISECONDS.toNanos( Math.min( IDLE_WAIT_MILLIS, Math.max( 1, fsyncInterval ) ) ) );
+      }
+      writerWaiting.set( false );
+    }
+  }
+
+  @SuppressWarnings("PMD.DoNotUseThreads")
+  private class Forwarder extends Thread {
+    Forwarder( String name ) {
+      super( "audit-forwarder-" + name );
+    }
+
+    @Override
+    public void run() {
+      while( true ) {
+        try {
+          /* Whatever has not been forwarded yet stays in the log for the next start */
+          if( stopping.get() ) {
+            break;
+          }
+          List<byte[]> records = log.read( batchSize, IDLE_WAIT_MILLIS );
+          long next = log.getAcknowledged();
+          for( byte[] record : records ) {
+            forward( record );
+            log.acknowledge( ++next );
+          }
+          log.checkpoint();
+        } catch( InterruptedException e ) {
+          Thread.currentThread().interrupt();
+          break;
+        } catch( IOException e ) {
+          LOGGER.error( "Failed to read audit events from {}", dir, e );
+          if( stopping.get() ) {
+            break;
+          }
+          LockSupport.parkNanos( TimeUnit.MILLISECONDS.toNanos( retryInterval ) );
+        }
+      }
+    }
+
+    private void forward( byte[] record ) throws InterruptedException {
+      LogEvent event;
+      try {
+        event = deserialize( record );
+      } catch( IOException | ClassNotFoundException | ClassCastException e ) {
+        LOGGER.error( "Discarding unreadable audit event", e );
+        failed.incrementAndGet();
+        return;
+      }
+      /* Only the appenders that did not take the event yet are retried, so none gets it twice */
+      final List<Appender> pending = new ArrayList<>( forward.getAppenders().values() );
+      for( int attempt = 0; ; attempt++ ) {
+        RuntimeException failure = null;
+        for( Iterator<Appender> appenders = pending.iterator(); appenders.hasNext(); ) {
+          try {
+            appenders.next().append( event );
+            appenders.remove();
+          } catch( RuntimeException e ) {
+            failure = e;
+          }
+        }
+        if( failure == null ) {
+          forwarded.incrementAndGet();
+          return;
+        }
+        if( attempt >= maxRetries ) {
+          LOGGER.error( "Giving up forwarding audit event to {} appenders after {} retries", pending.size(), maxRetries,
+              failure );
+          failed.incrementAndGet();
+          return;
+        }
+        retries.incrementAndGet();
+        TimeUnit.MILLISECONDS.sleep( retryInterval );
+      }
+    }
+  }
+}
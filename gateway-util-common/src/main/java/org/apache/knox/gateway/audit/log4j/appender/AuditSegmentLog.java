@@ -0,0 +1,434 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.audit.log4j.appender;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of audit records split over segment files.
+ *
+ * Records are numbered consecutively. Each segment file is named after the
+ * number of its first record and holds records as length, CRC32 and payload.
+ * A single writer appends whole batches with one write and syncs them
+ * according to the {@link FsyncPolicy}. A single reader consumes records in
+ * order and acknowledges them; the number of the next unacknowledged record is
+ * kept in a separate file so records that were not acknowledged are replayed
+ * after a restart. Segments holding only acknowledged records are deleted.
+ *
+ * On open a torn record at the end of the last segment, left by a crash in the
+ * middle of a write, is truncated away.
+ */
+class AuditSegmentLog implements Closeable {
+
+  enum FsyncPolicy {
+    /* Sync every batch before it can be forwarded */
+    ALWAYS,
+    /* Sync at most once per interval */
+    INTERVAL,
+    /* Leave syncing to the operating system */
+    NEVER;
+
+    static FsyncPolicy parse( String value ) {
+      return value == null ? INTERVAL : valueOf( value.trim().toUpperCase( Locale.ROOT ) );
+    }
+  }
+
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".log";
+  private static final String ACK_FILE = "ack";
+  private static final int HEADER_SIZE = 8;
+
+  private final File dir;
+  private final long maxSegmentBytes;
+  private final FsyncPolicy policy;
+  private final long fsyncIntervalMillis;
+
+  private final ConcurrentNavigableMap<Long, File> segments = new ConcurrentSkipListMap<>();
+  /* Number of the next record to be written, all records below are readable */
+  private final AtomicLong committed = new AtomicLong();
+  /* Number of the next record to be acknowledged */
+  private final AtomicLong acknowledged = new AtomicLong();
+  private final Lock lock = new ReentrantLock();
+  private final Condition appended = lock.newCondition();
+
+  /* Writer state */
+  private FileChannel writeChannel;
+  private boolean writeDirty;
+  private long lastWriteSync;
+
+  /* Reader state */
+  private FileChannel readChannel;
+  private long readPosition;
+  private long readSequence;
+  private final FileChannel ackChannel;
+  private final ByteBuffer ackBuffer = ByteBuffer.allocate( Long.BYTES );
+  private boolean ackDirty;
+  private long lastAckSync;
+
+  AuditSegmentLog( File dir, long maxSegmentBytes, FsyncPolicy policy, long fsyncIntervalMillis ) throws IOException {
+    this.dir = dir;
+    this.maxSegmentBytes = maxSegmentBytes;
+    this.policy = policy;
+    this.fsyncIntervalMillis = fsyncIntervalMillis;
+    Files.createDirectories( dir.toPath() );
+    ackChannel = FileChannel.open( new File( dir, ACK_FILE ).toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE );
+    try {
+      recover();
+    } catch( IOException | RuntimeException e ) {
+      close();
+      throw e;
+    }
+  }
+
+  private void recover() throws IOException {
+    long ack = 0;
+    if( ackChannel.size() >= Long.BYTES ) {
+      ackBuffer.clear();
+      readFully( ackChannel, ackBuffer, 0 );
+      ack = ackBuffer.getLong( 0 );
+    }
+
+    File[] files = dir.listFiles( ( d, name ) -> name.startsWith( SEGMENT_PREFIX ) && name.endsWith( SEGMENT_SUFFIX ) );
+    if( files != null ) {
+      for( File file : files ) {
+        String base = file.getName().substring( SEGMENT_PREFIX.length(), file.getName().length() - SEGMENT_SUFFIX.length() );
+        segments.put( Long.parseLong( base ), file );
+      }
+    }
+
+    long next = ack;
+    if( !segments.isEmpty() ) {
+      Map.Entry<Long, File> last = segments.lastEntry();
+      long end = last.getKey() + truncateTornRecord( last.getValue() );
+      if( end >= ack ) {
+        next = end;
+        writeChannel = FileChannel.open( last.getValue().toPath(), StandardOpenOption.WRITE );
+        writeChannel.position( writeChannel.size() );
+      }
+    }
+    committed.set( next );
+    if( writeChannel == null ) {
+      // Records beyond the last one written were already forwarded, numbering continues after them.
+      openSegment( next );
+    }
+
+    acknowledged.set( Math.max( ack, segments.firstKey() ) );
+    deleteAcknowledgedSegments();
+    positionReader( acknowledged.get() );
+  }
+
+  /*
+   * Scans a segment and cuts it after the last complete record.
+   * Returns the number of complete records.
+   */
+  private static long truncateTornRecord( File file ) throws IOException {
+    try( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE ) ) {
+      long size = channel.size();
+      long position = 0;
+      long count = 0;
+      ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+      while( position + HEADER_SIZE <= size ) {
+        header.clear();
+        readFully( channel, header, position );
+        int length = header.getInt( 0 );
+        if( length < 0 || position + HEADER_SIZE + length > size ) {
+          break;
+        }
+        ByteBuffer payload = ByteBuffer.allocate( length );
+        readFully( channel, payload, position + HEADER_SIZE );
+        if( checksum( payload.array() ) != header.getInt( Integer.BYTES ) ) {
+          break;
+        }
+        position += HEADER_SIZE + length;
+        count++;
+      }
+      if( position < size ) {
+        channel.truncate( position );
+        channel.force( true );
+      }
+      return count;
+    }
+  }
+
+  private void openSegment( long base ) throws IOException {
+    File file = new File( dir, String.format( Locale.ROOT, "%s%020d%s", SEGMENT_PREFIX, base, SEGMENT_SUFFIX ) );
+    writeChannel = FileChannel.open( file.toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND );
+    segments.put( base, file );
+  }
+
+  /**
+   * Appends records as one group commit. Must only be called by the writer thread.
+   * @param payloads the records to append
+   * @throws IOException if the records could not be written
+   */
+  void append( List<byte[]> payloads ) throws IOException {
+    if( payloads.isEmpty() ) {
+      return;
+    }
+    int bytes = 0;
+    for( byte[] payload : payloads ) {
+      bytes += HEADER_SIZE + payload.length;
+    }
+    if( writeChannel.size() > 0 && writeChannel.size() + bytes > maxSegmentBytes ) {
+      if( policy != FsyncPolicy.NEVER ) {
+        writeChannel.force( false );
+      }
+      writeChannel.close();
+      openSegment( committed.get() );
+    }
+    ByteBuffer buffer = ByteBuffer.allocate( bytes );
+    for( byte[] payload : payloads ) {
+      buffer.putInt( payload.length );
+      buffer.putInt( checksum( payload ) );
+      buffer.put( payload );
+    }
+    buffer.flip();
+    while( buffer.hasRemaining() ) {
+      writeChannel.write( buffer );
+    }
+    writeDirty = true;
+    if( policy == FsyncPolicy.ALWAYS ) {
+      syncWrites();
+    } else {
+      syncWritesIfDue();
+    }
+
+    committed.addAndGet( payloads.size() );
+    lock.lock();
+    try {
+      appended.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Syncs written records if the fsync interval has passed. Must only be called by the writer thread.
+   * @throws IOException if the sync failed
+   */
+  void syncWritesIfDue() throws IOException {
+    if( policy == FsyncPolicy.INTERVAL && System.currentTimeMillis() - lastWriteSync >= fsyncIntervalMillis ) {
+      syncWrites();
+    }
+  }
+
+  private void syncWrites() throws IOException {
+    if( writeDirty ) {
+      writeChannel.force( false );
+      writeDirty = false;
+    }
+    lastWriteSync = System.currentTimeMillis();
+  }
+
+  /**
+   * Reads the next records that have been written. Must only be called by the reader thread.
+   * @param max maximum number of records to return
+   * @param timeoutMillis how long to wait if no record is available
+   * @return the records, empty if none became available in time
+   * @throws IOException if a segment could not be read
+   * @throws InterruptedException if interrupted while waiting
+   */
+  List<byte[]> read( int max, long timeoutMillis ) throws IOException, InterruptedException {
+    if( readSequence >= committed.get() ) {
+      lock.lock();
+      try {
+        if( readSequence >= committed.get() ) {
+          appended.await( timeoutMillis, TimeUnit.MILLISECONDS );
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+    long limit = committed.get();
+    List<byte[]> records = new ArrayList<>( (int)Math.min( max, Math.max( 0, limit - readSequence ) ) );
+    while( records.size() < max && readSequence < limit ) {
+      advanceReader();
+      records.add( readRecord() );
+      readSequence++;
+    }
+    return records;
+  }
+
+  private void positionReader( long sequence ) throws IOException {
+    Map.Entry<Long, File> segment = segments.floorEntry( sequence );
+    readSequence = sequence;
+    if( segment == null ) {
+      return;
+    }
+    readChannel = FileChannel.open( segment.getValue().toPath(), StandardOpenOption.READ );
+    readPosition = 0;
+    for( long skip = sequence - segment.getKey(); skip > 0; skip-- ) {
+      readRecord();
+    }
+  }
+
+  private void advanceReader() throws IOException {
+    if( readChannel != null && readPosition < readChannel.size() ) {
+      return;
+    }
+    File next = segments.get( readSequence );
+    if( next == null ) {
+      throw new IOException( "No audit segment starts at record " + readSequence );
+    }
+    if( readChannel != null ) {
+      readChannel.close();
+    }
+    readChannel = FileChannel.open( next.toPath(), StandardOpenOption.READ );
+    readPosition = 0;
+  }
+
+  private byte[] readRecord() throws IOException {
+    ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+    readFully( readChannel, header, readPosition );
+    int length = header.getInt( 0 );
+    if( length < 0 ) {
+      throw new IOException( "Corrupt audit record " + readSequence );
+    }
+    ByteBuffer payload = ByteBuffer.allocate( length );
+    readFully( readChannel, payload, readPosition + HEADER_SIZE );
+    readPosition += HEADER_SIZE + length;
+    return payload.array();
+  }
+
+  /**
+   * Records that all records before the given one were forwarded. Must only be called by the reader thread.
+   * @param next the number of the next record to forward
+   * @throws IOException if the acknowledgement could not be stored
+   */
+  void acknowledge( long next ) throws IOException {
+    ackBuffer.clear();
+    ackBuffer.putLong( 0, next );
+    while( ackBuffer.hasRemaining() ) {
+      ackChannel.write( ackBuffer, ackBuffer.position() );
+    }
+    acknowledged.set( next );
+    ackDirty = true;
+  }
+
+  /**
+   * Syncs the acknowledgement according to the policy and deletes segments that
+   * were fully forwarded. Must only be called by the reader thread.
+   * @throws IOException if the acknowledgement could not be synced
+   */
+  void checkpoint() throws IOException {
+    if( ackDirty && ( policy == FsyncPolicy.ALWAYS
+        || policy == FsyncPolicy.INTERVAL && System.currentTimeMillis() - lastAckSync >= fsyncIntervalMillis ) ) {
+      ackChannel.force( false );
+      ackDirty = false;
+      lastAckSync = System.currentTimeMillis();
+    }
+    deleteAcknowledgedSegments();
+  }
+
+  private void deleteAcknowledgedSegments() throws IOException {
+    long ack = acknowledged.get();
+    Iterator<Map.Entry<Long, File>> iterator = segments.entrySet().iterator();
+    Map.Entry<Long, File> current = iterator.hasNext() ? iterator.next() : null;
+    while( current != null && iterator.hasNext() ) {
+      Map.Entry<Long, File> next = iterator.next();
+      if( next.getKey() > ack ) {
+        break;
+      }
+      Files.deleteIfExists( current.getValue().toPath() );
+      segments.remove( current.getKey() );
+      current = next;
+    }
+  }
+
+  /**
+   * @return the number of the next record to be written
+   */
+  long getCommitted() {
+    return committed.get();
+  }
+
+  /**
+   * @return the number of the next record to be acknowledged
+   */
+  long getAcknowledged() {
+    return acknowledged.get();
+  }
+
+  /**
+   * @return the number of records written but not yet acknowledged
+   */
+  long getPending() {
+    return committed.get() - acknowledged.get();
+  }
+
+  @Override
+  public void close() throws IOException {
+    IOException failure = null;
+    for( FileChannel channel : new FileChannel[] { writeChannel, ackChannel } ) {
+      try {
+        if( channel != null && channel.isOpen() && policy != FsyncPolicy.NEVER ) {
+          channel.force( false );
+        }
+      } catch( IOException e ) {
+        failure = e;
+      }
+    }
+    for( FileChannel channel : new FileChannel[] { writeChannel, readChannel, ackChannel } ) {
+      try {
+        if( channel != null ) {
+          channel.close();
+        }
+      } catch( IOException e ) {
+        failure = e;
+      }
+    }
+    if( failure != null ) {
+      throw failure;
+    }
+  }
+
+  private static void readFully( FileChannel channel, ByteBuffer buffer, long position ) throws IOException {
+    while( buffer.hasRemaining() ) {
+      if( channel.read( buffer, position + buffer.position() ) < 0 ) {
+        throw new IOException( "Unexpected end of audit segment" );
+      }
+    }
+  }
+
+  private static int checksum( byte[] payload ) {
+    CRC32 crc = new CRC32();
+    crc.update( payload, 0, payload.length );
+    return (int)crc.getValue();
+  }
+}
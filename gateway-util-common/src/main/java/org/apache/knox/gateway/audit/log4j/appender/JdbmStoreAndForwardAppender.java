@@ -33,6 +33,11 @@ import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
 import org.apache.logging.log4j.core.config.plugins.PluginElement;
 import org.apache.logging.log4j.core.config.plugins.PluginFactory;
 
+/**
+ * @deprecated Every event goes through a synchronized JDBM commit on the logging
+ * thread, use {@link AsyncStoreAndForwardAppender} instead.
+ */
+@Deprecated
 @Plugin(
     name = "JdbmStoreAndForwardAppender",
     category = Core.CATEGORY_NAME,
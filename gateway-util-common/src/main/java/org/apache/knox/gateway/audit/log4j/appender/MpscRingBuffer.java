@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.audit.log4j.appender;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue for many producers and a single consumer.
+ *
+ * Every slot carries a sequence number telling whether it is free for the
+ * producer claiming a given position or filled for the consumer reading it.
+ * Producers claim positions with a CAS on the tail and never block; when the
+ * buffer is full {@link #offer(Object)} fails immediately.
+ */
+class MpscRingBuffer<E> {
+
+  private final int mask;
+  private final AtomicReferenceArray<E> elements;
+  private final AtomicLongArray sequences;
+  private final AtomicLong tail = new AtomicLong();
+  private final AtomicLong head = new AtomicLong();
+
+  MpscRingBuffer( int requestedCapacity ) {
+    int capacity = Integer.highestOneBit( Math.max( 2, requestedCapacity ) - 1 ) << 1;
+    mask = capacity - 1;
+    elements = new AtomicReferenceArray<>( capacity );
+    sequences = new AtomicLongArray( capacity );
+    for( int i = 0; i < capacity; i++ ) {
+      sequences.set( i, i );
+    }
+  }
+
+  int capacity() {
+    return mask + 1;
+  }
+
+  /**
+   * Adds an element, may be called by any number of threads.
+   * @param element the element to add
+   * @return false if the buffer is full
+   */
+  boolean offer( E element ) {
+    long position;
+    int index;
+    while( true ) {
+      position = tail.get();
+      index = (int)( position & mask );
+      long available = sequences.get( index ) - position;
+      if( available == 0 ) {
+        if( tail.compareAndSet( position, position + 1 ) ) {
+          break;
+        }
+      } else if( available < 0 ) {
+        return false;
+      }
+    }
+    elements.lazySet( index, element );
+    sequences.lazySet( index, position + 1 );
+    return true;
+  }
+
+  /**
+   * Removes the oldest element, must only be called by the consumer thread.
+   * @return the element or null if the buffer is empty
+   */
+  E poll() {
+    long position = head.get();
+    int index = (int)( position & mask );
+    if( sequences.get( index ) != position + 1 ) {
+      return null;
+    }
+    E element = elements.get( index );
+    elements.lazySet( index, null );
+    sequences.lazySet( index, position + mask + 1 );
+    head.lazySet( position + 1 );
+    return element;
+  }
+
+  /**
+   * Moves up to max elements to the target, must only be called by the consumer thread.
+   * @param target collection receiving the elements
+   * @param max maximum number of elements to move
+   * @return the number of elements moved
+   */
+  int drain( Collection<? super E> target, int max ) {
+    int count = 0;
+    E element;
+    while( count < max && ( element = poll() ) != null ) {
+      target.add( element );
+      count++;
+    }
+    return count;
+  }
+
+  boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /**
+   * @return the approximate number of elements in the buffer
+   */
+  int size() {
+    return (int)Math.max( 0, tail.get() - head.get() );
+  }
+}
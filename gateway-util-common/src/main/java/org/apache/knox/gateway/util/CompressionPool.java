@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Streams that compress and decompress gzip and deflate content with pooled
+ * Deflaters and Inflaters.
+ *
+ * A Deflater or Inflater holds native memory until it is ended, which makes
+ * creating one for every response expensive. The streams created here borrow
+ * them from a bounded pool and return them, reset, when they are closed. A
+ * stream that is never closed only costs its Deflater or Inflater the pool.
+ */
+public final class CompressionPool {
+  private static final int POOL_SIZE = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+  // gzip writes its own header and trailer around raw deflate data, deflate uses the zlib format
+  private static final Queue<Deflater> GZIP_DEFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+  private static final Queue<Deflater> ZLIB_DEFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+  private static final Queue<Inflater> ZLIB_INFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+
+  private static final int GZIP_MAGIC = 0x8b1f;
+  private static final int GZIP_TRAILER_SIZE = 8;
+
+  private CompressionPool() {
+  }
+
+  /**
+   * @param level the compression level, from 0 to 9 or {@link Deflater#DEFAULT_COMPRESSION}
+   * @return a stream writing the gzip compressed data to the output
+   */
+  public static OutputStream gzipOutputStream(OutputStream output, int level, int bufferSize) throws IOException {
+    return new PooledGzipOutputStream(output, borrowDeflater(GZIP_DEFLATERS, level, true), bufferSize);
+  }
+
+  /**
+   * @param level the compression level, from 0 to 9 or {@link Deflater#DEFAULT_COMPRESSION}
+   * @return a stream writing the deflate (zlib) compressed data to the output
+   */
+  public static OutputStream deflateOutputStream(OutputStream output, int level, int bufferSize) {
+    return new PooledDeflaterOutputStream(output, borrowDeflater(ZLIB_DEFLATERS, level, false), bufferSize, ZLIB_DEFLATERS);
+  }
+
+  /**
+   * @return a stream reading the deflate (zlib) compressed data from the input
+   */
+  public static InputStream inflateInputStream(InputStream input, int bufferSize) {
+    Inflater inflater = ZLIB_INFLATERS.poll();
+    if (inflater == null) {
+      inflater = new Inflater();
+    }
+    return new PooledInflaterInputStream(input, inflater, bufferSize);
+  }
+
+  private static Deflater borrowDeflater(Queue<Deflater> pool, int level, boolean nowrap) {
+    final Deflater deflater = pool.poll();
+    if (deflater == null) {
+      return new Deflater(level, nowrap);
+    }
+    deflater.setLevel(level);
+    return deflater;
+  }
+
+  private static void releaseDeflater(Queue<Deflater> pool, Deflater deflater) {
+    deflater.reset();
+    if (!pool.offer(deflater)) {
+      deflater.end();
+    }
+  }
+
+  private static class PooledDeflaterOutputStream extends DeflaterOutputStream {
+    private final Queue<Deflater> pool;
+    private boolean released;
+
+    PooledDeflaterOutputStream(OutputStream output, Deflater deflater, int bufferSize, Queue<Deflater> pool) {
+      super(output, deflater, bufferSize);
+      this.pool = pool;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } finally {
+        if (!released) {
+          released = true;
+          releaseDeflater(pool, def);
+        }
+      }
+    }
+  }
+
+  private static class PooledGzipOutputStream extends PooledDeflaterOutputStream {
+    private final CRC32 crc = new CRC32();
+    private boolean finished;
+
+    PooledGzipOutputStream(OutputStream output, Deflater deflater, int bufferSize) throws IOException {
+      super(output, deflater, bufferSize, GZIP_DEFLATERS);
+      // magic number, deflate method, no flags, no modification time, no extra flags, unknown OS
+      output.write(new byte[] { (byte) GZIP_MAGIC, (byte) (GZIP_MAGIC >> 8), Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff });
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      super.write(bytes, offset, length);
+      crc.update(bytes, offset, length);
+    }
+
+    @Override
+    public void finish() throws IOException {
+      if (finished) {
+        return;
+      }
+      finished = true;
+      super.finish();
+      final byte[] trailer = new byte[GZIP_TRAILER_SIZE];
+      writeInt((int) crc.getValue(), trailer, 0);
+      writeInt(def.getTotalIn(), trailer, 4);
+      out.write(trailer);
+    }
+
+    private static void writeInt(int value, byte[] bytes, int offset) {
+      bytes[offset] = (byte) value;
+      bytes[offset + 1] = (byte) (value >> 8);
+      bytes[offset + 2] = (byte) (value >> 16);
+      bytes[offset + 3] = (byte) (value >> 24);
+    }
+  }
+
+  private static class PooledInflaterInputStream extends InflaterInputStream {
+    private boolean released;
+
+    PooledInflaterInputStream(InputStream input, Inflater inflater, int bufferSize) {
+      super(input, inflater, bufferSize);
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } finally {
+        if (!released) {
+          released = true;
+          inf.reset();
+          if (!ZLIB_INFLATERS.offer(inf)) {
+            inf.end();
+          }
+        }
+      }
+    }
+  }
+}
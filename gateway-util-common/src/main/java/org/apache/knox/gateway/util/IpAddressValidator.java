@@ -23,6 +23,10 @@ import java.util.List;
 
 /**
  * Validate a given IP Address against a list of comma separated list of addresses.
+ *
+ * The list is compiled into an {@link IpRangeSet} once, so besides exact addresses and
+ * <code>*</code> wildcards it accepts CIDR blocks and <code>!</code> exclusions. Input
+ * that is not an IP address is still matched textually against the configured entries.
  */
 public class IpAddressValidator {
   /**
@@ -40,6 +44,11 @@ public class IpAddressValidator {
    */
   private boolean anyIP = true;
 
+  /**
+   * The compiled list, entries that are not valid ranges are left out
+   */
+  private IpRangeSet ranges = IpRangeSet.parse(null);
+
   /**
    * ctor - initialize an instance with the given ip address list
    * @param commaSeparatedIpAddresses - comma separated list of ip addresses
@@ -58,8 +67,20 @@ public class IpAddressValidator {
     ipaddr = new ArrayList<>();
     wildCardIPs = new ArrayList<>();
     Collections.addAll(ipaddr, ips);
-    if (!ipaddr.contains("*")) {
-      anyIP = false;
+    IpRangeSet.Builder builder = IpRangeSet.builder();
+    for (String addr : ipaddr) {
+      if (addr.trim().isEmpty()) {
+        continue;
+      }
+      try {
+        builder.add(addr);
+      } catch (IllegalArgumentException e) {
+        // Not a range, it can only match textually
+      }
+    }
+    ranges = builder.build();
+    anyIP = ranges.containsAll();
+    if (!anyIP) {
       // check whether there are any wildcarded ip's - example: 192.* or 192.168.* or 192.168.1.*
       for (String addr : ipaddr) {
         if (addr.contains("*")) {
@@ -79,6 +100,9 @@ public class IpAddressValidator {
     if (anyIP) {
       valid = true;
     }
+    else if (IpRangeSet.isAddress(addr)) {
+      valid = ranges.contains(addr);
+    }
     else {
       if (ipaddr.contains(addr)) {
         valid = true;
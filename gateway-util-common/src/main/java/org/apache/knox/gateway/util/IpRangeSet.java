@@ -0,0 +1,533 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.apache.knox.gateway.util;
+
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * An immutable set of IPv4 and IPv6 address ranges compiled into two binary radix
+ * tries, one over 32 bit and one over 128 bit addresses, so a lookup costs at most
+ * one step per address bit regardless of the number of ranges.
+ *
+ * Ranges are given as a comma separated list of entries, each one of
+ * <ul>
+ *   <li>an address, e.g. <code>192.168.1.10</code> or <code>2001:db8::1</code></li>
+ *   <li>a CIDR block, e.g. <code>10.0.0.0/8</code> or <code>2001:db8::/32</code></li>
+ *   <li>a wildcard, e.g. <code>192.168.*</code>, <code>192.16*</code> or <code>0:0:0:0:0:0:*</code>,
+ *   matching every address whose textual form starts with the text before the <code>*</code>;
+ *   a single <code>*</code> matches every address</li>
+ *   <li>any of the above prefixed with <code>!</code> to exclude the addresses it matches</li>
+ * </ul>
+ *
+ * The most specific entry matching an address decides whether it is contained, an
+ * exclusion wins over an inclusion of the very same range. An address matched by no
+ * entry is contained only if the set consists of exclusions alone. IPv4-mapped IPv6
+ * addresses such as <code>::ffff:10.1.2.3</code> are treated as the IPv4 address they
+ * map, both in entries and in lookups. Addresses are parsed without any name lookup.
+ */
+public final class IpRangeSet {
+  private static final byte NONE = 0;
+  private static final byte INCLUDE = 1;
+  private static final byte EXCLUDE = 2;
+
+  private static final int IPV4_BITS = 32;
+  private static final int IPV6_BITS = 128;
+
+  private final Trie ipv4;
+  private final Trie ipv6;
+  private final boolean includesAll;
+  private final boolean hasInclusions;
+  private final boolean hasExclusions;
+  private final int size;
+
+  IpRangeSet(Builder builder) {
+    includesAll = builder.includesAll;
+    hasInclusions = builder.hasInclusions;
+    hasExclusions = builder.hasExclusions;
+    size = builder.size;
+    ipv4 = builder.ipv4;
+    ipv6 = builder.ipv6;
+  }
+
+  /**
+   * @param commaSeparatedRanges the ranges, empty entries are ignored
+   * @return the compiled ranges
+   * @throws IllegalArgumentException if an entry is not a valid address, block or wildcard
+   */
+  public static IpRangeSet parse(String commaSeparatedRanges) {
+    Builder builder = builder();
+    if (commaSeparatedRanges != null) {
+      for (String entry : commaSeparatedRanges.split(",")) {
+        if (!entry.trim().isEmpty()) {
+          builder.add(entry);
+        }
+      }
+    }
+    return builder.build();
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * @param address an IPv4 or IPv6 address literal
+   * @return whether the address is in the set, false if it is not a valid address
+   */
+  public boolean contains(String address) {
+    long[] parsed = new long[2];
+    int bits = parseAddress(address, parsed);
+    if (bits == 0) {
+      return false;
+    }
+    byte decision = bits == IPV4_BITS ? ipv4.lookup(parsed[0], parsed[1]) : ipv6.lookup(parsed[0], parsed[1]);
+    if (decision == NONE) {
+      return hasExclusions && !hasInclusions;
+    }
+    return decision == INCLUDE;
+  }
+
+  /**
+   * @return whether every address is in the set, i.e. it contains a plain <code>*</code> and no exclusion
+   */
+  public boolean containsAll() {
+    return includesAll && !hasExclusions;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * @return the number of entries the set was built from
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @param address the text to check
+   * @return whether the text is a valid IPv4 or IPv6 address literal
+   */
+  public static boolean isAddress(String address) {
+    return parseAddress(address, new long[2]) != 0;
+  }
+
+  public static final class Builder {
+    private final Trie ipv4 = new Trie(IPV4_BITS);
+    private final Trie ipv6 = new Trie(IPV6_BITS);
+    private boolean includesAll;
+    private boolean hasInclusions;
+    private boolean hasExclusions;
+    private int size;
+    private boolean built;
+
+    Builder() {
+    }
+
+    /**
+     * @param entry an address, CIDR block or wildcard, optionally prefixed with <code>!</code>
+     * @return this builder
+     * @throws IllegalArgumentException if the entry is not valid
+     */
+    public Builder add(String entry) {
+      if (built) {
+        throw new IllegalStateException("IP range set already built");
+      }
+      String range = entry.trim();
+      byte decision = INCLUDE;
+      if (range.startsWith("!")) {
+        decision = EXCLUDE;
+        range = range.substring(1).trim();
+      }
+      if (range.isEmpty()) {
+        throw new IllegalArgumentException("Empty IP range: " + entry);
+      }
+      if ("*".equals(range)) {
+        ipv4.insert(0, 0, 0, decision);
+        ipv6.insert(0, 0, 0, decision);
+        includesAll |= decision == INCLUDE;
+      } else if (range.indexOf('*') >= 0) {
+        addWildcard(entry, range, decision);
+      } else {
+        addBlock(entry, range, decision);
+      }
+      hasInclusions |= decision == INCLUDE;
+      hasExclusions |= decision == EXCLUDE;
+      size++;
+      return this;
+    }
+
+    /**
+     * @return the compiled ranges, the builder cannot be used afterwards
+     */
+    public IpRangeSet build() {
+      built = true;
+      return new IpRangeSet(this);
+    }
+
+    private void addBlock(String entry, String range, byte decision) {
+      String address = range;
+      int length = -1;
+      int slash = range.indexOf('/');
+      if (slash >= 0) {
+        address = range.substring(0, slash);
+        length = parseNumber(range.substring(slash + 1), 10, IPV6_BITS);
+        if (length < 0) {
+          throw new IllegalArgumentException("Invalid prefix length in IP range: " + entry);
+        }
+      }
+      long[] parsed = new long[2];
+      int bits = parseAddress(address, parsed);
+      if (bits == 0) {
+        throw new IllegalArgumentException("Invalid address in IP range: " + entry);
+      }
+      if (length < 0) {
+        length = bits;
+      } else if (bits == IPV4_BITS && isMappedIpv4Literal(address)) {
+        /* A block written as IPv4-mapped IPv6 is an IPv4 block */
+        if (length < IPV6_BITS - IPV4_BITS) {
+          throw new IllegalArgumentException("Prefix length of IPv4-mapped IP range must be at least 96: " + entry);
+        }
+        length -= IPV6_BITS - IPV4_BITS;
+      } else if (length > bits) {
+        throw new IllegalArgumentException("Prefix length too long in IP range: " + entry);
+      }
+      (bits == IPV4_BITS ? ipv4 : ipv6).insert(parsed[0], parsed[1], length, decision);
+    }
+
+    private void addWildcard(String entry, String range, byte decision) {
+      int star = range.indexOf('*');
+      if (star != range.length() - 1) {
+        throw new IllegalArgumentException("Wildcard must be the last character of IP range: " + entry);
+      }
+      String prefix = range.substring(0, star);
+      if (prefix.indexOf(':') >= 0) {
+        addWildcard(entry, prefix, ':', 8, 16, 0xffff, ipv6, decision);
+      } else {
+        addWildcard(entry, prefix, '.', 4, 10, 0xff, ipv4, decision);
+      }
+    }
+
+    /*
+     * Turns the text before the wildcard into blocks: complete parts are fixed and a
+     * partial last part expands into every part value whose text starts with it.
+     */
+    private static void addWildcard(String entry, String prefix, char separator, int parts, int radix,
+                                    int maxPart, Trie trie, byte decision) {
+      int partBits = trie.width / parts;
+      String[] fixed = prefix.split(Pattern.quote(String.valueOf(separator)), -1);
+      int complete = fixed.length - 1;
+      if (complete >= parts || prefix.contains("::")) {
+        throw new IllegalArgumentException("Invalid wildcard IP range: " + entry);
+      }
+      long hi = 0;
+      long lo = 0;
+      for (int i = 0; i < complete; i++) {
+        int value = parseNumber(fixed[i], radix, maxPart);
+        if (value < 0) {
+          throw new IllegalArgumentException("Invalid wildcard IP range: " + entry);
+        }
+        long[] shifted = setBits(hi, lo, i * partBits, partBits, value);
+        hi = shifted[0];
+        lo = shifted[1];
+      }
+      String partial = fixed[complete].toLowerCase(Locale.ROOT);
+      if (partial.isEmpty()) {
+        trie.insert(hi, lo, complete * partBits, decision);
+        return;
+      }
+      boolean any = false;
+      for (int value = 0; value <= maxPart; value++) {
+        if (Integer.toString(value, radix).startsWith(partial)) {
+          long[] shifted = setBits(hi, lo, complete * partBits, partBits, value);
+          trie.insert(shifted[0], shifted[1], (complete + 1) * partBits, decision);
+          any = true;
+        }
+      }
+      if (!any) {
+        throw new IllegalArgumentException("Invalid wildcard IP range: " + entry);
+      }
+    }
+  }
+
+  /* Sets the given number of bits starting at bit offset, counted from the most significant bit */
+  private static long[] setBits(long hi, long lo, int offset, int count, long value) {
+    if (offset < 64) {
+      hi |= value << (64 - offset - count);
+    } else {
+      lo |= value << (128 - offset - count);
+    }
+    return new long[]{hi, lo};
+  }
+
+  private static boolean isMappedIpv4Literal(String address) {
+    return address.indexOf(':') >= 0;
+  }
+
+  /*
+   * Parses an address literal into its bits, left aligned in two longs.
+   * Returns 32 for IPv4 and IPv4-mapped IPv6 addresses, 128 for other IPv6 addresses and 0 if invalid.
+   */
+  static int parseAddress(String address, long[] result) {
+    if (address == null) {
+      return 0;
+    }
+    String text = address.trim();
+    if (text.startsWith("[") && text.endsWith("]")) {
+      text = text.substring(1, text.length() - 1);
+    }
+    int zone = text.indexOf('%');
+    if (zone >= 0) {
+      text = text.substring(0, zone);
+    }
+    if (text.indexOf(':') < 0) {
+      long ipv4 = parseIpv4(text);
+      if (ipv4 < 0) {
+        return 0;
+      }
+      result[0] = ipv4 << 32;
+      result[1] = 0;
+      return IPV4_BITS;
+    }
+    if (!parseIpv6(text, result)) {
+      return 0;
+    }
+    if (result[0] == 0 && (result[1] >>> 32) == 0xffffL) {
+      result[0] = result[1] << 32;
+      result[1] = 0;
+      return IPV4_BITS;
+    }
+    return IPV6_BITS;
+  }
+
+  /* Returns the address as an unsigned int or -1 if invalid */
+  private static long parseIpv4(String text) {
+    long value = 0;
+    int octets = 0;
+    int octet = 0;
+    int digits = 0;
+    for (int i = 0; i <= text.length(); i++) {
+      char c = i < text.length() ? text.charAt(i) : '.';
+      if (c == '.') {
+        if (digits == 0 || octet > 0xff || ++octets > 4) {
+          return -1;
+        }
+        value = (value << 8) | octet;
+        octet = 0;
+        digits = 0;
+      } else if (c >= '0' && c <= '9' && digits < 3) {
+        octet = octet * 10 + (c - '0');
+        digits++;
+      } else {
+        return -1;
+      }
+    }
+    return octets == 4 ? value : -1;
+  }
+
+  private static boolean parseIpv6(String text, long[] result) {
+    int[] groups = new int[8];
+    int count = 0;
+    int compressed = -1;
+    String[] parts;
+    int doubleColon = text.indexOf("::");
+    if (doubleColon >= 0) {
+      if (text.indexOf("::", doubleColon + 1) >= 0) {
+        return false;
+      }
+      String head = text.substring(0, doubleColon);
+      String tail = text.substring(doubleColon + 2);
+      String[] headParts = head.isEmpty() ? new String[0] : head.split(":", -1);
+      String[] tailParts = tail.isEmpty() ? new String[0] : tail.split(":", -1);
+      parts = new String[headParts.length + tailParts.length];
+      System.arraycopy(headParts, 0, parts, 0, headParts.length);
+      System.arraycopy(tailParts, 0, parts, headParts.length, tailParts.length);
+      compressed = headParts.length;
+    } else {
+      parts = text.split(":", -1);
+    }
+    for (int i = 0; i < parts.length; i++) {
+      String part = parts[i];
+      if (part.indexOf('.') >= 0) {
+        /* Only the very last part may be an IPv4 address */
+        if (i != parts.length - 1 || (compressed >= 0 && i < compressed)) {
+          return false;
+        }
+        long ipv4 = parseIpv4(part);
+        if (ipv4 < 0 || count + 2 > 8) {
+          return false;
+        }
+        groups[count++] = (int) (ipv4 >>> 16);
+        groups[count++] = (int) (ipv4 & 0xffff);
+      } else {
+        int group = parseNumber(part, 16, 0xffff);
+        if (group < 0 || part.length() > 4 || count == 8) {
+          return false;
+        }
+        groups[count++] = group;
+      }
+    }
+    if (compressed >= 0) {
+      if (count == 8) {
+        return false;
+      }
+      /* The head holds one group per part, the zeros go between head and tail */
+      int missing = 8 - count;
+      System.arraycopy(groups, compressed, groups, compressed + missing, count - compressed);
+      for (int i = compressed; i < compressed + missing; i++) {
+        groups[i] = 0;
+      }
+    } else if (count != 8) {
+      return false;
+    }
+    long hi = 0;
+    long lo = 0;
+    for (int i = 0; i < 4; i++) {
+      hi = (hi << 16) | groups[i];
+      lo = (lo << 16) | groups[i + 4];
+    }
+    result[0] = hi;
+    result[1] = lo;
+    return true;
+  }
+
+  /* Parses a non empty unsigned number no larger than max, returns -1 if invalid */
+  private static int parseNumber(String text, int radix, int max) {
+    if (text.isEmpty() || text.length() > 5) {
+      return -1;
+    }
+    int value = 0;
+    for (int i = 0; i < text.length(); i++) {
+      int digit = Character.digit(text.charAt(i), radix);
+      if (digit < 0) {
+        return -1;
+      }
+      value = value * radix + digit;
+    }
+    return value > max ? -1 : value;
+  }
+
+  /*
+   * A path compressed binary trie over addresses of a fixed width. Keys are left
+   * aligned in two longs, every node covers the prefix of its key with its length.
+   */
+  private static final class Trie {
+    private final int width;
+    private Node root;
+
+    Trie(int width) {
+      this.width = width;
+    }
+
+    void insert(long hi, long lo, int length, byte decision) {
+      long[] masked = mask(hi, lo, length);
+      root = insert(root, masked[0], masked[1], length, decision);
+    }
+
+    private Node insert(Node node, long hi, long lo, int length, byte decision) {
+      if (node == null) {
+        return new Node(hi, lo, length, decision);
+      }
+      int common = Math.min(commonPrefixLength(node.hi, node.lo, hi, lo), Math.min(node.length, length));
+      if (common == node.length) {
+        if (length == node.length) {
+          /* An exclusion wins over an inclusion of the same range */
+          node.decision = (byte) Math.max(node.decision, decision);
+        } else if (bit(hi, lo, node.length) == 0) {
+          node.left = insert(node.left, hi, lo, length, decision);
+        } else {
+          node.right = insert(node.right, hi, lo, length, decision);
+        }
+        return node;
+      }
+      Node parent;
+      if (common == length) {
+        parent = new Node(hi, lo, length, decision);
+      } else {
+        long[] masked = mask(hi, lo, common);
+        parent = new Node(masked[0], masked[1], common, NONE);
+        Node leaf = new Node(hi, lo, length, decision);
+        if (bit(hi, lo, common) == 0) {
+          parent.left = leaf;
+        } else {
+          parent.right = leaf;
+        }
+      }
+      if (bit(node.hi, node.lo, common) == 0) {
+        parent.left = node;
+      } else {
+        parent.right = node;
+      }
+      return parent;
+    }
+
+    byte lookup(long hi, long lo) {
+      byte decision = NONE;
+      Node node = root;
+      while (node != null && commonPrefixLength(node.hi, node.lo, hi, lo) >= node.length) {
+        if (node.decision != NONE) {
+          decision = node.decision;
+        }
+        if (node.length >= width) {
+          break;
+        }
+        node = bit(hi, lo, node.length) == 0 ? node.left : node.right;
+      }
+      return decision;
+    }
+
+    private static int bit(long hi, long lo, int index) {
+      return (int) (index < 64 ? (hi >>> (63 - index)) & 1 : (lo >>> (127 - index)) & 1);
+    }
+
+    private static int commonPrefixLength(long hi1, long lo1, long hi2, long lo2) {
+      long hi = hi1 ^ hi2;
+      if (hi != 0) {
+        return Long.numberOfLeadingZeros(hi);
+      }
+      return 64 + Long.numberOfLeadingZeros(lo1 ^ lo2);
+    }
+
+    private static long[] mask(long hi, long lo, int length) {
+      if (length == 0) {
+        return new long[]{0, 0};
+      }
+      if (length <= 64) {
+        return new long[]{hi & (-1L << (64 - length)), 0};
+      }
+      return new long[]{hi, length == 128 ? lo : lo & (-1L << (128 - length))};
+    }
+  }
+
+  private static final class Node {
+    private final long hi;
+    private final long lo;
+    private final int length;
+    private byte decision;
+    private Node left;
+    private Node right;
+
+    Node(long hi, long lo, int length, byte decision) {
+      this.hi = hi;
+      this.lo = lo;
+      this.length = length;
+      this.decision = decision;
+    }
+  }
+}
@@ -0,0 +1,290 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.audit;
+
+import org.apache.knox.gateway.audit.log4j.appender.AsyncStoreAndForwardAppender;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.Logger;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class AsyncStoreAndForwardAppenderTest {
+  private static final String FORWARD = "audit.test.async.forward";
+  private static final String FLAKY_FORWARD = "audit.test.async.flaky";
+  private static final int PRODUCERS = 4;
+  private static final int EVENTS_PER_PRODUCER = 5000;
+
+  private final File dir = new File( "target/audit-async" );
+  private ForwardTarget target;
+
+  @Before
+  public void setup() throws Exception {
+    delete( dir );
+    target = new ForwardTarget();
+    target.start();
+    ( (Logger)LogManager.getLogger( FORWARD ) ).addAppender( target );
+  }
+
+  @After
+  public void cleanup() throws Exception {
+    ( (Logger)LogManager.getLogger( FORWARD ) ).removeAppender( target );
+    target.stop();
+    delete( dir );
+  }
+
+  @Test(timeout = 120000)
+  @SuppressWarnings("PMD.DoNotUseThreads")
+  public void testNoLossOrDuplicationAfterForwarderDies() throws Exception {
+    int total = PRODUCERS * EVENTS_PER_PRODUCER;
+    target.killAt.set( total / 3 );
+
+    AsyncStoreAndForwardAppender first = createAppender();
+    first.start();
+    List<Thread> producers = new ArrayList<>();
+    for( int p = 0; p < PRODUCERS; p++ ) {
+      final int producer = p;
+      Thread thread = new Thread( () -> {
+        for( int i = 0; i < EVENTS_PER_PRODUCER; i++ ) {
+          first.append( event( producer + "-" + i ) );
+        }
+      } );
+      producers.add( thread );
+      thread.start();
+    }
+    for( Thread thread : producers ) {
+      thread.join();
+    }
+    while( first.isForwarderRunning() ) {
+      Thread.sleep( 20 );
+    }
+    first.stop();
+    assertThat( first.getDroppedCount(), is( 0L ) );
+    assertThat( first.getWrittenCount(), is( (long)total ) );
+    assertThat( target.received.size(), is( total / 3 - 1 ) );
+
+    AsyncStoreAndForwardAppender second = createAppender();
+    second.start();
+    while( target.received.size() < total ) {
+      Thread.sleep( 20 );
+    }
+    Thread.sleep( 200 );
+    second.stop();
+
+    assertThat( target.received.size(), is( total ) );
+    assertThat( new HashSet<>( target.received ).size(), is( total ) );
+    assertThat( second.getPendingCount(), is( 0L ) );
+  }
+
+  @Test(timeout = 60000)
+  public void testTornRecordIsDiscardedOnRecovery() throws Exception {
+    target.killAt.set( 1 );
+    AsyncStoreAndForwardAppender first = createAppender();
+    first.start();
+    for( int i = 0; i < 100; i++ ) {
+      first.append( event( Integer.toString( i ) ) );
+    }
+    while( first.isForwarderRunning() ) {
+      Thread.sleep( 20 );
+    }
+    first.stop();
+
+    // Simulate a crash in the middle of writing a record.
+    File[] segments = dir.listFiles( ( d, name ) -> name.startsWith( "segment-" ) );
+    Arrays.sort( segments );
+    try( RandomAccessFile file = new RandomAccessFile( segments[ segments.length - 1 ], "rw" ) ) {
+      file.seek( file.length() );
+      file.writeInt( 1000 );
+      file.writeInt( 0 );
+      file.write( "torn".getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+    AsyncStoreAndForwardAppender second = createAppender();
+    second.start();
+    while( target.received.size() < 100 ) {
+      Thread.sleep( 20 );
+    }
+    second.append( event( "after" ) );
+    while( target.received.size() < 101 ) {
+      Thread.sleep( 20 );
+    }
+    second.stop();
+
+    Set<String> expected = new HashSet<>();
+    for( int i = 0; i < 100; i++ ) {
+      expected.add( Integer.toString( i ) );
+    }
+    expected.add( "after" );
+    assertThat( new HashSet<>( target.received ), is( expected ) );
+    assertThat( target.received.size(), is( 101 ) );
+  }
+
+  @Test(timeout = 60000)
+  public void testEachAppenderReceivesEventsOnceAcrossRetriesAndRestart() throws Exception {
+    final int total = 1000;
+    final AtomicReference<String> killOn = new AtomicReference<>( Integer.toString( total / 2 ) );
+    final FlakyTarget fives = new FlakyTarget( "async-audit-fives", killOn, 5 );
+    final FlakyTarget sevens = new FlakyTarget( "async-audit-sevens", killOn, 7 );
+    final Logger forward = (Logger)LogManager.getLogger( FLAKY_FORWARD );
+    fives.start();
+    sevens.start();
+    forward.addAppender( fives );
+    forward.addAppender( sevens );
+
+    AsyncStoreAndForwardAppender first = createAppender( FLAKY_FORWARD );
+    AsyncStoreAndForwardAppender second = createAppender( FLAKY_FORWARD );
+    try {
+      first.start();
+      for( int i = 0; i < total; i++ ) {
+        first.append( event( Integer.toString( i ) ) );
+      }
+      while( first.isForwarderRunning() || first.getWrittenCount() < total ) {
+        Thread.sleep( 20 );
+      }
+      assertThat( first.getRetryCount() > 0, is( true ) );
+      assertThat( fives.received.size(), is( total / 2 ) );
+      assertThat( sevens.received.size(), is( total / 2 ) );
+
+      // The first appender is abandoned without stopping it, as if the process had died.
+      second.start();
+      while( fives.received.size() < total || sevens.received.size() < total || second.getPendingCount() > 0 ) {
+        Thread.sleep( 20 );
+      }
+      Thread.sleep( 200 );
+      second.stop();
+    } finally {
+      // Releases the threads and files of the abandoned appender
+      first.stop();
+      forward.removeAppender( fives );
+      forward.removeAppender( sevens );
+      fives.stop();
+      sevens.stop();
+    }
+
+    for( FlakyTarget target : Arrays.asList( fives, sevens ) ) {
+      assertThat( target.received.size(), is( total ) );
+      assertThat( new HashSet<>( target.received ).size(), is( total ) );
+    }
+    assertThat( second.getFailedCount(), is( 0L ) );
+  }
+
+  private AsyncStoreAndForwardAppender createAppender() throws IOException {
+    return createAppender( FORWARD );
+  }
+
+  private AsyncStoreAndForwardAppender createAppender( String forward ) throws IOException {
+    return AsyncStoreAndForwardAppender.createAppender( "async-audit", null, dir.getCanonicalPath(),
+        PRODUCERS * EVENTS_PER_PRODUCER, 256, 64 * 1024, "interval", 50, 3, 10, forward );
+  }
+
+  private static void delete( File file ) {
+    File[] children = file.listFiles();
+    if( children != null ) {
+      for( File child : children ) {
+        delete( child );
+      }
+    }
+    if( file.exists() ) {
+      assertThat( "Failed to delete " + file, file.delete(), is( true ) );
+    }
+  }
+
+  private static LogEvent event( String message ) {
+    return Log4jLogEvent.newBuilder()
+        .setLoggerName( "audit" )
+        .setLevel( Level.INFO )
+        .setMessage( new SimpleMessage( message ) )
+        .build();
+  }
+
+  /* Stands in for a crash of the forwarder thread */
+  private static class ForwarderKilled extends Error {
+    private static final long serialVersionUID = 1L;
+  }
+
+  private static class ForwardTarget extends AbstractAppender {
+    private final Queue<String> received = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger killAt = new AtomicInteger();
+    private final AtomicInteger count = new AtomicInteger();
+
+    ForwardTarget() {
+      super( "async-audit-target", null, null, true, null );
+    }
+
+    @Override
+    public void append( LogEvent event ) {
+      if( count.incrementAndGet() == killAt.get() ) {
+        throw new ForwarderKilled();
+      }
+      received.add( event.getMessage().getFormattedMessage() );
+    }
+  }
+
+  /*
+   * Fails the first attempt to take every n-th event and kills the forwarder on the
+   * given event, before any appender took it.
+   */
+  private static class FlakyTarget extends AbstractAppender {
+    private final Queue<String> received = new ConcurrentLinkedQueue<>();
+    private final Set<String> failed = ConcurrentHashMap.newKeySet();
+    private final AtomicReference<String> killOn;
+    private final int failEvery;
+
+    FlakyTarget( String name, AtomicReference<String> killOn, int failEvery ) {
+      super( name, null, null, true, null );
+      this.killOn = killOn;
+      this.failEvery = failEvery;
+    }
+
+    @Override
+    public void append( LogEvent event ) {
+      String message = event.getMessage().getFormattedMessage();
+      String kill = killOn.get();
+      if( message.equals( kill ) && killOn.compareAndSet( kill, null ) ) {
+        throw new ForwarderKilled();
+      }
+      if( Integer.parseInt( message ) % failEvery == 0 && failed.add( message ) ) {
+        throw new IllegalStateException( "Failed to take " + message );
+      }
+      received.add( message );
+    }
+  }
+}
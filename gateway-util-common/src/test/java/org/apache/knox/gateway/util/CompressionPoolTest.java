@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.knox.gateway.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompressionPoolTest {
+  private static final byte[] CONTENT = content();
+
+  @Test
+  public void testGzipRoundTrip() throws Exception {
+    // the streams reuse the pooled deflaters, each of them must start over
+    for (int i = 0; i < 3; i++) {
+      final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      try (OutputStream output = CompressionPool.gzipOutputStream(compressed, Deflater.DEFAULT_COMPRESSION, 512)) {
+        output.write(CONTENT, 0, 1000);
+        output.write(CONTENT[1000]);
+        output.write(CONTENT, 1001, CONTENT.length - 1001);
+      }
+      try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray()))) {
+        assertArrayEquals(CONTENT, readAll(input));
+      }
+    }
+  }
+
+  @Test
+  public void testDeflateRoundTrip() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      try (OutputStream output = CompressionPool.deflateOutputStream(compressed, Deflater.BEST_SPEED, 512)) {
+        output.write(CONTENT);
+      }
+      try (InputStream input = new InflaterInputStream(new ByteArrayInputStream(compressed.toByteArray()))) {
+        assertArrayEquals(CONTENT, readAll(input));
+      }
+    }
+  }
+
+  @Test
+  public void testInflate() throws Exception {
+    final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (OutputStream output = new DeflaterOutputStream(compressed)) {
+      output.write(CONTENT);
+    }
+    for (int i = 0; i < 3; i++) {
+      try (InputStream input = CompressionPool.inflateInputStream(new ByteArrayInputStream(compressed.toByteArray()), 512)) {
+        assertArrayEquals(CONTENT, readAll(input));
+      }
+    }
+  }
+
+  @Test
+  public void testCompressionLevel() throws Exception {
+    final ByteArrayOutputStream stored = new ByteArrayOutputStream();
+    try (OutputStream output = CompressionPool.gzipOutputStream(stored, Deflater.NO_COMPRESSION, 512)) {
+      output.write(CONTENT);
+    }
+    final ByteArrayOutputStream best = new ByteArrayOutputStream();
+    try (OutputStream output = CompressionPool.gzipOutputStream(best, Deflater.BEST_COMPRESSION, 512)) {
+      output.write(CONTENT);
+    }
+    assertTrue(stored.size() > CONTENT.length);
+    assertTrue(best.size() < CONTENT.length / 2);
+  }
+
+  private static byte[] readAll(InputStream input) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[4096];
+    int read;
+    while ((read = input.read(buffer)) != -1) {
+      bytes.write(buffer, 0, read);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static byte[] content() {
+    final Random random = new Random(3);
+    final StringBuilder content = new StringBuilder(110_000);
+    while (content.length() < 100_000) {
+      content.append("{\"path\":\"/user/").append(random.nextInt(100)).append("\"},");
+    }
+    return content.toString().getBytes(StandardCharsets.UTF_8);
+  }
+}
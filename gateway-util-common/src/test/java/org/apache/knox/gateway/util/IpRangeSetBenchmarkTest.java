@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.apache.knox.gateway.util;
+
+import org.apache.knox.test.category.ManualTests;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares lookups in an {@link IpRangeSet} of 100k ranges with a linear scan of the
+ * same entries as {@link IpAddressValidator} did before it was backed by the range set.
+ * Run with <code>mvn test -Dtest=IpRangeSetBenchmarkTest -DexcludedGroups=none</code>.
+ */
+@Category(ManualTests.class)
+public class IpRangeSetBenchmarkTest {
+  private static final int RANGES = 100_000;
+  private static final int LOOKUPS = 1_000_000;
+
+  @Test
+  public void benchmark() {
+    Random random = new Random(7);
+    String[] entries = new String[RANGES];
+    String[] prefixes = new String[RANGES];
+    for (int i = 0; i < RANGES; i++) {
+      int a = 1 + random.nextInt(223);
+      int b = random.nextInt(256);
+      int c = random.nextInt(256);
+      entries[i] = a + "." + b + "." + c + ".*";
+      prefixes[i] = a + "." + b + "." + c + ".";
+    }
+    String[] addresses = new String[4096];
+    for (int i = 0; i < addresses.length; i++) {
+      addresses[i] = (1 + random.nextInt(223)) + "." + random.nextInt(256) + "." + random.nextInt(256) + "."
+          + random.nextInt(256);
+    }
+
+    long start = System.nanoTime();
+    IpRangeSet set = IpRangeSet.parse(String.join(",", entries));
+    long compileNanos = System.nanoTime() - start;
+
+    int hits = 0;
+    start = System.nanoTime();
+    for (int i = 0; i < LOOKUPS; i++) {
+      if (set.contains(addresses[i & (addresses.length - 1)])) {
+        hits++;
+      }
+    }
+    long trieNanos = System.nanoTime() - start;
+
+    int scanLookups = LOOKUPS / 1000;
+    int scanHits = 0;
+    start = System.nanoTime();
+    for (int i = 0; i < scanLookups; i++) {
+      String address = addresses[i & (addresses.length - 1)];
+      for (String prefix : prefixes) {
+        if (address.startsWith(prefix)) {
+          scanHits++;
+          break;
+        }
+      }
+    }
+    long scanNanos = System.nanoTime() - start;
+
+    double trieLookupNanos = (double) trieNanos / LOOKUPS;
+    double scanLookupNanos = (double) scanNanos / scanLookups;
+    System.out.println(String.format(Locale.ROOT,
+        "%d ranges compiled in %d ms; trie %.1f ns/lookup (%d hits), linear scan %.1f ns/lookup (%d hits)",
+        RANGES, TimeUnit.NANOSECONDS.toMillis(compileNanos), trieLookupNanos, hits, scanLookupNanos, scanHits));
+    assertTrue(trieLookupNanos < scanLookupNanos);
+  }
+}
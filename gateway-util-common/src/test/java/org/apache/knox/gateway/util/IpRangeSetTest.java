@@ -0,0 +1,263 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.apache.knox.gateway.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class IpRangeSetTest {
+
+  @Test
+  public void testExactAddresses() {
+    IpRangeSet set = IpRangeSet.parse("127.0.0.1, 0:0:0:0:0:0:0:1,2001:db8::8:800:200c:417a");
+    assertTrue(set.contains("127.0.0.1"));
+    assertFalse(set.contains("127.0.0.0"));
+    assertFalse(set.contains("127.0.0.2"));
+    assertTrue(set.contains("::1"));
+    assertTrue(set.contains("[::1]"));
+    assertTrue(set.contains("0:0:0:0:0:0:0:1%lo"));
+    assertFalse(set.contains("::2"));
+    assertTrue(set.contains("2001:DB8:0:0:8:800:200C:417A"));
+    assertFalse(set.contains("2001:db8::8:800:200c:417b"));
+    assertEquals(3, set.size());
+  }
+
+  @Test
+  public void testIpv4CidrBoundaries() {
+    for (int length = 0; length <= 32; length++) {
+      IpRangeSet set = IpRangeSet.parse("10.20.30.40/" + length);
+      long mask = length == 0 ? 0 : (0xffffffffL << (32 - length)) & 0xffffffffL;
+      long first = ipv4(10, 20, 30, 40) & mask;
+      long last = first | (~mask & 0xffffffffL);
+      assertTrue("first of /" + length, set.contains(toIpv4(first)));
+      assertTrue("last of /" + length, set.contains(toIpv4(last)));
+      if (first > 0) {
+        assertFalse("before /" + length, set.contains(toIpv4(first - 1)));
+      }
+      if (last < 0xffffffffL) {
+        assertFalse("after /" + length, set.contains(toIpv4(last + 1)));
+      }
+    }
+  }
+
+  @Test
+  public void testIpv6CidrBoundaries() {
+    IpRangeSet set = IpRangeSet.parse("2001:db8::/32,fe80::/10,::/128");
+    assertTrue(set.contains("2001:db8::"));
+    assertTrue(set.contains("2001:db8:ffff:ffff:ffff:ffff:ffff:ffff"));
+    assertFalse(set.contains("2001:db7:ffff:ffff:ffff:ffff:ffff:ffff"));
+    assertFalse(set.contains("2001:db9::"));
+    assertTrue(set.contains("fe80::1"));
+    assertTrue(set.contains("febf:ffff:ffff:ffff:ffff:ffff:ffff:ffff"));
+    assertFalse(set.contains("fec0::"));
+    assertFalse(set.contains("fe7f:ffff:ffff:ffff:ffff:ffff:ffff:ffff"));
+    assertTrue(set.contains("::"));
+    assertFalse(set.contains("::1"));
+
+    // Boundaries that cross from the upper to the lower 64 bits
+    for (int length = 60; length <= 68; length++) {
+      set = IpRangeSet.parse("1:2:3:4:8000::/" + length);
+      assertTrue(set.contains("1:2:3:4:8000::"));
+      assertEquals("/" + length, length <= 64, set.contains("1:2:3:4::"));
+      assertEquals("/" + length, length <= 64, set.contains("1:2:3:4:7fff:ffff:ffff:ffff"));
+      assertTrue(set.contains("1:2:3:4:87ff:ffff:ffff:ffff"));
+    }
+  }
+
+  @Test
+  public void testWildcards() {
+    IpRangeSet set = IpRangeSet.parse("193.*,192.168.1.*,10.1*,0:0:0:0:0:0:*");
+    assertTrue(set.contains("193.0.0.0"));
+    assertTrue(set.contains("193.255.255.255"));
+    assertFalse(set.contains("194.0.0.0"));
+    assertTrue(set.contains("192.168.1.0"));
+    assertTrue(set.contains("192.168.1.255"));
+    assertFalse(set.contains("192.168.2.1"));
+    assertTrue(set.contains("10.1.0.0"));
+    assertTrue(set.contains("10.15.0.0"));
+    assertTrue(set.contains("10.199.255.255"));
+    assertFalse(set.contains("10.2.0.0"));
+    assertFalse(set.contains("10.20.0.0"));
+    assertTrue(set.contains("0:0:0:0:0:0:0:2"));
+    assertTrue(set.contains("::ffff"));
+    assertFalse(set.contains("0:0:0:0:0:2:2:2"));
+    assertFalse(set.containsAll());
+  }
+
+  @Test
+  public void testWildcardMatchesEverything() {
+    IpRangeSet set = IpRangeSet.parse("*");
+    assertTrue(set.containsAll());
+    assertTrue(set.contains("0.0.0.0"));
+    assertTrue(set.contains("255.255.255.255"));
+    assertTrue(set.contains("::"));
+    assertTrue(set.contains("ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff"));
+    assertFalse(set.contains("not-an-address"));
+  }
+
+  @Test
+  public void testExclusions() {
+    IpRangeSet set = IpRangeSet.parse("10.0.0.0/8,!10.1.0.0/16,10.1.2.0/24,!10.1.2.3");
+    assertTrue(set.contains("10.0.0.1"));
+    assertFalse(set.contains("10.1.0.1"));
+    assertTrue(set.contains("10.1.2.4"));
+    assertFalse(set.contains("10.1.2.3"));
+    assertFalse(set.contains("11.0.0.0"));
+
+    // Only exclusions: everything else is contained
+    set = IpRangeSet.parse("!192.168.0.0/16");
+    assertTrue(set.contains("10.0.0.1"));
+    assertTrue(set.contains("::1"));
+    assertFalse(set.contains("192.168.7.7"));
+
+    // An exclusion wins over an inclusion of the same range
+    set = IpRangeSet.parse("10.0.0.0/8,!10.0.0.0/8");
+    assertFalse(set.contains("10.0.0.1"));
+
+    set = IpRangeSet.parse("*,!127.0.0.1");
+    assertFalse(set.containsAll());
+    assertTrue(set.contains("127.0.0.2"));
+    assertFalse(set.contains("127.0.0.1"));
+  }
+
+  @Test
+  public void testIpv4MappedIpv6() {
+    IpRangeSet set = IpRangeSet.parse("10.0.0.0/8");
+    assertTrue(set.contains("::ffff:10.1.2.3"));
+    assertTrue(set.contains("::ffff:a01:203"));
+    assertTrue(set.contains("0:0:0:0:0:ffff:10.255.255.255"));
+    assertFalse(set.contains("::ffff:11.0.0.0"));
+    // IPv4-compatible and other embedded forms are not mapped addresses
+    assertFalse(set.contains("::10.1.2.3"));
+    assertFalse(set.contains("64:ff9b::10.1.2.3"));
+
+    set = IpRangeSet.parse("::ffff:192.168.0.0/112,::ffff:172.16.0.1");
+    assertTrue(set.contains("192.168.255.255"));
+    assertFalse(set.contains("192.169.0.0"));
+    assertTrue(set.contains("172.16.0.1"));
+    assertTrue(set.contains("::ffff:172.16.0.1"));
+
+    set = IpRangeSet.parse("::ffff:0:0/96");
+    assertTrue(set.contains("0.0.0.0"));
+    assertTrue(set.contains("255.255.255.255"));
+    assertFalse(set.contains("::1"));
+  }
+
+  @Test
+  public void testEmptySet() {
+    IpRangeSet set = IpRangeSet.parse(" , ,");
+    assertTrue(set.isEmpty());
+    assertFalse(set.contains("127.0.0.1"));
+    assertFalse(set.contains("::1"));
+    assertFalse(IpRangeSet.parse(null).contains("127.0.0.1"));
+  }
+
+  @Test
+  public void testAddressParsing() {
+    String[] valid = {"0.0.0.0", "255.255.255.255", "::", "::1", "1::", "1:2:3:4:5:6:7:8", "1::8",
+        "::ffff:1.2.3.4", "1:2:3:4:5:6:1.2.3.4", "[fe80::1]", "fe80::1%eth0", "001.002.003.004"};
+    for (String address : valid) {
+      assertTrue(address, IpRangeSet.isAddress(address));
+    }
+    String[] invalid = {null, "", "1.2.3", "1.2.3.4.5", "256.0.0.0", "1.2.3.-4", "1..2.3", "a.b.c.d",
+        "1:2:3:4:5:6:7", "1:2:3:4:5:6:7:8:9", "1:2:3:4:5:6:7::8", "1:::2", "1::2::3", "12345::",
+        ":1:2:3:4:5:6:7", "1:2:3:4:5:6:7:", "1.2.3.4::", "::1.2.3.4:5", "localhost", "293.168.1.1"};
+    for (String address : invalid) {
+      assertFalse(address, IpRangeSet.isAddress(address));
+    }
+  }
+
+  @Test
+  public void testInvalidEntries() {
+    String[] invalid = {"!", "10.0.0.0/33", "10.0.0.0/-1", "10.0.0.0/", "2001:db8::/129", "192.*.1.1",
+        "300.*", "::ffff:10.0.0.0/95", "1::*", "localhost", "10.0.0.0/8/8", "1:2:3:4:5:6:7:8:*"};
+    for (String entry : invalid) {
+      assertThrows(entry, IllegalArgumentException.class, () -> IpRangeSet.parse(entry));
+    }
+  }
+
+  @Test
+  public void testBuilderIsSingleUse() {
+    IpRangeSet.Builder builder = IpRangeSet.builder().add("10.0.0.0/8");
+    assertTrue(builder.build().contains("10.0.0.1"));
+    assertThrows(IllegalStateException.class, () -> builder.add("11.0.0.0/8"));
+  }
+
+  @Test
+  public void testAgreesWithLinearScan() {
+    Random random = new Random(42);
+    List<long[]> blocks = new ArrayList<>();
+    IpRangeSet.Builder builder = IpRangeSet.builder();
+    for (int i = 0; i < 2000; i++) {
+      long address = random.nextInt() & 0xffffffffL;
+      int length = 8 + random.nextInt(25);
+      boolean exclude = random.nextInt(4) == 0;
+      long mask = (0xffffffffL << (32 - length)) & 0xffffffffL;
+      blocks.add(new long[]{address & mask, length, exclude ? 1 : 0});
+      builder.add((exclude ? "!" : "") + toIpv4(address) + "/" + length);
+    }
+    IpRangeSet set = builder.build();
+    for (int i = 0; i < 20000; i++) {
+      long address;
+      if (i % 2 == 0) {
+        long[] block = blocks.get(random.nextInt(blocks.size()));
+        address = block[0] | (random.nextInt() & 0xffffffffL & ~((0xffffffffL << (32 - block[1])) & 0xffffffffL));
+      } else {
+        address = random.nextInt() & 0xffffffffL;
+      }
+      assertEquals(toIpv4(address), linearScan(blocks, address), set.contains(toIpv4(address)));
+      assertEquals(toIpv4(address), linearScan(blocks, address),
+          set.contains(String.format(Locale.ROOT, "::ffff:%x:%x", address >>> 16, address & 0xffff)));
+    }
+  }
+
+  /* The most specific matching block decides, an exclusion wins over an inclusion of the same block */
+  private static boolean linearScan(List<long[]> blocks, long address) {
+    int bestLength = -1;
+    boolean contained = false;
+    for (long[] block : blocks) {
+      long mask = (0xffffffffL << (32 - block[1])) & 0xffffffffL;
+      if ((address & mask) == block[0]) {
+        boolean exclude = block[2] == 1;
+        if (block[1] > bestLength) {
+          bestLength = (int) block[1];
+          contained = !exclude;
+        } else if (block[1] == bestLength && exclude) {
+          contained = false;
+        }
+      }
+    }
+    return contained;
+  }
+
+  static long ipv4(int a, int b, int c, int d) {
+    return ((long) a << 24) | (b << 16) | (c << 8) | d;
+  }
+
+  static String toIpv4(long address) {
+    return (address >>> 24) + "." + ((address >>> 16) & 0xff) + "." + ((address >>> 8) & 0xff) + "." + (address & 0xff);
+  }
+}